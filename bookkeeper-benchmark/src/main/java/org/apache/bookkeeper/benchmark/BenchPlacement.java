@@ -0,0 +1,413 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.benchmark;
+
+import io.netty.util.HashedWheelTimer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.EnsemblePlacementPolicy;
+import org.apache.bookkeeper.client.EnsemblePlacementPolicy.PlacementPolicyAdherence;
+import org.apache.bookkeeper.client.EnsemblePlacementPolicy.PlacementResult;
+import org.apache.bookkeeper.client.RackawareEnsemblePlacementPolicy;
+import org.apache.bookkeeper.client.RegionAwareEnsemblePlacementPolicy;
+import org.apache.bookkeeper.client.ZoneawareEnsemblePlacementPolicy;
+import org.apache.bookkeeper.common.util.ReflectionUtils;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.feature.SettableFeatureProvider;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.net.DNSToSwitchMapping;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.cli.PosixParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An offline simulation of the placement of ledgers on a large synthetic cluster, driving an ensemble placement
+ * policy without any bookie or metadata store.
+ *
+ * <p>The ledgers are first placed on the cluster, then bookies fail in rounds, alone or with their whole rack, and
+ * the ensembles of the ledgers stored on the failed bookies are changed, as the rereplication would do, before the
+ * failed bookies join the cluster back empty. The simulation reports the latency of the placement decisions, the
+ * skew of the distribution of the ledgers over the bookies and racks, and the volume of the rereplication.
+ */
+public class BenchPlacement {
+    static final Logger LOG = LoggerFactory.getLogger(BenchPlacement.class);
+
+    /**
+     * Layout of the synthetic cluster, and the placement policy placing ledgers on it.
+     */
+    enum Layout {
+        // racks only
+        RACKAWARE(RackawareEnsemblePlacementPolicy.class, "/rack-%2$d", "/default-rack"),
+        // racks in regions
+        REGIONAWARE(RegionAwareEnsemblePlacementPolicy.class, "/region-%1$d/rack-%2$d",
+                "/default-region/default-rack"),
+        // upgrade domains in zones
+        ZONEAWARE(ZoneawareEnsemblePlacementPolicy.class, "/zone-%1$d/upgradedomain-%2$d",
+                "/default-zone/default-upgradedomain");
+
+        private final Class<? extends EnsemblePlacementPolicy> policyClass;
+        private final String locationFormat;
+        private final String defaultLocation;
+
+        Layout(Class<? extends EnsemblePlacementPolicy> policyClass, String locationFormat, String defaultLocation) {
+            this.policyClass = policyClass;
+            this.locationFormat = locationFormat;
+            this.defaultLocation = defaultLocation;
+        }
+    }
+
+    /**
+     * Resolves the bookie addresses of the synthetic cluster to their network locations.
+     */
+    static class ClusterResolver implements DNSToSwitchMapping {
+        private final Map<String, String> locations;
+        private final String defaultLocation;
+
+        ClusterResolver(Map<String, String> locations, String defaultLocation) {
+            this.locations = locations;
+            this.defaultLocation = defaultLocation;
+        }
+
+        @Override
+        public List<String> resolve(List<String> names) {
+            List<String> resolved = new ArrayList<>(names.size());
+            for (String name : names) {
+                resolved.add(locations.getOrDefault(name, defaultLocation));
+            }
+            return resolved;
+        }
+
+        @Override
+        public void reloadCachedMappings() {
+        }
+
+        @Override
+        public boolean useHostName() {
+            return false;
+        }
+    }
+
+    /**
+     * Latencies of the placement decisions, in nanoseconds.
+     */
+    static class Latencies {
+        private long[] latencies = new long[1024];
+        private int size = 0;
+
+        void add(long latency) {
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+            }
+            latencies[size++] = latency;
+        }
+
+        void report(String name) {
+            if (size == 0) {
+                LOG.info("{}: no placement", name);
+                return;
+            }
+            long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            LOG.info("{}: {} placements, latency in us: p50 {} p99 {} p999 {} max {}", name, size,
+                    micros(sorted, 0.5), micros(sorted, 0.99), micros(sorted, 0.999), sorted[size - 1] / 1000.0);
+        }
+
+        private static double micros(long[] sorted, double percentile) {
+            return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))] / 1000.0;
+        }
+    }
+
+    private final Layout layout;
+    private final int numBookies;
+    private final int numZones;
+    private final int numRacks;
+    private final int ensembleSize;
+    private final int writeQuorumSize;
+    private final int ackQuorumSize;
+    private final long ledgerSizeMB;
+    private final Random random;
+
+    private final List<BookieId> bookies = new ArrayList<>();
+    private final Map<BookieId, String> bookieRacks = new HashMap<>();
+    private final Map<String, List<BookieId>> rackBookies = new HashMap<>();
+    private final Map<String, String> locations = new HashMap<>();
+    private final HashedWheelTimer timer = new HashedWheelTimer();
+    private EnsemblePlacementPolicy policy;
+
+    private final List<List<BookieId>> ensembles = new ArrayList<>();
+    private final Map<BookieId, Set<Integer>> bookieLedgers = new HashMap<>();
+
+    BenchPlacement(Layout layout, int numBookies, int numZones, int numRacks, int ensembleSize, int writeQuorumSize,
+                   int ackQuorumSize, long ledgerSizeMB, long seed) {
+        this.layout = layout;
+        this.numBookies = numBookies;
+        this.numZones = numZones;
+        this.numRacks = numRacks;
+        this.ensembleSize = ensembleSize;
+        this.writeQuorumSize = writeQuorumSize;
+        this.ackQuorumSize = ackQuorumSize;
+        this.ledgerSizeMB = ledgerSizeMB;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Build the cluster, spreading the bookies evenly over the racks, and the racks over the zones or regions.
+     */
+    void setup(ClientConfiguration conf) {
+        for (int i = 0; i < numBookies; i++) {
+            int rack = i % numRacks;
+            int zone = rack % numZones;
+            String ip = "10." + ((i >> 16) & 0xff) + "." + ((i >> 8) & 0xff) + "." + (i & 0xff);
+            String location = String.format(layout.locationFormat, zone, rack);
+            BookieId bookie = BookieId.parse(ip + ":3181");
+            bookies.add(bookie);
+            locations.put(ip, location);
+            bookieRacks.put(bookie, location);
+            rackBookies.computeIfAbsent(location, k -> new ArrayList<>()).add(bookie);
+            bookieLedgers.put(bookie, new HashSet<>());
+        }
+
+        policy = ReflectionUtils.newInstance(layout.policyClass).initialize(conf,
+                Optional.of(new ClusterResolver(locations, layout.defaultLocation)), timer,
+                SettableFeatureProvider.DISABLE_ALL, NullStatsLogger.INSTANCE,
+                BookieSocketAddress.LEGACY_BOOKIEID_RESOLVER);
+        policy.onClusterChanged(new HashSet<>(bookies), Collections.emptySet());
+    }
+
+    void close() {
+        policy.uninitalize();
+        timer.stop();
+    }
+
+    void placeLedgers(int numLedgers) {
+        Latencies latencies = new Latencies();
+        int notAdhering = 0;
+        int failed = 0;
+        for (int i = 0; i < numLedgers; i++) {
+            long startNanos = System.nanoTime();
+            try {
+                PlacementResult<List<BookieId>> result = policy.newEnsemble(ensembleSize, writeQuorumSize,
+                        ackQuorumSize, Collections.emptyMap(), Collections.emptySet());
+                latencies.add(System.nanoTime() - startNanos);
+                if (result.getAdheringToPolicy() == PlacementPolicyAdherence.FAIL) {
+                    notAdhering++;
+                }
+                List<BookieId> ensemble = new ArrayList<>(result.getResult());
+                int ledger = ensembles.size();
+                ensembles.add(ensemble);
+                for (BookieId bookie : ensemble) {
+                    bookieLedgers.get(bookie).add(ledger);
+                }
+            } catch (BKException e) {
+                failed++;
+            }
+        }
+        latencies.report("newEnsemble");
+        LOG.info("Placed {} ledgers, {} not adhering to the placement policy, {} failed to be placed",
+                ensembles.size(), notAdhering, failed);
+        reportSkew();
+    }
+
+    /**
+     * Fail bookies, change the ensembles of the ledgers stored on them, then bring them back empty.
+     */
+    void failBookies(int numRounds, int failuresPerRound, double rackFailureRatio) {
+        Latencies latencies = new Latencies();
+        long totalFragments = 0;
+        int notAdhering = 0;
+        int failed = 0;
+        List<String> racks = new ArrayList<>(rackBookies.keySet());
+        Collections.sort(racks);
+        for (int round = 0; round < numRounds; round++) {
+            Set<BookieId> failedBookies = new HashSet<>();
+            for (int i = 0; i < failuresPerRound; i++) {
+                if (random.nextDouble() < rackFailureRatio) {
+                    failedBookies.addAll(rackBookies.get(racks.get(random.nextInt(racks.size()))));
+                } else {
+                    failedBookies.add(bookies.get(random.nextInt(bookies.size())));
+                }
+            }
+            Set<BookieId> writableBookies = new HashSet<>(bookies);
+            writableBookies.removeAll(failedBookies);
+            policy.onClusterChanged(writableBookies, Collections.emptySet());
+
+            long fragments = 0;
+            Set<Integer> affectedLedgers = new HashSet<>();
+            for (BookieId failedBookie : failedBookies) {
+                affectedLedgers.addAll(bookieLedgers.get(failedBookie));
+            }
+            for (int ledger : affectedLedgers) {
+                List<BookieId> ensemble = ensembles.get(ledger);
+                for (int i = 0; i < ensemble.size(); i++) {
+                    BookieId bookie = ensemble.get(i);
+                    if (!failedBookies.contains(bookie)) {
+                        continue;
+                    }
+                    long startNanos = System.nanoTime();
+                    try {
+                        // the policies add the current ensemble to the excluded bookies
+                        PlacementResult<BookieId> result = policy.replaceBookie(ensembleSize, writeQuorumSize,
+                                ackQuorumSize, Collections.emptyMap(), ensemble, bookie,
+                                new HashSet<>(failedBookies));
+                        latencies.add(System.nanoTime() - startNanos);
+                        if (result.getAdheringToPolicy() == PlacementPolicyAdherence.FAIL) {
+                            notAdhering++;
+                        }
+                        BookieId newBookie = result.getResult();
+                        ensemble.set(i, newBookie);
+                        bookieLedgers.get(bookie).remove(ledger);
+                        bookieLedgers.get(newBookie).add(ledger);
+                        fragments++;
+                    } catch (BKException e) {
+                        failed++;
+                    }
+                }
+            }
+            totalFragments += fragments;
+            LOG.info("Round {}: {} bookies failed, {} ledgers affected, {} fragments rereplicated ({} MB)",
+                    round, failedBookies.size(), affectedLedgers.size(), fragments, rereplicatedMB(fragments));
+
+            // the failed bookies come back empty
+            policy.onClusterChanged(new HashSet<>(bookies), Collections.emptySet());
+        }
+        latencies.report("replaceBookie");
+        LOG.info("Rereplicated {} fragments ({} MB) over {} rounds, {} replacements not adhering to the placement"
+                + " policy, {} failed", totalFragments, rereplicatedMB(totalFragments), numRounds, notAdhering,
+                failed);
+        reportSkew();
+    }
+
+    /**
+     * Volume of the rereplication of fragments, a bookie storing a write quorum share of the entries of a ledger.
+     */
+    private long rereplicatedMB(long fragments) {
+        return fragments * ledgerSizeMB * writeQuorumSize / ensembleSize;
+    }
+
+    private void reportSkew() {
+        long[] perBookie = new long[bookies.size()];
+        Map<String, Long> perRack = new HashMap<>();
+        for (int i = 0; i < bookies.size(); i++) {
+            BookieId bookie = bookies.get(i);
+            perBookie[i] = bookieLedgers.get(bookie).size();
+            perRack.merge(bookieRacks.get(bookie), perBookie[i], Long::sum);
+        }
+        long[] racks = perRack.values().stream().mapToLong(Long::longValue).toArray();
+        LOG.info("Ledgers per bookie: {}", skew(perBookie));
+        LOG.info("Ledgers per rack: {}", skew(racks));
+    }
+
+    private static String skew(long[] counts) {
+        if (counts.length == 0) {
+            return "none";
+        }
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        double sum = 0;
+        for (long count : counts) {
+            min = Math.min(min, count);
+            max = Math.max(max, count);
+            sum += count;
+        }
+        double mean = sum / counts.length;
+        double variance = 0;
+        for (long count : counts) {
+            variance += (count - mean) * (count - mean) / counts.length;
+        }
+        return String.format("mean %.1f min %d max %d max/mean %.3f stddev/mean %.3f", mean, min, max,
+                mean > 0 ? max / mean : 0.0, mean > 0 ? Math.sqrt(variance) / mean : 0.0);
+    }
+
+    public static void main(String[] args) throws ParseException {
+        Options options = new Options();
+        options.addOption("policy", true, "Placement policy: rackaware, regionaware or zoneaware. Default rackaware");
+        options.addOption("bookies", true, "Number of bookies, default 1000");
+        options.addOption("racks", true, "Number of racks, or upgrade domains for zoneaware, default 50");
+        options.addOption("zones", true, "Number of regions or zones, default 5");
+        options.addOption("ledgers", true, "Number of ledgers, default 100000");
+        options.addOption("ensemble", true, "Ensemble size, default 3");
+        options.addOption("quorum", true, "Write quorum size, default 3");
+        options.addOption("ackQuorum", true, "Ack quorum size, default 2");
+        options.addOption("ledgerSize", true, "Size of a ledger in MB, for the rereplication volume, default 1024");
+        options.addOption("rounds", true, "Number of failure rounds, default 10");
+        options.addOption("failures", true, "Number of failures per round, default 5");
+        options.addOption("rackFailureRatio", true, "Ratio of the failures taking a whole rack down, default 0.1");
+        options.addOption("seed", true, "Seed of the cluster layout and the failures, default 1");
+        options.addOption("help", false, "This message");
+
+        CommandLineParser parser = new PosixParser();
+        CommandLine cmd = parser.parse(options, args);
+
+        if (cmd.hasOption("help")) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.printHelp("BenchPlacement <options>", options);
+            System.exit(-1);
+        }
+
+        Layout layout = Layout.valueOf(cmd.getOptionValue("policy", "rackaware").toUpperCase());
+        int numBookies = Integer.parseInt(cmd.getOptionValue("bookies", "1000"));
+        int numRacks = Integer.parseInt(cmd.getOptionValue("racks", "50"));
+        int numZones = Integer.parseInt(cmd.getOptionValue("zones", "5"));
+        int numLedgers = Integer.parseInt(cmd.getOptionValue("ledgers", "100000"));
+        int ensemble = Integer.parseInt(cmd.getOptionValue("ensemble", "3"));
+        int quorum = Integer.parseInt(cmd.getOptionValue("quorum", "3"));
+        int ackQuorum = Integer.parseInt(cmd.getOptionValue("ackQuorum", "2"));
+        long ledgerSizeMB = Long.parseLong(cmd.getOptionValue("ledgerSize", "1024"));
+        int rounds = Integer.parseInt(cmd.getOptionValue("rounds", "10"));
+        int failures = Integer.parseInt(cmd.getOptionValue("failures", "5"));
+        double rackFailureRatio = Double.parseDouble(cmd.getOptionValue("rackFailureRatio", "0.1"));
+        long seed = Long.parseLong(cmd.getOptionValue("seed", "1"));
+
+        ClientConfiguration conf = new ClientConfiguration();
+        if (layout == Layout.ZONEAWARE) {
+            conf.setDesiredNumZonesPerWriteQuorum(Math.min(quorum, numZones));
+            conf.setMinNumZonesPerWriteQuorum(Math.min(2, Math.min(quorum, numZones)));
+        }
+
+        LOG.info("Simulating {} placement of {} ledgers ({}/{}/{}) on {} bookies in {} racks and {} zones",
+                layout, numLedgers, ensemble, quorum, ackQuorum, numBookies, numRacks, numZones);
+        BenchPlacement bench = new BenchPlacement(layout, numBookies, numZones, numRacks, ensemble, quorum,
+                ackQuorum, ledgerSizeMB, seed);
+        bench.setup(conf);
+        try {
+            bench.placeLedgers(numLedgers);
+            bench.failBookies(rounds, failures, rackFailureRatio);
+        } finally {
+            bench.close();
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.apache.bookkeeper.common.util;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.IdentityHashMap;
 import java.util.function.Function;
 import org.apache.bookkeeper.common.collections.RecyclableArrayList;
 import org.apache.bookkeeper.common.collections.RecyclableArrayList.Recycler;
@@ -47,11 +48,22 @@ import org.apache.bookkeeper.common.collections.RecyclableArrayList.Recycler;
  * <p>When an watchable object is newly created, its set of watchers is
  * empty. If a same watcher is added multiple times to this watchable, it will
  * receive the notifications multiple times.
+ *
+ * <p>Deleting a watcher takes constant amortized time: the number of times
+ * each watcher is watching is counted, and the deleted watchers are only
+ * dropped from the watchers list when it is notified or once they make up
+ * most of it.
  */
 public class Watchable<T> implements Recyclable {
 
     private final Recycler<Watcher<T>> recycler;
     private RecyclableArrayList<Watcher<T>> watchers;
+    // watcher -> number of times it is watching, created on the first watcher
+    private IdentityHashMap<Watcher<T>, Integer> watcherCounts;
+    // counts of the watchers notified last time, reused for the next watchers
+    private IdentityHashMap<Watcher<T>, Integer> spareWatcherCounts;
+    // number of the deleted watchers still in the watchers list
+    private int numDeletedWatchers;
 
     /** Construct an Watchable with zero watchers. */
 
@@ -61,7 +73,7 @@ public class Watchable<T> implements Recyclable {
     }
 
     synchronized int getNumWatchers() {
-        return this.watchers.size();
+        return this.watchers.size() - numDeletedWatchers;
     }
 
     /**
@@ -76,6 +88,15 @@ public class Watchable<T> implements Recyclable {
      */
     public synchronized boolean addWatcher(Watcher<T> w) {
         checkNotNull(w, "Null watcher is provided");
+        if (null == watcherCounts) {
+            if (null != spareWatcherCounts) {
+                watcherCounts = spareWatcherCounts;
+                spareWatcherCounts = null;
+            } else {
+                watcherCounts = new IdentityHashMap<>(4);
+            }
+        }
+        watcherCounts.merge(w, 1, Integer::sum);
         return watchers.add(w);
     }
 
@@ -85,25 +106,105 @@ public class Watchable<T> implements Recyclable {
      * @param w the watcher to be deleted.
      */
     public synchronized boolean deleteWatcher(Watcher<T> w) {
-        return watchers.remove(w);
+        if (null == watcherCounts || null == w) {
+            return false;
+        }
+        Integer count = watcherCounts.get(w);
+        if (null == count) {
+            return false;
+        } else if (count == 1) {
+            watcherCounts.remove(w);
+        } else {
+            watcherCounts.put(w, count - 1);
+        }
+        if (++numDeletedWatchers > watchers.size() / 2) {
+            compactWatchers();
+        }
+        return true;
+    }
+
+    /**
+     * Drop the deleted watchers from the watchers list.
+     */
+    private void compactWatchers() {
+        RecyclableArrayList<Watcher<T>> compacted = recycler.newInstance();
+        IdentityHashMap<Watcher<T>, Integer> remainingCounts = new IdentityHashMap<>(watcherCounts);
+        for (Watcher<T> watcher : watchers) {
+            if (takeWatcher(remainingCounts, watcher)) {
+                compacted.add(watcher);
+            }
+        }
+        watchers.recycle();
+        watchers = compacted;
+        numDeletedWatchers = 0;
+    }
+
+    /**
+     * Take one of the times a watcher is watching, if it was not deleted.
+     */
+    private static <T> boolean takeWatcher(IdentityHashMap<Watcher<T>, Integer> counts, Watcher<T> watcher) {
+        Integer count = counts.get(watcher);
+        if (null == count) {
+            return false;
+        } else if (count == 1) {
+            counts.remove(watcher);
+        } else {
+            counts.put(watcher, count - 1);
+        }
+        return true;
     }
 
     /**
      * Notify the watchers with the update <i>value</i>.
      *
+     * <p>A new value is created by <i>valueFn</i> for each watcher.
+     *
      * @param value value to notify
      */
     public <R> void notifyWatchers(Function<R, T> valueFn, R value) {
+        notifyWatchers(valueFn, value, null);
+    }
+
+    /**
+     * Notify the watchers with the update <i>value</i>.
+     *
+     * <p>The same value is passed to all the watchers, so watchers must not
+     * retain nor recycle it.
+     *
+     * @param value value to notify
+     */
+    public void notifyWatchers(T value) {
+        notifyWatchers(null, null, value);
+    }
+
+    private <R> void notifyWatchers(Function<R, T> valueFn, R value, T sharedValue) {
         RecyclableArrayList<Watcher<T>> watchersLocal;
+        IdentityHashMap<Watcher<T>, Integer> countsLocal;
+        boolean hasDeletedWatchers;
         synchronized (this) {
             watchersLocal = watchers;
+            countsLocal = watcherCounts;
+            hasDeletedWatchers = numDeletedWatchers > 0;
             watchers = recycler.newInstance();
+            watcherCounts = null;
+            numDeletedWatchers = 0;
         }
 
         for (Watcher<T> watcher : watchersLocal) {
-            watcher.update(valueFn.apply(value));
+            if (hasDeletedWatchers && !takeWatcher(countsLocal, watcher)) {
+                continue;
+            }
+            watcher.update(null == valueFn ? sharedValue : valueFn.apply(value));
         }
         watchersLocal.recycle();
+        if (null != countsLocal) {
+            countsLocal.clear();
+            synchronized (this) {
+                if (null == spareWatcherCounts) {
+                    spareWatcherCounts = countsLocal;
+                }
+            }
+        }
     }
 
     /**
@@ -111,10 +212,17 @@ public class Watchable<T> implements Recyclable {
      */
     public synchronized void deleteWatchers() {
         watchers.clear();
+        if (null != watcherCounts) {
+            watcherCounts.clear();
+        }
+        numDeletedWatchers = 0;
     }
 
     @Override
     public synchronized void recycle() {
         watchers.recycle();
+        watcherCounts = null;
+        spareWatcherCounts = null;
+        numDeletedWatchers = 0;
     }
 }
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bookkeeper.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.util.Recycler.Handle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.common.collections.RecyclableArrayList;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link Watchable}.
+ */
+public class WatchableTest {
+
+    /**
+     * Recycler counting the watcher lists it allocates.
+     */
+    private static class CountingRecycler extends RecyclableArrayList.Recycler<Watcher<Long>> {
+        private final AtomicInteger numAllocated = new AtomicInteger();
+
+        @Override
+        protected RecyclableArrayList<Watcher<Long>> newObject(Handle<RecyclableArrayList<Watcher<Long>>> handle) {
+            numAllocated.incrementAndGet();
+            return super.newObject(handle);
+        }
+    }
+
+    /**
+     * Watcher recording the values it is notified of.
+     */
+    private static class RecordingWatcher implements Watcher<Long> {
+        private final List<Long> values = new ArrayList<>();
+
+        @Override
+        public void update(Long value) {
+            values.add(value);
+        }
+    }
+
+    private final CountingRecycler recycler = new CountingRecycler();
+    private final Watchable<Long> watchable = new Watchable<>(recycler);
+
+    @Test
+    public void testWatchersAreNotifiedOnce() {
+        RecordingWatcher w1 = new RecordingWatcher();
+        RecordingWatcher w2 = new RecordingWatcher();
+        assertTrue(watchable.addWatcher(w1));
+        assertTrue(watchable.addWatcher(w2));
+        assertEquals(2, watchable.getNumWatchers());
+
+        watchable.notifyWatchers(v -> v + 1, 1L);
+        assertEquals(0, watchable.getNumWatchers());
+        assertEquals(1, w1.values.size());
+        assertEquals(Long.valueOf(2L), w1.values.get(0));
+        assertEquals(1, w2.values.size());
+
+        // the watchers were removed once notified
+        watchable.notifyWatchers(v -> v + 1, 2L);
+        assertEquals(1, w1.values.size());
+        assertEquals(1, w2.values.size());
+    }
+
+    @Test
+    public void testSharedValueIsPassedToAllWatchers() {
+        List<Long> notified = new ArrayList<>();
+        Watcher<Long> w1 = notified::add;
+        Watcher<Long> w2 = notified::add;
+        watchable.addWatcher(w1);
+        watchable.addWatcher(w2);
+
+        Long value = 1234L;
+        watchable.notifyWatchers(value);
+        assertEquals(2, notified.size());
+        assertSame(value, notified.get(0));
+        assertSame(value, notified.get(1));
+        assertEquals(0, watchable.getNumWatchers());
+    }
+
+    @Test
+    public void testWatcherAddedMultipleTimes() {
+        RecordingWatcher w = new RecordingWatcher();
+        watchable.addWatcher(w);
+        watchable.addWatcher(w);
+        watchable.addWatcher(w);
+        assertEquals(3, watchable.getNumWatchers());
+
+        // each deletion only removes one of the times the watcher is watching
+        assertTrue(watchable.deleteWatcher(w));
+        assertEquals(2, watchable.getNumWatchers());
+
+        watchable.notifyWatchers(5L);
+        assertEquals(2, w.values.size());
+    }
+
+    @Test
+    public void testDeleteWatcher() {
+        RecordingWatcher w1 = new RecordingWatcher();
+        RecordingWatcher w2 = new RecordingWatcher();
+        RecordingWatcher w3 = new RecordingWatcher();
+        assertFalse(watchable.deleteWatcher(w1));
+        assertFalse(watchable.deleteWatcher(null));
+
+        watchable.addWatcher(w1);
+        watchable.addWatcher(w2);
+        watchable.addWatcher(w3);
+        assertTrue(watchable.deleteWatcher(w2));
+        assertFalse(watchable.deleteWatcher(w2));
+        assertEquals(2, watchable.getNumWatchers());
+
+        // a deleted watcher still in the list is skipped, while the other ones are notified
+        watchable.notifyWatchers(1L);
+        assertEquals(1, w1.values.size());
+        assertEquals(0, w2.values.size());
+        assertEquals(1, w3.values.size());
+    }
+
+    @Test
+    public void testWatcherReAddedAfterDeletion() {
+        RecordingWatcher w1 = new RecordingWatcher();
+        RecordingWatcher w2 = new RecordingWatcher();
+        RecordingWatcher w3 = new RecordingWatcher();
+        watchable.addWatcher(w1);
+        watchable.addWatcher(w2);
+        watchable.addWatcher(w3);
+        watchable.deleteWatcher(w1);
+        watchable.addWatcher(w1);
+        assertEquals(3, watchable.getNumWatchers());
+
+        watchable.notifyWatchers(1L);
+        assertEquals(1, w1.values.size());
+        assertEquals(1, w2.values.size());
+        assertEquals(1, w3.values.size());
+    }
+
+    @Test
+    public void testDeletedWatchersAreCompacted() {
+        int numWatchers = 1000;
+        List<RecordingWatcher> watchers = new ArrayList<>();
+        for (int i = 0; i < numWatchers; i++) {
+            RecordingWatcher w = new RecordingWatcher();
+            watchers.add(w);
+            watchable.addWatcher(w);
+        }
+        // delete all the watchers but the last one, as done by the long poll requests timing out
+        for (int i = 0; i < numWatchers - 1; i++) {
+            assertTrue(watchable.deleteWatcher(watchers.get(i)));
+            assertEquals(numWatchers - i - 1, watchable.getNumWatchers());
+        }
+
+        watchable.notifyWatchers(1L);
+        for (int i = 0; i < numWatchers - 1; i++) {
+            assertEquals(0, watchers.get(i).values.size());
+        }
+        assertEquals(1, watchers.get(numWatchers - 1).values.size());
+        assertEquals(0, watchable.getNumWatchers());
+    }
+
+    @Test
+    public void testDeleteWatchers() {
+        RecordingWatcher w = new RecordingWatcher();
+        watchable.addWatcher(w);
+        watchable.addWatcher(w);
+        watchable.deleteWatcher(w);
+        watchable.deleteWatchers();
+        assertEquals(0, watchable.getNumWatchers());
+        assertFalse(watchable.deleteWatcher(w));
+
+        watchable.notifyWatchers(1L);
+        assertEquals(0, w.values.size());
+    }
+
+    @Test
+    public void testWatcherListsAreRecycled() {
+        RecordingWatcher w = new RecordingWatcher();
+        for (int i = 0; i < 100; i++) {
+            watchable.addWatcher(w);
+            watchable.notifyWatchers(1L);
+        }
+        assertEquals(100, w.values.size());
+        // the list of the notified watchers is recycled for the next ones, though the netty recycler only keeps
+        // a fraction of the recycled objects
+        assertTrue("Allocated " + recycler.numAllocated.get() + " lists", recycler.numAllocated.get() < 50);
+    }
+}
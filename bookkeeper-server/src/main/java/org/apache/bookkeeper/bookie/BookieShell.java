@@ -2076,6 +2076,7 @@ public class BookieShell implements Tool {
 
         public RebuildDbLedgerLocationsIndexCmd() {
             super(CMD_REBUILD_DB_LEDGER_LOCATIONS_INDEX);
+            opts.addOption("t", "threads", true, "Number of threads used to scan the entry logs");
         }
 
         @Override
@@ -2090,13 +2091,16 @@ public class BookieShell implements Tool {
 
         @Override
         String getUsage() {
-            return CMD_REBUILD_DB_LEDGER_LOCATIONS_INDEX;
+            return CMD_REBUILD_DB_LEDGER_LOCATIONS_INDEX + " [-threads <num>]";
         }
 
         @Override
         int runCmd(CommandLine cmdLine) throws Exception {
+            RebuildDBLedgerLocationsIndexCommand.RebuildLocationsIndexFlags flags =
+                    new RebuildDBLedgerLocationsIndexCommand.RebuildLocationsIndexFlags();
+            flags.threads(getOptionIntValue(cmdLine, "threads", Runtime.getRuntime().availableProcessors()));
             RebuildDBLedgerLocationsIndexCommand cmd = new RebuildDBLedgerLocationsIndexCommand();
-            cmd.apply(bkConf, new CliFlags());
+            cmd.apply(bkConf, flags);
             return 0;
         }
     }
@@ -2109,6 +2113,7 @@ public class BookieShell implements Tool {
         public RebuildDbLedgersIndexCmd() {
             super(CMD_REBUILD_DB_LEDGERS_INDEX);
             opts.addOption("v", "verbose", false, "Verbose logging, print the ledgers added to the new index");
+            opts.addOption("t", "threads", true, "Number of threads used to scan the journal and entry logs");
         }
 
         @Override
@@ -2124,7 +2129,7 @@ public class BookieShell implements Tool {
 
         @Override
         String getUsage() {
-            return CMD_REBUILD_DB_LEDGERS_INDEX;
+            return CMD_REBUILD_DB_LEDGERS_INDEX + " [-verbose] [-threads <num>]";
         }
 
         @Override
@@ -2132,6 +2137,7 @@ public class BookieShell implements Tool {
             RebuildDBLedgersIndexCommand.RebuildLedgersIndexFlags flags =
                     new RebuildDBLedgersIndexCommand.RebuildLedgersIndexFlags();
             flags.verbose(cmdLine.hasOption("v"));
+            flags.threads(getOptionIntValue(cmdLine, "threads", Runtime.getRuntime().availableProcessors()));
             RebuildDBLedgersIndexCommand cmd = new RebuildDBLedgersIndexCommand();
             if (cmd.apply(bkConf, flags)) {
                 return 0;
@@ -2149,6 +2155,7 @@ public class BookieShell implements Tool {
         public CheckDbLedgersIndexCmd() {
             super(CMD_CHECK_DB_LEDGERS_INDEX);
             opts.addOption("v", "verbose", false, "Verbose logging, print the ledger data in the index.");
+            opts.addOption("t", "threads", true, "Number of threads used to scan the ledger directories");
         }
 
         @Override
@@ -2163,7 +2170,7 @@ public class BookieShell implements Tool {
 
         @Override
         String getUsage() {
-            return CMD_CHECK_DB_LEDGERS_INDEX;
+            return CMD_CHECK_DB_LEDGERS_INDEX + " [-verbose] [-threads <num>]";
         }
 
         @Override
@@ -2171,6 +2178,7 @@ public class BookieShell implements Tool {
             CheckDBLedgersIndexCommand.CheckLedgersIndexFlags flags =
                     new CheckDBLedgersIndexCommand.CheckLedgersIndexFlags();
             flags.verbose(cmdLine.hasOption("v"));
+            flags.threads(getOptionIntValue(cmdLine, "threads", Runtime.getRuntime().availableProcessors()));
             CheckDBLedgersIndexCommand cmd = new CheckDBLedgersIndexCommand();
             if (cmd.apply(bkConf, flags)) {
                 return 0;
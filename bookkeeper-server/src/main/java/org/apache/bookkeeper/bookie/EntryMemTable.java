@@ -19,6 +19,7 @@
 
 package org.apache.bookkeeper.bookie;
 
+import io.netty.buffer.ByteBuf;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Iterator;
@@ -104,7 +105,7 @@ public class EntryMemTable implements AutoCloseable{
     SkipListArena allocator;
 
     // flag indicating the status of the previous flush call
-    private final AtomicBoolean previousFlushSucceeded;
+    final AtomicBoolean previousFlushSucceeded;
 
     private EntrySkipList newSkipList() {
         return new EntrySkipList(checkpointSource.newCheckpoint());
@@ -119,12 +120,22 @@ public class EntryMemTable implements AutoCloseable{
     */
     public EntryMemTable(final ServerConfiguration conf, final CheckpointSource source,
                          final StatsLogger statsLogger) {
+        this(conf, source, statsLogger, true);
+    }
+
+    /**
+     * Constructor.
+     * @param useSkipList whether the entries are kept in the skip list, otherwise neither the skip list nor its
+     *                    arena are allocated
+     */
+    EntryMemTable(final ServerConfiguration conf, final CheckpointSource source,
+                  final StatsLogger statsLogger, boolean useSkipList) {
         this.checkpointSource = source;
-        this.kvmap = newSkipList();
+        this.kvmap = useSkipList ? newSkipList() : EntrySkipList.EMPTY_VALUE;
         this.snapshot = EntrySkipList.EMPTY_VALUE;
         this.conf = conf;
         this.size = new AtomicLong(0);
-        this.allocator = new SkipListArena(conf);
+        this.allocator = useSkipList ? new SkipListArena(conf) : null;
         this.previousFlushSucceeded = new AtomicBoolean(true);
         // skip list size limit
         this.skipListSizeLimit = conf.getSkipListSizeLimit();
@@ -286,6 +297,17 @@ public class EntryMemTable implements AutoCloseable{
         }
     }
 
+    /**
+     * Write an update held in a netty buffer. The readable bytes of the buffer are added, its reader index is
+     * not modified.
+     *
+     * @see #addEntry(long, long, ByteBuffer, CacheCallback)
+     */
+    public long addEntry(long ledgerId, long entryId, final ByteBuf entry, final CacheCallback cb)
+            throws IOException {
+        return addEntry(ledgerId, entryId, entry.nioBuffer(), cb);
+    }
+
     /**
      * Write an update.
      *
@@ -27,12 +27,16 @@ import static org.apache.bookkeeper.bookie.LastAddConfirmedUpdateNotification.WA
 import com.google.common.annotations.VisibleForTesting;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.bookkeeper.common.util.Watchable;
 import org.apache.bookkeeper.common.util.Watcher;
 import org.apache.bookkeeper.proto.checksum.DigestManager;
@@ -103,6 +107,12 @@ class FileInfo extends Watchable<LastAddConfirmedUpdateNotification> {
 
     private boolean deleted;
 
+    // Read-only mapping of the index file, covering the file size at the time it was mapped. It is replaced and
+    // unmapped under both this and the write lock of the mapping lock, and read under the read lock, so that it is
+    // never unmapped while being read.
+    private final ReadWriteLock mappingLock = new ReentrantReadWriteLock();
+    private MappedByteBuffer mappedFile = null;
+
     public FileInfo(File lf, byte[] masterKey, int fileInfoVersionToWrite) throws IOException {
         super(WATCHER_RECYCLER);
 
@@ -132,7 +142,7 @@ class FileInfo extends Watchable<LastAddConfirmedUpdateNotification> {
         }
 
         if (changed) {
-            notifyWatchers(LastAddConfirmedUpdateNotification.FUNC, lacToReturn);
+            LastAddConfirmedUpdateNotification.notifyWatchers(this, lacToReturn);
         }
         return lacToReturn;
     }
@@ -368,7 +378,7 @@ class FileInfo extends Watchable<LastAddConfirmedUpdateNotification> {
             }
         }
         if (changed) {
-            notifyWatchers(LastAddConfirmedUpdateNotification.FUNC, Long.MAX_VALUE);
+            LastAddConfirmedUpdateNotification.notifyWatchers(this, Long.MAX_VALUE);
         }
         return returnVal;
     }
@@ -396,6 +406,89 @@ class FileInfo extends Watchable<LastAddConfirmedUpdateNotification> {
         return readAbsolute(bb, position + START_OF_DATA, bestEffort);
     }
 
+    /**
+     * Read the long at the given position of the index data from a read-only memory mapping of the index file,
+     * without copying a whole page. The file is mapped again when reading past the end of the current mapping.
+     *
+     * @param position
+     *          position of the long in the index data
+     * @return the long at the position, 0 if it is past the end of the file
+     * @throws IOException
+     */
+    public long readLongMapped(long position) throws IOException {
+        long start = position + START_OF_DATA;
+        if (start + Long.BYTES > Integer.MAX_VALUE) {
+            // Beyond what a single mapping can cover
+            ByteBuffer bb = ByteBuffer.allocate(Long.BYTES);
+            return readAbsolute(bb, start, true) == Long.BYTES ? bb.getLong(0) : 0L;
+        }
+        boolean remapped = false;
+        while (true) {
+            mappingLock.readLock().lock();
+            try {
+                if (mappedFile != null && start + Long.BYTES <= mappedFile.limit()) {
+                    return mappedFile.getLong((int) start);
+                }
+            } finally {
+                mappingLock.readLock().unlock();
+            }
+            if (remapped || !mapFile()) {
+                // Past the end of the file
+                return 0L;
+            }
+            remapped = true;
+        }
+    }
+
+    /**
+     * Map the index file again if it grew past the end of the current mapping.
+     *
+     * @return false if the index file is not open
+     */
+    private synchronized boolean mapFile() throws IOException {
+        checkOpen(false);
+        if (fc == null) {
+            return false;
+        }
+        long fileSize = Math.min(fc.size(), Integer.MAX_VALUE);
+        if (mappedFile == null || mappedFile.limit() < fileSize) {
+            MappedByteBuffer newMappedFile = fc.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            MappedByteBuffer oldMappedFile;
+            mappingLock.writeLock().lock();
+            try {
+                oldMappedFile = mappedFile;
+                mappedFile = newMappedFile;
+            } finally {
+                mappingLock.writeLock().unlock();
+            }
+            unmap(oldMappedFile);
+        }
+        return true;
+    }
+
+    /**
+     * Unmap the index file, rather than waiting for the mapping to be garbage collected, which keeps the file and
+     * its pages around.
+     */
+    private synchronized void unmapFile() {
+        MappedByteBuffer oldMappedFile;
+        mappingLock.writeLock().lock();
+        try {
+            oldMappedFile = mappedFile;
+            mappedFile = null;
+        } finally {
+            mappingLock.writeLock().unlock();
+        }
+        unmap(oldMappedFile);
+    }
+
+    private static void unmap(MappedByteBuffer mapped) {
+        if (mapped != null) {
+            // no reader can access the mapping anymore
+            PlatformDependent.freeDirectBuffer(mapped);
+        }
+    }
+
     /**
      * Read data from position <i>start</i> to fill the byte buffer <i>bb</i>.
      * If <i>bestEffort </i> is provided, it would return when it reaches EOF.
@@ -463,13 +556,14 @@ class FileInfo extends Watchable<LastAddConfirmedUpdateNotification> {
                 flushHeader();
             }
             changed = true;
+            unmapFile();
             if (fc != null) {
                 fc.close();
             }
             fc = null;
         }
         if (changed) {
-            notifyWatchers(LastAddConfirmedUpdateNotification.FUNC, Long.MAX_VALUE);
+            LastAddConfirmedUpdateNotification.notifyWatchers(this, Long.MAX_VALUE);
         }
     }
 
@@ -536,6 +630,7 @@ class FileInfo extends Watchable<LastAddConfirmedUpdateNotification> {
             newFc.close();
         }
         // delete old.idx
+        unmapFile();
         fc.close();
         if (!delete()) {
             LOG.error("Failed to delete the previous index file " + lf);
@@ -559,6 +654,7 @@ class FileInfo extends Watchable<LastAddConfirmedUpdateNotification> {
 
     public synchronized boolean delete() {
         deleted = true;
+        unmapFile();
         return lf.delete();
     }
 
@@ -31,16 +31,11 @@ import com.google.common.base.Stopwatch;
 import io.netty.util.internal.PlatformDependent;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.bookkeeper.bookie.stats.IndexInMemPageMgrStats;
@@ -49,28 +44,48 @@ import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 // CHECKSTYLE.ON: IllegalImport
 
 class IndexInMemPageMgr {
     private static final Logger LOG = LoggerFactory.getLogger(IndexInMemPageMgr.class);
-    private static final ConcurrentHashMap<Long, LedgerEntryPage> EMPTY_PAGE_MAP =
-            new ConcurrentHashMap<Long, LedgerEntryPage>();
 
+    /**
+     * The pages held in memory, indexed by ledger id and first entry id.
+     *
+     * <p>Looking up a page does not take any lock: the page maps are keyed by primitive longs and their sections
+     * are read optimistically. Clean pages are reclaimed with a clock algorithm over all the allocated pages,
+     * instead of being moved in a shared LRU list on every access: a page that was used since the clock hand
+     * last passed over it gets a second chance.
+     */
     private static class InMemPageCollection implements LEPStateChangeCallback {
 
-        final ConcurrentMap<Long, ConcurrentMap<Long, LedgerEntryPage>> pages;
-        final Map<EntryKey, LedgerEntryPage> lruCleanPageMap;
+        final ConcurrentLongHashMap<ConcurrentLongHashMap<LedgerEntryPage>> pages;
         final ConcurrentLinkedQueue<LedgerEntryPage> listOfFreePages;
 
+        // All the pages ever allocated, scanned by the clock hand. Appended under the clockPagesLock, the size is
+        // published after the array, so that readers can access the array without locking.
+        private final Object clockPagesLock = new Object();
+        private volatile LedgerEntryPage[] clockPages = new LedgerEntryPage[1024];
+        private volatile int clockPagesCount = 0;
+        private final AtomicInteger clockHand = new AtomicInteger(0);
+
+        // Mapping a page and removing a page from the maps are serialized by the removalLock. A page read from the
+        // index file is only mapped if no page of the same key was reclaimed since the read started, as the
+        // reclaimed page could have been flushed after the read. The reclaims are counted by hash of the page key.
+        private static final int REMOVAL_SLOT_BITS = 6;
+        private final Object removalLock = new Object();
+        private final long[] numOfRemovedPages = new long[1 << REMOVAL_SLOT_BITS];
+
         // Stats
         private final IndexInMemPageMgrStats inMemPageMgrStats;
 
         public InMemPageCollection(StatsLogger statsLogger) {
-            pages = new ConcurrentHashMap<>();
-            lruCleanPageMap =
-                    Collections.synchronizedMap(new LinkedHashMap<EntryKey, LedgerEntryPage>(16, 0.75f, true));
+            pages = ConcurrentLongHashMap.<ConcurrentLongHashMap<LedgerEntryPage>>newBuilder()
+                    .expectedItems(1024)
+                    .build();
             listOfFreePages = new ConcurrentLinkedQueue<LedgerEntryPage>();
             inMemPageMgrStats = new IndexInMemPageMgrStats(statsLogger);
         }
@@ -83,37 +98,73 @@ class IndexInMemPageMgr {
          * @returns LedgerEntryPage if present
          */
         private LedgerEntryPage getPage(long ledgerId, long firstEntry) {
-            ConcurrentMap<Long, LedgerEntryPage> map = pages.get(ledgerId);
+            ConcurrentLongHashMap<LedgerEntryPage> map = pages.get(ledgerId);
             if (null != map) {
                 return map.get(firstEntry);
             }
             return null;
         }
 
+        private static int removalSlot(long ledgerId, long firstEntry) {
+            // the low bits of the first entry are all zeros, mix all the bits into the high ones
+            long hash = (ledgerId * 0x9E3779B97F4A7C15L + firstEntry) * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> (Long.SIZE - REMOVAL_SLOT_BITS));
+        }
+
+        /**
+         * Get the number of reclaimed pages with the same key hash as the given ledger and first entry.
+         */
+        private long getNumOfRemovedPages(long ledgerId, long firstEntry) {
+            synchronized (removalLock) {
+                return numOfRemovedPages[removalSlot(ledgerId, firstEntry)];
+            }
+        }
+
         /**
          * Add a LedgerEntryPage to the page map.
          *
          * @param lep Ledger Entry Page object
+         * @param numOfRemovedPagesSeen number of reclaimed pages of the same key hash when the page was read
+         * @returns the page mapped for the key of lep, or null if a page of the same key hash was reclaimed since
+         *          lep was read
          */
-        private LedgerEntryPage putPage(LedgerEntryPage lep) {
-            // Do a get here to avoid too many new ConcurrentHashMaps() as putIntoTable is called frequently.
-            ConcurrentMap<Long, LedgerEntryPage> map = pages.get(lep.getLedger());
-            if (null == map) {
-                ConcurrentMap<Long, LedgerEntryPage> mapToPut = new ConcurrentHashMap<Long, LedgerEntryPage>();
-                map = pages.putIfAbsent(lep.getLedger(), mapToPut);
+        private LedgerEntryPage putPage(LedgerEntryPage lep, long numOfRemovedPagesSeen) {
+            synchronized (removalLock) {
+                if (numOfRemovedPages[removalSlot(lep.getLedger(), lep.getFirstEntry())] != numOfRemovedPagesSeen) {
+                    return null;
+                }
+                ConcurrentLongHashMap<LedgerEntryPage> map = pages.get(lep.getLedger());
                 if (null == map) {
-                    map = mapToPut;
+                    map = ConcurrentLongHashMap.<LedgerEntryPage>newBuilder()
+                            .expectedItems(16)
+                            .concurrencyLevel(4)
+                            .build();
+                    pages.put(lep.getLedger(), map);
+                }
+                LedgerEntryPage oldPage = map.putIfAbsent(lep.getFirstEntry(), lep);
+                if (null == oldPage) {
+                    oldPage = lep;
                 }
+                return oldPage;
             }
-            LedgerEntryPage oldPage = map.putIfAbsent(lep.getFirstEntry(), lep);
-            if (null == oldPage) {
-                oldPage = lep;
-                // Also include this in the clean page map if it qualifies.
-                // Note: This is done for symmetry and correctness, however it should never
-                // get exercised since we shouldn't attempt a put without the page being in use
-                addToCleanPagesList(lep);
+        }
+
+        /**
+         * Register a newly allocated page, so that the clock can reclaim it.
+         *
+         * @param lep Ledger Entry Page object
+         */
+        private void addPage(LedgerEntryPage lep) {
+            synchronized (clockPagesLock) {
+                int count = clockPagesCount;
+                LedgerEntryPage[] array = clockPages;
+                if (count == array.length) {
+                    array = Arrays.copyOf(array, count * 2);
+                }
+                array[count] = lep;
+                clockPages = array;
+                clockPagesCount = count + 1;
             }
-            return oldPage;
         }
 
         /**
@@ -125,16 +176,19 @@ class IndexInMemPageMgr {
         private long getLastEntryInMem(long ledgerId) {
             long lastEntry = 0;
             // Find the last entry in the cache
-            ConcurrentMap<Long, LedgerEntryPage> map = pages.get(ledgerId);
+            ConcurrentLongHashMap<LedgerEntryPage> map = pages.get(ledgerId);
             if (map != null) {
                 for (LedgerEntryPage lep: map.values()) {
                     if (lep.getMaxPossibleEntry() < lastEntry) {
                         continue;
                     }
                     lep.usePage();
-                    long highest = lep.getLastEntry();
-                    if (highest > lastEntry) {
-                        lastEntry = highest;
+                    // The page might have been reclaimed for another ledger since it was listed
+                    if (lep.getLedger() == ledgerId) {
+                        long highest = lep.getLastEntry();
+                        if (highest > lastEntry) {
+                            lastEntry = highest;
+                        }
                     }
                     lep.releasePage();
                 }
@@ -150,14 +204,19 @@ class IndexInMemPageMgr {
          */
         private void removeEntriesForALedger(long ledgerId) {
             // remove pages first to avoid page flushed when deleting file info
-            ConcurrentMap<Long, LedgerEntryPage> lPages = pages.remove(ledgerId);
+            ConcurrentLongHashMap<LedgerEntryPage> lPages;
+            synchronized (removalLock) {
+                lPages = pages.remove(ledgerId);
+            }
             if (null != lPages) {
-                for (Map.Entry<Long, LedgerEntryPage> pageEntry: lPages.entrySet()) {
-                    LedgerEntryPage lep = pageEntry.getValue();
+                lPages.forEach((firstEntry, lep) -> {
                     lep.usePage();
-                    lep.markDeleted();
+                    // The page might have been reclaimed for another ledger since it was listed
+                    if (lep.getLedger() == ledgerId && lep.getFirstEntry() == firstEntry) {
+                        lep.markDeleted();
+                    }
                     lep.releasePage();
-                }
+                });
             }
         }
 
@@ -169,60 +228,30 @@ class IndexInMemPageMgr {
          * @returns last entry in the in memory pages.
          */
         private LinkedList<Long> getFirstEntryListToBeFlushed(long ledgerId) {
-            ConcurrentMap<Long, LedgerEntryPage> pageMap = pages.get(ledgerId);
+            ConcurrentLongHashMap<LedgerEntryPage> pageMap = pages.get(ledgerId);
             if (pageMap == null || pageMap.isEmpty()) {
                 return null;
             }
 
             LinkedList<Long> firstEntryList = new LinkedList<Long>();
-            for (ConcurrentMap.Entry<Long, LedgerEntryPage> entry: pageMap.entrySet()) {
-                LedgerEntryPage lep = entry.getValue();
+            pageMap.forEach((firstEntry, lep) -> {
                 if (lep.isClean()) {
-                    if (!lep.inUse()) {
-                        addToCleanPagesList(lep);
-                    }
                     if (LOG.isTraceEnabled()) {
                         LOG.trace("Page is clean " + lep);
                     }
                 } else {
-                    firstEntryList.add(lep.getFirstEntry());
+                    firstEntryList.add(firstEntry);
                 }
-            }
+            });
             return firstEntryList;
         }
 
-        /**
-         * Add the LedgerEntryPage to the clean page LRU map.
-         *
-         * @param lep Ledger Entry Page object
-         */
-        private void addToCleanPagesList(LedgerEntryPage lep) {
-            synchronized (lruCleanPageMap) {
-                if (lep.isClean() && !lep.inUse()) {
-                    lruCleanPageMap.put(lep.getEntryKey(), lep);
-                }
-            }
-        }
-
-        /**
-         * Remove the LedgerEntryPage from the clean page LRU map.
-         *
-         * @param lep Ledger Entry Page object
-         */
-        private void removeFromCleanPageList(LedgerEntryPage lep) {
-            synchronized (lruCleanPageMap) {
-                if (!lep.isClean() || lep.inUse()) {
-                    lruCleanPageMap.remove(lep.getEntryKey());
-                }
-            }
-        }
-
         /**
          * Get the set of active ledgers.
          *
          */
-        Set<Long> getActiveLedgers() {
-            return pages.keySet();
+        List<Long> getActiveLedgers() {
+            return pages.keys();
         }
 
         /**
@@ -235,80 +264,90 @@ class IndexInMemPageMgr {
         LedgerEntryPage grabCleanPage(long ledgerId, long firstEntry) {
             LedgerEntryPage lep = listOfFreePages.poll();
             if (null != lep) {
-                lep.resetPage();
-                lep.setLedgerAndFirstEntry(ledgerId, firstEntry);
-                lep.usePage();
-                return lep;
+                if (lep.tryReclaim()) {
+                    lep.reclaim(ledgerId, firstEntry);
+                    return lep;
+                }
+                // A reader that looked up the page before it was freed still holds it
+                listOfFreePages.add(lep);
             }
-            while (lruCleanPageMap.size() > 0) {
-                lep = null;
-                synchronized (lruCleanPageMap) {
-                    Iterator<Map.Entry<EntryKey, LedgerEntryPage>> iterator = lruCleanPageMap.entrySet().iterator();
-
-                    Map.Entry<EntryKey, LedgerEntryPage> entry = null;
-                    while (iterator.hasNext()) {
-                        entry = iterator.next();
-                        iterator.remove();
-                        if (entry.getValue().isClean() && !entry.getValue().inUse()) {
-                            lep = entry.getValue();
-                            break;
-                        }
-                    }
 
-                    if (null == lep) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Did not find eligible page in the first pass");
-                        }
-                        return null;
-                    }
+            int count = clockPagesCount;
+            LedgerEntryPage[] array = clockPages;
+            // Two rounds are enough to clear the reference bit of every page
+            for (int i = 0; i < 2 * count; i++) {
+                lep = array[(clockHand.getAndIncrement() & Integer.MAX_VALUE) % count];
+                if (!lep.isClean() || lep.inUse() || lep.clearAccessed()) {
+                    continue;
                 }
 
-                // We found a candidate page, lets see if we can reclaim it before its re-used
-                ConcurrentMap<Long, LedgerEntryPage> pageMap = pages.get(lep.getLedger());
+                // We found a candidate page, lets see if we can reclaim it before its re-used.
+                // Once marked as reclaiming, the page cannot be used or written until it is reset.
+                if (!lep.tryReclaim()) {
+                    continue;
+                }
+                if (removeReclaimedPage(lep)) {
+                    // We can now safely reset this lep and return it.
+                    lep.reclaim(ledgerId, firstEntry);
+                    return lep;
+                }
+                lep.cancelReclaim();
+            }
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Did not find eligible page after two rounds of the clock");
+            }
+            return null;
+        }
+
+        /**
+         * Remove a page being reclaimed from the page map.
+         *
+         * @return false if the page is not mapped anymore, or was written since it was picked
+         */
+        private boolean removeReclaimedPage(LedgerEntryPage lep) {
+            synchronized (removalLock) {
+                ConcurrentLongHashMap<LedgerEntryPage> pageMap = pages.get(lep.getLedger());
                 // Remove from map only if nothing has changed since we checked this lep.
                 // Its possible for the ledger to have been deleted or the page to have already
                 // been reclaimed. The page map is the definitive source of information, if anything
                 // has changed we should leave this page along and continue iterating to find
                 // another suitable page.
-                if ((null != pageMap) && (pageMap.remove(lep.getFirstEntry(), lep))) {
-                    if (!lep.isClean()) {
-                        // Someone wrote to this page while we were reclaiming it.
-                        pageMap.put(lep.getFirstEntry(), lep);
-                        lep = null;
-                    } else {
-                        // Do some bookkeeping on the page table
-                        pages.remove(lep.getLedger(), EMPTY_PAGE_MAP);
-                        // We can now safely reset this lep and return it.
-                        lep.usePage();
-                        lep.zeroPage();
-                        lep.setLedgerAndFirstEntry(ledgerId, firstEntry);
-                        return lep;
-                    }
-                } else {
-                    lep = null;
+                // The page map is compared by identity, since pages are equal if they have the same key.
+                // As the page is marked as reclaiming, no other page can be mapped for its key before it is
+                // removed.
+                if (!lep.isClean() || (null == pageMap) || (pageMap.get(lep.getFirstEntry()) != lep)) {
+                    return false;
                 }
+                pageMap.remove(lep.getFirstEntry());
+                numOfRemovedPages[removalSlot(lep.getLedger(), lep.getFirstEntry())]++;
+                // Do some bookkeeping on the page table, no page can be mapped concurrently
+                if (pageMap.isEmpty()) {
+                    pages.remove(lep.getLedger(), pageMap);
+                }
+                return true;
             }
-            return lep;
         }
 
         public void addToListOfFreePages(LedgerEntryPage lep) {
             if ((null == lep) || lep.inUse()) {
                 inMemPageMgrStats.getIllegalStateResetCounter().inc();
             }
-            if (null != lep) {
+            // A deleted page is released again by the readers that looked it up before it was deleted
+            if (null != lep && lep.markFree()) {
                 listOfFreePages.add(lep);
             }
         }
 
         @Override
         public void onSetInUse(LedgerEntryPage lep) {
-            removeFromCleanPageList(lep);
+            // no-op, pages in use are skipped by the clock
         }
 
         @Override
         public void onResetInUse(LedgerEntryPage lep) {
             if (!lep.isDeleted()) {
-                addToCleanPagesList(lep);
+                lep.markAccessed();
             } else {
                 addToListOfFreePages(lep);
             }
@@ -316,12 +355,12 @@ class IndexInMemPageMgr {
 
         @Override
         public void onSetClean(LedgerEntryPage lep) {
-            addToCleanPagesList(lep);
+            // no-op, dirty pages are skipped by the clock
         }
 
         @Override
         public void onSetDirty(LedgerEntryPage lep) {
-            removeFromCleanPageList(lep);
+            // no-op, dirty pages are skipped by the clock
         }
     }
 
@@ -329,6 +368,8 @@ class IndexInMemPageMgr {
     final int entriesPerPage;
     final int pageLimit;
     final InMemPageCollection pageMapAndList;
+    // Whether pages missing from the cache are read from the memory mapped index files, instead of being loaded
+    final boolean mmapReadsEnabled;
 
     // The number of pages that have actually been used
     private final AtomicInteger pageCount = new AtomicInteger(0);
@@ -351,6 +392,7 @@ class IndexInMemPageMgr {
         this.entriesPerPage = entriesPerPage;
         this.indexPersistenceManager = indexPersistenceManager;
         this.pageMapAndList = new InMemPageCollection(statsLogger);
+        this.mmapReadsEnabled = conf.isFileInfoMmapEnabled();
 
         long maxDirectMemory = PlatformDependent.estimateMaxDirectMemory();
 
@@ -421,14 +463,19 @@ class IndexInMemPageMgr {
     LedgerEntryPage getLedgerEntryPageFromCache(long ledger,
                                                        long firstEntry,
                                                        boolean onlyDirty) {
-        LedgerEntryPage lep = pageMapAndList.getPage(ledger, firstEntry);
-        if (onlyDirty && null != lep && lep.isClean()) {
-            return null;
-        }
-        if (null != lep) {
-            lep.usePage();
+        while (true) {
+            LedgerEntryPage lep = pageMapAndList.getPage(ledger, firstEntry);
+            if (null == lep || (onlyDirty && lep.isClean())) {
+                return null;
+            }
+            if (lep.tryUsePage()) {
+                // The page could have been reclaimed between the lookup and its use
+                if (pageMapAndList.getPage(ledger, firstEntry) == lep) {
+                    return lep;
+                }
+                lep.releasePage();
+            }
         }
-        return lep;
     }
 
     /**
@@ -441,6 +488,7 @@ class IndexInMemPageMgr {
      */
     private LedgerEntryPage grabLedgerEntryPage(long ledger, long pageEntry) throws IOException {
         LedgerEntryPage lep = grabCleanPage(ledger, pageEntry);
+        long numOfRemovedPages = pageMapAndList.getNumOfRemovedPages(ledger, pageEntry);
         try {
             // should get the up to date page from the persistence manager
             // before we put it into table otherwise we would put
@@ -460,16 +508,19 @@ class IndexInMemPageMgr {
             pageMapAndList.addToListOfFreePages(lep);
             throw ie;
         }
-        LedgerEntryPage oldLep;
-        if (lep != (oldLep = pageMapAndList.putPage(lep))) {
+        if (lep != pageMapAndList.putPage(lep, numOfRemovedPages)) {
             // if we grab a clean page, but failed to put it in the cache
             // we should put this page in the free page list so that it
-            // can be reassigned to the next grabPage request
+            // can be reassigned to the next grabPage request. The page could
+            // also miss writes flushed after it was read, if a page of the same
+            // key was reclaimed meanwhile
             lep.releasePageNoCallback();
             pageMapAndList.addToListOfFreePages(lep);
-            // Increment the use count of the old lep because this is unexpected
-            oldLep.usePage();
-            lep = oldLep;
+            // Use the old lep, unless it was reclaimed in the meantime
+            lep = getLedgerEntryPageFromCache(ledger, pageEntry, false);
+            if (null == lep) {
+                lep = grabLedgerEntryPage(ledger, pageEntry);
+            }
         }
         return lep;
     }
@@ -499,6 +550,7 @@ class IndexInMemPageMgr {
                 LedgerEntryPage lep = new LedgerEntryPage(pageSize, entriesPerPage, pageMapAndList);
                 lep.setLedgerAndFirstEntry(ledger, entry);
                 lep.usePage();
+                pageMapAndList.addPage(lep);
                 return lep;
             }
 
@@ -513,7 +565,7 @@ class IndexInMemPageMgr {
     }
 
     void flushOneOrMoreLedgers(boolean doAll) throws IOException {
-        List<Long> ledgersToFlush = new ArrayList<>(pageMapAndList.getActiveLedgers());
+        List<Long> ledgersToFlush = pageMapAndList.getActiveLedgers();
         for (Long potentiallyDirtyLedger : ledgersToFlush) {
             try {
                 flushSpecificLedger(potentiallyDirtyLedger);
@@ -589,7 +641,17 @@ class IndexInMemPageMgr {
         long pageEntry = entry - offsetInPage;
         LedgerEntryPage lep = null;
         try {
-            lep = getLedgerEntryPage(ledger, pageEntry);
+            if (mmapReadsEnabled) {
+                lep = getLedgerEntryPageFromCache(ledger, pageEntry, false);
+                if (lep == null) {
+                    // Dirty pages are never reclaimed, so the index file is up to date for pages not in the cache
+                    ledgerCacheMissCounter.inc();
+                    return indexPersistenceManager.readEntryOffsetMapped(ledger, entry);
+                }
+                ledgerCacheHitCounter.inc();
+            } else {
+                lep = getLedgerEntryPage(ledger, pageEntry);
+            }
             return lep.getOffset(offsetInPage  * LedgerEntryPage.getIndexEntrySize());
         } finally {
             if (lep != null) {
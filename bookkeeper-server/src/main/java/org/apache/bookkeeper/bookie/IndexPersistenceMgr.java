@@ -654,6 +654,23 @@ public class IndexPersistenceMgr {
         }
     }
 
+    /**
+     * Read the offset of an entry directly from the memory mapped index file of the ledger.
+     *
+     * @return the offset of the entry, 0 if the index file has no offset for it
+     */
+    long readEntryOffsetMapped(long ledgerId, long entryId) throws IOException {
+        CachedFileInfo fi = null;
+        try {
+            fi = getFileInfo(ledgerId, null);
+            return fi.readLongMapped(entryId * LedgerEntryPage.getIndexEntrySize());
+        } finally {
+            if (fi != null) {
+                fi.release();
+            }
+        }
+    }
+
     long getPersistEntryBeyondInMem(long ledgerId, long lastEntryInMem) throws IOException {
         CachedFileInfo fi = null;
         long lastEntry = lastEntryInMem;
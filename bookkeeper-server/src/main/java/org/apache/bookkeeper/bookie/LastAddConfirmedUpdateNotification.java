@@ -26,12 +26,16 @@ import java.util.function.Function;
 import lombok.Getter;
 import org.apache.bookkeeper.common.collections.RecyclableArrayList;
 import org.apache.bookkeeper.common.util.Recyclable;
+import org.apache.bookkeeper.common.util.Watchable;
 import org.apache.bookkeeper.common.util.Watcher;
 
 /**
  * A signal object is used for notifying the observers when the {@code LastAddConfirmed} is advanced.
  *
  * <p>The signal object contains the latest {@code LastAddConfirmed} and when the {@code LastAddConfirmed} is advanced.
+ *
+ * <p>A single signal object is shared by all the observers notified of an advance, and recycled by the notifier
+ * once all of them were notified: observers must not retain nor recycle it.
  */
 @Getter
 public class LastAddConfirmedUpdateNotification implements Recyclable {
@@ -48,6 +52,19 @@ public class LastAddConfirmedUpdateNotification implements Recyclable {
         return lac;
     }
 
+    /**
+     * Notify all the watchers of a watchable with a single signal object.
+     */
+    public static void notifyWatchers(Watchable<LastAddConfirmedUpdateNotification> watchable,
+                                      long lastAddConfirmed) {
+        LastAddConfirmedUpdateNotification lac = of(lastAddConfirmed);
+        try {
+            watchable.notifyWatchers(lac);
+        } finally {
+            lac.recycle();
+        }
+    }
+
     private static final Recycler<LastAddConfirmedUpdateNotification> RECYCLER =
         new Recycler<LastAddConfirmedUpdateNotification>() {
             @Override
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.NoSuchElementException;
 import java.util.PrimitiveIterator.OfLong;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.bookkeeper.proto.BookieProtocol;
 import org.apache.bookkeeper.util.ZeroBuffer;
@@ -40,6 +41,8 @@ public class LedgerEntryPage implements AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(LedgerEntryPage.class);
 
     private static final int indexEntrySize = 8;
+    // Use count of a page being reclaimed
+    private static final int RECLAIMING = -1;
     private final int pageSize;
     private final int entriesPerPage;
     private volatile EntryKey entryKey = new EntryKey(-1, BookieProtocol.INVALID_ENTRY_ID);
@@ -50,6 +53,10 @@ public class LedgerEntryPage implements AutoCloseable {
     private volatile int last = -1; // Last update position
     private final LEPStateChangeCallback callback;
     private boolean deleted;
+    // Reference bit for the clock eviction of the page cache
+    private volatile boolean accessed;
+    // Whether the page is in the list of free pages
+    private final AtomicBoolean free = new AtomicBoolean(false);
 
     public static int getIndexEntrySize() {
         return indexEntrySize;
@@ -93,6 +100,23 @@ public class LedgerEntryPage implements AutoCloseable {
         return deleted;
     }
 
+    void markAccessed() {
+        accessed = true;
+    }
+
+    /**
+     * Clear the reference bit of the page.
+     *
+     * @return true if the page was accessed since the bit was last cleared
+     */
+    boolean clearAccessed() {
+        if (accessed) {
+            accessed = false;
+            return true;
+        }
+        return false;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -105,12 +129,70 @@ public class LedgerEntryPage implements AutoCloseable {
     }
 
     public void usePage() {
-        int oldVal = useCount.getAndIncrement();
-        if ((0 == oldVal) && (null != callback)) {
-            callback.onSetInUse(this);
+        while (!tryUsePage()) {
+            // The page is being reclaimed, which only takes a few instructions
+            Thread.onSpinWait();
         }
     }
 
+    /**
+     * Mark the page in use, unless it is being reclaimed.
+     *
+     * @return false if the page is being reclaimed
+     */
+    boolean tryUsePage() {
+        while (true) {
+            int oldVal = useCount.get();
+            if (oldVal == RECLAIMING) {
+                return false;
+            }
+            if (useCount.compareAndSet(oldVal, oldVal + 1)) {
+                if ((0 == oldVal) && (null != callback)) {
+                    callback.onSetInUse(this);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Take exclusive ownership of the page to reclaim it, if it is not in use. Until the reclaim is completed
+     * with {@link #reclaim(long, long)} or cancelled with {@link #cancelReclaim()}, the page cannot be used.
+     *
+     * @return true if the page can be reclaimed
+     */
+    boolean tryReclaim() {
+        return useCount.compareAndSet(0, RECLAIMING);
+    }
+
+    /**
+     * Mark the page as added to the list of free pages.
+     *
+     * @return false if the page was already in the list
+     */
+    boolean markFree() {
+        return free.compareAndSet(false, true);
+    }
+
+    void cancelReclaim() {
+        useCount.set(0);
+    }
+
+    /**
+     * Reset the page being reclaimed and assign it to the given ledger and first entry. The page is returned in
+     * use by the caller.
+     */
+    void reclaim(long ledgerId, long firstEntry) {
+        page.clear();
+        ZeroBuffer.put(page);
+        last = -1;
+        clean = true;
+        deleted = false;
+        free.set(false);
+        setLedgerAndFirstEntry(ledgerId, firstEntry);
+        useCount.set(1);
+    }
+
     public void releasePageNoCallback() {
         releasePageInternal(false);
     }
@@ -151,9 +233,19 @@ public class LedgerEntryPage implements AutoCloseable {
     }
 
     void setClean(int versionOfCleaning) {
-        this.clean = (versionOfCleaning == version.get());
+        if (versionOfCleaning != version.get()) {
+            return;
+        }
+        this.clean = true;
+        // A write racing with the flush bumps the version before marking the page dirty, so either it marks the
+        // page dirty after this point, or we see the new version here. Otherwise the page could be reclaimed
+        // without the write being flushed.
+        if (versionOfCleaning != version.get()) {
+            this.clean = false;
+            return;
+        }
 
-        if ((null != callback) && clean) {
+        if (null != callback) {
             callback.onSetClean(this);
         }
     }
@@ -217,6 +217,25 @@ public interface LedgerStorage {
 
     ByteBuf getExplicitLac(long ledgerId) throws IOException, BookieException;
 
+    /**
+     * Get the percentage of the write cache in use, for the storages buffering the entries in a write cache.
+     *
+     * @return the write cache usage in percent, or 0 if there is no write cache
+     */
+    default int getWriteCacheUsagePercent() {
+        return 0;
+    }
+
+    /**
+     * Get the number of ledger directories the ledgers are mapped to by ledger id, for the storages keeping all the
+     * entries of a ledger in the directory {@code MathUtils.signSafeMod(ledgerId, numDirs)}.
+     *
+     * @return the number of directories, or 0 if the entries of a ledger may be stored in any directory
+     */
+    default int getNumLedgerDirsMappedByLedgerId() {
+        return 0;
+    }
+
     // for testability
     default LedgerStorage getUnderlyingLedgerStorage() {
         return this;
@@ -0,0 +1,475 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.bookie.Bookie.NoLedgerException;
+import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
+import org.apache.bookkeeper.bookie.storage.ldb.WriteCache;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.util.IteratorUtility;
+import org.apache.bookkeeper.util.MathUtils;
+
+/**
+ * EntryMemTable that keeps the entries in off-heap memory.
+ *
+ * <p>The entries are appended to the direct memory segments of a {@link WriteCache} and indexed by primitive
+ * (ledgerId, entryId) maps, so adding an entry does not allocate any object on the heap. The entries are only
+ * sorted when a snapshot is flushed.
+ *
+ * <p>Two caches are used: one receives the new entries while the other one holds the snapshot being flushed.
+ * Taking a snapshot swaps them, and the memory of a flushed snapshot is reused for the next one. Memory segments
+ * are only allocated once the cache grows into them, and are kept until the memtable is closed.
+ *
+ * <p>Each cache holds up to skipListSizeLimit bytes of entries, plus a segment for the alignment of the entries,
+ * so the memtable uses at most about twice skipListSizeLimit of direct memory, as much as the skip list memtable
+ * may hold. Unlike the skip list memtable, whose new entries can use the room left by a small snapshot, the
+ * writers wait for the snapshot to be flushed once the memtable cache is full, and fail if the flush fails.
+ */
+@Slf4j
+class OffHeapEntryMemTable extends EntryMemTable {
+
+    // Entries read from the memtable are copied on heap, to be exposed as EntryKeyValue
+    private static final ByteBufAllocator HEAP_ALLOCATOR = new UnpooledByteBufAllocator(false, true);
+
+    private volatile WriteCache kvCache;
+    private volatile Checkpoint kvCheckpoint;
+
+    private volatile WriteCache snapshotCache;
+    private volatile Checkpoint snapshotCheckpoint = Checkpoint.MAX;
+
+    // Used to flush the ledgers of a snapshot in parallel, null if the snapshot is flushed sequentially
+    private final OrderedExecutor flushExecutor;
+
+    // Notified when a snapshot is flushed or fails to be flushed, for the writers waiting for room in the memtable
+    // cache
+    private final Object snapshotFlushed = new Object();
+    // Whether the last flush of the snapshot failed, in which case the writers waiting for room are failed
+    private boolean snapshotFlushFailed = false;
+
+    OffHeapEntryMemTable(final ServerConfiguration conf, final CheckpointSource source,
+                         final StatsLogger statsLogger, boolean parallelFlush) {
+        super(conf, source, statsLogger, false);
+
+        // A segment must be able to hold the biggest entry
+        int segmentSize = alignToPowerOfTwo(Math.max(conf.getSkipListArenaChunkSize(),
+                conf.getNettyMaxFrameSizeBytes()));
+        // Each cache holds the entries of a memtable reaching the size limit, with room for the alignment of the
+        // entries within the segments. Once it is full, the writers wait for the snapshot to be flushed.
+        long cacheSize = skipListSizeLimit + segmentSize;
+        this.kvCache = new WriteCache(HEAP_ALLOCATOR, cacheSize, segmentSize, false);
+        this.kvCheckpoint = checkpointSource.newCheckpoint();
+        this.snapshotCache = new WriteCache(HEAP_ALLOCATOR, cacheSize, segmentSize, false);
+
+        if (parallelFlush) {
+            this.flushExecutor = OrderedExecutor.newBuilder().numThreads(conf.getNumOfMemtableFlushThreads())
+                    .name("MemtableFlushThreads").build();
+        } else {
+            this.flushExecutor = null;
+        }
+    }
+
+    @Override
+    void dump() {
+        log.info("Memtable holds {} entries and snapshot holds {} entries", kvCache.count(), snapshotCache.count());
+    }
+
+    @Override
+    Checkpoint snapshot(Checkpoint oldCp) throws IOException {
+        Checkpoint cp = null;
+        // No-op if snapshot currently has entries
+        if (snapshotCache.isEmpty() && kvCheckpoint.compareTo(oldCp) < 0) {
+            final long startTimeNanos = MathUtils.nowInNano();
+            this.lock.writeLock().lock();
+            try {
+                if (snapshotCache.isEmpty() && !kvCache.isEmpty() && kvCheckpoint.compareTo(oldCp) < 0) {
+                    WriteCache emptyCache = snapshotCache;
+                    snapshotCache = kvCache;
+                    snapshotCheckpoint = kvCheckpoint;
+                    kvCache = emptyCache;
+                    kvCheckpoint = checkpointSource.newCheckpoint();
+                    // get the checkpoint of the memtable.
+                    cp = kvCheckpoint;
+                    this.size.set(0);
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+
+            if (null != cp) {
+                memTableStats.getSnapshotStats()
+                    .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            } else {
+                memTableStats.getSnapshotStats()
+                    .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            }
+        }
+        return cp;
+    }
+
+    @Override
+    long flushSnapshot(final SkipListFlusher flusher, Checkpoint checkpoint) throws IOException {
+        long size = 0;
+        if (snapshotCheckpoint.compareTo(checkpoint) < 0) {
+            synchronized (this) {
+                WriteCache keyValues = snapshotCache;
+                if (snapshotCheckpoint.compareTo(checkpoint) < 0) {
+                    try {
+                        if (flushExecutor != null) {
+                            flushInParallel(keyValues, flusher);
+                        } else {
+                            long[] ledgerGC = { -1 };
+                            keyValues.forEach((ledgerId, entryId, entry) -> {
+                                if (ledgerGC[0] != ledgerId) {
+                                    try {
+                                        flusher.process(ledgerId, entryId, entry);
+                                    } catch (NoLedgerException exception) {
+                                        ledgerGC[0] = ledgerId;
+                                    }
+                                }
+                            });
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // The snapshot is kept to be flushed again, fail the writers waiting for it
+                        synchronized (snapshotFlushed) {
+                            snapshotFlushFailed = true;
+                            snapshotFlushed.notifyAll();
+                        }
+                        throw e;
+                    }
+                    size = keyValues.size();
+                    memTableStats.getFlushBytesCounter().addCount(size);
+                    clearSnapshot(keyValues);
+                }
+            }
+        }
+
+        skipListSemaphore.release((int) size);
+        return size;
+    }
+
+    /**
+     * Flush the entries of each ledger of the snapshot on the flush executor, with the ledger id as ordering key.
+     * The sorted iteration over the snapshot groups the entries of a ledger together.
+     */
+    private void flushInParallel(WriteCache keyValues, final SkipListFlusher flusher) throws IOException {
+        Phaser pendingNumOfLedgerFlushes = new Phaser(1);
+        AtomicReference<Exception> exceptionWhileFlushingParallelly = new AtomicReference<Exception>();
+        LedgerEntries[] current = { null };
+
+        keyValues.forEach((ledgerId, entryId, entry) -> {
+            if (current[0] != null && current[0].ledgerId != ledgerId) {
+                submitLedgerFlush(current[0], flusher, pendingNumOfLedgerFlushes, exceptionWhileFlushingParallelly);
+                current[0] = null;
+            }
+            if (current[0] == null) {
+                current[0] = new LedgerEntries(ledgerId);
+            }
+            // The entry buffer is reused by the iteration, keep a view of the current entry
+            current[0].add(entryId, entry.slice());
+        });
+        if (current[0] != null) {
+            submitLedgerFlush(current[0], flusher, pendingNumOfLedgerFlushes, exceptionWhileFlushingParallelly);
+        }
+
+        boolean phaserTerminatedAbruptly = false;
+        try {
+            phaserTerminatedAbruptly = (pendingNumOfLedgerFlushes.arriveAndAwaitAdvance() < 0);
+        } catch (IllegalStateException ise) {
+            log.error("Got IllegalStateException while awaiting on Phaser", ise);
+            throw new IOException("Got IllegalStateException while awaiting on Phaser", ise);
+        }
+        if (phaserTerminatedAbruptly) {
+            log.error("Phaser is terminated while awaiting flushExecutor to complete the entry flushes",
+                    exceptionWhileFlushingParallelly.get());
+            throw new IOException("Failed to complete the flushSnapshotByParallelizing",
+                    exceptionWhileFlushingParallelly.get());
+        }
+    }
+
+    private void submitLedgerFlush(LedgerEntries ledgerEntries, SkipListFlusher flusher,
+                                   Phaser pendingNumOfLedgerFlushes,
+                                   AtomicReference<Exception> exceptionWhileFlushingParallelly) {
+        pendingNumOfLedgerFlushes.register();
+        flushExecutor.executeOrdered(ledgerEntries.ledgerId, () -> {
+            try {
+                for (int i = 0; i < ledgerEntries.entries.size(); i++) {
+                    try {
+                        flusher.process(ledgerEntries.ledgerId, ledgerEntries.entryIds[i],
+                                ledgerEntries.entries.get(i));
+                    } catch (NoLedgerException exception) {
+                        break;
+                    }
+                }
+                pendingNumOfLedgerFlushes.arriveAndDeregister();
+            } catch (Exception exc) {
+                log.error("Got Exception while trying to flush process entries: ", exc);
+                exceptionWhileFlushingParallelly.set(exc);
+                pendingNumOfLedgerFlushes.forceTermination();
+            }
+        });
+    }
+
+    private void clearSnapshot(WriteCache keyValues) {
+        this.lock.writeLock().lock();
+        try {
+            assert snapshotCache == keyValues;
+            keyValues.clear();
+            snapshotCheckpoint = Checkpoint.MAX;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+        synchronized (snapshotFlushed) {
+            snapshotFlushFailed = false;
+            snapshotFlushed.notifyAll();
+        }
+    }
+
+    @Override
+    public long addEntry(long ledgerId, long entryId, final ByteBuffer entry, final CacheCallback cb)
+            throws IOException {
+        return addEntry(ledgerId, entryId, Unpooled.wrappedBuffer(entry), cb);
+    }
+
+    @Override
+    public long addEntry(long ledgerId, long entryId, final ByteBuf entry, final CacheCallback cb)
+            throws IOException {
+        long size = 0;
+        long startTimeNanos = MathUtils.nowInNano();
+        boolean success = false;
+        try {
+            if (isSizeLimitReached() || (!previousFlushSucceeded.get())) {
+                Checkpoint cp = snapshot();
+                if ((null != cp) || (!previousFlushSucceeded.get())) {
+                    cb.onSizeLimitReached(cp);
+                }
+            }
+
+            final int len = entry.readableBytes();
+            if (!skipListSemaphore.tryAcquire(len)) {
+                memTableStats.getThrottlingCounter().inc();
+                final long throttlingStartTimeNanos = MathUtils.nowInNano();
+                skipListSemaphore.acquireUninterruptibly(len);
+                memTableStats.getThrottlingStats()
+                    .registerSuccessfulEvent(MathUtils.elapsedNanos(throttlingStartTimeNanos), TimeUnit.NANOSECONDS);
+            }
+
+            while (true) {
+                WriteCache cache;
+                this.lock.readLock().lock();
+                try {
+                    cache = kvCache;
+                    if (kvCache.hasEntry(ledgerId, entryId)) {
+                        skipListSemaphore.release(len);
+                        break;
+                    }
+                    if (kvCache.put(ledgerId, entryId, entry)) {
+                        size = len;
+                        this.size.addAndGet(len);
+                        break;
+                    }
+                } finally {
+                    this.lock.readLock().unlock();
+                }
+
+                try {
+                    waitForSnapshotFlush(cache, cb);
+                } catch (IOException e) {
+                    skipListSemaphore.release(len);
+                    throw e;
+                }
+            }
+            success = true;
+            return size;
+        } finally {
+            if (success) {
+                memTableStats.getPutEntryStats()
+                    .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            } else {
+                memTableStats.getPutEntryStats()
+                    .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * The memtable cache is full: snapshot it if the previous snapshot is already flushed, otherwise wait for the
+     * flush to complete, unless another writer snapshotted the full cache meanwhile. Fails if the flush of the
+     * snapshot failed, until it is flushed again.
+     */
+    private void waitForSnapshotFlush(WriteCache fullCache, CacheCallback cb) throws IOException {
+        Checkpoint cp = snapshot();
+        if (null != cp) {
+            cb.onSizeLimitReached(cp);
+            return;
+        }
+
+        try {
+            synchronized (snapshotFlushed) {
+                while (kvCache == fullCache && !snapshotCache.isEmpty()) {
+                    if (snapshotFlushFailed) {
+                        throw new IOException("The memtable is full and its snapshot failed to be flushed");
+                    }
+                    snapshotFlushed.wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the memtable snapshot to be flushed", e);
+        }
+    }
+
+    @Override
+    public EntryKeyValue getEntry(long ledgerId, long entryId) throws IOException {
+        ByteBuf entry = null;
+        long startTimeNanos = MathUtils.nowInNano();
+        boolean success = false;
+        this.lock.readLock().lock();
+        try {
+            entry = kvCache.get(ledgerId, entryId);
+            if (entry == null) {
+                entry = snapshotCache.get(ledgerId, entryId);
+            }
+            success = true;
+        } finally {
+            this.lock.readLock().unlock();
+            if (success) {
+                memTableStats.getGetEntryStats()
+                    .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            } else {
+                memTableStats.getGetEntryStats()
+                    .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        return entry == null ? null : toEntryKeyValue(ledgerId, entryId, entry);
+    }
+
+    @Override
+    public EntryKeyValue getLastEntry(long ledgerId) throws IOException {
+        ByteBuf entry = null;
+        long startTimeNanos = MathUtils.nowInNano();
+        boolean success = false;
+        this.lock.readLock().lock();
+        try {
+            entry = kvCache.getLastEntry(ledgerId);
+            if (entry == null) {
+                entry = snapshotCache.getLastEntry(ledgerId);
+            }
+            success = true;
+        } finally {
+            this.lock.readLock().unlock();
+            if (success) {
+                memTableStats.getGetEntryStats()
+                    .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            } else {
+                memTableStats.getGetEntryStats()
+                    .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        if (entry == null) {
+            return null;
+        }
+        // The entry id is stored in the entry header
+        long entryId = entry.getLong(entry.readerIndex() + 8);
+        return toEntryKeyValue(ledgerId, entryId, entry);
+    }
+
+    private static EntryKeyValue toEntryKeyValue(long ledgerId, long entryId, ByteBuf entry) {
+        return new EntryKeyValue(ledgerId, entryId, entry.array(), entry.arrayOffset() + entry.readerIndex(),
+                entry.readableBytes());
+    }
+
+    @Override
+    boolean isEmpty() {
+        return size.get() == 0 && snapshotCache.isEmpty();
+    }
+
+    @Override
+    PrimitiveIterator.OfLong getListOfEntriesOfLedger(long ledgerId) {
+        long[] entriesInKvCache;
+        long[] entriesInSnapshot;
+        this.lock.readLock().lock();
+        try {
+            entriesInKvCache = kvCache.getEntryIds(ledgerId);
+            entriesInSnapshot = snapshotCache.getEntryIds(ledgerId);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return IteratorUtility.mergePrimitiveLongIterator(Arrays.stream(entriesInKvCache).iterator(),
+                Arrays.stream(entriesInSnapshot).iterator());
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+        }
+        this.lock.writeLock().lock();
+        try {
+            kvCache.close();
+            snapshotCache.close();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private static int alignToPowerOfTwo(int n) {
+        return (int) Math.pow(2, 64 - Long.numberOfLeadingZeros(n - 1));
+    }
+
+    /**
+     * Entries of a ledger of the snapshot, flushed by a single task.
+     */
+    private static class LedgerEntries {
+        final long ledgerId;
+        long[] entryIds = new long[16];
+        final List<ByteBuf> entries = new ArrayList<>();
+
+        LedgerEntries(long ledgerId) {
+            this.ledgerId = ledgerId;
+        }
+
+        void add(long entryId, ByteBuf entry) {
+            int idx = entries.size();
+            if (idx == entryIds.length) {
+                entryIds = Arrays.copyOf(entryIds, idx * 2);
+            }
+            entryIds[idx] = entryId;
+            entries.add(entry);
+        }
+    }
+}
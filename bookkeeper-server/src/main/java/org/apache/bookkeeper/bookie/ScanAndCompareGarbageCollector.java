@@ -26,7 +26,9 @@ import static org.apache.bookkeeper.common.concurrent.FutureUtils.result;
 import com.google.common.collect.Sets;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.SortedMap;
@@ -143,6 +145,7 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
 
             // Iterate over all the ledger on the metadata store
             long zkOpTimeoutMs = this.conf.getZkTimeout() * 2;
+            int bulkReadConcurrency = Math.max(1, this.conf.getLedgerMetadataBulkReadConcurrency());
             LedgerRangeIterator ledgerRangeIterator = ledgerManager
                     .getLedgerRanges(zkOpTimeoutMs);
             Set<Long> ledgersInMetadata = null;
@@ -150,7 +153,6 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
             long end = -1;
             boolean done = false;
             AtomicBoolean isBookieInEnsembles = new AtomicBoolean(false);
-            Versioned<LedgerMetadata> metadata = null;
             while (!done) {
                 start = end + 1;
                 if (ledgerRangeIterator.hasNext()) {
@@ -168,45 +170,66 @@ public class ScanAndCompareGarbageCollector implements GarbageCollector {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Active in metadata {}, Active in bookie {}", ledgersInMetadata, subBkActiveLedgers);
                 }
+                List<Long> ledgersMissingInMetadata = new ArrayList<>();
                 for (Long bkLid : subBkActiveLedgers) {
                     if (!ledgersInMetadata.contains(bkLid)) {
-                        if (verifyMetadataOnGc) {
-                            isBookieInEnsembles.set(false);
-                            metadata = null;
-                            int rc = BKException.Code.OK;
+                        ledgersMissingInMetadata.add(bkLid);
+                    }
+                }
+                if (ledgersMissingInMetadata.isEmpty()) {
+                    continue;
+                }
+
+                if (verifyMetadataOnGc) {
+                    // read the metadata of all the ledgers missing in this range at once, rather than one by one.
+                    // the reads are pipelined, so the timeout grows with the number of rounds of concurrent reads
+                    long rounds = (ledgersMissingInMetadata.size() + bulkReadConcurrency - 1) / bulkReadConcurrency;
+                    Map<Long, Versioned<LedgerMetadata>> metadatas = null;
+                    try {
+                        metadatas = result(ledgerManager.readLedgerMetadata(ledgersMissingInMetadata),
+                                zkOpTimeoutMs * Math.max(1, rounds), TimeUnit.MILLISECONDS);
+                    } catch (BKException | TimeoutException e) {
+                        LOG.warn("Failed to fetch metadata for Ledgers {} missing in metadata list : {}, "
+                                + "fetching them one by one.", ledgersMissingInMetadata, e.getMessage());
+                    }
+                    for (Long bkLid : ledgersMissingInMetadata) {
+                        Versioned<LedgerMetadata> metadata;
+                        if (null != metadatas) {
+                            metadata = metadatas.get(bkLid);
+                        } else {
                             try {
                                 metadata = result(ledgerManager.readLedgerMetadata(bkLid), zkOpTimeoutMs,
                                         TimeUnit.MILLISECONDS);
                             } catch (BKException | TimeoutException e) {
-                                if (e instanceof BKException) {
-                                    rc = ((BKException) e).getCode();
-                                } else {
-                                    LOG.warn("Time-out while fetching metadata for Ledger {} : {}.", bkLid,
-                                            e.getMessage());
-
+                                if (!(e instanceof BKException) || ((BKException) e).getCode()
+                                        != BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
+                                    LOG.warn("Ledger {} Missing in metadata list, but failed to fetch its metadata"
+                                            + " : {}.", bkLid, e.getMessage());
                                     continue;
                                 }
+                                metadata = null;
                             }
-                            // check bookie should be part of ensembles in one
-                            // of the segment else ledger should be deleted from
-                            // local storage
-                            if (metadata != null && metadata.getValue() != null) {
-                                metadata.getValue().getAllEnsembles().forEach((entryId, ensembles) -> {
-                                    if (ensembles != null && ensembles.contains(selfBookieAddress)) {
-                                        isBookieInEnsembles.set(true);
-                                    }
-                                });
-                                if (isBookieInEnsembles.get()) {
-                                    continue;
+                        }
+                        // check bookie should be part of ensembles in one
+                        // of the segment else ledger should be deleted from
+                        // local storage
+                        if (metadata != null && metadata.getValue() != null) {
+                            isBookieInEnsembles.set(false);
+                            metadata.getValue().getAllEnsembles().forEach((entryId, ensembles) -> {
+                                if (ensembles != null && ensembles.contains(selfBookieAddress)) {
+                                    isBookieInEnsembles.set(true);
                                 }
-                            } else if (rc != BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
-                                LOG.warn("Ledger {} Missing in metadata list, but ledgerManager returned rc: {}.",
-                                        bkLid, rc);
+                            });
+                            if (isBookieInEnsembles.get()) {
                                 continue;
                             }
                         }
                         garbageCleaner.clean(bkLid);
                     }
+                } else {
+                    for (Long bkLid : ledgersMissingInMetadata) {
+                        garbageCleaner.clean(bkLid);
+                    }
                 }
             }
         } catch (Throwable t) {
@@ -469,6 +469,21 @@ public class DirectEntryLogger implements EntryLogger {
         return logFile(directory, logId).toString();
     }
 
+    /**
+     * Read the ledgers map stored at the end of an entry log, e.g. of an entry log stored out of the ledger
+     * directories.
+     */
+    public static EntryLogMetadata readLogMetadata(LogReader reader) throws IOException {
+        return LogMetadata.read(reader);
+    }
+
+    /**
+     * Scan the entries stored in an entry log, e.g. of an entry log stored out of the ledger directories.
+     */
+    public static void scanLog(LogReader reader, EntryLogScanner scanner) throws IOException {
+        LogReaderScan.scan(reader, scanner);
+    }
+
     @Override
     public CompactionEntryLog newCompactionLog(long srcLogId) throws IOException {
         int dstLogId = ids.nextId();
@@ -34,6 +34,7 @@ import io.netty.util.internal.PlatformDependent;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
@@ -59,6 +60,7 @@ import org.apache.bookkeeper.bookie.storage.EntryLogger;
 import org.apache.bookkeeper.bookie.storage.directentrylogger.DirectEntryLogger;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
 import org.apache.bookkeeper.bookie.storage.ldb.SingleDirectoryDbLedgerStorage.LedgerLoggerProcessor;
+import org.apache.bookkeeper.bookie.storage.tiered.TieredStorage;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.common.util.Watcher;
 import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
@@ -93,6 +95,8 @@ public class DbLedgerStorage implements LedgerStorage {
         "dbStorage_directIOEntryLoggerMaxFdCacheTimeSeconds";
 
     static final String MAX_THROTTLE_TIME_MILLIS = "dbStorage_maxThrottleTimeMs";
+    static final String ENTRY_LOCATION_INDEX_SHARDS = "dbStorage_entryLocationIndexShards";
+    static final String READ_COALESCING_ENABLED = "dbStorage_readCoalescingEnabled";
 
     private static final int MB = 1024 * 1024;
 
@@ -126,6 +130,7 @@ public class DbLedgerStorage implements LedgerStorage {
 
     private ExecutorService entryLoggerWriteExecutor = null;
     private ExecutorService entryLoggerFlushExecutor = null;
+    private TieredStorage tieredStorage = null;
 
     protected ByteBufAllocator allocator;
 
@@ -177,6 +182,10 @@ public class DbLedgerStorage implements LedgerStorage {
         long readAheadCacheBatchBytesSize = conf.getInt(READ_AHEAD_CACHE_BATCH_BYTES_SIZE,
                 DEFAULT_READ_AHEAD_CACHE_BATCH_BYTES_SIZE);
 
+        if (conf.getBoolean(TieredStorage.TIERED_STORAGE_ENABLED, false)) {
+            tieredStorage = new TieredStorage(conf, allocator);
+        }
+
         ledgerStorageList = Lists.newArrayList();
         for (int i = 0; i < ledgerDirsManager.getAllLedgerDirs().size(); i++) {
             File ledgerDir = ledgerDirsManager.getAllLedgerDirs().get(i);
@@ -238,6 +247,9 @@ public class DbLedgerStorage implements LedgerStorage {
             } else {
                 entrylogger = new DefaultEntryLogger(conf, ldm, null, statsLogger, allocator);
             }
+            if (tieredStorage != null) {
+                entrylogger = tieredStorage.newEntryLogger(entrylogger, ledgerDir, statsLogger);
+            }
             ledgerStorageList.add(newSingleDirectoryDbLedgerStorage(conf, ledgerManager, ldm,
                 idm, entrylogger,
                 statsLogger, perDirectoryWriteCacheSize,
@@ -318,6 +330,13 @@ public class DbLedgerStorage implements LedgerStorage {
         if (entryLoggerFlushExecutor != null) {
             entryLoggerFlushExecutor.shutdown();
         }
+        if (tieredStorage != null) {
+            try {
+                tieredStorage.close();
+            } catch (IOException e) {
+                log.warn("Failed to close the tiered storage", e);
+            }
+        }
     }
 
     @Override
@@ -361,6 +380,22 @@ public class DbLedgerStorage implements LedgerStorage {
         return getLedgerStorage(ledgerId).getEntry(ledgerId, entryId);
     }
 
+    @Override
+    public int getNumLedgerDirsMappedByLedgerId() {
+        return numberOfDirs;
+    }
+
+    @Override
+    public int getWriteCacheUsagePercent() {
+        long size = 0;
+        long maxSize = 0;
+        for (SingleDirectoryDbLedgerStorage ls : ledgerStorageList) {
+            size += ls.getWriteCacheSize();
+            maxSize += ls.getWriteCacheMaxSize();
+        }
+        return (int) (size * 100 / Math.max(1, maxSize));
+    }
+
     @Override
     public long getLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         return getLedgerStorage(ledgerId).getLastAddConfirmed(ledgerId);
@@ -558,8 +593,8 @@ public class DbLedgerStorage implements LedgerStorage {
     @Override
     public void entryLocationCompact(List<String> locations) {
         for (SingleDirectoryDbLedgerStorage ledgerStorage : ledgerStorageList) {
-            String entryLocation = ledgerStorage.getEntryLocationDBPath().get(0);
-            if (locations.contains(entryLocation)) {
+            // All the shards of the locations index of a directory are compacted together
+            if (!Collections.disjoint(locations, ledgerStorage.getEntryLocationDBPath())) {
                 ledgerStorage.entryLocationCompact();
             }
         }
@@ -574,9 +609,10 @@ public class DbLedgerStorage implements LedgerStorage {
     public Map<String, Boolean> isEntryLocationCompacting(List<String> locations) {
         HashMap<String, Boolean> isCompacting = Maps.newHashMap();
         for (SingleDirectoryDbLedgerStorage ledgerStorage : ledgerStorageList) {
-            String entryLocation = ledgerStorage.getEntryLocationDBPath().get(0);
-            if (locations.contains(entryLocation)) {
-                isCompacting.put(entryLocation, ledgerStorage.isEntryLocationCompacting());
+            for (String entryLocation : ledgerStorage.getEntryLocationDBPath()) {
+                if (locations.contains(entryLocation)) {
+                    isCompacting.put(entryLocation, ledgerStorage.isEntryLocationCompacting());
+                }
             }
         }
         return isCompacting;
@@ -21,10 +21,18 @@
 package org.apache.bookkeeper.bookie.storage.ldb;
 
 import com.google.common.collect.Iterables;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.bookie.Bookie;
 import org.apache.bookkeeper.bookie.EntryLocation;
@@ -42,32 +50,114 @@ import org.slf4j.LoggerFactory;
  *
  * <p>For each ledger multiple entries are stored in the same "record", represented
  * by the {@link LedgerIndexPage} class.
+ *
+ * <p>The index can be sharded over multiple key-value storages, with each ledger being
+ * deterministically assigned to one shard. Batches are committed on all the shards in parallel.
  */
 public class EntryLocationIndex implements Closeable {
 
-    private final KeyValueStorage locationsDb;
+    static final String LOCATIONS_SUB_PATH = "locations";
+
+    private final KeyValueStorage[] locationsDbs;
+    private final ExecutorService flushExecutor;
     private final ConcurrentLongHashSet deletedLedgers = ConcurrentLongHashSet.newBuilder().build();
     private final EntryLocationIndexStats stats;
-    private boolean isCompacting;
+    private volatile boolean isCompacting;
 
     public EntryLocationIndex(ServerConfiguration conf, KeyValueStorageFactory storageFactory, String basePath,
             StatsLogger stats) throws IOException {
-        locationsDb = storageFactory.newKeyValueStorage(basePath, "locations", DbConfigType.EntryLocation, conf);
+        int numShards = getNumberOfShards(conf, basePath);
+        locationsDbs = new KeyValueStorage[numShards];
+        // Create the shards in reverse order, so that the presence of the first shard implies all the
+        // others were created as well
+        for (int i = numShards - 1; i >= 0; i--) {
+            locationsDbs[i] = storageFactory.newKeyValueStorage(basePath, getShardSubPath(i),
+                    DbConfigType.EntryLocation, conf);
+        }
+
+        if (numShards > 1) {
+            flushExecutor = Executors.newFixedThreadPool(numShards - 1,
+                    new DefaultThreadFactory("db-storage-locations-index"));
+        } else {
+            flushExecutor = null;
+        }
 
         this.stats = new EntryLocationIndexStats(
             stats,
             () -> {
                 try {
-                    return locationsDb.count();
+                    long count = 0;
+                    for (KeyValueStorage locationsDb : locationsDbs) {
+                        count += locationsDb.count();
+                    }
+                    return count;
                 } catch (IOException e) {
                     return -1L;
                 }
             });
     }
 
+    /**
+     * Get the number of shards of the locations index in the given directory.
+     *
+     * <p>The configured number of shards only applies to new indexes, an existing index keeps the
+     * number of shards it was created with.
+     */
+    static int getNumberOfShards(ServerConfiguration conf, String basePath) {
+        int configuredShards = Math.max(1, conf.getInt(DbLedgerStorage.ENTRY_LOCATION_INDEX_SHARDS, 1));
+        if (!new File(basePath, getShardSubPath(0)).exists()) {
+            return configuredShards;
+        }
+
+        int existingShards = 1;
+        while (new File(basePath, getShardSubPath(existingShards)).exists()) {
+            existingShards++;
+        }
+
+        if (existingShards != configuredShards) {
+            log.warn("Locations index in {} has {} shards, ignoring the configured {} shards", basePath,
+                    existingShards, configuredShards);
+        }
+        return existingShards;
+    }
+
+    public static String getShardSubPath(int shard) {
+        return shard == 0 ? LOCATIONS_SUB_PATH : LOCATIONS_SUB_PATH + "-" + shard;
+    }
+
+    /**
+     * Get the sub paths of all the locations index shards in the given directory.
+     */
+    public static List<String> getShardSubPaths(ServerConfiguration conf, String basePath) {
+        int numShards = getNumberOfShards(conf, basePath);
+        List<String> subPaths = new ArrayList<>(numShards);
+        for (int i = 0; i < numShards; i++) {
+            subPaths.add(getShardSubPath(i));
+        }
+        return subPaths;
+    }
+
+    static int getShard(long ledgerId, int numShards) {
+        if (numShards == 1) {
+            return 0;
+        }
+
+        // Mix the bits, since ledgers are already distributed over the directories by ledgerId modulo
+        return MathUtils.signSafeMod((ledgerId * 0x9E3779B97F4A7C15L) >>> 32, numShards);
+    }
+
+    private KeyValueStorage locationsDb(long ledgerId) {
+        return locationsDbs[getShard(ledgerId, locationsDbs.length)];
+    }
+
     @Override
     public void close() throws IOException {
-        locationsDb.close();
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+        }
+        for (KeyValueStorage locationsDb : locationsDbs) {
+            locationsDb.close();
+        }
     }
 
     public long getLocation(long ledgerId, long entryId) throws IOException {
@@ -77,7 +167,7 @@ public class EntryLocationIndex implements Closeable {
         long startTimeNanos = MathUtils.nowInNano();
         boolean operationSuccess = false;
         try {
-            if (locationsDb.get(key.array, value.array) < 0) {
+            if (locationsDb(ledgerId).get(key.array, value.array) < 0) {
                 if (log.isDebugEnabled()) {
                     log.debug("Entry not found {}@{} in db index", ledgerId, entryId);
                 }
@@ -118,7 +208,7 @@ public class EntryLocationIndex implements Closeable {
         LongPairWrapper maxEntryId = LongPairWrapper.get(ledgerId, Long.MAX_VALUE);
 
         // Search the last entry in storage
-        Entry<byte[], byte[]> entry = locationsDb.getFloor(maxEntryId.array);
+        Entry<byte[], byte[]> entry = locationsDb(ledgerId).getFloor(maxEntryId.array);
         maxEntryId.recycle();
 
         if (entry == null) {
@@ -139,14 +229,120 @@ public class EntryLocationIndex implements Closeable {
     }
 
     public void addLocation(long ledgerId, long entryId, long location) throws IOException {
-        Batch batch = locationsDb.newBatch();
+        Batch batch = locationsDb(ledgerId).newBatch();
         addLocation(batch, ledgerId, entryId, location);
         batch.flush();
         batch.close();
     }
 
     public Batch newBatch() {
-        return locationsDb.newBatch();
+        if (locationsDbs.length == 1) {
+            return locationsDbs[0].newBatch();
+        }
+
+        Batch[] batches = new Batch[locationsDbs.length];
+        for (int i = 0; i < locationsDbs.length; i++) {
+            batches[i] = locationsDbs[i].newBatch();
+        }
+        return new ShardedBatch(batches);
+    }
+
+    /**
+     * Create a batch where locations are added in (ledgerId, entryId) order, like when flushing the write cache.
+     */
+    public Batch newSortedBatch() {
+        if (locationsDbs.length == 1) {
+            return locationsDbs[0].newSortedBatch();
+        }
+
+        // Each shard receives a subsequence of the keys, which is still sorted
+        Batch[] batches = new Batch[locationsDbs.length];
+        for (int i = 0; i < locationsDbs.length; i++) {
+            batches[i] = locationsDbs[i].newSortedBatch();
+        }
+        return new ShardedBatch(batches);
+    }
+
+    /**
+     * Batch routing the updates to the shard owning the ledger and flushing all the shards in parallel.
+     *
+     * <p>Keys are expected to start with the ledgerId, and range deletions must not span multiple ledgers.
+     */
+    private class ShardedBatch implements Batch {
+        private final Batch[] batches;
+
+        ShardedBatch(Batch[] batches) {
+            this.batches = batches;
+        }
+
+        private Batch batch(byte[] key) {
+            return batches[getShard(ArrayUtil.getLong(key, 0), batches.length)];
+        }
+
+        @Override
+        public void put(byte[] key, byte[] value) throws IOException {
+            batch(key).put(key, value);
+        }
+
+        @Override
+        public void remove(byte[] key) throws IOException {
+            batch(key).remove(key);
+        }
+
+        @Override
+        public void deleteRange(byte[] beginKey, byte[] endKey) throws IOException {
+            batch(beginKey).deleteRange(beginKey, endKey);
+        }
+
+        @Override
+        public void clear() {
+            for (Batch batch : batches) {
+                batch.clear();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            List<Future<Void>> futures = new ArrayList<>(batches.length - 1);
+            for (int i = 1; i < batches.length; i++) {
+                Batch batch = batches[i];
+                futures.add(flushExecutor.submit(() -> {
+                    batch.flush();
+                    return null;
+                }));
+            }
+
+            // Flush the first shard in the current thread
+            IOException exception = null;
+            try {
+                batches[0].flush();
+            } catch (IOException e) {
+                exception = e;
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    exception = new IOException("Interrupted while flushing locations index", e);
+                } catch (ExecutionException e) {
+                    exception = e.getCause() instanceof IOException ? (IOException) e.getCause()
+                            : new IOException("Failed to flush locations index", e.getCause());
+                }
+            }
+
+            if (exception != null) {
+                throw exception;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Batch batch : batches) {
+                batch.close();
+            }
+        }
     }
 
     public void addLocation(Batch batch, long ledgerId, long entryId, long location) throws IOException {
@@ -190,14 +386,23 @@ public class EntryLocationIndex implements Closeable {
         deletedLedgers.add(ledgerId);
     }
 
-    public String getEntryLocationDBPath() {
-        return locationsDb.getDBPath();
+    /**
+     * Get the paths of all the shards of the locations index.
+     */
+    public List<String> getEntryLocationDBPath() {
+        List<String> dbPaths = new ArrayList<>(locationsDbs.length);
+        for (KeyValueStorage locationsDb : locationsDbs) {
+            dbPaths.add(locationsDb.getDBPath());
+        }
+        return dbPaths;
     }
 
     public void compact() throws IOException {
         try {
             isCompacting = true;
-            locationsDb.compact();
+            for (KeyValueStorage locationsDb : locationsDbs) {
+                locationsDb.compact();
+            }
         } finally {
             isCompacting = false;
         }
@@ -220,7 +425,7 @@ public class EntryLocationIndex implements Closeable {
         log.info("Deleting indexes for ledgers: {}", ledgersToDelete);
         long startTime = System.nanoTime();
 
-        try (Batch batch = locationsDb.newBatch()) {
+        try (Batch batch = newBatch()) {
             for (long ledgerId : ledgersToDelete) {
                 if (log.isDebugEnabled()) {
                     log.debug("Deleting indexes from ledger {}", ledgerId);
@@ -165,6 +165,28 @@ public interface KeyValueStorage extends Closeable {
 
     Batch newBatch();
 
+    /**
+     * Create a batch that is written into an external sorted file and ingested in the storage when flushed,
+     * bypassing the memtable and the write-ahead log.
+     *
+     * <p>Keys must be added to the batch in strictly increasing order. Range deletions are applied before the
+     * ingestion, so they never remove the keys of the same batch. Implementations that don't support bulk
+     * ingestion return a regular batch.
+     */
+    default Batch newIngestionBatch() {
+        return newBatch();
+    }
+
+    /**
+     * Create a batch whose keys are added in strictly increasing order.
+     *
+     * <p>Depending on the configuration, the storage can write large sorted batches through bulk ingestion
+     * rather than through the regular write path. Range deletions are applied before the keys of the batch.
+     */
+    default Batch newSortedBatch() {
+        return newBatch();
+    }
+
     /**
      * Interface for a batch to be written in the storage.
      */
@@ -35,9 +35,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.rocksdb.BlockBasedTableConfig;
@@ -49,7 +51,9 @@ import org.rocksdb.ColumnFamilyHandle;
 import org.rocksdb.CompressionType;
 import org.rocksdb.DBOptions;
 import org.rocksdb.Env;
+import org.rocksdb.EnvOptions;
 import org.rocksdb.InfoLogLevel;
+import org.rocksdb.IngestExternalFileOptions;
 import org.rocksdb.LRUCache;
 import org.rocksdb.LiveFileMetaData;
 import org.rocksdb.Options;
@@ -60,6 +64,7 @@ import org.rocksdb.RocksDBException;
 import org.rocksdb.RocksIterator;
 import org.rocksdb.RocksObject;
 import org.rocksdb.Slice;
+import org.rocksdb.SstFileWriter;
 import org.rocksdb.WriteBatch;
 import org.rocksdb.WriteOptions;
 import org.slf4j.Logger;
@@ -85,6 +90,14 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
     private final ReadOptions optionDontCache;
     private final WriteBatch emptyBatch;
 
+    // Options used to write the external sst files of ingestion batches
+    private Options sstFileOptions;
+    private final EnvOptions sstEnvOptions;
+    private final IngestExternalFileOptions ingestOptions;
+    private final AtomicLong ingestFileCounter = new AtomicLong();
+    private final boolean sstIngestionEnabled;
+    private final int sstIngestionMinBatchSize;
+
     private String dbPath;
 
     private static final String ROCKSDB_LOG_PATH = "dbStorage_rocksDB_logPath";
@@ -100,6 +113,8 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
     private static final String ROCKSDB_MAX_SIZE_IN_LEVEL1_MB = "dbStorage_rocksDB_maxSizeInLevel1MB";
     private static final String ROCKSDB_FORMAT_VERSION = "dbStorage_rocksDB_format_version";
     private static final String ROCKSDB_CHECKSUM_TYPE = "dbStorage_rocksDB_checksum_type";
+    private static final String ROCKSDB_SST_INGESTION_ENABLED = "dbStorage_rocksDB_sstIngestionEnabled";
+    private static final String ROCKSDB_SST_INGESTION_MIN_BATCH_SIZE = "dbStorage_rocksDB_sstIngestionMinBatchSize";
 
     public KeyValueStorageRocksDB(String basePath, String subPath, DbConfigType dbConfigType, ServerConfiguration conf)
             throws IOException {
@@ -120,6 +135,8 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
         this.optionCache = new ReadOptions();
         this.optionDontCache = new ReadOptions();
         this.emptyBatch = new WriteBatch();
+        this.sstEnvOptions = new EnvOptions();
+        this.ingestOptions = new IngestExternalFileOptions();
 
         String dbFilePath = "";
         if (dbConfigType == DbConfigType.EntryLocation) {
@@ -143,6 +160,14 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
 
         optionCache.setFillCache(true);
         optionDontCache.setFillCache(false);
+
+        // Sst files are written in the db directory, so they can be hard-linked instead of copied
+        ingestOptions.setMoveFiles(true);
+
+        // Sorted batches are only ingested in the entry locations db, which receives the write cache flushes
+        this.sstIngestionEnabled = dbConfigType == DbConfigType.EntryLocation
+                && conf.getBoolean(ROCKSDB_SST_INGESTION_ENABLED, false);
+        this.sstIngestionMinBatchSize = conf.getInt(ROCKSDB_SST_INGESTION_MIN_BATCH_SIZE, 10_000);
     }
 
     private RocksDB initializeRocksDBWithConfFile(String basePath, String subPath, DbConfigType dbConfigType,
@@ -164,6 +189,7 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
             this.dbPath = FileSystems.getDefault().getPath(basePath, subPath).toFile().toString();
             this.options = dbOptions;
             this.columnFamilyDescriptors = cfDescs;
+            this.sstFileOptions = new Options(dbOptions, cfDescs.get(0).getOptions());
             if (readOnly) {
                 return RocksDB.openReadOnly(dbOptions, dbPath, cfDescs, cfHandles);
             } else {
@@ -181,9 +207,11 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
         ChecksumType checksumType = ChecksumType.valueOf(conf.getString(ROCKSDB_CHECKSUM_TYPE, "kxxHash"));
 
         if (dbConfigType == DbConfigType.EntryLocation) {
-            /* Set default RocksDB block-cache size to 10% / numberOfLedgers of direct memory, unless override */
+            /* Set default RocksDB block-cache size to 10% / numberOfLedgers / numberOfShards of direct memory,
+             * unless override */
             int ledgerDirsSize = conf.getLedgerDirNames().length;
-            long defaultRocksDBBlockCacheSizeBytes = maxDirectMemory() / ledgerDirsSize / 10;
+            int locationIndexShards = Math.max(1, conf.getInt(DbLedgerStorage.ENTRY_LOCATION_INDEX_SHARDS, 1));
+            long defaultRocksDBBlockCacheSizeBytes = maxDirectMemory() / ledgerDirsSize / locationIndexShards / 10;
             long blockCacheSize = DbLedgerStorage.getLongVariableOrDefault(conf, ROCKSDB_BLOCK_CACHE_SIZE,
                 defaultRocksDBBlockCacheSizeBytes);
 
@@ -269,6 +297,7 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
         options.setKeepLogFileNum(30);
         options.setLogFileTimeToRoll(TimeUnit.DAYS.toSeconds(1));
         this.options = options;
+        this.sstFileOptions = options;
         try {
             if (readOnly) {
                 return RocksDB.openReadOnly(options, dbPath);
@@ -286,9 +315,14 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
         if (cache != null) {
             cache.close();
         }
+        if (sstFileOptions != null && sstFileOptions != options) {
+            sstFileOptions.close();
+        }
         if (options != null) {
             options.close();
         }
+        sstEnvOptions.close();
+        ingestOptions.close();
         optionSync.close();
         optionDontSync.close();
         optionCache.close();
@@ -569,6 +603,232 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
         }
     }
 
+    @Override
+    public Batch newIngestionBatch() {
+        return new RocksDBIngestionBatch();
+    }
+
+    @Override
+    public Batch newSortedBatch() {
+        if (sstIngestionEnabled) {
+            return new RocksDBSortedBatch();
+        } else {
+            return new RocksDBBatch();
+        }
+    }
+
+    /**
+     * Batch that buffers the first updates in memory and switches to an ingestion batch once it grows
+     * past {@code dbStorage_rocksDB_sstIngestionMinBatchSize}, since small sst files are not worth ingesting.
+     *
+     * <p>Range deletions are applied before the buffered updates, as the ingestion batch does.
+     */
+    private class RocksDBSortedBatch implements Batch {
+        private final List<byte[]> pendingKeys = new ArrayList<>();
+        // A null value marks a key removal
+        private final List<byte[]> pendingValues = new ArrayList<>();
+        // Begin and end keys of the range deletions
+        private final List<byte[]> pendingRangeDeletions = new ArrayList<>();
+        private RocksDBIngestionBatch ingestionBatch;
+
+        @Override
+        public void put(byte[] key, byte[] value) throws IOException {
+            add(key, value);
+        }
+
+        @Override
+        public void remove(byte[] key) throws IOException {
+            add(key, null);
+        }
+
+        private void add(byte[] key, byte[] value) throws IOException {
+            if (ingestionBatch != null) {
+                write(ingestionBatch, key, value);
+                return;
+            }
+
+            // Keys are reused by callers, so they need to be copied while buffered
+            pendingKeys.add(key.clone());
+            pendingValues.add(value != null ? value.clone() : null);
+
+            if (pendingKeys.size() >= sstIngestionMinBatchSize) {
+                ingestionBatch = new RocksDBIngestionBatch();
+                writePending(ingestionBatch);
+            }
+        }
+
+        @Override
+        public void deleteRange(byte[] beginKey, byte[] endKey) throws IOException {
+            if (ingestionBatch != null) {
+                ingestionBatch.deleteRange(beginKey, endKey);
+                return;
+            }
+
+            pendingRangeDeletions.add(beginKey.clone());
+            pendingRangeDeletions.add(endKey.clone());
+        }
+
+        @Override
+        public void clear() {
+            pendingKeys.clear();
+            pendingValues.clear();
+            pendingRangeDeletions.clear();
+            if (ingestionBatch != null) {
+                ingestionBatch.close();
+                ingestionBatch = null;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                if (ingestionBatch != null) {
+                    ingestionBatch.flush();
+                } else if (!pendingKeys.isEmpty() || !pendingRangeDeletions.isEmpty()) {
+                    try (RocksDBBatch batch = new RocksDBBatch()) {
+                        writePending(batch);
+                        batch.flush();
+                    }
+                }
+            } finally {
+                clear();
+            }
+        }
+
+        @Override
+        public void close() {
+            clear();
+        }
+
+        private void writePending(Batch batch) throws IOException {
+            for (int i = 0; i < pendingRangeDeletions.size(); i += 2) {
+                batch.deleteRange(pendingRangeDeletions.get(i), pendingRangeDeletions.get(i + 1));
+            }
+            pendingRangeDeletions.clear();
+            for (int i = 0; i < pendingKeys.size(); i++) {
+                write(batch, pendingKeys.get(i), pendingValues.get(i));
+            }
+            pendingKeys.clear();
+            pendingValues.clear();
+        }
+
+        private void write(Batch batch, byte[] key, byte[] value) throws IOException {
+            if (value != null) {
+                batch.put(key, value);
+            } else {
+                batch.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Batch that writes its content into an external sst file and ingests it in the db on flush.
+     *
+     * <p>The file is created lazily on the first update, so the batch can be reused after a flush. Sst files
+     * can't hold range deletions, so these are buffered in a regular write batch that is written before the
+     * file is ingested.
+     */
+    private class RocksDBIngestionBatch implements Batch {
+        private SstFileWriter writer;
+        private Path sstFile;
+        private int count;
+        private WriteBatch rangeDeletions;
+
+        private SstFileWriter writer() throws IOException {
+            if (writer == null) {
+                sstFile = FileSystems.getDefault().getPath(dbPath,
+                        "ingest-" + ingestFileCounter.incrementAndGet() + "-" + System.nanoTime() + ".sst");
+                writer = new SstFileWriter(sstEnvOptions, sstFileOptions);
+                try {
+                    writer.open(sstFile.toString());
+                } catch (RocksDBException e) {
+                    reset();
+                    throw new IOException("Failed to create RocksDB ingestion file", e);
+                }
+            }
+            return writer;
+        }
+
+        @Override
+        public void put(byte[] key, byte[] value) throws IOException {
+            try {
+                writer().put(key, value);
+                ++count;
+            } catch (RocksDBException e) {
+                throw new IOException("Failed to write RocksDB ingestion file", e);
+            }
+        }
+
+        @Override
+        public void remove(byte[] key) throws IOException {
+            try {
+                writer().delete(key);
+                ++count;
+            } catch (RocksDBException e) {
+                throw new IOException("Failed to write RocksDB ingestion file", e);
+            }
+        }
+
+        @Override
+        public void deleteRange(byte[] beginKey, byte[] endKey) throws IOException {
+            if (rangeDeletions == null) {
+                rangeDeletions = new WriteBatch();
+            }
+            try {
+                rangeDeletions.deleteRange(beginKey, endKey);
+            } catch (RocksDBException e) {
+                throw new IOException("Failed to flush RocksDB batch", e);
+            }
+        }
+
+        @Override
+        public void clear() {
+            reset();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                if (rangeDeletions != null) {
+                    db.write(optionSync, rangeDeletions);
+                }
+                if (count > 0) {
+                    writer.finish();
+                    db.ingestExternalFile(Collections.singletonList(sstFile.toString()), ingestOptions);
+                }
+            } catch (RocksDBException e) {
+                throw new IOException("Failed to ingest RocksDB batch", e);
+            } finally {
+                reset();
+            }
+        }
+
+        @Override
+        public void close() {
+            reset();
+        }
+
+        private void reset() {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+            if (sstFile != null) {
+                try {
+                    Files.deleteIfExists(sstFile);
+                } catch (IOException e) {
+                    log.warn("Failed to delete RocksDB ingestion file {}", sstFile, e);
+                }
+                sstFile = null;
+            }
+            if (rangeDeletions != null) {
+                rangeDeletions.close();
+                rangeDeletions = null;
+            }
+            count = 0;
+        }
+    }
+
     private static final class EntryWrapper implements Entry<byte[], byte[]> {
         // This is not final since the iterator will reuse the same EntryWrapper
         // instance at each step
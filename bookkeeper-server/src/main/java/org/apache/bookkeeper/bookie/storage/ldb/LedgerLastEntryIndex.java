@@ -0,0 +1,269 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
+
+/**
+ * In-memory index of the last entry stored in the entry location index for each ledger, together with the
+ * last add confirmed carried by that entry.
+ *
+ * <p>It allows to serve last entry and LAC lookups for ledgers that are no longer in the write cache without
+ * seeking the locations db or reading the entry log. The values are kept in primitive maps, so no object is
+ * allocated per ledger or per lookup. The last entry id and its LAC are kept in two maps, so they are always
+ * read and updated while holding the lock of the ledger, to never pair the LAC of an entry with another entry.
+ *
+ * <p>A ledger is tracked only once its last entry is known: either because the ledger was created after the
+ * bookie started, because it was loaded from the ledgers index or because it was looked up in the locations
+ * index. Updates for untracked ledgers are ignored, since the locations index might already hold a more recent
+ * entry for them.
+ */
+class LedgerLastEntryIndex {
+
+    /**
+     * Returned by {@link #getLastEntryId(long)} when the last entry of the ledger is not known.
+     */
+    static final long UNKNOWN = Long.MIN_VALUE;
+
+    /**
+     * Returned by {@link #getLastEntryId(long)} when the ledger is known to have no entry in the locations index.
+     */
+    static final long NO_ENTRY = -1L;
+
+    /**
+     * Lookup of the last entry of a ledger in the locations index.
+     */
+    interface LastEntryLookup {
+        long getLastEntryId(long ledgerId) throws IOException;
+    }
+
+    // Values are stored incremented by one, since the maps only accept non-negative values while both the
+    // last entry id and the LAC can be -1
+    private final ConcurrentLongLongHashMap lastEntries;
+    private final ConcurrentLongLongHashMap lastAddConfirmed;
+
+    // Readers and writers of a ledger are serialized, so that both maps are seen consistently
+    private final ReentrantLock[] locks = new ReentrantLock[64];
+
+    LedgerLastEntryIndex() {
+        int concurrencyLevel = Runtime.getRuntime().availableProcessors() * 2;
+        lastEntries = ConcurrentLongLongHashMap.newBuilder()
+                .expectedItems(16 * 1024)
+                .concurrencyLevel(concurrencyLevel)
+                .build();
+        lastAddConfirmed = ConcurrentLongLongHashMap.newBuilder()
+                .expectedItems(16 * 1024)
+                .concurrencyLevel(concurrencyLevel)
+                .build();
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @return the last entry id of the ledger, {@link #NO_ENTRY} if the ledger has no entries or
+     *         {@link #UNKNOWN} if the ledger is not tracked
+     */
+    long getLastEntryId(long ledgerId) {
+        ReentrantLock lock = lockForLedger(ledgerId);
+        lock.lock();
+        try {
+            long value = lastEntries.get(ledgerId);
+            return value == -1 ? UNKNOWN : value - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the LAC stored in the last entry of the ledger or {@link TransientLedgerInfo#NOT_ASSIGNED_LAC}
+     *         if not known
+     */
+    long getLastAddConfirmed(long ledgerId) {
+        ReentrantLock lock = lockForLedger(ledgerId);
+        lock.lock();
+        try {
+            if (lastEntries.get(ledgerId) == -1) {
+                return TransientLedgerInfo.NOT_ASSIGNED_LAC;
+            }
+            long value = lastAddConfirmed.get(ledgerId);
+            return value == -1 ? TransientLedgerInfo.NOT_ASSIGNED_LAC : value - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the last entry id of the ledger, looking it up in the locations index if the ledger is not tracked.
+     *
+     * <p>The lookup is done while holding the ledger lock, so that a concurrent flush cannot update the
+     * ledger between the lookup and the insertion of its result.
+     */
+    long loadLastEntryId(long ledgerId, LastEntryLookup lookup) throws IOException {
+        ReentrantLock lock = lockForLedger(ledgerId);
+        lock.lock();
+        try {
+            long value = lastEntries.get(ledgerId);
+            if (value != -1) {
+                return value - 1;
+            }
+
+            long lastEntryId = lookup.getLastEntryId(ledgerId);
+            lastEntries.put(ledgerId, lastEntryId + 1);
+            // The LAC is set once the entry is read
+            lastAddConfirmed.remove(ledgerId);
+            return lastEntryId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Set the LAC carried by the last entry of the ledger, if that entry is still the last one.
+     */
+    void setLastAddConfirmed(long ledgerId, long entryId, long lac) {
+        ReentrantLock lock = lockForLedger(ledgerId);
+        lock.lock();
+        try {
+            if (lastEntries.get(ledgerId) == entryId + 1) {
+                lastAddConfirmed.put(ledgerId, lac + 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Start tracking a ledger that was just created, and thus has no entry in the locations index yet.
+     */
+    void addNewLedger(long ledgerId) {
+        ReentrantLock lock = lockForLedger(ledgerId);
+        lock.lock();
+        try {
+            if (lastEntries.putIfAbsent(ledgerId, NO_ENTRY + 1) == -1) {
+                lastAddConfirmed.remove(ledgerId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Start tracking a ledger whose last entry was persisted in the ledgers index.
+     */
+    void load(long ledgerId, long lastEntryId, long lac) {
+        ReentrantLock lock = lockForLedger(ledgerId);
+        lock.lock();
+        try {
+            if (lastEntries.get(ledgerId) < lastEntryId + 1) {
+                lastEntries.put(ledgerId, lastEntryId + 1);
+                lastAddConfirmed.put(ledgerId, lac + 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Update the last entry of a tracked ledger, after its location was committed into the locations index.
+     *
+     * @return true if the ledger is tracked and the entry was recorded as its last entry
+     */
+    boolean update(long ledgerId, long entryId, long lac) {
+        ReentrantLock lock = lockForLedger(ledgerId);
+        lock.lock();
+        try {
+            long value = lastEntries.get(ledgerId);
+            if (value == -1 || value > entryId + 1) {
+                return false;
+            }
+
+            lastEntries.put(ledgerId, entryId + 1);
+            lastAddConfirmed.put(ledgerId, lac + 1);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(long ledgerId) {
+        ReentrantLock lock = lockForLedger(ledgerId);
+        lock.lock();
+        try {
+            lastEntries.remove(ledgerId);
+            lastAddConfirmed.remove(ledgerId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Apply the last entries written by a flush, once their locations are committed into the locations index,
+     * and record them in the ledgers index so that they can be reloaded after a restart.
+     */
+    void update(FlushedEntries flushed, LedgerMetadataIndex ledgerIndex) {
+        long[] entries = flushed.entries;
+        for (int i = 0; i < flushed.size; i += 3) {
+            long ledgerId = entries[i];
+            long entryId = entries[i + 1];
+            long lac = entries[i + 2];
+            if (update(ledgerId, entryId, lac)) {
+                ledgerIndex.setLastEntry(ledgerId, entryId, lac);
+            }
+        }
+    }
+
+    /**
+     * Last entry of each ledger included in a flush. Entries must be added in (ledgerId, entryId) order, as the
+     * write cache is iterated.
+     */
+    static class FlushedEntries {
+        private long[] entries = new long[3 * 1024];
+        private int size = 0;
+
+        void add(long ledgerId, long entryId, long lac) {
+            if (size > 0 && entries[size - 3] == ledgerId) {
+                entries[size - 2] = entryId;
+                entries[size - 1] = lac;
+                return;
+            }
+
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            entries[size] = ledgerId;
+            entries[size + 1] = entryId;
+            entries[size + 2] = lac;
+            size += 3;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    private ReentrantLock lockForLedger(long ledgerId) {
+        return locks[Math.abs((int) ledgerId) % locks.length];
+    }
+}
@@ -254,12 +254,18 @@ public class LedgerMetadataIndex implements Closeable {
     }
 
 
-    public void setMasterKey(long ledgerId, byte[] masterKey) throws IOException {
+    /**
+     * Set the master key of a ledger, inserting the ledger if it doesn't exist.
+     *
+     * @return true if a new ledger was inserted
+     */
+    public boolean setMasterKey(long ledgerId, byte[] masterKey) throws IOException {
         ReentrantLock lock = lockForLedger(ledgerId);
         lock.lock();
         try {
             LedgerData ledgerData = ledgers.get(ledgerId);
-            if (ledgerData == null) {
+            boolean isNewLedger = ledgerData == null;
+            if (isNewLedger) {
                 // New ledger inserted
                 ledgerData = LedgerData.newBuilder().setExists(true).setFenced(false)
                     .setMasterKey(ByteString.copyFrom(masterKey)).build();
@@ -286,11 +292,39 @@ public class LedgerMetadataIndex implements Closeable {
 
             pendingLedgersUpdates.add(new SimpleEntry<Long, LedgerData>(ledgerId, ledgerData));
             pendingDeletedLedgers.remove(ledgerId);
+            return isNewLedger;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Record the last entry whose location was committed into the entry location index, along with the LAC
+     * carried by that entry. The update is persisted with the next {@link #flush()}.
+     */
+    void setLastEntry(long ledgerId, long lastEntryId, long lastAddConfirmed) {
+        ReentrantLock lock = lockForLedger(ledgerId);
+        lock.lock();
+        try {
+            LedgerData ledgerData = ledgers.get(ledgerId);
+            if (ledgerData == null) {
+                // Ledger had been deleted
+                return;
+            }
+
+            LedgerData newLedgerData = LedgerData.newBuilder(ledgerData).setLastEntryId(lastEntryId)
+                    .setLastAddConfirmed(lastAddConfirmed).build();
+            ledgers.put(ledgerId, newLedgerData);
+            pendingLedgersUpdates.add(new SimpleEntry<Long, LedgerData>(ledgerId, newLedgerData));
         } finally {
             lock.unlock();
         }
     }
 
+    void forEach(ConcurrentLongHashMap.EntryProcessor<LedgerData> processor) {
+        ledgers.forEach(processor);
+    }
+
     /**
      * Flushes all pending changes.
      */
@@ -20,12 +20,19 @@
  */
 package org.apache.bookkeeper.bookie.storage.ldb;
 
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.bookie.BookieImpl;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
@@ -36,17 +43,25 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Scan the ledgers index to make sure it is readable.
+ *
+ * <p>The indexes of the different directories are scanned in parallel.
  */
 public class LedgersIndexCheckOp {
     private static final Logger LOG = LoggerFactory.getLogger(LedgersIndexCheckOp.class);
 
     private final ServerConfiguration conf;
     private final boolean verbose;
+    private final int numThreads;
     private static final String LedgersSubPath = "ledgers";
 
     public LedgersIndexCheckOp(ServerConfiguration conf, boolean verbose) {
+        this(conf, verbose, Runtime.getRuntime().availableProcessors());
+    }
+
+    public LedgersIndexCheckOp(ServerConfiguration conf, boolean verbose, int numThreads) {
         this.conf = conf;
         this.verbose = verbose;
+        this.numThreads = Math.max(1, numThreads);
     }
 
     public boolean initiate() throws IOException {
@@ -58,56 +73,78 @@ public class LedgersIndexCheckOp {
             throw new IOException("ledger and index dirs size not matched");
         }
         long startTime = System.nanoTime();
-        for (int i = 0; i < conf.getLedgerDirs().length; i++) {
-            File indexDir = indexDirs[i];
-
-            String iBasePath = BookieImpl.getCurrentDirectory(indexDir).toString();
-            Path indexCurrentPath = FileSystems.getDefault().getPath(iBasePath, LedgersSubPath);
-
-            LOG.info("Loading ledgers index from {}", indexCurrentPath);
-            LOG.info("Starting index scan");
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, indexDirs.length),
+                new DefaultThreadFactory("ledgers-index-check"));
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (File indexDir : indexDirs) {
+                futures.add(executor.submit(() -> checkIndex(indexDir)));
+            }
 
-            try {
-                KeyValueStorage index = new KeyValueStorageRocksDB(iBasePath, LedgersSubPath,
-                        DbConfigType.Default, conf, true);
-                // Read all ledgers from db
-                KeyValueStorage.CloseableIterator<Map.Entry<byte[], byte[]>> iterator = index.iterator();
-                int ctr = 0;
-                try {
-                    while (iterator.hasNext()) {
-                        ctr++;
-                        Map.Entry<byte[], byte[]> entry = iterator.next();
-                        long ledgerId = ArrayUtil.getLong(entry.getKey(), 0);
-                        DbLedgerStorageDataFormats.LedgerData ledgerData =
-                                DbLedgerStorageDataFormats.LedgerData.parseFrom(entry.getValue());
-                        if (verbose) {
-                            LOG.info(
-                                    "Scanned: {}, ledger: {}, exists: {}, isFenced: {}, masterKey: {}, explicitLAC: {}",
-                                    ctr,
-                                    ledgerId,
-                                    (ledgerData.hasExists() ? ledgerData.getExists() : "-"),
-                                    (ledgerData.hasFenced() ? ledgerData.getFenced() : "-"),
-                                    (ledgerData.hasMasterKey()
-                                            ? Base64.getEncoder()
-                                            .encodeToString(ledgerData.getMasterKey().toByteArray())
-                                            : "-"),
-                                    (ledgerData.hasExplicitLac() ? ledgerData.getExplicitLac() : "-"));
-                        } else if (ctr % 100 == 0) {
-                            LOG.info("Scanned {} ledgers", ctr);
-                        }
-                    }
-                } finally {
-                    iterator.close();
-                }
-                LOG.info("Scanned {} ledgers", ctr);
-            } catch (Throwable t) {
-                LOG.error("Index scan has failed with error", t);
+            boolean success = true;
+            for (Future<Boolean> future : futures) {
+                success &= future.get();
+            }
+            if (!success) {
                 return false;
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while checking ledgers index", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to check ledgers index", e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
         LOG.info("Index scan has completed successfully. Total time: {}",
                 DurationFormatUtils.formatDurationHMS(
                         TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
         return true;
     }
+
+    private boolean checkIndex(File indexDir) {
+        String iBasePath = BookieImpl.getCurrentDirectory(indexDir).toString();
+        Path indexCurrentPath = FileSystems.getDefault().getPath(iBasePath, LedgersSubPath);
+
+        LOG.info("Loading ledgers index from {}", indexCurrentPath);
+        LOG.info("Starting index scan");
+
+        try (KeyValueStorage index = new KeyValueStorageRocksDB(iBasePath, LedgersSubPath,
+                DbConfigType.Default, conf, true)) {
+            // Read all ledgers from db
+            KeyValueStorage.CloseableIterator<Map.Entry<byte[], byte[]>> iterator = index.iterator();
+            int ctr = 0;
+            try {
+                while (iterator.hasNext()) {
+                    ctr++;
+                    Map.Entry<byte[], byte[]> entry = iterator.next();
+                    long ledgerId = ArrayUtil.getLong(entry.getKey(), 0);
+                    DbLedgerStorageDataFormats.LedgerData ledgerData =
+                            DbLedgerStorageDataFormats.LedgerData.parseFrom(entry.getValue());
+                    if (verbose) {
+                        LOG.info(
+                                "Scanned: {}, ledger: {}, exists: {}, isFenced: {}, masterKey: {}, explicitLAC: {}",
+                                ctr,
+                                ledgerId,
+                                (ledgerData.hasExists() ? ledgerData.getExists() : "-"),
+                                (ledgerData.hasFenced() ? ledgerData.getFenced() : "-"),
+                                (ledgerData.hasMasterKey()
+                                        ? Base64.getEncoder()
+                                        .encodeToString(ledgerData.getMasterKey().toByteArray())
+                                        : "-"),
+                                (ledgerData.hasExplicitLac() ? ledgerData.getExplicitLac() : "-"));
+                    } else if (ctr % 100 == 0) {
+                        LOG.info("Scanned {} ledgers in {}", ctr, indexCurrentPath);
+                    }
+                }
+            } finally {
+                iterator.close();
+            }
+            LOG.info("Scanned {} ledgers in {}", ctr, indexCurrentPath);
+            return true;
+        } catch (Throwable t) {
+            LOG.error("Index scan of {} has failed with error", indexCurrentPath, t);
+            return false;
+        }
+    }
 }
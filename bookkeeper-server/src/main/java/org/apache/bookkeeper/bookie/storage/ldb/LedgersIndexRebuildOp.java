@@ -25,6 +25,7 @@ import com.google.protobuf.ByteString;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -32,10 +33,17 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.bookkeeper.bookie.BookieImpl;
 import org.apache.bookkeeper.bookie.DefaultEntryLogger;
 import org.apache.bookkeeper.bookie.Journal;
@@ -58,17 +66,25 @@ import org.slf4j.LoggerFactory;
  * - Sets the master key as an empty byte array. This is correct as empty master keys
  *   are overwritten and we cannot use the password from metadata, and cannot know 100%
  *   for sure how a digest for the password was generated.
+ * - Journal and entry log files are scanned in parallel, and the new index is written
+ *   in ledger id order through a bulk ingestion batch.
  */
 public class LedgersIndexRebuildOp {
     private static final Logger LOG = LoggerFactory.getLogger(LedgersIndexRebuildOp.class);
 
     private final ServerConfiguration conf;
     private final boolean verbose;
+    private final int numThreads;
     private static final String LedgersSubPath = "ledgers";
 
     public LedgersIndexRebuildOp(ServerConfiguration conf, boolean verbose) {
+        this(conf, verbose, Runtime.getRuntime().availableProcessors());
+    }
+
+    public LedgersIndexRebuildOp(ServerConfiguration conf, boolean verbose, int numThreads) {
         this.conf = conf;
         this.verbose = verbose;
+        this.numThreads = Math.max(1, numThreads);
     }
 
     @SuppressFBWarnings("RCN_REDUNDANT_NULLCHECK_WOULD_HAVE_BEEN_A_NPE")
@@ -83,6 +99,26 @@ public class LedgersIndexRebuildOp {
             return false;
         }
 
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+                new DefaultThreadFactory("ledgers-index-rebuild"));
+        try {
+            return rebuild(indexDirs, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @SuppressFBWarnings("RCN_REDUNDANT_NULLCHECK_WOULD_HAVE_BEEN_A_NPE")
+    private boolean rebuild(File[] indexDirs, ExecutorService executor) {
+        Set<Long> journalLedgers = ConcurrentHashMap.newKeySet();
+        try {
+            LOG.info("Starting scan phase of journal files");
+            scanJournals(journalLedgers, executor);
+        } catch (Throwable t) {
+            LOG.error("Error during journal scan, the original index remains unchanged", t);
+            return false;
+        }
+
         for (int i = 0; i < indexDirs.length; i++) {
             File indexDir = indexDirs[i];
             File ledgerDir = conf.getLedgerDirs()[i];
@@ -93,34 +129,37 @@ public class LedgersIndexRebuildOp {
             Path indexTempPath = FileSystems.getDefault().getPath(indexBasePath, tempLedgersSubPath);
             Path indexCurrentPath = FileSystems.getDefault().getPath(indexBasePath, LedgersSubPath);
 
-            LOG.info("Starting scan phase (scans journal and entry log files)");
+            LOG.info("Starting scan phase (scans entry log files)");
 
             try {
-                Set<Long> ledgers = new HashSet<>();
-                scanJournals(ledgers);
+                Set<Long> ledgers = ConcurrentHashMap.newKeySet();
+                ledgers.addAll(journalLedgers);
                 File[] lDirs = new File[1];
                 lDirs[0] = ledgerDir;
-                scanEntryLogFiles(ledgers, lDirs);
+                scanEntryLogFiles(ledgers, lDirs, executor);
 
                 LOG.info("Scan complete, found {} ledgers. "
                         + "Starting to build a new ledgers index", ledgers.size());
 
+                long[] sortedLedgers = ledgers.stream().mapToLong(Long::longValue).sorted().toArray();
+
                 try (KeyValueStorage newIndex = KeyValueStorageRocksDB.factory.newKeyValueStorage(
-                        indexBasePath, tempLedgersSubPath, DbConfigType.Default, conf)) {
+                        indexBasePath, tempLedgersSubPath, DbConfigType.Default, conf);
+                     KeyValueStorage.Batch batch = newIndex.newIngestionBatch()) {
                     LOG.info("Created ledgers index at temp location {}", indexTempPath);
 
-                    for (Long ledgerId : ledgers) {
-                        DbLedgerStorageDataFormats.LedgerData ledgerData =
-                                DbLedgerStorageDataFormats.LedgerData.newBuilder()
-                                        .setExists(true)
-                                        .setFenced(true)
-                                        .setMasterKey(ByteString.EMPTY).build();
+                    byte[] ledgerData = DbLedgerStorageDataFormats.LedgerData.newBuilder()
+                            .setExists(true)
+                            .setFenced(true)
+                            .setMasterKey(ByteString.EMPTY).build().toByteArray();
 
+                    for (long ledgerId : sortedLedgers) {
                         byte[] ledgerArray = new byte[16];
                         ArrayUtil.setLong(ledgerArray, 0, ledgerId);
-                        newIndex.put(ledgerArray, ledgerData.toByteArray());
+                        batch.put(ledgerArray, ledgerData);
                     }
 
+                    batch.flush();
                     newIndex.sync();
                 }
             } catch (Throwable t) {
@@ -150,39 +189,45 @@ public class LedgersIndexRebuildOp {
         return true;
     }
 
-    private void scanEntryLogFiles(Set<Long> ledgers, File[] lDirs) throws IOException {
+    private void scanEntryLogFiles(Set<Long> ledgers, File[] lDirs, ExecutorService executor) throws IOException {
         DefaultEntryLogger entryLogger = new DefaultEntryLogger(conf, new LedgerDirsManager(conf, lDirs,
                 new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold())));
         Set<Long> entryLogs = entryLogger.getEntryLogsSet();
 
         int totalEntryLogs = entryLogs.size();
-        int completedEntryLogs = 0;
+        AtomicInteger completedEntryLogs = new AtomicInteger();
         LOG.info("Scanning {} entry logs", totalEntryLogs);
 
+        List<Callable<Void>> tasks = new ArrayList<>();
         for (long entryLogId : entryLogs) {
-            entryLogger.scanEntryLog(entryLogId, new EntryLogScanner() {
-                @Override
-                public void process(long ledgerId, long offset, ByteBuf entry) throws IOException {
-                    if (ledgers.add(ledgerId)) {
-                        if (verbose) {
-                            LOG.info("Found ledger {} in entry log", ledgerId);
+            tasks.add(() -> {
+                entryLogger.scanEntryLog(entryLogId, new EntryLogScanner() {
+                    @Override
+                    public void process(long ledgerId, long offset, ByteBuf entry) throws IOException {
+                        if (ledgers.add(ledgerId)) {
+                            if (verbose) {
+                                LOG.info("Found ledger {} in entry log", ledgerId);
+                            }
                         }
                     }
-                }
 
-                @Override
-                public boolean accept(long ledgerId) {
-                    return true;
-                }
-            });
+                    @Override
+                    public boolean accept(long ledgerId) {
+                        return true;
+                    }
+                });
 
-            ++completedEntryLogs;
-            LOG.info("Completed scanning of log {}.log -- {} / {}", Long.toHexString(entryLogId), completedEntryLogs,
-                    totalEntryLogs);
+                LOG.info("Completed scanning of log {}.log -- {} / {}", Long.toHexString(entryLogId),
+                        completedEntryLogs.incrementAndGet(), totalEntryLogs);
+                return null;
+            });
         }
+
+        invokeAll(executor, tasks);
     }
 
-    private void scanJournals(Set<Long> ledgers) throws IOException {
+    private void scanJournals(Set<Long> ledgers, ExecutorService executor) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>();
         for (Journal journal : getJournals(conf)) {
             List<Long> journalIds = Journal.listJournalIds(journal.getJournalDirectory(),
                     new Journal.JournalIdFilter() {
@@ -193,8 +238,29 @@ public class LedgersIndexRebuildOp {
             });
 
             for (Long journalId : journalIds) {
-                scanJournal(journal, journalId, ledgers);
+                tasks.add(() -> {
+                    scanJournal(journal, journalId, ledgers);
+                    return null;
+                });
+            }
+        }
+
+        invokeAll(executor, tasks);
+    }
+
+    private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks) throws IOException {
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning files", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
+            throw new IOException("Failed to scan files", e.getCause());
         }
     }
 
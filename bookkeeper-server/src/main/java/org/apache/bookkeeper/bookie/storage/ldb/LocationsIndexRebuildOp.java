@@ -22,17 +22,25 @@ package org.apache.bookkeeper.bookie.storage.ldb;
 
 import com.google.common.collect.Sets;
 import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 import org.apache.bookkeeper.bookie.BookieImpl;
 import org.apache.bookkeeper.bookie.DefaultEntryLogger;
 import org.apache.bookkeeper.bookie.LedgerDirsManager;
@@ -47,18 +55,34 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Scan all entries in the entry log and rebuild the locations index.
+ *
+ * <p>Entry logs of all the ledger directories are scanned in parallel. The locations found in each entry log
+ * are sorted and written into the new index through bulk ingestion batches. The entry logs of a directory are
+ * ingested in increasing entry log id order, whatever the order their scan completes in, so that an entry found
+ * in several entry logs (e.g. copied by the compaction before the old entry log was deleted) gets the location of
+ * the most recent one, as when the entry logs were scanned one by one.
  */
 public class LocationsIndexRebuildOp {
     private final ServerConfiguration conf;
+    private final int numThreads;
 
     public LocationsIndexRebuildOp(ServerConfiguration conf) {
+        this(conf, Runtime.getRuntime().availableProcessors());
+    }
+
+    public LocationsIndexRebuildOp(ServerConfiguration conf, int numThreads) {
         this.conf = conf;
+        this.numThreads = Math.max(1, numThreads);
     }
 
-    private static final int BATCH_COMMIT_SIZE = 10_000;
+    // Max number of entries sorted and ingested in a single batch
+    private static final int BATCH_COMMIT_SIZE = 1_000_000;
+
+    // Each entry is stored as (ledgerId, entryId, location, unused) to be sorted by ArrayGroupSort
+    private static final int GROUP_SIZE = 4;
 
     public void initiate() throws IOException {
-        LOG.info("Starting locations index rebuilding");
+        LOG.info("Starting locations index rebuilding with {} threads", numThreads);
         File[] indexDirs = conf.getIndexDirs();
         if (indexDirs == null) {
             indexDirs = conf.getLedgerDirs();
@@ -67,90 +91,267 @@ public class LocationsIndexRebuildOp {
             throw new IOException("ledger and index dirs size not matched");
         }
         long startTime = System.nanoTime();
-        // Move locations index to a backup directory
-        for (int i = 0; i < conf.getLedgerDirs().length; i++) {
-            File ledgerDir = conf.getLedgerDirs()[i];
-            File indexDir = indexDirs[i];
-            String iBasePath = BookieImpl.getCurrentDirectory(indexDir).toString();
-            Path indexCurrentPath = FileSystems.getDefault().getPath(iBasePath, "locations");
-            String timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date());
-            Path backupPath = FileSystems.getDefault().getPath(iBasePath, "locations.BACKUP-" + timestamp);
-            Files.move(indexCurrentPath, backupPath);
-
-            LOG.info("Created locations index backup at {}", backupPath);
-
-            File[] lDirs = new File[1];
-            lDirs[0] = ledgerDir;
-            DefaultEntryLogger entryLogger = new DefaultEntryLogger(conf, new LedgerDirsManager(conf, lDirs,
-                    new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold())));
-            Set<Long> entryLogs = entryLogger.getEntryLogsSet();
-
-            Set<Long> activeLedgers = getActiveLedgers(conf, KeyValueStorageRocksDB.factory, iBasePath);
-            LOG.info("Found {} active ledgers in ledger manager", activeLedgers.size());
-
-            KeyValueStorage newIndex = KeyValueStorageRocksDB.factory.newKeyValueStorage(iBasePath, "locations",
-                    DbConfigType.Default, conf);
-
-            int totalEntryLogs = entryLogs.size();
-            int completedEntryLogs = 0;
-            LOG.info("Scanning {} entry logs", totalEntryLogs);
-            AtomicReference<KeyValueStorage.Batch> batch = new AtomicReference<>(newIndex.newBatch());
-            AtomicInteger count = new AtomicInteger();
-
-            for (long entryLogId : entryLogs) {
-                entryLogger.scanEntryLog(entryLogId, new EntryLogScanner() {
-                    @Override
-                    public void process(long ledgerId, long offset, ByteBuf entry) throws IOException {
-                        long entryId = entry.getLong(8);
-
-                        // Actual location indexed is pointing past the entry size
-                        long location = (entryLogId << 32L) | (offset + 4);
-
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Rebuilding {}:{} at location {} / {}", ledgerId, entryId, location >> 32,
-                                    location & (Integer.MAX_VALUE - 1));
-                        }
 
-                        // Update the ledger index page
-                        LongPairWrapper key = LongPairWrapper.get(ledgerId, entryId);
-                        LongWrapper value = LongWrapper.get(location);
+        List<KeyValueStorage> newIndexes = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+                new DefaultThreadFactory("locations-index-rebuild"));
+        try {
+            List<Callable<Void>> scanTasks = new ArrayList<>();
+            AtomicInteger completedEntryLogs = new AtomicInteger();
+            AtomicInteger totalEntryLogs = new AtomicInteger();
+
+            // Move locations index to a backup directory
+            for (int i = 0; i < conf.getLedgerDirs().length; i++) {
+                File ledgerDir = conf.getLedgerDirs()[i];
+                File indexDir = indexDirs[i];
+                String iBasePath = BookieImpl.getCurrentDirectory(indexDir).toString();
+                List<String> shardSubPaths = EntryLocationIndex.getShardSubPaths(conf, iBasePath);
+                String timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date());
+                for (String shardSubPath : shardSubPaths) {
+                    Path indexCurrentPath = FileSystems.getDefault().getPath(iBasePath, shardSubPath);
+                    Path backupPath = FileSystems.getDefault().getPath(iBasePath,
+                            shardSubPath + ".BACKUP-" + timestamp);
+                    Files.move(indexCurrentPath, backupPath);
+
+                    LOG.info("Created locations index backup at {}", backupPath);
+                }
+
+                File[] lDirs = new File[1];
+                lDirs[0] = ledgerDir;
+                DefaultEntryLogger entryLogger = new DefaultEntryLogger(conf, new LedgerDirsManager(conf, lDirs,
+                        new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold())));
+                Set<Long> entryLogs = entryLogger.getEntryLogsSet();
 
+                Set<Long> activeLedgers = getActiveLedgers(conf, KeyValueStorageRocksDB.factory, iBasePath);
+                LOG.info("Found {} active ledgers in ledger manager", activeLedgers.size());
+
+                // Keep the same sharding of the index, creating the first shard last
+                KeyValueStorage[] newIndex = new KeyValueStorage[shardSubPaths.size()];
+                for (int shard = shardSubPaths.size() - 1; shard >= 0; shard--) {
+                    newIndex[shard] = KeyValueStorageRocksDB.factory.newKeyValueStorage(iBasePath,
+                            shardSubPaths.get(shard), DbConfigType.Default, conf);
+                    newIndexes.add(newIndex[shard]);
+                }
+
+                totalEntryLogs.addAndGet(entryLogs.size());
+                // the tasks are queued in the ingestion order, so that the entry log whose turn it is to be
+                // ingested is always being scanned already
+                IngestionOrder ingestionOrder = new IngestionOrder(entryLogs);
+                for (long entryLogId : ingestionOrder.entryLogIds) {
+                    scanTasks.add(() -> {
                         try {
-                            batch.get().put(key.array, value.array);
-                        } finally {
-                            key.recycle();
-                            value.recycle();
+                            scanEntryLog(entryLogger, entryLogId, activeLedgers, newIndex, ingestionOrder);
+                            ingestionOrder.done(entryLogId);
+                        } catch (Throwable t) {
+                            ingestionOrder.fail();
+                            throw t;
                         }
+                        LOG.info("Completed scanning of log {}.log -- {} / {}", Long.toHexString(entryLogId),
+                                completedEntryLogs.incrementAndGet(), totalEntryLogs.get());
+                        return null;
+                    });
+                }
+            }
+
+            LOG.info("Scanning {} entry logs", totalEntryLogs.get());
+            invokeAll(executor, scanTasks);
+
+            // Entry logs were ingested as overlapping files, compact them before the bookie starts using the index
+            List<Callable<Void>> compactTasks = new ArrayList<>();
+            for (KeyValueStorage newIndex : newIndexes) {
+                compactTasks.add(() -> {
+                    newIndex.sync();
+                    newIndex.compact();
+                    return null;
+                });
+            }
+            invokeAll(executor, compactTasks);
+        } finally {
+            executor.shutdownNow();
+            for (KeyValueStorage newIndex : newIndexes) {
+                newIndex.close();
+            }
+        }
+        LOG.info("Rebuilding index is done. Total time: {}",
+                DurationFormatUtils.formatDurationHMS(
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+    }
+
+    private void scanEntryLog(DefaultEntryLogger entryLogger, long entryLogId, Set<Long> activeLedgers,
+                              KeyValueStorage[] newIndex, IngestionOrder ingestionOrder) throws IOException {
+        EntryLocations locations = new EntryLocations(newIndex, ingestionOrder, entryLogId);
+        entryLogger.scanEntryLog(entryLogId, new EntryLogScanner() {
+            @Override
+            public void process(long ledgerId, long offset, ByteBuf entry) throws IOException {
+                long entryId = entry.getLong(8);
+
+                // Actual location indexed is pointing past the entry size
+                long location = (entryLogId << 32L) | (offset + 4);
+
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Rebuilding {}:{} at location {} / {}", ledgerId, entryId, location >> 32,
+                            location & (Integer.MAX_VALUE - 1));
+                }
 
-                        if (count.incrementAndGet() > BATCH_COMMIT_SIZE) {
-                            batch.get().flush();
-                            batch.get().close();
+                locations.add(ledgerId, entryId, location);
+            }
+
+            @Override
+            public boolean accept(long ledgerId) {
+                return activeLedgers.contains(ledgerId);
+            }
+        });
+        locations.ingest();
+    }
 
-                            batch.set(newIndex.newBatch());
-                            count.set(0);
+    /**
+     * Locations collected from an entry log, to be sorted before being ingested into the index.
+     */
+    private static class EntryLocations {
+        private final KeyValueStorage[] shards;
+        private final IngestionOrder ingestionOrder;
+        private final long entryLogId;
+        private long[] array = new long[GROUP_SIZE * 1024];
+        private int size = 0;
+
+        EntryLocations(KeyValueStorage[] shards, IngestionOrder ingestionOrder, long entryLogId) {
+            this.shards = shards;
+            this.ingestionOrder = ingestionOrder;
+            this.entryLogId = entryLogId;
+        }
+
+        void add(long ledgerId, long entryId, long location) throws IOException {
+            if (size == array.length) {
+                if (size / GROUP_SIZE >= BATCH_COMMIT_SIZE) {
+                    ingest();
+                } else {
+                    array = Arrays.copyOf(array, size * 2);
+                }
+            }
+
+            // Flip the sign bit so that the signed sort matches the unsigned byte order of the keys
+            array[size] = ledgerId ^ Long.MIN_VALUE;
+            array[size + 1] = entryId ^ Long.MIN_VALUE;
+            array[size + 2] = location;
+            size += GROUP_SIZE;
+        }
+
+        void ingest() throws IOException {
+            if (size == 0) {
+                return;
+            }
+
+            ArrayGroupSort.sort(array, 0, size);
+            ingestionOrder.awaitTurn(entryLogId);
+
+            KeyValueStorage.Batch[] batches = new KeyValueStorage.Batch[shards.length];
+            try {
+                for (int i = 0; i < size; i += GROUP_SIZE) {
+                    int next = i + GROUP_SIZE;
+                    if (next < size && array[next] == array[i] && array[next + 1] == array[i + 1]) {
+                        // Same entry written twice in the log, only keep the last copy
+                        if (array[next + 2] < array[i + 2]) {
+                            array[next + 2] = array[i + 2];
                         }
+                        continue;
                     }
 
-                    @Override
-                    public boolean accept(long ledgerId) {
-                        return activeLedgers.contains(ledgerId);
+                    long ledgerId = array[i] ^ Long.MIN_VALUE;
+                    int shard = EntryLocationIndex.getShard(ledgerId, shards.length);
+                    if (batches[shard] == null) {
+                        batches[shard] = shards[shard].newIngestionBatch();
                     }
-                });
 
-                ++completedEntryLogs;
-                LOG.info("Completed scanning of log {}.log -- {} / {}", Long.toHexString(entryLogId),
-                        completedEntryLogs, totalEntryLogs);
+                    LongPairWrapper key = LongPairWrapper.get(ledgerId, array[i + 1] ^ Long.MIN_VALUE);
+                    LongWrapper value = LongWrapper.get(array[i + 2]);
+
+                    try {
+                        batches[shard].put(key.array, value.array);
+                    } finally {
+                        key.recycle();
+                        value.recycle();
+                    }
+                }
+
+                for (KeyValueStorage.Batch batch : batches) {
+                    if (batch != null) {
+                        batch.flush();
+                    }
+                }
+            } finally {
+                for (KeyValueStorage.Batch batch : batches) {
+                    if (batch != null) {
+                        batch.close();
+                    }
+                }
             }
 
-            batch.get().flush();
-            batch.get().close();
+            size = 0;
+        }
+    }
 
-            newIndex.sync();
-            newIndex.close();
+    /**
+     * Order of ingestion of the entry logs of a ledger directory.
+     */
+    private static class IngestionOrder {
+        private final long[] entryLogIds;
+        // guarded by this
+        private int next = 0;
+        private boolean failed = false;
+
+        IngestionOrder(Set<Long> entryLogs) {
+            this.entryLogIds = entryLogs.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+
+        /**
+         * Wait until all the entry logs before the given one are ingested.
+         */
+        synchronized void awaitTurn(long entryLogId) throws IOException {
+            try {
+                while (!failed && entryLogIds[next] != entryLogId) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting to ingest entry log " + entryLogId, e);
+            }
+            if (failed) {
+                throw new IOException("Not ingesting entry log " + entryLogId + " after a previous failure");
+            }
+        }
+
+        /**
+         * Mark the given entry log as ingested, once all the entry logs before it are.
+         */
+        synchronized void done(long entryLogId) throws IOException {
+            awaitTurn(entryLogId);
+            next++;
+            notifyAll();
+        }
+
+        /**
+         * Abort the ingestion of the following entry logs, which can't be ingested in order any more.
+         */
+        synchronized void fail() {
+            failed = true;
+            notifyAll();
+        }
+    }
+
+    private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks) throws IOException {
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rebuilding locations index", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to rebuild locations index", e.getCause());
         }
-        LOG.info("Rebuilding index is done. Total time: {}",
-                DurationFormatUtils.formatDurationHMS(
-                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
     }
 
     private Set<Long> getActiveLedgers(ServerConfiguration conf, KeyValueStorageFactory storageFactory, String basePath)
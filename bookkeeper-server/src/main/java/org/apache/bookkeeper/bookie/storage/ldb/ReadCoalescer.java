@@ -0,0 +1,229 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.netty.buffer.ByteBuf;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.util.MathUtils;
+
+/**
+ * Coalesces concurrent read cache misses on the same entries into a single read from the entry logger.
+ *
+ * <p>The first miss on an entry reads it from the storage (the leader read), and the reads of the same entry
+ * issued while it is in progress wait for it and share the entry buffer. The reads of the entries following it,
+ * within the read-ahead batch of the leader read, wait for the read-ahead to complete and are then served from the
+ * read cache, instead of reading the same entry log region concurrently.
+ */
+class ReadCoalescer {
+
+    private static final int NUM_STRIPES = 64;
+
+    /**
+     * Read of an entry from the storage, which fills the read cache.
+     */
+    interface StorageRead {
+        /**
+         * Read an entry from the storage and do the read-ahead.
+         *
+         * @param flight the leader read of the entry, to be notified with {@link Flight#entryRead(ByteBuf)} once the
+         *               entry is read and before the read-ahead, or null if the read is not coalesced
+         */
+        ByteBuf read(long ledgerId, long entryId, Flight flight) throws IOException, BookieException;
+    }
+
+    /**
+     * A leader read in progress.
+     */
+    static final class Flight {
+        private final long ledgerId;
+        private final long entryId;
+        private final List<Flight> stripe;
+        private final CompletableFuture<ByteBuf> entry = new CompletableFuture<>();
+        private final CompletableFuture<Void> readAhead = new CompletableFuture<>();
+
+        // guarded by the stripe
+        private int waiters = 0;
+        private boolean entryDone = false;
+
+        private Flight(long ledgerId, long entryId, List<Flight> stripe) {
+            this.ledgerId = ledgerId;
+            this.entryId = entryId;
+            this.stripe = stripe;
+        }
+
+        @VisibleForTesting
+        int getWaiters() {
+            synchronized (stripe) {
+                return waiters;
+            }
+        }
+
+        /**
+         * Share the entry read by the leader with the reads waiting for it. Each waiting read gets its own reference
+         * to the entry buffer.
+         */
+        void entryRead(ByteBuf buf) {
+            int n;
+            synchronized (stripe) {
+                if (entryDone) {
+                    return;
+                }
+                entryDone = true;
+                n = waiters;
+            }
+
+            if (n > 0) {
+                // the indexes of the shared duplicate are never modified, each waiter reads its own duplicate of it
+                ByteBuf shared = buf.duplicate();
+                buf.retain(n);
+                entry.complete(shared);
+            }
+        }
+
+        private void entryFailed(Throwable t) {
+            synchronized (stripe) {
+                if (entryDone) {
+                    return;
+                }
+                entryDone = true;
+            }
+            entry.completeExceptionally(t != null ? t
+                    : new IOException("Entry " + ledgerId + "@" + entryId + " was not shared"));
+        }
+    }
+
+    private final ReadCache readCache;
+    private final int readAheadBatchSize;
+    private final Counter coalescedReads;
+    private final List<Flight>[] stripes;
+
+    @SuppressWarnings("unchecked")
+    ReadCoalescer(ReadCache readCache, int readAheadBatchSize, Counter coalescedReads) {
+        this.readCache = readCache;
+        this.readAheadBatchSize = readAheadBatchSize;
+        this.coalescedReads = coalescedReads;
+        this.stripes = new List[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            stripes[i] = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Read an entry which was not found in the read cache, joining a read of the same entry or read-ahead batch
+     * already in progress if there is one.
+     */
+    ByteBuf read(long ledgerId, long entryId, StorageRead storageRead) throws IOException, BookieException {
+        List<Flight> stripe = stripes[MathUtils.signSafeMod(ledgerId, NUM_STRIPES)];
+        Flight flight = null;
+        boolean waitForEntry = false;
+        boolean leader = false;
+        synchronized (stripe) {
+            for (Flight f : stripe) {
+                if (f.ledgerId != ledgerId) {
+                    continue;
+                }
+                if (f.entryId == entryId && !f.entryDone) {
+                    f.waiters++;
+                    flight = f;
+                    waitForEntry = true;
+                    break;
+                } else if (entryId >= f.entryId && entryId - f.entryId <= readAheadBatchSize) {
+                    flight = f;
+                }
+            }
+
+            if (flight == null) {
+                flight = new Flight(ledgerId, entryId, stripe);
+                stripe.add(flight);
+                leader = true;
+            }
+        }
+
+        if (leader) {
+            return lead(flight, ledgerId, entryId, storageRead);
+        } else if (waitForEntry) {
+            ByteBuf shared = getUnchecked(flight.entry);
+            coalescedReads.inc();
+            return shared.duplicate();
+        } else {
+            return readAfter(flight, ledgerId, entryId, storageRead);
+        }
+    }
+
+    private ByteBuf lead(Flight flight, long ledgerId, long entryId, StorageRead storageRead)
+            throws IOException, BookieException {
+        try {
+            return storageRead.read(ledgerId, entryId, flight);
+        } catch (Throwable t) {
+            flight.entryFailed(t);
+            throw t;
+        } finally {
+            // never leave the waiting reads hanging if the storage read did not notify the entry
+            flight.entryFailed(null);
+            synchronized (flight.stripe) {
+                flight.stripe.remove(flight);
+            }
+            flight.readAhead.complete(null);
+        }
+    }
+
+    /**
+     * Wait for the read-ahead of a leader read covering the entry, then read the entry from the read cache, or from
+     * the storage if the read-ahead did not reach it.
+     */
+    private ByteBuf readAfter(Flight flight, long ledgerId, long entryId, StorageRead storageRead)
+            throws IOException, BookieException {
+        getUnchecked(flight.readAhead);
+        ByteBuf entry = readCache.get(ledgerId, entryId);
+        if (entry != null) {
+            coalescedReads.inc();
+            return entry;
+        }
+        return storageRead.read(ledgerId, entryId, null);
+    }
+
+    private static <T> T getUnchecked(CompletableFuture<T> future) throws IOException, BookieException {
+        try {
+            // the leader read is bounded by the storage IO, waiting for it is not interruptible so that the
+            // reference to the entry taken for this read is never leaked
+            return Uninterruptibles.getUninterruptibly(future);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof BookieException) {
+                throw (BookieException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new IOException(cause);
+            }
+        }
+    }
+}
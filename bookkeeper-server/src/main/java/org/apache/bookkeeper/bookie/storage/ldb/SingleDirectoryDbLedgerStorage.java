@@ -94,6 +94,9 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     private final LedgerMetadataIndex ledgerIndex;
     private final EntryLocationIndex entryLocationIndex;
+    private final LedgerLastEntryIndex lastEntryIndex;
+    // Only accessed by the flush, while holding the flushMutex
+    private final LedgerLastEntryIndex.FlushedEntries flushedEntries = new LedgerLastEntryIndex.FlushedEntries();
 
     private final ConcurrentLongHashMap<TransientLedgerInfo> transientLedgerInfoCache;
 
@@ -108,6 +111,9 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     // Cache where we insert entries for speculative reading
     private final ReadCache readCache;
 
+    // Coalesces concurrent read cache misses on the same entries, null if disabled
+    private final ReadCoalescer readCoalescer;
+
     private final StampedLock writeCacheRotationLock = new StampedLock();
 
     protected final ReentrantLock flushMutex = new ReentrantLock();
@@ -193,6 +199,13 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         entryLocationIndex = new EntryLocationIndex(conf,
                 KeyValueStorageRocksDB.factory, indexBaseDir, ledgerIndexDirStatsLogger);
 
+        lastEntryIndex = new LedgerLastEntryIndex();
+        ledgerIndex.forEach((ledgerId, ledgerData) -> {
+            if (ledgerData.hasLastEntryId()) {
+                lastEntryIndex.load(ledgerId, ledgerData.getLastEntryId(), ledgerData.getLastAddConfirmed());
+            }
+        });
+
         transientLedgerInfoCache = ConcurrentLongHashMap.<TransientLedgerInfo>newBuilder()
                 .expectedItems(16 * 1024)
                 .concurrencyLevel(Runtime.getRuntime().availableProcessors() * 2)
@@ -213,6 +226,13 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             () -> readCache.count()
         );
 
+        if (DbLedgerStorage.getBooleanVariableOrDefault(conf, DbLedgerStorage.READ_COALESCING_ENABLED, false)) {
+            readCoalescer = new ReadCoalescer(readCache, readAheadCacheBatchSize,
+                    dbLedgerStorageStats.getReadCoalescedCounter());
+        } else {
+            readCoalescer = null;
+        }
+
         flushExecutorTime = ledgerIndexDirStatsLogger.getThreadScopedCounter("db-storage-thread-time");
 
         executor.submit(() -> {
@@ -328,7 +348,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     @Override
     public List<String> getEntryLocationDBPath() {
-        return Lists.newArrayList(entryLocationIndex.getEntryLocationDBPath());
+        return entryLocationIndex.getEntryLocationDBPath();
     }
 
     @Override
@@ -449,7 +469,10 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         if (log.isDebugEnabled()) {
             log.debug("Set master key. ledger: {}", ledgerId);
         }
-        ledgerIndex.setMasterKey(ledgerId, masterKey);
+        if (ledgerIndex.setMasterKey(ledgerId, masterKey)) {
+            // A new ledger has no entries in the location index
+            lastEntryIndex.addNewLedger(ledgerId);
+        }
     }
 
     @Override
@@ -617,7 +640,16 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
         dbLedgerStorageStats.getReadCacheMissCounter().inc();
 
+        if (readCoalescer != null) {
+            return readCoalescer.read(ledgerId, entryId, this::readFromStorage);
+        }
+        return readFromStorage(ledgerId, entryId, null);
+    }
+
+    private ByteBuf readFromStorage(long ledgerId, long entryId, ReadCoalescer.Flight flight)
+            throws IOException, BookieException {
         // Read from main storage
+        ByteBuf entry;
         long entryLocation;
         long locationIndexStartNano = MathUtils.nowInNano();
         try {
@@ -642,6 +674,10 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
 
         readCache.put(ledgerId, entryId, entry);
+        if (flight != null) {
+            // Share the entry with the concurrent reads of the same entry before doing the read-ahead
+            flight.entryRead(entry);
+        }
 
         // Try to read more entries
         long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
@@ -752,9 +788,15 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
         dbLedgerStorageStats.getWriteCacheMissCounter().inc();
 
-        // Search the last entry in storage
+        // Search the last entry in storage, unless it's already known
         long locationIndexStartNano = MathUtils.nowInNano();
-        long lastEntryId = entryLocationIndex.getLastEntryInLedger(ledgerId);
+        long lastEntryId = lastEntryIndex.getLastEntryId(ledgerId);
+        if (lastEntryId == LedgerLastEntryIndex.UNKNOWN) {
+            lastEntryId = lastEntryIndex.loadLastEntryId(ledgerId, entryLocationIndex::getLastEntryInLedger);
+        }
+        if (lastEntryId == LedgerLastEntryIndex.NO_ENTRY) {
+            throw new NoEntryException(ledgerId, -1);
+        }
         if (log.isDebugEnabled()) {
             log.debug("Found last entry for ledger {} in db: {}", ledgerId, lastEntryId);
         }
@@ -767,6 +809,8 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         ByteBuf content = entryLogger.readEntry(ledgerId, lastEntryId, entryLocation);
         dbLedgerStorageStats.getReadFromEntryLogTime().addLatency(
                 MathUtils.elapsedNanos(readEntryStartNano), TimeUnit.NANOSECONDS);
+        lastEntryIndex.setLastAddConfirmed(ledgerId, lastEntryId,
+                content.getLong(content.readerIndex() + 2 * Long.BYTES));
         return content;
     }
 
@@ -815,8 +859,11 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             // Write all the pending entries into the entry logger and collect the offset
             // position for each entry
 
-            Batch batch = entryLocationIndex.newBatch();
+            // The write cache is iterated in (ledgerId, entryId) order
+            Batch batch = entryLocationIndex.newSortedBatch();
+            flushedEntries.clear();
             writeCacheBeingFlushed.forEach((ledgerId, entryId, entry) -> {
+                flushedEntries.add(ledgerId, entryId, entry.getLong(entry.readerIndex() + 2 * Long.BYTES));
                 long location = entryLogger.addEntry(ledgerId, entry);
                 entryLocationIndex.addLocation(batch, ledgerId, entryId, location);
             });
@@ -834,6 +881,10 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                         MathUtils.elapsedNanos(batchFlushStartTime) / (double) TimeUnit.SECONDS.toNanos(1));
             }
 
+            // The new locations are committed, the last entries can be served from memory
+            lastEntryIndex.update(flushedEntries, ledgerIndex);
+            flushedEntries.clear();
+
             long ledgerIndexStartTime = MathUtils.nowInNano();
             ledgerIndex.flush();
             recordSuccessfulEvent(dbLedgerStorageStats.getFlushLedgerIndexStats(), ledgerIndexStartTime);
@@ -925,6 +976,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
 
         entryLocationIndex.delete(ledgerId);
+        lastEntryIndex.remove(ledgerId);
         ledgerIndex.delete(ledgerId);
 
         for (int i = 0, size = ledgerDeletionListeners.size(); i < size; i++) {
@@ -977,6 +1029,19 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         return entryLogger;
     }
 
+    long getWriteCacheSize() {
+        return writeCache.size() + writeCacheBeingFlushed.size();
+    }
+
+    long getWriteCacheMaxSize() {
+        return writeCacheMaxSize;
+    }
+
+    @Override
+    public int getWriteCacheUsagePercent() {
+        return (int) (getWriteCacheSize() * 100 / Math.max(1, writeCacheMaxSize));
+    }
+
     @Override
     public long getLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         throwIfLimbo(ledgerId);
@@ -984,6 +1049,11 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         TransientLedgerInfo ledgerInfo = transientLedgerInfoCache.get(ledgerId);
         long lac = null != ledgerInfo ? ledgerInfo.getLastAddConfirmed() : TransientLedgerInfo.NOT_ASSIGNED_LAC;
         if (lac == TransientLedgerInfo.NOT_ASSIGNED_LAC) {
+            lac = getLastAddConfirmedFromIndex(ledgerId);
+            if (lac != TransientLedgerInfo.NOT_ASSIGNED_LAC) {
+                return getOrAddLedgerInfo(ledgerId).setLastAddConfirmed(lac);
+            }
+
             ByteBuf bb = getEntry(ledgerId, BookieProtocol.LAST_ADD_CONFIRMED);
             try {
                 bb.skipBytes(2 * Long.BYTES); // skip ledger id and entry id
@@ -996,6 +1066,26 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         return lac;
     }
 
+    /**
+     * Get the LAC of the last entry stored in the location index, if the ledger has no more recent entries in
+     * the write caches.
+     *
+     * <p>The write caches are only checked for the presence of the ledger, which is a lookup of its last entry,
+     * and the index is read under the same read lock, so that a rotation can't happen in between.
+     */
+    @VisibleForTesting
+    long getLastAddConfirmedFromIndex(long ledgerId) {
+        long stamp = writeCacheRotationLock.readLock();
+        try {
+            if (writeCache.hasLedger(ledgerId) || writeCacheBeingFlushed.hasLedger(ledgerId)) {
+                return TransientLedgerInfo.NOT_ASSIGNED_LAC;
+            }
+            return lastEntryIndex.getLastAddConfirmed(ledgerId);
+        } finally {
+            writeCacheRotationLock.unlockRead(stamp);
+        }
+    }
+
     @Override
     public boolean waitForLastAddConfirmedUpdate(long ledgerId, long previousLAC,
             Watcher<LastAddConfirmedUpdateNotification> watcher) throws IOException {
@@ -1283,6 +1373,16 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         }
     }
 
+    @VisibleForTesting
+    LedgerLastEntryIndex getLastEntryIndex() {
+        return lastEntryIndex;
+    }
+
+    @VisibleForTesting
+    LedgerMetadataIndex getLedgerIndex() {
+        return ledgerIndex;
+    }
+
     @VisibleForTesting
     DbLedgerStorageStats getDbLedgerStorageStats() {
         return dbLedgerStorageStats;
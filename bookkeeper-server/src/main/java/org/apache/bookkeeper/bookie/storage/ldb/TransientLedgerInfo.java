@@ -143,7 +143,7 @@ class TransientLedgerInfo extends Watchable<LastAddConfirmedUpdateNotification>
     }
 
     void notifyWatchers(long lastAddConfirmed) {
-        notifyWatchers(LastAddConfirmedUpdateNotification.FUNC, lastAddConfirmed);
+        LastAddConfirmedUpdateNotification.notifyWatchers(this, lastAddConfirmed);
     }
 
     @Override
@@ -28,8 +28,10 @@ import io.netty.buffer.Unpooled;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.LongStream;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
@@ -69,7 +71,13 @@ public class WriteCache implements Closeable {
             .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
             .build();
 
-    private final ByteBuf[] cacheSegments;
+    // First entryId of each ledger, to list the entries of a ledger without scanning the whole index
+    private final ConcurrentLongLongHashMap firstEntryMap = ConcurrentLongLongHashMap.newBuilder()
+            .expectedItems(4096)
+            .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
+            .build();
+
+    private final AtomicReferenceArray<ByteBuf> cacheSegments;
     private final int segmentsCount;
 
     private final long maxCacheSize;
@@ -91,6 +99,14 @@ public class WriteCache implements Closeable {
     }
 
     public WriteCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize) {
+        this(allocator, maxCacheSize, maxSegmentSize, true);
+    }
+
+    /**
+     * @param preallocate whether to allocate all the segments upfront, or only when the cache grows into them.
+     *            Allocated segments are kept until the cache is closed.
+     */
+    public WriteCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize, boolean preallocate) {
         checkArgument(maxSegmentSize > 0);
 
         long alignedMaxSegmentSize = alignToPowerOfTwo(maxSegmentSize);
@@ -104,15 +120,39 @@ public class WriteCache implements Closeable {
 
         this.segmentsCount = 1 + (int) (maxCacheSize / maxSegmentSize);
 
-        this.cacheSegments = new ByteBuf[segmentsCount];
+        this.cacheSegments = new AtomicReferenceArray<>(segmentsCount);
+
+        if (preallocate) {
+            for (int i = 0; i < segmentsCount; i++) {
+                cacheSegments.set(i, newSegment(i));
+            }
+        }
+    }
 
-        for (int i = 0; i < segmentsCount - 1; i++) {
+    private ByteBuf newSegment(int segmentIdx) {
+        if (segmentIdx < segmentsCount - 1) {
             // All intermediate segments will be full-size
-            cacheSegments[i] = Unpooled.directBuffer(maxSegmentSize, maxSegmentSize);
+            return Unpooled.directBuffer(maxSegmentSize, maxSegmentSize);
+        } else {
+            int lastSegmentSize = (int) (maxCacheSize % maxSegmentSize);
+            return Unpooled.directBuffer(lastSegmentSize, lastSegmentSize);
+        }
+    }
+
+    private ByteBuf getOrAllocateSegment(int segmentIdx) {
+        ByteBuf segment = cacheSegments.get(segmentIdx);
+        if (segment != null) {
+            return segment;
         }
 
-        int lastSegmentSize = (int) (maxCacheSize % maxSegmentSize);
-        cacheSegments[segmentsCount - 1] = Unpooled.directBuffer(lastSegmentSize, lastSegmentSize);
+        synchronized (cacheSegments) {
+            segment = cacheSegments.get(segmentIdx);
+            if (segment == null) {
+                segment = newSegment(segmentIdx);
+                cacheSegments.set(segmentIdx, segment);
+            }
+            return segment;
+        }
     }
 
     public void clear() {
@@ -121,13 +161,17 @@ public class WriteCache implements Closeable {
         cacheCount.reset();
         index.clear();
         lastEntryMap.clear();
+        firstEntryMap.clear();
         deletedLedgers.clear();
     }
 
     @Override
     public void close() {
-        for (ByteBuf buf : cacheSegments) {
-            buf.release();
+        for (int i = 0; i < segmentsCount; i++) {
+            ByteBuf buf = cacheSegments.get(i);
+            if (buf != null) {
+                buf.release();
+            }
         }
     }
 
@@ -160,7 +204,7 @@ public class WriteCache implements Closeable {
             }
         }
 
-        cacheSegments[segmentIdx].setBytes(localOffset, entry, entry.readerIndex(), entry.readableBytes());
+        getOrAllocateSegment(segmentIdx).setBytes(localOffset, entry, entry.readerIndex(), entry.readableBytes());
 
         // Update last entryId for ledger. This logic is to handle writes for the same
         // ledger coming out of order and from different thread, though in practice it
@@ -177,6 +221,18 @@ public class WriteCache implements Closeable {
             }
         }
 
+        while (entryId >= 0) {
+            long currentFirstEntryId = firstEntryMap.get(ledgerId);
+            if (currentFirstEntryId != -1 && currentFirstEntryId <= entryId) {
+                // An older entry is already there
+                break;
+            }
+
+            if (firstEntryMap.compareAndSet(ledgerId, currentFirstEntryId, entryId)) {
+                break;
+            }
+        }
+
         index.put(ledgerId, entryId, offset, size);
         cacheCount.increment();
         cacheSize.addAndGet(size);
@@ -195,14 +251,48 @@ public class WriteCache implements Closeable {
 
         int localOffset = (int) (offset & segmentOffsetMask);
         int segmentIdx = (int) (offset >>> segmentOffsetBits);
-        entry.writeBytes(cacheSegments[segmentIdx], localOffset, size);
+        entry.writeBytes(cacheSegments.get(segmentIdx), localOffset, size);
         return entry;
     }
 
+    /**
+     * @return the ids of the entries of the ledger stored in the cache, in ascending order
+     */
+    public long[] getEntryIds(long ledgerId) {
+        long lastEntryId = lastEntryMap.get(ledgerId);
+        if (lastEntryId == -1) {
+            // Ledger not found in write cache
+            return new long[0];
+        }
+
+        LongStream.Builder entryIds = LongStream.builder();
+        long firstEntryId = firstEntryMap.get(ledgerId);
+        if (firstEntryId != -1 && lastEntryId - firstEntryId < count()) {
+            // Probing the range of entries of the ledger is cheaper than scanning the whole index
+            for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+                if (index.get(ledgerId, entryId) != null) {
+                    entryIds.add(entryId);
+                }
+            }
+            return entryIds.build().toArray();
+        }
+
+        index.forEach((entryLedgerId, entryId, offset, length) -> {
+            if (entryLedgerId == ledgerId) {
+                entryIds.add(entryId);
+            }
+        });
+        return entryIds.build().sorted().toArray();
+    }
+
     public boolean hasEntry(long ledgerId, long entryId) {
         return index.get(ledgerId, entryId) != null;
     }
 
+    public boolean hasLedger(long ledgerId) {
+        return lastEntryMap.containsKey(ledgerId);
+    }
+
     public ByteBuf getLastEntry(long ledgerId) {
         long lastEntryId = lastEntryMap.get(ledgerId);
         if (lastEntryId == -1) {
@@ -257,7 +347,10 @@ public class WriteCache implements Closeable {
 
             ByteBuf[] entrySegments = new ByteBuf[segmentsCount];
             for (int i = 0; i < segmentsCount; i++) {
-                entrySegments[i] = cacheSegments[i].slice(0, cacheSegments[i].capacity());
+                ByteBuf segment = cacheSegments.get(i);
+                if (segment != null) {
+                    entrySegments[i] = segment.slice(0, segment.capacity());
+                }
             }
 
             for (int i = 0; i < sortedEntriesIdx; i += 4) {
@@ -0,0 +1,119 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.tiered;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCountUtil;
+import java.io.EOFException;
+import java.io.IOException;
+import org.apache.bookkeeper.bookie.storage.directentrylogger.LogReader;
+
+/**
+ * {@link LogReader} over an entry log offloaded to the cold tier, reading through the {@link BlockCache}.
+ */
+class BlobLogReader implements LogReader {
+
+    private final int logId;
+    private final String name;
+    private final long size;
+    private final BlockCache blockCache;
+    private final ByteBufAllocator allocator;
+    private volatile boolean closed = false;
+
+    BlobLogReader(int logId, String name, long size, BlockCache blockCache, ByteBufAllocator allocator) {
+        this.logId = logId;
+        this.name = name;
+        this.size = size;
+        this.blockCache = blockCache;
+        this.allocator = allocator;
+    }
+
+    @Override
+    public int logId() {
+        return logId;
+    }
+
+    @Override
+    public long maxOffset() {
+        return size;
+    }
+
+    @Override
+    public ByteBuf readBufferAt(long offset, int size) throws IOException, EOFException {
+        ByteBuf buffer = allocator.buffer(size, size);
+        try {
+            readIntoBufferAt(buffer, offset, size);
+            return buffer;
+        } catch (IOException e) {
+            ReferenceCountUtil.release(buffer);
+            throw e;
+        }
+    }
+
+    @Override
+    public void readIntoBufferAt(ByteBuf buffer, long offset, int size) throws IOException, EOFException {
+        if (offset < 0 || offset + size > this.size) {
+            throw new EOFException("Invalid read of " + size + " bytes at " + offset + " in " + name
+                    + ", size: " + this.size);
+        }
+        blockCache.read(name, this.size, offset, buffer, size);
+    }
+
+    @Override
+    public int readIntAt(long offset) throws IOException, EOFException {
+        ByteBuf buffer = Unpooled.buffer(Integer.BYTES);
+        readIntoBufferAt(buffer, offset, Integer.BYTES);
+        return buffer.getInt(0);
+    }
+
+    @Override
+    public long readLongAt(long offset) throws IOException, EOFException {
+        ByteBuf buffer = Unpooled.buffer(Long.BYTES);
+        readIntoBufferAt(buffer, offset, Long.BYTES);
+        return buffer.getLong(0);
+    }
+
+    @Override
+    public ByteBuf readEntryAt(int offset) throws IOException, EOFException {
+        int sizeOffset = offset - Integer.BYTES;
+        if (sizeOffset < 0) {
+            throw new IOException("Invalid entry offset " + offset + " in " + name);
+        }
+
+        int entrySize = readIntAt(sizeOffset);
+        if (entrySize <= 0 || offset + (long) entrySize > size) {
+            throw new IOException("Invalid entry size " + entrySize + " at " + offset + " in " + name);
+        }
+        return readBufferAt(offset, entrySize);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.tiered;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+
+/**
+ * Storage for the entry logs offloaded to the cold tier.
+ *
+ * <p>Blobs are immutable: once uploaded they are only read and eventually deleted. Implementations must make
+ * uploads atomic, so that a partially uploaded blob is never visible.
+ */
+public interface BlobStore extends AutoCloseable {
+
+    void initialize(ServerConfiguration conf) throws IOException;
+
+    /**
+     * Upload the content of a local file as a new blob.
+     */
+    void put(String name, File file) throws IOException;
+
+    /**
+     * Read a range of a blob.
+     *
+     * @return the number of bytes read, which can be less than the requested length at the end of the blob
+     */
+    int read(String name, long position, byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * @return the size of the blob, in bytes
+     * @throws java.io.FileNotFoundException if the blob doesn't exist
+     */
+    long size(String name) throws IOException;
+
+    /**
+     * @return false if the blob doesn't exist
+     */
+    boolean delete(String name) throws IOException;
+
+    /**
+     * @return the names of all the blobs whose name starts with the prefix
+     */
+    Collection<String> list(String prefix) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
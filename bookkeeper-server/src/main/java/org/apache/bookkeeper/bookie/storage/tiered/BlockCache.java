@@ -0,0 +1,122 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.tiered;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.netty.buffer.ByteBuf;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Cache of fixed size blocks read from the cold tier, shared by all the ledger directories.
+ */
+class BlockCache {
+
+    private final BlobStore blobStore;
+    private final int blockSize;
+    private final Cache<BlockKey, byte[]> blocks;
+
+    BlockCache(BlobStore blobStore, long maxSize, int blockSize) {
+        this.blobStore = blobStore;
+        this.blockSize = blockSize;
+        this.blocks = CacheBuilder.newBuilder()
+                .maximumWeight(maxSize)
+                .weigher((BlockKey key, byte[] block) -> block.length)
+                .build();
+    }
+
+    /**
+     * Read a range of a blob, appending it to the buffer.
+     */
+    void read(String name, long blobSize, long position, ByteBuf buffer, int length) throws IOException {
+        while (length > 0) {
+            long blockIndex = position / blockSize;
+            byte[] block = getBlock(name, blobSize, blockIndex);
+            int offsetInBlock = (int) (position - blockIndex * blockSize);
+            int bytesInBlock = Math.min(length, block.length - offsetInBlock);
+            if (bytesInBlock <= 0) {
+                throw new EOFException("Not enough bytes available in " + name + " at " + position
+                        + ", size: " + blobSize);
+            }
+
+            buffer.writeBytes(block, offsetInBlock, bytesInBlock);
+            position += bytesInBlock;
+            length -= bytesInBlock;
+        }
+    }
+
+    void invalidate(String name) {
+        blocks.asMap().keySet().removeIf(key -> key.name.equals(name));
+    }
+
+    private byte[] getBlock(String name, long blobSize, long blockIndex) throws IOException {
+        try {
+            return blocks.get(new BlockKey(name, blockIndex), () -> loadBlock(name, blobSize, blockIndex));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private byte[] loadBlock(String name, long blobSize, long blockIndex) throws IOException {
+        long position = blockIndex * blockSize;
+        int length = (int) Math.max(0, Math.min(blockSize, blobSize - position));
+        byte[] block = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = blobStore.read(name, position + read, block, read, length - read);
+            if (n <= 0) {
+                throw new EOFException("Short read of " + name + " at " + (position + read) + ", size: " + blobSize);
+            }
+            read += n;
+        }
+        return block;
+    }
+
+    private static final class BlockKey {
+        private final String name;
+        private final long blockIndex;
+
+        BlockKey(String name, long blockIndex) {
+            this.name = name;
+            this.blockIndex = blockIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return blockIndex == other.blockIndex && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, blockIndex);
+        }
+    }
+}
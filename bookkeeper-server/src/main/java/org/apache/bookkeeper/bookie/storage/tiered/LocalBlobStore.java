@@ -0,0 +1,121 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.tiered;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+
+/**
+ * {@link BlobStore} keeping the blobs as files under a local directory, e.g. a slower disk or a network mount.
+ */
+@Slf4j
+public class LocalBlobStore implements BlobStore {
+
+    public static final String LOCAL_PATH = "dbStorage_tieredStorageLocalPath";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private Path root;
+
+    @Override
+    public void initialize(ServerConfiguration conf) throws IOException {
+        String path = conf.getString(LOCAL_PATH);
+        if (path == null) {
+            throw new IOException(LOCAL_PATH + " must be set to use " + LocalBlobStore.class.getSimpleName());
+        }
+
+        root = new File(path).toPath();
+        Files.createDirectories(root);
+        log.info("Using local cold tier at {}", root);
+    }
+
+    @Override
+    public void put(String name, File file) throws IOException {
+        Path target = root.resolve(name);
+        Path tmp = root.resolve(name + TMP_SUFFIX);
+        Files.createDirectories(target.getParent());
+        Files.copy(file.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            fc.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public int read(String name, long position, byte[] buffer, int offset, int length) throws IOException {
+        try (FileChannel fc = FileChannel.open(root.resolve(name), StandardOpenOption.READ)) {
+            ByteBuffer bb = ByteBuffer.wrap(buffer, offset, length);
+            while (bb.hasRemaining()) {
+                int read = fc.read(bb, position + bb.position() - offset);
+                if (read < 0) {
+                    break;
+                }
+            }
+            return bb.position() - offset;
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(name);
+        }
+    }
+
+    @Override
+    public long size(String name) throws IOException {
+        try {
+            return Files.size(root.resolve(name));
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(name);
+        }
+    }
+
+    @Override
+    public boolean delete(String name) throws IOException {
+        return Files.deleteIfExists(root.resolve(name));
+    }
+
+    @Override
+    public Collection<String> list(String prefix) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            List<String> names = files.filter(Files::isRegularFile)
+                    .map(p -> root.relativize(p).toString().replace(File.separatorChar, '/'))
+                    .filter(name -> name.startsWith(prefix) && !name.endsWith(TMP_SUFFIX))
+                    .collect(Collectors.toList());
+            return names;
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing to close
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.tiered;
+
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.bookie.AbstractLogCompactor;
+import org.apache.bookkeeper.bookie.Bookie.NoEntryException;
+import org.apache.bookkeeper.bookie.EntryLogMetadata;
+import org.apache.bookkeeper.bookie.storage.CompactionEntryLog;
+import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.bookie.storage.directentrylogger.DirectEntryLogger;
+import org.apache.bookkeeper.bookie.storage.directentrylogger.LogReader;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
+
+/**
+ * {@link EntryLogger} that moves sealed entry logs from the ledger directory to a cold {@link BlobStore}.
+ *
+ * <p>New entries are always written to the hot tier entry logger. Entry logs that were completely flushed are
+ * offloaded once they are older than the configured age, or earlier when the ledger directory usage goes above
+ * the configured threshold. Offloaded logs keep their id, so the locations stored in the entry location index
+ * stay valid: reads are routed by log id to either tier. Reads from the cold tier go through the shared
+ * {@link BlockCache}.
+ *
+ * <p>Garbage collection and compaction work on offloaded logs as well, scanning them from the cold tier.
+ */
+@Slf4j
+public class TieredEntryLogger implements EntryLogger {
+
+    private static final String COLD_TIER_OFFLOADED_LOGS = "cold-tier-offloaded-logs";
+    private static final String COLD_TIER_OFFLOADED_BYTES = "cold-tier-offloaded-bytes";
+    private static final String COLD_TIER_READS = "cold-tier-reads";
+
+    private final EntryLogger hotTier;
+    private final File ledgerDir;
+    private final BlobStore coldTier;
+    private final BlockCache blockCache;
+    private final ByteBufAllocator allocator;
+    private final String prefix;
+    private final long offloadMinAgeMillis;
+    private final double hotTierUsageThreshold;
+
+    // Size of each entry log stored in the cold tier
+    private final ConcurrentLongLongHashMap offloadedLogs;
+
+    // Serializes the switch of a log to the cold tier with its removal
+    private final Object offloadLock = new Object();
+    private volatile boolean closed = false;
+    private final ScheduledFuture<?> offloadTask;
+
+    private final Counter offloadedLogsCounter;
+    private final Counter offloadedBytesCounter;
+    private final Counter coldReadsCounter;
+
+    TieredEntryLogger(EntryLogger hotTier, File ledgerDir, BlobStore coldTier, BlockCache blockCache,
+                      ScheduledExecutorService offloadExecutor, long offloadIntervalMillis,
+                      long offloadMinAgeMillis, double hotTierUsageThreshold,
+                      ByteBufAllocator allocator, StatsLogger statsLogger) throws IOException {
+        this.hotTier = hotTier;
+        this.ledgerDir = ledgerDir;
+        this.coldTier = coldTier;
+        this.blockCache = blockCache;
+        this.allocator = allocator;
+        this.prefix = ledgerDir.getAbsolutePath().replaceAll("[^A-Za-z0-9._-]+", "_") + "/";
+        this.offloadMinAgeMillis = offloadMinAgeMillis;
+        this.hotTierUsageThreshold = hotTierUsageThreshold;
+        this.offloadedLogs = ConcurrentLongLongHashMap.newBuilder().build();
+
+        this.offloadedLogsCounter = statsLogger.getCounter(COLD_TIER_OFFLOADED_LOGS);
+        this.offloadedBytesCounter = statsLogger.getCounter(COLD_TIER_OFFLOADED_BYTES);
+        this.coldReadsCounter = statsLogger.getCounter(COLD_TIER_READS);
+
+        for (String name : coldTier.list(prefix)) {
+            long logId = logIdFromBlobName(name);
+            if (logId < 0) {
+                continue;
+            }
+
+            offloadedLogs.put(logId, coldTier.size(name));
+            if (hotTier.logExists(logId)) {
+                // The bookie stopped after the upload, before removing the local copy
+                log.info("Removing local copy of entry log {} already offloaded to the cold tier", logId);
+                hotTier.removeEntryLog(logId);
+            }
+        }
+        log.info("Found {} entry logs in the cold tier for {}", offloadedLogs.size(), ledgerDir);
+
+        this.offloadTask = offloadExecutor.scheduleWithFixedDelay(this::offloadLogs,
+                offloadIntervalMillis, offloadIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long addEntry(long ledgerId, ByteBuf buf) throws IOException {
+        return hotTier.addEntry(ledgerId, buf);
+    }
+
+    @Override
+    public ByteBuf readEntry(long entryLocation) throws IOException, NoEntryException {
+        long logId = entryLocation >> 32L;
+        if (!offloadedLogs.containsKey(logId)) {
+            try {
+                return hotTier.readEntry(entryLocation);
+            } catch (IOException e) {
+                if (!offloadedLogs.containsKey(logId)) {
+                    throw e;
+                }
+                // The log was offloaded while reading it
+            }
+        }
+        return readColdEntry(-1L, -1L, entryLocation, false);
+    }
+
+    @Override
+    public ByteBuf readEntry(long ledgerId, long entryId, long entryLocation) throws IOException, NoEntryException {
+        long logId = entryLocation >> 32L;
+        if (!offloadedLogs.containsKey(logId)) {
+            try {
+                return hotTier.readEntry(ledgerId, entryId, entryLocation);
+            } catch (IOException e) {
+                if (!offloadedLogs.containsKey(logId)) {
+                    throw e;
+                }
+                // The log was offloaded while reading it
+            }
+        }
+        return readColdEntry(ledgerId, entryId, entryLocation, true);
+    }
+
+    private ByteBuf readColdEntry(long ledgerId, long entryId, long entryLocation, boolean validateEntry)
+            throws IOException {
+        long logId = entryLocation >> 32L;
+        int pos = (int) (entryLocation & 0xffffffffL);
+        try (LogReader reader = newColdReader(logId)) {
+            ByteBuf entry = reader.readEntryAt(pos);
+            if (validateEntry) {
+                long foundLedgerId = entry.getLong(entry.readerIndex());
+                long foundEntryId = entry.getLong(entry.readerIndex() + Long.BYTES);
+                if (foundLedgerId != ledgerId || foundEntryId != entryId) {
+                    ReferenceCountUtil.release(entry);
+                    throw new IOException(String.format(
+                            "Found entry %d, ledger %d at pos %d entryLog %d, should have found entry %d"
+                                    + " for ledgerId %d",
+                            foundEntryId, foundLedgerId, pos, logId, entryId, ledgerId));
+                }
+            }
+            coldReadsCounter.inc();
+            return entry;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        hotTier.flush();
+    }
+
+    @Override
+    public CompactionEntryLog newCompactionLog(long logToCompact) throws IOException {
+        return hotTier.newCompactionLog(logToCompact);
+    }
+
+    @Override
+    public Collection<CompactionEntryLog> incompleteCompactionLogs() {
+        return hotTier.incompleteCompactionLogs();
+    }
+
+    @Override
+    public Collection<Long> getFlushedLogIds() {
+        Set<Long> logIds = new HashSet<>(hotTier.getFlushedLogIds());
+        offloadedLogs.forEach((logId, size) -> logIds.add(logId));
+        return logIds;
+    }
+
+    @Override
+    public void scanEntryLog(long entryLogId, EntryLogScanner scanner) throws IOException {
+        if (!offloadedLogs.containsKey(entryLogId)) {
+            hotTier.scanEntryLog(entryLogId, scanner);
+            return;
+        }
+
+        try (LogReader reader = newColdReader(entryLogId)) {
+            DirectEntryLogger.scanLog(reader, scanner);
+        }
+    }
+
+    @Override
+    public EntryLogMetadata getEntryLogMetadata(long entryLogId, AbstractLogCompactor.Throttler throttler)
+            throws IOException {
+        if (!offloadedLogs.containsKey(entryLogId)) {
+            return hotTier.getEntryLogMetadata(entryLogId, throttler);
+        }
+
+        try (LogReader reader = newColdReader(entryLogId)) {
+            return DirectEntryLogger.readLogMetadata(reader);
+        } catch (IOException e) {
+            log.info("Failed to read the ledgers map of offloaded entry log {}, scanning it: {}",
+                    entryLogId, e.getMessage());
+        }
+
+        EntryLogMetadata meta = new EntryLogMetadata(entryLogId);
+        scanEntryLog(entryLogId, new EntryLogScanner() {
+            @Override
+            public void process(long ledgerId, long offset, ByteBuf entry) throws IOException {
+                if (throttler != null) {
+                    throttler.acquire(entry.readableBytes());
+                }
+                meta.addLedgerSize(ledgerId, entry.readableBytes() + Integer.BYTES);
+            }
+
+            @Override
+            public boolean accept(long ledgerId) {
+                return ledgerId >= 0;
+            }
+        });
+        return meta;
+    }
+
+    @Override
+    public boolean logExists(long logId) {
+        return offloadedLogs.containsKey(logId) || hotTier.logExists(logId);
+    }
+
+    @Override
+    public boolean removeEntryLog(long entryLogId) {
+        synchronized (offloadLock) {
+            if (!offloadedLogs.containsKey(entryLogId)) {
+                return hotTier.removeEntryLog(entryLogId);
+            }
+
+            String name = blobName(entryLogId);
+            offloadedLogs.remove(entryLogId);
+            blockCache.invalidate(name);
+            try {
+                if (!coldTier.delete(name)) {
+                    log.warn("Entry log {} to delete was not found in the cold tier", entryLogId);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to delete entry log {} from the cold tier", entryLogId, e);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (offloadLock) {
+            closed = true;
+        }
+        offloadTask.cancel(false);
+        hotTier.close();
+    }
+
+    /**
+     * Offload the sealed entry logs that are old enough, or all of them, starting from the oldest, while the
+     * ledger directory usage is above the threshold.
+     */
+    @VisibleForTesting
+    void offloadLogs() {
+        try {
+            List<Long> logIds = new ArrayList<>(hotTier.getFlushedLogIds());
+            Collections.sort(logIds);
+            long now = System.currentTimeMillis();
+            for (long logId : logIds) {
+                if (closed) {
+                    return;
+                }
+
+                File logFile = logFile(logId);
+                if (offloadedLogs.containsKey(logId) || !logFile.exists()) {
+                    continue;
+                }
+
+                if (now - logFile.lastModified() >= offloadMinAgeMillis || isHotTierUsageAboveThreshold()) {
+                    offload(logId, logFile);
+                }
+            }
+        } catch (Throwable t) {
+            log.warn("Failed to offload entry logs of {} to the cold tier", ledgerDir, t);
+        }
+    }
+
+    private void offload(long logId, File logFile) throws IOException {
+        String name = blobName(logId);
+        long size = logFile.length();
+        long startTime = System.nanoTime();
+        try {
+            coldTier.put(name, logFile);
+        } catch (IOException e) {
+            if (hotTier.logExists(logId)) {
+                throw e;
+            }
+            // The log was garbage collected during the upload, go on with the next logs
+            coldTier.delete(name);
+            return;
+        }
+
+        synchronized (offloadLock) {
+            if (closed || !hotTier.logExists(logId)) {
+                // The log was garbage collected during the upload
+                coldTier.delete(name);
+                return;
+            }
+
+            offloadedLogs.put(logId, size);
+            hotTier.removeEntryLog(logId);
+        }
+
+        offloadedLogsCounter.inc();
+        offloadedBytesCounter.addCount(size);
+        log.info("Offloaded entry log {} ({} bytes) to the cold tier in {} ms", logId, size,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    private boolean isHotTierUsageAboveThreshold() {
+        if (hotTierUsageThreshold <= 0) {
+            return false;
+        }
+
+        long totalSpace = ledgerDir.getTotalSpace();
+        if (totalSpace == 0) {
+            return false;
+        }
+        return 1.0 - (double) ledgerDir.getUsableSpace() / totalSpace > hotTierUsageThreshold;
+    }
+
+    private LogReader newColdReader(long logId) throws IOException {
+        long size = offloadedLogs.get(logId);
+        if (size < 0) {
+            throw new FileNotFoundException("No file for log " + Long.toHexString(logId) + " in the cold tier");
+        }
+        return new BlobLogReader((int) logId, blobName(logId), size, blockCache, allocator);
+    }
+
+    private File logFile(long logId) {
+        return new File(ledgerDir, Long.toHexString(logId) + LOG_FILE_SUFFIX);
+    }
+
+    @VisibleForTesting
+    String blobName(long logId) {
+        return prefix + Long.toHexString(logId) + LOG_FILE_SUFFIX;
+    }
+
+    private long logIdFromBlobName(String name) {
+        if (!name.startsWith(prefix) || !name.endsWith(LOG_FILE_SUFFIX)) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - LOG_FILE_SUFFIX.length()), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.tiered;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.common.util.ReflectionUtils;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.StatsLogger;
+
+/**
+ * Cold tier shared by the entry loggers of all the ledger directories: the blob store, its block cache and the
+ * offload thread.
+ */
+@Slf4j
+public class TieredStorage implements AutoCloseable {
+
+    public static final String TIERED_STORAGE_ENABLED = "dbStorage_tieredStorageEnabled";
+    public static final String BLOB_STORE_CLASS = "dbStorage_tieredStorageBlobStoreClass";
+    public static final String OFFLOAD_MIN_AGE_SECONDS = "dbStorage_tieredStorageOffloadMinAgeSeconds";
+    public static final String OFFLOAD_INTERVAL_SECONDS = "dbStorage_tieredStorageOffloadIntervalSeconds";
+    public static final String HOT_TIER_USAGE_THRESHOLD = "dbStorage_tieredStorageHotTierUsageThreshold";
+    public static final String BLOCK_CACHE_SIZE_MB = "dbStorage_tieredStorageBlockCacheSizeMb";
+    public static final String BLOCK_SIZE_KB = "dbStorage_tieredStorageBlockSizeKb";
+
+    private static final long DEFAULT_OFFLOAD_MIN_AGE_SECONDS = TimeUnit.HOURS.toSeconds(1);
+    private static final long DEFAULT_OFFLOAD_INTERVAL_SECONDS = 60;
+    private static final double DEFAULT_HOT_TIER_USAGE_THRESHOLD = 0;
+    private static final long DEFAULT_BLOCK_CACHE_SIZE_MB = 256;
+    private static final int DEFAULT_BLOCK_SIZE_KB = 1024;
+
+    private final BlobStore blobStore;
+    private final BlockCache blockCache;
+    private final ScheduledExecutorService offloadExecutor;
+    private final long offloadIntervalMillis;
+    private final long offloadMinAgeMillis;
+    private final double hotTierUsageThreshold;
+    private final ByteBufAllocator allocator;
+
+    public TieredStorage(ServerConfiguration conf, ByteBufAllocator allocator) throws IOException {
+        this.allocator = allocator;
+        this.offloadMinAgeMillis = TimeUnit.SECONDS.toMillis(
+                conf.getLong(OFFLOAD_MIN_AGE_SECONDS, DEFAULT_OFFLOAD_MIN_AGE_SECONDS));
+        this.offloadIntervalMillis = TimeUnit.SECONDS.toMillis(
+                conf.getLong(OFFLOAD_INTERVAL_SECONDS, DEFAULT_OFFLOAD_INTERVAL_SECONDS));
+        this.hotTierUsageThreshold = conf.getDouble(HOT_TIER_USAGE_THRESHOLD, DEFAULT_HOT_TIER_USAGE_THRESHOLD);
+        long blockCacheSize = conf.getLong(BLOCK_CACHE_SIZE_MB, DEFAULT_BLOCK_CACHE_SIZE_MB) * 1024 * 1024;
+        int blockSize = conf.getInt(BLOCK_SIZE_KB, DEFAULT_BLOCK_SIZE_KB) * 1024;
+
+        String blobStoreClass = conf.getString(BLOB_STORE_CLASS, LocalBlobStore.class.getName());
+        this.blobStore = ReflectionUtils.newInstance(blobStoreClass, BlobStore.class);
+        this.blobStore.initialize(conf);
+        this.blockCache = new BlockCache(blobStore, blockCacheSize, blockSize);
+        this.offloadExecutor = Executors.newSingleThreadScheduledExecutor(
+                new DefaultThreadFactory("entry-log-offload"));
+
+        log.info("Tiered storage enabled");
+        log.info(" - Blob store: {}", blobStoreClass);
+        log.info(" - Offload min age: {} s", TimeUnit.MILLISECONDS.toSeconds(offloadMinAgeMillis));
+        log.info(" - Hot tier usage threshold: {}", hotTierUsageThreshold);
+        log.info(" - Block cache: {} MB, block size: {} KB", blockCacheSize / 1024 / 1024, blockSize / 1024);
+    }
+
+    /**
+     * Wrap the entry logger of a ledger directory, offloading its sealed entry logs to the cold tier.
+     */
+    public EntryLogger newEntryLogger(EntryLogger hotTier, File ledgerDir, StatsLogger statsLogger)
+            throws IOException {
+        return new TieredEntryLogger(hotTier, ledgerDir, blobStore, blockCache, offloadExecutor,
+                offloadIntervalMillis, offloadMinAgeMillis, hotTierUsageThreshold, allocator, statsLogger);
+    }
+
+    @Override
+    public void close() throws IOException {
+        offloadExecutor.shutdown();
+        try {
+            if (!offloadExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Timed out waiting for the entry log offload to complete");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        blobStore.close();
+    }
+}
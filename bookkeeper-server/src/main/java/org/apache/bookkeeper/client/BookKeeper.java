@@ -71,6 +71,7 @@ import org.apache.bookkeeper.conf.AbstractConfiguration;
 import org.apache.bookkeeper.conf.ClientConfiguration;
 import org.apache.bookkeeper.feature.FeatureProvider;
 import org.apache.bookkeeper.feature.SettableFeatureProvider;
+import org.apache.bookkeeper.meta.CachingLedgerManager;
 import org.apache.bookkeeper.meta.CleanupLedgerManager;
 import org.apache.bookkeeper.meta.LedgerIdGenerator;
 import org.apache.bookkeeper.meta.LedgerManager;
@@ -511,8 +512,9 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
         this.bookieClient = new BookieClientImpl(conf, this.eventLoopGroup, this.allocator, this.mainWorkerPool,
                 scheduler, rootStatsLogger, this.bookieWatcher.getBookieAddressResolver());
 
-        if (conf.getDiskWeightBasedPlacementEnabled()) {
-            LOG.info("Weighted ledger placement enabled");
+        if (conf.getDiskWeightBasedPlacementEnabled() || conf.getLoadWeightBasedPlacementEnabled()) {
+            LOG.info("Weighted ledger placement enabled, disk weighted: {}, load weighted: {}",
+                    conf.getDiskWeightBasedPlacementEnabled(), conf.getLoadWeightBasedPlacementEnabled());
             ThreadFactoryBuilder tFBuilder = new ThreadFactoryBuilder()
                     .setNameFormat("BKClientMetaDataPollScheduler-%d");
             this.bookieInfoScheduler = Executors.newSingleThreadScheduledExecutor(tFBuilder.build());
@@ -533,7 +535,12 @@ public class BookKeeper implements org.apache.bookkeeper.client.api.BookKeeper {
         } catch (MetadataException e) {
             throw new IOException("Failed to initialize ledger manager factory", e);
         }
-        this.ledgerManager = new CleanupLedgerManager(ledgerManagerFactory.newLedgerManager());
+        LedgerManager underlyingLedgerManager = ledgerManagerFactory.newLedgerManager();
+        if (conf.getLedgerMetadataCacheMaxSizeBytes() > 0) {
+            underlyingLedgerManager = new CachingLedgerManager(underlyingLedgerManager,
+                    conf.getLedgerMetadataCacheMaxSizeBytes(), this.statsLogger);
+        }
+        this.ledgerManager = new CleanupLedgerManager(underlyingLedgerManager);
         this.ledgerIdGenerator = ledgerManagerFactory.newLedgerIdGenerator();
 
         this.bookieQuarantineRatio = conf.getBookieQuarantineRatio();
@@ -17,6 +17,7 @@
  */
 package org.apache.bookkeeper.client;
 
+import com.google.common.annotations.VisibleForTesting;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -50,9 +51,15 @@ public class BookieInfoReader {
         BookkeeperProtocol.GetBookieInfoRequest.Flags.TOTAL_DISK_CAPACITY_VALUE
                                | BookkeeperProtocol.GetBookieInfoRequest.Flags.FREE_DISK_SPACE_VALUE;
 
+    // weight of a bookie with no load, when the bookies are not weighted by their free disk space
+    private static final long UNLOADED_BOOKIE_WEIGHT = 1L << 20;
+
     private final ScheduledExecutorService scheduler;
     private final BookKeeper bk;
     private final ClientConfiguration conf;
+    private final boolean diskWeighted;
+    private final boolean loadWeighted;
+    private final double loadDecayFactor;
 
     /**
      * A class represents the information (e.g. disk usage, load) of a bookie.
@@ -62,12 +69,32 @@ public class BookieInfoReader {
     public static class BookieInfo implements WeightedObject {
         private final long freeDiskSpace;
         private final long totalDiskSpace;
+        private final long journalQueueLength;
+        private final long addLatencyP99Micros;
+        private final long readLatencyP99Micros;
+        private final int writeCacheUsagePercent;
+        private final long weight;
         public BookieInfo() {
             this(0L, 0L);
         }
         public BookieInfo(long totalDiskSpace, long freeDiskSpace) {
+            this(totalDiskSpace, freeDiskSpace, 0L, 0L, 0L, 0);
+        }
+        public BookieInfo(long totalDiskSpace, long freeDiskSpace, long journalQueueLength,
+                          long addLatencyP99Micros, long readLatencyP99Micros, int writeCacheUsagePercent) {
+            this(totalDiskSpace, freeDiskSpace, journalQueueLength, addLatencyP99Micros, readLatencyP99Micros,
+                 writeCacheUsagePercent, freeDiskSpace);
+        }
+        private BookieInfo(long totalDiskSpace, long freeDiskSpace, long journalQueueLength,
+                           long addLatencyP99Micros, long readLatencyP99Micros, int writeCacheUsagePercent,
+                           long weight) {
             this.totalDiskSpace = totalDiskSpace;
             this.freeDiskSpace = freeDiskSpace;
+            this.journalQueueLength = journalQueueLength;
+            this.addLatencyP99Micros = addLatencyP99Micros;
+            this.readLatencyP99Micros = readLatencyP99Micros;
+            this.writeCacheUsagePercent = writeCacheUsagePercent;
+            this.weight = weight;
         }
         public long getFreeDiskSpace() {
             return freeDiskSpace;
@@ -75,13 +102,33 @@ public class BookieInfoReader {
         public long getTotalDiskSpace() {
             return totalDiskSpace;
         }
+        public long getJournalQueueLength() {
+            return journalQueueLength;
+        }
+        public long getAddLatencyP99Micros() {
+            return addLatencyP99Micros;
+        }
+        public long getReadLatencyP99Micros() {
+            return readLatencyP99Micros;
+        }
+        public int getWriteCacheUsagePercent() {
+            return writeCacheUsagePercent;
+        }
+        BookieInfo withWeight(long weight) {
+            return new BookieInfo(totalDiskSpace, freeDiskSpace, journalQueueLength, addLatencyP99Micros,
+                    readLatencyP99Micros, writeCacheUsagePercent, weight);
+        }
         @Override
         public long getWeight() {
-            return freeDiskSpace;
+            return weight;
         }
         @Override
         public String toString() {
-            return "FreeDiskSpace: " + this.freeDiskSpace + " TotalDiskCapacity: " + this.totalDiskSpace;
+            return "FreeDiskSpace: " + this.freeDiskSpace + " TotalDiskCapacity: " + this.totalDiskSpace
+                    + " JournalQueueLength: " + this.journalQueueLength
+                    + " AddLatencyP99Micros: " + this.addLatencyP99Micros
+                    + " ReadLatencyP99Micros: " + this.readLatencyP99Micros
+                    + " WriteCacheUsagePercent: " + this.writeCacheUsagePercent;
         }
     }
 
@@ -231,9 +278,16 @@ public class BookieInfoReader {
         this.bk = bk;
         this.conf = conf;
         this.scheduler = scheduler;
+        this.diskWeighted = conf.getDiskWeightBasedPlacementEnabled();
+        this.loadWeighted = conf.getLoadWeightBasedPlacementEnabled();
+        this.loadDecayFactor = Math.min(1.0, Math.max(0.0, conf.getBookieLoadDecayFactor()));
     }
 
     public void start() {
+        int pollIntervalSeconds = conf.getGetBookieInfoIntervalSeconds();
+        if (loadWeighted) {
+            pollIntervalSeconds = Math.min(pollIntervalSeconds, conf.getBookieLoadPollIntervalSeconds());
+        }
         this.bk
             .getMetadataClientDriver()
             .getRegistrationClient()
@@ -259,7 +313,7 @@ public class BookieInfoReader {
                     }
                 }
             }
-        }, 0, conf.getGetBookieInfoIntervalSeconds(), TimeUnit.SECONDS);
+        }, 0, pollIntervalSeconds, TimeUnit.SECONDS);
     }
 
     private void submitTask() {
@@ -326,8 +380,12 @@ public class BookieInfoReader {
         }
 
         BookieClient bkc = bk.getBookieClient();
-        final long requested = BookkeeperProtocol.GetBookieInfoRequest.Flags.TOTAL_DISK_CAPACITY_VALUE
-                               | BookkeeperProtocol.GetBookieInfoRequest.Flags.FREE_DISK_SPACE_VALUE;
+        long flags = BookkeeperProtocol.GetBookieInfoRequest.Flags.TOTAL_DISK_CAPACITY_VALUE
+                     | BookkeeperProtocol.GetBookieInfoRequest.Flags.FREE_DISK_SPACE_VALUE;
+        if (loadWeighted) {
+            flags |= BookkeeperProtocol.GetBookieInfoRequest.Flags.LOAD_VALUE;
+        }
+        final long requested = flags;
         totalSent = 0;
         completedCnt = 0;
         errorCnt = 0;
@@ -354,7 +412,8 @@ public class BookieInfoReader {
                                     if (LOG.isDebugEnabled()) {
                                         LOG.debug("Bookie Info for bookie {} is {}", b, bInfo);
                                     }
-                                    bookieInfoMap.gotInfo(b, bInfo);
+                                    bookieInfoMap.gotInfo(b, loadWeighted
+                                            ? smoothLoad(bookieInfoMap.getInfo(b), bInfo) : bInfo);
                                 }
                                 completedCnt++;
                                 if (totalSent == completedCnt) {
@@ -380,8 +439,77 @@ public class BookieInfoReader {
         }
     }
 
+    /**
+     * Smooth the load of a bookie, decaying its previous load by the configured factor.
+     */
+    @VisibleForTesting
+    BookieInfo smoothLoad(BookieInfo previous, BookieInfo info) {
+        if (previous == null) {
+            return info;
+        }
+        return new BookieInfo(info.getTotalDiskSpace(), info.getFreeDiskSpace(),
+                decay(previous.getJournalQueueLength(), info.getJournalQueueLength()),
+                decay(previous.getAddLatencyP99Micros(), info.getAddLatencyP99Micros()),
+                decay(previous.getReadLatencyP99Micros(), info.getReadLatencyP99Micros()),
+                (int) decay(previous.getWriteCacheUsagePercent(), info.getWriteCacheUsagePercent()));
+    }
+
+    private long decay(long previous, long current) {
+        return Math.round(loadDecayFactor * previous + (1.0 - loadDecayFactor) * current);
+    }
+
+    private static double[] loadSignals(BookieInfo info) {
+        return new double[] {
+            info.getJournalQueueLength(),
+            info.getAddLatencyP99Micros(),
+            info.getReadLatencyP99Micros(),
+            info.getWriteCacheUsagePercent()
+        };
+    }
+
+    /**
+     * Weigh the bookies by their load relative to the average load of the bookies. The load of a bookie is the
+     * average ratio of its load signals to the average of the bookies, and its weight is divided by one plus its
+     * load: a bookie twice as loaded as the average gets a third of the weight of an idle bookie.
+     */
+    @VisibleForTesting
+    Map<BookieId, BookieInfo> weighByLoad(Map<BookieId, BookieInfo> infos) {
+        double[] averages = null;
+        for (BookieInfo info : infos.values()) {
+            double[] signals = loadSignals(info);
+            if (averages == null) {
+                averages = new double[signals.length];
+            }
+            for (int i = 0; i < signals.length; i++) {
+                averages[i] += signals[i] / infos.size();
+            }
+        }
+
+        Map<BookieId, BookieInfo> weightedInfos = new HashMap<>();
+        for (Map.Entry<BookieId, BookieInfo> e : infos.entrySet()) {
+            BookieInfo info = e.getValue();
+            double[] signals = loadSignals(info);
+            double load = 0.0;
+            int numSignals = 0;
+            for (int i = 0; i < signals.length; i++) {
+                // a signal which is zero for all the bookies is not reported, or not relevant
+                if (averages[i] > 0.0) {
+                    load += signals[i] / averages[i];
+                    numSignals++;
+                }
+            }
+            if (numSignals > 0) {
+                load /= numSignals;
+            }
+            long weight = diskWeighted ? info.getFreeDiskSpace() : UNLOADED_BOOKIE_WEIGHT;
+            weightedInfos.put(e.getKey(), info.withWeight((long) (weight / (1.0 + load))));
+        }
+        return weightedInfos;
+    }
+
     void onExit() {
-        bk.placementPolicy.updateBookieInfo(bookieInfoMap.getBookieMap());
+        bk.placementPolicy.updateBookieInfo(
+                loadWeighted ? weighByLoad(bookieInfoMap.getBookieMap()) : bookieInfoMap.getBookieMap());
         if (errorCnt > 0) {
             if (LOG.isInfoEnabled()) {
                 LOG.info("Rescheduling in {}s due to errors", conf.getGetBookieInfoIntervalSeconds());
@@ -192,7 +192,7 @@ public class DefaultEnsemblePlacementPolicy implements EnsemblePlacementPolicy {
                                        FeatureProvider featureProvider,
                                        StatsLogger statsLogger,
                                        BookieAddressResolver bookieAddressResolver) {
-        this.isWeighted = conf.getDiskWeightBasedPlacementEnabled();
+        this.isWeighted = conf.getDiskWeightBasedPlacementEnabled() || conf.getLoadWeightBasedPlacementEnabled();
         if (this.isWeighted) {
             this.maxWeightMultiple = conf.getBookieMaxWeightMultipleForWeightBasedPlacement();
             this.weightedSelection = new WeightedRandomSelectionImpl<BookieId>(this.maxWeightMultiple);
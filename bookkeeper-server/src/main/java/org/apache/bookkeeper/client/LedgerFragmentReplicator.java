@@ -32,6 +32,7 @@ import com.google.common.util.concurrent.RateLimiter;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCounted;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -39,12 +40,14 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import org.apache.bookkeeper.client.AsyncCallback.ReadCallback;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
 import org.apache.bookkeeper.client.api.WriteFlag;
 import org.apache.bookkeeper.conf.ClientConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
@@ -221,6 +224,19 @@ public class LedgerFragmentReplicator {
             final Set<BookieId> targetBookieAddresses,
             final BiConsumer<Long, Long> onReadEntryFailureCallback)
             throws InterruptedException {
+        if (conf.isBulkRereplicationEnabled() && canReplicateInBulk(lh, lf)) {
+            new BulkFragmentCopy(lh, lf, ledgerFragmentMcb, targetBookieAddresses, onReadEntryFailureCallback)
+                    .start();
+            return;
+        }
+        replicateInBatches(lh, lf, ledgerFragmentMcb, targetBookieAddresses, onReadEntryFailureCallback);
+    }
+
+    private void replicateInBatches(final LedgerHandle lh, final LedgerFragment lf,
+            final AsyncCallback.VoidCallback ledgerFragmentMcb,
+            final Set<BookieId> targetBookieAddresses,
+            final BiConsumer<Long, Long> onReadEntryFailureCallback)
+            throws InterruptedException {
         Set<LedgerFragment> partionedFragments = splitIntoSubFragments(lh, lf,
                 bkc.getConf().getRereplicationEntryBatchSize());
         LOG.info("Replicating fragment {} in {} sub fragments.",
@@ -433,6 +449,215 @@ public class LedgerFragmentReplicator {
         }, null);
     }
 
+    /**
+     * A fragment can be copied in bulk if all its entries are stored on every bookie of its ensemble, i.e. the
+     * ledger is not striped, so that the entries read from any bookie left in the ensemble are the entries to copy.
+     */
+    private static boolean canReplicateInBulk(LedgerHandle lh, LedgerFragment lf) {
+        LedgerMetadata metadata = lh.getLedgerMetadata();
+        return lf.isClosed()
+                && metadata.getEnsembleSize() == metadata.getWriteQuorumSize()
+                && lf.getBookiesIndexes().size() < lf.getEnsemble().size()
+                && lf.getFirstStoredEntryId() != INVALID_ENTRY_ID
+                && lf.getFirstStoredEntryId() <= lf.getLastStoredEntryId();
+    }
+
+    /**
+     * Copy of a ledger fragment from a bookie left in its ensemble to the new bookies, in chunks of consecutive
+     * entries read with a range read and added with a single range add to each new bookie.
+     *
+     * <p>The next chunk is read while the previous ones are added, up to the configured number of chunks in flight.
+     * The entries are copied as stored by the source bookie, once their digest is verified. The first failure stops
+     * the copy, and the entries from the first chunk not fully added are then replicated one by one.
+     */
+    private final class BulkFragmentCopy {
+        private final LedgerHandle lh;
+        private final LedgerFragment lf;
+        private final AsyncCallback.VoidCallback ledgerFragmentMcb;
+        private final Set<BookieId> newBookies;
+        private final BiConsumer<Long, Long> onReadEntryFailureCallback;
+        private final BookieId source;
+        private final long lastEntryId;
+        private final int chunkSize;
+        private final int maxChunksInFlight;
+
+        // guarded by this
+        private long nextEntryId;
+        private boolean reading = false;
+        private int chunksInFlight = 0;
+        private long failedEntryId = Long.MAX_VALUE;
+        private boolean done = false;
+
+        BulkFragmentCopy(LedgerHandle lh, LedgerFragment lf, AsyncCallback.VoidCallback ledgerFragmentMcb,
+                         Set<BookieId> newBookies, BiConsumer<Long, Long> onReadEntryFailureCallback) {
+            this.lh = lh;
+            this.lf = lf;
+            this.ledgerFragmentMcb = ledgerFragmentMcb;
+            this.newBookies = newBookies;
+            this.onReadEntryFailureCallback = onReadEntryFailureCallback;
+            this.nextEntryId = lf.getFirstStoredEntryId();
+            this.lastEntryId = lf.getLastStoredEntryId();
+            // a chunk is sent in a single range add request, which has to fit in a frame
+            this.chunkSize = Math.min(conf.getBulkRereplicationChunkSizeBytes(), conf.getNettyMaxFrameSizeBytes() / 2);
+            this.maxChunksInFlight = Math.max(1, conf.getBulkRereplicationMaxChunksInFlight());
+
+            List<BookieId> candidates = new ArrayList<>();
+            List<BookieId> ensemble = lf.getEnsemble();
+            for (int i = 0; i < ensemble.size(); i++) {
+                if (!lf.getBookiesIndexes().contains(i) && !newBookies.contains(ensemble.get(i))) {
+                    candidates.add(ensemble.get(i));
+                }
+            }
+            this.source = candidates.isEmpty() ? null
+                    : candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+        }
+
+        void start() {
+            if (source == null) {
+                fallback(lf.getFirstStoredEntryId());
+                return;
+            }
+            LOG.info("Replicating fragment {} in bulk from bookie {}.", lf, source);
+            if (replicationThrottle != null) {
+                replicationThrottle.resetRate(conf.getReplicationRateByBytes());
+            }
+            readNextChunk();
+        }
+
+        private void readNextChunk() {
+            final long firstEntryId;
+            synchronized (this) {
+                if (reading || failedEntryId != Long.MAX_VALUE || nextEntryId > lastEntryId
+                        || chunksInFlight >= maxChunksInFlight) {
+                    return;
+                }
+                reading = true;
+                firstEntryId = nextEntryId;
+            }
+
+            final long startReadTime = MathUtils.nowInNano();
+            bkc.getBookieClient().readEntryRange(source, lh.getId(), firstEntryId, lastEntryId, chunkSize,
+                    (rc, ledgerId, firstId, entries, ctx) -> {
+                        if (rc != BKException.Code.OK || entries == null || entries.isEmpty()) {
+                            LOG.warn("Failed to read entries from {} of ledger {} from bookie {} : {}",
+                                    firstEntryId, ledgerId, source, BKException.codeLogger(rc));
+                            failed(firstEntryId);
+                            return;
+                        }
+                        readDataLatency.registerSuccessfulEvent(MathUtils.elapsedNanos(startReadTime),
+                                TimeUnit.NANOSECONDS);
+                        chunkRead(firstEntryId, entries);
+                    }, null);
+        }
+
+        private void chunkRead(long firstEntryId, List<ByteBuf> entries) {
+            // only copy the entries up to the first one which does not match its digest
+            int numEntries = 0;
+            int numBytes = 0;
+            for (ByteBuf entry : entries) {
+                try {
+                    lh.getDigestManager().verifyDigestAndReturnData(firstEntryId + numEntries, entry.duplicate());
+                } catch (BKException.BKDigestMatchException e) {
+                    LOG.error("Mac mismatch for entry {} of ledger {} read from bookie {}",
+                            firstEntryId + numEntries, lh.getId(), source);
+                    break;
+                }
+                numEntriesRead.inc();
+                numBytesRead.registerSuccessfulValue(entry.readableBytes());
+                numBytes += entry.readableBytes();
+                numEntries++;
+            }
+            if (numEntries == 0) {
+                failed(firstEntryId);
+                return;
+            }
+
+            final List<ByteBuf> chunk = entries.subList(0, numEntries);
+            synchronized (this) {
+                reading = false;
+                nextEntryId = firstEntryId + numEntries;
+                chunksInFlight++;
+                if (numEntries < entries.size()) {
+                    failedEntryId = Math.min(failedEntryId, nextEntryId);
+                }
+            }
+            if (replicationThrottle != null) {
+                replicationThrottle.acquire(numBytes);
+            }
+
+            final int bytesWritten = numBytes;
+            final AtomicInteger pending = new AtomicInteger(newBookies.size());
+            final AtomicInteger minEntriesAdded = new AtomicInteger(chunk.size());
+            for (BookieId newBookie : newBookies) {
+                long startWriteTime = MathUtils.nowInNano();
+                bkc.getBookieClient().addEntryRange(newBookie, lh.getId(), lh.getLedgerKey(), chunk,
+                        (rc, ledgerId, numEntriesAdded, addr, ctx) -> {
+                            if (rc != BKException.Code.OK || numEntriesAdded < chunk.size()) {
+                                LOG.warn("Failed to add entries from {} of ledger {} to bookie {} : {}, {} added",
+                                        firstEntryId, ledgerId, addr, BKException.codeLogger(rc), numEntriesAdded);
+                                minEntriesAdded.accumulateAndGet(Math.max(0, numEntriesAdded), Math::min);
+                            } else {
+                                numEntriesWritten.addCount(chunk.size());
+                                numBytesWritten.registerSuccessfulValue(bytesWritten);
+                                writeDataLatency.registerSuccessfulEvent(MathUtils.elapsedNanos(startWriteTime),
+                                        TimeUnit.NANOSECONDS);
+                            }
+                            if (pending.decrementAndGet() == 0) {
+                                chunkAdded(firstEntryId, chunk.size(), minEntriesAdded.get());
+                            }
+                        }, null);
+            }
+            readNextChunk();
+        }
+
+        private void chunkAdded(long firstEntryId, int numEntries, int numEntriesAdded) {
+            synchronized (this) {
+                chunksInFlight--;
+                if (numEntriesAdded < numEntries) {
+                    failedEntryId = Math.min(failedEntryId, firstEntryId + numEntriesAdded);
+                }
+            }
+            readNextChunk();
+            checkDone();
+        }
+
+        private void failed(long entryId) {
+            synchronized (this) {
+                reading = false;
+                failedEntryId = Math.min(failedEntryId, entryId);
+            }
+            checkDone();
+        }
+
+        private void checkDone() {
+            final long fallbackEntryId;
+            synchronized (this) {
+                if (done || reading || chunksInFlight > 0
+                        || (failedEntryId == Long.MAX_VALUE && nextEntryId <= lastEntryId)) {
+                    return;
+                }
+                done = true;
+                fallbackEntryId = Math.min(failedEntryId, nextEntryId);
+            }
+            if (fallbackEntryId > lastEntryId) {
+                ledgerFragmentMcb.processResult(BKException.Code.OK, null, null);
+            } else {
+                fallback(fallbackEntryId);
+            }
+        }
+
+        private void fallback(long fromEntryId) {
+            LedgerFragment remaining = new LedgerFragment(lh, fromEntryId, lastEntryId, lf.getBookiesIndexes());
+            LOG.info("Replicating entries {} to {} of fragment {} entry by entry.", fromEntryId, lastEntryId, lf);
+            try {
+                replicateInBatches(lh, remaining, ledgerFragmentMcb, newBookies, onReadEntryFailureCallback);
+            } catch (InterruptedException e) {
+                ledgerFragmentMcb.processResult(BKException.Code.InterruptedException, null, null);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     private void updateAverageEntrySize(int toSendSize) {
         averageEntrySize.updateAndGet(value -> (int) (value * AVERAGE_ENTRY_SIZE_RATIO
                 + (1 - AVERAGE_ENTRY_SIZE_RATIO) * toSendSize));
@@ -18,6 +18,7 @@
 package org.apache.bookkeeper.client;
 
 import io.netty.util.HashedWheelTimer;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -63,6 +64,7 @@ public class RackawareEnsemblePlacementPolicy extends RackawareEnsemblePlacement
                     maxWeightMultiple, minNumRacksPerWriteQuorum, enforceMinNumRacksPerWriteQuorum,
                     ignoreLocalNodeInPlacementPolicy, statsLogger, bookieAddressResolver);
             slave = new RackawareEnsemblePlacementPolicyImpl(enforceDurability);
+            slave.resolvedNetworkLocations = resolvedNetworkLocations;
             slave.initialize(dnsResolver, timer, reorderReadsRandom, stabilizePeriodSeconds,
                     reorderThresholdPendingRequests, isWeighted, maxWeightMultiple, minNumRacksPerWriteQuorum,
                     enforceMinNumRacksPerWriteQuorum, ignoreLocalNodeInPlacementPolicy, statsLogger,
@@ -85,6 +87,14 @@ public class RackawareEnsemblePlacementPolicy extends RackawareEnsemblePlacement
         }
     }
 
+    @Override
+    protected void updateChangedNetworkLocations(Collection<BookieId> bookies) {
+        super.updateChangedNetworkLocations(bookies);
+        if (null != slave) {
+            slave.updateChangedNetworkLocations(bookies);
+        }
+    }
+
     @Override
     public Set<BookieId> onClusterChanged(Set<BookieId> writableBookies,
             Set<BookieId> readOnlyBookies) {
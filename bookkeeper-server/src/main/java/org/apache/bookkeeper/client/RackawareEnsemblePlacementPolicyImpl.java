@@ -21,6 +21,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIES_JOINED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIES_LEFT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FAILED_TO_RESOLVE_NETWORK_LOCATION_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.NETWORK_LOCATION_RESOLUTION;
 import static org.apache.bookkeeper.client.BookKeeperClientStats.CLIENT_SCOPE;
 import static org.apache.bookkeeper.client.BookKeeperClientStats.NUM_WRITABLE_BOOKIES_IN_DEFAULT_RACK;
 import static org.apache.bookkeeper.client.BookKeeperClientStats.READ_REQUESTS_REORDERED;
@@ -42,6 +43,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
@@ -168,6 +170,7 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
         this.bookiesJoinedCounter = statsLogger.getOpStatsLogger(BOOKIES_JOINED);
         this.bookiesLeftCounter = statsLogger.getOpStatsLogger(BOOKIES_LEFT);
         this.readReorderedCounter = statsLogger.getOpStatsLogger(READ_REQUESTS_REORDERED);
+        this.networkLocationResolutionStats = statsLogger.getOpStatsLogger(NETWORK_LOCATION_RESOLUTION);
         this.failedToResolveNetworkLocationCounter = statsLogger.getCounter(FAILED_TO_RESOLVE_NETWORK_LOCATION_COUNT);
         this.numWritableBookiesInDefaultRack = new Gauge<Integer>() {
             @Override
@@ -292,29 +295,28 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
                     return -1L;
                 }
             });
-        return initialize(
+        initialize(
                 dnsResolver,
                 timer,
                 conf.getBoolean(REPP_RANDOM_READ_REORDERING, false),
                 conf.getNetworkTopologyStabilizePeriodSeconds(),
                 conf.getReorderThresholdPendingRequests(),
-                conf.getDiskWeightBasedPlacementEnabled(),
+                conf.getDiskWeightBasedPlacementEnabled() || conf.getLoadWeightBasedPlacementEnabled(),
                 conf.getBookieMaxWeightMultipleForWeightBasedPlacement(),
                 conf.getMinNumRacksPerWriteQuorum(),
                 conf.getEnforceMinNumRacksPerWriteQuorum(),
                 conf.getIgnoreLocalNodeInPlacementPolicy(),
                 statsLogger,
                 bookieAddressResolver);
+        startNetworkLocationRefresher(conf.getNetworkLocationCacheTtlSeconds());
+        return this;
     }
 
     @Override
     public void uninitalize() {
-        // do nothing
+        stopNetworkLocationRefresher();
     }
 
-    /*
-     * this method should be called in readlock scope of 'rwLock'
-     */
     protected Set<BookieId> addDefaultRackBookiesIfMinNumRacksIsEnforced(
             Set<BookieId> excludeBookies) {
         Set<BookieId> comprehensiveExclusionBookiesSet;
@@ -349,16 +351,12 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
     public PlacementResult<List<BookieId>> newEnsemble(int ensembleSize, int writeQuorumSize,
             int ackQuorumSize, Map<String, byte[]> customMetadata, Set<BookieId> excludeBookies)
             throws BKNotEnoughBookiesException {
-        rwLock.readLock().lock();
-        try {
-            Set<BookieId> comprehensiveExclusionBookiesSet = addDefaultRackBookiesIfMinNumRacksIsEnforced(
-                    excludeBookies);
-            PlacementResult<List<BookieId>> newEnsembleResult = newEnsembleInternal(ensembleSize,
-                    writeQuorumSize, ackQuorumSize, comprehensiveExclusionBookiesSet, null, null);
-            return newEnsembleResult;
-        } finally {
-            rwLock.readLock().unlock();
-        }
+        // the bookies are selected without locking, from the snapshot of the topology as of its last change
+        Set<BookieId> comprehensiveExclusionBookiesSet = addDefaultRackBookiesIfMinNumRacksIsEnforced(
+                excludeBookies);
+        PlacementResult<List<BookieId>> newEnsembleResult = newEnsembleInternal(ensembleSize,
+                writeQuorumSize, ackQuorumSize, comprehensiveExclusionBookiesSet, null, null);
+        return newEnsembleResult;
     }
 
     @Override
@@ -385,76 +383,71 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
             Set<BookieId> excludeBookies,
             Ensemble<BookieNode> parentEnsemble,
             Predicate<BookieNode> parentPredicate) throws BKNotEnoughBookiesException {
-        rwLock.readLock().lock();
-        try {
-            Set<Node> excludeNodes = convertBookiesToNodes(excludeBookies);
-            int minNumRacksPerWriteQuorumForThisEnsemble = Math.min(writeQuorumSize, minNumRacksPerWriteQuorum);
-            RRTopologyAwareCoverageEnsemble ensemble =
-                    new RRTopologyAwareCoverageEnsemble(
-                            ensembleSize,
-                            writeQuorumSize,
-                            ackQuorumSize,
-                            RACKNAME_DISTANCE_FROM_LEAVES,
-                            parentEnsemble,
-                            parentPredicate,
-                            minNumRacksPerWriteQuorumForThisEnsemble);
-            BookieNode prevNode = null;
-            int numRacks = topology.getNumOfRacks();
-            // only one rack, use the random algorithm.
-            if (numRacks < 2) {
-                if (enforceMinNumRacksPerWriteQuorum && (minNumRacksPerWriteQuorumForThisEnsemble > 1)) {
-                    LOG.error("Only one rack available and minNumRacksPerWriteQuorum is enforced, so giving up");
-                    throw new BKNotEnoughBookiesException();
-                }
-                List<BookieNode> bns = selectRandom(ensembleSize, excludeNodes, TruePredicate.INSTANCE,
-                        ensemble);
-                ArrayList<BookieId> addrs = new ArrayList<BookieId>(ensembleSize);
-                for (BookieNode bn : bns) {
-                    addrs.add(bn.getAddr());
-                }
-                return PlacementResult.of(addrs, PlacementPolicyAdherence.FAIL);
+        Set<Node> excludeNodes = convertBookiesToNodes(excludeBookies);
+        int minNumRacksPerWriteQuorumForThisEnsemble = Math.min(writeQuorumSize, minNumRacksPerWriteQuorum);
+        RRTopologyAwareCoverageEnsemble ensemble =
+                new RRTopologyAwareCoverageEnsemble(
+                        ensembleSize,
+                        writeQuorumSize,
+                        ackQuorumSize,
+                        RACKNAME_DISTANCE_FROM_LEAVES,
+                        parentEnsemble,
+                        parentPredicate,
+                        minNumRacksPerWriteQuorumForThisEnsemble);
+        BookieNode prevNode = null;
+        int numRacks = topology.getNumOfRacks();
+        // only one rack, use the random algorithm.
+        if (numRacks < 2) {
+            if (enforceMinNumRacksPerWriteQuorum && (minNumRacksPerWriteQuorumForThisEnsemble > 1)) {
+                LOG.error("Only one rack available and minNumRacksPerWriteQuorum is enforced, so giving up");
+                throw new BKNotEnoughBookiesException();
             }
-            //Choose different rack nodes.
-            String curRack = null;
-            for (int i = 0; i < ensembleSize; i++) {
-                if (null == prevNode) {
-                    if ((null == localNode) || defaultRack.equals(localNode.getNetworkLocation())) {
-                        curRack = NodeBase.ROOT;
-                    } else {
-                        curRack = localNode.getNetworkLocation();
-                    }
+            List<BookieNode> bns = selectRandom(ensembleSize, excludeNodes, TruePredicate.INSTANCE,
+                    ensemble);
+            ArrayList<BookieId> addrs = new ArrayList<BookieId>(ensembleSize);
+            for (BookieNode bn : bns) {
+                addrs.add(bn.getAddr());
+            }
+            return PlacementResult.of(addrs, PlacementPolicyAdherence.FAIL);
+        }
+        //Choose different rack nodes.
+        String curRack = null;
+        for (int i = 0; i < ensembleSize; i++) {
+            if (null == prevNode) {
+                if ((null == localNode) || defaultRack.equals(localNode.getNetworkLocation())) {
+                    curRack = NodeBase.ROOT;
                 } else {
-                    if (!curRack.startsWith("~")) {
-                        curRack = "~" + prevNode.getNetworkLocation();
-                    } else {
-                        curRack = curRack + NetworkTopologyImpl.NODE_SEPARATOR + prevNode.getNetworkLocation();
-                    }
+                    curRack = localNode.getNetworkLocation();
                 }
-                boolean firstBookieInTheEnsemble = (null == prevNode);
-                try {
-                    prevNode = selectRandomFromRack(curRack, excludeNodes, ensemble, ensemble);
-                } catch (BKNotEnoughBookiesException e) {
-                    if (!curRack.equals(NodeBase.ROOT)) {
-                        curRack = NodeBase.ROOT;
-                        prevNode = selectFromNetworkLocation(curRack, excludeNodes, ensemble, ensemble,
-                                !enforceMinNumRacksPerWriteQuorum || firstBookieInTheEnsemble);
-                    } else {
-                        throw e;
-                    }
+            } else {
+                if (!curRack.startsWith("~")) {
+                    curRack = "~" + prevNode.getNetworkLocation();
+                } else {
+                    curRack = curRack + NetworkTopologyImpl.NODE_SEPARATOR + prevNode.getNetworkLocation();
                 }
             }
-            List<BookieId> bookieList = ensemble.toList();
-            if (ensembleSize != bookieList.size()) {
-                LOG.error("Not enough {} bookies are available to form an ensemble : {}.",
-                          ensembleSize, bookieList);
-                throw new BKNotEnoughBookiesException();
+            boolean firstBookieInTheEnsemble = (null == prevNode);
+            try {
+                prevNode = selectRandomFromRack(curRack, excludeNodes, ensemble, ensemble);
+            } catch (BKNotEnoughBookiesException e) {
+                if (!curRack.equals(NodeBase.ROOT)) {
+                    curRack = NodeBase.ROOT;
+                    prevNode = selectFromNetworkLocation(curRack, excludeNodes, ensemble, ensemble,
+                            !enforceMinNumRacksPerWriteQuorum || firstBookieInTheEnsemble);
+                } else {
+                    throw e;
+                }
             }
-            return PlacementResult.of(bookieList,
-                                      isEnsembleAdheringToPlacementPolicy(
-                                              bookieList, writeQuorumSize, ackQuorumSize));
-        } finally {
-            rwLock.readLock().unlock();
         }
+        List<BookieId> bookieList = ensemble.toList();
+        if (ensembleSize != bookieList.size()) {
+            LOG.error("Not enough {} bookies are available to form an ensemble : {}.",
+                      ensembleSize, bookieList);
+            throw new BKNotEnoughBookiesException();
+        }
+        return PlacementResult.of(bookieList,
+                                  isEnsembleAdheringToPlacementPolicy(
+                                          bookieList, writeQuorumSize, ackQuorumSize));
     }
 
     @Override
@@ -462,55 +455,50 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
             Map<String, byte[]> customMetadata, List<BookieId> currentEnsemble,
             BookieId bookieToReplace, Set<BookieId> excludeBookies)
             throws BKNotEnoughBookiesException {
-        rwLock.readLock().lock();
-        try {
-            excludeBookies = addDefaultRackBookiesIfMinNumRacksIsEnforced(excludeBookies);
-            excludeBookies.addAll(currentEnsemble);
-            BookieNode bn = knownBookies.get(bookieToReplace);
-            if (null == bn) {
-                bn = createBookieNode(bookieToReplace);
-            }
+        excludeBookies = addDefaultRackBookiesIfMinNumRacksIsEnforced(excludeBookies);
+        excludeBookies.addAll(currentEnsemble);
+        BookieNode bn = knownBookies.get(bookieToReplace);
+        if (null == bn) {
+            bn = createBookieNode(bookieToReplace);
+        }
 
-            Set<Node> ensembleNodes = convertBookiesToNodes(currentEnsemble);
-            Set<Node> excludeNodes = convertBookiesToNodes(excludeBookies);
+        Set<Node> ensembleNodes = convertBookiesToNodes(currentEnsemble);
+        Set<Node> excludeNodes = convertBookiesToNodes(excludeBookies);
 
-            excludeNodes.addAll(ensembleNodes);
-            excludeNodes.add(bn);
-            ensembleNodes.remove(bn);
+        excludeNodes.addAll(ensembleNodes);
+        excludeNodes.add(bn);
+        ensembleNodes.remove(bn);
 
-            Set<String> networkLocationsToBeExcluded = getNetworkLocations(ensembleNodes);
+        Set<String> networkLocationsToBeExcluded = getNetworkLocations(ensembleNodes);
 
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Try to choose a new bookie to replace {} from ensemble {}, excluding {}.",
-                    bookieToReplace, ensembleNodes, excludeNodes);
-            }
-            // pick a candidate from same rack to replace
-            BookieNode candidate = selectFromNetworkLocation(
-                    bn.getNetworkLocation(),
-                    networkLocationsToBeExcluded,
-                    excludeNodes,
-                    TruePredicate.INSTANCE,
-                    EnsembleForReplacementWithNoConstraints.INSTANCE,
-                    !enforceMinNumRacksPerWriteQuorum);
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Bookie {} is chosen to replace bookie {}.", candidate, bn);
-            }
-            BookieId candidateAddr = candidate.getAddr();
-            List<BookieId> newEnsemble = new ArrayList<BookieId>(currentEnsemble);
-            if (currentEnsemble.isEmpty()) {
-                /*
-                 * in testing code there are test cases which would pass empty
-                 * currentEnsemble
-                 */
-                newEnsemble.add(candidateAddr);
-            } else {
-                newEnsemble.set(currentEnsemble.indexOf(bookieToReplace), candidateAddr);
-            }
-            return PlacementResult.of(candidateAddr,
-                    isEnsembleAdheringToPlacementPolicy(newEnsemble, writeQuorumSize, ackQuorumSize));
-        } finally {
-            rwLock.readLock().unlock();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Try to choose a new bookie to replace {} from ensemble {}, excluding {}.",
+                bookieToReplace, ensembleNodes, excludeNodes);
+        }
+        // pick a candidate from same rack to replace
+        BookieNode candidate = selectFromNetworkLocation(
+                bn.getNetworkLocation(),
+                networkLocationsToBeExcluded,
+                excludeNodes,
+                TruePredicate.INSTANCE,
+                EnsembleForReplacementWithNoConstraints.INSTANCE,
+                !enforceMinNumRacksPerWriteQuorum);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Bookie {} is chosen to replace bookie {}.", candidate, bn);
+        }
+        BookieId candidateAddr = candidate.getAddr();
+        List<BookieId> newEnsemble = new ArrayList<BookieId>(currentEnsemble);
+        if (currentEnsemble.isEmpty()) {
+            /*
+             * in testing code there are test cases which would pass empty
+             * currentEnsemble
+             */
+            newEnsemble.add(candidateAddr);
+        } else {
+            newEnsemble.set(currentEnsemble.indexOf(bookieToReplace), candidateAddr);
         }
+        return PlacementResult.of(candidateAddr,
+                isEnsembleAdheringToPlacementPolicy(newEnsemble, writeQuorumSize, ackQuorumSize));
     }
 
     @Override
@@ -650,7 +638,7 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
         WeightedRandomSelection<BookieNode> wRSelection = null;
         List<Node> leaves = new ArrayList<Node>(topology.getLeaves(netPath));
         if (!this.isWeighted) {
-            Collections.shuffle(leaves);
+            Collections.shuffle(leaves, ThreadLocalRandom.current());
         } else {
             if (CollectionUtils.subtract(leaves, excludeBookies).size() < 1) {
                 throw new BKNotEnoughBookiesException();
@@ -749,7 +737,7 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
             }
             wRSelection.updateMap(rackMap);
         } else {
-            Collections.shuffle(bookiesToSelectFrom);
+            Collections.shuffle(bookiesToSelectFrom, ThreadLocalRandom.current());
         }
 
         BookieNode bookie;
@@ -1032,7 +1020,6 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
         return writeSet;
     }
 
-    // this method should be called in readlock scope of 'rwlock'
     @Override
     public PlacementPolicyAdherence isEnsembleAdheringToPlacementPolicy(List<BookieId> ensembleList,
             int writeQuorumSize, int ackQuorumSize) {
@@ -1048,8 +1035,9 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
             for (int j = 0; j < writeQuorumSize; j++) {
                 bookie = ensembleList.get((i + j) % ensembleSize);
                 try {
-                    if (knownBookies.containsKey(bookie)) {
-                        racksInQuorum.add(knownBookies.get(bookie).getNetworkLocation());
+                    BookieNode node = knownBookies.get(bookie);
+                    if (node != null) {
+                        racksInQuorum.add(node.getNetworkLocation());
                     } else if (LOG.isDebugEnabled()) {
                         LOG.debug("bookie {} is not in the list of knownBookies", bookie);
                     }
@@ -1273,7 +1261,7 @@ public class RackawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
 
             final List<Node> leaves = new ArrayList<>(topology.getLeaves(condition.getLeft()));
             if (!isWeighted) {
-                Collections.shuffle(leaves);
+                Collections.shuffle(leaves, ThreadLocalRandom.current());
             } else {
                 if (CollectionUtils.subtract(leaves, excludeBookies).size() < 1) {
                     throw new BKNotEnoughBookiesException();
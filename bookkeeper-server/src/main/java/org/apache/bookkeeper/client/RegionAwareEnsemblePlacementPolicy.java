@@ -81,7 +81,7 @@ public class RegionAwareEnsemblePlacementPolicy extends RackawareEnsemblePlaceme
 
     RegionAwareEnsemblePlacementPolicy() {
         super();
-        perRegionPlacement = new HashMap<String, TopologyAwareEnsemblePlacementPolicy>();
+        perRegionPlacement = new ConcurrentHashMap<String, TopologyAwareEnsemblePlacementPolicy>();
         address2Region = new ConcurrentHashMap<BookieId, String>();
     }
 
@@ -101,6 +101,18 @@ public class RegionAwareEnsemblePlacementPolicy extends RackawareEnsemblePlaceme
         return region;
     }
 
+    private RackawareEnsemblePlacementPolicy newRegionPlacement(boolean enforceDurability) {
+        RackawareEnsemblePlacementPolicy regionPlacement = new RackawareEnsemblePlacementPolicy(enforceDurability);
+        // the bookies of the region are resolved by this policy first, share their network locations
+        regionPlacement.resolvedNetworkLocations = resolvedNetworkLocations;
+        regionPlacement.initialize(dnsResolver, timer, this.reorderReadsRandom, this.stabilizePeriodSeconds,
+                this.reorderThresholdPendingRequests, this.isWeighted, this.maxWeightMultiple,
+                this.minNumRacksPerWriteQuorum, this.enforceMinNumRacksPerWriteQuorum,
+                this.ignoreLocalNodeInPlacementPolicy, statsLogger, bookieAddressResolver)
+                .withDefaultRack(NetworkTopology.DEFAULT_REGION_AND_RACK);
+        return regionPlacement;
+    }
+
     protected String parseBookieRegion(BookieId addr) {
         String networkLocation = resolveNetworkLocation(addr);
         if (NetworkTopology.DEFAULT_REGION_AND_RACK.equals(networkLocation)) {
@@ -126,96 +138,84 @@ public class RegionAwareEnsemblePlacementPolicy extends RackawareEnsemblePlaceme
 
     @Override
     public void handleBookiesThatJoined(Set<BookieId> joinedBookies) {
-        Map<String, Set<BookieId>> perRegionClusterChange = new HashMap<String, Set<BookieId>>();
-
-        // node joined
-        for (BookieId addr : joinedBookies) {
-            BookieNode node = createBookieNode(addr);
-            topology.add(node);
-            knownBookies.put(addr, node);
-            historyBookies.put(addr, node);
-            String region = getLocalRegion(node);
-            if (null == perRegionPlacement.get(region)) {
-                perRegionPlacement.put(region, new RackawareEnsemblePlacementPolicy()
-                        .initialize(dnsResolver, timer, this.reorderReadsRandom, this.stabilizePeriodSeconds,
-                                this.reorderThresholdPendingRequests, this.isWeighted, this.maxWeightMultiple,
-                                this.minNumRacksPerWriteQuorum, this.enforceMinNumRacksPerWriteQuorum,
-                                this.ignoreLocalNodeInPlacementPolicy, statsLogger, bookieAddressResolver)
-                        .withDefaultRack(NetworkTopology.DEFAULT_REGION_AND_RACK));
-            }
+        topology.beginUpdate();
+        try {
+            Map<String, Set<BookieId>> perRegionClusterChange = new HashMap<String, Set<BookieId>>();
+
+            // node joined
+            for (BookieId addr : joinedBookies) {
+                BookieNode node = createBookieNode(addr);
+                topology.add(node);
+                knownBookies.put(addr, node);
+                historyBookies.put(addr, node);
+                String region = getLocalRegion(node);
+                if (null == perRegionPlacement.get(region)) {
+                    perRegionPlacement.put(region, newRegionPlacement(false));
+                }
 
-            Set<BookieId> regionSet = perRegionClusterChange.get(region);
-            if (null == regionSet) {
-                regionSet = new HashSet<BookieId>();
-                regionSet.add(addr);
-                perRegionClusterChange.put(region, regionSet);
-            } else {
-                regionSet.add(addr);
-            }
+                Set<BookieId> regionSet = perRegionClusterChange.get(region);
+                if (null == regionSet) {
+                    regionSet = new HashSet<BookieId>();
+                    regionSet.add(addr);
+                    perRegionClusterChange.put(region, regionSet);
+                } else {
+                    regionSet.add(addr);
+                }
 
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Cluster changed : bookie {} joined the cluster.", addr);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Cluster changed : bookie {} joined the cluster.", addr);
+                }
             }
-        }
 
-        for (Map.Entry<String, TopologyAwareEnsemblePlacementPolicy> regionEntry : perRegionPlacement.entrySet()) {
-            Set<BookieId> regionSet = perRegionClusterChange.get(regionEntry.getKey());
-            if (null == regionSet) {
-                regionSet = new HashSet<BookieId>();
+            for (Map.Entry<String, TopologyAwareEnsemblePlacementPolicy> regionEntry : perRegionPlacement.entrySet()) {
+                Set<BookieId> regionSet = perRegionClusterChange.get(regionEntry.getKey());
+                if (null == regionSet) {
+                    regionSet = new HashSet<BookieId>();
+                }
+                regionEntry.getValue().handleBookiesThatJoined(regionSet);
             }
-            regionEntry.getValue().handleBookiesThatJoined(regionSet);
+        } finally {
+            topology.endUpdate();
         }
     }
 
     @Override
-    public void onBookieRackChange(List<BookieId> bookieAddressList) {
-        rwLock.writeLock().lock();
-        try {
-            bookieAddressList.forEach(bookieAddress -> {
-                try {
-                    BookieNode node = knownBookies.get(bookieAddress);
-                    if (node != null) {
-                        // refresh the rack info if its a known bookie
-                        BookieNode newNode = createBookieNode(bookieAddress);
-                        if (!newNode.getNetworkLocation().equals(node.getNetworkLocation())) {
-                            topology.remove(node);
-                            topology.add(newNode);
-                            knownBookies.put(bookieAddress, newNode);
-                            historyBookies.put(bookieAddress, newNode);
-                        }
-                        //Handle per region placement policy.
-                        String oldRegion = getRegion(bookieAddress);
-                        String newRegion = parseBookieRegion(newNode.getAddr());
-                        if (oldRegion.equals(newRegion)) {
-                            TopologyAwareEnsemblePlacementPolicy regionPlacement = perRegionPlacement.get(oldRegion);
-                            regionPlacement.onBookieRackChange(Collections.singletonList(bookieAddress));
-                        } else {
-                            address2Region.put(bookieAddress, newRegion);
-                            TopologyAwareEnsemblePlacementPolicy oldRegionPlacement = perRegionPlacement.get(oldRegion);
-                            oldRegionPlacement.handleBookiesThatLeft(Collections.singleton(bookieAddress));
-                            TopologyAwareEnsemblePlacementPolicy newRegionPlacement = perRegionPlacement.get(
-                                    newRegion);
-                            if (newRegionPlacement == null) {
-                                newRegionPlacement = new RackawareEnsemblePlacementPolicy()
-                                        .initialize(dnsResolver, timer, this.reorderReadsRandom,
-                                                this.stabilizePeriodSeconds, this.reorderThresholdPendingRequests,
-                                                this.isWeighted, this.maxWeightMultiple,
-                                                this.minNumRacksPerWriteQuorum, this.enforceMinNumRacksPerWriteQuorum,
-                                                this.ignoreLocalNodeInPlacementPolicy, statsLogger,
-                                                bookieAddressResolver)
-                                        .withDefaultRack(NetworkTopology.DEFAULT_REGION_AND_RACK);
-                                perRegionPlacement.put(newRegion, newRegionPlacement);
-                            }
-                            newRegionPlacement.handleBookiesThatJoined(Collections.singleton(bookieAddress));
+    protected void handleBookieRackChange(List<BookieId> bookieAddressList) {
+        bookieAddressList.forEach(bookieAddress -> {
+            try {
+                BookieNode node = knownBookies.get(bookieAddress);
+                if (node != null) {
+                    // refresh the rack info if its a known bookie
+                    BookieNode newNode = createBookieNode(bookieAddress);
+                    if (!newNode.getNetworkLocation().equals(node.getNetworkLocation())) {
+                        topology.remove(node);
+                        topology.add(newNode);
+                        knownBookies.put(bookieAddress, newNode);
+                        historyBookies.put(bookieAddress, newNode);
+                    }
+                    //Handle per region placement policy.
+                    String oldRegion = getRegion(bookieAddress);
+                    String newRegion = parseBookieRegion(newNode.getAddr());
+                    if (oldRegion.equals(newRegion)) {
+                        TopologyAwareEnsemblePlacementPolicy regionPlacement = perRegionPlacement.get(oldRegion);
+                        regionPlacement.handleBookieRackChange(Collections.singletonList(bookieAddress));
+                    } else {
+                        address2Region.put(bookieAddress, newRegion);
+                        TopologyAwareEnsemblePlacementPolicy oldRegionPlacement = perRegionPlacement.get(oldRegion);
+                        oldRegionPlacement.handleBookiesThatLeft(Collections.singleton(bookieAddress));
+                        TopologyAwareEnsemblePlacementPolicy newRegionPlacement = perRegionPlacement.get(
+                                newRegion);
+                        if (newRegionPlacement == null) {
+                            newRegionPlacement = newRegionPlacement(false);
+                            perRegionPlacement.put(newRegion, newRegionPlacement);
                         }
+                        newRegionPlacement.handleBookiesThatJoined(Collections.singleton(bookieAddress));
                     }
-                } catch (IllegalArgumentException | NetworkTopologyImpl.InvalidTopologyException e) {
-                    LOG.error("Failed to update bookie rack info: {} ", bookieAddress, e);
                 }
-            });
-        } finally {
-            rwLock.writeLock().unlock();
-        }
+            } catch (IllegalArgumentException | NetworkTopologyImpl.InvalidTopologyException e) {
+                LOG.error("Failed to update bookie rack info: {} ", bookieAddress, e);
+            }
+        });
     }
 
     @Override
@@ -238,12 +238,7 @@ public class RegionAwareEnsemblePlacementPolicy extends RackawareEnsemblePlaceme
             // R1;R2;...
             String[] regions = regionsString.split(";");
             for (String region : regions) {
-                perRegionPlacement.put(region, new RackawareEnsemblePlacementPolicy(true)
-                        .initialize(dnsResolver, timer, this.reorderReadsRandom, this.stabilizePeriodSeconds,
-                                this.reorderThresholdPendingRequests, this.isWeighted, this.maxWeightMultiple,
-                                this.minNumRacksPerWriteQuorum, this.enforceMinNumRacksPerWriteQuorum,
-                                this.ignoreLocalNodeInPlacementPolicy, statsLogger, bookieAddressResolver)
-                        .withDefaultRack(NetworkTopology.DEFAULT_REGION_AND_RACK));
+                perRegionPlacement.put(region, newRegionPlacement(true));
             }
             minRegionsForDurability = conf.getInt(REPP_MINIMUM_REGIONS_FOR_DURABILITY,
                     MINIMUM_REGIONS_FOR_DURABILITY_DEFAULT);
@@ -315,174 +310,169 @@ public class RegionAwareEnsemblePlacementPolicy extends RackawareEnsemblePlaceme
             }
         }
 
-        rwLock.readLock().lock();
-        try {
-            Set<BookieId> comprehensiveExclusionBookiesSet = addDefaultRackBookiesIfMinNumRacksIsEnforced(
-                    excludedBookies);
-            Set<Node> excludeNodes = convertBookiesToNodes(comprehensiveExclusionBookiesSet);
-            List<String> availableRegions = new ArrayList<>();
-            for (String region: perRegionPlacement.keySet()) {
-                if ((null == disallowBookiePlacementInRegionFeatureName)
-                        || !featureProvider.scope(region).getFeature(disallowBookiePlacementInRegionFeatureName)
-                            .isAvailable()) {
-                    availableRegions.add(region);
-                }
+        Set<BookieId> comprehensiveExclusionBookiesSet = addDefaultRackBookiesIfMinNumRacksIsEnforced(
+                excludedBookies);
+        Set<Node> excludeNodes = convertBookiesToNodes(comprehensiveExclusionBookiesSet);
+        List<String> availableRegions = new ArrayList<>();
+        for (String region: perRegionPlacement.keySet()) {
+            if ((null == disallowBookiePlacementInRegionFeatureName)
+                    || !featureProvider.scope(region).getFeature(disallowBookiePlacementInRegionFeatureName)
+                        .isAvailable()) {
+                availableRegions.add(region);
             }
-            int numRegionsAvailable = availableRegions.size();
-
-            // If we were unable to get region information or all regions are disallowed which is
-            // an invalid configuration; default to random selection from the set of nodes
-            if (numRegionsAvailable < 1) {
-                // We cant disallow all regions; if we did, raise an alert to draw attention
-                if (perRegionPlacement.keySet().size() >= 1) {
-                    LOG.error("No regions available, invalid configuration");
-                }
-                List<BookieNode> bns = selectRandom(ensembleSize, excludeNodes, TruePredicate.INSTANCE,
-                    EnsembleForReplacementWithNoConstraints.INSTANCE);
-                ArrayList<BookieId> addrs = new ArrayList<BookieId>(ensembleSize);
-                for (BookieNode bn : bns) {
-                    addrs.add(bn.getAddr());
-                }
-                return PlacementResult.of(addrs,
-                                          isEnsembleAdheringToPlacementPolicy(
-                                                  addrs, writeQuorumSize, ackQuorumSize));
+        }
+        int numRegionsAvailable = availableRegions.size();
+
+        // If we were unable to get region information or all regions are disallowed which is
+        // an invalid configuration; default to random selection from the set of nodes
+        if (numRegionsAvailable < 1) {
+            // We cant disallow all regions; if we did, raise an alert to draw attention
+            if (perRegionPlacement.keySet().size() >= 1) {
+                LOG.error("No regions available, invalid configuration");
             }
-
-            // Single region, fall back to RackAwareEnsemblePlacement
-            if (numRegionsAvailable < 2) {
-                RRTopologyAwareCoverageEnsemble ensemble = new RRTopologyAwareCoverageEnsemble(ensembleSize,
-                        writeQuorumSize, ackQuorumSize, REGIONID_DISTANCE_FROM_LEAVES,
-                        effectiveMinRegionsForDurability > 0 ? new HashSet<>(perRegionPlacement.keySet()) : null,
-                        effectiveMinRegionsForDurability, minNumRacksPerWriteQuorum);
-                TopologyAwareEnsemblePlacementPolicy nextPolicy = perRegionPlacement.get(
-                        availableRegions.iterator().next());
-                return nextPolicy.newEnsemble(ensembleSize, writeQuorumSize, writeQuorumSize,
-                        comprehensiveExclusionBookiesSet, ensemble, ensemble);
+            List<BookieNode> bns = selectRandom(ensembleSize, excludeNodes, TruePredicate.INSTANCE,
+                EnsembleForReplacementWithNoConstraints.INSTANCE);
+            ArrayList<BookieId> addrs = new ArrayList<BookieId>(ensembleSize);
+            for (BookieNode bn : bns) {
+                addrs.add(bn.getAddr());
             }
+            return PlacementResult.of(addrs,
+                                      isEnsembleAdheringToPlacementPolicy(
+                                              addrs, writeQuorumSize, ackQuorumSize));
+        }
 
-            int remainingEnsemble = ensembleSize;
-            int remainingWriteQuorum = writeQuorumSize;
-
-            // Equally distribute the nodes across all regions to whatever extent possible
-            // with the hierarchy in mind
-            // Try and place as many nodes in a region as possible, the ones that cannot be
-            // accommodated are placed on other regions
-            // Within each region try and follow rack aware placement
-            Map<String, Pair<Integer, Integer>> regionsWiseAllocation = new HashMap<>();
-            for (String region: availableRegions) {
-                regionsWiseAllocation.put(region, Pair.of(0, 0));
-            }
-            int remainingEnsembleBeforeIteration;
-            int numRemainingRegions;
-            Set<String> regionsReachedMaxAllocation = new HashSet<String>();
-            RRTopologyAwareCoverageEnsemble ensemble;
-            do {
-                numRemainingRegions = numRegionsAvailable - regionsReachedMaxAllocation.size();
-                ensemble = new RRTopologyAwareCoverageEnsemble(ensembleSize, writeQuorumSize, ackQuorumSize,
-                        REGIONID_DISTANCE_FROM_LEAVES,
-                        // We pass all regions we know off to the coverage ensemble as
-                        // regardless of regions that are available; constraints are
-                        // always applied based on all possible regions
-                        effectiveMinRegionsForDurability > 0 ? new HashSet<>(perRegionPlacement.keySet()) : null,
-                        effectiveMinRegionsForDurability, minNumRacksPerWriteQuorum);
-                remainingEnsembleBeforeIteration = remainingEnsemble;
-                int regionsToAllocate = numRemainingRegions;
-                int startRegionIndex = lastRegionIndex % numRegionsAvailable;
-                for (int i = 0; i < numRegionsAvailable; ++i) {
-                    String region = availableRegions.get(startRegionIndex % numRegionsAvailable);
-                    startRegionIndex++;
-                    final Pair<Integer, Integer> currentAllocation = regionsWiseAllocation.get(region);
-                    TopologyAwareEnsemblePlacementPolicy policyWithinRegion = perRegionPlacement.get(region);
-                    if (!regionsReachedMaxAllocation.contains(region)) {
-                        if (numRemainingRegions <= 0) {
-                            LOG.error("Inconsistent State: This should never happen");
-                            throw new BKException.BKNotEnoughBookiesException();
-                        }
-                        // try to place the bookies as balance as possible across all the regions
-                        int addToEnsembleSize = Math.min(remainingEnsemble, remainingEnsemble / regionsToAllocate
-                                + (remainingEnsemble % regionsToAllocate == 0 ? 0 : 1));
-                        boolean success = false;
-                        while (addToEnsembleSize > 0) {
-                            int addToWriteQuorum = Math.max(1, Math.min(remainingWriteQuorum,
-                                        Math.round(1.0f * writeQuorumSize * addToEnsembleSize / ensembleSize)));
-                            // Temp ensemble will be merged back into the ensemble only if we are able to successfully
-                            // allocate the target number of bookies in this region; if we fail because we dont have
-                            // enough bookies; then we retry the process with a smaller target
-                            RRTopologyAwareCoverageEnsemble tempEnsemble =
-                                new RRTopologyAwareCoverageEnsemble(ensemble);
-                            int newEnsembleSize = currentAllocation.getLeft() + addToEnsembleSize;
-                            int newWriteQuorumSize = currentAllocation.getRight() + addToWriteQuorum;
-                            try {
-                                List<BookieId> allocated = policyWithinRegion
-                                        .newEnsemble(newEnsembleSize, newWriteQuorumSize, newWriteQuorumSize,
-                                                comprehensiveExclusionBookiesSet, tempEnsemble, tempEnsemble)
-                                        .getResult();
-                                ensemble = tempEnsemble;
-                                remainingEnsemble -= addToEnsembleSize;
-                                remainingWriteQuorum -= addToWriteQuorum;
-                                regionsWiseAllocation.put(region, Pair.of(newEnsembleSize, newWriteQuorumSize));
-                                success = true;
-                                regionsToAllocate--;
-                                lastRegionIndex = startRegionIndex;
-                                LOG.info("Region {} allocating bookies with ensemble size {} "
-                                        + "and write quorum size {} : {}",
-                                        region, newEnsembleSize, newWriteQuorumSize, allocated);
-                                break;
-                            } catch (BKException.BKNotEnoughBookiesException exc) {
-                                LOG.warn("Could not allocate {} bookies in region {}, try allocating {} bookies",
-                                        newEnsembleSize, region, (newEnsembleSize - 1));
-                                addToEnsembleSize--;
-                            }
-                        }
+        // Single region, fall back to RackAwareEnsemblePlacement
+        if (numRegionsAvailable < 2) {
+            RRTopologyAwareCoverageEnsemble ensemble = new RRTopologyAwareCoverageEnsemble(ensembleSize,
+                    writeQuorumSize, ackQuorumSize, REGIONID_DISTANCE_FROM_LEAVES,
+                    effectiveMinRegionsForDurability > 0 ? new HashSet<>(perRegionPlacement.keySet()) : null,
+                    effectiveMinRegionsForDurability, minNumRacksPerWriteQuorum);
+            TopologyAwareEnsemblePlacementPolicy nextPolicy = perRegionPlacement.get(
+                    availableRegions.iterator().next());
+            return nextPolicy.newEnsemble(ensembleSize, writeQuorumSize, writeQuorumSize,
+                    comprehensiveExclusionBookiesSet, ensemble, ensemble);
+        }
 
-                        // we couldn't allocate additional bookies from the region,
-                        // it should have reached its max allocation.
-                        if (!success) {
-                            regionsReachedMaxAllocation.add(region);
+        int remainingEnsemble = ensembleSize;
+        int remainingWriteQuorum = writeQuorumSize;
+
+        // Equally distribute the nodes across all regions to whatever extent possible
+        // with the hierarchy in mind
+        // Try and place as many nodes in a region as possible, the ones that cannot be
+        // accommodated are placed on other regions
+        // Within each region try and follow rack aware placement
+        Map<String, Pair<Integer, Integer>> regionsWiseAllocation = new HashMap<>();
+        for (String region: availableRegions) {
+            regionsWiseAllocation.put(region, Pair.of(0, 0));
+        }
+        int remainingEnsembleBeforeIteration;
+        int numRemainingRegions;
+        Set<String> regionsReachedMaxAllocation = new HashSet<String>();
+        RRTopologyAwareCoverageEnsemble ensemble;
+        do {
+            numRemainingRegions = numRegionsAvailable - regionsReachedMaxAllocation.size();
+            ensemble = new RRTopologyAwareCoverageEnsemble(ensembleSize, writeQuorumSize, ackQuorumSize,
+                    REGIONID_DISTANCE_FROM_LEAVES,
+                    // We pass all regions we know off to the coverage ensemble as
+                    // regardless of regions that are available; constraints are
+                    // always applied based on all possible regions
+                    effectiveMinRegionsForDurability > 0 ? new HashSet<>(perRegionPlacement.keySet()) : null,
+                    effectiveMinRegionsForDurability, minNumRacksPerWriteQuorum);
+            remainingEnsembleBeforeIteration = remainingEnsemble;
+            int regionsToAllocate = numRemainingRegions;
+            int startRegionIndex = lastRegionIndex % numRegionsAvailable;
+            for (int i = 0; i < numRegionsAvailable; ++i) {
+                String region = availableRegions.get(startRegionIndex % numRegionsAvailable);
+                startRegionIndex++;
+                final Pair<Integer, Integer> currentAllocation = regionsWiseAllocation.get(region);
+                TopologyAwareEnsemblePlacementPolicy policyWithinRegion = perRegionPlacement.get(region);
+                if (!regionsReachedMaxAllocation.contains(region)) {
+                    if (numRemainingRegions <= 0) {
+                        LOG.error("Inconsistent State: This should never happen");
+                        throw new BKException.BKNotEnoughBookiesException();
+                    }
+                    // try to place the bookies as balance as possible across all the regions
+                    int addToEnsembleSize = Math.min(remainingEnsemble, remainingEnsemble / regionsToAllocate
+                            + (remainingEnsemble % regionsToAllocate == 0 ? 0 : 1));
+                    boolean success = false;
+                    while (addToEnsembleSize > 0) {
+                        int addToWriteQuorum = Math.max(1, Math.min(remainingWriteQuorum,
+                                    Math.round(1.0f * writeQuorumSize * addToEnsembleSize / ensembleSize)));
+                        // Temp ensemble will be merged back into the ensemble only if we are able to successfully
+                        // allocate the target number of bookies in this region; if we fail because we dont have
+                        // enough bookies; then we retry the process with a smaller target
+                        RRTopologyAwareCoverageEnsemble tempEnsemble =
+                            new RRTopologyAwareCoverageEnsemble(ensemble);
+                        int newEnsembleSize = currentAllocation.getLeft() + addToEnsembleSize;
+                        int newWriteQuorumSize = currentAllocation.getRight() + addToWriteQuorum;
+                        try {
+                            List<BookieId> allocated = policyWithinRegion
+                                    .newEnsemble(newEnsembleSize, newWriteQuorumSize, newWriteQuorumSize,
+                                            comprehensiveExclusionBookiesSet, tempEnsemble, tempEnsemble)
+                                    .getResult();
+                            ensemble = tempEnsemble;
+                            remainingEnsemble -= addToEnsembleSize;
+                            remainingWriteQuorum -= addToWriteQuorum;
+                            regionsWiseAllocation.put(region, Pair.of(newEnsembleSize, newWriteQuorumSize));
+                            success = true;
+                            regionsToAllocate--;
+                            lastRegionIndex = startRegionIndex;
+                            LOG.info("Region {} allocating bookies with ensemble size {} "
+                                    + "and write quorum size {} : {}",
+                                    region, newEnsembleSize, newWriteQuorumSize, allocated);
+                            break;
+                        } catch (BKException.BKNotEnoughBookiesException exc) {
+                            LOG.warn("Could not allocate {} bookies in region {}, try allocating {} bookies",
+                                    newEnsembleSize, region, (newEnsembleSize - 1));
+                            addToEnsembleSize--;
                         }
                     }
 
-                    if (regionsReachedMaxAllocation.contains(region)) {
-                        if (currentAllocation.getLeft() > 0) {
-                            LOG.info("Allocating {} bookies in region {} : ensemble {} exclude {}",
-                                    currentAllocation.getLeft(), region, comprehensiveExclusionBookiesSet, ensemble);
-                            policyWithinRegion.newEnsemble(
-                                    currentAllocation.getLeft(),
-                                    currentAllocation.getRight(),
-                                    currentAllocation.getRight(),
-                                    comprehensiveExclusionBookiesSet,
-                                    ensemble,
-                                    ensemble);
-                            LOG.info("Allocated {} bookies in region {} : {}",
-                                    currentAllocation.getLeft(), region, ensemble);
-                        }
+                    // we couldn't allocate additional bookies from the region,
+                    // it should have reached its max allocation.
+                    if (!success) {
+                        regionsReachedMaxAllocation.add(region);
                     }
                 }
 
-                if (regionsReachedMaxAllocation.containsAll(regionsWiseAllocation.keySet())) {
-                    break;
+                if (regionsReachedMaxAllocation.contains(region)) {
+                    if (currentAllocation.getLeft() > 0) {
+                        LOG.info("Allocating {} bookies in region {} : ensemble {} exclude {}",
+                                currentAllocation.getLeft(), region, comprehensiveExclusionBookiesSet, ensemble);
+                        policyWithinRegion.newEnsemble(
+                                currentAllocation.getLeft(),
+                                currentAllocation.getRight(),
+                                currentAllocation.getRight(),
+                                comprehensiveExclusionBookiesSet,
+                                ensemble,
+                                ensemble);
+                        LOG.info("Allocated {} bookies in region {} : {}",
+                                currentAllocation.getLeft(), region, ensemble);
+                    }
                 }
-            } while ((remainingEnsemble > 0) && (remainingEnsemble < remainingEnsembleBeforeIteration));
-
-            List<BookieId> bookieList = ensemble.toList();
-            if (ensembleSize != bookieList.size()) {
-                LOG.error("Not enough {} bookies are available to form an ensemble : {}.",
-                          ensembleSize, bookieList);
-                throw new BKException.BKNotEnoughBookiesException();
             }
 
-            if (enableValidation && !ensemble.validate()) {
-                LOG.error("Not enough {} bookies are available to form a valid ensemble : {}.",
-                    ensembleSize, bookieList);
-                throw new BKException.BKNotEnoughBookiesException();
+            if (regionsReachedMaxAllocation.containsAll(regionsWiseAllocation.keySet())) {
+                break;
             }
-            LOG.info("Bookies allocated successfully {}", ensemble);
-            List<BookieId> ensembleList = ensemble.toList();
-            return PlacementResult.of(ensembleList,
-                    isEnsembleAdheringToPlacementPolicy(ensembleList, writeQuorumSize, ackQuorumSize));
-        } finally {
-            rwLock.readLock().unlock();
+        } while ((remainingEnsemble > 0) && (remainingEnsemble < remainingEnsembleBeforeIteration));
+
+        List<BookieId> bookieList = ensemble.toList();
+        if (ensembleSize != bookieList.size()) {
+            LOG.error("Not enough {} bookies are available to form an ensemble : {}.",
+                      ensembleSize, bookieList);
+            throw new BKException.BKNotEnoughBookiesException();
+        }
+
+        if (enableValidation && !ensemble.validate()) {
+            LOG.error("Not enough {} bookies are available to form a valid ensemble : {}.",
+                ensembleSize, bookieList);
+            throw new BKException.BKNotEnoughBookiesException();
         }
+        LOG.info("Bookies allocated successfully {}", ensemble);
+        List<BookieId> ensembleList = ensemble.toList();
+        return PlacementResult.of(ensembleList,
+                isEnsembleAdheringToPlacementPolicy(ensembleList, writeQuorumSize, ackQuorumSize));
     }
 
     @Override
@@ -490,75 +480,70 @@ public class RegionAwareEnsemblePlacementPolicy extends RackawareEnsemblePlaceme
             Map<String, byte[]> customMetadata, List<BookieId> currentEnsemble,
             BookieId bookieToReplace, Set<BookieId> excludeBookies)
             throws BKException.BKNotEnoughBookiesException {
-        rwLock.readLock().lock();
-        try {
-            boolean enforceDurability = enforceDurabilityInReplace && !disableDurabilityFeature.isAvailable();
-            int effectiveMinRegionsForDurability = enforceDurability ? minRegionsForDurability : 1;
-            Set<BookieId> comprehensiveExclusionBookiesSet = addDefaultRackBookiesIfMinNumRacksIsEnforced(
-                    excludeBookies);
-            Set<Node> excludeNodes = convertBookiesToNodes(comprehensiveExclusionBookiesSet);
-            RRTopologyAwareCoverageEnsemble ensemble = new RRTopologyAwareCoverageEnsemble(ensembleSize,
-                writeQuorumSize,
-                ackQuorumSize,
-                REGIONID_DISTANCE_FROM_LEAVES,
-                effectiveMinRegionsForDurability > 0 ? new HashSet<String>(perRegionPlacement.keySet()) : null,
-                effectiveMinRegionsForDurability, minNumRacksPerWriteQuorum);
-
-            BookieNode bookieNodeToReplace = knownBookies.get(bookieToReplace);
-            if (null == bookieNodeToReplace) {
-                bookieNodeToReplace = createBookieNode(bookieToReplace);
-            }
-            excludeNodes.add(bookieNodeToReplace);
+        boolean enforceDurability = enforceDurabilityInReplace && !disableDurabilityFeature.isAvailable();
+        int effectiveMinRegionsForDurability = enforceDurability ? minRegionsForDurability : 1;
+        Set<BookieId> comprehensiveExclusionBookiesSet = addDefaultRackBookiesIfMinNumRacksIsEnforced(
+                excludeBookies);
+        Set<Node> excludeNodes = convertBookiesToNodes(comprehensiveExclusionBookiesSet);
+        RRTopologyAwareCoverageEnsemble ensemble = new RRTopologyAwareCoverageEnsemble(ensembleSize,
+            writeQuorumSize,
+            ackQuorumSize,
+            REGIONID_DISTANCE_FROM_LEAVES,
+            effectiveMinRegionsForDurability > 0 ? new HashSet<String>(perRegionPlacement.keySet()) : null,
+            effectiveMinRegionsForDurability, minNumRacksPerWriteQuorum);
+
+        BookieNode bookieNodeToReplace = knownBookies.get(bookieToReplace);
+        if (null == bookieNodeToReplace) {
+            bookieNodeToReplace = createBookieNode(bookieToReplace);
+        }
+        excludeNodes.add(bookieNodeToReplace);
 
-            for (BookieId bookieAddress: currentEnsemble) {
-                if (bookieAddress.equals(bookieToReplace)) {
-                    continue;
-                }
+        for (BookieId bookieAddress: currentEnsemble) {
+            if (bookieAddress.equals(bookieToReplace)) {
+                continue;
+            }
 
-                BookieNode bn = knownBookies.get(bookieAddress);
-                if (null == bn) {
-                    bn = createBookieNode(bookieAddress);
-                }
+            BookieNode bn = knownBookies.get(bookieAddress);
+            if (null == bn) {
+                bn = createBookieNode(bookieAddress);
+            }
 
-                excludeNodes.add(bn);
+            excludeNodes.add(bn);
 
-                if (!ensemble.apply(bn, ensemble)) {
-                    LOG.warn("Anomalous ensemble detected");
-                    if (null != statsLogger) {
-                        statsLogger.getCounter(REGION_AWARE_ANOMALOUS_ENSEMBLE).inc();
-                    }
-                    enforceDurability = false;
+            if (!ensemble.apply(bn, ensemble)) {
+                LOG.warn("Anomalous ensemble detected");
+                if (null != statsLogger) {
+                    statsLogger.getCounter(REGION_AWARE_ANOMALOUS_ENSEMBLE).inc();
                 }
-
-                ensemble.addNode(bn);
+                enforceDurability = false;
             }
 
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Try to choose a new bookie to replace {}, excluding {}.", bookieToReplace,
-                    excludeNodes);
-            }
-            // pick a candidate from same rack to replace
-            BookieNode candidate = replaceFromRack(bookieNodeToReplace, excludeNodes,
-                ensemble, ensemble, enforceDurability);
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Bookie {} is chosen to replace bookie {}.", candidate, bookieNodeToReplace);
-            }
-            BookieId candidateAddr = candidate.getAddr();
-            List<BookieId> newEnsemble = new ArrayList<BookieId>(currentEnsemble);
-            if (currentEnsemble.isEmpty()) {
-                /*
-                 * in testing code there are test cases which would pass empty
-                 * currentEnsemble
-                 */
-                newEnsemble.add(candidateAddr);
-            } else {
-                newEnsemble.set(currentEnsemble.indexOf(bookieToReplace), candidateAddr);
-            }
-            return PlacementResult.of(candidateAddr,
-                    isEnsembleAdheringToPlacementPolicy(newEnsemble, writeQuorumSize, ackQuorumSize));
-        } finally {
-            rwLock.readLock().unlock();
+            ensemble.addNode(bn);
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Try to choose a new bookie to replace {}, excluding {}.", bookieToReplace,
+                excludeNodes);
+        }
+        // pick a candidate from same rack to replace
+        BookieNode candidate = replaceFromRack(bookieNodeToReplace, excludeNodes,
+            ensemble, ensemble, enforceDurability);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Bookie {} is chosen to replace bookie {}.", candidate, bookieNodeToReplace);
+        }
+        BookieId candidateAddr = candidate.getAddr();
+        List<BookieId> newEnsemble = new ArrayList<BookieId>(currentEnsemble);
+        if (currentEnsemble.isEmpty()) {
+            /*
+             * in testing code there are test cases which would pass empty
+             * currentEnsemble
+             */
+            newEnsemble.add(candidateAddr);
+        } else {
+            newEnsemble.set(currentEnsemble.indexOf(bookieToReplace), candidateAddr);
         }
+        return PlacementResult.of(candidateAddr,
+                isEnsembleAdheringToPlacementPolicy(newEnsemble, writeQuorumSize, ackQuorumSize));
     }
 
     protected BookieNode replaceFromRack(BookieNode bookieNodeToReplace,
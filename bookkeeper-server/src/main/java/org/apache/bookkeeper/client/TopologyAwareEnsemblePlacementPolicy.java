@@ -18,14 +18,17 @@
 package org.apache.bookkeeper.client;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIES_JOINED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIES_LEFT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FAILED_TO_RESOLVE_NETWORK_LOCATION_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.NETWORK_LOCATION_RESOLUTION;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -34,11 +37,17 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Supplier;
 import org.apache.bookkeeper.client.BookieInfoReader.BookieInfo;
 import org.apache.bookkeeper.client.WeightedRandomSelection.WeightedObject;
+import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.net.BookieNode;
 import org.apache.bookkeeper.net.BookieSocketAddress;
@@ -50,6 +59,7 @@ import org.apache.bookkeeper.net.Node;
 import org.apache.bookkeeper.net.NodeBase;
 import org.apache.bookkeeper.proto.BookieAddressResolver;
 import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.annotations.StatsDoc;
 import org.apache.commons.collections4.CollectionUtils;
@@ -60,10 +70,16 @@ abstract class TopologyAwareEnsemblePlacementPolicy implements
         ITopologyAwareEnsemblePlacementPolicy<BookieNode> {
     static final Logger LOG = LoggerFactory.getLogger(TopologyAwareEnsemblePlacementPolicy.class);
     public static final String REPP_DNS_RESOLVER_CLASS = "reppDnsResolverClass";
-    protected final Map<BookieId, BookieNode> knownBookies = new HashMap<BookieId, BookieNode>();
-    protected final Map<BookieId, BookieNode> historyBookies = new HashMap<BookieId, BookieNode>();
+    // the delays between the retries of the resolution of the network locations of a batch of bookies which failed
+    static final long NETWORK_LOCATION_RETRY_INITIAL_DELAY_MS = 1000L;
+    static final long NETWORK_LOCATION_RETRY_MAX_DELAY_MS = 60000L;
+    // the bookies and their topology are updated in writelock scope of 'rwLock', and read without locking by the
+    // selection of the bookies of new ensembles and of replacement bookies
+    protected final Map<BookieId, BookieNode> knownBookies = new ConcurrentHashMap<BookieId, BookieNode>();
+    protected final Map<BookieId, BookieNode> historyBookies = new ConcurrentHashMap<BookieId, BookieNode>();
     protected final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
-    protected Map<BookieNode, WeightedObject> bookieInfoMap = new HashMap<BookieNode, WeightedObject>();
+    protected volatile Map<BookieNode, WeightedObject> bookieInfoMap =
+            new ConcurrentHashMap<BookieNode, WeightedObject>();
     // Initialize to empty set
     protected ImmutableSet<BookieId> readOnlyBookies = ImmutableSet.of();
     boolean isWeighted;
@@ -82,6 +98,41 @@ abstract class TopologyAwareEnsemblePlacementPolicy implements
         help = "The distribution of number of bookies left the cluster on each network topology change"
     )
     protected OpStatsLogger bookiesLeftCounter = null;
+    // the network locations resolved for the bookies. they are resolved outside of the writelock scope of 'rwLock',
+    // so that the topology changes don't wait for the dns resolver, which may run a script for each bookie.
+    protected Map<BookieId, ResolvedNetworkLocation> resolvedNetworkLocations =
+            new ConcurrentHashMap<BookieId, ResolvedNetworkLocation>();
+    // the cached network locations expire after this time to live, if positive
+    protected long networkLocationCacheTtlNanos = 0L;
+    // refreshes the expired network locations, and retries the failed resolutions. guarded by 'this'
+    protected ScheduledExecutorService networkLocationRefresher = null;
+    private boolean networkLocationRefresherStopped = false;
+    @StatsDoc(
+        name = NETWORK_LOCATION_RESOLUTION,
+        help = "The latency of the resolution of the network locations of a batch of bookies"
+    )
+    protected OpStatsLogger networkLocationResolutionStats =
+            NullStatsLogger.INSTANCE.getOpStatsLogger(NETWORK_LOCATION_RESOLUTION);
+
+    /**
+     * Network location resolved for a bookie, with the time of its resolution. A fallback location is used in place
+     * of the location of a bookie which failed to be resolved, until it is resolved.
+     */
+    protected static class ResolvedNetworkLocation {
+        final String networkLocation;
+        final long resolvedNanos;
+        final boolean fallback;
+
+        ResolvedNetworkLocation(String networkLocation, long resolvedNanos) {
+            this(networkLocation, resolvedNanos, false);
+        }
+
+        ResolvedNetworkLocation(String networkLocation, long resolvedNanos, boolean fallback) {
+            this.networkLocation = networkLocation;
+            this.resolvedNanos = resolvedNanos;
+            this.fallback = fallback;
+        }
+    }
 
     protected static class TruePredicate implements Predicate<BookieNode> {
         public static final TruePredicate INSTANCE = new TruePredicate();
@@ -648,6 +699,8 @@ abstract class TopologyAwareEnsemblePlacementPolicy implements
     @Override
     public Set<BookieId> onClusterChanged(Set<BookieId> writableBookies,
             Set<BookieId> readOnlyBookies) {
+        // resolve the network locations of the joining bookies in a batch, before blocking the topology changes
+        preResolveNetworkLocations(Sets.difference(writableBookies, knownBookies.keySet()).immutableCopy(), false);
         rwLock.writeLock().lock();
         try {
             ImmutableSet<BookieId> joinedBookies, leftBookies, deadBookies;
@@ -662,8 +715,17 @@ abstract class TopologyAwareEnsemblePlacementPolicy implements
                 LOG.debug("Cluster changed : left bookies are {}, joined bookies are {}, while dead bookies are {}.",
                         leftBookies, joinedBookies, deadBookies);
             }
-            handleBookiesThatLeft(leftBookies);
-            handleBookiesThatJoined(joinedBookies);
+            // rebuild the leaves of the topology once for all the bookies that left and joined
+            topology.beginUpdate();
+            try {
+                handleBookiesThatLeft(leftBookies);
+                handleBookiesThatJoined(joinedBookies);
+            } finally {
+                topology.endUpdate();
+            }
+            // forget the network locations of the bookies which are not in the cluster any more
+            resolvedNetworkLocations.keySet().removeIf(
+                    bookie -> !writableBookies.contains(bookie) && !readOnlyBookies.contains(bookie));
             if (this.isWeighted && (leftBookies.size() > 0 || joinedBookies.size() > 0)) {
                 this.weightedSelection.updateMap(this.bookieInfoMap);
             }
@@ -682,29 +744,34 @@ abstract class TopologyAwareEnsemblePlacementPolicy implements
      */
     @Override
     public void handleBookiesThatLeft(Set<BookieId> leftBookies) {
-        for (BookieId addr : leftBookies) {
-            try {
-                BookieNode node = knownBookies.remove(addr);
-                if (null != node) {
-                    topology.remove(node);
-                    if (this.isWeighted) {
-                        this.bookieInfoMap.remove(node);
-                    }
+        topology.beginUpdate();
+        try {
+            for (BookieId addr : leftBookies) {
+                try {
+                    BookieNode node = knownBookies.remove(addr);
+                    if (null != node) {
+                        topology.remove(node);
+                        if (this.isWeighted) {
+                            this.bookieInfoMap.remove(node);
+                        }
 
-                    bookiesLeftCounter.registerSuccessfulValue(1L);
+                        bookiesLeftCounter.registerSuccessfulValue(1L);
 
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Cluster changed : bookie {} left from cluster.", addr);
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Cluster changed : bookie {} left from cluster.", addr);
+                        }
                     }
+                } catch (Throwable t) {
+                    LOG.error("Unexpected exception while handling leaving bookie {}", addr, t);
+                    if (bookiesLeftCounter != null) {
+                        bookiesLeftCounter.registerFailedValue(1L);
+                    }
+                    // no need to re-throw; we want to process the rest of the bookies
+                    // exception anyways will be caught/logged/suppressed in the ZK's event handler
                 }
-            } catch (Throwable t) {
-                LOG.error("Unexpected exception while handling leaving bookie {}", addr, t);
-                if (bookiesLeftCounter != null) {
-                    bookiesLeftCounter.registerFailedValue(1L);
-                }
-                // no need to re-throw; we want to process the rest of the bookies
-                // exception anyways will be caught/logged/suppressed in the ZK's event handler
             }
+        } finally {
+            topology.endUpdate();
         }
     }
 
@@ -713,59 +780,75 @@ abstract class TopologyAwareEnsemblePlacementPolicy implements
      */
     @Override
     public void handleBookiesThatJoined(Set<BookieId> joinedBookies) {
-        // node joined
-        for (BookieId addr : joinedBookies) {
-            try {
-                BookieNode node = createBookieNode(addr);
-                topology.add(node);
-                knownBookies.put(addr, node);
-                historyBookies.put(addr, node);
-                if (this.isWeighted) {
-                    this.bookieInfoMap.putIfAbsent(node, new BookieInfo());
-                }
+        topology.beginUpdate();
+        try {
+            // node joined
+            for (BookieId addr : joinedBookies) {
+                try {
+                    BookieNode node = createBookieNode(addr);
+                    topology.add(node);
+                    knownBookies.put(addr, node);
+                    historyBookies.put(addr, node);
+                    if (this.isWeighted) {
+                        this.bookieInfoMap.putIfAbsent(node, new BookieInfo());
+                    }
 
-                bookiesJoinedCounter.registerSuccessfulValue(1L);
+                    bookiesJoinedCounter.registerSuccessfulValue(1L);
 
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Cluster changed : bookie {} joined the cluster.", addr);
-                }
-            } catch (Throwable t) {
-                // topology.add() throws unchecked exception
-                LOG.error("Unexpected exception while handling joining bookie {}", addr, t);
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Cluster changed : bookie {} joined the cluster.", addr);
+                    }
+                } catch (Throwable t) {
+                    // topology.add() throws unchecked exception
+                    LOG.error("Unexpected exception while handling joining bookie {}", addr, t);
 
-                bookiesJoinedCounter.registerFailedValue(1L);
-                // no need to re-throw; we want to process the rest of the bookies
-                // exception anyways will be caught/logged/suppressed in the ZK's event handler
+                    bookiesJoinedCounter.registerFailedValue(1L);
+                    // no need to re-throw; we want to process the rest of the bookies
+                    // exception anyways will be caught/logged/suppressed in the ZK's event handler
+                }
             }
+        } finally {
+            topology.endUpdate();
         }
     }
 
     @Override
     public void onBookieRackChange(List<BookieId> bookieAddressList) {
+        // the cached network locations of the bookies are stale, resolve them again before blocking the topology
+        preResolveNetworkLocations(bookieAddressList, true);
         rwLock.writeLock().lock();
+        topology.beginUpdate();
         try {
-            bookieAddressList.forEach(bookieAddress -> {
-                try {
-                    BookieNode node = knownBookies.get(bookieAddress);
-                    if (node != null) {
-                        // refresh the rack info if its a known bookie
-                        BookieNode newNode = createBookieNode(bookieAddress);
-                        if (!newNode.getNetworkLocation().equals(node.getNetworkLocation())) {
-                            topology.remove(node);
-                            topology.add(newNode);
-                            knownBookies.put(bookieAddress, newNode);
-                            historyBookies.put(bookieAddress, newNode);
-                        }
-                    }
-                } catch (IllegalArgumentException | NetworkTopologyImpl.InvalidTopologyException e) {
-                    LOG.error("Failed to update bookie rack info: {} ", bookieAddress, e);
-                }
-            });
+            handleBookieRackChange(bookieAddressList);
         } finally {
+            topology.endUpdate();
             rwLock.writeLock().unlock();
         }
     }
 
+    /*
+     * this method should be called in writelock scope of 'rwLock'
+     */
+    protected void handleBookieRackChange(List<BookieId> bookieAddressList) {
+        bookieAddressList.forEach(bookieAddress -> {
+            try {
+                BookieNode node = knownBookies.get(bookieAddress);
+                if (node != null) {
+                    // refresh the rack info if its a known bookie
+                    BookieNode newNode = createBookieNode(bookieAddress);
+                    if (!newNode.getNetworkLocation().equals(node.getNetworkLocation())) {
+                        topology.remove(node);
+                        topology.add(newNode);
+                        knownBookies.put(bookieAddress, newNode);
+                        historyBookies.put(bookieAddress, newNode);
+                    }
+                }
+            } catch (IllegalArgumentException | NetworkTopologyImpl.InvalidTopologyException e) {
+                LOG.error("Failed to update bookie rack info: {} ", bookieAddress, e);
+            }
+        });
+    }
+
     public static int differBetweenBookies(List<BookieId> bookiesA, List<BookieId> bookiesB) {
         if (CollectionUtils.isEmpty(bookiesA) || CollectionUtils.isEmpty(bookiesB)) {
             return Integer.MAX_VALUE;
@@ -792,7 +875,7 @@ abstract class TopologyAwareEnsemblePlacementPolicy implements
         try {
             List<BookieNode> allBookies = new ArrayList<BookieNode>(knownBookies.values());
             // create a new map to reflect the new mapping
-            Map<BookieNode, WeightedObject> map = new HashMap<BookieNode, WeightedObject>();
+            Map<BookieNode, WeightedObject> map = new ConcurrentHashMap<BookieNode, WeightedObject>();
             for (BookieNode bookie : allBookies) {
                 if (bookieInfoMap.containsKey(bookie.getAddr())) {
                     map.put(bookie, bookieInfoMap.get(bookie.getAddr()));
@@ -817,17 +900,220 @@ abstract class TopologyAwareEnsemblePlacementPolicy implements
     }
 
     protected String resolveNetworkLocation(BookieId addr) {
+        ResolvedNetworkLocation resolved = resolvedNetworkLocations.get(addr);
+        if (null == resolved) {
+            resolveNetworkLocations(Collections.singletonList(addr), false);
+            resolved = resolvedNetworkLocations.get(addr);
+        }
+        if (null != resolved) {
+            return resolved.networkLocation;
+        }
+
+        BookieNode historyBookie = historyBookies.get(addr);
+        if (null != historyBookie) {
+            return historyBookie.getNetworkLocation();
+        }
+        LOG.error("Cannot resolve bookieId {} to a network address, resolving as {}", addr,
+                  NetworkTopology.DEFAULT_REGION_AND_RACK);
+        return NetworkTopology.DEFAULT_REGION_AND_RACK;
+    }
+
+    /**
+     * Resolve the network locations of the given bookies with a single call to the dns resolver, and cache them.
+     *
+     * <p>The bookies whose cached network location has not expired are skipped, unless <i>force</i> is true. The
+     * fallback locations are always resolved again. The bookies whose id cannot be resolved to an address are not
+     * cached.
+     */
+    protected void resolveNetworkLocations(Collection<BookieId> bookies, boolean force) {
+        long nowNanos = MathUtils.nowInNano();
+        List<BookieId> toResolve = new ArrayList<BookieId>(bookies.size());
+        List<String> names = new ArrayList<String>(bookies.size());
+        for (BookieId addr : bookies) {
+            ResolvedNetworkLocation resolved = resolvedNetworkLocations.get(addr);
+            if (!force && null != resolved && !resolved.fallback && (networkLocationCacheTtlNanos <= 0
+                    || nowNanos - resolved.resolvedNanos < networkLocationCacheTtlNanos)) {
+                continue;
+            }
+            try {
+                names.add(NetUtils.getResolvableName(dnsResolver, bookieAddressResolver.resolve(addr)));
+                toResolve.add(addr);
+            } catch (BookieAddressResolver.BookieIdNotResolvedException err) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Cannot resolve bookieId {} to a network address : {}", addr, err.getMessage());
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+
+        long startNanos = MathUtils.nowInNano();
+        boolean success = false;
         try {
-            return NetUtils.resolveNetworkLocation(dnsResolver, bookieAddressResolver.resolve(addr));
-        } catch (BookieAddressResolver.BookieIdNotResolvedException err) {
-            BookieNode historyBookie = historyBookies.get(addr);
-            if (null != historyBookie) {
-                return historyBookie.getNetworkLocation();
+            List<String> rNames = dnsResolver.resolve(names);
+            checkNotNull(rNames, "DNS Resolver should not return null response.");
+            checkState(rNames.size() == names.size(), "Expected exactly %s elements", names.size());
+            long resolvedNanos = MathUtils.nowInNano();
+            for (int i = 0; i < rNames.size(); i++) {
+                resolvedNetworkLocations.put(toResolve.get(i),
+                        new ResolvedNetworkLocation(rNames.get(i), resolvedNanos));
             }
+            success = true;
+        } finally {
+            if (success) {
+                networkLocationResolutionStats.registerSuccessfulEvent(
+                        MathUtils.elapsedNanos(startNanos), TimeUnit.NANOSECONDS);
+            } else {
+                networkLocationResolutionStats.registerFailedEvent(
+                        MathUtils.elapsedNanos(startNanos), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
 
-            LOG.error("Cannot resolve bookieId {} to a network address, resolving as {}", addr,
-                      NetworkTopology.DEFAULT_REGION_AND_RACK, err);
-            return NetworkTopology.DEFAULT_REGION_AND_RACK;
+    /**
+     * Resolve the network locations of the given bookies ahead of their use in writelock scope of 'rwLock'.
+     *
+     * <p>If the resolution fails, the bookies without a cached location get a fallback location, their last known
+     * location or the default rack, so that the dns resolver is not called again in writelock scope. The resolution
+     * is retried in the background, and the bookies are moved once their location is resolved.
+     */
+    protected void preResolveNetworkLocations(Collection<BookieId> bookies, boolean force) {
+        if (bookies.isEmpty()) {
+            return;
+        }
+        try {
+            resolveNetworkLocations(bookies, force);
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to resolve the network locations of bookies {}, retrying in the background", bookies, e);
+            long nowNanos = MathUtils.nowInNano();
+            for (BookieId addr : bookies) {
+                resolvedNetworkLocations.computeIfAbsent(addr,
+                        bookie -> new ResolvedNetworkLocation(getFallbackNetworkLocation(bookie), nowNanos, true));
+            }
+            scheduleNetworkLocationRetry(new ArrayList<BookieId>(bookies), NETWORK_LOCATION_RETRY_INITIAL_DELAY_MS);
+        }
+    }
+
+    private String getFallbackNetworkLocation(BookieId addr) {
+        BookieNode historyBookie = historyBookies.get(addr);
+        if (null != historyBookie) {
+            return historyBookie.getNetworkLocation();
+        }
+        // the default rack the dns resolver falls back to for the bookies it does not resolve
+        if (dnsResolver instanceof DNSResolverDecorator) {
+            return ((DNSResolverDecorator) dnsResolver).defaultRackSupplier.get();
+        }
+        return NetworkTopology.DEFAULT_REGION_AND_RACK;
+    }
+
+    private void scheduleNetworkLocationRetry(List<BookieId> bookies, long delayMs) {
+        ScheduledExecutorService refresher = getNetworkLocationRefresher();
+        if (null == refresher) {
+            return;
+        }
+        try {
+            refresher.schedule(() -> retryNetworkLocations(bookies, delayMs), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("Not retrying to resolve the network locations of bookies {}, the policy is closed", bookies);
+        }
+    }
+
+    private void retryNetworkLocations(List<BookieId> bookies, long delayMs) {
+        List<BookieId> toResolve = new ArrayList<BookieId>(bookies.size());
+        for (BookieId addr : bookies) {
+            ResolvedNetworkLocation resolved = resolvedNetworkLocations.get(addr);
+            // the bookies which left, or were resolved meanwhile, are not retried
+            if (null != resolved && resolved.fallback) {
+                toResolve.add(addr);
+            }
+        }
+        if (toResolve.isEmpty()) {
+            return;
+        }
+        try {
+            resolveNetworkLocations(toResolve, true);
+        } catch (RuntimeException e) {
+            long nextDelayMs = Math.min(2 * delayMs, NETWORK_LOCATION_RETRY_MAX_DELAY_MS);
+            LOG.warn("Failed to resolve the network locations of bookies {}, retrying in {} ms", toResolve,
+                    nextDelayMs, e);
+            scheduleNetworkLocationRetry(toResolve, nextDelayMs);
+            return;
+        }
+        try {
+            updateChangedNetworkLocations(toResolve);
+        } catch (Throwable t) {
+            LOG.warn("Failed to update the network locations of bookies {}", toResolve, t);
+        }
+    }
+
+    private synchronized ScheduledExecutorService getNetworkLocationRefresher() {
+        if (null == networkLocationRefresher && !networkLocationRefresherStopped) {
+            networkLocationRefresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("BookieNetworkLocationRefresher-%d").setDaemon(true).build());
+        }
+        return networkLocationRefresher;
+    }
+
+    /**
+     * Move the bookies whose cached network location differs from their location in the topology.
+     */
+    protected void updateChangedNetworkLocations(Collection<BookieId> bookies) {
+        List<BookieId> changedBookies = new ArrayList<BookieId>();
+        for (BookieId addr : bookies) {
+            BookieNode node = knownBookies.get(addr);
+            ResolvedNetworkLocation resolved = resolvedNetworkLocations.get(addr);
+            if (null != node && null != resolved && !resolved.networkLocation.equals(node.getNetworkLocation())) {
+                changedBookies.add(addr);
+            }
+        }
+        if (changedBookies.isEmpty()) {
+            return;
+        }
+        LOG.info("Network locations of bookies {} changed, updating the topology.", changedBookies);
+        rwLock.writeLock().lock();
+        try {
+            handleBookieRackChange(changedBookies);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Start refreshing the expired network locations of the known bookies in the background, if the cached network
+     * locations expire. The bookies whose network location changed are moved in the topology.
+     */
+    protected void startNetworkLocationRefresher(int networkLocationCacheTtlSeconds) {
+        if (networkLocationCacheTtlSeconds <= 0) {
+            return;
+        }
+        this.networkLocationCacheTtlNanos = TimeUnit.SECONDS.toNanos(networkLocationCacheTtlSeconds);
+        long periodSeconds = Math.max(1, networkLocationCacheTtlSeconds / 2);
+        getNetworkLocationRefresher().scheduleWithFixedDelay(this::refreshNetworkLocations,
+                periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        LOG.info("Refreshing the network locations of the bookies every {} seconds.", periodSeconds);
+    }
+
+    protected synchronized void stopNetworkLocationRefresher() {
+        networkLocationRefresherStopped = true;
+        if (null != networkLocationRefresher) {
+            networkLocationRefresher.shutdownNow();
+            networkLocationRefresher = null;
+        }
+    }
+
+    private void refreshNetworkLocations() {
+        try {
+            List<BookieId> bookies = new ArrayList<BookieId>(knownBookies.keySet());
+            if (bookies.isEmpty()) {
+                return;
+            }
+            // drop the mappings cached by the dns resolver, so that the expired locations are resolved again
+            dnsResolver.reloadCachedMappings();
+            resolveNetworkLocations(bookies, false);
+            updateChangedNetworkLocations(bookies);
+        } catch (Throwable t) {
+            LOG.warn("Failed to refresh the network locations of the bookies", t);
         }
     }
 
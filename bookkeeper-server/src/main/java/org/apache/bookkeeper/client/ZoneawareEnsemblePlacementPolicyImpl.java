@@ -21,6 +21,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIES_JOINED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIES_LEFT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.FAILED_TO_RESOLVE_NETWORK_LOCATION_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.NETWORK_LOCATION_RESOLUTION;
 import static org.apache.bookkeeper.client.BookKeeperClientStats.NUM_WRITABLE_BOOKIES_IN_DEFAULT_FAULTDOMAIN;
 
 import com.google.common.cache.Cache;
@@ -186,6 +187,7 @@ public class ZoneawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
         this.timer = timer;
         this.bookiesJoinedCounter = statsLogger.getOpStatsLogger(BOOKIES_JOINED);
         this.bookiesLeftCounter = statsLogger.getOpStatsLogger(BOOKIES_LEFT);
+        this.networkLocationResolutionStats = statsLogger.getOpStatsLogger(NETWORK_LOCATION_RESOLUTION);
         this.failedToResolveNetworkLocationCounter = statsLogger.getCounter(FAILED_TO_RESOLVE_NETWORK_LOCATION_COUNT);
         this.numWritableBookiesInDefaultFaultDomain = new Gauge<Integer>() {
             @Override
@@ -206,7 +208,7 @@ public class ZoneawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
         this.statsLogger.registerGauge(NUM_WRITABLE_BOOKIES_IN_DEFAULT_FAULTDOMAIN,
                 numWritableBookiesInDefaultFaultDomain);
         this.reorderThresholdPendingRequests = conf.getReorderThresholdPendingRequests();
-        this.isWeighted = conf.getDiskWeightBasedPlacementEnabled();
+        this.isWeighted = conf.getDiskWeightBasedPlacementEnabled() || conf.getLoadWeightBasedPlacementEnabled();
         if (this.isWeighted) {
             this.maxWeightMultiple = conf.getBookieMaxWeightMultipleForWeightBasedPlacement();
             this.weightedSelection = new DynamicWeightedRandomSelectionImpl<BookieNode>(this.maxWeightMultiple);
@@ -265,6 +267,7 @@ public class ZoneawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
                         return -1L;
                     }
                 });
+        startNetworkLocationRefresher(conf.getNetworkLocationCacheTtlSeconds());
         return this;
     }
 
@@ -328,6 +331,7 @@ public class ZoneawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
 
     @Override
     public void uninitalize() {
+        stopNetworkLocationRefresher();
     }
 
     @Override
@@ -391,24 +395,19 @@ public class ZoneawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
         int desiredNumZonesPerWriteQuorumForThisEnsemble = Math.min(writeQuorumSize, desiredNumZonesPerWriteQuorum);
         List<BookieId> newEnsemble = new ArrayList<BookieId>(
                 Collections.nCopies(ensembleSize, null));
-        rwLock.readLock().lock();
-        try {
-            if (!enforceStrictZoneawarePlacement) {
-                return createNewEnsembleRandomly(newEnsemble, writeQuorumSize, ackQuorumSize, customMetadata,
-                        excludeBookies);
-            }
-            Set<BookieId> comprehensiveExclusionBookiesSet = addDefaultFaultDomainBookies(excludeBookies);
-            for (int index = 0; index < ensembleSize; index++) {
-                BookieId selectedBookie = setBookieInTheEnsemble(ensembleSize, writeQuorumSize, newEnsemble,
-                        newEnsemble, index, desiredNumZonesPerWriteQuorumForThisEnsemble,
-                        comprehensiveExclusionBookiesSet);
-                comprehensiveExclusionBookiesSet.add(selectedBookie);
-            }
-            return PlacementResult.of(newEnsemble,
-                    isEnsembleAdheringToPlacementPolicy(newEnsemble, writeQuorumSize, ackQuorumSize));
-        } finally {
-            rwLock.readLock().unlock();
+        if (!enforceStrictZoneawarePlacement) {
+            return createNewEnsembleRandomly(newEnsemble, writeQuorumSize, ackQuorumSize, customMetadata,
+                    excludeBookies);
+        }
+        Set<BookieId> comprehensiveExclusionBookiesSet = addDefaultFaultDomainBookies(excludeBookies);
+        for (int index = 0; index < ensembleSize; index++) {
+            BookieId selectedBookie = setBookieInTheEnsemble(ensembleSize, writeQuorumSize, newEnsemble,
+                    newEnsemble, index, desiredNumZonesPerWriteQuorumForThisEnsemble,
+                    comprehensiveExclusionBookiesSet);
+            comprehensiveExclusionBookiesSet.add(selectedBookie);
         }
+        return PlacementResult.of(newEnsemble,
+                isEnsembleAdheringToPlacementPolicy(newEnsemble, writeQuorumSize, ackQuorumSize));
     }
 
     @Override
@@ -420,22 +419,17 @@ public class ZoneawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
         int desiredNumZonesPerWriteQuorumForThisEnsemble = (writeQuorumSize < desiredNumZonesPerWriteQuorum)
                 ? writeQuorumSize : desiredNumZonesPerWriteQuorum;
         List<BookieId> newEnsemble = new ArrayList<BookieId>(currentEnsemble);
-        rwLock.readLock().lock();
-        try {
-            if (!enforceStrictZoneawarePlacement) {
-                return selectBookieRandomly(newEnsemble, bookieToReplace, excludeBookies, writeQuorumSize,
-                        ackQuorumSize);
-            }
-            Set<BookieId> comprehensiveExclusionBookiesSet = addDefaultFaultDomainBookies(excludeBookies);
-            comprehensiveExclusionBookiesSet.addAll(currentEnsemble);
-            BookieId candidateAddr = setBookieInTheEnsemble(ensembleSize, writeQuorumSize, currentEnsemble,
-                    newEnsemble, bookieToReplaceIndex, desiredNumZonesPerWriteQuorumForThisEnsemble,
-                    comprehensiveExclusionBookiesSet);
-            return PlacementResult.of(candidateAddr,
-                    isEnsembleAdheringToPlacementPolicy(newEnsemble, writeQuorumSize, ackQuorumSize));
-        } finally {
-            rwLock.readLock().unlock();
-        }
+        if (!enforceStrictZoneawarePlacement) {
+            return selectBookieRandomly(newEnsemble, bookieToReplace, excludeBookies, writeQuorumSize,
+                    ackQuorumSize);
+        }
+        Set<BookieId> comprehensiveExclusionBookiesSet = addDefaultFaultDomainBookies(excludeBookies);
+        comprehensiveExclusionBookiesSet.addAll(currentEnsemble);
+        BookieId candidateAddr = setBookieInTheEnsemble(ensembleSize, writeQuorumSize, currentEnsemble,
+                newEnsemble, bookieToReplaceIndex, desiredNumZonesPerWriteQuorumForThisEnsemble,
+                comprehensiveExclusionBookiesSet);
+        return PlacementResult.of(candidateAddr,
+                isEnsembleAdheringToPlacementPolicy(newEnsemble, writeQuorumSize, ackQuorumSize));
     }
 
     private PlacementResult<List<BookieId>> createNewEnsembleRandomly(List<BookieId> newEnsemble,
@@ -572,8 +566,7 @@ public class ZoneawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
     }
 
     /*
-     * this method should be called in readlock scope of 'rwLock'. This method
-     * returns a new set, by adding excludedBookies and bookies in
+     * This method returns a new set, by adding excludedBookies and bookies in
      * defaultfaultdomain.
      */
     protected Set<BookieId> addDefaultFaultDomainBookies(Set<BookieId> excludeBookies) {
@@ -865,92 +858,87 @@ public class ZoneawareEnsemblePlacementPolicyImpl extends TopologyAwareEnsembleP
             return PlacementPolicyAdherence.FAIL;
         }
         PlacementPolicyAdherence placementPolicyAdherence = PlacementPolicyAdherence.MEETS_STRICT;
-        rwLock.readLock().lock();
-        try {
-            HashMap<String, Set<String>> bookiesLocationInWriteSet = new HashMap<String, Set<String>>();
-            HashMap<String, Integer> numOfBookiesInZones = new HashMap<String, Integer>();
-            BookieId bookieNode;
-            if (ensembleList.size() % writeQuorumSize != 0) {
-                placementPolicyAdherence = PlacementPolicyAdherence.FAIL;
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug(
-                            "For ensemble: {}, ensembleSize: {} is not a multiple of writeQuorumSize: {}",
-                            ensembleList, ensembleList.size(), writeQuorumSize);
+        HashMap<String, Set<String>> bookiesLocationInWriteSet = new HashMap<String, Set<String>>();
+        HashMap<String, Integer> numOfBookiesInZones = new HashMap<String, Integer>();
+        BookieId bookieNode;
+        if (ensembleList.size() % writeQuorumSize != 0) {
+            placementPolicyAdherence = PlacementPolicyAdherence.FAIL;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(
+                        "For ensemble: {}, ensembleSize: {} is not a multiple of writeQuorumSize: {}",
+                        ensembleList, ensembleList.size(), writeQuorumSize);
+            }
+            return placementPolicyAdherence;
+        }
+        if (writeQuorumSize <= minNumZonesPerWriteQuorum) {
+            placementPolicyAdherence = PlacementPolicyAdherence.FAIL;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(
+                        "For ensemble: {}, writeQuorumSize: {} is less than or equal to"
+                        + " minNumZonesPerWriteQuorum: {}",
+                        ensembleList, writeQuorumSize, minNumZonesPerWriteQuorum);
+            }
+            return placementPolicyAdherence;
+        }
+        int desiredNumZonesPerWriteQuorumForThisEnsemble = Math.min(writeQuorumSize, desiredNumZonesPerWriteQuorum);
+        for (int i = 0; i < ensembleList.size(); i++) {
+            bookiesLocationInWriteSet.clear();
+            numOfBookiesInZones.clear();
+            for (int j = 0; j < writeQuorumSize; j++) {
+                int indexOfNode = (i + j) % ensembleList.size();
+                bookieNode = ensembleList.get(indexOfNode);
+                ZoneAwareNodeLocation nodeLocation = getZoneAwareNodeLocation(bookieNode);
+                if (nodeLocation.equals(unresolvedNodeLocation)) {
+                    placementPolicyAdherence = PlacementPolicyAdherence.FAIL;
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("ensemble: {}, contains bookie: {} for which network location is unresolvable",
+                                ensembleList, bookieNode);
+                    }
+                    return placementPolicyAdherence;
+                }
+                String zone = nodeLocation.getZone();
+                String upgradeDomain = nodeLocation.getUpgradeDomain();
+                Set<String> udsOfThisZoneInThisWriteSet = bookiesLocationInWriteSet.get(zone);
+                if (udsOfThisZoneInThisWriteSet == null) {
+                    udsOfThisZoneInThisWriteSet = new HashSet<String>();
+                    udsOfThisZoneInThisWriteSet.add(upgradeDomain);
+                    bookiesLocationInWriteSet.put(zone, udsOfThisZoneInThisWriteSet);
+                    numOfBookiesInZones.put(zone, 1);
+                } else {
+                    udsOfThisZoneInThisWriteSet.add(upgradeDomain);
+                    Integer numOfNodesInAZone = numOfBookiesInZones.get(zone);
+                    numOfBookiesInZones.put(zone, (numOfNodesInAZone + 1));
                 }
-                return placementPolicyAdherence;
             }
-            if (writeQuorumSize <= minNumZonesPerWriteQuorum) {
+            if (numOfBookiesInZones.entrySet().size() < minNumZonesPerWriteQuorum) {
                 placementPolicyAdherence = PlacementPolicyAdherence.FAIL;
                 if (LOG.isDebugEnabled()) {
-                    LOG.debug(
-                            "For ensemble: {}, writeQuorumSize: {} is less than or equal to"
-                            + " minNumZonesPerWriteQuorum: {}",
-                            ensembleList, writeQuorumSize, minNumZonesPerWriteQuorum);
+                    LOG.debug("in ensemble: {}, writeset starting at: {} doesn't contain bookies from"
+                            + " minNumZonesPerWriteQuorum: {}", ensembleList, i, minNumZonesPerWriteQuorum);
                 }
                 return placementPolicyAdherence;
-            }
-            int desiredNumZonesPerWriteQuorumForThisEnsemble = Math.min(writeQuorumSize, desiredNumZonesPerWriteQuorum);
-            for (int i = 0; i < ensembleList.size(); i++) {
-                bookiesLocationInWriteSet.clear();
-                numOfBookiesInZones.clear();
-                for (int j = 0; j < writeQuorumSize; j++) {
-                    int indexOfNode = (i + j) % ensembleList.size();
-                    bookieNode = ensembleList.get(indexOfNode);
-                    ZoneAwareNodeLocation nodeLocation = getZoneAwareNodeLocation(bookieNode);
-                    if (nodeLocation.equals(unresolvedNodeLocation)) {
-                        placementPolicyAdherence = PlacementPolicyAdherence.FAIL;
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("ensemble: {}, contains bookie: {} for which network location is unresolvable",
-                                    ensembleList, bookieNode);
-                        }
-                        return placementPolicyAdherence;
-                    }
-                    String zone = nodeLocation.getZone();
-                    String upgradeDomain = nodeLocation.getUpgradeDomain();
-                    Set<String> udsOfThisZoneInThisWriteSet = bookiesLocationInWriteSet.get(zone);
-                    if (udsOfThisZoneInThisWriteSet == null) {
-                        udsOfThisZoneInThisWriteSet = new HashSet<String>();
-                        udsOfThisZoneInThisWriteSet.add(upgradeDomain);
-                        bookiesLocationInWriteSet.put(zone, udsOfThisZoneInThisWriteSet);
-                        numOfBookiesInZones.put(zone, 1);
-                    } else {
-                        udsOfThisZoneInThisWriteSet.add(upgradeDomain);
-                        Integer numOfNodesInAZone = numOfBookiesInZones.get(zone);
-                        numOfBookiesInZones.put(zone, (numOfNodesInAZone + 1));
+            } else if (numOfBookiesInZones.entrySet().size() >= desiredNumZonesPerWriteQuorumForThisEnsemble) {
+                if (!validateMinUDsAreMaintained(numOfBookiesInZones, bookiesLocationInWriteSet)) {
+                    placementPolicyAdherence = PlacementPolicyAdherence.FAIL;
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("in ensemble: {}, writeset starting at: {} doesn't maintain min of 2 UDs"
+                                + " when there are multiple bookies from the same zone.", ensembleList, i);
                     }
+                    return placementPolicyAdherence;
                 }
-                if (numOfBookiesInZones.entrySet().size() < minNumZonesPerWriteQuorum) {
+            } else {
+                if (!validateMinUDsAreMaintained(numOfBookiesInZones, bookiesLocationInWriteSet)) {
                     placementPolicyAdherence = PlacementPolicyAdherence.FAIL;
                     if (LOG.isDebugEnabled()) {
-                        LOG.debug("in ensemble: {}, writeset starting at: {} doesn't contain bookies from"
-                                + " minNumZonesPerWriteQuorum: {}", ensembleList, i, minNumZonesPerWriteQuorum);
+                        LOG.debug("in ensemble: {}, writeset starting at: {} doesn't maintain min of 2 UDs"
+                                + " when there are multiple bookies from the same zone.", ensembleList, i);
                     }
                     return placementPolicyAdherence;
-                } else if (numOfBookiesInZones.entrySet().size() >= desiredNumZonesPerWriteQuorumForThisEnsemble) {
-                    if (!validateMinUDsAreMaintained(numOfBookiesInZones, bookiesLocationInWriteSet)) {
-                        placementPolicyAdherence = PlacementPolicyAdherence.FAIL;
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("in ensemble: {}, writeset starting at: {} doesn't maintain min of 2 UDs"
-                                    + " when there are multiple bookies from the same zone.", ensembleList, i);
-                        }
-                        return placementPolicyAdherence;
-                    }
-                } else {
-                    if (!validateMinUDsAreMaintained(numOfBookiesInZones, bookiesLocationInWriteSet)) {
-                        placementPolicyAdherence = PlacementPolicyAdherence.FAIL;
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("in ensemble: {}, writeset starting at: {} doesn't maintain min of 2 UDs"
-                                    + " when there are multiple bookies from the same zone.", ensembleList, i);
-                        }
-                        return placementPolicyAdherence;
-                    }
-                    if (placementPolicyAdherence == PlacementPolicyAdherence.MEETS_STRICT) {
-                        placementPolicyAdherence = PlacementPolicyAdherence.MEETS_SOFT;
-                    }
+                }
+                if (placementPolicyAdherence == PlacementPolicyAdherence.MEETS_STRICT) {
+                    placementPolicyAdherence = PlacementPolicyAdherence.MEETS_SOFT;
                 }
             }
-        } finally {
-            rwLock.readLock().unlock();
         }
         return placementPolicyAdherence;
     }
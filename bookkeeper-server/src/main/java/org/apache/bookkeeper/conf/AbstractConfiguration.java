@@ -84,8 +84,13 @@ public abstract class AbstractConfiguration<T extends AbstractConfiguration>
     protected static final String METADATA_SERVICE_URI = "metadataServiceUri";
     protected static final String ZK_LEDGERS_ROOT_PATH = "zkLedgersRootPath";
     protected static final String ZK_REQUEST_RATE_LIMIT = "zkRequestRateLimit";
+    protected static final String ZK_LEDGER_METADATA_MAX_BATCH_SIZE = "zkLedgerMetadataMaxBatchSize";
+    protected static final String LEDGER_METADATA_BULK_READ_CONCURRENCY = "ledgerMetadataBulkReadConcurrency";
     protected static final String AVAILABLE_NODE = "available";
     protected static final String REREPLICATION_ENTRY_BATCH_SIZE = "rereplicationEntryBatchSize";
+    protected static final String BULK_REREPLICATION_ENABLED = "bulkRereplicationEnabled";
+    protected static final String BULK_REREPLICATION_CHUNK_SIZE_BYTES = "bulkRereplicationChunkSizeBytes";
+    protected static final String BULK_REREPLICATION_MAX_CHUNKS_IN_FLIGHT = "bulkRereplicationMaxChunksInFlight";
     protected static final String STORE_SYSTEMTIME_AS_LEDGER_UNDERREPLICATED_MARK_TIME =
             "storeSystemTimeAsLedgerUnderreplicatedMarkTime";
     protected static final String STORE_SYSTEMTIME_AS_LEDGER_CREATION_TIME = "storeSystemTimeAsLedgerCreationTime";
@@ -577,6 +582,50 @@ public abstract class AbstractConfiguration<T extends AbstractConfiguration>
         setProperty(ZK_REQUEST_RATE_LIMIT, rateLimit);
     }
 
+    /**
+     * Get the max number of ledger metadata writes grouped into a single zookeeper multi operation. The writes
+     * issued while a batch is in flight are grouped into the next batch. Batching is disabled if the value is less
+     * than or equal to 1.
+     *
+     * @return the max number of ledger metadata writes per zookeeper multi operation.
+     */
+    public int getZkLedgerMetadataMaxBatchSize() {
+        return getInt(ZK_LEDGER_METADATA_MAX_BATCH_SIZE, 0);
+    }
+
+    /**
+     * Set the max number of ledger metadata writes grouped into a single zookeeper multi operation.
+     *
+     * @param maxBatchSize
+     *          max number of ledger metadata writes per multi operation, 0 to disable batching.
+     * @return configuration.
+     */
+    public T setZkLedgerMetadataMaxBatchSize(int maxBatchSize) {
+        setProperty(ZK_LEDGER_METADATA_MAX_BATCH_SIZE, maxBatchSize);
+        return getThis();
+    }
+
+    /**
+     * Get the max number of outstanding reads of a bulk ledger metadata read.
+     *
+     * @return the max number of outstanding reads of a bulk ledger metadata read.
+     */
+    public int getLedgerMetadataBulkReadConcurrency() {
+        return getInt(LEDGER_METADATA_BULK_READ_CONCURRENCY, 256);
+    }
+
+    /**
+     * Set the max number of outstanding reads of a bulk ledger metadata read.
+     *
+     * @param concurrency
+     *          max number of outstanding reads.
+     * @return configuration.
+     */
+    public T setLedgerMetadataBulkReadConcurrency(int concurrency) {
+        setProperty(LEDGER_METADATA_BULK_READ_CONCURRENCY, concurrency);
+        return getThis();
+    }
+
     /**
      * Are z-node created with strict ACLs.
      *
@@ -623,6 +672,54 @@ public abstract class AbstractConfiguration<T extends AbstractConfiguration>
         return getLong(REREPLICATION_ENTRY_BATCH_SIZE, 10);
     }
 
+    /**
+     * Set whether to re-replicate fragments with bulk range reads and adds between bookies, instead of reading
+     * and adding the entries one by one. This requires the bookies to support the range read and add requests,
+     * and only applies to ledgers whose ensembles are not striped (ensemble size equal to write quorum size).
+     */
+    public T setBulkRereplicationEnabled(boolean enabled) {
+        setProperty(BULK_REREPLICATION_ENABLED, enabled);
+        return getThis();
+    }
+
+    /**
+     * Get whether bulk re-replication is enabled.
+     */
+    public boolean isBulkRereplicationEnabled() {
+        return getBoolean(BULK_REREPLICATION_ENABLED, false);
+    }
+
+    /**
+     * Set the max size in bytes of the chunks of entries transferred by bulk re-replication.
+     */
+    public T setBulkRereplicationChunkSizeBytes(int chunkSizeBytes) {
+        setProperty(BULK_REREPLICATION_CHUNK_SIZE_BYTES, chunkSizeBytes);
+        return getThis();
+    }
+
+    /**
+     * Get the max size in bytes of the chunks of entries transferred by bulk re-replication.
+     */
+    public int getBulkRereplicationChunkSizeBytes() {
+        return getInt(BULK_REREPLICATION_CHUNK_SIZE_BYTES, 1024 * 1024);
+    }
+
+    /**
+     * Set the max number of chunks read but not yet added to the target bookies by bulk re-replication of a
+     * fragment.
+     */
+    public T setBulkRereplicationMaxChunksInFlight(int maxChunksInFlight) {
+        setProperty(BULK_REREPLICATION_MAX_CHUNKS_IN_FLIGHT, maxChunksInFlight);
+        return getThis();
+    }
+
+    /**
+     * Get the max number of chunks in flight of bulk re-replication of a fragment.
+     */
+    public int getBulkRereplicationMaxChunksInFlight() {
+        return getInt(BULK_REREPLICATION_MAX_CHUNKS_IN_FLIGHT, 4);
+    }
+
     /**
      * Get metastore implementation class.
      *
@@ -140,12 +140,18 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     protected static final String BOOKIE_QUARANTINE_TIME_SECONDS = "bookieQuarantineTimeSeconds";
     protected static final String BOOKIE_QUARANTINE_RATIO = "bookieQuarantineRatio";
 
+    // Ledger metadata cache
+    protected static final String LEDGER_METADATA_CACHE_MAX_SIZE_BYTES = "ledgerMetadataCacheMaxSizeBytes";
+
     // Bookie info poll interval
     protected static final String DISK_WEIGHT_BASED_PLACEMENT_ENABLED = "diskWeightBasedPlacementEnabled";
     protected static final String GET_BOOKIE_INFO_INTERVAL_SECONDS = "getBookieInfoIntervalSeconds";
     protected static final String GET_BOOKIE_INFO_RETRY_INTERVAL_SECONDS = "getBookieInfoRetryIntervalSeconds";
     protected static final String BOOKIE_MAX_MULTIPLE_FOR_WEIGHTED_PLACEMENT =
         "bookieMaxMultipleForWeightBasedPlacement";
+    protected static final String LOAD_WEIGHT_BASED_PLACEMENT_ENABLED = "loadWeightBasedPlacementEnabled";
+    protected static final String BOOKIE_LOAD_POLL_INTERVAL_SECONDS = "bookieLoadPollIntervalSeconds";
+    protected static final String BOOKIE_LOAD_DECAY_FACTOR = "bookieLoadDecayFactor";
     protected static final String GET_BOOKIE_INFO_TIMEOUT_SECS = "getBookieInfoTimeoutSecs";
     protected static final String START_TLS_TIMEOUT_SECS = "startTLSTimeoutSecs";
     protected static final String TLS_HOSTNAME_VERIFICATION_ENABLED = "tlsHostnameVerificationEnabled";
@@ -157,6 +163,7 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
     // Ensemble Placement Policy
     public static final String ENSEMBLE_PLACEMENT_POLICY = "ensemblePlacementPolicy";
     protected static final String NETWORK_TOPOLOGY_STABILIZE_PERIOD_SECONDS = "networkTopologyStabilizePeriodSeconds";
+    protected static final String NETWORK_LOCATION_CACHE_TTL_SECONDS = "networkLocationCacheTtlSeconds";
     protected static final String READ_REORDER_THRESHOLD_PENDING_REQUESTS = "readReorderThresholdPendingRequests";
     protected static final String ENSEMBLE_PLACEMENT_POLICY_ORDER_SLOW_BOOKIES =
         "ensemblePlacementPolicyOrderSlowBookies";
@@ -1266,6 +1273,32 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Get the time to live of the network locations of the bookies cached by the placement policy, in seconds.
+     *
+     * <p>The network locations of the bookies are resolved once when they join the cluster and cached. If the time
+     * to live is positive, the cached locations are refreshed in the background once they expire, and the bookies
+     * whose rack changed are moved in the topology. If it is zero, the cached locations never expire and are only
+     * resolved again when the dns resolver notifies of rack changes.
+     *
+     * @return time to live of the cached network locations in seconds.
+     */
+    public int getNetworkLocationCacheTtlSeconds() {
+        return getInt(NETWORK_LOCATION_CACHE_TTL_SECONDS, 0);
+    }
+
+    /**
+     * Set the time to live of the network locations of the bookies cached by the placement policy, in seconds.
+     *
+     * @see #getNetworkLocationCacheTtlSeconds()
+     * @param seconds time to live of the cached network locations in seconds
+     * @return client configuration.
+     */
+    public ClientConfiguration setNetworkLocationCacheTtlSeconds(int seconds) {
+        setProperty(NETWORK_LOCATION_CACHE_TTL_SECONDS, seconds);
+        return this;
+    }
+
     /**
      * Whether to order slow bookies in placement policy.
      *
@@ -1479,6 +1512,27 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Get the max estimated size of the ledger metadata cached by the client. The metadata of the closed ledgers, and
+     * of the open ledgers watched by a ledger handle, is cached. Caching is disabled if the size is 0.
+     *
+     * @return max size of the ledger metadata cache, in bytes
+     */
+    public long getLedgerMetadataCacheMaxSizeBytes() {
+        return getLong(LEDGER_METADATA_CACHE_MAX_SIZE_BYTES, 0L);
+    }
+
+    /**
+     * Set the max estimated size of the ledger metadata cached by the client. Default is 0, i.e. no caching.
+     *
+     * @param maxSizeBytes max size of the ledger metadata cache, in bytes
+     * @return client configuration
+     */
+    public ClientConfiguration setLedgerMetadataCacheMaxSizeBytes(long maxSizeBytes) {
+        setProperty(LEDGER_METADATA_CACHE_MAX_SIZE_BYTES, maxSizeBytes);
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1585,6 +1639,73 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Return whether load weight based placement is enabled.
+     *
+     * <p>When enabled, the bookies are selected with a weight decreasing with their load, as reported by the
+     * bookies: journal queue length, add and read latencies and write cache usage. When disk weight based placement
+     * is enabled too, the weight of a bookie is its free disk space scaled down by its load.
+     *
+     * @return true if load weight based placement is enabled
+     */
+    public boolean getLoadWeightBasedPlacementEnabled() {
+        return getBoolean(LOAD_WEIGHT_BASED_PLACEMENT_ENABLED, false);
+    }
+
+    /**
+     * Set whether or not load weight based placement is enabled.
+     *
+     * @param isEnabled - boolean indicating enabled or not
+     * @return client configuration
+     */
+    public ClientConfiguration setLoadWeightBasedPlacementEnabled(boolean isEnabled) {
+        setProperty(LOAD_WEIGHT_BASED_PLACEMENT_ENABLED, isEnabled);
+        return this;
+    }
+
+    /**
+     * Get the time interval between successive polls of the bookie load, for load weight based placement.
+     * Default is 10s.
+     *
+     * @return the poll interval in seconds
+     */
+    public int getBookieLoadPollIntervalSeconds() {
+        return getInt(BOOKIE_LOAD_POLL_INTERVAL_SECONDS, 10);
+    }
+
+    /**
+     * Set the time interval between successive polls of the bookie load, for load weight based placement.
+     *
+     * @param pollInterval
+     * @param unit
+     * @return client configuration
+     */
+    public ClientConfiguration setBookieLoadPollIntervalSeconds(int pollInterval, TimeUnit unit) {
+        setProperty(BOOKIE_LOAD_POLL_INTERVAL_SECONDS, unit.toSeconds(pollInterval));
+        return this;
+    }
+
+    /**
+     * Get the decay factor smoothing the bookie load, which is the weight of the previous load of a bookie against
+     * the newly polled one. 0 uses the polled load only. Default is 0.5.
+     *
+     * @return the decay factor, between 0 and 1
+     */
+    public double getBookieLoadDecayFactor() {
+        return getDouble(BOOKIE_LOAD_DECAY_FACTOR, 0.5);
+    }
+
+    /**
+     * Set the decay factor smoothing the bookie load.
+     *
+     * @param decayFactor the decay factor, between 0 and 1
+     * @return client configuration
+     */
+    public ClientConfiguration setBookieLoadDecayFactor(double decayFactor) {
+        setProperty(BOOKIE_LOAD_DECAY_FACTOR, decayFactor);
+        return this;
+    }
+
     /**
      * Set the timeout value in secs for the GET_BOOKIE_INFO request.
      *
@@ -132,6 +132,7 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String FILEINFO_CACHE_INITIAL_CAPACITY = "fileInfoCacheInitialCapacity";
     protected static final String FILEINFO_MAX_IDLE_TIME = "fileInfoMaxIdleTime";
     protected static final String FILEINFO_FORMAT_VERSION_TO_WRITE = "fileInfoFormatVersionToWrite";
+    protected static final String FILEINFO_MMAP_ENABLED = "fileInfoMmapEnabled";
     // Journal Parameters
     protected static final String MAX_JOURNAL_SIZE = "journalMaxSizeMB";
     protected static final String MAX_BACKUP_JOURNALS = "journalMaxBackups";
@@ -156,6 +157,12 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     // backpressure control
     protected static final String MAX_ADDS_IN_PROGRESS_LIMIT = "maxAddsInProgressLimit";
     protected static final String MAX_READS_IN_PROGRESS_LIMIT = "maxReadsInProgressLimit";
+    protected static final String ADAPTIVE_IN_PROGRESS_LIMIT_ENABLED = "adaptiveInProgressLimitEnabled";
+    protected static final String ADAPTIVE_IN_PROGRESS_MIN_LIMIT = "adaptiveInProgressMinLimit";
+    protected static final String ADDS_IN_PROGRESS_TARGET_LATENCY_MS = "addsInProgressTargetLatencyMs";
+    protected static final String READS_IN_PROGRESS_TARGET_LATENCY_MS = "readsInProgressTargetLatencyMs";
+    protected static final String ADDS_IN_PROGRESS_WRITE_CACHE_USAGE_THRESHOLD =
+        "addsInProgressWriteCacheUsageThreshold";
     protected static final String CLOSE_CHANNEL_ON_RESPONSE_TIMEOUT = "closeChannelOnResponseTimeout";
     protected static final String WAIT_TIMEOUT_ON_RESPONSE_BACKPRESSURE = "waitTimeoutOnResponseBackpressureMs";
 
@@ -211,6 +218,7 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String AUTO_RECOVERY_DAEMON_ENABLED = "autoRecoveryDaemonEnabled";
     protected static final String LOST_BOOKIE_RECOVERY_DELAY = "lostBookieRecoveryDelay";
     protected static final String RW_REREPLICATE_BACKOFF_MS = "rwRereplicateBackoffMs";
+    protected static final String REPLICATION_WORKER_CONCURRENCY = "replicationWorkerConcurrency";
     protected static final String UNDERREPLICATED_LEDGER_RECOVERY_GRACE_PERIOD =
             "underreplicatedLedgerRecoveryGracePeriod";
     protected static final String AUDITOR_REPLICAS_CHECK_INTERVAL = "auditorReplicasCheckInterval";
@@ -219,6 +227,11 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String AUDITOR_ACQUIRE_CONCURRENT_OPEN_LEDGER_OPERATIONS_TIMEOUT_MSEC =
         "auditorAcquireConcurrentOpenLedgerOperationsTimeOutMSec";
     protected static final String IN_FLIGHT_READ_ENTRY_NUM_IN_LEDGER_CHECKER = "inFlightReadEntryNumInLedgerChecker";
+    protected static final String AUDITOR_CHECK_ALL_LEDGERS_PARALLELISM = "auditorCheckAllLedgersParallelism";
+    protected static final String AUDITOR_CHECK_ALL_LEDGERS_SKIP_UNCHANGED_LEDGERS =
+        "auditorCheckAllLedgersSkipUnchangedLedgers";
+    protected static final String AUDITOR_INCREMENTAL_BOOKIE_LEDGER_INDEX_ENABLED =
+        "auditorIncrementalBookieLedgerIndexEnabled";
 
 
     // Worker Thread parameters.
@@ -229,6 +242,11 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String NUM_LONG_POLL_WORKER_THREADS = "numLongPollWorkerThreads";
     protected static final String NUM_HIGH_PRIORITY_WORKER_THREADS = "numHighPriorityWorkerThreads";
     protected static final String READ_WORKER_THREADS_THROTTLING_ENABLED = "readWorkerThreadsThrottlingEnabled";
+    protected static final String READ_WORKER_FAIR_SCHEDULING_ENABLED = "readWorkerFairSchedulingEnabled";
+    protected static final String MAX_PENDING_READ_REQUESTS_PER_LEDGER = "maxPendingReadRequestsPerLedger";
+    protected static final String READ_SCHEDULING_QUANTUM_MICROS = "readSchedulingQuantumMicros";
+    protected static final String READ_WORKER_VIRTUAL_THREADS_ENABLED = "readWorkerVirtualThreadsEnabled";
+    protected static final String MAX_CONCURRENT_READS_PER_LEDGER_DIR = "maxConcurrentReadsPerLedgerDir";
 
     // Long poll parameters
     protected static final String REQUEST_TIMER_TICK_DURATION_MILLISEC = "requestTimerTickDurationMs";
@@ -247,6 +265,7 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String SKIP_LIST_SIZE_LIMIT = "skipListSizeLimit";
     protected static final String SKIP_LIST_CHUNK_SIZE_ENTRY = "skipListArenaChunkSize";
     protected static final String SKIP_LIST_MAX_ALLOC_ENTRY = "skipListArenaMaxAllocSize";
+    protected static final String SKIP_LIST_OFF_HEAP_ENABLED = "skipListOffHeapEnabled";
 
     // Statistics Parameters
     protected static final String ENABLE_STATISTICS = "enableStatistics";
@@ -783,6 +802,28 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Whether entry offsets missing from the ledger cache are read from a memory mapping of the ledger index
+     * files. If enabled, index pages are only loaded in the ledger cache to be updated.
+     *
+     * @return true if the index files are read through memory mappings (Default is false)
+     */
+    public boolean isFileInfoMmapEnabled() {
+        return getBoolean(FILEINFO_MMAP_ENABLED, false);
+    }
+
+    /**
+     * Enable or disable the reads of the ledger index files through memory mappings.
+     *
+     * @param enabled
+     *          whether to read the index files through memory mappings.
+     * @return server configuration object.
+     */
+    public ServerConfiguration setFileInfoMmapEnabled(boolean enabled) {
+        setProperty(FILEINFO_MMAP_ENABLED, enabled);
+        return this;
+    }
+
     /**
      * Get fileinfo format version to write.
      *
@@ -1064,6 +1105,116 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Whether the limits of adds and reads in progress are adjusted from the measured latency of the requests.
+     * When enabled, {@link #getMaxAddsInProgressLimit()} and {@link #getMaxReadsInProgressLimit()} are used as
+     * upper bounds of the limits.
+     *
+     * @return true if the limits of requests in progress are adaptive.
+     */
+    public boolean isAdaptiveInProgressLimitEnabled() {
+        return this.getBoolean(ADAPTIVE_IN_PROGRESS_LIMIT_ENABLED, false);
+    }
+
+    /**
+     * Set whether the limits of adds and reads in progress are adjusted from the measured latency of the requests.
+     *
+     * @param enabled
+     *          whether to enable adaptive limits of requests in progress.
+     * @return server configuration.
+     */
+    public ServerConfiguration setAdaptiveInProgressLimitEnabled(boolean enabled) {
+        this.setProperty(ADAPTIVE_IN_PROGRESS_LIMIT_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the lowest value an adaptive limit of requests in progress can shrink to.
+     *
+     * @return min adaptive limit of requests in progress.
+     */
+    public int getAdaptiveInProgressMinLimit() {
+        return this.getInt(ADAPTIVE_IN_PROGRESS_MIN_LIMIT, 64);
+    }
+
+    /**
+     * Set the lowest value an adaptive limit of requests in progress can shrink to.
+     *
+     * @param value
+     *          min adaptive limit of requests in progress.
+     * @return server configuration.
+     */
+    public ServerConfiguration setAdaptiveInProgressMinLimit(int value) {
+        this.setProperty(ADAPTIVE_IN_PROGRESS_MIN_LIMIT, value);
+        return this;
+    }
+
+    /**
+     * Get the latency above which an add request makes the adaptive limit of adds in progress shrink.
+     *
+     * @return target latency of add requests in milliseconds.
+     */
+    public long getAddsInProgressTargetLatencyMs() {
+        return this.getLong(ADDS_IN_PROGRESS_TARGET_LATENCY_MS, 50);
+    }
+
+    /**
+     * Set the latency above which an add request makes the adaptive limit of adds in progress shrink.
+     *
+     * @param latencyMs
+     *          target latency of add requests in milliseconds.
+     * @return server configuration.
+     */
+    public ServerConfiguration setAddsInProgressTargetLatencyMs(long latencyMs) {
+        this.setProperty(ADDS_IN_PROGRESS_TARGET_LATENCY_MS, latencyMs);
+        return this;
+    }
+
+    /**
+     * Get the latency above which a read request makes the adaptive limit of reads in progress shrink.
+     *
+     * @return target latency of read requests in milliseconds.
+     */
+    public long getReadsInProgressTargetLatencyMs() {
+        return this.getLong(READS_IN_PROGRESS_TARGET_LATENCY_MS, 100);
+    }
+
+    /**
+     * Set the latency above which a read request makes the adaptive limit of reads in progress shrink.
+     *
+     * @param latencyMs
+     *          target latency of read requests in milliseconds.
+     * @return server configuration.
+     */
+    public ServerConfiguration setReadsInProgressTargetLatencyMs(long latencyMs) {
+        this.setProperty(READS_IN_PROGRESS_TARGET_LATENCY_MS, latencyMs);
+        return this;
+    }
+
+    /**
+     * Get the usage of the write cache, in percent, above which completed add requests make the adaptive limit
+     * of adds in progress shrink, whatever their latency. The limit also shrinks while the journal queue is more
+     * than half full.
+     *
+     * @return write cache usage threshold in percent.
+     */
+    public int getAddsInProgressWriteCacheUsageThreshold() {
+        return this.getInt(ADDS_IN_PROGRESS_WRITE_CACHE_USAGE_THRESHOLD, 80);
+    }
+
+    /**
+     * Set the usage of the write cache, in percent, above which completed add requests make the adaptive limit
+     * of adds in progress shrink.
+     *
+     * @param threshold
+     *          write cache usage threshold in percent.
+     * @return server configuration.
+     */
+    public ServerConfiguration setAddsInProgressWriteCacheUsageThreshold(int threshold) {
+        this.setProperty(ADDS_IN_PROGRESS_WRITE_CACHE_USAGE_THRESHOLD, threshold);
+        return this;
+    }
+
     /**
      * Configures action in case if server timed out sending response to the client.
      * true == close the channel and drop response
@@ -2078,6 +2229,117 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getInt(MAX_PENDING_READ_REQUESTS_PER_THREAD, 10000);
     }
 
+    /**
+     * Whether read requests are scheduled fairly across ledgers on the read worker threads, instead of being
+     * queued on the thread the ledger is hashed to. The pending read requests are then limited to
+     * {@link #getNumReadWorkerThreads()} times {@link #getMaxPendingReadRequestPerThread()} overall.
+     *
+     * @return true if fair scheduling of read requests is enabled
+     */
+    public boolean isReadWorkerFairSchedulingEnabled() {
+        return getBoolean(READ_WORKER_FAIR_SCHEDULING_ENABLED, false);
+    }
+
+    /**
+     * Set whether read requests are scheduled fairly across ledgers on the read worker threads.
+     *
+     * @param enabled
+     *          whether to enable fair scheduling of read requests
+     * @return server configuration
+     */
+    public ServerConfiguration setReadWorkerFairSchedulingEnabled(boolean enabled) {
+        setProperty(READ_WORKER_FAIR_SCHEDULING_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * If fair scheduling of read requests is enabled, limit the number of pending read requests of a single
+     * ledger. After the quota is reached, new requests for the ledger will be failed immediately
+     * (default: 1000 entries).
+     */
+    public int getMaxPendingReadRequestsPerLedger() {
+        return getInt(MAX_PENDING_READ_REQUESTS_PER_LEDGER, 1000);
+    }
+
+    /**
+     * Set the max number of pending read requests of a single ledger, when fair scheduling of read requests is
+     * enabled.
+     *
+     * @param maxPendingReadRequestsPerLedger
+     * @return server configuration
+     */
+    public ServerConfiguration setMaxPendingReadRequestsPerLedger(int maxPendingReadRequestsPerLedger) {
+        setProperty(MAX_PENDING_READ_REQUESTS_PER_LEDGER, maxPendingReadRequestsPerLedger);
+        return this;
+    }
+
+    /**
+     * Get the time a read worker thread spends serving a ledger in each scheduling round, when fair scheduling of
+     * read requests is enabled (default: 1000 microseconds).
+     */
+    public long getReadSchedulingQuantumMicros() {
+        return getLong(READ_SCHEDULING_QUANTUM_MICROS, 1000);
+    }
+
+    /**
+     * Set the time a read worker thread spends serving a ledger in each scheduling round, when fair scheduling of
+     * read requests is enabled.
+     *
+     * @param quantumMicros
+     * @return server configuration
+     */
+    public ServerConfiguration setReadSchedulingQuantumMicros(long quantumMicros) {
+        setProperty(READ_SCHEDULING_QUANTUM_MICROS, quantumMicros);
+        return this;
+    }
+
+    /**
+     * Whether read requests are executed on virtual threads, instead of the read worker threads. This requires
+     * Java 21 or later, and falls back to the read worker threads on older JVMs.
+     *
+     * <p>Virtual threads take precedence over {@link #isReadWorkerFairSchedulingEnabled()}: if both are enabled, the
+     * read requests are not scheduled fairly, unless the JVM doesn't support virtual threads.
+     *
+     * @return true if read requests are executed on virtual threads
+     */
+    public boolean isReadWorkerVirtualThreadsEnabled() {
+        return getBoolean(READ_WORKER_VIRTUAL_THREADS_ENABLED, false);
+    }
+
+    /**
+     * Set whether read requests are executed on virtual threads.
+     *
+     * @param enabled
+     *          whether to execute read requests on virtual threads
+     * @return server configuration
+     */
+    public ServerConfiguration setReadWorkerVirtualThreadsEnabled(boolean enabled) {
+        setProperty(READ_WORKER_VIRTUAL_THREADS_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * If read requests are executed on virtual threads, limit the number of reads executing concurrently on each
+     * ledger directory (default: 64). The ledger storages other than DbLedgerStorage don't keep each ledger in a
+     * single directory, so the limit then applies to all the ledger directories together, as this number times the
+     * number of ledger directories.
+     */
+    public int getMaxConcurrentReadsPerLedgerDir() {
+        return getInt(MAX_CONCURRENT_READS_PER_LEDGER_DIR, 64);
+    }
+
+    /**
+     * Set the max number of reads executing concurrently on each ledger directory, when read requests are executed
+     * on virtual threads.
+     *
+     * @param maxConcurrentReads
+     * @return server configuration
+     */
+    public ServerConfiguration setMaxConcurrentReadsPerLedgerDir(int maxConcurrentReads) {
+        setProperty(MAX_CONCURRENT_READS_PER_LEDGER_DIR, maxConcurrentReads);
+        return this;
+    }
+
     /**
      * Set the max number of pending add requests for each add worker thread. After the quota is reached, new requests
      * will be failed immediately.
@@ -2262,6 +2524,28 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Whether the EntryMemTable keeps the entries in off-heap memory segments, indexed by primitive maps,
+     * instead of a skip list of heap allocated entries. It uses up to about twice the skip list size limit of
+     * direct memory.
+     *
+     * @return true if the off-heap EntryMemTable is enabled (Default is false)
+     */
+    public boolean isSkipListOffHeapEnabled() {
+        return getBoolean(SKIP_LIST_OFF_HEAP_ENABLED, false);
+    }
+
+    /**
+     * Enable or disable the off-heap EntryMemTable.
+     *
+     * @param enabled whether to keep the EntryMemTable entries off-heap.
+     * @return server configuration object.
+     */
+    public ServerConfiguration setSkipListOffHeapEnabled(boolean enabled) {
+        setProperty(SKIP_LIST_OFF_HEAP_ENABLED, enabled);
+        return this;
+    }
+
     /**
      * Should the data be fsynced on journal before acknowledgment.
      *
@@ -2743,6 +3027,79 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         setProperty(AUDITOR_ACQUIRE_CONCURRENT_OPEN_LEDGER_OPERATIONS_TIMEOUT_MSEC, timeoutMs);
     }
 
+    /**
+     * Get the number of workers checking ranges of the ledger id space in parallel, when checking all the ledgers.
+     *
+     * @return the number of workers of the check of all the ledgers. Default is 1.
+     */
+    public int getAuditorCheckAllLedgersParallelism() {
+        return getInt(AUDITOR_CHECK_ALL_LEDGERS_PARALLELISM, 1);
+    }
+
+    /**
+     * Set the number of workers checking ranges of the ledger id space in parallel, when checking all the ledgers.
+     * The open ledger operations of all the workers are limited by
+     * {@link #setAuditorMaxNumberOfConcurrentOpenLedgerOperations(int)}.
+     *
+     * @param parallelism the number of workers
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setAuditorCheckAllLedgersParallelism(int parallelism) {
+        setProperty(AUDITOR_CHECK_ALL_LEDGERS_PARALLELISM, parallelism);
+        return this;
+    }
+
+    /**
+     * Whether the check of all the ledgers skips the closed ledgers found fully replicated by a previous check of
+     * the auditor, as long as their metadata did not change since then.
+     *
+     * @return true if unchanged ledgers are skipped. Default is false.
+     */
+    public boolean isAuditorCheckAllLedgersSkipUnchangedLedgers() {
+        return getBoolean(AUDITOR_CHECK_ALL_LEDGERS_SKIP_UNCHANGED_LEDGERS, false);
+    }
+
+    /**
+     * Set whether the check of all the ledgers skips the closed ledgers found fully replicated by a previous check
+     * of the auditor, as long as their metadata did not change since then. The checked ledgers are only remembered
+     * by the running auditor, and the loss of entries of such ledgers on bookies which are still available is not
+     * detected while they are skipped. All the checked ledgers are forgotten when a bookie leaves the cluster.
+     *
+     * <p>The auditor keeps the metadata version of each checked ledger in memory, which takes between 24 and 48
+     * bytes of heap per closed ledger, and up to twice that while a check runs, e.g. up to about 1 GB for 10
+     * million closed ledgers.
+     *
+     * @param skip whether to skip the unchanged ledgers
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setAuditorCheckAllLedgersSkipUnchangedLedgers(boolean skip) {
+        setProperty(AUDITOR_CHECK_ALL_LEDGERS_SKIP_UNCHANGED_LEDGERS, skip);
+        return this;
+    }
+
+    /**
+     * Whether the auditor maintains its index of the ledgers of each bookie incrementally.
+     *
+     * @return true if the index is maintained incrementally
+     */
+    public boolean isAuditorIncrementalBookieLedgerIndexEnabled() {
+        return getBoolean(AUDITOR_INCREMENTAL_BOOKIE_LEDGER_INDEX_ENABLED, false);
+    }
+
+    /**
+     * Set whether the auditor maintains its index of the ledgers of each bookie incrementally, from the
+     * notifications of the changes of the ledgers metadata, instead of reading the metadata of all the ledgers
+     * on each check of the bookies. The index is rebuilt from all the ledgers when notifications may have been
+     * missed, e.g. after a loss of the connection to the metadata store.
+     *
+     * @param enabled whether to maintain the index incrementally
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setAuditorIncrementalBookieLedgerIndexEnabled(boolean enabled) {
+        setProperty(AUDITOR_INCREMENTAL_BOOKIE_LEDGER_INDEX_ENABLED, enabled);
+        return this;
+    }
+
 
     /**
      * Set what percentage of a ledger (fragment)'s entries will be verified.
@@ -2824,6 +3181,30 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         setProperty(RW_REREPLICATE_BACKOFF_MS, backoffMs);
     }
 
+    /**
+     * Get the number of ledgers the replication worker replicates concurrently. A value less than or equal to 0
+     * means the number of available processors.
+     *
+     * <p>The replication rate of all the ledgers is bounded by the same {@link #getReplicationRateByBytes()} budget.
+     *
+     * @return the number of ledgers replicated concurrently
+     */
+    public int getReplicationWorkerConcurrency() {
+        int concurrency = getInt(REPLICATION_WORKER_CONCURRENCY, 1);
+        return concurrency > 0 ? concurrency : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Set the number of ledgers the replication worker replicates concurrently.
+     *
+     * @param concurrency number of ledgers replicated concurrently, or 0 for the number of available processors
+     * @return server configuration
+     */
+    public ServerConfiguration setReplicationWorkerConcurrency(int concurrency) {
+        setProperty(REPLICATION_WORKER_CONCURRENCY, concurrency);
+        return this;
+    }
+
     /**
      * Sets that whether force start a bookie in readonly mode.
      *
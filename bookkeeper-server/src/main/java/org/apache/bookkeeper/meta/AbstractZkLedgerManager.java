@@ -20,8 +20,10 @@ package org.apache.bookkeeper.meta;
 import com.google.common.annotations.VisibleForTesting;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Optional;
 import java.util.Set;
@@ -44,11 +46,13 @@ import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataLis
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.MultiCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.Processor;
 import org.apache.bookkeeper.util.BookKeeperConstants;
+import org.apache.bookkeeper.util.StringUtils;
 import org.apache.bookkeeper.util.ZkUtils;
 import org.apache.bookkeeper.versioning.LongVersion;
 import org.apache.bookkeeper.versioning.Version;
 import org.apache.bookkeeper.versioning.Versioned;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.zookeeper.AddWatchMode;
 import org.apache.zookeeper.AsyncCallback;
 import org.apache.zookeeper.AsyncCallback.DataCallback;
 import org.apache.zookeeper.AsyncCallback.StatCallback;
@@ -57,6 +61,8 @@ import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
@@ -83,8 +89,13 @@ public abstract class AbstractZkLedgerManager implements LedgerManager, Watcher
     // ledger metadata listeners
     protected final ConcurrentMap<Long, Set<LedgerMetadataListener>> listeners =
             new ConcurrentHashMap<Long, Set<LedgerMetadataListener>>();
+    // watchers of the listeners on the metadata of all the ledgers
+    private final ConcurrentMap<AllLedgersMetadataListener, Watcher> allLedgersWatchers =
+            new ConcurrentHashMap<>();
     // we use this to prevent long stack chains from building up in callbacks
     protected ScheduledExecutorService scheduler;
+    // groups the metadata creations and updates into multi operations, null if batching is disabled
+    private final ZkMultiBatcher writeBatcher;
 
     /**
      * ReadLedgerMetadataTask class.
@@ -189,6 +200,8 @@ public abstract class AbstractZkLedgerManager implements LedgerManager, Watcher
         this.ledgerRootPath = ZKMetadataDriverBase.resolveZkLedgersRootPath(conf);
         this.scheduler = Executors
                 .newSingleThreadScheduledExecutor(new DefaultThreadFactory("ZkLedgerManagerScheduler"));
+        int maxBatchSize = conf.getZkLedgerMetadataMaxBatchSize();
+        this.writeBatcher = maxBatchSize > 1 ? new ZkMultiBatcher(zk, maxBatchSize) : null;
         if (LOG.isDebugEnabled()) {
             LOG.debug("Using AbstractZkLedgerManager with root path : {}", ledgerRootPath);
         }
@@ -341,8 +354,31 @@ public abstract class AbstractZkLedgerManager implements LedgerManager, Watcher
         }
 
         List<ACL> zkAcls = ZkUtils.getACLs(conf);
-        ZkUtils.asyncCreateFullPathOptimistic(zk, ledgerPath, data, zkAcls,
-                                              CreateMode.PERSISTENT, scb, null);
+        if (writeBatcher != null) {
+            writeBatcher.submit(new ZkMultiBatcher.BatchedOp(
+                    Op.create(ledgerPath, data, zkAcls, CreateMode.PERSISTENT), data) {
+                @Override
+                void succeeded(OpResult result) {
+                    scb.processResult(Code.OK.intValue(), ledgerPath, null,
+                            ((OpResult.CreateResult) result).getPath());
+                }
+
+                @Override
+                void failed(int rc, String path) {
+                    scb.processResult(rc, ledgerPath, null, null);
+                }
+
+                @Override
+                void retry() {
+                    // also creates the parent znodes if they are missing
+                    ZkUtils.asyncCreateFullPathOptimistic(zk, ledgerPath, data, zkAcls,
+                                                          CreateMode.PERSISTENT, scb, null);
+                }
+            });
+        } else {
+            ZkUtils.asyncCreateFullPathOptimistic(zk, ledgerPath, data, zkAcls,
+                                                  CreateMode.PERSISTENT, scb, null);
+        }
         return promise;
     }
 
@@ -445,6 +481,123 @@ public abstract class AbstractZkLedgerManager implements LedgerManager, Watcher
         }
     }
 
+    @Override
+    public boolean registerAllLedgersMetadataListener(AllLedgersMetadataListener listener) {
+        Watcher watcher = new AllLedgersWatcher(listener);
+        if (allLedgersWatchers.putIfAbsent(listener, watcher) != null) {
+            return true;
+        }
+        try {
+            // a single persistent watch on the whole ledgers tree, instead of a watch per ledger
+            zk.addWatch(ledgerRootPath, watcher, AddWatchMode.PERSISTENT_RECURSIVE);
+            return true;
+        } catch (KeeperException e) {
+            LOG.warn("Failed to watch the metadata of all the ledgers under {}", ledgerRootPath, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while watching the metadata of all the ledgers under {}", ledgerRootPath, e);
+        }
+        allLedgersWatchers.remove(listener, watcher);
+        return false;
+    }
+
+    @Override
+    public void unregisterAllLedgersMetadataListener(AllLedgersMetadataListener listener) {
+        Watcher watcher = allLedgersWatchers.remove(listener);
+        if (watcher != null) {
+            cancelAllLedgersWatch(watcher);
+        }
+    }
+
+    private void cancelAllLedgersWatch(Watcher watcher) {
+        zk.removeWatches(ledgerRootPath, watcher, WatcherType.Any, true, new VoidCallback() {
+            @Override
+            public void processResult(int rc, String path, Object o) {
+                if (rc != KeeperException.Code.OK.intValue() && rc != KeeperException.Code.NOWATCHER.intValue()) {
+                    LOG.warn("Cancel watch on the metadata of all the ledgers failed.",
+                            KeeperException.create(KeeperException.Code.get(rc), path));
+                }
+            }
+        }, null);
+    }
+
+    /**
+     * Get the id of the ledger stored at a path of the ledgers tree.
+     *
+     * @return the ledger id, or -1 if the path is not the one of a ledger
+     */
+    private long getLedgerIdOfTreePath(String path) {
+        if (path == null || !path.startsWith(ledgerRootPath + "/")) {
+            return -1;
+        }
+        String relativePath = path.substring(ledgerRootPath.length() + 1);
+        int slash = relativePath.indexOf('/');
+        String topZnode = slash < 0 ? relativePath : relativePath.substring(0, slash);
+        String znode = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+        if (isSpecialZnode(topZnode) || !znode.startsWith(StringUtils.LEDGER_NODE_PREFIX)) {
+            return -1;
+        }
+        try {
+            return getLedgerId(path);
+        } catch (IOException ioe) {
+            return -1;
+        }
+    }
+
+    /**
+     * Persistent recursive watcher on the ledgers tree, notifying a listener on the metadata of all the ledgers.
+     */
+    private class AllLedgersWatcher implements Watcher {
+        private final AllLedgersMetadataListener listener;
+
+        AllLedgersWatcher(AllLedgersMetadataListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (Event.EventType.None == event.getType()) {
+                if (Event.KeeperState.Disconnected == event.getState()
+                        || Event.KeeperState.Expired == event.getState()) {
+                    // the events while disconnected are lost
+                    if (allLedgersWatchers.remove(listener, this)) {
+                        LOG.info("Lost the watch on the metadata of all the ledgers ({}).", event.getState());
+                        cancelAllLedgersWatch(this);
+                        listener.onChangesMissed();
+                    }
+                }
+                return;
+            }
+            long ledgerId = getLedgerIdOfTreePath(event.getPath());
+            if (ledgerId < 0 || allLedgersWatchers.get(listener) != this) {
+                return;
+            }
+            switch (event.getType()) {
+            case NodeDeleted:
+                listener.onChanged(ledgerId, null);
+                break;
+            case NodeCreated:
+            case NodeDataChanged:
+                readLedgerMetadata(ledgerId).whenComplete((metadata, exception) -> {
+                    if (exception == null) {
+                        listener.onChanged(ledgerId, metadata);
+                    } else if (BKException.getExceptionCode(exception)
+                            != BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
+                        // the ledger is deleted otherwise, which is notified by its own event
+                        LOG.warn("Failed to read the metadata of ledger {} after it changed", ledgerId, exception);
+                        if (allLedgersWatchers.remove(listener, this)) {
+                            cancelAllLedgersWatch(this);
+                            listener.onChangesMissed();
+                        }
+                    }
+                });
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
     private void cancelMetadataWatch(long ledgerId, Watcher watcher) {
         zk.removeWatches(getLedgerPath(ledgerId), watcher, WatcherType.Data, true, new VoidCallback() {
             @Override
@@ -466,6 +619,11 @@ public abstract class AbstractZkLedgerManager implements LedgerManager, Watcher
         return readLedgerMetadata(ledgerId, null);
     }
 
+    @Override
+    public CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> readLedgerMetadata(Collection<Long> ledgerIds) {
+        return BulkLedgerMetadataReader.read(this, ledgerIds, conf.getLedgerMetadataBulkReadConcurrency());
+    }
+
     protected CompletableFuture<Versioned<LedgerMetadata>> readLedgerMetadata(final long ledgerId, Watcher watcher) {
         CompletableFuture<Versioned<LedgerMetadata>> promise = new CompletableFuture<>();
         zk.getData(getLedgerPath(ledgerId), watcher, new DataCallback() {
@@ -526,9 +684,7 @@ public abstract class AbstractZkLedgerManager implements LedgerManager, Watcher
             promise.completeExceptionally(new BKException.BKMetadataSerializationException(ioe));
             return promise;
         }
-        zk.setData(getLedgerPath(ledgerId),
-                   data, (int) zv.getLongVersion(),
-                   new StatCallback() {
+        StatCallback statCallback = new StatCallback() {
             @Override
             public void processResult(int rc, String path, Object ctx, Stat stat) {
                 if (KeeperException.Code.BADVERSION.intValue() == rc) {
@@ -545,7 +701,30 @@ public abstract class AbstractZkLedgerManager implements LedgerManager, Watcher
                             new BKException.ZKException(KeeperException.create(Code.get(rc), path)));
                 }
             }
-        }, null);
+        };
+        final String ledgerPath = getLedgerPath(ledgerId);
+        if (writeBatcher != null) {
+            writeBatcher.submit(new ZkMultiBatcher.BatchedOp(
+                    Op.setData(ledgerPath, data, (int) zv.getLongVersion()), data) {
+                @Override
+                void succeeded(OpResult result) {
+                    statCallback.processResult(Code.OK.intValue(), ledgerPath, null,
+                            ((OpResult.SetDataResult) result).getStat());
+                }
+
+                @Override
+                void failed(int rc, String path) {
+                    statCallback.processResult(rc, ledgerPath, null, null);
+                }
+
+                @Override
+                void retry() {
+                    zk.setData(ledgerPath, data, (int) zv.getLongVersion(), statCallback, null);
+                }
+            });
+        } else {
+            zk.setData(ledgerPath, data, (int) zv.getLongVersion(), statCallback, null);
+        }
         return promise;
     }
 
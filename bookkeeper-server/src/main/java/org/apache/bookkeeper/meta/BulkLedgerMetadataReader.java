@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.meta;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.versioning.Versioned;
+
+/**
+ * Reads the metadata of many ledgers, keeping a bounded number of reads outstanding on the metadata store so that
+ * the reads are pipelined rather than issued one after the other, without flooding the store.
+ */
+class BulkLedgerMetadataReader {
+
+    static final int DEFAULT_CONCURRENCY = 256;
+
+    private final LedgerManager ledgerManager;
+    private final Iterator<Long> ledgerIds;
+    private final int concurrency;
+    private final CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> promise = new CompletableFuture<>();
+    // guards against recursion when the reads complete in the calling thread
+    private final AtomicInteger wip = new AtomicInteger(0);
+
+    // guarded by this
+    private final Map<Long, Versioned<LedgerMetadata>> result = new HashMap<>();
+    private int outstanding = 0;
+
+    private BulkLedgerMetadataReader(LedgerManager ledgerManager, Collection<Long> ledgerIds, int concurrency) {
+        this.ledgerManager = ledgerManager;
+        this.ledgerIds = ledgerIds.iterator();
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    static CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> read(LedgerManager ledgerManager,
+                                                                         Collection<Long> ledgerIds,
+                                                                         int concurrency) {
+        BulkLedgerMetadataReader reader = new BulkLedgerMetadataReader(ledgerManager, ledgerIds, concurrency);
+        reader.readMore();
+        return reader.promise;
+    }
+
+    private void readMore() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            while (true) {
+                final long ledgerId;
+                synchronized (this) {
+                    if (promise.isDone() || outstanding >= concurrency) {
+                        break;
+                    }
+                    if (!ledgerIds.hasNext()) {
+                        if (outstanding == 0) {
+                            promise.complete(result);
+                        }
+                        break;
+                    }
+                    ledgerId = ledgerIds.next();
+                    outstanding++;
+                }
+                ledgerManager.readLedgerMetadata(ledgerId)
+                        .whenComplete((metadata, exception) -> readComplete(ledgerId, metadata, exception));
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    private void readComplete(long ledgerId, Versioned<LedgerMetadata> metadata, Throwable exception) {
+        synchronized (this) {
+            outstanding--;
+            if (exception == null) {
+                result.put(ledgerId, metadata);
+            } else if (BKException.getExceptionCode(exception)
+                    != BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
+                promise.completeExceptionally(exception);
+                return;
+            }
+        }
+        readMore();
+    }
+}
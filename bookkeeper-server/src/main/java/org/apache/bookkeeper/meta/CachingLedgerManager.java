@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.meta;
+
+import static org.apache.bookkeeper.client.BookKeeperClientStats.LEDGER_METADATA_CACHE_HITS;
+import static org.apache.bookkeeper.client.BookKeeperClientStats.LEDGER_METADATA_CACHE_MISSES;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.Processor;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+import org.apache.bookkeeper.versioning.Version;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.apache.zookeeper.AsyncCallback;
+
+/**
+ * A ledger manager caching the metadata of the ledgers, bounded by the estimated size of the cached metadata.
+ *
+ * <p>The metadata of a closed ledger is cached until it is evicted, as it only changes when its ensembles are
+ * replaced by the re-replication, in which case a write based on the cached version is rejected and invalidates
+ * it. The metadata of an open ledger is only cached while a metadata listener is registered on the ledger, the
+ * notifications of the listener keeping the cached metadata up to date. The metadata written through this ledger
+ * manager updates the cache, but a ledger deleted by another client is still found in the cache until it is
+ * evicted.
+ */
+public class CachingLedgerManager implements LedgerManager {
+
+    private final LedgerManager underlying;
+    private final Cache<Long, Versioned<LedgerMetadata>> cache;
+    // number of listeners registered on each ledger, whose metadata is kept up to date by them
+    private final ConcurrentMap<Long, Integer> watchedLedgers = new ConcurrentHashMap<>();
+
+    @StatsDoc(
+        name = LEDGER_METADATA_CACHE_HITS,
+        help = "Number of ledger metadata reads served from the cache"
+    )
+    private final Counter cacheHits;
+    @StatsDoc(
+        name = LEDGER_METADATA_CACHE_MISSES,
+        help = "Number of ledger metadata reads served from the metadata store"
+    )
+    private final Counter cacheMisses;
+
+    public CachingLedgerManager(LedgerManager underlying, long maxSizeBytes, StatsLogger statsLogger) {
+        this.underlying = underlying;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxSizeBytes)
+                .weigher((Long ledgerId, Versioned<LedgerMetadata> metadata) -> estimateSize(metadata.getValue()))
+                .build();
+        this.cacheHits = statsLogger.getCounter(LEDGER_METADATA_CACHE_HITS);
+        this.cacheMisses = statsLogger.getCounter(LEDGER_METADATA_CACHE_MISSES);
+    }
+
+    private static int estimateSize(LedgerMetadata metadata) {
+        long size = 256 + metadata.getPassword().length;
+        for (List<BookieId> ensemble : metadata.getAllEnsembles().values()) {
+            size += 32 + 48L * ensemble.size();
+        }
+        for (Map.Entry<String, byte[]> entry : metadata.getCustomMetadata().entrySet()) {
+            size += 32 + 2L * entry.getKey().length() + entry.getValue().length;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    private boolean isCacheable(long ledgerId, Versioned<LedgerMetadata> metadata) {
+        return metadata.getValue().isClosed() || watchedLedgers.containsKey(ledgerId);
+    }
+
+    private void cache(long ledgerId, Versioned<LedgerMetadata> metadata) {
+        if (!isCacheable(ledgerId, metadata)) {
+            cache.invalidate(ledgerId);
+            return;
+        }
+        // never replace the cached metadata by an older version, read before the cached one was written
+        cache.asMap().merge(ledgerId, metadata, (cached, updated) ->
+                cached.getVersion().compare(updated.getVersion()) == Version.Occurred.AFTER ? cached : updated);
+    }
+
+    @Override
+    public CompletableFuture<Versioned<LedgerMetadata>> createLedgerMetadata(long ledgerId, LedgerMetadata metadata) {
+        return underlying.createLedgerMetadata(ledgerId, metadata);
+    }
+
+    @Override
+    public CompletableFuture<Void> removeLedgerMetadata(long ledgerId, Version version) {
+        cache.invalidate(ledgerId);
+        return underlying.removeLedgerMetadata(ledgerId, version)
+                .whenComplete((result, exception) -> cache.invalidate(ledgerId));
+    }
+
+    @Override
+    public CompletableFuture<Versioned<LedgerMetadata>> readLedgerMetadata(long ledgerId) {
+        Versioned<LedgerMetadata> cached = cache.getIfPresent(ledgerId);
+        if (cached != null) {
+            cacheHits.inc();
+            return CompletableFuture.completedFuture(cached);
+        }
+        cacheMisses.inc();
+        return underlying.readLedgerMetadata(ledgerId).whenComplete((metadata, exception) -> {
+            if (exception == null) {
+                cache(ledgerId, metadata);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> readLedgerMetadata(Collection<Long> ledgerIds) {
+        Map<Long, Versioned<LedgerMetadata>> result = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        for (Long ledgerId : ledgerIds) {
+            Versioned<LedgerMetadata> cached = cache.getIfPresent(ledgerId);
+            if (cached != null) {
+                result.put(ledgerId, cached);
+            } else {
+                missing.add(ledgerId);
+            }
+        }
+        cacheHits.addCount(result.size());
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(result);
+        }
+        cacheMisses.addCount(missing.size());
+        return underlying.readLedgerMetadata(missing).thenApply(read -> {
+            read.forEach(this::cache);
+            result.putAll(read);
+            return result;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Versioned<LedgerMetadata>> writeLedgerMetadata(long ledgerId, LedgerMetadata metadata,
+                                                                            Version currentVersion) {
+        return underlying.writeLedgerMetadata(ledgerId, metadata, currentVersion)
+                .whenComplete((written, exception) -> {
+                    if (exception == null) {
+                        cache(ledgerId, written);
+                    } else {
+                        // e.g. the write was based on a stale version, read the metadata again from the store
+                        cache.invalidate(ledgerId);
+                    }
+                });
+    }
+
+    @Override
+    public void registerLedgerMetadataListener(long ledgerId, LedgerMetadataListener listener) {
+        if (null != listener) {
+            watchedLedgers.merge(ledgerId, 1, Integer::sum);
+            underlying.registerLedgerMetadataListener(ledgerId, new CacheUpdatingListener(listener));
+        }
+    }
+
+    @Override
+    public void unregisterLedgerMetadataListener(long ledgerId, LedgerMetadataListener listener) {
+        if (null != listener) {
+            underlying.unregisterLedgerMetadataListener(ledgerId, new CacheUpdatingListener(listener));
+            watchedLedgers.computeIfPresent(ledgerId, (id, count) -> count > 1 ? count - 1 : null);
+            Versioned<LedgerMetadata> cached = cache.getIfPresent(ledgerId);
+            if (cached != null && !isCacheable(ledgerId, cached)) {
+                cache.invalidate(ledgerId);
+            }
+        }
+    }
+
+    @Override
+    public boolean registerAllLedgersMetadataListener(AllLedgersMetadataListener listener) {
+        return underlying.registerAllLedgersMetadataListener(listener);
+    }
+
+    @Override
+    public void unregisterAllLedgersMetadataListener(AllLedgersMetadataListener listener) {
+        underlying.unregisterAllLedgersMetadataListener(listener);
+    }
+
+    /**
+     * Listener updating the cache before notifying the listener registered by the client. Listeners are equal if
+     * they wrap the same listener, so that the listener is unregistered from the underlying ledger manager.
+     */
+    private final class CacheUpdatingListener implements LedgerMetadataListener {
+        private final LedgerMetadataListener listener;
+
+        CacheUpdatingListener(LedgerMetadataListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onChanged(long ledgerId, Versioned<LedgerMetadata> metadata) {
+            if (metadata == null) {
+                // the ledger is deleted
+                cache.invalidate(ledgerId);
+            } else {
+                cache(ledgerId, metadata);
+            }
+            listener.onChanged(ledgerId, metadata);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CacheUpdatingListener && ((CacheUpdatingListener) o).listener.equals(listener);
+        }
+
+        @Override
+        public int hashCode() {
+            return listener.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return listener.toString();
+        }
+    }
+
+    @Override
+    public void asyncProcessLedgers(Processor<Long> processor, AsyncCallback.VoidCallback finalCb, Object context,
+                                    int successRc, int failureRc) {
+        underlying.asyncProcessLedgers(processor, finalCb, context, successRc, failureRc);
+    }
+
+    @Override
+    public LedgerRangeIterator getLedgerRanges(long zkOpTimeoutMs) {
+        return underlying.getLedgerRanges(zkOpTimeoutMs);
+    }
+
+    @Override
+    public void close() throws IOException {
+        cache.invalidateAll();
+        underlying.close();
+    }
+}
@@ -19,7 +19,9 @@ package org.apache.bookkeeper.meta;
 
 import com.google.common.annotations.VisibleForTesting;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
@@ -107,6 +109,16 @@ public class CleanupLedgerManager implements LedgerManager {
         underlying.unregisterLedgerMetadataListener(ledgerId, listener);
     }
 
+    @Override
+    public boolean registerAllLedgersMetadataListener(AllLedgersMetadataListener listener) {
+        return underlying.registerAllLedgersMetadataListener(listener);
+    }
+
+    @Override
+    public void unregisterAllLedgersMetadataListener(AllLedgersMetadataListener listener) {
+        underlying.unregisterAllLedgersMetadataListener(listener);
+    }
+
     private GenericCallback removeCallback(GenericCallback callback) {
         return callbacks.remove(callback);
     }
@@ -172,6 +184,22 @@ public class CleanupLedgerManager implements LedgerManager {
         }
     }
 
+    @Override
+    public CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> readLedgerMetadata(Collection<Long> ledgerIds) {
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                return closedPromise();
+            }
+            CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> promise =
+                underlying.readLedgerMetadata(ledgerIds);
+            recordPromise(promise);
+            return promise;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
     @Override
     public CompletableFuture<Versioned<LedgerMetadata>> writeLedgerMetadata(long ledgerId, LedgerMetadata metadata,
                                                                             Version currentVersion) {
@@ -19,6 +19,8 @@ package org.apache.bookkeeper.meta;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -87,6 +89,19 @@ public interface LedgerManager extends Closeable {
      */
     CompletableFuture<Versioned<LedgerMetadata>> readLedgerMetadata(long ledgerId);
 
+    /**
+     * Read ledger metadata of many ledgers, pipelining the reads.
+     *
+     * @param ledgerIds
+     *          Ledger Ids
+     * @return Future which, when completed, contains the versioned metadata of the ledgers which exist, by ledger id.
+     *         Completed with the exception of the first read failing for another reason than the ledger not
+     *         existing.
+     */
+    default CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> readLedgerMetadata(Collection<Long> ledgerIds) {
+        return BulkLedgerMetadataReader.read(this, ledgerIds, BulkLedgerMetadataReader.DEFAULT_CONCURRENCY);
+    }
+
     /**
      * Write ledger metadata.
      *
@@ -126,6 +141,28 @@ public interface LedgerManager extends Closeable {
      */
     void unregisterLedgerMetadataListener(long ledgerId, LedgerMetadataListener listener);
 
+    /**
+     * Register a <i>listener</i> on the metadata of all the ledgers. The listener is notified of the creation, the
+     * updates and the deletion (with a null metadata) of any ledger, until it is unregistered or until it is notified
+     * that changes were missed.
+     *
+     * @param listener
+     *          listener.
+     * @return true if the listener is registered, false if the ledger manager does not support it.
+     */
+    default boolean registerAllLedgersMetadataListener(AllLedgersMetadataListener listener) {
+        return false;
+    }
+
+    /**
+     * Unregister a <i>listener</i> on the metadata of all the ledgers.
+     *
+     * @param listener
+     *          listener.
+     */
+    default void unregisterAllLedgersMetadataListener(AllLedgersMetadataListener listener) {
+    }
+
     /**
      * Loop to process all ledgers.
      * <p>
@@ -189,6 +226,18 @@ public interface LedgerManager extends Closeable {
         }
     }
 
+    /**
+     * Listener on the metadata of all the ledgers.
+     */
+    interface AllLedgersMetadataListener extends LedgerMetadataListener {
+
+        /**
+         * Triggered when changes may have been missed, e.g. when the connection to the metadata store is lost. The
+         * listener is unregistered, and has to be registered again once it resynchronized its view of the ledgers.
+         */
+        void onChangesMissed();
+    }
+
     /**
      * Interface of the ledger meta range iterator from
      * storage (e.g. in ZooKeeper or other key/value store).
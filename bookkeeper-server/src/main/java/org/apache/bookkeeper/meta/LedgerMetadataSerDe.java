@@ -21,7 +21,10 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.ImmutableList;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.TextFormat;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
@@ -34,10 +37,14 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 import org.apache.bookkeeper.client.LedgerMetadataBuilder;
 import org.apache.bookkeeper.client.LedgerMetadataUtils;
@@ -74,7 +81,14 @@ public class LedgerMetadataSerDe {
      */
     public static final int METADATA_FORMAT_VERSION_3 = 3;
 
-    public static final int MAXIMUM_METADATA_FORMAT_VERSION = METADATA_FORMAT_VERSION_3;
+    /**
+     * Protobuf based, serialized in binary format, with the bookie ids interned into a table and the ensembles
+     * delta-encoded in a single field, each bookie id being parsed once.
+     * Available from v4.16.x onwards, it is only written when explicitly configured.
+     */
+    public static final int METADATA_FORMAT_VERSION_4 = 4;
+
+    public static final int MAXIMUM_METADATA_FORMAT_VERSION = METADATA_FORMAT_VERSION_4;
     public static final int CURRENT_METADATA_FORMAT_VERSION = METADATA_FORMAT_VERSION_3;
     private static final int LOWEST_COMPAT_METADATA_FORMAT_VERSION = METADATA_FORMAT_VERSION_1;
 
@@ -128,6 +142,9 @@ public class LedgerMetadataSerDe {
         int formatVersion = metadata.getMetadataFormatVersion();
         final byte[] serialized;
         switch (formatVersion) {
+        case METADATA_FORMAT_VERSION_4:
+            serialized = serializeVersion4(metadata);
+            break;
         case METADATA_FORMAT_VERSION_3:
             serialized = serializeVersion3(metadata);
             break;
@@ -152,66 +169,132 @@ public class LedgerMetadataSerDe {
         return serialized;
     }
 
+    private static byte[] serializeVersion4(LedgerMetadata metadata) throws IOException {
+        try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
+            writeHeader(os, METADATA_FORMAT_VERSION_4);
+            LedgerMetadataFormat.Builder builder = toBinaryFormat(metadata);
+            encodeCompactEnsembles(metadata, builder);
+            builder.build().writeDelimitedTo(os);
+            return os.toByteArray();
+        }
+    }
+
     private static byte[] serializeVersion3(LedgerMetadata metadata) throws IOException {
         try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
             writeHeader(os, METADATA_FORMAT_VERSION_3);
-            LedgerMetadataFormat.Builder builder = LedgerMetadataFormat.newBuilder();
-            builder.setQuorumSize(metadata.getWriteQuorumSize())
-                .setAckQuorumSize(metadata.getAckQuorumSize())
-                .setEnsembleSize(metadata.getEnsembleSize())
-                .setLength(metadata.getLength())
-                .setLastEntryId(metadata.getLastEntryId());
-
-            switch (metadata.getState()) {
-            case CLOSED:
-                builder.setState(LedgerMetadataFormat.State.CLOSED);
-                break;
-            case IN_RECOVERY:
-                builder.setState(LedgerMetadataFormat.State.IN_RECOVERY);
-                break;
-            case OPEN:
-                builder.setState(LedgerMetadataFormat.State.OPEN);
-                break;
-            default:
-                checkArgument(false,
-                              String.format("Unknown state %s for protobuf serialization", metadata.getState()));
-                break;
+            LedgerMetadataFormat.Builder builder = toBinaryFormat(metadata);
+            for (Map.Entry<Long, ? extends List<BookieId>> entry : metadata.getAllEnsembles().entrySet()) {
+                LedgerMetadataFormat.Segment.Builder segmentBuilder = LedgerMetadataFormat.Segment.newBuilder();
+                segmentBuilder.setFirstEntryId(entry.getKey());
+                for (BookieId addr : entry.getValue()) {
+                    segmentBuilder.addEnsembleMember(addr.toString());
+                }
+                builder.addSegment(segmentBuilder.build());
             }
+            builder.build().writeDelimitedTo(os);
+            return os.toByteArray();
+        }
+    }
 
-            /** Hack to get around fact that ctime was never versioned correctly */
-            if (LedgerMetadataUtils.shouldStoreCtime(metadata)) {
-                builder.setCtime(metadata.getCtime());
-            }
+    /**
+     * Fields shared by the binary formats, all but the ensembles.
+     */
+    private static LedgerMetadataFormat.Builder toBinaryFormat(LedgerMetadata metadata) {
+        LedgerMetadataFormat.Builder builder = LedgerMetadataFormat.newBuilder();
+        builder.setQuorumSize(metadata.getWriteQuorumSize())
+            .setAckQuorumSize(metadata.getAckQuorumSize())
+            .setEnsembleSize(metadata.getEnsembleSize())
+            .setLength(metadata.getLength())
+            .setLastEntryId(metadata.getLastEntryId());
+
+        switch (metadata.getState()) {
+        case CLOSED:
+            builder.setState(LedgerMetadataFormat.State.CLOSED);
+            break;
+        case IN_RECOVERY:
+            builder.setState(LedgerMetadataFormat.State.IN_RECOVERY);
+            break;
+        case OPEN:
+            builder.setState(LedgerMetadataFormat.State.OPEN);
+            break;
+        default:
+            checkArgument(false,
+                          String.format("Unknown state %s for protobuf serialization", metadata.getState()));
+            break;
+        }
 
+        /** Hack to get around fact that ctime was never versioned correctly */
+        if (LedgerMetadataUtils.shouldStoreCtime(metadata)) {
+            builder.setCtime(metadata.getCtime());
+        }
 
-            builder.setDigestType(apiToProtoDigestType(metadata.getDigestType()));
 
-            serializePassword(metadata.getPassword(), builder);
+        builder.setDigestType(apiToProtoDigestType(metadata.getDigestType()));
 
-            Map<String, byte[]> customMetadata = metadata.getCustomMetadata();
-            if (customMetadata.size() > 0) {
-                LedgerMetadataFormat.cMetadataMapEntry.Builder cMetadataBuilder =
-                    LedgerMetadataFormat.cMetadataMapEntry.newBuilder();
-                for (Map.Entry<String, byte[]> entry : customMetadata.entrySet()) {
-                    cMetadataBuilder.setKey(entry.getKey()).setValue(ByteString.copyFrom(entry.getValue()));
-                    builder.addCustomMetadata(cMetadataBuilder.build());
-                }
+        serializePassword(metadata.getPassword(), builder);
+
+        Map<String, byte[]> customMetadata = metadata.getCustomMetadata();
+        if (customMetadata.size() > 0) {
+            LedgerMetadataFormat.cMetadataMapEntry.Builder cMetadataBuilder =
+                LedgerMetadataFormat.cMetadataMapEntry.newBuilder();
+            for (Map.Entry<String, byte[]> entry : customMetadata.entrySet()) {
+                cMetadataBuilder.setKey(entry.getKey()).setValue(ByteString.copyFrom(entry.getValue()));
+                builder.addCustomMetadata(cMetadataBuilder.build());
             }
+        }
 
-            for (Map.Entry<Long, ? extends List<BookieId>> entry : metadata.getAllEnsembles().entrySet()) {
-                LedgerMetadataFormat.Segment.Builder segmentBuilder = LedgerMetadataFormat.Segment.newBuilder();
-                segmentBuilder.setFirstEntryId(entry.getKey());
-                for (BookieId addr : entry.getValue()) {
-                    segmentBuilder.addEnsembleMember(addr.toString());
+        builder.setCToken(metadata.getCToken());
+        return builder;
+    }
+
+    /**
+     * Encode the ensembles of the metadata in the compact form of version 4.
+     *
+     * <p>Each distinct bookie is written once in the bookie table. The ensembles are written as the number of
+     * segments followed by, for each segment, the delta of its first entry id with the previous segment, and the
+     * positions of the ensemble which changed since the previous segment, with the table index of their bookie.
+     */
+    private static void encodeCompactEnsembles(LedgerMetadata metadata, LedgerMetadataFormat.Builder builder)
+            throws IOException {
+        Map<BookieId, Integer> bookieIndexes = new HashMap<>();
+        ByteString.Output output = ByteString.newOutput();
+        CodedOutputStream cos = CodedOutputStream.newInstance(output);
+
+        NavigableMap<Long, ? extends List<BookieId>> ensembles = metadata.getAllEnsembles();
+        cos.writeUInt32NoTag(ensembles.size());
+        long prevFirstEntryId = 0;
+        List<BookieId> prevEnsemble = null;
+        int[] changed = new int[metadata.getEnsembleSize()];
+        for (Map.Entry<Long, ? extends List<BookieId>> entry : ensembles.entrySet()) {
+            List<BookieId> ensemble = entry.getValue();
+            checkArgument(ensemble.size() == metadata.getEnsembleSize(),
+                          "Ensemble %s does not match the ensemble size %s", ensemble, metadata.getEnsembleSize());
+            cos.writeSInt64NoTag(entry.getKey() - prevFirstEntryId);
+
+            int numChanged = 0;
+            for (int i = 0; i < ensemble.size(); i++) {
+                if (prevEnsemble == null || !ensemble.get(i).equals(prevEnsemble.get(i))) {
+                    changed[numChanged++] = i;
                 }
-                builder.addSegment(segmentBuilder.build());
+            }
+            cos.writeUInt32NoTag(numChanged);
+            for (int j = 0; j < numChanged; j++) {
+                BookieId bookie = ensemble.get(changed[j]);
+                Integer index = bookieIndexes.get(bookie);
+                if (index == null) {
+                    index = bookieIndexes.size();
+                    bookieIndexes.put(bookie, index);
+                    builder.addBookieId(bookie.toString());
+                }
+                cos.writeUInt32NoTag(changed[j]);
+                cos.writeUInt32NoTag(index);
             }
 
-            builder.setCToken(metadata.getCToken());
-
-            builder.build().writeDelimitedTo(os);
-            return os.toByteArray();
+            prevFirstEntryId = entry.getKey();
+            prevEnsemble = ensemble;
         }
+        cos.flush();
+        builder.setCompactEnsembles(output.toByteString());
     }
 
     private static byte[] serializeVersion2(LedgerMetadata metadata) throws IOException {
@@ -344,6 +427,7 @@ public class LedgerMetadataSerDe {
         }
         try (ByteArrayInputStream is = new ByteArrayInputStream(bytes)) {
             int metadataFormatVersion = readHeader(is);
+            int bodyOffset = bytes.length - is.available();
             if (log.isDebugEnabled()) {
                 String contentStr = "";
                 if (metadataFormatVersion <= METADATA_FORMAT_VERSION_2) {
@@ -353,6 +437,8 @@ public class LedgerMetadataSerDe {
             }
 
             switch (metadataFormatVersion) {
+            case METADATA_FORMAT_VERSION_4:
+                return parseVersion4Config(ledgerId, bytes, bodyOffset, metadataStoreCtime);
             case METADATA_FORMAT_VERSION_3:
                 return parseVersion3Config(ledgerId, is, metadataStoreCtime);
             case METADATA_FORMAT_VERSION_2:
@@ -362,12 +448,96 @@ public class LedgerMetadataSerDe {
             default:
                 throw new IOException(
                         String.format("Metadata version not compatible. Expected between %d and %d, but got %d",
-                                      LOWEST_COMPAT_METADATA_FORMAT_VERSION, CURRENT_METADATA_FORMAT_VERSION,
+                                      LOWEST_COMPAT_METADATA_FORMAT_VERSION, MAXIMUM_METADATA_FORMAT_VERSION,
                                       metadataFormatVersion));
             }
         }
     }
 
+    private static LedgerMetadata parseVersion4Config(long ledgerId, byte[] bytes, int offset,
+                                                      Optional<Long> metadataStoreCtime) throws IOException {
+        LedgerMetadataBuilder builder = LedgerMetadataBuilder.create()
+                .withId(ledgerId)
+                .withMetadataFormatVersion(METADATA_FORMAT_VERSION_4);
+        // parse the body in place, the bytes fields of the message share the array rather than copying it.
+        // Nothing of the message is retained once the metadata is built.
+        CodedInputStream cis = CodedInputStream.newInstance(bytes, offset, bytes.length - offset);
+        cis.enableAliasing(true);
+        cis.pushLimit(cis.readRawVarint32());
+        LedgerMetadataFormat data = LedgerMetadataFormat.parseFrom(cis);
+        if (data.getSegmentCount() > 0 || !data.hasCompactEnsembles()) {
+            throw new IOException("Ledger metadata of ledger " + ledgerId + " has no compact ensembles");
+        }
+        decodeFormat(data, builder);
+        try {
+            for (Map.Entry<Long, List<BookieId>> e : decodeCompactEnsembles(data.getCompactEnsembles(),
+                    data.getBookieIdList(), data.getEnsembleSize()).entrySet()) {
+                builder.newEnsembleEntry(e.getKey(), e.getValue());
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IOException("Unable to decode the ensembles of ledger " + ledgerId, e);
+        }
+
+        if (data.hasCtime()) {
+            builder.storingCreationTime(true);
+        } else if (metadataStoreCtime.isPresent()) {
+            builder.withCreationTime(metadataStoreCtime.get()).storingCreationTime(false);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Decode and validate the compact ensembles written by {@link #encodeCompactEnsembles}.
+     */
+    private static NavigableMap<Long, List<BookieId>> decodeCompactEnsembles(ByteString compactEnsembles,
+                                                                            List<String> bookieTable,
+                                                                            int ensembleSize) throws IOException {
+        if (ensembleSize <= 0) {
+            throw new IOException("Invalid ensemble size " + ensembleSize);
+        }
+        // each bookie of the table is parsed once, however many segments it is part of
+        BookieId[] bookies = new BookieId[bookieTable.size()];
+        CodedInputStream cis = compactEnsembles.newCodedInput();
+        NavigableMap<Long, List<BookieId>> ensembles = new TreeMap<>();
+
+        int numSegments = cis.readUInt32();
+        if (numSegments <= 0) {
+            throw new IOException("Invalid number of ensembles " + numSegments);
+        }
+        long firstEntryId = 0;
+        BookieId[] ensemble = new BookieId[ensembleSize];
+        for (int s = 0; s < numSegments; s++) {
+            long delta = cis.readSInt64();
+            if ((s == 0 && delta < 0) || (s > 0 && delta <= 0) || firstEntryId + delta < firstEntryId) {
+                throw new IOException("Invalid first entry id delta " + delta + " after entry " + firstEntryId);
+            }
+            firstEntryId += delta;
+            int numChanged = cis.readUInt32();
+            if (numChanged < 0 || numChanged > ensembleSize) {
+                throw new IOException("Invalid number of ensemble changes " + numChanged);
+            }
+            for (int j = 0; j < numChanged; j++) {
+                int position = cis.readUInt32();
+                int index = cis.readUInt32();
+                if (position < 0 || position >= ensembleSize || index < 0 || index >= bookies.length) {
+                    throw new IOException("Invalid ensemble member " + index + " at position " + position);
+                }
+                if (bookies[index] == null) {
+                    bookies[index] = BookieId.parse(bookieTable.get(index));
+                }
+                ensemble[position] = bookies[index];
+            }
+            if (s == 0 && Arrays.asList(ensemble).contains(null)) {
+                throw new IOException("Incomplete first ensemble");
+            }
+            ensembles.put(firstEntryId, ImmutableList.copyOf(ensemble));
+        }
+        if (!cis.isAtEnd()) {
+            throw new IOException("Unexpected data after " + numSegments + " ensembles");
+        }
+        return ensembles;
+    }
+
     private static LedgerMetadata parseVersion3Config(long ledgerId, InputStream is, Optional<Long> metadataStoreCtime)
             throws IOException {
         LedgerMetadataBuilder builder = LedgerMetadataBuilder.create()
@@ -202,6 +202,26 @@ public interface LedgerUnderreplicationManager extends AutoCloseable {
      */
     long getCheckAllLedgersCTime() throws ReplicationException.UnavailableException;
 
+    /**
+     * Setter for the progress of the CheckAllLedgers in progress, which is cleared when the CheckAllLedgers last
+     * executed ctime is set.
+     *
+     * @param ledgerId all the ledgers below this ledger id were checked
+     * @throws ReplicationException.UnavailableException
+     */
+    default void setCheckAllLedgersCheckpoint(long ledgerId) throws ReplicationException.UnavailableException {
+    }
+
+    /**
+     * Getter for the progress of the CheckAllLedgers in progress.
+     *
+     * @return the ledger id below which all the ledgers were checked, or -1 if no check is in progress
+     * @throws ReplicationException.UnavailableException
+     */
+    default long getCheckAllLedgersCheckpoint() throws ReplicationException.UnavailableException {
+        return -1;
+    }
+
     /**
      * Setter for the PlacementPolicyCheck last executed ctime.
      *
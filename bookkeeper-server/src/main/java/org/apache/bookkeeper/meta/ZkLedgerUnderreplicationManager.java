@@ -999,6 +999,61 @@ public class ZkLedgerUnderreplicationManager implements LedgerUnderreplicationMa
         }
     }
 
+    @Override
+    public void setCheckAllLedgersCheckpoint(long ledgerId) throws UnavailableException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("setCheckAllLedgersCheckpoint {}", ledgerId);
+        }
+        try {
+            List<ACL> zkAcls = ZkUtils.getACLs(conf);
+            CheckAllLedgersFormat.Builder builder = CheckAllLedgersFormat.newBuilder();
+            boolean exists = true;
+            try {
+                // keep the ctime of the last executed check
+                builder.mergeFrom(zkc.getData(checkAllLedgersCtimeZnode, false, null));
+            } catch (KeeperException.NoNodeException ne) {
+                exists = false;
+            }
+            if (ledgerId >= 0) {
+                builder.setCheckpointLedgerId(ledgerId);
+            } else {
+                builder.clearCheckpointLedgerId();
+            }
+            byte[] checkAllLedgersFormatByteArray = builder.build().toByteArray();
+            if (exists) {
+                zkc.setData(checkAllLedgersCtimeZnode, checkAllLedgersFormatByteArray, -1);
+            } else {
+                zkc.create(checkAllLedgersCtimeZnode, checkAllLedgersFormatByteArray, zkAcls, CreateMode.PERSISTENT);
+            }
+        } catch (KeeperException ke) {
+            throw ReplicationException.fromKeeperException("Error contacting zookeeper", ke);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ReplicationException.UnavailableException("Interrupted while contacting zookeeper", ie);
+        } catch (InvalidProtocolBufferException ipbe) {
+            throw new ReplicationException.UnavailableException("Error while parsing ZK protobuf binary data", ipbe);
+        }
+    }
+
+    @Override
+    public long getCheckAllLedgersCheckpoint() throws UnavailableException {
+        try {
+            byte[] data = zkc.getData(checkAllLedgersCtimeZnode, false, null);
+            CheckAllLedgersFormat checkAllLedgersFormat = CheckAllLedgersFormat.parseFrom(data);
+            return checkAllLedgersFormat.hasCheckpointLedgerId() ? checkAllLedgersFormat.getCheckpointLedgerId()
+                    : -1;
+        } catch (KeeperException.NoNodeException ne) {
+            return -1;
+        } catch (KeeperException ke) {
+            throw ReplicationException.fromKeeperException("Error contacting zookeeper", ke);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new ReplicationException.UnavailableException("Interrupted while contacting zookeeper", ie);
+        } catch (InvalidProtocolBufferException ipbe) {
+            throw new ReplicationException.UnavailableException("Error while parsing ZK protobuf binary data", ipbe);
+        }
+    }
+
     @Override
     public void setPlacementPolicyCheckCTime(long placementPolicyCheckCTime) throws UnavailableException {
         if (LOG.isDebugEnabled()) {
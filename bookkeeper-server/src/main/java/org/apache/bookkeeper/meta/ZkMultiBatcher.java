@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.meta;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooKeeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Groups zookeeper write operations into multi operations.
+ *
+ * <p>An operation submitted while no batch is in flight is sent right away, in a batch of its own. The operations
+ * submitted while a batch is in flight are queued, and sent together in the next batch once it completes, so the
+ * number of round trips shrinks as the load grows without delaying the operations under a light load.
+ *
+ * <p>A batch is bounded both by its number of operations and by the estimated size of its request, which zookeeper
+ * servers reject past {@code jute.maxbuffer} (1MB by default). An operation larger than the bound is sent in a batch
+ * of its own.
+ *
+ * <p>A multi operation is atomic, so a single failing operation fails the whole batch. In that case every operation
+ * of the batch is retried on its own, so that each of them gets the outcome it would have had without batching.
+ */
+class ZkMultiBatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZkMultiBatcher.class);
+
+    /**
+     * Max estimated size of the request of a batch, half of the max size of a request of zookeeper since the sizes
+     * of the operations are only estimated.
+     */
+    static final int DEFAULT_MAX_BATCH_BYTES = Integer.getInteger("jute.maxbuffer", 0xfffff) / 2;
+
+    // estimated size of an operation in a request, besides its path and data: the header of the operation, the
+    // lengths of its fields, its version or flags and its acls
+    private static final int OP_OVERHEAD_BYTES = 256;
+
+    /**
+     * An operation of a batch.
+     */
+    abstract static class BatchedOp {
+        final Op op;
+        final int estimatedBytes;
+
+        /**
+         * @param op the operation
+         * @param data the data written by the operation, if any
+         */
+        BatchedOp(Op op, byte[] data) {
+            this.op = op;
+            this.estimatedBytes = OP_OVERHEAD_BYTES + op.getPath().length() + (data == null ? 0 : data.length);
+        }
+
+        /**
+         * The batch was applied.
+         */
+        abstract void succeeded(OpResult result);
+
+        /**
+         * The batch failed without any result for its operations, e.g. as the session expired.
+         */
+        abstract void failed(int rc, String path);
+
+        /**
+         * The batch was rejected, issue the operation on its own.
+         */
+        abstract void retry();
+    }
+
+    private final ZooKeeper zk;
+    private final int maxBatchSize;
+    private final int maxBatchBytes;
+
+    // guarded by this
+    private final ArrayDeque<BatchedOp> pending = new ArrayDeque<>();
+    private boolean inFlight = false;
+
+    ZkMultiBatcher(ZooKeeper zk, int maxBatchSize) {
+        this(zk, maxBatchSize, DEFAULT_MAX_BATCH_BYTES);
+    }
+
+    ZkMultiBatcher(ZooKeeper zk, int maxBatchSize, int maxBatchBytes) {
+        this.zk = zk;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    void submit(BatchedOp op) {
+        synchronized (this) {
+            pending.add(op);
+            if (inFlight) {
+                return;
+            }
+            inFlight = true;
+        }
+        sendNextBatch();
+    }
+
+    private void sendNextBatch() {
+        final List<BatchedOp> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                inFlight = false;
+                return;
+            }
+            batch = new ArrayList<>(Math.min(pending.size(), maxBatchSize));
+            long batchBytes = 0;
+            while (batch.size() < maxBatchSize && !pending.isEmpty()) {
+                BatchedOp op = pending.peek();
+                if (!batch.isEmpty() && batchBytes + op.estimatedBytes > maxBatchBytes) {
+                    break;
+                }
+                batch.add(pending.poll());
+                batchBytes += op.estimatedBytes;
+            }
+        }
+
+        List<Op> ops = new ArrayList<>(batch.size());
+        for (BatchedOp op : batch) {
+            ops.add(op.op);
+        }
+        try {
+            zk.multi(ops, (rc, path, ctx, opResults) -> {
+                // keep the pipeline going before notifying the operations of this batch
+                sendNextBatch();
+                batchComplete(batch, rc, path, opResults);
+            }, null);
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to send a batch of {} operations to zookeeper, sending them one by one", batch.size(), e);
+            sendNextBatch();
+            for (BatchedOp op : batch) {
+                op.retry();
+            }
+        }
+    }
+
+    private static void batchComplete(List<BatchedOp> batch, int rc, String path, List<OpResult> opResults) {
+        if (rc == Code.OK.intValue()) {
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).succeeded(opResults.get(i));
+            }
+        } else if (opResults != null && opResults.size() == batch.size()) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Batch of {} operations rejected by zookeeper ({}), sending them one by one",
+                        batch.size(), Code.get(rc));
+            }
+            for (BatchedOp op : batch) {
+                op.retry();
+            }
+        } else {
+            for (BatchedOp op : batch) {
+                op.failed(rc, path);
+            }
+        }
+    }
+}
@@ -21,7 +21,6 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -64,21 +63,29 @@ public class NetUtils {
         return hostNames;
     }
 
+    /**
+     * Get the name of an address to resolve with the given dns resolver, either its host name or its ip address.
+     *
+     * @param dnsResolver dns resolver
+     * @param addr address to resolve
+     * @return the name of the address to resolve
+     */
+    public static String getResolvableName(DNSToSwitchMapping dnsResolver,
+                                           BookieSocketAddress addr) {
+        if (dnsResolver.useHostName()) {
+            return addr.getHostName();
+        }
+        InetAddress inetAddress = addr.getSocketAddress().getAddress();
+        if (null == inetAddress) {
+            return addr.getHostName();
+        }
+        return inetAddress.getHostAddress();
+    }
+
     public static String resolveNetworkLocation(DNSToSwitchMapping dnsResolver,
                                                 BookieSocketAddress addr) {
         List<String> names = new ArrayList<String>(1);
-
-        InetSocketAddress inetSocketAddress = addr.getSocketAddress();
-        if (dnsResolver.useHostName()) {
-            names.add(addr.getHostName());
-        } else {
-            InetAddress inetAddress = inetSocketAddress.getAddress();
-            if (null == inetAddress) {
-                names.add(addr.getHostName());
-            } else {
-                names.add(inetAddress.getHostAddress());
-            }
-        }
+        names.add(getResolvableName(dnsResolver, addr));
 
         // resolve network addresses
         List<String> rNames = dnsResolver.resolve(names);
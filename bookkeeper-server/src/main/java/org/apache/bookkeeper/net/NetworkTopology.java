@@ -90,4 +90,20 @@ public interface NetworkTopology {
      * @return number of available nodes
      */
     int countNumOfAvailableNodes(String scope, Collection<Node> excludedNodes);
+
+    /**
+     * Start a batch of changes to the network topology.
+     *
+     * <p>The nodes added or removed until the matching {@link #endUpdate()} may only become visible to
+     * {@link #getLeaves(String)}, {@link #getNumOfRacks()} and {@link #countNumOfAvailableNodes(String, Collection)}
+     * at the end of the batch. Batches may be nested.
+     */
+    default void beginUpdate() {
+    }
+
+    /**
+     * End a batch of changes to the network topology started by {@link #beginUpdate()}.
+     */
+    default void endUpdate() {
+    }
 }
@@ -18,11 +18,15 @@
 package org.apache.bookkeeper.net;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -389,11 +393,124 @@ public class NetworkTopologyImpl implements NetworkTopology {
      * The lock used to manage access.
      */
     protected ReadWriteLock netlock = new ReentrantReadWriteLock();
+    /**
+     * Immutable copy of the leaves of the topology, replaced on each change of the topology, so that the leaves are
+     * looked up without the lock when the placement policies select bookies.
+     */
+    private volatile LeavesSnapshot leavesSnapshot = LeavesSnapshot.EMPTY;
+    /**
+     * Number of batches of changes in progress, and whether the snapshot of the leaves misses some of their changes.
+     * Both are guarded by the writelock of 'netlock'.
+     */
+    private int numOfUpdatesInProgress = 0;
+    private boolean leavesSnapshotStale = false;
+
+    /**
+     * Leaves under each inner node of the topology, and the number of racks, as of a change of the topology.
+     */
+    private static final class LeavesSnapshot {
+        static final LeavesSnapshot EMPTY = new LeavesSnapshot(ImmutableMap.of(), ImmutableMap.of(), 0);
+
+        // by normalized path of the inner node, the root included
+        private final ImmutableMap<String, ImmutableSet<Node>> innerNodeLeaves;
+        // by path of the leaf
+        private final ImmutableMap<String, Node> leaves;
+        private final int numOfRacks;
+
+        private LeavesSnapshot(ImmutableMap<String, ImmutableSet<Node>> innerNodeLeaves,
+                               ImmutableMap<String, Node> leaves, int numOfRacks) {
+            this.innerNodeLeaves = innerNodeLeaves;
+            this.leaves = leaves;
+            this.numOfRacks = numOfRacks;
+        }
+
+        Set<Node> getLeaves(String scope) {
+            scope = NodeBase.normalize(scope);
+            Set<Node> scopeLeaves = innerNodeLeaves.get(scope);
+            if (scopeLeaves != null) {
+                return scopeLeaves;
+            }
+            Node leaf = leaves.get(scope);
+            return leaf == null ? ImmutableSet.of() : ImmutableSet.of(leaf);
+        }
+
+        int getNumOfInnerNodeLeaves(String scope) {
+            Set<Node> scopeLeaves = innerNodeLeaves.get(scope);
+            return scopeLeaves == null ? 0 : scopeLeaves.size();
+        }
+
+        int getNumOfLeaves() {
+            return getNumOfInnerNodeLeaves(NodeBase.ROOT);
+        }
+    }
 
     public NetworkTopologyImpl() {
         clusterMap = new InnerNode(InnerNode.ROOT);
     }
 
+    @Override
+    public void beginUpdate() {
+        netlock.writeLock().lock();
+        try {
+            numOfUpdatesInProgress++;
+        } finally {
+            netlock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void endUpdate() {
+        netlock.writeLock().lock();
+        try {
+            if (numOfUpdatesInProgress > 0 && --numOfUpdatesInProgress == 0 && leavesSnapshotStale) {
+                updateLeavesSnapshot();
+            }
+        } finally {
+            netlock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuild the snapshot of the leaves after a change of the topology, or defer it to the end of the batch of
+     * changes in progress. This method should be called in writelock scope of 'netlock'.
+     */
+    private void onTopologyChanged() {
+        if (numOfUpdatesInProgress > 0) {
+            leavesSnapshotStale = true;
+        } else {
+            updateLeavesSnapshot();
+        }
+    }
+
+    /**
+     * Rebuild the snapshot of the leaves, this method should be called in writelock scope of 'netlock'.
+     */
+    private void updateLeavesSnapshot() {
+        Map<String, ImmutableSet<Node>> innerNodeLeaves = new HashMap<>();
+        Map<String, Node> leaves = new HashMap<>();
+        collectLeaves(clusterMap, innerNodeLeaves, leaves);
+        leavesSnapshot = new LeavesSnapshot(ImmutableMap.copyOf(innerNodeLeaves), ImmutableMap.copyOf(leaves),
+                numOfRacks);
+        leavesSnapshotStale = false;
+    }
+
+    private static ImmutableSet<Node> collectLeaves(InnerNode innerNode,
+                                                    Map<String, ImmutableSet<Node>> innerNodeLeaves,
+                                                    Map<String, Node> leaves) {
+        ImmutableSet.Builder<Node> builder = ImmutableSet.builder();
+        for (Node child : innerNode.getChildren()) {
+            if (child instanceof InnerNode) {
+                builder.addAll(collectLeaves((InnerNode) child, innerNodeLeaves, leaves));
+            } else {
+                builder.add(child);
+                leaves.put(NodeBase.getPath(child), child);
+            }
+        }
+        ImmutableSet<Node> innerLeaves = builder.build();
+        innerNodeLeaves.put(NodeBase.normalize(NodeBase.getPath(innerNode)), innerLeaves);
+        return innerLeaves;
+    }
+
     /**
      * Add a leaf node.
      * Update node counter and rack counter if necessary
@@ -434,6 +551,7 @@ public class NetworkTopologyImpl implements NetworkTopology {
                         depthOfAllLeaves = node.getLevel();
                     }
                 }
+                onTopologyChanged();
             }
             if (LOG.isDebugEnabled()) {
                 LOG.debug("NetworkTopology became:\n" + this);
@@ -505,6 +623,7 @@ public class NetworkTopologyImpl implements NetworkTopology {
                 if (rack == null) {
                     numOfRacks--;
                 }
+                onTopologyChanged();
             }
             if (LOG.isDebugEnabled()) {
                 LOG.debug("NetworkTopology became:\n" + this);
@@ -577,12 +696,7 @@ public class NetworkTopologyImpl implements NetworkTopology {
     /** @return the total number of racks */
     @Override
     public int getNumOfRacks() {
-        netlock.readLock().lock();
-        try {
-            return numOfRacks;
-        } finally {
-            netlock.readLock().unlock();
-        }
+        return leavesSnapshot.numOfRacks;
     }
 
     /** @return the total number of leaf nodes */
@@ -749,46 +863,23 @@ public class NetworkTopologyImpl implements NetworkTopology {
     }
 
     /**
-     * Return leaves in <i>scope</i>.
-     * @param scope a path string
-     * @return leaves nodes under specific scope
+     * {@inheritDoc}
+     *
+     * <p>The leaves are looked up in the snapshot of the topology as of its last change, without locking. The
+     * returned set must not be modified.
      */
-    private Set<Node> doGetLeaves(String scope) {
-        Node node = getNode(scope);
-        Set<Node> leafNodes = new HashSet<Node>();
-        if (node == null) {
-            return leafNodes;
-        }
-
-        if (!(node instanceof InnerNode)) {
-            leafNodes.add(node);
-        } else {
-            InnerNode innerNode = (InnerNode) node;
-            for (int i = 0; i < innerNode.getNumOfLeaves(); i++) {
-                leafNodes.add(innerNode.getLeaf(i, null));
-            }
-        }
-        return leafNodes;
-    }
-
     @Override
     public Set<Node> getLeaves(String scope) {
-        netlock.readLock().lock();
-        try {
-            if (scope.startsWith(INVERSE)) {
-                Set<Node> allNodes = doGetLeaves(NodeBase.ROOT);
-                String[] excludeScopes = scope.substring(1).split(NODE_SEPARATOR);
-                Set<Node> excludeNodes = new HashSet<Node>();
-                Arrays.stream(excludeScopes).forEach((excludeScope) -> {
-                    excludeNodes.addAll(doGetLeaves(excludeScope));
-                });
-                allNodes.removeAll(excludeNodes);
-                return allNodes;
-            } else {
-                return doGetLeaves(scope);
-            }
-        } finally {
-            netlock.readLock().unlock();
+        LeavesSnapshot snapshot = leavesSnapshot;
+        if (scope.startsWith(INVERSE)) {
+            Set<Node> allNodes = new HashSet<Node>(snapshot.getLeaves(NodeBase.ROOT));
+            String[] excludeScopes = scope.substring(1).split(NODE_SEPARATOR);
+            Arrays.stream(excludeScopes).forEach((excludeScope) -> {
+                allNodes.removeAll(snapshot.getLeaves(excludeScope));
+            });
+            return allNodes;
+        } else {
+            return snapshot.getLeaves(scope);
         }
     }
 
@@ -801,26 +892,18 @@ public class NetworkTopologyImpl implements NetworkTopology {
         }
         scope = NodeBase.normalize(scope);
         int count = 0; // the number of nodes in both scope & excludedNodes
-        netlock.readLock().lock();
-        try {
-            for (Node node : excludedNodes) {
-                if ((NodeBase.getPath(node) + NodeBase.PATH_SEPARATOR_STR).startsWith(scope
-                        + NodeBase.PATH_SEPARATOR_STR)) {
-                    count++;
-                }
-            }
-            Node n = getNode(scope);
-            int scopeNodeCount = 0;
-            if (n instanceof InnerNode) {
-                scopeNodeCount = ((InnerNode) n).getNumOfLeaves();
-            }
-            if (isExcluded) {
-                return clusterMap.getNumOfLeaves() - scopeNodeCount - excludedNodes.size() + count;
-            } else {
-                return scopeNodeCount - count;
+        for (Node node : excludedNodes) {
+            if ((NodeBase.getPath(node) + NodeBase.PATH_SEPARATOR_STR).startsWith(scope
+                    + NodeBase.PATH_SEPARATOR_STR)) {
+                count++;
             }
-        } finally {
-            netlock.readLock().unlock();
+        }
+        LeavesSnapshot snapshot = leavesSnapshot;
+        int scopeNodeCount = snapshot.getNumOfInnerNodeLeaves(scope);
+        if (isExcluded) {
+            return snapshot.getNumOfLeaves() - scopeNodeCount - excludedNodes.size() + count;
+        } else {
+            return scopeNodeCount - count;
         }
     }
 
@@ -155,4 +155,14 @@ public class StabilizeNetworkTopology implements NetworkTopology {
     public int countNumOfAvailableNodes(String scope, Collection<Node> excludedNodes) {
         return impl.countNumOfAvailableNodes(scope, excludedNodes);
     }
+
+    @Override
+    public void beginUpdate() {
+        impl.beginUpdate();
+    }
+
+    @Override
+    public void endUpdate() {
+        impl.endUpdate();
+    }
 }
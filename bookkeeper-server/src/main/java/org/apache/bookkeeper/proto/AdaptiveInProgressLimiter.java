@@ -0,0 +1,158 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.apache.bookkeeper.common.util.MathUtils;
+
+/**
+ * Limit on the number of requests of one type in progress, adjusted from the measured service time of the
+ * requests (AIMD).
+ *
+ * <p>While requests complete within the target latency and the limit is actually used, the limit grows by one
+ * for every <i>limit</i> completed requests. When a request takes longer than the target latency, the limit is
+ * multiplied by the backoff ratio, at most once per target latency period, so that a single burst of slow
+ * requests shrinks the limit once.
+ *
+ * <p>The latency of a request only reflects the resources it waited for. The overload signal reports the
+ * resources that fill up before requests slow down, e.g. the write cache or the journal queue: while it is
+ * raised, completed requests shrink the limit as slow requests do, so that new requests are delayed before
+ * the storage starts rejecting them.
+ *
+ * <p>Priority requests are counted as in progress but never wait for the limit, so that fencing and recovery
+ * are not queued behind bulk traffic.
+ */
+class AdaptiveInProgressLimiter {
+
+    static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final BooleanSupplier overloaded;
+
+    // guarded by this
+    private int inProgress = 0;
+    private double limit;
+    private long lastDecreaseNanos;
+
+    // read by the gauge without locking
+    private volatile int currentLimit;
+
+    AdaptiveInProgressLimiter(int initialLimit, int minLimit, int maxLimit, long targetLatency, TimeUnit unit) {
+        this(initialLimit, minLimit, maxLimit, targetLatency, unit, () -> false);
+    }
+
+    AdaptiveInProgressLimiter(int initialLimit, int minLimit, int maxLimit, long targetLatency, TimeUnit unit,
+                              BooleanSupplier overloaded) {
+        this.overloaded = overloaded;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.targetLatencyNanos = unit.toNanos(targetLatency);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+        this.currentLimit = (int) limit;
+        this.lastDecreaseNanos = MathUtils.nowInNano() - targetLatencyNanos;
+    }
+
+    int getLimit() {
+        return currentLimit;
+    }
+
+    synchronized int getInProgress() {
+        return inProgress;
+    }
+
+    synchronized boolean tryAcquire() {
+        if (inProgress < (int) limit) {
+            inProgress++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Wait until the number of requests in progress is below the limit. Interrupts are deferred until the
+     * request is admitted, as for {@link java.util.concurrent.Semaphore#acquireUninterruptibly()}.
+     */
+    synchronized void acquireUninterruptibly() {
+        boolean interrupted = false;
+        while (inProgress >= (int) limit) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        inProgress++;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Admit a priority request regardless of the limit.
+     */
+    synchronized void acquirePriority() {
+        inProgress++;
+    }
+
+    /**
+     * Complete a request.
+     *
+     * @param latencyNanos service time of the request, or a negative value if the request should not be
+     *                     accounted for the limit (e.g. rejected or long poll requests)
+     */
+    void release(long latencyNanos) {
+        // the signal is sampled outside of the lock, as it reads the state of other components
+        boolean slow = latencyNanos > targetLatencyNanos
+                || (latencyNanos >= 0 && overloaded.getAsBoolean());
+        release(latencyNanos, slow);
+    }
+
+    private synchronized void release(long latencyNanos, boolean slow) {
+        boolean used = inProgress >= (int) limit / 2;
+        inProgress--;
+
+        if (latencyNanos >= 0) {
+            if (slow) {
+                long now = MathUtils.nowInNano();
+                if (now - lastDecreaseNanos >= targetLatencyNanos) {
+                    limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                    lastDecreaseNanos = now;
+                    currentLimit = (int) limit;
+                }
+            } else if (used && limit < maxLimit) {
+                int previous = (int) limit;
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+                if ((int) limit > previous) {
+                    currentLimit = (int) limit;
+                    notifyAll();
+                    return;
+                }
+            }
+        }
+
+        if (inProgress < (int) limit) {
+            notify();
+        }
+    }
+}
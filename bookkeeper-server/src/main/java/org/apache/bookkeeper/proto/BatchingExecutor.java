@@ -0,0 +1,91 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jctools.queues.MpscUnboundedArrayQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor queueing tasks for a single threaded executor, and submitting them as a single task.
+ *
+ * <p>A burst of tasks, such as the long poll requests woken up by a LAC update, costs a single submission to the
+ * underlying executor rather than one per task. Tasks are executed in the order they were queued.
+ */
+class BatchingExecutor implements Executor, Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BatchingExecutor.class);
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    private final Executor executor;
+    private final MpscUnboundedArrayQueue<Runnable> tasks = new MpscUnboundedArrayQueue<>(CHUNK_SIZE);
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    BatchingExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // the executor is shut down, drop the queued tasks
+                tasks.clear();
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        // bound the batch, so that a steady stream of tasks does not starve the other tasks of the executor
+        Runnable task;
+        for (int i = 0; i < MAX_BATCH_SIZE && (task = tasks.poll()) != null; i++) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOG.error("Unexpected error while executing a batched task", t);
+            }
+        }
+        scheduled.set(false);
+        // tasks left over, or queued after the queue was drained but before the flag was reset
+        if (!tasks.isEmpty()) {
+            try {
+                schedule();
+            } catch (RejectedExecutionException e) {
+                // the executor is shut down, the queued tasks were dropped
+            }
+        }
+    }
+}
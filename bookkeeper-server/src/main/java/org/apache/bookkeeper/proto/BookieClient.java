@@ -20,6 +20,7 @@
  */
 package org.apache.bookkeeper.proto;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.util.ReferenceCounted;
 import java.util.EnumSet;
 import java.util.List;
@@ -28,6 +29,8 @@ import org.apache.bookkeeper.client.api.WriteFlag;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ForceLedgerCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GetBookieInfoCallback;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.RangeAddCallback;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.RangeReadCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadLacCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
@@ -230,6 +233,38 @@ public interface BookieClient {
     CompletableFuture<AvailabilityOfEntriesOfLedger> getListOfEntriesOfLedger(BookieId address,
             long ledgerId);
 
+    /**
+     * Read a range of consecutive entries of a ledger from a bookie, as stored by the bookie.
+     *
+     * <p>The bookie returns the entries up to the last entry of the range, or until the size of the entries
+     * reaches maxSize. It stops at the first entry it does not have, so fewer entries than requested may be
+     * returned.
+     *
+     * @param address the address of the bookie
+     * @param ledgerId the ledger
+     * @param firstEntryId the first entry to read
+     * @param lastEntryId the last entry to read
+     * @param maxSize the max size of the entries returned, in bytes
+     * @param cb the callback notified when the read completes
+     * @param ctx the context object passed to the callback
+     */
+    void readEntryRange(BookieId address, long ledgerId, long firstEntryId, long lastEntryId, long maxSize,
+                        RangeReadCallback cb, Object ctx);
+
+    /**
+     * Add a batch of entries of a ledger to a bookie, with recovery add semantics. The entries must be packaged
+     * as stored by the bookies, e.g. as returned by {@link #readEntryRange}.
+     *
+     * @param address the address of the bookie
+     * @param ledgerId the ledger
+     * @param masterKey the master key of the ledger
+     * @param entries the entries to add, which must not be released before the callback is notified
+     * @param cb the callback notified once the entries are persisted
+     * @param ctx the context object passed to the callback
+     */
+    void addEntryRange(BookieId address, long ledgerId, byte[] masterKey, List<ByteBuf> entries,
+                       RangeAddCallback cb, Object ctx);
+
     /**
      * @return whether bookie client object has been closed
      */
@@ -58,6 +58,8 @@ import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ForceLedgerCallba
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.FutureGetListOfEntriesOfLedger;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GenericCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GetBookieInfoCallback;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.RangeAddCallback;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.RangeReadCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadLacCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
@@ -339,6 +341,54 @@ public class BookieClientImpl implements BookieClient, PerChannelBookieClientFac
         return futureResult;
     }
 
+    @Override
+    public void readEntryRange(BookieId address, long ledgerId, long firstEntryId, long lastEntryId, long maxSize,
+                               RangeReadCallback cb, Object ctx) {
+        final PerChannelBookieClientPool client = lookupClient(address);
+        if (client == null) {
+            cb.rangeReadComplete(getRc(BKException.Code.BookieHandleNotAvailableException),
+                    ledgerId, firstEntryId, null, ctx);
+            return;
+        }
+        client.obtain((rc, pcbc) -> {
+            if (rc != BKException.Code.OK) {
+                try {
+                    executor.executeOrdered(ledgerId, () ->
+                            cb.rangeReadComplete(rc, ledgerId, firstEntryId, null, ctx));
+                } catch (RejectedExecutionException re) {
+                    cb.rangeReadComplete(getRc(BKException.Code.InterruptedException),
+                            ledgerId, firstEntryId, null, ctx);
+                }
+            } else {
+                pcbc.readEntryRange(ledgerId, firstEntryId, lastEntryId, maxSize, cb, ctx);
+            }
+        }, ledgerId);
+    }
+
+    @Override
+    public void addEntryRange(BookieId address, long ledgerId, byte[] masterKey, List<ByteBuf> entries,
+                              RangeAddCallback cb, Object ctx) {
+        final PerChannelBookieClientPool client = lookupClient(address);
+        if (client == null) {
+            cb.rangeAddComplete(getRc(BKException.Code.BookieHandleNotAvailableException),
+                    ledgerId, 0, address, ctx);
+            return;
+        }
+        client.obtain((rc, pcbc) -> {
+            if (rc != BKException.Code.OK) {
+                try {
+                    executor.executeOrdered(ledgerId, () ->
+                            cb.rangeAddComplete(rc, ledgerId, 0, address, ctx));
+                } catch (RejectedExecutionException re) {
+                    cb.rangeAddComplete(getRc(BKException.Code.InterruptedException),
+                            ledgerId, 0, address, ctx);
+                }
+            } else {
+                pcbc.addEntryRange(ledgerId, masterKey, entries, cb, ctx);
+            }
+        }, ledgerId);
+    }
+
     private void completeRead(final int rc,
                               final long ledgerId,
                               final long entryId,
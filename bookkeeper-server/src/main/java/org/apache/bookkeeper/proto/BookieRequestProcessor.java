@@ -21,6 +21,8 @@
 package org.apache.bookkeeper.proto;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY_IN_PROGRESS_LIMIT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY_IN_PROGRESS_LIMIT;
 import static org.apache.bookkeeper.proto.RequestUtils.hasFlag;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -36,6 +38,7 @@ import io.netty.util.HashedWheelTimer;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
@@ -50,6 +53,7 @@ import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.processor.RequestProcessor;
+import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.tls.SecurityException;
 import org.apache.bookkeeper.tls.SecurityHandlerFactory;
@@ -67,12 +71,20 @@ public class BookieRequestProcessor implements RequestProcessor {
 
     private static final Logger LOG = LoggerFactory.getLogger(BookieRequestProcessor.class);
 
+    // upper bound of an adaptive limit of requests in progress when no max limit is configured
+    private static final int DEFAULT_MAX_ADAPTIVE_IN_PROGRESS_LIMIT = 10000;
+
     /**
      * The server configuration. We use this for getting the number of add and read
      * worker threads.
      */
     private final ServerConfiguration serverCfg;
     private final long waitTimeoutOnBackpressureMillis;
+
+    /**
+     * Max size of the entries returned by a range read, so that the response fits in a frame.
+     */
+    private final long maxRangeReadSize;
     private final boolean preserveMdcForTaskExecution;
 
     /**
@@ -85,6 +97,16 @@ public class BookieRequestProcessor implements RequestProcessor {
      */
     private final OrderedExecutor readThreadPool;
 
+    /**
+     * Fair scheduler of the read requests on the readThreadPool, null if reads are ordered by ledger.
+     */
+    private final FairReadScheduler fairReadScheduler;
+
+    /**
+     * Executor of the read requests on virtual threads, used instead of the readThreadPool if not null.
+     */
+    private final VirtualThreadReadExecutor virtualThreadReadExecutor;
+
     /**
      * The threadpool used to execute all add entry requests issued to this server.
      */
@@ -111,6 +133,17 @@ public class BookieRequestProcessor implements RequestProcessor {
      */
     private final HashedWheelTimer requestTimer;
 
+    /**
+     * The timing wheel shared by the long poll requests waiting for a LAC update.
+     */
+    private final LongPollTimeoutWheel longPollTimeoutWheel;
+
+    /**
+     * Executors batching the long poll requests woken up on each long poll thread.
+     */
+    private final ConcurrentHashMap<ExecutorService, BatchingExecutor> longPollWakeupExecutors =
+            new ConcurrentHashMap<>();
+
     // Expose Stats
     private final BKStats bkStats = BKStats.getInstance();
     private final boolean statsEnabled;
@@ -120,6 +153,10 @@ public class BookieRequestProcessor implements RequestProcessor {
     final Semaphore addsSemaphore;
     final Semaphore readsSemaphore;
 
+    // adaptive limits of requests in progress, used instead of the semaphores when enabled
+    final AdaptiveInProgressLimiter addsLimiter;
+    final AdaptiveInProgressLimiter readsLimiter;
+
     final ChannelGroup allChannels;
 
     // to temporary blacklist channels
@@ -137,6 +174,7 @@ public class BookieRequestProcessor implements RequestProcessor {
         this.allocator = allocator;
         this.allChannels = allChannels;
         this.waitTimeoutOnBackpressureMillis = serverCfg.getWaitTimeoutOnResponseBackpressureMillis();
+        this.maxRangeReadSize = serverCfg.getNettyMaxFrameSizeBytes() / 2;
         this.preserveMdcForTaskExecution = serverCfg.getPreserveMdcForTaskExecution();
         this.bookie = bookie;
         this.throttleReadResponses = serverCfg.isReadWorkerThreadsThrottlingEnabled();
@@ -145,6 +183,41 @@ public class BookieRequestProcessor implements RequestProcessor {
                 "BookieReadThreadPool",
                 serverCfg.getMaxPendingReadRequestPerThread(),
                 statsLogger);
+        if (readThreadPool != null && serverCfg.isReadWorkerVirtualThreadsEnabled()) {
+            if (VirtualThreadReadExecutor.isSupported()) {
+                int numMappedDirs = bookie.getLedgerStorage().getNumLedgerDirsMappedByLedgerId();
+                if (numMappedDirs <= 0) {
+                    LOG.info("The entries of a ledger may be in any ledger directory with {}, limiting the reads"
+                            + " executing concurrently on all the {} ledger directories together",
+                            serverCfg.getLedgerStorageClass(), serverCfg.getLedgerDirs().length);
+                }
+                this.virtualThreadReadExecutor = new VirtualThreadReadExecutor(
+                        numMappedDirs > 0 ? numMappedDirs : serverCfg.getLedgerDirs().length,
+                        numMappedDirs > 0,
+                        serverCfg.getMaxConcurrentReadsPerLedgerDir(),
+                        serverCfg.getNumReadWorkerThreads() * serverCfg.getMaxPendingReadRequestPerThread(),
+                        preserveMdcForTaskExecution);
+            } else {
+                LOG.warn("Virtual threads are not supported by this JVM, executing reads on the read worker threads");
+                this.virtualThreadReadExecutor = null;
+            }
+        } else {
+            this.virtualThreadReadExecutor = null;
+        }
+        if (readThreadPool != null && serverCfg.isReadWorkerFairSchedulingEnabled()
+                && virtualThreadReadExecutor != null) {
+            LOG.warn("Read requests are executed on virtual threads, ignoring the fair scheduling of read requests");
+            this.fairReadScheduler = null;
+        } else if (readThreadPool != null && serverCfg.isReadWorkerFairSchedulingEnabled()) {
+            this.fairReadScheduler = new FairReadScheduler(readThreadPool,
+                    serverCfg.getNumReadWorkerThreads(),
+                    serverCfg.getMaxPendingReadRequestsPerLedger(),
+                    serverCfg.getNumReadWorkerThreads() * serverCfg.getMaxPendingReadRequestPerThread(),
+                    serverCfg.getReadSchedulingQuantumMicros(), TimeUnit.MICROSECONDS,
+                    preserveMdcForTaskExecution);
+        } else {
+            this.fairReadScheduler = null;
+        }
         this.writeThreadPool = createExecutor(
                 this.serverCfg.getNumAddWorkerThreads(),
                 "BookieWriteThreadPool",
@@ -175,6 +248,9 @@ public class BookieRequestProcessor implements RequestProcessor {
                 new ThreadFactoryBuilder().setNameFormat("BookieRequestTimer-%d").build(),
                 this.serverCfg.getRequestTimerTickDurationMs(),
                 TimeUnit.MILLISECONDS, this.serverCfg.getRequestTimerNumTicks());
+        this.longPollTimeoutWheel = new LongPollTimeoutWheel(requestTimer,
+                this.serverCfg.getRequestTimerTickDurationMs(), TimeUnit.MILLISECONDS,
+                this.serverCfg.getRequestTimerNumTicks());
 
         if (waitTimeoutOnBackpressureMillis > 0) {
             blacklistedChannels = Optional.of(CacheBuilder.newBuilder()
@@ -200,14 +276,78 @@ public class BookieRequestProcessor implements RequestProcessor {
         this.requestStats = new RequestStats(statsLogger);
 
         int maxAdds = serverCfg.getMaxAddsInProgressLimit();
-        addsSemaphore = maxAdds > 0 ? new Semaphore(maxAdds, true) : null;
-
         int maxReads = serverCfg.getMaxReadsInProgressLimit();
-        readsSemaphore = maxReads > 0 ? new Semaphore(maxReads, true) : null;
+        if (serverCfg.isAdaptiveInProgressLimitEnabled()) {
+            int minLimit = serverCfg.getAdaptiveInProgressMinLimit();
+            maxAdds = maxAdds > 0 ? maxAdds : DEFAULT_MAX_ADAPTIVE_IN_PROGRESS_LIMIT;
+            maxReads = maxReads > 0 ? maxReads : DEFAULT_MAX_ADAPTIVE_IN_PROGRESS_LIMIT;
+            int writeCacheUsageThreshold = serverCfg.getAddsInProgressWriteCacheUsageThreshold();
+            int journalQueueLengthThreshold = serverCfg.getJournalQueueSize() / 2;
+            addsLimiter = new AdaptiveInProgressLimiter(maxAdds, minLimit, maxAdds,
+                    serverCfg.getAddsInProgressTargetLatencyMs(), TimeUnit.MILLISECONDS,
+                    () -> isAddPathOverloaded(writeCacheUsageThreshold, journalQueueLengthThreshold));
+            readsLimiter = new AdaptiveInProgressLimiter(maxReads, minLimit, maxReads,
+                    serverCfg.getReadsInProgressTargetLatencyMs(), TimeUnit.MILLISECONDS);
+            registerLimitGauge(statsLogger, ADD_ENTRY_IN_PROGRESS_LIMIT, addsLimiter);
+            registerLimitGauge(statsLogger, READ_ENTRY_IN_PROGRESS_LIMIT, readsLimiter);
+            addsSemaphore = null;
+            readsSemaphore = null;
+        } else {
+            addsLimiter = null;
+            readsLimiter = null;
+            addsSemaphore = maxAdds > 0 ? new Semaphore(maxAdds, true) : null;
+            readsSemaphore = maxReads > 0 ? new Semaphore(maxReads, true) : null;
+        }
+    }
+
+    /**
+     * Whether the resources filled by the adds are close to be exhausted, in which case the storage would start
+     * throttling or rejecting the writes.
+     */
+    private boolean isAddPathOverloaded(int writeCacheUsageThreshold, int journalQueueLengthThreshold) {
+        return bookie.getLedgerStorage().getWriteCacheUsagePercent() >= writeCacheUsageThreshold
+                || bookie.getJournalQueueLength() >= journalQueueLengthThreshold;
+    }
+
+    private static void registerLimitGauge(StatsLogger statsLogger, String name, AdaptiveInProgressLimiter limiter) {
+        statsLogger.registerGauge(name, new Gauge<Number>() {
+            @Override
+            public Number getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Number getSample() {
+                return limiter.getLimit();
+            }
+        });
     }
 
     protected void onAddRequestStart(Channel channel) {
-        if (addsSemaphore != null) {
+        onAddRequestStart(channel, false);
+    }
+
+    /**
+     * Account for an add request, waiting for the limit of adds in progress if needed. Priority requests
+     * (e.g. recovery adds) are never delayed by an adaptive limit.
+     */
+    protected void onAddRequestStart(Channel channel, boolean priority) {
+        if (addsLimiter != null) {
+            if (priority) {
+                addsLimiter.acquirePriority();
+            } else if (!addsLimiter.tryAcquire()) {
+                final long throttlingStartTimeNanos = MathUtils.nowInNano();
+                channel.config().setAutoRead(false);
+                LOG.info("Too many add requests in progress (limit {}), disabling autoread on channel {}",
+                        addsLimiter.getLimit(), channel);
+                requestStats.blockAddRequest();
+                addsLimiter.acquireUninterruptibly();
+                channel.config().setAutoRead(true);
+                final long delayNanos = MathUtils.elapsedNanos(throttlingStartTimeNanos);
+                LOG.info("Re-enabled autoread on channel {} after AddRequest delay of {} nanos", channel, delayNanos);
+                requestStats.unblockAddRequest(delayNanos);
+            }
+        } else if (addsSemaphore != null) {
             if (!addsSemaphore.tryAcquire()) {
                 final long throttlingStartTimeNanos = MathUtils.nowInNano();
                 channel.config().setAutoRead(false);
@@ -224,14 +364,47 @@ public class BookieRequestProcessor implements RequestProcessor {
     }
 
     protected void onAddRequestFinish() {
+        onAddRequestFinish(-1L);
+    }
+
+    /**
+     * @param latencyNanos time taken to serve the request, or a negative value if it should not be used to
+     *                     adjust the adaptive limit of adds in progress
+     */
+    protected void onAddRequestFinish(long latencyNanos) {
         requestStats.untrackAddRequest();
-        if (addsSemaphore != null) {
+        if (addsLimiter != null) {
+            addsLimiter.release(latencyNanos);
+        } else if (addsSemaphore != null) {
             addsSemaphore.release();
         }
     }
 
     protected void onReadRequestStart(Channel channel) {
-        if (readsSemaphore != null) {
+        onReadRequestStart(channel, false);
+    }
+
+    /**
+     * Account for a read request, waiting for the limit of reads in progress if needed. Priority requests
+     * (e.g. fencing and long poll reads) are never delayed by an adaptive limit.
+     */
+    protected void onReadRequestStart(Channel channel, boolean priority) {
+        if (readsLimiter != null) {
+            if (priority) {
+                readsLimiter.acquirePriority();
+            } else if (!readsLimiter.tryAcquire()) {
+                final long throttlingStartTimeNanos = MathUtils.nowInNano();
+                channel.config().setAutoRead(false);
+                LOG.info("Too many read requests in progress (limit {}), disabling autoread on channel {}",
+                        readsLimiter.getLimit(), channel);
+                requestStats.blockReadRequest();
+                readsLimiter.acquireUninterruptibly();
+                channel.config().setAutoRead(true);
+                final long delayNanos = MathUtils.elapsedNanos(throttlingStartTimeNanos);
+                LOG.info("Re-enabled autoread on channel {} after ReadRequest delay of {} nanos", channel, delayNanos);
+                requestStats.unblockReadRequest(delayNanos);
+            }
+        } else if (readsSemaphore != null) {
             if (!readsSemaphore.tryAcquire()) {
                 final long throttlingStartTimeNanos = MathUtils.nowInNano();
                 channel.config().setAutoRead(false);
@@ -248,8 +421,18 @@ public class BookieRequestProcessor implements RequestProcessor {
     }
 
     protected void onReadRequestFinish() {
+        onReadRequestFinish(-1L);
+    }
+
+    /**
+     * @param latencyNanos time taken to serve the request, or a negative value if it should not be used to
+     *                     adjust the adaptive limit of reads in progress
+     */
+    protected void onReadRequestFinish(long latencyNanos) {
         requestStats.untrackReadRequest();
-        if (readsSemaphore != null) {
+        if (readsLimiter != null) {
+            readsLimiter.release(latencyNanos);
+        } else if (readsSemaphore != null) {
             readsSemaphore.release();
         }
     }
@@ -264,15 +447,29 @@ public class BookieRequestProcessor implements RequestProcessor {
         return requestStats.maxReadsInProgressCount();
     }
 
+    @VisibleForTesting
+    VirtualThreadReadExecutor getVirtualThreadReadExecutor() {
+        return virtualThreadReadExecutor;
+    }
+
+    @VisibleForTesting
+    FairReadScheduler getFairReadScheduler() {
+        return fairReadScheduler;
+    }
+
     @Override
     public void close() {
         LOG.info("Closing RequestProcessor");
         shutdownExecutor(writeThreadPool);
+        if (virtualThreadReadExecutor != null) {
+            virtualThreadReadExecutor.shutdown();
+        }
         shutdownExecutor(readThreadPool);
         if (serverCfg.getNumLongPollWorkerThreads() > 0 || readThreadPool == null) {
             shutdownExecutor(longPollThreadPool);
         }
         shutdownExecutor(highPriorityThreadPool);
+        longPollTimeoutWheel.stop();
         requestTimer.stop();
         LOG.info("Closed RequestProcessor");
     }
@@ -353,6 +550,12 @@ public class BookieRequestProcessor implements RequestProcessor {
                     case GET_LIST_OF_ENTRIES_OF_LEDGER:
                         processGetListOfEntriesOfLedgerProcessorV3(r, requestHandler);
                         break;
+                    case RANGE_READ_ENTRY:
+                        processRangeReadRequestV3(r, requestHandler);
+                        break;
+                    case RANGE_ADD_ENTRY:
+                        processRangeAddRequestV3(r, requestHandler);
+                        break;
                     default:
                         LOG.info("Unknown operation type {}", header.getOperation());
                         final BookkeeperProtocol.Response response =
@@ -515,10 +718,11 @@ public class BookieRequestProcessor implements RequestProcessor {
         final ReadEntryProcessorV3 read;
         final OrderedExecutor threadPool;
         if (RequestUtils.isLongPollReadRequest(r.getReadRequest())) {
-            ExecutorService lpThread = longPollThreadPool.chooseThread(requestHandler.ctx());
+            BatchingExecutor lpThread = longPollWakeupExecutors.computeIfAbsent(
+                    longPollThreadPool.chooseThread(requestHandler.ctx()), BatchingExecutor::new);
 
             read = new LongPollReadEntryProcessorV3(r, requestHandler, this, fenceThread,
-                                                    lpThread, requestTimer);
+                                                    lpThread, longPollTimeoutWheel);
             threadPool = longPollThreadPool;
         } else {
             read = new ReadEntryProcessorV3(r, requestHandler, this, fenceThread);
@@ -539,7 +743,13 @@ public class BookieRequestProcessor implements RequestProcessor {
             read.run();
         } else {
             try {
-                threadPool.executeOrdered(r.getReadRequest().getLedgerId(), read);
+                if (threadPool == readThreadPool && virtualThreadReadExecutor != null) {
+                    virtualThreadReadExecutor.execute(r.getReadRequest().getLedgerId(), read);
+                } else if (threadPool == readThreadPool && fairReadScheduler != null) {
+                    fairReadScheduler.execute(r.getReadRequest().getLedgerId(), read);
+                } else {
+                    threadPool.executeOrdered(r.getReadRequest().getLedgerId(), read);
+                }
             } catch (RejectedExecutionException e) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Failed to process request to read entry at {}:{}. Too many pending requests",
@@ -639,6 +849,78 @@ public class BookieRequestProcessor implements RequestProcessor {
         }
     }
 
+    private void processRangeReadRequestV3(final BookkeeperProtocol.Request r,
+                                           final BookieRequestHandler requestHandler) {
+        RangeReadEntryProcessorV3 rangeRead = new RangeReadEntryProcessorV3(r, requestHandler, this);
+        long ledgerId = r.getRangeReadRequest().getLedgerId();
+        if (null == readThreadPool) {
+            rangeRead.run();
+            return;
+        }
+        try {
+            if (virtualThreadReadExecutor != null) {
+                virtualThreadReadExecutor.execute(ledgerId, rangeRead);
+            } else if (fairReadScheduler != null) {
+                fairReadScheduler.execute(ledgerId, rangeRead);
+            } else {
+                readThreadPool.executeOrdered(ledgerId, rangeRead);
+            }
+        } catch (RejectedExecutionException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Failed to process range read request of ledger {}. Too many pending requests", ledgerId);
+            }
+            getRequestStats().getReadEntryRejectedCounter().inc();
+            BookkeeperProtocol.RangeReadResponse.Builder rangeReadResponse =
+                    BookkeeperProtocol.RangeReadResponse.newBuilder()
+                            .setLedgerId(ledgerId)
+                            .setFirstEntryId(r.getRangeReadRequest().getFirstEntryId())
+                            .setStatus(BookkeeperProtocol.StatusCode.ETOOMANYREQUESTS);
+            BookkeeperProtocol.Response.Builder response = BookkeeperProtocol.Response.newBuilder()
+                    .setHeader(rangeRead.getHeader())
+                    .setStatus(rangeReadResponse.getStatus())
+                    .setRangeReadResponse(rangeReadResponse);
+            rangeRead.sendResponse(rangeReadResponse.getStatus(), response.build(),
+                    requestStats.getRangeReadRequestStats());
+        }
+    }
+
+    private void processRangeAddRequestV3(final BookkeeperProtocol.Request r,
+                                          final BookieRequestHandler requestHandler) {
+        RangeAddEntryProcessorV3 rangeAdd = new RangeAddEntryProcessorV3(r, requestHandler, this);
+        long ledgerId = r.getRangeAddRequest().getLedgerId();
+
+        final OrderedExecutor threadPool;
+        if (RequestUtils.isHighPriority(r)) {
+            threadPool = highPriorityThreadPool;
+        } else {
+            threadPool = writeThreadPool;
+        }
+
+        if (null == threadPool) {
+            rangeAdd.run();
+            return;
+        }
+        try {
+            threadPool.executeOrdered(ledgerId, rangeAdd);
+        } catch (RejectedExecutionException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Failed to process range add request of ledger {}. Too many pending requests", ledgerId);
+            }
+            getRequestStats().getAddEntryRejectedCounter().inc();
+            BookkeeperProtocol.RangeAddResponse.Builder rangeAddResponse =
+                    BookkeeperProtocol.RangeAddResponse.newBuilder()
+                            .setLedgerId(ledgerId)
+                            .setNumEntriesAdded(0)
+                            .setStatus(BookkeeperProtocol.StatusCode.ETOOMANYREQUESTS);
+            BookkeeperProtocol.Response.Builder response = BookkeeperProtocol.Response.newBuilder()
+                    .setHeader(rangeAdd.getHeader())
+                    .setStatus(rangeAddResponse.getStatus())
+                    .setRangeAddResponse(rangeAddResponse);
+            rangeAdd.sendResponse(rangeAddResponse.getStatus(), response.build(),
+                    requestStats.getRangeAddRequestStats());
+        }
+    }
+
     private void processAddRequest(final BookieProtocol.ParsedAddRequest r, final BookieRequestHandler requestHandler) {
         WriteEntryProcessor write = WriteEntryProcessor.create(r, requestHandler, this);
 
@@ -691,7 +973,13 @@ public class BookieRequestProcessor implements RequestProcessor {
             read.run();
         } else {
             try {
-                threadPool.executeOrdered(r.getLedgerId(), read);
+                if (threadPool == readThreadPool && virtualThreadReadExecutor != null) {
+                    virtualThreadReadExecutor.execute(r.getLedgerId(), read);
+                } else if (threadPool == readThreadPool && fairReadScheduler != null) {
+                    fairReadScheduler.execute(r.getLedgerId(), read);
+                } else {
+                    threadPool.executeOrdered(r.getLedgerId(), read);
+                }
             } catch (RejectedExecutionException e) {
                 if (LOG.isDebugEnabled()) {
                     LOG.debug("Failed to process request to read entry at {}:{}. Too many pending requests", r.ledgerId,
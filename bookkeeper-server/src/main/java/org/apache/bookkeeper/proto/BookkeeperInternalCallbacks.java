@@ -22,6 +22,7 @@
 package org.apache.bookkeeper.proto;
 
 import io.netty.buffer.ByteBuf;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -114,6 +115,26 @@ public class BookkeeperInternalCallbacks {
                 AvailabilityOfEntriesOfLedger availabilityOfEntriesOfLedger);
     }
 
+    /**
+     * A callback interface for a range read command.
+     */
+    public interface RangeReadCallback {
+        /**
+         * @param entries consecutive entries starting at firstEntryId, as stored by the bookie
+         */
+        void rangeReadComplete(int rc, long ledgerId, long firstEntryId, List<ByteBuf> entries, Object ctx);
+    }
+
+    /**
+     * A callback interface for a range add command.
+     */
+    public interface RangeAddCallback {
+        /**
+         * @param numEntriesAdded number of entries added, starting from the first entry of the request
+         */
+        void rangeAddComplete(int rc, long ledgerId, int numEntriesAdded, BookieId addr, Object ctx);
+    }
+
     /**
      * Handle the Response Code and transform it to a BKException.
      *
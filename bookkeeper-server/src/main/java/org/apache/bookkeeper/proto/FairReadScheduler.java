@@ -0,0 +1,226 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.common.util.MdcUtils;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * Schedules read requests across ledgers with deficit round robin on the time spent serving each ledger.
+ *
+ * <p>Read requests are queued per ledger, and the ledgers with pending reads are served in turn by up to one
+ * worker per read thread. In each turn a ledger gets a quantum of worker time, so a ledger with a backlog of slow
+ * reads (e.g. a catch-up reader hitting the entry logs) cannot delay the reads of the other ledgers by more than a
+ * quantum per round, regardless of the thread they would have been hashed to.
+ *
+ * <p>The reads of a ledger are executed in order and by a single worker at a time, as with
+ * {@link OrderedExecutor#executeOrdered(long, Runnable)}. Each worker is pinned to its own thread of the executor,
+ * and the number of pending reads is bounded overall, as the queues of the read threads were.
+ */
+class FairReadScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FairReadScheduler.class);
+
+    private final OrderedExecutor executor;
+    private final int maxWorkers;
+    private final int maxPendingReadsPerLedger;
+    private final int maxPendingReads;
+    private final long quantumNanos;
+    private final boolean preserveMdcForTaskExecution;
+
+    // guarded by this
+    private final ConcurrentLongHashMap<LedgerReads> ledgers;
+    private final ArrayDeque<LedgerReads> activeLedgers = new ArrayDeque<>();
+    private final BitSet runningWorkers = new BitSet();
+    private int pendingReads = 0;
+
+    /**
+     * Pending reads of a ledger. A ledger is in {@link #ledgers} while it has pending reads or is being served,
+     * and in {@link #activeLedgers} while it is waiting for its turn.
+     */
+    private static class LedgerReads {
+        final long ledgerId;
+        final ArrayDeque<Runnable> reads = new ArrayDeque<>();
+        long deficitNanos = 0;
+
+        LedgerReads(long ledgerId) {
+            this.ledgerId = ledgerId;
+        }
+    }
+
+    /**
+     * @param maxPendingReads maximum number of reads pending across all the ledgers, no limit if not positive
+     */
+    FairReadScheduler(OrderedExecutor executor, int numThreads, int maxPendingReadsPerLedger, int maxPendingReads,
+                      long quantum, TimeUnit unit, boolean preserveMdcForTaskExecution) {
+        this.executor = executor;
+        this.maxWorkers = Math.max(1, numThreads);
+        this.maxPendingReadsPerLedger = maxPendingReadsPerLedger;
+        this.maxPendingReads = maxPendingReads;
+        this.quantumNanos = unit.toNanos(quantum);
+        this.preserveMdcForTaskExecution = preserveMdcForTaskExecution;
+        this.ledgers = ConcurrentLongHashMap.<LedgerReads>newBuilder()
+                .expectedItems(1024)
+                .concurrencyLevel(1)
+                .build();
+    }
+
+    /**
+     * Queue a read request of a ledger.
+     *
+     * @throws RejectedExecutionException if there are too many pending reads for the ledger or overall, or the read
+     *         could not be scheduled on the executor
+     */
+    void execute(long ledgerId, Runnable read) {
+        if (preserveMdcForTaskExecution) {
+            read = wrapWithMdc(read);
+        }
+
+        LedgerReads ledger;
+        int worker;
+        synchronized (this) {
+            if (maxPendingReads > 0 && pendingReads >= maxPendingReads) {
+                throw new RejectedExecutionException("Too many pending reads");
+            }
+            ledger = ledgers.get(ledgerId);
+            if (ledger == null) {
+                ledger = new LedgerReads(ledgerId);
+                ledgers.put(ledgerId, ledger);
+                activeLedgers.add(ledger);
+            } else if (ledger.reads.size() >= maxPendingReadsPerLedger) {
+                throw new RejectedExecutionException("Too many pending reads for ledger " + ledgerId);
+            }
+            ledger.reads.add(read);
+            pendingReads++;
+
+            worker = runningWorkers.nextClearBit(0);
+            if (worker >= maxWorkers) {
+                return;
+            }
+            runningWorkers.set(worker);
+        }
+
+        try {
+            workerThread(worker).execute(() -> runWorker(worker));
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                runningWorkers.clear(worker);
+                if (ledger.reads.removeLastOccurrence(read)) {
+                    pendingReads--;
+                }
+                if (ledger.reads.isEmpty() && activeLedgers.remove(ledger)) {
+                    ledgers.remove(ledgerId);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private ExecutorService workerThread(int worker) {
+        // the executor picks the thread of a key from its bits above the lowest one
+        return executor.chooseThread((long) worker << 1);
+    }
+
+    /**
+     * Serve one ledger for a quantum, then hand over the worker to its thread again so that other tasks of the
+     * thread are not delayed by the scheduler.
+     */
+    private void runWorker(int worker) {
+        while (serveNextLedger(worker)) {
+            try {
+                workerThread(worker).execute(() -> runWorker(worker));
+                return;
+            } catch (RejectedExecutionException e) {
+                // keep serving on this thread
+            }
+        }
+    }
+
+    /**
+     * @return true if there are ledgers waiting for their turn, false if the worker has stopped
+     */
+    private boolean serveNextLedger(int worker) {
+        LedgerReads ledger;
+        synchronized (this) {
+            ledger = activeLedgers.poll();
+            if (ledger == null) {
+                runningWorkers.clear(worker);
+                return false;
+            }
+            ledger.deficitNanos += quantumNanos;
+        }
+
+        while (true) {
+            Runnable read;
+            synchronized (this) {
+                if (ledger.reads.isEmpty()) {
+                    ledgers.remove(ledger.ledgerId);
+                    break;
+                }
+                if (ledger.deficitNanos <= 0) {
+                    activeLedgers.add(ledger);
+                    break;
+                }
+                read = ledger.reads.poll();
+                pendingReads--;
+            }
+
+            long startNanos = MathUtils.nowInNano();
+            try {
+                read.run();
+            } catch (Throwable t) {
+                LOG.error("Unexpected error while serving a read of ledger {}", ledger.ledgerId, t);
+            }
+            ledger.deficitNanos -= MathUtils.elapsedNanos(startNanos);
+        }
+
+        synchronized (this) {
+            if (activeLedgers.isEmpty()) {
+                runningWorkers.clear(worker);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private static Runnable wrapWithMdc(Runnable read) {
+        final Map<String, String> mdcContextMap = MDC.getCopyOfContextMap();
+        return () -> {
+            MdcUtils.restoreContext(mdcContextMap);
+            try {
+                read.run();
+            } finally {
+                MDC.clear();
+            }
+        };
+    }
+}
@@ -37,6 +37,8 @@ import org.slf4j.LoggerFactory;
 public class GetBookieInfoProcessorV3 extends PacketProcessorBaseV3 implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(GetBookieInfoProcessorV3.class);
 
+    private static final double LOAD_LATENCY_PERCENTILE = 0.99;
+
     public GetBookieInfoProcessorV3(Request request, BookieRequestHandler requestHandler,
                                      BookieRequestProcessor requestProcessor) {
         super(request, requestHandler, requestProcessor);
@@ -73,6 +75,15 @@ public class GetBookieInfoProcessorV3 extends PacketProcessorBaseV3 implements R
             if (LOG.isDebugEnabled()) {
                 LOG.debug("FreeDiskSpace info is " + freeDiskSpace + " totalDiskSpace is: " + totalDiskSpace);
             }
+            if ((requested & GetBookieInfoRequest.Flags.LOAD_VALUE) != 0) {
+                RequestStats requestStats = requestProcessor.getRequestStats();
+                getBookieInfoResponse
+                        .setJournalQueueLength(requestProcessor.getBookie().getJournalQueueLength())
+                        .setAddLatencyP99Micros(requestStats.getRecentAddLatencyMicros(LOAD_LATENCY_PERCENTILE))
+                        .setReadLatencyP99Micros(requestStats.getRecentReadLatencyMicros(LOAD_LATENCY_PERCENTILE))
+                        .setWriteCacheUsagePercent(
+                                requestProcessor.getBookie().getLedgerStorage().getWriteCacheUsagePercent());
+            }
             requestProcessor.getRequestStats().getGetBookieInfoStats()
                     .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
         } catch (IOException e) {
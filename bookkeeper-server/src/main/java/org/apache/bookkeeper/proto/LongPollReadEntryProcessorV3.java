@@ -18,12 +18,10 @@
 package org.apache.bookkeeper.proto;
 
 import com.google.common.base.Stopwatch;
-import io.netty.util.HashedWheelTimer;
-import io.netty.util.Timeout;
 import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.bookie.Bookie;
@@ -39,7 +37,8 @@ import org.slf4j.LoggerFactory;
 /**
  * Processor handling long poll read entry request.
  */
-class LongPollReadEntryProcessorV3 extends ReadEntryProcessorV3 implements Watcher<LastAddConfirmedUpdateNotification> {
+class LongPollReadEntryProcessorV3 extends ReadEntryProcessorV3
+        implements Watcher<LastAddConfirmedUpdateNotification>, LongPollTimeoutWheel.Expirable {
 
     private static final Logger logger = LoggerFactory.getLogger(LongPollReadEntryProcessorV3.class);
 
@@ -47,23 +46,22 @@ class LongPollReadEntryProcessorV3 extends ReadEntryProcessorV3 implements Watch
     private Optional<Long> lastAddConfirmedUpdateTime = Optional.empty();
 
     // long poll execution state
-    private final ExecutorService longPollThreadPool;
-    private final HashedWheelTimer requestTimer;
-    private Timeout expirationTimerTask = null;
-    private Future<?> deferredTask = null;
+    private final Executor longPollThreadPool;
+    private final LongPollTimeoutWheel timeoutWheel;
+    private LongPollTimeoutWheel.Waiter expirationTimeout = null;
+    private boolean deferred = false;
     private boolean shouldReadEntry = false;
 
     LongPollReadEntryProcessorV3(Request request,
                                  BookieRequestHandler requestHandler,
                                  BookieRequestProcessor requestProcessor,
                                  ExecutorService fenceThreadPool,
-                                 ExecutorService longPollThreadPool,
-                                 HashedWheelTimer requestTimer) {
+                                 Executor longPollThreadPool,
+                                 LongPollTimeoutWheel timeoutWheel) {
         super(request, requestHandler, requestProcessor, fenceThreadPool);
         this.previousLAC = readRequest.getPreviousLAC();
         this.longPollThreadPool = longPollThreadPool;
-        this.requestTimer = requestTimer;
-
+        this.timeoutWheel = timeoutWheel;
     }
 
     @Override
@@ -162,12 +160,10 @@ class LongPollReadEntryProcessorV3 extends ReadEntryProcessorV3 implements Watch
                     logger.trace("Waiting For LAC Update {}: Timeout {}", previousLAC, readRequest.getTimeOut());
                 }
                 synchronized (this) {
-                    expirationTimerTask = requestTimer.newTimeout(timeout -> {
-                            requestProcessor.getBookie().cancelWaitForLastAddConfirmedUpdate(ledgerId, this);
-                            // When the timeout expires just get whatever is the current
-                            // readLastConfirmed
-                            LongPollReadEntryProcessorV3.this.scheduleDeferredRead(true);
-                    }, readRequest.getTimeOut(), TimeUnit.MILLISECONDS);
+                    // the LAC might have been updated already
+                    if (!deferred) {
+                        expirationTimeout = timeoutWheel.add(this, readRequest.getTimeOut(), TimeUnit.MILLISECONDS);
+                    }
                 }
                 return null;
             }
@@ -184,6 +180,21 @@ class LongPollReadEntryProcessorV3 extends ReadEntryProcessorV3 implements Watch
         }
     }
 
+    @Override
+    public void expire() {
+        try {
+            requestProcessor.getBookie().cancelWaitForLastAddConfirmedUpdate(ledgerId, this);
+        } catch (IOException e) {
+            logger.warn("Failed to cancel the wait for LAC update of ledger {}", ledgerId, e);
+        }
+        // When the timeout expires just get whatever is the current
+        // readLastConfirmed
+        scheduleDeferredRead(true);
+    }
+
+    /**
+     * The notification is shared with the other watchers of the ledger, so it is neither retained nor recycled.
+     */
     @Override
     public void update(LastAddConfirmedUpdateNotification newLACNotification) {
         if (newLACNotification.getLastAddConfirmed() > previousLAC) {
@@ -196,22 +207,23 @@ class LongPollReadEntryProcessorV3 extends ReadEntryProcessorV3 implements Watch
             }
             scheduleDeferredRead(false);
         }
-        newLACNotification.recycle();
     }
 
     private synchronized void scheduleDeferredRead(boolean timeout) {
-        if (null == deferredTask) {
+        if (!deferred) {
             if (logger.isTraceEnabled()) {
                 logger.trace("Deferred Task, expired: {}, request: {}", timeout, request);
             }
+            deferred = true;
             try {
                 shouldReadEntry = true;
-                deferredTask = longPollThreadPool.submit(this);
+                longPollThreadPool.execute(this);
             } catch (RejectedExecutionException exc) {
                 // If the threadPool has been shutdown, simply drop the task
             }
-            if (null != expirationTimerTask) {
-                expirationTimerTask.cancel();
+            if (null != expirationTimeout) {
+                timeoutWheel.remove(expirationTimeout);
+                expirationTimeout = null;
             }
 
             registerEvent(timeout, requestProcessor.getRequestStats().getLongPollWaitStats(), lastPhaseStartTime);
@@ -0,0 +1,208 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Timing wheel shared by the long poll requests waiting for a LAC update.
+ *
+ * <p>A waiting request is linked into the bucket of the tick of its deadline, and unlinked in constant time when
+ * it is woken up before the deadline. The wheel is advanced by a single task on the request timer per tick, which
+ * expires all the requests of the elapsed ticks, instead of scheduling and cancelling a timer task per request.
+ */
+class LongPollTimeoutWheel implements TimerTask {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LongPollTimeoutWheel.class);
+
+    /**
+     * Action run when a waiting request expires.
+     */
+    interface Expirable {
+        void expire();
+    }
+
+    /**
+     * A waiting request, linked into the bucket of its deadline tick.
+     */
+    static final class Waiter {
+        private final Expirable target;
+        private final long deadlineTick;
+        private volatile Bucket bucket;
+        private Waiter prev;
+        private Waiter next;
+
+        private Waiter(Expirable target, long deadlineTick) {
+            this.target = target;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+
+    private static final class Bucket {
+        // guarded by this
+        private Waiter head;
+        private long lastProcessedTick = -1;
+
+        private void add(Waiter waiter) {
+            waiter.bucket = this;
+            waiter.next = head;
+            if (head != null) {
+                head.prev = waiter;
+            }
+            head = waiter;
+        }
+
+        private void remove(Waiter waiter) {
+            if (waiter.prev != null) {
+                waiter.prev.next = waiter.next;
+            } else {
+                head = waiter.next;
+            }
+            if (waiter.next != null) {
+                waiter.next.prev = waiter.prev;
+            }
+            waiter.bucket = null;
+            waiter.prev = null;
+            waiter.next = null;
+        }
+    }
+
+    private final Timer timer;
+    private final long tickNanos;
+    private final long startNanos;
+    private final Bucket[] buckets;
+    private final int mask;
+
+    // last tick expired by the wheel, only updated by the timer thread
+    private volatile long lastProcessedTick;
+    private volatile boolean stopped = false;
+
+    LongPollTimeoutWheel(Timer timer, long tickDuration, TimeUnit unit, int numBuckets) {
+        this.timer = timer;
+        this.tickNanos = Math.max(1, unit.toNanos(tickDuration));
+        this.startNanos = MathUtils.nowInNano();
+        int size = Integer.highestOneBit(Math.max(2, numBuckets - 1)) << 1;
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.lastProcessedTick = 0;
+        timer.newTimeout(this, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Add a request which expires after the given delay, unless it is removed before.
+     */
+    Waiter add(Expirable target, long delay, TimeUnit unit) {
+        long deadlineTick = (MathUtils.elapsedNanos(startNanos) + unit.toNanos(delay) + tickNanos - 1) / tickNanos;
+        Waiter waiter = new Waiter(target, deadlineTick);
+        long tick = deadlineTick;
+        while (true) {
+            tick = Math.max(tick, lastProcessedTick + 1);
+            Bucket bucket = buckets[(int) (tick & mask)];
+            synchronized (bucket) {
+                // the bucket is marked under its lock when the wheel expires it, so a waiter is never added to a
+                // bucket just after the tick of its deadline was processed
+                if (bucket.lastProcessedTick < tick) {
+                    bucket.add(waiter);
+                    return waiter;
+                }
+                tick = bucket.lastProcessedTick + 1;
+            }
+        }
+    }
+
+    /**
+     * Remove a request from the wheel.
+     *
+     * @return true if the request was removed, false if it was already expired or removed
+     */
+    boolean remove(Waiter waiter) {
+        while (true) {
+            Bucket bucket = waiter.bucket;
+            if (bucket == null) {
+                return false;
+            }
+            synchronized (bucket) {
+                if (waiter.bucket == bucket) {
+                    bucket.remove(waiter);
+                    return true;
+                }
+            }
+        }
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        if (stopped) {
+            return;
+        }
+
+        long nowTick = MathUtils.elapsedNanos(startNanos) / tickNanos;
+        // each bucket is visited at most once, and expires all its waiters up to now
+        long fromTick = Math.max(lastProcessedTick + 1, nowTick - mask);
+        for (long tick = fromTick; tick <= nowTick; tick++) {
+            Bucket bucket = buckets[(int) (tick & mask)];
+            Waiter expired = null;
+            synchronized (bucket) {
+                bucket.lastProcessedTick = tick;
+                Waiter waiter = bucket.head;
+                while (waiter != null) {
+                    Waiter next = waiter.next;
+                    if (waiter.deadlineTick <= nowTick) {
+                        bucket.remove(waiter);
+                        waiter.next = expired;
+                        expired = waiter;
+                    }
+                    waiter = next;
+                }
+            }
+            lastProcessedTick = tick;
+
+            while (expired != null) {
+                Waiter next = expired.next;
+                expired.next = null;
+                try {
+                    expired.target.expire();
+                } catch (Throwable t) {
+                    LOG.error("Unexpected error while expiring a long poll request", t);
+                }
+                expired = next;
+            }
+        }
+
+        if (!stopped) {
+            long nextTickNanos = (nowTick + 1) * tickNanos - MathUtils.elapsedNanos(startNanos);
+            timer.newTimeout(this, Math.max(0, nextTickNanos), TimeUnit.NANOSECONDS);
+        }
+    }
+}
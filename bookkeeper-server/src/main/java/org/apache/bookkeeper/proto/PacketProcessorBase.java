@@ -68,7 +68,7 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
 
     protected void sendWriteReqResponse(int rc, Object response, OpStatsLogger statsLogger) {
         sendResponse(rc, response, statsLogger);
-        requestProcessor.onAddRequestFinish();
+        requestProcessor.onAddRequestFinish(MathUtils.elapsedNanos(enqueueNanos));
     }
 
     protected void sendReadReqResponse(int rc, Object response, OpStatsLogger statsLogger, boolean throttle) {
@@ -77,7 +77,7 @@ abstract class PacketProcessorBase<T extends Request> implements Runnable {
         } else {
             sendResponse(rc, response, statsLogger);
         }
-        requestProcessor.onReadRequestFinish();
+        requestProcessor.onReadRequestFinish(MathUtils.elapsedNanos(enqueueNanos));
     }
 
     protected void sendResponse(int rc, Object response, OpStatsLogger statsLogger) {
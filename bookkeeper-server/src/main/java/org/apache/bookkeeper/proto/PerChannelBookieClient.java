@@ -106,6 +106,8 @@ import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ForceLedgerCallba
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GenericCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GetBookieInfoCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GetListOfEntriesOfLedgerCallback;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.RangeAddCallback;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.RangeReadCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryCallbackCtx;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadLacCallback;
@@ -123,6 +125,10 @@ import org.apache.bookkeeper.proto.BookkeeperProtocol.GetListOfEntriesOfLedgerRe
 import org.apache.bookkeeper.proto.BookkeeperProtocol.GetListOfEntriesOfLedgerResponse;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.RangeAddRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.RangeAddResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.RangeReadRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.RangeReadResponse;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLacRequest;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadLacResponse;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.ReadRequest;
@@ -272,6 +278,26 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     private final OpStatsLogger connectTimer;
     private final OpStatsLogger getListOfEntriesOfLedgerCompletionOpLogger;
     private final OpStatsLogger getListOfEntriesOfLedgerCompletionTimeoutOpLogger;
+    @StatsDoc(
+        name = BookKeeperClientStats.RANGE_READ_OP,
+        help = "channel stats of range read requests"
+    )
+    private final OpStatsLogger rangeReadOpLogger;
+    @StatsDoc(
+        name = BookKeeperClientStats.TIMEOUT_RANGE_READ,
+        help = "timeout stats of range read requests"
+    )
+    private final OpStatsLogger rangeReadTimeoutOpLogger;
+    @StatsDoc(
+        name = BookKeeperClientStats.RANGE_ADD_OP,
+        help = "channel stats of range add requests"
+    )
+    private final OpStatsLogger rangeAddOpLogger;
+    @StatsDoc(
+        name = BookKeeperClientStats.TIMEOUT_RANGE_ADD,
+        help = "timeout stats of range add requests"
+    )
+    private final OpStatsLogger rangeAddTimeoutOpLogger;
     @StatsDoc(
         name = BookKeeperClientStats.NETTY_EXCEPTION_CNT,
         help = "the number of exceptions received from this channel"
@@ -432,6 +458,10 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         startTLSTimeoutOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.CHANNEL_TIMEOUT_START_TLS_OP);
         getListOfEntriesOfLedgerCompletionTimeoutOpLogger = statsLogger
                 .getOpStatsLogger(BookKeeperClientStats.TIMEOUT_GET_LIST_OF_ENTRIES_OF_LEDGER);
+        rangeReadOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.RANGE_READ_OP);
+        rangeReadTimeoutOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.TIMEOUT_RANGE_READ);
+        rangeAddOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.RANGE_ADD_OP);
+        rangeAddTimeoutOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.TIMEOUT_RANGE_ADD);
         exceptionCounter = statsLogger.getCounter(BookKeeperClientStats.NETTY_EXCEPTION_CNT);
         connectTimer = statsLogger.getOpStatsLogger(BookKeeperClientStats.CLIENT_CONNECT_TIMER);
         addEntryOutstanding = statsLogger.getCounter(BookKeeperClientStats.ADD_OP_OUTSTANDING);
@@ -899,6 +929,52 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         writeAndFlush(channel, completionKey, getListOfEntriesOfLedgerRequest);
     }
 
+    public void readEntryRange(final long ledgerId, final long firstEntryId, final long lastEntryId,
+                               final long maxSize, RangeReadCallback cb, Object ctx) {
+        final long txnId = getTxnId();
+        final CompletionKey completionKey = new V3CompletionKey(txnId, OperationType.RANGE_READ_ENTRY);
+        completionObjects.put(completionKey,
+                new RangeReadCompletion(completionKey, cb, ctx, ledgerId, firstEntryId));
+
+        // Build the request.
+        BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder().setVersion(ProtocolVersion.VERSION_THREE)
+                .setOperation(OperationType.RANGE_READ_ENTRY).setTxnId(txnId);
+
+        RangeReadRequest.Builder rangeReadRequestBuilder = RangeReadRequest.newBuilder()
+                .setLedgerId(ledgerId)
+                .setFirstEntryId(firstEntryId)
+                .setLastEntryId(lastEntryId)
+                .setMaxSize(maxSize);
+
+        final Request rangeReadRequest = withRequestContext(Request.newBuilder()).setHeader(headerBuilder)
+                .setRangeReadRequest(rangeReadRequestBuilder).build();
+
+        writeAndFlush(channel, completionKey, rangeReadRequest);
+    }
+
+    public void addEntryRange(final long ledgerId, byte[] masterKey, List<ByteBuf> entries,
+                              RangeAddCallback cb, Object ctx) {
+        final long txnId = getTxnId();
+        final CompletionKey completionKey = new V3CompletionKey(txnId, OperationType.RANGE_ADD_ENTRY);
+        completionObjects.put(completionKey, new RangeAddCompletion(completionKey, cb, ctx, ledgerId));
+
+        // Build the request.
+        BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder().setVersion(ProtocolVersion.VERSION_THREE)
+                .setOperation(OperationType.RANGE_ADD_ENTRY).setTxnId(txnId);
+
+        RangeAddRequest.Builder rangeAddRequestBuilder = RangeAddRequest.newBuilder()
+                .setLedgerId(ledgerId)
+                .setMasterKey(UnsafeByteOperations.unsafeWrap(masterKey));
+        for (ByteBuf entry : entries) {
+            rangeAddRequestBuilder.addEntries(UnsafeByteOperations.unsafeWrap(entry.nioBuffer()));
+        }
+
+        final Request rangeAddRequest = withRequestContext(Request.newBuilder()).setHeader(headerBuilder)
+                .setRangeAddRequest(rangeAddRequestBuilder).build();
+
+        writeAndFlush(channel, completionKey, rangeAddRequest);
+    }
+
     /**
      * Long Poll Reads.
      */
@@ -2076,7 +2152,11 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             int rc = convertStatus(status, BKException.Code.ReadException);
             cb.getBookieInfoComplete(rc,
                                      new BookieInfo(totalDiskSpace,
-                                                    freeDiskSpace), ctx);
+                                                    freeDiskSpace,
+                                                    getBookieInfoResponse.getJournalQueueLength(),
+                                                    getBookieInfoResponse.getAddLatencyP99Micros(),
+                                                    getBookieInfoResponse.getReadLatencyP99Micros(),
+                                                    getBookieInfoResponse.getWriteCacheUsagePercent()), ctx);
         }
     }
 
@@ -2135,6 +2215,110 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
     }
 
+    class RangeReadCompletion extends CompletionValue {
+        final RangeReadCallback cb;
+        final long firstEntryId;
+
+        public RangeReadCompletion(final CompletionKey key, final RangeReadCallback origCallback,
+                                   final Object origCtx, final long ledgerId, final long firstEntryId) {
+            super("RangeRead", origCtx, ledgerId, firstEntryId, rangeReadOpLogger, rangeReadTimeoutOpLogger);
+            this.firstEntryId = firstEntryId;
+            this.cb = new RangeReadCallback() {
+                @Override
+                public void rangeReadComplete(int rc, long ledgerId, long firstEntryId, List<ByteBuf> entries,
+                                              Object ctx) {
+                    logOpResult(rc);
+                    origCallback.rangeReadComplete(rc, ledgerId, firstEntryId, entries, ctx);
+                    key.release();
+                }
+            };
+        }
+
+        @Override
+        public void errorOut() {
+            errorOut(BKException.Code.BookieHandleNotAvailableException);
+        }
+
+        @Override
+        public void errorOut(final int rc) {
+            errorOutAndRunCallback(() -> cb.rangeReadComplete(rc, ledgerId, firstEntryId, null, ctx));
+        }
+
+        @Override
+        public void handleV3Response(BookkeeperProtocol.Response response) {
+            RangeReadResponse rangeReadResponse = response.getRangeReadResponse();
+            StatusCode status = response.getStatus() == StatusCode.EOK ? rangeReadResponse.getStatus()
+                    : response.getStatus();
+
+            if (LOG.isDebugEnabled()) {
+                logResponse(status, "ledgerId", ledgerId, "firstEntryId", firstEntryId,
+                        "numEntries", rangeReadResponse.getEntriesCount());
+            }
+
+            int rc = convertStatus(status, BKException.Code.ReadException);
+            List<ByteBuf> entries = null;
+            if (rc == BKException.Code.OK) {
+                entries = new ArrayList<>(rangeReadResponse.getEntriesCount());
+                for (ByteString entry : rangeReadResponse.getEntriesList()) {
+                    entries.add(Unpooled.wrappedBuffer(entry.asReadOnlyByteBuffer()));
+                }
+            }
+            cb.rangeReadComplete(rc, ledgerId, firstEntryId, entries, ctx);
+        }
+    }
+
+    class RangeAddCompletion extends CompletionValue {
+        final RangeAddCallback cb;
+
+        public RangeAddCompletion(final CompletionKey key, final RangeAddCallback origCallback,
+                                  final Object origCtx, final long ledgerId) {
+            super("RangeAdd", origCtx, ledgerId, 0L, rangeAddOpLogger, rangeAddTimeoutOpLogger);
+            this.cb = new RangeAddCallback() {
+                @Override
+                public void rangeAddComplete(int rc, long ledgerId, int numEntriesAdded, BookieId addr,
+                                             Object ctx) {
+                    logOpResult(rc);
+                    origCallback.rangeAddComplete(rc, ledgerId, numEntriesAdded, addr, ctx);
+                    key.release();
+                }
+            };
+        }
+
+        @Override
+        boolean maybeTimeout() {
+            if (MathUtils.elapsedNanos(startTime) >= addEntryTimeoutNanos) {
+                timeout();
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public void errorOut() {
+            errorOut(BKException.Code.BookieHandleNotAvailableException);
+        }
+
+        @Override
+        public void errorOut(final int rc) {
+            errorOutAndRunCallback(() -> cb.rangeAddComplete(rc, ledgerId, 0, bookieId, ctx));
+        }
+
+        @Override
+        public void handleV3Response(BookkeeperProtocol.Response response) {
+            RangeAddResponse rangeAddResponse = response.getRangeAddResponse();
+            StatusCode status = response.getStatus() == StatusCode.EOK ? rangeAddResponse.getStatus()
+                    : response.getStatus();
+
+            if (LOG.isDebugEnabled()) {
+                logResponse(status, "ledgerId", ledgerId, "numEntriesAdded", rangeAddResponse.getNumEntriesAdded());
+            }
+
+            int rc = convertStatus(status, BKException.Code.WriteException);
+            cb.rangeAddComplete(rc, ledgerId, rangeAddResponse.getNumEntriesAdded(), bookieId, ctx);
+        }
+    }
+
     private final Recycler<AddCompletion> addCompletionRecycler = new Recycler<AddCompletion>() {
             @Override
             protected AddCompletion newObject(Recycler.Handle<AddCompletion> handle) {
@@ -0,0 +1,191 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.bookie.BookieException.OperationRejectedException;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.RangeAddRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.RangeAddResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A processor class for v3 range add packets.
+ *
+ * <p>Adds a batch of entries of a ledger, as read from another bookie by a range read, with recovery add semantics.
+ * The entries are all queued to the journal, which syncs them in a group, and a single response is sent once all
+ * of them are persisted.
+ */
+class RangeAddEntryProcessorV3 extends PacketProcessorBaseV3 {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RangeAddEntryProcessorV3.class);
+
+    private final long startTimeNanos = MathUtils.nowInNano();
+
+    RangeAddEntryProcessorV3(Request request, BookieRequestHandler requestHandler,
+                             BookieRequestProcessor requestProcessor) {
+        super(request, requestHandler, requestProcessor);
+        requestProcessor.onAddRequestStart(requestHandler.ctx().channel(), RequestUtils.isHighPriority(request));
+    }
+
+    @Override
+    public void run() {
+        RangeAddRequest rangeAddRequest = request.getRangeAddRequest();
+        long ledgerId = rangeAddRequest.getLedgerId();
+        int numEntries = rangeAddRequest.getEntriesCount();
+
+        if (!isVersionCompatible()) {
+            sendResponse(ledgerId, StatusCode.EBADVERSION, 0);
+            return;
+        }
+
+        if (requestProcessor.getBookie().isReadOnly()
+                && !(RequestUtils.isHighPriority(request)
+                        && requestProcessor.getBookie().isAvailableForHighPriorityWrites())) {
+            LOG.warn("BookieServer is running as readonly mode, so rejecting the request from the client!");
+            sendResponse(ledgerId, StatusCode.EREADONLY, 0);
+            return;
+        }
+
+        // rc of each entry, in the order of the request
+        final int[] results = new int[numEntries];
+        // one more for the submission loop, so that the response is not sent before all entries are submitted
+        final AtomicInteger pending = new AtomicInteger(numEntries + 1);
+        WriteCallback wcb = new WriteCallback() {
+            @Override
+            public void writeComplete(int rc, long ledgerId, long entryId, BookieId addr, Object ctx) {
+                results[(Integer) ctx] = rc;
+                if (pending.decrementAndGet() == 0) {
+                    complete(ledgerId, results);
+                }
+            }
+        };
+
+        byte[] masterKey = rangeAddRequest.getMasterKey().toByteArray();
+        int submitted = 0;
+        for (; submitted < numEntries; submitted++) {
+            ByteBuf entry = Unpooled.wrappedBuffer(rangeAddRequest.getEntries(submitted).asReadOnlyByteBuffer());
+            int rc;
+            if (entry.readableBytes() < 16 || entry.getLong(entry.readerIndex()) != ledgerId) {
+                LOG.error("Entry {} of range add request does not belong to ledger {}", submitted, ledgerId);
+                rc = BookieProtocol.EBADREQ;
+            } else {
+                try {
+                    requestProcessor.getBookie().recoveryAddEntry(entry, wcb, submitted, masterKey);
+                    continue;
+                } catch (OperationRejectedException e) {
+                    requestProcessor.getRequestStats().getAddEntryRejectedCounter().inc();
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Operation rejected while adding entries to ledger {}", ledgerId, e);
+                    }
+                    rc = BookieProtocol.ETOOMANYREQUESTS;
+                } catch (IOException e) {
+                    LOG.error("Error adding entries to ledger:{}", ledgerId, e);
+                    rc = BookieProtocol.EIO;
+                } catch (BookieException e) {
+                    LOG.error("Unauthorized access to ledger:{} while adding entries", ledgerId, e);
+                    rc = BookieProtocol.EUA;
+                } catch (Throwable t) {
+                    LOG.error("Unexpected exception while adding entries to ledger:{}", ledgerId, t);
+                    rc = BookieProtocol.EBADREQ;
+                }
+            }
+            // stop at the first failure, the following entries are not added
+            for (int i = submitted; i < numEntries; i++) {
+                results[i] = rc;
+            }
+            pending.addAndGet(-(numEntries - submitted));
+            break;
+        }
+
+        if (pending.decrementAndGet() == 0) {
+            complete(ledgerId, results);
+        }
+    }
+
+    private void complete(long ledgerId, int[] results) {
+        int numEntriesAdded = 0;
+        while (numEntriesAdded < results.length && results[numEntriesAdded] == BookieProtocol.EOK) {
+            numEntriesAdded++;
+        }
+
+        StatusCode status;
+        int rc = numEntriesAdded < results.length ? results[numEntriesAdded] : BookieProtocol.EOK;
+        switch (rc) {
+            case BookieProtocol.EOK:
+                status = StatusCode.EOK;
+                break;
+            case BookieProtocol.EIO:
+                status = StatusCode.EIO;
+                break;
+            case BookieProtocol.ETOOMANYREQUESTS:
+                status = StatusCode.ETOOMANYREQUESTS;
+                break;
+            case BookieProtocol.EBADREQ:
+                status = StatusCode.EBADREQ;
+                break;
+            default:
+                status = StatusCode.EUA;
+                break;
+        }
+        sendResponse(ledgerId, status, numEntriesAdded);
+    }
+
+    private void sendResponse(long ledgerId, StatusCode status, int numEntriesAdded) {
+        if (status == StatusCode.EOK) {
+            requestProcessor.getRequestStats().getRangeAddStats()
+                    .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        } else {
+            requestProcessor.getRequestStats().getRangeAddStats()
+                    .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        }
+
+        RangeAddResponse rangeAddResponse = RangeAddResponse.newBuilder()
+                .setStatus(status)
+                .setLedgerId(ledgerId)
+                .setNumEntriesAdded(numEntriesAdded)
+                .build();
+        Response resp = Response.newBuilder()
+                .setHeader(getHeader())
+                .setStatus(status)
+                .setRangeAddResponse(rangeAddResponse)
+                .build();
+        sendResponse(status, resp, requestProcessor.getRequestStats().getRangeAddRequestStats());
+    }
+
+    @Override
+    protected void sendResponse(StatusCode code, Object response, OpStatsLogger statsLogger) {
+        super.sendResponse(code, response, statsLogger);
+        requestProcessor.onAddRequestFinish(MathUtils.elapsedNanos(enqueueNanos));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import com.google.protobuf.ByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.RangeReadRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.RangeReadResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A processor class for v3 range read packets.
+ *
+ * <p>Reads consecutive entries of a ledger, as stored by the bookie, up to the last entry of the range or the max
+ * size of the response. An entry which would take the response past its max size is left to the next request,
+ * unless it is the first entry of the range. The response is cut short at the first entry which cannot be read, so
+ * that the reader can fall back to reading the remaining entries one by one.
+ */
+public class RangeReadEntryProcessorV3 extends PacketProcessorBaseV3 implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RangeReadEntryProcessorV3.class);
+
+    protected final RangeReadRequest rangeReadRequest;
+    protected final long ledgerId;
+
+    public RangeReadEntryProcessorV3(Request request, BookieRequestHandler requestHandler,
+                                     BookieRequestProcessor requestProcessor) {
+        super(request, requestHandler, requestProcessor);
+        requestProcessor.onReadRequestStart(requestHandler.ctx().channel(), RequestUtils.isHighPriority(request));
+        this.rangeReadRequest = request.getRangeReadRequest();
+        this.ledgerId = rangeReadRequest.getLedgerId();
+    }
+
+    private RangeReadResponse getRangeReadResponse() {
+        long startTimeNanos = MathUtils.nowInNano();
+        long firstEntryId = rangeReadRequest.getFirstEntryId();
+
+        RangeReadResponse.Builder rangeReadResponse = RangeReadResponse.newBuilder()
+                .setLedgerId(ledgerId)
+                .setFirstEntryId(firstEntryId);
+
+        if (!isVersionCompatible()) {
+            rangeReadResponse.setStatus(StatusCode.EBADVERSION);
+            requestProcessor.getRequestStats().getRangeReadStats()
+                    .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            return rangeReadResponse.build();
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Received new range read request: {}", request);
+        }
+
+        long maxSize = requestProcessor.getMaxRangeReadSize();
+        if (rangeReadRequest.hasMaxSize() && rangeReadRequest.getMaxSize() > 0) {
+            maxSize = Math.min(maxSize, rangeReadRequest.getMaxSize());
+        }
+
+        StatusCode status = StatusCode.EOK;
+        long size = 0;
+        for (long entryId = firstEntryId; entryId <= rangeReadRequest.getLastEntryId(); entryId++) {
+            ByteBuf entry = null;
+            try {
+                entry = requestProcessor.getBookie().readEntry(ledgerId, entryId);
+            } catch (Bookie.NoLedgerException e) {
+                status = StatusCode.ENOLEDGER;
+            } catch (Bookie.NoEntryException e) {
+                status = StatusCode.ENOENTRY;
+            } catch (IOException e) {
+                LOG.error("IOException while reading entry: {} from ledger {} ", entryId, ledgerId, e);
+                status = StatusCode.EIO;
+            } catch (BookieException.DataUnknownException e) {
+                status = StatusCode.EUNKNOWNLEDGERSTATE;
+            } catch (BookieException e) {
+                LOG.error("Unauthorized access to ledger:{} while reading entry:{}", ledgerId, entryId);
+                status = StatusCode.EUA;
+            }
+            if (status != StatusCode.EOK) {
+                break;
+            }
+
+            try {
+                if (rangeReadResponse.getEntriesCount() > 0 && size + entry.readableBytes() > maxSize) {
+                    // the entry would take the response past its max size, leave it to the next request
+                    break;
+                }
+                size += entry.readableBytes();
+                rangeReadResponse.addEntries(ByteString.copyFrom(entry.nioBuffer()));
+            } finally {
+                ReferenceCountUtil.release(entry);
+            }
+        }
+
+        if (rangeReadResponse.getEntriesCount() > 0) {
+            // return the entries read so far, the reader will fail on the next entry
+            status = StatusCode.EOK;
+        }
+
+        if (status == StatusCode.EOK) {
+            requestProcessor.getRequestStats().getRangeReadStats()
+                    .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        } else {
+            requestProcessor.getRequestStats().getRangeReadStats()
+                    .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        }
+        rangeReadResponse.setStatus(status);
+        return rangeReadResponse.build();
+    }
+
+    @Override
+    public void run() {
+        RangeReadResponse rangeReadResponse = getRangeReadResponse();
+        Response.Builder response = Response.newBuilder().setHeader(getHeader())
+                .setStatus(rangeReadResponse.getStatus())
+                .setRangeReadResponse(rangeReadResponse);
+        Response resp = response.build();
+        sendResponse(rangeReadResponse.getStatus(), resp,
+                requestProcessor.getRequestStats().getRangeReadRequestStats());
+    }
+
+    @Override
+    protected void sendResponse(StatusCode code, Object response, OpStatsLogger statsLogger) {
+        super.sendResponse(code, response, statsLogger);
+        requestProcessor.onReadRequestFinish(MathUtils.elapsedNanos(enqueueNanos));
+    }
+}
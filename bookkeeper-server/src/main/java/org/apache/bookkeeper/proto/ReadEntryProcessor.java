@@ -51,7 +51,8 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
         rep.init(request, requestHandler, requestProcessor);
         rep.fenceThreadPool = fenceThreadPool;
         rep.throttleReadResponses = throttleReadResponses;
-        requestProcessor.onReadRequestStart(requestHandler.ctx().channel());
+        requestProcessor.onReadRequestStart(requestHandler.ctx().channel(),
+                request.isHighPriority() || request.isFencing());
         return rep;
     }
 
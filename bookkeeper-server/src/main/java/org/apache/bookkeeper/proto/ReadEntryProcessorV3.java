@@ -61,7 +61,11 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
                                 BookieRequestProcessor requestProcessor,
                                 ExecutorService fenceThreadPool) {
         super(request, requestHandler, requestProcessor);
-        requestProcessor.onReadRequestStart(requestHandler.ctx().channel());
+        // long poll reads wait for new entries rather than for the bookie, so they are neither delayed nor
+        // accounted by the adaptive limit of reads in progress
+        requestProcessor.onReadRequestStart(requestHandler.ctx().channel(),
+                RequestUtils.isHighPriority(request) || RequestUtils.isFenceRequest(request.getReadRequest())
+                        || request.getReadRequest().hasPreviousLAC());
 
         this.readRequest = request.getReadRequest();
         this.ledgerId = readRequest.getLedgerId();
@@ -327,7 +331,7 @@ class ReadEntryProcessorV3 extends PacketProcessorBaseV3 {
         sendResponse(response.getStatus(),
                      response.build(),
                      reqStats);
-        requestProcessor.onReadRequestFinish();
+        requestProcessor.onReadRequestFinish(readRequest.hasPreviousLAC() ? -1L : MathUtils.elapsedNanos(enqueueNanos));
     }
 
     //
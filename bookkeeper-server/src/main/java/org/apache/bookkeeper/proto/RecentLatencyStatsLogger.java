@@ -0,0 +1,150 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.bookkeeper.stats.OpStatsData;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+
+/**
+ * Op stats logger keeping a histogram of the latencies of the recent successful events, besides the stats logger
+ * it decorates, so that the bookie can report its current latency percentiles to the clients.
+ *
+ * <p>The latencies are counted in power of two buckets of microseconds, over the current and the previous windows.
+ */
+class RecentLatencyStatsLogger implements OpStatsLogger {
+
+    private static final int NUM_BUCKETS = 40;
+    static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final OpStatsLogger delegate;
+    private final Ticker ticker;
+    private final long startNanos;
+    // the windows of the even and odd epochs
+    private final AtomicLongArray[] windows = {
+        new AtomicLongArray(NUM_BUCKETS), new AtomicLongArray(NUM_BUCKETS)
+    };
+    private volatile long currentEpoch = 0;
+
+    RecentLatencyStatsLogger(OpStatsLogger delegate) {
+        this(delegate, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    RecentLatencyStatsLogger(OpStatsLogger delegate, Ticker ticker) {
+        this.delegate = delegate;
+        this.ticker = ticker;
+        this.startNanos = ticker.read();
+    }
+
+    private long rotate() {
+        long epoch = (ticker.read() - startNanos) / WINDOW_NANOS;
+        if (epoch != currentEpoch) {
+            synchronized (this) {
+                long current = currentEpoch;
+                if (epoch > current) {
+                    // reuse the window of the epoch before the previous one, or both windows after an idle period.
+                    // the events recorded concurrently with the reset may be lost, which is fine for a load signal
+                    clear(windows[(int) (epoch & 1)]);
+                    if (epoch > current + 1) {
+                        clear(windows[(int) ((epoch + 1) & 1)]);
+                    }
+                    currentEpoch = epoch;
+                }
+            }
+        }
+        return epoch;
+    }
+
+    private static void clear(AtomicLongArray window) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            window.set(i, 0L);
+        }
+    }
+
+    private static int bucket(long micros) {
+        return Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, micros)));
+    }
+
+    /**
+     * Get the given percentile of the latencies of the recent successful events.
+     *
+     * @param percentile percentile, between 0 and 1
+     * @return upper bound of the percentile latency in microseconds, or 0 if there was no recent event
+     */
+    long getRecentLatencyMicros(double percentile) {
+        rotate();
+        long[] counts = new long[NUM_BUCKETS];
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = windows[0].get(i) + windows[1].get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0L;
+        }
+
+        long threshold = (long) Math.ceil(total * percentile);
+        long count = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            count += counts[i];
+            if (count >= threshold) {
+                return 1L << i;
+            }
+        }
+        return 1L << (NUM_BUCKETS - 1);
+    }
+
+    @Override
+    public void registerFailedEvent(long eventLatency, TimeUnit unit) {
+        delegate.registerFailedEvent(eventLatency, unit);
+    }
+
+    @Override
+    public void registerSuccessfulEvent(long eventLatency, TimeUnit unit) {
+        delegate.registerSuccessfulEvent(eventLatency, unit);
+        long epoch = rotate();
+        windows[(int) (epoch & 1)].incrementAndGet(bucket(unit.toMicros(eventLatency)));
+    }
+
+    @Override
+    public void registerSuccessfulValue(long value) {
+        delegate.registerSuccessfulValue(value);
+    }
+
+    @Override
+    public void registerFailedValue(long value) {
+        delegate.registerFailedValue(value);
+    }
+
+    @Override
+    public OpStatsData toOpStatsData() {
+        return delegate.toOpStatsData();
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+    }
+}
@@ -33,6 +33,10 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.GET_BOOKIE_INFO
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.GET_BOOKIE_INFO_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.GET_LIST_OF_ENTRIES_OF_LEDGER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.GET_LIST_OF_ENTRIES_OF_LEDGER_REQUEST;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.RANGE_ADD_ENTRY;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.RANGE_ADD_ENTRY_REQUEST;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.RANGE_READ_ENTRY;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.RANGE_READ_ENTRY_REQUEST;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY_BLOCKED;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.READ_ENTRY_BLOCKED_WAIT;
@@ -57,6 +61,7 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.WRITE_THREAD_QU
 
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import lombok.AccessLevel;
 import lombok.Getter;
 import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.Gauge;
@@ -246,17 +251,47 @@ public class RequestStats {
             parent = GET_LIST_OF_ENTRIES_OF_LEDGER_REQUEST
     )
     final OpStatsLogger getListOfEntriesOfLedgerStats;
+    @StatsDoc(
+            name = RANGE_READ_ENTRY_REQUEST,
+            help = "request stats of RangeReadEntry on a bookie"
+    )
+    final OpStatsLogger rangeReadRequestStats;
+    @StatsDoc(
+            name = RANGE_READ_ENTRY,
+            help = "operation stats of RangeReadEntry",
+            parent = RANGE_READ_ENTRY_REQUEST
+    )
+    final OpStatsLogger rangeReadStats;
+    @StatsDoc(
+            name = RANGE_ADD_ENTRY_REQUEST,
+            help = "request stats of RangeAddEntry on a bookie"
+    )
+    final OpStatsLogger rangeAddRequestStats;
+    @StatsDoc(
+            name = RANGE_ADD_ENTRY,
+            help = "operation stats of RangeAddEntry",
+            parent = RANGE_ADD_ENTRY_REQUEST
+    )
+    final OpStatsLogger rangeAddStats;
+
+    // recent latencies of the add and read requests, reported to the clients as the load of the bookie
+    @Getter(AccessLevel.NONE)
+    private final RecentLatencyStatsLogger recentAddRequestStats;
+    @Getter(AccessLevel.NONE)
+    private final RecentLatencyStatsLogger recentReadRequestStats;
 
     public RequestStats(StatsLogger statsLogger) {
         this.addEntryStats = statsLogger.getThreadScopedOpStatsLogger(ADD_ENTRY);
         this.writeThreadQueuedLatency = statsLogger.getThreadScopedOpStatsLogger(WRITE_THREAD_QUEUED_LATENCY);
-        this.addRequestStats = statsLogger.getOpStatsLogger(ADD_ENTRY_REQUEST);
+        this.recentAddRequestStats = new RecentLatencyStatsLogger(statsLogger.getOpStatsLogger(ADD_ENTRY_REQUEST));
+        this.addRequestStats = recentAddRequestStats;
         this.addEntryRejectedCounter = statsLogger.getCounter(ADD_ENTRY_REJECTED);
         this.readEntryStats = statsLogger.getThreadScopedOpStatsLogger(READ_ENTRY);
         this.readEntryRejectedCounter = statsLogger.getCounter(READ_ENTRY_REJECTED);
         this.forceLedgerStats = statsLogger.getOpStatsLogger(FORCE_LEDGER);
         this.forceLedgerRequestStats = statsLogger.getOpStatsLogger(FORCE_LEDGER_REQUEST);
-        this.readRequestStats = statsLogger.getOpStatsLogger(READ_ENTRY_REQUEST);
+        this.recentReadRequestStats = new RecentLatencyStatsLogger(statsLogger.getOpStatsLogger(READ_ENTRY_REQUEST));
+        this.readRequestStats = recentReadRequestStats;
         this.fenceReadEntryStats = statsLogger.getOpStatsLogger(READ_ENTRY_FENCE_READ);
         this.fenceReadRequestStats = statsLogger.getOpStatsLogger(READ_ENTRY_FENCE_REQUEST);
         this.fenceReadWaitStats = statsLogger.getOpStatsLogger(READ_ENTRY_FENCE_WAIT);
@@ -280,6 +315,10 @@ public class RequestStats {
         this.getListOfEntriesOfLedgerStats = statsLogger.getOpStatsLogger(GET_LIST_OF_ENTRIES_OF_LEDGER);
         this.getListOfEntriesOfLedgerRequestStats =
                 statsLogger.getOpStatsLogger(GET_LIST_OF_ENTRIES_OF_LEDGER_REQUEST);
+        this.rangeReadStats = statsLogger.getOpStatsLogger(RANGE_READ_ENTRY);
+        this.rangeReadRequestStats = statsLogger.getOpStatsLogger(RANGE_READ_ENTRY_REQUEST);
+        this.rangeAddStats = statsLogger.getOpStatsLogger(RANGE_ADD_ENTRY);
+        this.rangeAddRequestStats = statsLogger.getOpStatsLogger(RANGE_ADD_ENTRY_REQUEST);
 
         statsLogger.registerGauge(ADD_ENTRY_IN_PROGRESS, new Gauge<Number>() {
             @Override
@@ -382,4 +421,12 @@ public class RequestStats {
         return maxReadsInProgress.get();
     }
 
+    long getRecentAddLatencyMicros(double percentile) {
+        return recentAddRequestStats.getRecentLatencyMicros(percentile);
+    }
+
+    long getRecentReadLatencyMicros(double percentile) {
+        return recentReadRequestStats.getRecentLatencyMicros(percentile);
+    }
+
 }
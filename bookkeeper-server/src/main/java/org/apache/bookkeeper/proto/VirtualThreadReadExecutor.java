@@ -0,0 +1,190 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.apache.bookkeeper.common.util.MdcUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+/**
+ * Executes read requests on virtual threads (Java 21+), so that blocking reads from the ledger storage do not
+ * need a large pool of platform threads to keep the disks busy.
+ *
+ * <p>The number of reads executing concurrently is capped per ledger directory when the ledger storage maps the
+ * ledgers to the directories by ledger id, as {@link org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorage} does
+ * (see {@link org.apache.bookkeeper.bookie.LedgerStorage#getNumLedgerDirsMappedByLedgerId()}). Otherwise the
+ * entries of a ledger may be in any directory, and the reads are capped overall, by the caps of all the directories
+ * together. Reads waiting for the cap are parked virtual threads, and the number of pending reads is bounded.
+ *
+ * <p>Reads are not ordered: requests which need ordering (fencing, long poll and LAC reads) are not executed
+ * here.
+ */
+class VirtualThreadReadExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadReadExecutor.class);
+
+    private static final MethodHandle NEW_THREAD_PER_TASK_EXECUTOR;
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY;
+
+    static {
+        MethodHandle newExecutor = null;
+        ThreadFactory virtualThreadFactory = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual",
+                    MethodType.methodType(Class.forName("java.lang.Thread$Builder$OfVirtual")));
+            MethodHandle name = lookup.findVirtual(builderClass, "name",
+                    MethodType.methodType(builderClass, String.class, long.class));
+            MethodHandle factory = lookup.findVirtual(builderClass, "factory",
+                    MethodType.methodType(ThreadFactory.class));
+            newExecutor = lookup.findStatic(Executors.class, "newThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class, ThreadFactory.class));
+            MethodHandle newFactory = MethodHandles.filterReturnValue(
+                    MethodHandles.filterReturnValue(
+                            ofVirtual.asType(MethodType.methodType(builderClass)),
+                            MethodHandles.insertArguments(name, 1, "BookieReadVirtualThread-", 0L)),
+                    factory);
+            // fails when virtual threads are a preview feature which is not enabled
+            virtualThreadFactory = (ThreadFactory) newFactory.invoke();
+        } catch (Throwable t) {
+            newExecutor = null;
+            virtualThreadFactory = null;
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Virtual threads are not available in this JVM", t);
+            }
+        }
+        NEW_THREAD_PER_TASK_EXECUTOR = newExecutor;
+        VIRTUAL_THREAD_FACTORY = virtualThreadFactory;
+    }
+
+    /**
+     * @return true if the JVM supports virtual threads
+     */
+    static boolean isSupported() {
+        return NEW_THREAD_PER_TASK_EXECUTOR != null && VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+        }
+        try {
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(VIRTUAL_THREAD_FACTORY);
+        } catch (Throwable t) {
+            throw new UnsupportedOperationException("Failed to create virtual thread executor", t);
+        }
+    }
+
+    private final ExecutorService executor;
+    // the permits of each ledger directory, or the permits of all the directories together
+    private final Semaphore[] diskPermits;
+    private final AtomicInteger pendingReads = new AtomicInteger(0);
+    private final int maxPendingReads;
+    private final boolean preserveMdcForTaskExecution;
+
+    VirtualThreadReadExecutor(int numDisks, boolean ledgersMappedToDisks, int maxConcurrentReadsPerDisk,
+                              int maxPendingReads, boolean preserveMdcForTaskExecution) {
+        this(newVirtualThreadExecutor(), numDisks, ledgersMappedToDisks, maxConcurrentReadsPerDisk, maxPendingReads,
+                preserveMdcForTaskExecution);
+    }
+
+    @VisibleForTesting
+    VirtualThreadReadExecutor(ExecutorService executor, int numDisks, boolean ledgersMappedToDisks,
+                              int maxConcurrentReadsPerDisk, int maxPendingReads,
+                              boolean preserveMdcForTaskExecution) {
+        this.executor = executor;
+        numDisks = Math.max(1, numDisks);
+        if (ledgersMappedToDisks) {
+            this.diskPermits = new Semaphore[numDisks];
+            for (int i = 0; i < diskPermits.length; i++) {
+                diskPermits[i] = new Semaphore(maxConcurrentReadsPerDisk);
+            }
+        } else {
+            this.diskPermits = new Semaphore[] { new Semaphore(numDisks * maxConcurrentReadsPerDisk) };
+        }
+        this.maxPendingReads = maxPendingReads;
+        this.preserveMdcForTaskExecution = preserveMdcForTaskExecution;
+    }
+
+    /**
+     * Execute a read request of a ledger on a virtual thread.
+     *
+     * @throws RejectedExecutionException if there are too many pending reads or the executor is shut down
+     */
+    void execute(long ledgerId, Runnable read) {
+        if (pendingReads.incrementAndGet() > maxPendingReads) {
+            pendingReads.decrementAndGet();
+            throw new RejectedExecutionException("Too many pending reads");
+        }
+
+        final Semaphore permits = diskPermits[MathUtils.signSafeMod(ledgerId, diskPermits.length)];
+        final Map<String, String> mdcContextMap = preserveMdcForTaskExecution ? MDC.getCopyOfContextMap() : null;
+        try {
+            executor.execute(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    if (preserveMdcForTaskExecution) {
+                        MdcUtils.restoreContext(mdcContextMap);
+                    }
+                    read.run();
+                } catch (Throwable t) {
+                    LOG.error("Unexpected error while serving a read of ledger {}", ledgerId, t);
+                } finally {
+                    if (preserveMdcForTaskExecution) {
+                        MDC.clear();
+                    }
+                    permits.release();
+                    pendingReads.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingReads.decrementAndGet();
+            throw e;
+        }
+    }
+
+    void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -199,7 +199,8 @@ public class Auditor implements AutoCloseable {
         try {
             LedgerManagerFactory ledgerManagerFactory = bkc.getLedgerManagerFactory();
             ledgerManager = ledgerManagerFactory.newLedgerManager();
-            this.bookieLedgerIndexer = new BookieLedgerIndexer(ledgerManager);
+            this.bookieLedgerIndexer = new BookieLedgerIndexer(ledgerManager,
+                    conf.isAuditorIncrementalBookieLedgerIndexEnabled());
 
             this.ledgerUnderreplicationManager = ledgerManagerFactory
                     .newLedgerUnderreplicationManager();
@@ -628,6 +629,9 @@ public class Auditor implements AutoCloseable {
             // shutdown all auditorTasks to clean some resource
             allAuditorTasks.forEach(AuditorTask::shutdown);
             allAuditorTasks.clear();
+            if (bookieLedgerIndexer != null) {
+                bookieLedgerIndexer.close();
+            }
 
             if (ownAdmin) {
                 admin.close();
@@ -17,17 +17,27 @@
  */
 package org.apache.bookkeeper.replication;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Sets;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import org.apache.bookkeeper.client.BKException;
@@ -39,10 +49,14 @@ import org.apache.bookkeeper.client.LedgerHandle;
 import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRangeIterator;
 import org.apache.bookkeeper.meta.LedgerUnderreplicationManager;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks;
 import org.apache.bookkeeper.replication.ReplicationException.UnavailableException;
+import org.apache.bookkeeper.util.MathUtils;
+import org.apache.bookkeeper.util.collections.ConcurrentLongLongHashMap;
+import org.apache.bookkeeper.versioning.LongVersion;
 import org.apache.zookeeper.AsyncCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,9 +64,22 @@ import org.slf4j.LoggerFactory;
 public class AuditorCheckAllLedgersTask extends AuditorTask {
     private static final Logger LOG = LoggerFactory.getLogger(AuditorBookieCheckTask.class);
 
+    // the minimum interval between two checkpoints persisted by a check, each of them is a metadata store write
+    private static final long CHECKPOINT_PERSIST_INTERVAL_MS = 10000;
+
     private final Semaphore openLedgerNoRecoverySemaphore;
     private final int openLedgerNoRecoverySemaphoreWaitTimeoutMSec;
     private final ExecutorService ledgerCheckerExecutor;
+    private final int parallelism;
+    private final ExecutorService checkAllLedgersWorkers;
+    private final boolean skipUnchangedLedgers;
+    // metadata version of the closed ledgers found fully replicated, when skipping unchanged ledgers. Each ledger
+    // takes between 24 and 48 bytes of heap, depending on the fill factor of the map, and up to twice that while
+    // a check runs, as the versions recorded by the previous check are kept until the check completes
+    private volatile ConcurrentLongLongHashMap checkedLedgerVersions;
+    // the bookies available when the last check started, when skipping unchanged ledgers
+    private Set<String> lastAvailableBookies;
+    private long checkpointPersistIntervalMs = CHECKPOINT_PERSIST_INTERVAL_MS;
 
     AuditorCheckAllLedgersTask(ServerConfiguration conf,
                                AuditorStats auditorStats,
@@ -80,7 +107,13 @@ public class AuditorCheckAllLedgersTask extends AuditorTask {
         this.openLedgerNoRecoverySemaphoreWaitTimeoutMSec =
                 conf.getAuditorAcquireConcurrentOpenLedgerOperationsTimeoutMSec();
 
-        this.ledgerCheckerExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        if (conf.getAuditorCheckAllLedgersParallelism() <= 0) {
+            LOG.error("auditorCheckAllLedgersParallelism should be greater than 0");
+            throw new UnavailableException("auditorCheckAllLedgersParallelism should be greater than 0");
+        }
+        this.parallelism = conf.getAuditorCheckAllLedgersParallelism();
+
+        this.ledgerCheckerExecutor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
             @Override
             public Thread newThread(Runnable r) {
                 Thread t = new Thread(r, "AuditorCheckAllLedgers-LedgerChecker");
@@ -88,6 +121,17 @@ public class AuditorCheckAllLedgersTask extends AuditorTask {
                 return t;
             }
         });
+        this.checkAllLedgersWorkers = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "AuditorCheckAllLedgers-Worker");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        this.skipUnchangedLedgers = conf.isAuditorCheckAllLedgersSkipUnchangedLedgers();
+        this.checkedLedgerVersions = skipUnchangedLedgers ? new ConcurrentLongLongHashMap() : null;
     }
 
     @Override
@@ -135,9 +179,21 @@ public class AuditorCheckAllLedgersTask extends AuditorTask {
         }
     }
 
+    @VisibleForTesting
+    void setCheckpointPersistIntervalMs(long checkpointPersistIntervalMs) {
+        this.checkpointPersistIntervalMs = checkpointPersistIntervalMs;
+    }
+
+    @VisibleForTesting
+    long getNumCheckedLedgerVersions() {
+        return skipUnchangedLedgers ? checkedLedgerVersions.size() : 0;
+    }
+
     @Override
     public void shutdown() {
         LOG.info("Shutting down AuditorCheckAllLedgersTask");
+        // interrupt the workers waiting to open ledgers
+        checkAllLedgersWorkers.shutdownNow();
         ledgerCheckerExecutor.shutdown();
         try {
             while (!ledgerCheckerExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
@@ -154,6 +210,10 @@ public class AuditorCheckAllLedgersTask extends AuditorTask {
     /**
      * List all the ledgers and check them individually. This should not
      * be run very often.
+     *
+     * <p>The ranges of ledgers listed from the ledger manager, in ledger id order, are checked in parallel by
+     * several workers. The ledger id below which all the ledgers were checked is checkpointed, so that a check
+     * interrupted by a restart of the auditor resumes from there.
      */
     void checkAllLedgers() throws BKException, IOException, InterruptedException {
         final BookKeeper localClient = getBookKeeper(conf);
@@ -161,89 +221,388 @@ public class AuditorCheckAllLedgersTask extends AuditorTask {
         try {
             final LedgerChecker checker = new LedgerChecker(localClient, conf.getInFlightReadEntryNumInLedgerChecker());
 
-            final CompletableFuture<Void> processFuture = new CompletableFuture<>();
+            long checkpoint = -1;
+            try {
+                checkpoint = ledgerUnderreplicationManager.getCheckAllLedgersCheckpoint();
+            } catch (ReplicationException.NonRecoverableReplicationException nre) {
+                LOG.error("Non Recoverable Exception while reading from ZK", nre);
+                submitShutdownTask();
+                return;
+            } catch (ReplicationException.UnavailableException ue) {
+                LOG.warn("Got exception while trying to get checkAllLedgers checkpoint, checking all ledgers", ue);
+            }
+            if (checkpoint > 0) {
+                LOG.info("Resuming checkAllLedgers from ledger {}", checkpoint);
+            }
+
+            if (skipUnchangedLedgers) {
+                forgetCheckedLedgersIfBookiesLeft();
+            }
 
-            BookkeeperInternalCallbacks.Processor<Long> checkLedgersProcessor = (ledgerId, callback) -> {
-                try {
-                    if (!ledgerUnderreplicationManager.isLedgerReplicationEnabled()) {
-                        LOG.info("Ledger rereplication has been disabled, aborting periodic check");
-                        FutureUtils.complete(processFuture, null);
-                        return;
+            CheckAllLedgersRun run = new CheckAllLedgersRun(localAdmin, checker, checkpoint);
+            if (!run.execute()) {
+                LOG.info("checkAllLedgers aborted, the next check resumes from the last checkpoint");
+                return;
+            }
+            try {
+                // also clears the checkpoint
+                ledgerUnderreplicationManager.setCheckAllLedgersCTime(System.currentTimeMillis());
+            } catch (ReplicationException.NonRecoverableReplicationException nre) {
+                LOG.error("Non Recoverable Exception while reading from ZK", nre);
+                submitShutdownTask();
+            } catch (ReplicationException.UnavailableException ue) {
+                LOG.error("Got exception while trying to set checkAllLedgersCTime", ue);
+            }
+        } finally {
+            localAdmin.close();
+            localClient.close();
+        }
+    }
+
+    /**
+     * Forget the ledgers found fully replicated by the previous checks if a bookie left since the last check
+     * started, as they may have had replicas on it.
+     */
+    private void forgetCheckedLedgersIfBookiesLeft() throws BKException {
+        Set<String> availableBookies = new HashSet<>(getAvailableBookies());
+        if (lastAvailableBookies != null && !availableBookies.containsAll(lastAvailableBookies)) {
+            LOG.info("Bookies {} left since the last check, checking all the ledgers again",
+                    Sets.difference(lastAvailableBookies, availableBookies));
+            checkedLedgerVersions.clear();
+        }
+        lastAvailableBookies = availableBookies;
+    }
+
+    /**
+     * A range of ledgers, in the order of the ledger ids, handed to a worker.
+     */
+    private static class LedgerRangeCheck {
+        final long lastLedgerId;
+        final Set<Long> ledgers;
+        boolean done = false;
+        boolean succeeded = false;
+
+        LedgerRangeCheck(long lastLedgerId, Set<Long> ledgers) {
+            this.lastLedgerId = lastLedgerId;
+            this.ledgers = ledgers;
+        }
+    }
+
+    /**
+     * A single check of all the ledgers.
+     */
+    private class CheckAllLedgersRun {
+        private final BookKeeperAdmin localAdmin;
+        private final LedgerChecker checker;
+        private final long resumeFrom;
+        private final LedgerRangeIterator ledgerRanges;
+        private final long startNanos = MathUtils.nowInNano();
+        private final LongAdder numLedgersProcessed = new LongAdder();
+        // the versions recorded by the previous checks, and the ones recorded by this check
+        private final ConcurrentLongLongHashMap previousVersions;
+        private final ConcurrentLongLongHashMap checkedVersions;
+
+        // set when the check is aborted, the remaining ledgers are not checked
+        private volatile boolean aborted = false;
+        // set when the check is aborted because the ledger replication was disabled, the underreplication manager
+        // was unavailable or a ledger could not be opened in time, in which case the check is over as if all the
+        // ledgers were checked
+        private volatile boolean stoppedEarly = false;
+        private volatile int failureRc = BKException.Code.OK;
+
+        // ranges handed to the workers and not yet part of the checkpoint, in ledger id order, guarded by this
+        private final ArrayDeque<LedgerRangeCheck> pendingRanges = new ArrayDeque<>();
+        // a range failed, the checkpoint cannot move past it
+        private boolean checkpointBlocked = false;
+        private final Object checkpointLock = new Object();
+        // guarded by checkpointLock
+        private long latestCheckpoint;
+        private long persistedCheckpoint;
+        private long lastPersistNanos = startNanos;
+
+        CheckAllLedgersRun(BookKeeperAdmin localAdmin, LedgerChecker checker, long resumeFrom) {
+            this.localAdmin = localAdmin;
+            this.checker = checker;
+            this.resumeFrom = resumeFrom;
+            this.latestCheckpoint = resumeFrom;
+            this.persistedCheckpoint = resumeFrom;
+            this.previousVersions = checkedLedgerVersions;
+            this.checkedVersions = skipUnchangedLedgers ? new ConcurrentLongLongHashMap() : null;
+            this.ledgerRanges = ledgerManager.getLedgerRanges(conf.getZkTimeout());
+        }
+
+        /**
+         * Check all the ledgers.
+         *
+         * @return true if the check is over, either because all the ledgers were checked or because it was stopped
+         *         early, false if the check was aborted and has to be resumed from the checkpoint
+         */
+        boolean execute() throws BKException, InterruptedException {
+            List<Future<?>> workers = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                workers.add(checkAllLedgersWorkers.submit(this::runWorker));
+            }
+            try {
+                for (Future<?> worker : workers) {
+                    worker.get();
+                }
+            } catch (InterruptedException ie) {
+                aborted = true;
+                throw ie;
+            } catch (ExecutionException ee) {
+                aborted = true;
+                LOG.error("Unexpected error while checking all ledgers", ee.getCause());
+                throw BKException.create(BKException.Code.UnexpectedConditionException);
+            } finally {
+                updateThroughput();
+                if (skipUnchangedLedgers) {
+                    updateCheckedLedgerVersions();
+                }
+                if ((aborted && !stoppedEarly) || failureRc != BKException.Code.OK) {
+                    // the next check resumes from the latest checkpoint
+                    synchronized (checkpointLock) {
+                        persistCheckpoint();
                     }
-                } catch (ReplicationException.NonRecoverableReplicationException nre) {
-                    LOG.error("Non Recoverable Exception while reading from ZK", nre);
-                    submitShutdownTask();
-                    return;
-                } catch (ReplicationException.UnavailableException ue) {
-                    LOG.error("Underreplication manager unavailable running periodic check", ue);
-                    FutureUtils.complete(processFuture, null);
-                    return;
                 }
+            }
 
-                try {
-                    if (!openLedgerNoRecoverySemaphore.tryAcquire(openLedgerNoRecoverySemaphoreWaitTimeoutMSec,
-                            TimeUnit.MILLISECONDS)) {
-                        LOG.warn("Failed to acquire semaphore for {} ms, ledgerId: {}",
-                                openLedgerNoRecoverySemaphoreWaitTimeoutMSec, ledgerId);
-                        FutureUtils.complete(processFuture, null);
-                        return;
+            if (failureRc != BKException.Code.OK) {
+                throw BKException.create(failureRc);
+            }
+            return !aborted || stoppedEarly;
+        }
+
+        /**
+         * Keep the versions of the ledgers found fully replicated by this check. Once all the ledgers were listed,
+         * the versions of the ledgers which were not listed anymore are dropped, except the ones of the ledgers
+         * before the checkpoint the check resumed from.
+         */
+        private void updateCheckedLedgerVersions() {
+            if (aborted) {
+                previousVersions.forEach(checkedVersions::putIfAbsent);
+            } else {
+                previousVersions.forEach((ledgerId, version) -> {
+                    if (ledgerId < resumeFrom) {
+                        checkedVersions.putIfAbsent(ledgerId, version);
                     }
-                } catch (InterruptedException e) {
-                    LOG.error("Unable to acquire open ledger operation semaphore ", e);
-                    Thread.currentThread().interrupt();
-                    FutureUtils.complete(processFuture, null);
-                    return;
+                });
+            }
+            checkedLedgerVersions = checkedVersions;
+        }
+
+        private void runWorker() {
+            LedgerRangeCheck range;
+            while (!aborted && (range = nextRange()) != null) {
+                boolean succeeded = checkRange(range);
+                rangeDone(range, succeeded);
+            }
+        }
+
+        private synchronized LedgerRangeCheck nextRange() {
+            try {
+                while (ledgerRanges.hasNext()) {
+                    NavigableSet<Long> ledgers = new TreeSet<>(ledgerRanges.next().getLedgers());
+                    // skip the ledgers checked before the check was interrupted
+                    ledgers = ledgers.tailSet(resumeFrom, true);
+                    if (ledgers.isEmpty()) {
+                        continue;
+                    }
+                    LedgerRangeCheck range = new LedgerRangeCheck(ledgers.last(), ledgers);
+                    pendingRanges.addLast(range);
+                    return range;
                 }
+                return null;
+            } catch (IOException ioe) {
+                LOG.error("Failed to list the ledgers to check", ioe);
+                failureRc = BKException.Code.ZKException;
+                aborted = true;
+                return null;
+            }
+        }
 
-                localAdmin.asyncOpenLedgerNoRecovery(ledgerId, (rc, lh, ctx) -> {
-                    openLedgerNoRecoverySemaphore.release();
+        /**
+         * Check the ledgers of a range, and wait for the checks to complete.
+         *
+         * @return true if all the ledgers of the range were checked successfully
+         */
+        private boolean checkRange(LedgerRangeCheck range) {
+            List<CompletableFuture<Void>> checks = new ArrayList<>(range.ledgers.size());
+            for (long ledgerId : range.ledgers) {
+                CompletableFuture<Void> check = new CompletableFuture<>();
+                AsyncCallback.VoidCallback callback = (rc, path, ctx) -> {
+                    numLedgersProcessed.increment();
                     if (BKException.Code.OK == rc) {
-                        // BookKeeperClientWorker-OrderedExecutor threads should not execute LedgerChecker#checkLedger
-                        // as this can lead to deadlocks
-                        ledgerCheckerExecutor.execute(() -> {
-                            checker.checkLedger(lh,
-                                    // the ledger handle will be closed after checkLedger is done.
-                                    new ProcessLostFragmentsCb(lh, callback),
-                                    conf.getAuditorLedgerVerificationPercentage());
-                            // we collect the following stats to get a measure of the
-                            // distribution of a single ledger within the bk cluster
-                            // the higher the number of fragments/bookies, the more distributed it is
-                            auditorStats.getNumFragmentsPerLedger().registerSuccessfulValue(lh.getNumFragments());
-                            auditorStats.getNumBookiesPerLedger().registerSuccessfulValue(lh.getNumBookies());
-                            auditorStats.getNumLedgersChecked().inc();
-                        });
-                    } else if (BKException.Code.NoSuchLedgerExistsOnMetadataServerException == rc) {
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Ledger {} was deleted before we could check it", ledgerId);
-                        }
-                        callback.processResult(BKException.Code.OK, null, null);
+                        FutureUtils.complete(check, null);
                     } else {
-                        LOG.error("Couldn't open ledger {} to check : {}", ledgerId, BKException.getMessage(rc));
-                        callback.processResult(rc, null, null);
+                        FutureUtils.completeExceptionally(check, BKException.create(rc));
                     }
-                }, null);
-            };
+                };
+                if (!checkLedger(ledgerId, callback)) {
+                    aborted = true;
+                    break;
+                }
+                checks.add(check);
+            }
 
-            ledgerManager.asyncProcessLedgers(checkLedgersProcessor,
-                    (rc, path, ctx) -> {
-                        if (BKException.Code.OK == rc) {
-                            FutureUtils.complete(processFuture, null);
-                        } else {
-                            FutureUtils.completeExceptionally(processFuture, BKException.create(rc));
-                        }
-                    }, null, BKException.Code.OK, BKException.Code.ReadException);
-            FutureUtils.result(processFuture, BKException.HANDLER);
+            // wait for the checks in progress even if the check of all the ledgers is aborted, so that they do not
+            // outlive the client
             try {
-                ledgerUnderreplicationManager.setCheckAllLedgersCTime(System.currentTimeMillis());
+                FutureUtils.collect(checks).get();
+                return !aborted;
+            } catch (ExecutionException e) {
+                // keep checking the other ledgers, the check of all the ledgers fails once they are checked
+                failureRc = BKException.Code.ReadException;
+                return false;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                aborted = true;
+                return false;
+            }
+        }
+
+        /**
+         * Start checking a ledger.
+         *
+         * @return false if the check of all the ledgers has to be aborted, and the ledger was not checked
+         */
+        private boolean checkLedger(long ledgerId, AsyncCallback.VoidCallback callback) {
+            try {
+                if (!ledgerUnderreplicationManager.isLedgerReplicationEnabled()) {
+                    LOG.info("Ledger rereplication has been disabled, aborting periodic check");
+                    stoppedEarly = true;
+                    return false;
+                }
             } catch (ReplicationException.NonRecoverableReplicationException nre) {
                 LOG.error("Non Recoverable Exception while reading from ZK", nre);
                 submitShutdownTask();
+                return false;
             } catch (ReplicationException.UnavailableException ue) {
-                LOG.error("Got exception while trying to set checkAllLedgersCTime", ue);
+                LOG.error("Underreplication manager unavailable running periodic check", ue);
+                stoppedEarly = true;
+                return false;
             }
-        } finally {
-            localAdmin.close();
-            localClient.close();
+
+            try {
+                if (!openLedgerNoRecoverySemaphore.tryAcquire(openLedgerNoRecoverySemaphoreWaitTimeoutMSec,
+                        TimeUnit.MILLISECONDS)) {
+                    LOG.warn("Failed to acquire semaphore for {} ms, ledgerId: {}",
+                            openLedgerNoRecoverySemaphoreWaitTimeoutMSec, ledgerId);
+                    stoppedEarly = true;
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                LOG.error("Unable to acquire open ledger operation semaphore ", e);
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            if (!skipUnchangedLedgers) {
+                openAndCheckLedger(ledgerId, -1, callback);
+                return true;
+            }
+
+            ledgerManager.readLedgerMetadata(ledgerId).whenComplete((metadata, cause) -> {
+                long version = -1;
+                if (cause == null && metadata.getValue().isClosed()
+                        && metadata.getVersion() instanceof LongVersion) {
+                    version = ((LongVersion) metadata.getVersion()).getLongVersion();
+                    if (previousVersions.get(ledgerId) == version) {
+                        checkedVersions.put(ledgerId, version);
+                        openLedgerNoRecoverySemaphore.release();
+                        auditorStats.getNumLedgersCheckSkipped().inc();
+                        callback.processResult(BKException.Code.OK, null, null);
+                        return;
+                    }
+                }
+                openAndCheckLedger(ledgerId, version, callback);
+            });
+            return true;
+        }
+
+        /**
+         * Open a ledger and check it, once the semaphore for opening it is acquired.
+         *
+         * @param closedVersion the version of the metadata of the ledger if it is closed, to be recorded if the
+         *                      ledger is fully replicated, or -1
+         */
+        private void openAndCheckLedger(long ledgerId, long closedVersion, AsyncCallback.VoidCallback callback) {
+            localAdmin.asyncOpenLedgerNoRecovery(ledgerId, (rc, lh, ctx) -> {
+                openLedgerNoRecoverySemaphore.release();
+                if (BKException.Code.OK == rc) {
+                    // BookKeeperClientWorker-OrderedExecutor threads should not execute LedgerChecker#checkLedger
+                    // as this can lead to deadlocks
+                    ledgerCheckerExecutor.execute(() -> {
+                        checker.checkLedger(lh,
+                                // the ledger handle will be closed after checkLedger is done.
+                                new ProcessLostFragmentsCb(lh, closedVersion, checkedVersions, callback),
+                                conf.getAuditorLedgerVerificationPercentage());
+                        // we collect the following stats to get a measure of the
+                        // distribution of a single ledger within the bk cluster
+                        // the higher the number of fragments/bookies, the more distributed it is
+                        auditorStats.getNumFragmentsPerLedger().registerSuccessfulValue(lh.getNumFragments());
+                        auditorStats.getNumBookiesPerLedger().registerSuccessfulValue(lh.getNumBookies());
+                        auditorStats.getNumLedgersChecked().inc();
+                    });
+                } else if (BKException.Code.NoSuchLedgerExistsOnMetadataServerException == rc) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Ledger {} was deleted before we could check it", ledgerId);
+                    }
+                    callback.processResult(BKException.Code.OK, null, null);
+                } else {
+                    LOG.error("Couldn't open ledger {} to check : {}", ledgerId, BKException.getMessage(rc));
+                    callback.processResult(rc, null, null);
+                }
+            }, null);
+        }
+
+        private void rangeDone(LedgerRangeCheck range, boolean succeeded) {
+            long checkpoint = -1;
+            synchronized (this) {
+                range.done = true;
+                range.succeeded = succeeded;
+                // the checkpoint only moves past the ranges which are done, and all the ranges before them
+                while (!pendingRanges.isEmpty() && pendingRanges.peekFirst().done) {
+                    LedgerRangeCheck head = pendingRanges.pollFirst();
+                    checkpointBlocked |= !head.succeeded;
+                    if (!checkpointBlocked) {
+                        checkpoint = head.lastLedgerId + 1;
+                    }
+                }
+            }
+            updateThroughput();
+            if (checkpoint > 0) {
+                checkpointReached(checkpoint);
+            }
+        }
+
+        private void checkpointReached(long checkpoint) {
+            // the checkpoints of the workers never move backward, and are persisted at most once per interval
+            synchronized (checkpointLock) {
+                latestCheckpoint = Math.max(latestCheckpoint, checkpoint);
+                if (MathUtils.elapsedMSec(lastPersistNanos) >= checkpointPersistIntervalMs) {
+                    persistCheckpoint();
+                }
+            }
+        }
+
+        // guarded by checkpointLock
+        private void persistCheckpoint() {
+            if (latestCheckpoint <= persistedCheckpoint) {
+                return;
+            }
+            lastPersistNanos = MathUtils.nowInNano();
+            try {
+                ledgerUnderreplicationManager.setCheckAllLedgersCheckpoint(latestCheckpoint);
+                persistedCheckpoint = latestCheckpoint;
+            } catch (ReplicationException.UnavailableException ue) {
+                LOG.warn("Got exception while trying to set checkAllLedgers checkpoint to {}", latestCheckpoint, ue);
+            }
+        }
+
+        private void updateThroughput() {
+            long elapsedMs = Math.max(1, MathUtils.elapsedMSec(startNanos));
+            auditorStats.getCheckAllLedgersThroughputGuageValue()
+                    .set((int) Math.min(Integer.MAX_VALUE, numLedgersProcessed.sum() * 1000 / elapsedMs));
         }
     }
 
@@ -252,10 +611,15 @@ public class AuditorCheckAllLedgersTask extends AuditorTask {
      */
     private class ProcessLostFragmentsCb implements BookkeeperInternalCallbacks.GenericCallback<Set<LedgerFragment>> {
         final LedgerHandle lh;
+        final long closedVersion;
+        final ConcurrentLongLongHashMap checkedVersions;
         final AsyncCallback.VoidCallback callback;
 
-        ProcessLostFragmentsCb(LedgerHandle lh, AsyncCallback.VoidCallback callback) {
+        ProcessLostFragmentsCb(LedgerHandle lh, long closedVersion, ConcurrentLongLongHashMap checkedVersions,
+                               AsyncCallback.VoidCallback callback) {
             this.lh = lh;
+            this.closedVersion = closedVersion;
+            this.checkedVersions = checkedVersions;
             this.callback = callback;
         }
 
@@ -268,6 +632,9 @@ public class AuditorCheckAllLedgersTask extends AuditorTask {
                 }
                 if (bookies.isEmpty()) {
                     // no missing fragments
+                    if (closedVersion >= 0) {
+                        checkedVersions.put(lh.getId(), closedVersion);
+                    }
                     callback.processResult(BKException.Code.OK, null, null);
                 } else {
                     publishSuspectedLedgersAsync(bookies.stream().map(BookieId::toString).collect(Collectors.toList()),
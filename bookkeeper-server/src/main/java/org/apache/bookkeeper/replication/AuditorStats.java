@@ -20,12 +20,14 @@ package org.apache.bookkeeper.replication;
 import static org.apache.bookkeeper.replication.ReplicationStats.AUDITOR_SCOPE;
 import static org.apache.bookkeeper.replication.ReplicationStats.AUDIT_BOOKIES_TIME;
 import static org.apache.bookkeeper.replication.ReplicationStats.BOOKIE_TO_LEDGERS_MAP_CREATION_TIME;
+import static org.apache.bookkeeper.replication.ReplicationStats.CHECK_ALL_LEDGERS_THROUGHPUT;
 import static org.apache.bookkeeper.replication.ReplicationStats.CHECK_ALL_LEDGERS_TIME;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_BOOKIES_PER_LEDGER;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_BOOKIE_AUDITS_DELAYED;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_DELAYED_BOOKIE_AUDITS_DELAYES_CANCELLED;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_FRAGMENTS_PER_LEDGER;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_LEDGERS_CHECKED;
+import static org.apache.bookkeeper.replication.ReplicationStats.NUM_LEDGERS_CHECK_SKIPPED;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_LEDGERS_HAVING_LESS_THAN_AQ_REPLICAS_OF_AN_ENTRY;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_LEDGERS_HAVING_LESS_THAN_WQ_REPLICAS_OF_AN_ENTRY;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_LEDGERS_HAVING_NO_REPLICA_OF_AN_ENTRY;
@@ -63,6 +65,7 @@ public class AuditorStats {
     private final AtomicInteger numLedgersHavingLessThanAQReplicasOfAnEntryGuageValue;
     private final AtomicInteger numLedgersHavingLessThanWQReplicasOfAnEntryGuageValue;
     private final AtomicInteger underReplicatedLedgersGuageValue;
+    private final AtomicInteger checkAllLedgersThroughputGuageValue;
     private final StatsLogger statsLogger;
     @StatsDoc(
             name = NUM_UNDER_REPLICATED_LEDGERS,
@@ -110,6 +113,17 @@ public class AuditorStats {
             help = "the number of ledgers checked by the auditor"
     )
     private final Counter numLedgersChecked;
+    @StatsDoc(
+            name = NUM_LEDGERS_CHECK_SKIPPED,
+            help = "the number of ledgers skipped by the check of all ledgers, as unchanged since checked"
+    )
+    private final Counter numLedgersCheckSkipped;
+    @StatsDoc(
+            name = CHECK_ALL_LEDGERS_THROUGHPUT,
+            help = "Gauge for the number of ledgers checked or skipped per second by the current or last check"
+                    + " of all ledgers"
+    )
+    private final Gauge<Integer> checkAllLedgersThroughput;
     @StatsDoc(
             name = NUM_FRAGMENTS_PER_LEDGER,
             help = "the distribution of number of fragments per ledger"
@@ -187,6 +201,7 @@ public class AuditorStats {
         this.numLedgersHavingLessThanAQReplicasOfAnEntryGuageValue = new AtomicInteger(0);
         this.numLedgersHavingLessThanWQReplicasOfAnEntryGuageValue = new AtomicInteger(0);
         this.underReplicatedLedgersGuageValue = new AtomicInteger(0);
+        this.checkAllLedgersThroughputGuageValue = new AtomicInteger(0);
         numUnderReplicatedLedger = this.statsLogger.getOpStatsLogger(ReplicationStats.NUM_UNDER_REPLICATED_LEDGERS);
         underReplicatedLedgerTotalSize = this.statsLogger.getOpStatsLogger(UNDER_REPLICATED_LEDGERS_TOTAL_SIZE);
         uRLPublishTimeForLostBookies = this.statsLogger
@@ -198,6 +213,7 @@ public class AuditorStats {
         replicasCheckTime = this.statsLogger.getOpStatsLogger(ReplicationStats.REPLICAS_CHECK_TIME);
         auditBookiesTime = this.statsLogger.getOpStatsLogger(ReplicationStats.AUDIT_BOOKIES_TIME);
         numLedgersChecked = this.statsLogger.getCounter(ReplicationStats.NUM_LEDGERS_CHECKED);
+        numLedgersCheckSkipped = this.statsLogger.getCounter(NUM_LEDGERS_CHECK_SKIPPED);
         numFragmentsPerLedger = this.statsLogger.getOpStatsLogger(ReplicationStats.NUM_FRAGMENTS_PER_LEDGER);
         numBookiesPerLedger = this.statsLogger.getOpStatsLogger(ReplicationStats.NUM_BOOKIES_PER_LEDGER);
         numBookieAuditsDelayed = this.statsLogger.getCounter(ReplicationStats.NUM_BOOKIE_AUDITS_DELAYED);
@@ -297,5 +313,17 @@ public class AuditorStats {
             }
         };
         this.statsLogger.registerGauge(NUM_UNDER_REPLICATED_LEDGERS_GUAGE, numUnderReplicatedLedgers);
+        checkAllLedgersThroughput = new Gauge<Integer>() {
+            @Override
+            public Integer getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Integer getSample() {
+                return checkAllLedgersThroughputGuageValue.get();
+            }
+        };
+        this.statsLogger.registerGauge(CHECK_ALL_LEDGERS_THROUGHPUT, checkAllLedgersThroughput);
     }
 }
@@ -17,19 +17,29 @@
  */
 package org.apache.bookkeeper.replication;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.function.BiConsumer;
 import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
 import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManager.AllLedgersMetadataListener;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.Processor;
 import org.apache.bookkeeper.replication.ReplicationException.BKAuditException;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
+import org.apache.bookkeeper.versioning.Version;
+import org.apache.bookkeeper.versioning.Versioned;
 import org.apache.zookeeper.AsyncCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,14 +47,29 @@ import org.slf4j.LoggerFactory;
 /**
  * Preparing bookie vs its corresponding ledgers. This will always look up the
  * ledgermanager for ledger metadata and will generate indexes.
+ *
+ * <p>When incremental, the index is kept between the checks and updated from the notifications of the changes of
+ * the ledgers metadata, so that a check of the bookies does not read the metadata of all the ledgers. The ledgers of
+ * a bookie are only materialized when they are looked up. The index is rebuilt from all the ledgers when it is first
+ * used, and whenever notifications may have been missed.
  */
 public class BookieLedgerIndexer {
 
     private static final Logger LOG = LoggerFactory.getLogger(BookieLedgerIndexer.class);
     private final LedgerManager ledgerManager;
+    private final boolean incremental;
+    private final AllLedgersMetadataListener listener = new IndexUpdatingListener();
+
+    // incremental index, null when it has to be rebuilt
+    private volatile Index index = null;
 
     public BookieLedgerIndexer(LedgerManager ledgerManager) {
+        this(ledgerManager, false);
+    }
+
+    public BookieLedgerIndexer(LedgerManager ledgerManager, boolean incremental) {
         this.ledgerManager = ledgerManager;
+        this.incremental = incremental;
     }
 
     /**
@@ -57,8 +82,74 @@ public class BookieLedgerIndexer {
      */
     public Map<String, Set<Long>> getBookieToLedgerIndex()
             throws BKAuditException {
+        if (incremental) {
+            Index current = index;
+            if (current == null) {
+                current = rebuildIndex();
+            }
+            if (current != null) {
+                return current.view();
+            }
+        }
         // bookie vs ledgers map
         final ConcurrentHashMap<String, Set<Long>> bookie2ledgersMap = new ConcurrentHashMap<String, Set<Long>>();
+        processAllLedgers((ledgerId, metadata) -> {
+            for (Map.Entry<Long, ? extends List<BookieId>> ensemble
+                     : metadata.getValue().getAllEnsembles().entrySet()) {
+                for (BookieId bookie : ensemble.getValue()) {
+                    putLedger(bookie2ledgersMap, bookie.toString(), ledgerId);
+                }
+            }
+        });
+        return bookie2ledgersMap;
+    }
+
+    /**
+     * Stop maintaining the incremental index.
+     */
+    public void close() {
+        if (incremental) {
+            ledgerManager.unregisterAllLedgersMetadataListener(listener);
+            index = null;
+        }
+    }
+
+    /**
+     * Rebuild the incremental index from all the ledgers.
+     *
+     * @return the index, or null if the ledger manager does not notify the changes of the ledgers metadata
+     */
+    private synchronized Index rebuildIndex() throws BKAuditException {
+        Index current = index;
+        if (current != null) {
+            return current;
+        }
+        // the changes notified while the index is built are applied to it, the newer metadata of a ledger wins
+        Index newIndex = new Index();
+        index = newIndex;
+        if (!ledgerManager.registerAllLedgersMetadataListener(listener)) {
+            LOG.warn("Ledger manager does not notify the changes of the ledgers metadata,"
+                    + " falling back to building the bookie-ledgers index on each check");
+            index = null;
+            return null;
+        }
+        LOG.info("Building the bookie-ledgers index");
+        boolean built = false;
+        try {
+            processAllLedgers(newIndex::update);
+            built = true;
+        } finally {
+            if (!built) {
+                index = null;
+            }
+        }
+        newIndex.built();
+        LOG.info("Built the bookie-ledgers index of {} ledgers", newIndex.ledgerBookies.size());
+        return newIndex;
+    }
+
+    private void processAllLedgers(BiConsumer<Long, Versioned<LedgerMetadata>> consumer)
+            throws BKAuditException {
         final CountDownLatch ledgerCollectorLatch = new CountDownLatch(1);
 
         Processor<Long> ledgerProcessor = new Processor<Long>() {
@@ -66,12 +157,7 @@ public class BookieLedgerIndexer {
                 public void process(Long ledgerId, AsyncCallback.VoidCallback iterCallback) {
                     ledgerManager.readLedgerMetadata(ledgerId).whenComplete((metadata, exception) -> {
                                 if (exception == null) {
-                                    for (Map.Entry<Long, ? extends List<BookieId>> ensemble
-                                             : metadata.getValue().getAllEnsembles().entrySet()) {
-                                        for (BookieId bookie : ensemble.getValue()) {
-                                            putLedger(bookie2ledgersMap, bookie.toString(), ledgerId);
-                                        }
-                                    }
+                                    consumer.accept(ledgerId, metadata);
                                     iterCallback.processResult(BKException.Code.OK, null, null);
                                 } else if (BKException.getExceptionCode(exception)
                                            == BKException.Code.NoSuchLedgerExistsOnMetadataServerException) {
@@ -107,7 +193,6 @@ public class BookieLedgerIndexer {
                     "Exception while getting the bookie-ledgers", BKException
                             .create(resultCode.get(0)));
         }
-        return bookie2ledgersMap;
     }
 
     private void putLedger(ConcurrentHashMap<String, Set<Long>> bookie2ledgersMap,
@@ -123,4 +208,124 @@ public class BookieLedgerIndexer {
         }
         ledgers.add(ledgerId);
     }
+
+    /**
+     * Listener applying the changes of the ledgers metadata to the incremental index.
+     */
+    private class IndexUpdatingListener implements AllLedgersMetadataListener {
+        @Override
+        public void onChanged(long ledgerId, Versioned<LedgerMetadata> metadata) {
+            Index current = index;
+            if (current != null) {
+                current.update(ledgerId, metadata);
+            }
+        }
+
+        @Override
+        public void onChangesMissed() {
+            LOG.info("Changes of the ledgers metadata may have been missed, the bookie-ledgers index will be rebuilt");
+            index = null;
+        }
+    }
+
+    /**
+     * Bookies of a ledger, as of a version of its metadata.
+     */
+    private static final class LedgerBookies {
+        private final Version version;
+        private final String[] bookies;
+
+        private LedgerBookies(Version version, String[] bookies) {
+            this.version = version;
+            this.bookies = bookies;
+        }
+    }
+
+    /**
+     * Incremental index of the ledgers of each bookie, and of the bookies of each ledger to apply the updates.
+     */
+    private static final class Index {
+        private final ConcurrentHashMap<String, ConcurrentLongHashSet> bookieLedgers = new ConcurrentHashMap<>();
+        private final Map<String, String> bookieIds = new HashMap<>();
+        private final ConcurrentLongHashMap<LedgerBookies> ledgerBookies =
+                ConcurrentLongHashMap.<LedgerBookies>newBuilder().build();
+        // ledgers deleted while the index is built, so that their metadata read before the deletion is ignored
+        private Set<Long> deletedLedgers = new HashSet<>();
+
+        synchronized void update(long ledgerId, Versioned<LedgerMetadata> metadata) {
+            LedgerBookies previous = ledgerBookies.get(ledgerId);
+            if (metadata == null) {
+                // the ledger is deleted
+                if (deletedLedgers != null) {
+                    deletedLedgers.add(ledgerId);
+                }
+                if (previous != null) {
+                    ledgerBookies.remove(ledgerId);
+                    removeLedger(ledgerId, previous.bookies);
+                }
+                return;
+            }
+            if (deletedLedgers != null && deletedLedgers.contains(ledgerId)) {
+                return;
+            }
+            if (previous != null && metadata.getVersion().compare(previous.version) != Version.Occurred.AFTER) {
+                return;
+            }
+
+            Set<String> bookies = new HashSet<>();
+            for (List<BookieId> ensemble : metadata.getValue().getAllEnsembles().values()) {
+                for (BookieId bookie : ensemble) {
+                    // a single bookie id string is shared by all the ledgers of the bookie
+                    bookies.add(bookieIds.computeIfAbsent(bookie.toString(), id -> id));
+                }
+            }
+            String[] newBookies = new String[bookies.size()];
+            int i = 0;
+            for (String bookie : bookies) {
+                ConcurrentLongHashSet ledgers = bookieLedgers.computeIfAbsent(bookie,
+                        k -> ConcurrentLongHashSet.newBuilder().build());
+                ledgers.add(ledgerId);
+                newBookies[i++] = bookie;
+            }
+            ledgerBookies.put(ledgerId, new LedgerBookies(metadata.getVersion(), newBookies));
+            if (previous != null) {
+                List<String> removedBookies = new ArrayList<>();
+                for (String bookie : previous.bookies) {
+                    if (!bookies.contains(bookie)) {
+                        removedBookies.add(bookie);
+                    }
+                }
+                removeLedger(ledgerId, removedBookies.toArray(new String[0]));
+            }
+        }
+
+        /**
+         * Once the index is built from all the ledgers, the notifications are the only updates and are ordered.
+         */
+        synchronized void built() {
+            deletedLedgers = null;
+        }
+
+        private void removeLedger(long ledgerId, String[] bookies) {
+            for (String bookie : bookies) {
+                ConcurrentLongHashSet ledgers = bookieLedgers.get(bookie);
+                if (ledgers != null) {
+                    ledgers.remove(ledgerId);
+                    if (ledgers.isEmpty()) {
+                        bookieLedgers.remove(bookie, ledgers);
+                    }
+                }
+            }
+        }
+
+        /**
+         * View of the index as a map of the known bookies to their ledgers, which are materialized on lookup.
+         */
+        Map<String, Set<Long>> view() {
+            return Maps.asMap(ImmutableSet.copyOf(bookieLedgers.keySet()), bookie -> {
+                ConcurrentLongHashSet ledgers = bookieLedgers.get(bookie);
+                return ledgers == null ? Collections.emptySet() : ledgers.items();
+            });
+        }
+    }
 }
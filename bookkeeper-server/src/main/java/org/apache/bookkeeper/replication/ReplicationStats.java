@@ -40,6 +40,8 @@ public interface ReplicationStats {
     String NUM_FRAGMENTS_PER_LEDGER = "NUM_FRAGMENTS_PER_LEDGER";
     String NUM_BOOKIES_PER_LEDGER = "NUM_BOOKIES_PER_LEDGER";
     String NUM_LEDGERS_CHECKED = "NUM_LEDGERS_CHECKED";
+    String NUM_LEDGERS_CHECK_SKIPPED = "NUM_LEDGERS_CHECK_SKIPPED";
+    String CHECK_ALL_LEDGERS_THROUGHPUT = "CHECK_ALL_LEDGERS_THROUGHPUT";
     String NUM_BOOKIE_AUDITS_DELAYED = "NUM_BOOKIE_AUDITS_DELAYED";
     String NUM_DELAYED_BOOKIE_AUDITS_DELAYES_CANCELLED = "NUM_DELAYED_BOOKIE_AUDITS_CANCELLED";
     String NUM_LEDGERS_NOT_ADHERING_TO_PLACEMENT_POLICY = "NUM_LEDGERS_NOT_ADHERING_TO_PLACEMENT_POLICY";
@@ -55,6 +57,8 @@ public interface ReplicationStats {
     String REPLICATION_WORKER_SCOPE = "replication_worker";
     String REREPLICATE_OP = "rereplicate";
     String NUM_FULL_OR_PARTIAL_LEDGERS_REPLICATED = "NUM_FULL_OR_PARTIAL_LEDGERS_REPLICATED";
+    String NUM_FRAGMENTS_REPLICATED = "NUM_FRAGMENTS_REPLICATED";
+    String NUM_LEDGERS_BEING_REPLICATED = "NUM_LEDGERS_BEING_REPLICATED";
     String NUM_ENTRIES_READ = "NUM_ENTRIES_READ";
     String NUM_BYTES_READ = "NUM_BYTES_READ";
     String NUM_ENTRIES_WRITTEN = "NUM_ENTRIES_WRITTEN";
@@ -21,7 +21,9 @@ package org.apache.bookkeeper.replication;
 
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_DEFER_LEDGER_LOCK_RELEASE_OF_FAILED_LEDGER;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_ENTRIES_UNABLE_TO_READ_FOR_REPLICATION;
+import static org.apache.bookkeeper.replication.ReplicationStats.NUM_FRAGMENTS_REPLICATED;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_FULL_OR_PARTIAL_LEDGERS_REPLICATED;
+import static org.apache.bookkeeper.replication.ReplicationStats.NUM_LEDGERS_BEING_REPLICATED;
 import static org.apache.bookkeeper.replication.ReplicationStats.NUM_NOT_ADHERING_PLACEMENT_LEDGERS_REPLICATED;
 import static org.apache.bookkeeper.replication.ReplicationStats.REPLICATE_EXCEPTION;
 import static org.apache.bookkeeper.replication.ReplicationStats.REPLICATION_WORKER_SCOPE;
@@ -32,11 +34,13 @@ import com.google.common.base.Stopwatch;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -46,8 +50,12 @@ import java.util.SortedMap;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
@@ -72,6 +80,7 @@ import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GenericCallback;
 import org.apache.bookkeeper.replication.ReplicationException.CompatibilityException;
 import org.apache.bookkeeper.replication.ReplicationException.UnavailableException;
 import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.stats.OpStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
@@ -83,6 +92,10 @@ import org.slf4j.LoggerFactory;
 /**
  * ReplicationWorker will take the fragments one by one from
  * ZKLedgerUnderreplicationManager and replicates to it.
+ *
+ * <p>Up to {@link ServerConfiguration#getReplicationWorkerConcurrency()} ledgers are replicated concurrently, sharing
+ * the replication rate limit of the worker. The fragments of a ledger are replicated starting from the ones having
+ * the fewest replicas left.
  */
 @StatsDoc(
     name = REPLICATION_WORKER_SCOPE,
@@ -109,6 +122,10 @@ public class ReplicationWorker implements Runnable {
     private final long baseBackoffForLockReleaseOfFailedLedger;
     private final BiConsumer<Long, Long> onReadEntryFailureCallback;
     private final LedgerManager ledgerManager;
+    private final int concurrency;
+    private final Semaphore replicationPermits;
+    private final ExecutorService replicationExecutor;
+    private final AtomicInteger numLedgersBeingReplicated = new AtomicInteger(0);
 
     // Expose Stats
     private final StatsLogger statsLogger;
@@ -142,6 +159,16 @@ public class ReplicationWorker implements Runnable {
             help = "the number of not adhering placement policy ledgers re-replicated"
     )
     private final Counter numNotAdheringPlacementLedgersReplicated;
+    @StatsDoc(
+            name = NUM_FRAGMENTS_REPLICATED,
+            help = "the number of ledger fragments re-replicated"
+    )
+    private final Counter numFragmentsReplicated;
+    @StatsDoc(
+            name = NUM_LEDGERS_BEING_REPLICATED,
+            help = "the number of ledgers being re-replicated concurrently"
+    )
+    private final Gauge<Integer> numLedgersBeingReplicatedGauge;
     private final Map<String, Counter> exceptionCounters;
     final LoadingCache<Long, AtomicInteger> replicationFailedLedgers;
     final LoadingCache<Long, ConcurrentSkipListSet<Long>> unableToReadEntriesForReplication;
@@ -182,13 +209,23 @@ public class ReplicationWorker implements Runnable {
                       boolean ownBkc,
                       StatsLogger statsLogger)
             throws CompatibilityException, InterruptedException, UnavailableException {
+        this(conf, bkc, ownBkc, new BookKeeperAdmin(bkc, statsLogger, new ClientConfiguration(conf)), statsLogger);
+    }
+
+    @VisibleForTesting
+    ReplicationWorker(final ServerConfiguration conf,
+                      BookKeeper bkc,
+                      boolean ownBkc,
+                      BookKeeperAdmin admin,
+                      StatsLogger statsLogger)
+            throws CompatibilityException, InterruptedException, UnavailableException {
         this.conf = conf;
         this.bkc = bkc;
         this.ownBkc = ownBkc;
 
         this.underreplicationManager = bkc.getLedgerManagerFactory().newLedgerUnderreplicationManager();
         this.ledgerManager = bkc.getLedgerManagerFactory().newLedgerManager();
-        this.admin = new BookKeeperAdmin(bkc, statsLogger, new ClientConfiguration(conf));
+        this.admin = admin;
         this.ledgerChecker = new LedgerChecker(bkc);
         this.workerThread = new BookieThread(this, "ReplicationWorker");
         this.openLedgerRereplicationGracePeriod = conf
@@ -198,6 +235,15 @@ public class ReplicationWorker implements Runnable {
                 / (long) (Math.pow(2, NUM_OF_EXPONENTIAL_BACKOFF_RETRIALS));
         this.rwRereplicateBackoffMs = conf.getRwRereplicateBackoffMs();
         this.pendingReplicationTimer = new Timer("PendingReplicationTimer");
+        this.concurrency = conf.getReplicationWorkerConcurrency();
+        if (concurrency > 1) {
+            this.replicationPermits = new Semaphore(concurrency);
+            this.replicationExecutor = Executors.newFixedThreadPool(concurrency,
+                    new ThreadFactoryBuilder().setNameFormat("ReplicationWorker-%d").setDaemon(true).build());
+        } else {
+            this.replicationPermits = null;
+            this.replicationExecutor = null;
+        }
         this.replicationFailedLedgers = CacheBuilder.newBuilder().maximumSize(REPLICATED_FAILED_LEDGERS_MAXSIZE)
                 .build(new CacheLoader<Long, AtomicInteger>() {
                     @Override
@@ -225,7 +271,20 @@ public class ReplicationWorker implements Runnable {
                 .getCounter(NUM_ENTRIES_UNABLE_TO_READ_FOR_REPLICATION);
         this.numNotAdheringPlacementLedgersReplicated = this.statsLogger
                 .getCounter(NUM_NOT_ADHERING_PLACEMENT_LEDGERS_REPLICATED);
-        this.exceptionCounters = new HashMap<String, Counter>();
+        this.numFragmentsReplicated = this.statsLogger.getCounter(NUM_FRAGMENTS_REPLICATED);
+        this.numLedgersBeingReplicatedGauge = new Gauge<Integer>() {
+            @Override
+            public Integer getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Integer getSample() {
+                return numLedgersBeingReplicated.get();
+            }
+        };
+        this.statsLogger.registerGauge(NUM_LEDGERS_BEING_REPLICATED, numLedgersBeingReplicatedGauge);
+        this.exceptionCounters = new ConcurrentHashMap<String, Counter>();
         this.onReadEntryFailureCallback = (ledgerid, entryid) -> {
             numEntriesUnableToReadForReplication.inc();
             unableToReadEntriesForReplication.getUnchecked(ledgerid).add(entryid);
@@ -244,7 +303,9 @@ public class ReplicationWorker implements Runnable {
         workerRunning = true;
         while (workerRunning) {
             try {
-                if (!rereplicate()) {
+                if (replicationExecutor != null) {
+                    rereplicateConcurrently();
+                } else if (!rereplicate()) {
                     LOG.warn("failed while replicating fragments");
                     waitBackOffTime(rwRereplicateBackoffMs);
                 }
@@ -263,10 +324,14 @@ public class ReplicationWorker implements Runnable {
                 shutdown();
                 return;
             } catch (UnavailableException e) {
+                // sample the interrupt flag first, as the logging may clear it
+                boolean interrupted = Thread.currentThread().isInterrupted();
                 LOG.error("UnavailableException "
                         + "while replicating fragments", e);
-                waitBackOffTime(rwRereplicateBackoffMs);
-                if (Thread.currentThread().isInterrupted()) {
+                if (!interrupted && workerRunning) {
+                    waitBackOffTime(rwRereplicateBackoffMs);
+                }
+                if (interrupted || Thread.currentThread().isInterrupted()) {
                     LOG.error("Interrupted  while replicating fragments");
                     shutdown();
                     return;
@@ -292,12 +357,60 @@ public class ReplicationWorker implements Runnable {
             UnavailableException {
         long ledgerIdToReplicate = underreplicationManager
                 .getLedgerToRereplicate();
+        return rereplicateAndRecord(ledgerIdToReplicate);
+    }
+
+    /**
+     * Takes the next under replicated ledger once a replication slot is free, and replicates it on the
+     * replication executor. The worker backs off in the slot of the ledger if its replication fails, so that the
+     * other ledgers keep being replicated meanwhile.
+     */
+    private void rereplicateConcurrently() throws InterruptedException, UnavailableException {
+        replicationPermits.acquire();
+        final long ledgerIdToReplicate;
+        try {
+            ledgerIdToReplicate = underreplicationManager.getLedgerToRereplicate();
+        } catch (Throwable t) {
+            replicationPermits.release();
+            throw t;
+        }
 
+        replicationExecutor.execute(() -> {
+            try {
+                if (!rereplicateAndRecord(ledgerIdToReplicate)) {
+                    LOG.warn("failed while replicating fragments of ledger {}", ledgerIdToReplicate);
+                    waitBackOffTime(rwRereplicateBackoffMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (BKException e) {
+                LOG.error("BKException while replicating fragments of ledger {}", ledgerIdToReplicate, e);
+                waitBackOffTime(rwRereplicateBackoffMs);
+            } catch (ReplicationException.NonRecoverableReplicationException nre) {
+                LOG.error("NonRecoverableReplicationException while replicating fragments of ledger {}",
+                        ledgerIdToReplicate, nre);
+                shutdown();
+            } catch (UnavailableException e) {
+                LOG.error("UnavailableException while replicating fragments of ledger {}", ledgerIdToReplicate, e);
+                waitBackOffTime(rwRereplicateBackoffMs);
+            } catch (Throwable t) {
+                LOG.error("Unexpected exception while replicating fragments of ledger {}", ledgerIdToReplicate, t);
+                waitBackOffTime(rwRereplicateBackoffMs);
+            } finally {
+                replicationPermits.release();
+            }
+        });
+    }
+
+    private boolean rereplicateAndRecord(long ledgerIdToReplicate) throws InterruptedException, BKException,
+            UnavailableException {
         Stopwatch stopwatch = Stopwatch.createStarted();
         boolean success = false;
+        numLedgersBeingReplicated.incrementAndGet();
         try {
             success = rereplicate(ledgerIdToReplicate);
         } finally {
+            numLedgersBeingReplicated.decrementAndGet();
             long latencyMillis = stopwatch.stop().elapsed(TimeUnit.MILLISECONDS);
             if (success) {
                 rereplicateOpStats.registerSuccessfulEvent(latencyMillis, TimeUnit.MILLISECONDS);
@@ -457,7 +570,7 @@ public class ReplicationWorker implements Runnable {
             boolean foundOpenFragments = false;
             long numFragsReplicated = 0;
             long numNotAdheringPlacementFragsReplicated = 0;
-            for (LedgerFragment ledgerFragment : fragments) {
+            for (LedgerFragment ledgerFragment : prioritize(fragments)) {
                 if (!ledgerFragment.isClosed()) {
                     foundOpenFragments = true;
                     continue;
@@ -470,6 +583,7 @@ public class ReplicationWorker implements Runnable {
                 try {
                     admin.replicateLedgerFragment(lh, ledgerFragment, onReadEntryFailureCallback);
                     numFragsReplicated++;
+                    numFragmentsReplicated.inc();
                     if (ledgerFragment.getReplicateType() == LedgerFragment
                             .ReplicateType.DATA_NOT_ADHERING_PLACEMENT) {
                         numNotAdheringPlacementFragsReplicated++;
@@ -613,6 +727,20 @@ public class ReplicationWorker implements Runnable {
         return checkerCb.waitAndGetResult();
     }
 
+    /**
+     * Order the fragments of a ledger by urgency: the fragments losing data before the ones only not adhering to
+     * the placement policy, and the fragments having lost the most replicas first.
+     */
+    @VisibleForTesting
+    static List<LedgerFragment> prioritize(Set<LedgerFragment> fragments) {
+        List<LedgerFragment> ordered = new ArrayList<>(fragments);
+        ordered.sort(Comparator
+                .comparing((LedgerFragment f) -> f.getReplicateType() != LedgerFragment.ReplicateType.DATA_LOSS)
+                .thenComparing(f -> f.getBookiesIndexes().size(), Comparator.reverseOrder())
+                .thenComparingLong(LedgerFragment::getFirstEntryId));
+        return ordered;
+    }
+
     private boolean checkFragmentRepeat(Set<LedgerFragment> fragments, LedgerFragment needChecked) {
         for (LedgerFragment fragment : fragments) {
             if (fragment.getLedgerId() == needChecked.getLedgerId()
@@ -758,6 +886,11 @@ public class ReplicationWorker implements Runnable {
             LOG.error("Interrupted during shutting down replication worker : ",
                     e);
             Thread.currentThread().interrupt();
+        } finally {
+            if (replicationExecutor != null) {
+                // interrupt the ledgers being replicated, their locks are released as they bail out
+                replicationExecutor.shutdownNow();
+            }
         }
         if (ownBkc) {
             try {
@@ -810,12 +943,7 @@ public class ReplicationWorker implements Runnable {
     }
 
     private Counter getExceptionCounter(String name) {
-        Counter counter = this.exceptionCounters.get(name);
-        if (counter == null) {
-            counter = this.exceptionLogger.getCounter(name);
-            this.exceptionCounters.put(name, counter);
-        }
-        return counter;
+        return this.exceptionCounters.computeIfAbsent(name, exceptionLogger::getCounter);
     }
 
 }
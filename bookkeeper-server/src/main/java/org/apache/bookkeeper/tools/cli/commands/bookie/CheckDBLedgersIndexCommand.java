@@ -54,7 +54,8 @@ public class CheckDBLedgersIndexCommand extends BookieCommand<CheckDBLedgersInde
         LOG.info("=== Checking DBStorage ledgers index by running a read scan ===");
         ServerConfiguration serverConfiguration = new ServerConfiguration(conf);
         try {
-            boolean success = new LedgersIndexCheckOp(serverConfiguration, cmdFlags.verbose).initiate();
+            boolean success = new LedgersIndexCheckOp(serverConfiguration, cmdFlags.verbose,
+                    cmdFlags.threads).initiate();
             if (success) {
                 LOG.info("-- Done checking DBStorage ledgers index --");
             } else {
@@ -77,5 +78,9 @@ public class CheckDBLedgersIndexCommand extends BookieCommand<CheckDBLedgersInde
     public static class CheckLedgersIndexFlags extends CliFlags {
         @Parameter(names = { "-v", "--verbose" }, description = "Verbose logging. Print each ledger.")
         private boolean verbose;
+
+        @Parameter(names = { "-t", "--threads" },
+                description = "Number of threads used to scan the ledger directories. Default to the number of cores")
+        private int threads = Runtime.getRuntime().availableProcessors();
     }
 }
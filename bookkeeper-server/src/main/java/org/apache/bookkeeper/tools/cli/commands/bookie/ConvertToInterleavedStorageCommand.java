@@ -33,6 +33,7 @@ import org.apache.bookkeeper.bookie.InterleavedLedgerStorage;
 import org.apache.bookkeeper.bookie.LedgerCache;
 import org.apache.bookkeeper.bookie.LedgerDirsManager;
 import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorage;
+import org.apache.bookkeeper.bookie.storage.ldb.EntryLocationIndex;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.tools.cli.helpers.BookieCommand;
@@ -168,8 +169,10 @@ public class ConvertToInterleavedStorageCommand extends BookieCommand<ConvertToI
         Files.move(FileSystems.getDefault().getPath(baseDir, "ledgers"),
             FileSystems.getDefault().getPath(baseDir, "ledgers.backup"));
 
-        Files.move(FileSystems.getDefault().getPath(baseDir, "locations"),
-            FileSystems.getDefault().getPath(baseDir, "locations.backup"));
+        for (String locationsSubPath : EntryLocationIndex.getShardSubPaths(conf, baseDir)) {
+            Files.move(FileSystems.getDefault().getPath(baseDir, locationsSubPath),
+                FileSystems.getDefault().getPath(baseDir, locationsSubPath + ".backup"));
+        }
 
         LOG.info("---- Done Converting {} ledgers ----", convertedLedgers);
         return true;
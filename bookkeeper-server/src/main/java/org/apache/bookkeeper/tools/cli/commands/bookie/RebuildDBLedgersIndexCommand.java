@@ -53,7 +53,8 @@ public class RebuildDBLedgersIndexCommand extends BookieCommand<RebuildDBLedgers
     public boolean apply(ServerConfiguration conf, RebuildLedgersIndexFlags cmdFlags) {
         LOG.info("=== Rebuilding DBStorage ledgers index ===");
         ServerConfiguration serverConfiguration = new ServerConfiguration(conf);
-        boolean success = new LedgersIndexRebuildOp(serverConfiguration, cmdFlags.verbose).initiate();
+        boolean success = new LedgersIndexRebuildOp(serverConfiguration, cmdFlags.verbose,
+                cmdFlags.threads).initiate();
         if (success) {
             LOG.info("-- Done rebuilding DBStorage ledgers index --");
         } else {
@@ -72,5 +73,10 @@ public class RebuildDBLedgersIndexCommand extends BookieCommand<RebuildDBLedgers
         @Parameter(names = { "-v", "--verbose" },
                 description = "Verbose logging. Print each ledger id found and added to the rebuilt index")
         private boolean verbose;
+
+        @Parameter(names = { "-t", "--threads" },
+                description = "Number of threads used to scan the journal and entry logs. "
+                        + "Default to the number of cores")
+        private int threads = Runtime.getRuntime().availableProcessors();
     }
 }
@@ -0,0 +1,187 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.bookkeeper.util.SnapshotMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+/**
+ * Concurrency test of the index pages of {@link IndexInMemPageMgr}, with fewer pages than the index needs.
+ */
+@RunWith(Parameterized.class)
+public class IndexInMemPageMgrTest {
+
+    private static final int PAGE_SIZE = 1024;
+    private static final int ENTRIES_PER_PAGE = PAGE_SIZE / LedgerEntryPage.getIndexEntrySize();
+    private static final int PAGE_LIMIT = 4;
+    private static final int NUM_LEDGERS = 8;
+    private static final int NUM_WRITERS = 4;
+    private static final int NUM_READERS = 4;
+    private static final long ENTRIES_PER_LEDGER = 16L * ENTRIES_PER_PAGE;
+
+    @Parameterized.Parameters(name = "mmapReads={0}")
+    public static Collection<Object[]> getParameters() {
+        return Arrays.asList(new Object[][] { { false }, { true } });
+    }
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private final boolean mmapReads;
+
+    public IndexInMemPageMgrTest(boolean mmapReads) {
+        this.mmapReads = mmapReads;
+    }
+
+    private static long offset(long ledgerId, long entryId) {
+        return (ledgerId << 32) | (entryId + 1);
+    }
+
+    private LedgerCacheImpl newLedgerCache(File indexDir) throws IOException {
+        ServerConfiguration conf = new ServerConfiguration();
+        conf.setPageSize(PAGE_SIZE);
+        conf.setPageLimit(PAGE_LIMIT);
+        conf.setFileInfoMmapEnabled(mmapReads);
+        conf.setLedgerDirNames(new String[] { indexDir.getAbsolutePath() });
+        File curDir = BookieImpl.getCurrentDirectory(indexDir);
+        BookieImpl.checkDirectoryStructure(curDir);
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, new File[] { curDir },
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        return new LedgerCacheImpl(conf, new SnapshotMap<Long, Boolean>(), ledgerDirsManager);
+    }
+
+    private static void verifyIndex(LedgerCacheImpl ledgerCache) throws IOException {
+        for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+            for (long entryId = 0; entryId < ENTRIES_PER_LEDGER; entryId++) {
+                assertEquals("ledger " + ledgerId + " entry " + entryId,
+                        offset(ledgerId, entryId), ledgerCache.getEntryOffset(ledgerId, entryId));
+            }
+            assertEquals(ENTRIES_PER_LEDGER - 1, ledgerCache.getLastEntry(ledgerId));
+        }
+    }
+
+    @Test
+    public void testConcurrentReadsWritesAndFlushesUnderEvictionPressure() throws Exception {
+        File indexDir = tmpDir.newFolder("index");
+        LedgerCacheImpl ledgerCache = newLedgerCache(indexDir);
+        for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+            ledgerCache.setMasterKey(ledgerId, new byte[0]);
+        }
+
+        // last entry written of each ledger
+        AtomicLongArray lastWritten = new AtomicLongArray(NUM_LEDGERS);
+        for (int i = 0; i < NUM_LEDGERS; i++) {
+            lastWritten.set(i, -1L);
+        }
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch writersDone = new CountDownLatch(NUM_WRITERS);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < NUM_WRITERS; w++) {
+            final int writer = w;
+            threads.add(new Thread(() -> {
+                try {
+                    // each writer interleaves the entries of its own ledgers
+                    for (long entryId = 0; entryId < ENTRIES_PER_LEDGER && failure.get() == null; entryId++) {
+                        for (int ledgerId = writer; ledgerId < NUM_LEDGERS; ledgerId += NUM_WRITERS) {
+                            ledgerCache.putEntryOffset(ledgerId, entryId, offset(ledgerId, entryId));
+                            lastWritten.set(ledgerId, entryId);
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    writersDone.countDown();
+                }
+            }, "writer-" + w));
+        }
+        for (int r = 0; r < NUM_READERS; r++) {
+            threads.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    while (writersDone.getCount() > 0 && failure.get() == null) {
+                        int ledgerId = random.nextInt(NUM_LEDGERS);
+                        long last = lastWritten.get(ledgerId);
+                        if (last < 0) {
+                            continue;
+                        }
+                        long entryId = random.nextLong(last + 1);
+                        long actual = ledgerCache.getEntryOffset(ledgerId, entryId);
+                        assertEquals("ledger " + ledgerId + " entry " + entryId, offset(ledgerId, entryId), actual);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }, "reader-" + r));
+        }
+        threads.add(new Thread(() -> {
+            try {
+                boolean doAll = false;
+                while (writersDone.getCount() > 0 && failure.get() == null) {
+                    ledgerCache.flushLedger(doAll);
+                    doAll = !doAll;
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }, "flusher"));
+
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError("Concurrent access to the index failed", failure.get());
+        }
+
+        // all the offsets are readable from the cache, and from the index files once flushed
+        verifyIndex(ledgerCache);
+        ledgerCache.flushLedger(true);
+        ledgerCache.close();
+
+        LedgerCacheImpl reopened = newLedgerCache(indexDir);
+        try {
+            verifyIndex(reopened);
+        } finally {
+            reopened.close();
+        }
+    }
+}
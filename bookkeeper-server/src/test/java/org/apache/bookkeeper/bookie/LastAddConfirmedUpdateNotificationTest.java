@@ -0,0 +1,81 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.LastAddConfirmedUpdateNotification.WATCHER_RECYCLER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.bookkeeper.common.util.Watchable;
+import org.apache.bookkeeper.common.util.Watcher;
+import org.junit.Test;
+
+/**
+ * Unit test of the fan-out of {@link LastAddConfirmedUpdateNotification}.
+ */
+public class LastAddConfirmedUpdateNotificationTest {
+
+    @Test
+    public void testSingleNotificationIsSharedByTheWatchers() {
+        Watchable<LastAddConfirmedUpdateNotification> watchable = new Watchable<>(WATCHER_RECYCLER);
+        List<LastAddConfirmedUpdateNotification> notifications = new ArrayList<>();
+        List<Long> lacs = new ArrayList<>();
+        Watcher<LastAddConfirmedUpdateNotification> watcher = notification -> {
+            notifications.add(notification);
+            lacs.add(notification.getLastAddConfirmed());
+        };
+        int numWatchers = 10;
+        for (int i = 0; i < numWatchers; i++) {
+            watchable.addWatcher(watcher);
+        }
+
+        LastAddConfirmedUpdateNotification.notifyWatchers(watchable, 42L);
+        assertEquals(numWatchers, notifications.size());
+        for (int i = 0; i < numWatchers; i++) {
+            assertSame(notifications.get(0), notifications.get(i));
+            assertEquals(42L, lacs.get(i).longValue());
+        }
+        // the shared notification is recycled once all the watchers were notified
+        assertEquals(-1L, notifications.get(0).getLastAddConfirmed());
+
+        // the watchers were removed once notified
+        LastAddConfirmedUpdateNotification.notifyWatchers(watchable, 43L);
+        assertEquals(numWatchers, notifications.size());
+    }
+
+    @Test
+    public void testDeletedWatcherIsNotNotified() {
+        Watchable<LastAddConfirmedUpdateNotification> watchable = new Watchable<>(WATCHER_RECYCLER);
+        List<Long> lacs = new ArrayList<>();
+        Watcher<LastAddConfirmedUpdateNotification> watcher = notification ->
+                lacs.add(notification.getLastAddConfirmed());
+        Watcher<LastAddConfirmedUpdateNotification> timedOut = notification -> lacs.add(-2L);
+        watchable.addWatcher(timedOut);
+        watchable.addWatcher(watcher);
+        watchable.deleteWatcher(timedOut);
+
+        LastAddConfirmedUpdateNotification.notifyWatchers(watchable, 7L);
+        assertEquals(1, lacs.size());
+        assertEquals(7L, lacs.get(0).longValue());
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.proto.BookieProtocol;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.test.TmpDirs;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link OffHeapEntryMemTable}.
+ */
+public class OffHeapEntryMemTableTest {
+
+    private static final int SIZE_LIMIT = 256 * 1024;
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    // Entries are aligned to 128 bytes, so a cache holds less than SIZE_LIMIT bytes of them
+    private static final int ENTRY_SIZE = 65;
+    private static final int ENTRIES_PER_CACHE = (SIZE_LIMIT + SEGMENT_SIZE) / 128;
+
+    private final TmpDirs tmpDirs = new TmpDirs();
+    private final List<Checkpoint> snapshots = Collections.synchronizedList(new ArrayList<>());
+    private final CacheCallback cacheCallback = snapshots::add;
+    private OffHeapEntryMemTable memTable;
+
+    @After
+    public void tearDown() throws Exception {
+        if (memTable != null) {
+            memTable.close();
+        }
+        tmpDirs.cleanup();
+    }
+
+    private static ServerConfiguration newConf() {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setSkipListSizeLimit(SIZE_LIMIT);
+        conf.setSkipListArenaChunkSize(SEGMENT_SIZE);
+        conf.setSkipListArenaMaxAllocSize(SEGMENT_SIZE / 4);
+        conf.setNettyMaxFrameSizeBytes(SEGMENT_SIZE);
+        return conf;
+    }
+
+    private OffHeapEntryMemTable newMemTable(boolean parallelFlush) {
+        memTable = new OffHeapEntryMemTable(newConf(), CheckpointSource.DEFAULT, NullStatsLogger.INSTANCE,
+                parallelFlush);
+        return memTable;
+    }
+
+    private static ByteBuf newEntry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId + entryId));
+        }
+        return entry;
+    }
+
+    private void addEntries(long ledgerId, long firstEntryId, long lastEntryId) throws IOException {
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+            memTable.addEntry(ledgerId, entryId, newEntry(ledgerId, entryId), cacheCallback);
+        }
+    }
+
+    private void assertEntry(long ledgerId, long entryId) throws IOException {
+        EntryKeyValue kv = memTable.getEntry(ledgerId, entryId);
+        assertNotNull("Entry " + ledgerId + "@" + entryId + " not found", kv);
+        assertEquals(ledgerId, kv.getLedgerId());
+        assertEquals(entryId, kv.getEntryId());
+        assertEquals(newEntry(ledgerId, entryId), kv.getValueAsByteBuffer());
+    }
+
+    private static List<Long> toList(PrimitiveIterator.OfLong entryIds) {
+        List<Long> list = new ArrayList<>();
+        entryIds.forEachRemaining((long entryId) -> list.add(entryId));
+        return list;
+    }
+
+    private static List<Long> range(long firstEntryId, long lastEntryId) {
+        List<Long> list = new ArrayList<>();
+        for (long entryId = firstEntryId; entryId <= lastEntryId; entryId++) {
+            list.add(entryId);
+        }
+        return list;
+    }
+
+    /**
+     * Flusher recording the flushed entries, which can be made to fail or to block.
+     */
+    private static class TestFlusher implements SkipListFlusher {
+        final List<String> flushed = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean fail = false;
+        volatile CountDownLatch processStarted = null;
+        volatile CountDownLatch processAllowed = null;
+
+        @Override
+        public void process(long ledgerId, long entryId, ByteBuf entry) throws IOException {
+            if (fail) {
+                throw new IOException("Injected flush failure");
+            }
+            if (processAllowed != null) {
+                processStarted.countDown();
+                try {
+                    processAllowed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            assertEquals(newEntry(ledgerId, entryId), entry);
+            flushed.add(ledgerId + "@" + entryId);
+        }
+    }
+
+    @Test
+    public void testReadFromTheMemTableAndTheSnapshot() throws Exception {
+        newMemTable(false);
+        assertTrue(memTable.isEmpty());
+        addEntries(1L, 0L, 9L);
+        addEntries(2L, 0L, 4L);
+
+        assertNotNull(memTable.snapshot());
+        assertFalse(memTable.isEmpty());
+        addEntries(1L, 10L, 14L);
+
+        // the entries are read from both the memtable and the snapshot
+        for (long entryId = 0; entryId <= 14; entryId++) {
+            assertEntry(1L, entryId);
+        }
+        assertEntry(2L, 4L);
+        assertNull(memTable.getEntry(1L, 15L));
+        assertNull(memTable.getEntry(3L, 0L));
+        assertEquals(14L, memTable.getLastEntry(1L).getEntryId());
+        assertEquals(4L, memTable.getLastEntry(2L).getEntryId());
+        assertNull(memTable.getLastEntry(3L));
+
+        assertEquals(range(0, 14), toList(memTable.getListOfEntriesOfLedger(1L)));
+        assertEquals(range(0, 4), toList(memTable.getListOfEntriesOfLedger(2L)));
+        assertEquals(range(0, -1), toList(memTable.getListOfEntriesOfLedger(3L)));
+
+        // the snapshot is flushed in order, and the entries of the memtable are kept
+        TestFlusher flusher = new TestFlusher();
+        assertEquals(15 * ENTRY_SIZE, memTable.flush(flusher));
+        assertEquals(15, flusher.flushed.size());
+        assertEquals("1@0", flusher.flushed.get(0));
+        assertEquals("2@4", flusher.flushed.get(14));
+        assertNull(memTable.getEntry(1L, 0L));
+        assertNull(memTable.getEntry(2L, 0L));
+        assertEntry(1L, 14L);
+        assertEquals(range(10, 14), toList(memTable.getListOfEntriesOfLedger(1L)));
+    }
+
+    @Test
+    public void testListOfEntriesWithGaps() throws Exception {
+        newMemTable(false);
+        addEntries(1L, 0L, 9L);
+        addEntries(1L, 20L, 24L);
+        // a ledger whose entries are too sparse to probe the range of its entries
+        addEntries(2L, 0L, 0L);
+        addEntries(2L, 1_000_000L, 1_000_000L);
+
+        List<Long> expected = range(0, 9);
+        expected.addAll(range(20, 24));
+        assertEquals(expected, toList(memTable.getListOfEntriesOfLedger(1L)));
+        List<Long> sparse = new ArrayList<>();
+        sparse.add(0L);
+        sparse.add(1_000_000L);
+        assertEquals(sparse, toList(memTable.getListOfEntriesOfLedger(2L)));
+    }
+
+    @Test
+    public void testFullMemTableSnapshotsItself() throws Exception {
+        newMemTable(false);
+        addEntries(1L, 0L, ENTRIES_PER_CACHE - 1);
+        assertTrue(snapshots.isEmpty());
+
+        // the next entry doesn't fit in the memtable cache, which becomes the snapshot
+        addEntries(1L, ENTRIES_PER_CACHE, ENTRIES_PER_CACHE);
+        assertEquals(1, snapshots.size());
+        assertEntry(1L, 0L);
+        assertEntry(1L, ENTRIES_PER_CACHE);
+    }
+
+    @Test
+    public void testWriterWaitsForTheSnapshotFlush() throws Exception {
+        newMemTable(false);
+        addEntries(1L, 0L, 2 * ENTRIES_PER_CACHE - 1);
+        assertEquals(1, snapshots.size());
+
+        CompletableFuture<Void> add = CompletableFuture.runAsync(() -> {
+            try {
+                addEntries(1L, 2 * ENTRIES_PER_CACHE, 2 * ENTRIES_PER_CACHE);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertBlocked(add);
+
+        // the writer snapshots the full memtable once the previous snapshot is flushed
+        memTable.flush(new TestFlusher());
+        add.get(10, TimeUnit.SECONDS);
+        assertEquals(2, snapshots.size());
+        assertEntry(1L, 2 * ENTRIES_PER_CACHE);
+    }
+
+    @Test
+    public void testWriterFailsWhenTheSnapshotFlushFails() throws Exception {
+        testWriterFailsWhenTheSnapshotFlushFails(false);
+    }
+
+    @Test
+    public void testWriterFailsWhenTheParallelSnapshotFlushFails() throws Exception {
+        testWriterFailsWhenTheSnapshotFlushFails(true);
+    }
+
+    private void testWriterFailsWhenTheSnapshotFlushFails(boolean parallelFlush) throws Exception {
+        newMemTable(parallelFlush);
+        addEntries(1L, 0L, 2 * ENTRIES_PER_CACHE - 1);
+        int availablePermits = memTable.skipListSemaphore.availablePermits();
+
+        CompletableFuture<Void> add = CompletableFuture.runAsync(() -> {
+            try {
+                addEntries(1L, 2 * ENTRIES_PER_CACHE, 2 * ENTRIES_PER_CACHE);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertBlocked(add);
+
+        TestFlusher flusher = new TestFlusher();
+        flusher.fail = true;
+        try {
+            memTable.flush(flusher);
+            fail("The flush should fail");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the waiting writer is failed and gives its permits back
+        try {
+            add.get(10, TimeUnit.SECONDS);
+            fail("The entry should be rejected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getCause() instanceof IOException);
+        }
+        assertEquals(availablePermits, memTable.skipListSemaphore.availablePermits());
+
+        // the snapshot is still readable, and flushed by the next flush
+        assertEntry(1L, 0L);
+        flusher.fail = false;
+        assertEquals(ENTRIES_PER_CACHE * ENTRY_SIZE, memTable.flush(flusher));
+        assertEquals(ENTRIES_PER_CACHE, flusher.flushed.size());
+        addEntries(1L, 2 * ENTRIES_PER_CACHE, 2 * ENTRIES_PER_CACHE);
+        assertEntry(1L, 2 * ENTRIES_PER_CACHE);
+    }
+
+    @Test
+    public void testReadDuringTheSnapshotFlush() throws Exception {
+        newMemTable(false);
+        addEntries(1L, 0L, 9L);
+        assertNotNull(memTable.snapshot());
+
+        TestFlusher flusher = new TestFlusher();
+        flusher.processStarted = new CountDownLatch(1);
+        flusher.processAllowed = new CountDownLatch(1);
+        CompletableFuture<Long> flush = CompletableFuture.supplyAsync(() -> {
+            try {
+                return memTable.flush(flusher);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(flusher.processStarted.await(10, TimeUnit.SECONDS));
+
+        // the snapshot being flushed is still read, and new entries are added
+        addEntries(1L, 10L, 19L);
+        for (long entryId = 0; entryId <= 19; entryId++) {
+            assertEntry(1L, entryId);
+        }
+        assertEquals(19L, memTable.getLastEntry(1L).getEntryId());
+        assertEquals(range(0, 19), toList(memTable.getListOfEntriesOfLedger(1L)));
+
+        flusher.processAllowed.countDown();
+        assertEquals(10 * ENTRY_SIZE, flush.get(10, TimeUnit.SECONDS).longValue());
+        assertNull(memTable.getEntry(1L, 0L));
+        assertEquals(range(10, 19), toList(memTable.getListOfEntriesOfLedger(1L)));
+    }
+
+    private static void assertBlocked(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(200, TimeUnit.MILLISECONDS);
+            fail("The operation should be blocked");
+        } catch (TimeoutException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSortedLedgerStorageMemTable() throws Exception {
+        assertSortedLedgerStorageMemTable(false, EntryMemTable.class);
+        assertSortedLedgerStorageMemTable(true, OffHeapEntryMemTable.class);
+    }
+
+    private void assertSortedLedgerStorageMemTable(boolean offHeap, Class<?> memTableClass) throws Exception {
+        File ledgerDir = tmpDirs.createNew("ledgers", "");
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        ServerConfiguration conf = newConf();
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+        conf.setSkipListOffHeapEnabled(offHeap);
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+
+        SortedLedgerStorage storage = new SortedLedgerStorage();
+        storage.initialize(conf, mock(LedgerManager.class), ledgerDirsManager, ledgerDirsManager,
+                NullStatsLogger.INSTANCE, UnpooledByteBufAllocator.DEFAULT);
+        storage.setCheckpointSource(CheckpointSource.DEFAULT);
+        storage.setCheckpointer(Checkpointer.NULL);
+        try {
+            assertEquals(memTableClass, storage.memTable.getClass());
+
+            storage.setMasterKey(1L, new byte[0]);
+            for (long entryId = 0; entryId < 10; entryId++) {
+                ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+                entry.writeLong(1L);
+                entry.writeLong(entryId);
+                entry.writeLong(entryId - 1);
+                entry.writerIndex(ENTRY_SIZE);
+                storage.addEntry(entry);
+            }
+            assertEquals(5L, storage.getEntry(1L, 5L).getLong(8));
+
+            // the entries are read from the entry log once the memtable is flushed
+            storage.flush();
+            assertTrue(storage.memTable.isEmpty());
+            assertEquals(5L, storage.getEntry(1L, 5L).getLong(8));
+            assertEquals(9L, storage.getEntry(1L, BookieProtocol.LAST_ADD_CONFIRMED).getLong(8));
+        } finally {
+            storage.shutdown();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.test.TmpDirs;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test of the sharding of {@link EntryLocationIndex}.
+ */
+public class EntryLocationIndexTest {
+
+    private static final int NUM_LEDGERS = 40;
+    private static final int NUM_ENTRIES = 10;
+
+    private final TmpDirs tmpDirs = new TmpDirs();
+
+    @After
+    public void tearDown() throws Exception {
+        tmpDirs.cleanup();
+    }
+
+    private static ServerConfiguration newConf(int numShards) {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setProperty(DbLedgerStorage.ENTRY_LOCATION_INDEX_SHARDS, numShards);
+        return conf;
+    }
+
+    private static EntryLocationIndex newIndex(ServerConfiguration conf, File dir) throws IOException {
+        return new EntryLocationIndex(conf, KeyValueStorageRocksDB.factory, dir.getAbsolutePath(),
+                NullStatsLogger.INSTANCE);
+    }
+
+    private static long location(long ledgerId, long entryId) {
+        return ledgerId * 1000 + entryId + 1;
+    }
+
+    private static void addLocations(EntryLocationIndex index) throws IOException {
+        try (Batch batch = index.newSortedBatch()) {
+            for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+                for (long entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+                    index.addLocation(batch, ledgerId, entryId, location(ledgerId, entryId));
+                }
+            }
+            batch.flush();
+        }
+    }
+
+    private static void assertLocations(EntryLocationIndex index, long ledgerId) throws IOException {
+        for (long entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+            assertEquals(location(ledgerId, entryId), index.getLocation(ledgerId, entryId));
+        }
+        assertEquals(NUM_ENTRIES - 1, index.getLastEntryInLedger(ledgerId));
+    }
+
+    private static void assertNoLocations(EntryLocationIndex index, long ledgerId) throws IOException {
+        for (long entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+            assertEquals(0, index.getLocation(ledgerId, entryId));
+        }
+        try {
+            index.getLastEntryInLedger(ledgerId);
+            fail("Ledger " + ledgerId + " should not be found");
+        } catch (Bookie.NoEntryException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLedgersAreSpreadOverTheShards() {
+        Set<Integer> shards = new HashSet<>();
+        for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+            int shard = EntryLocationIndex.getShard(ledgerId, 4);
+            assertTrue(shard >= 0 && shard < 4);
+            assertEquals(shard, EntryLocationIndex.getShard(ledgerId, 4));
+            assertEquals(0, EntryLocationIndex.getShard(ledgerId, 1));
+            shards.add(shard);
+        }
+        assertEquals(4, shards.size());
+    }
+
+    @Test
+    public void testGetAndDeleteAcrossShards() throws Exception {
+        File dir = tmpDirs.createNew("locations", "");
+        EntryLocationIndex index = newIndex(newConf(4), dir);
+        try {
+            List<String> dbPaths = index.getEntryLocationDBPath();
+            assertEquals(4, dbPaths.size());
+            assertEquals(4, new HashSet<>(dbPaths).size());
+            for (int shard = 0; shard < 4; shard++) {
+                assertTrue(new File(dir, EntryLocationIndex.getShardSubPath(shard)).isDirectory());
+            }
+
+            addLocations(index);
+            for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+                assertLocations(index, ledgerId);
+            }
+            assertNoLocations(index, NUM_LEDGERS);
+
+            // delete the even ledgers, which are owned by all the shards
+            Set<Integer> shards = new HashSet<>();
+            for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId += 2) {
+                index.delete(ledgerId);
+                shards.add(EntryLocationIndex.getShard(ledgerId, 4));
+            }
+            assertEquals(4, shards.size());
+            index.removeOffsetFromDeletedLedgers();
+
+            for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+                if (ledgerId % 2 == 0) {
+                    assertNoLocations(index, ledgerId);
+                } else {
+                    assertLocations(index, ledgerId);
+                }
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testExistingSingleShardIndexIsStillOpened() throws Exception {
+        File dir = tmpDirs.createNew("locations", "");
+        EntryLocationIndex index = newIndex(newConf(1), dir);
+        addLocations(index);
+        index.close();
+        assertEquals(1, EntryLocationIndex.getShardSubPaths(newConf(4), dir.getAbsolutePath()).size());
+
+        // the index keeps its single shard when more shards are configured
+        index = newIndex(newConf(4), dir);
+        try {
+            assertEquals(1, index.getEntryLocationDBPath().size());
+            assertFalse(new File(dir, EntryLocationIndex.getShardSubPath(1)).exists());
+            for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+                assertLocations(index, ledgerId);
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testChangeOfTheNumberOfShards() throws Exception {
+        File dir = tmpDirs.createNew("locations", "");
+        EntryLocationIndex index = newIndex(newConf(4), dir);
+        addLocations(index);
+        index.close();
+
+        // the index keeps the number of shards it was created with
+        for (int numShards : new int[] { 1, 2, 8 }) {
+            assertEquals(4, EntryLocationIndex.getNumberOfShards(newConf(numShards), dir.getAbsolutePath()));
+            index = newIndex(newConf(numShards), dir);
+            try {
+                assertEquals(4, index.getEntryLocationDBPath().size());
+                for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+                    assertLocations(index, ledgerId);
+                }
+            } finally {
+                index.close();
+            }
+        }
+        assertFalse(new File(dir, EntryLocationIndex.getShardSubPath(4)).exists());
+    }
+
+    @Test
+    public void testBatchFlushWithAFailingShard() throws Exception {
+        File dir = tmpDirs.createNew("locations", "");
+        int failingShard = 2;
+        String failingSubPath = EntryLocationIndex.getShardSubPath(failingShard);
+        KeyValueStorage failingStorage = mock(KeyValueStorage.class);
+        Batch failingBatch = mock(Batch.class);
+        when(failingStorage.newBatch()).thenReturn(failingBatch);
+        when(failingStorage.newSortedBatch()).thenReturn(failingBatch);
+        when(failingStorage.getDBPath()).thenReturn(new File(dir, failingSubPath).getAbsolutePath());
+        doThrow(new IOException("Injected flush failure")).when(failingBatch).flush();
+        KeyValueStorageFactory factory = (basePath, subPath, dbConfigType, conf) -> {
+            if (subPath.equals(failingSubPath)) {
+                return failingStorage;
+            }
+            return KeyValueStorageRocksDB.factory.newKeyValueStorage(basePath, subPath, dbConfigType, conf);
+        };
+
+        EntryLocationIndex index = new EntryLocationIndex(newConf(4), factory, dir.getAbsolutePath(),
+                NullStatsLogger.INSTANCE);
+        try {
+            try {
+                addLocations(index);
+                fail("The flush of the batch should fail");
+            } catch (IOException e) {
+                assertEquals("Injected flush failure", e.getMessage());
+            }
+
+            // the other shards were flushed in parallel
+            when(failingStorage.get(any(byte[].class), any(byte[].class))).thenReturn(-1);
+            Set<Integer> flushedShards = new HashSet<>();
+            for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+                int shard = EntryLocationIndex.getShard(ledgerId, 4);
+                if (shard == failingShard) {
+                    assertEquals(0, index.getLocation(ledgerId, 0));
+                } else {
+                    assertLocations(index, ledgerId);
+                    flushedShards.add(shard);
+                }
+            }
+            assertEquals(3, flushedShards.size());
+            assertNotEquals(-1, index.getEntryLocationDBPath().indexOf(failingStorage.getDBPath()));
+        } finally {
+            index.close();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.test.TmpDirs;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test of the sorted and ingestion batches of {@link KeyValueStorageRocksDB}.
+ */
+public class KeyValueStorageRocksDBTest {
+
+    private static final int MIN_BATCH_SIZE = 100;
+
+    private final TmpDirs tmpDirs = new TmpDirs();
+
+    @After
+    public void tearDown() throws Exception {
+        tmpDirs.cleanup();
+    }
+
+    private KeyValueStorageRocksDB newStorage(DbConfigType dbConfigType, boolean sstIngestionEnabled,
+                                              Integer minBatchSize) throws Exception {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setProperty("dbStorage_rocksDB_sstIngestionEnabled", sstIngestionEnabled);
+        if (minBatchSize != null) {
+            conf.setProperty("dbStorage_rocksDB_sstIngestionMinBatchSize", minBatchSize);
+        }
+        File dir = tmpDirs.createNew("rocksdb", "");
+        return new KeyValueStorageRocksDB(dir.getAbsolutePath(), "db", dbConfigType, conf);
+    }
+
+    private static byte[] key(long k) {
+        byte[] key = new byte[Long.BYTES];
+        ArrayUtil.setLong(key, 0, k);
+        return key;
+    }
+
+    private static int countSstFiles(KeyValueStorage storage) {
+        File[] files = new File(storage.getDBPath()).listFiles((dir, name) -> name.endsWith(".sst"));
+        return files == null ? 0 : files.length;
+    }
+
+    private static void putKeys(Batch batch, long firstKey, long endKey) throws IOException {
+        for (long k = firstKey; k < endKey; k++) {
+            batch.put(key(k), key(k * 10));
+        }
+    }
+
+    private static void assertKeys(KeyValueStorage storage, long firstKey, long endKey) throws IOException {
+        for (long k = firstKey; k < endKey; k++) {
+            assertArrayEquals(key(k * 10), storage.get(key(k)));
+        }
+    }
+
+    private static void assertNoKeys(KeyValueStorage storage, long firstKey, long endKey) throws IOException {
+        for (long k = firstKey; k < endKey; k++) {
+            assertNull(storage.get(key(k)));
+        }
+    }
+
+    @Test
+    public void testIngestionBatchRejectsUnsortedKeys() throws Exception {
+        try (KeyValueStorageRocksDB storage = newStorage(DbConfigType.EntryLocation, true, null)) {
+            try (Batch batch = storage.newIngestionBatch()) {
+                batch.put(key(2), key(20));
+                try {
+                    batch.put(key(1), key(10));
+                    fail("Out of order keys should be rejected");
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+
+            try (Batch batch = storage.newIngestionBatch()) {
+                batch.put(key(2), key(20));
+                try {
+                    batch.put(key(2), key(21));
+                    fail("Duplicate keys should be rejected");
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+
+            // the files of the failed batches are discarded
+            assertEquals(0, countSstFiles(storage));
+            assertNull(storage.get(key(2)));
+        }
+    }
+
+    @Test
+    public void testIngestionBatch() throws Exception {
+        try (KeyValueStorageRocksDB storage = newStorage(DbConfigType.Default, false, null)) {
+            try (Batch batch = storage.newIngestionBatch()) {
+                putKeys(batch, 0, 10);
+                batch.remove(key(10));
+                batch.flush();
+                assertEquals(1, countSstFiles(storage));
+
+                // the batch can be reused after a flush
+                putKeys(batch, 20, 30);
+                batch.flush();
+                assertEquals(2, countSstFiles(storage));
+            }
+            assertKeys(storage, 0, 10);
+            assertKeys(storage, 20, 30);
+        }
+    }
+
+    @Test
+    public void testSortedBatchIsIngestedPastTheMinBatchSize() throws Exception {
+        try (KeyValueStorageRocksDB storage = newStorage(DbConfigType.EntryLocation, true, MIN_BATCH_SIZE)) {
+            // small batches go through the regular write path
+            try (Batch batch = storage.newSortedBatch()) {
+                putKeys(batch, 0, MIN_BATCH_SIZE - 1);
+                batch.flush();
+            }
+            assertEquals(0, countSstFiles(storage));
+            assertKeys(storage, 0, MIN_BATCH_SIZE - 1);
+
+            try (Batch batch = storage.newSortedBatch()) {
+                putKeys(batch, MIN_BATCH_SIZE, 3 * MIN_BATCH_SIZE);
+                batch.flush();
+            }
+            assertEquals(1, countSstFiles(storage));
+            assertKeys(storage, MIN_BATCH_SIZE, 3 * MIN_BATCH_SIZE);
+        }
+    }
+
+    @Test
+    public void testSortedBatchDefaultMinBatchSize() throws Exception {
+        try (KeyValueStorageRocksDB storage = newStorage(DbConfigType.EntryLocation, true, null)) {
+            try (Batch batch = storage.newSortedBatch()) {
+                putKeys(batch, 0, 9_999);
+                batch.flush();
+            }
+            assertEquals(0, countSstFiles(storage));
+
+            try (Batch batch = storage.newSortedBatch()) {
+                putKeys(batch, 10_000, 20_000);
+                batch.flush();
+            }
+            assertEquals(1, countSstFiles(storage));
+            assertKeys(storage, 0, 9_999);
+            assertKeys(storage, 10_000, 20_000);
+        }
+    }
+
+    @Test
+    public void testSortedBatchIsNotIngestedWhenDisabled() throws Exception {
+        // disabled by the configuration
+        try (KeyValueStorageRocksDB storage = newStorage(DbConfigType.EntryLocation, false, MIN_BATCH_SIZE)) {
+            try (Batch batch = storage.newSortedBatch()) {
+                putKeys(batch, 0, 3 * MIN_BATCH_SIZE);
+                batch.flush();
+            }
+            assertEquals(0, countSstFiles(storage));
+            assertKeys(storage, 0, 3 * MIN_BATCH_SIZE);
+        }
+
+        // only the entry locations db ingests its sorted batches
+        try (KeyValueStorageRocksDB storage = newStorage(DbConfigType.LedgerMetadata, true, MIN_BATCH_SIZE)) {
+            try (Batch batch = storage.newSortedBatch()) {
+                putKeys(batch, 0, 3 * MIN_BATCH_SIZE);
+                batch.flush();
+            }
+            assertEquals(0, countSstFiles(storage));
+            assertKeys(storage, 0, 3 * MIN_BATCH_SIZE);
+        }
+    }
+
+    @Test
+    public void testSortedBatchDeleteRange() throws Exception {
+        try (KeyValueStorageRocksDB storage = newStorage(DbConfigType.EntryLocation, true, MIN_BATCH_SIZE)) {
+            try (Batch batch = storage.newBatch()) {
+                putKeys(batch, 0, 4 * MIN_BATCH_SIZE);
+                batch.flush();
+            }
+
+            // below the min batch size, the range deletion is written along with the updates
+            try (Batch batch = storage.newSortedBatch()) {
+                batch.deleteRange(key(0), key(MIN_BATCH_SIZE));
+                putKeys(batch, 10, 20);
+                batch.flush();
+            }
+            assertNoKeys(storage, 0, 10);
+            assertKeys(storage, 10, 20);
+            assertNoKeys(storage, 20, MIN_BATCH_SIZE);
+            assertEquals(0, countSstFiles(storage));
+
+            // past the min batch size, the range deletions are written before the ingestion, whether they were
+            // added before or after the switch to the ingestion batch
+            try (Batch batch = storage.newSortedBatch()) {
+                batch.deleteRange(key(MIN_BATCH_SIZE), key(2 * MIN_BATCH_SIZE));
+                putKeys(batch, MIN_BATCH_SIZE + 10, 2 * MIN_BATCH_SIZE + 10 + MIN_BATCH_SIZE);
+                batch.deleteRange(key(3 * MIN_BATCH_SIZE + 50), key(4 * MIN_BATCH_SIZE));
+                batch.flush();
+            }
+            // the memtable holding the overlapping range deletions is flushed before the file is ingested
+            assertEquals(2, countSstFiles(storage));
+            assertNoKeys(storage, MIN_BATCH_SIZE, MIN_BATCH_SIZE + 10);
+            assertKeys(storage, MIN_BATCH_SIZE + 10, 3 * MIN_BATCH_SIZE + 10);
+            assertKeys(storage, 3 * MIN_BATCH_SIZE + 10, 3 * MIN_BATCH_SIZE + 50);
+            assertNoKeys(storage, 3 * MIN_BATCH_SIZE + 50, 4 * MIN_BATCH_SIZE);
+        }
+    }
+
+    @Test
+    public void testIngestionBatchWithOnlyRangeDeletions() throws Exception {
+        try (KeyValueStorageRocksDB storage = newStorage(DbConfigType.Default, false, null)) {
+            try (Batch batch = storage.newBatch()) {
+                putKeys(batch, 0, 10);
+                batch.flush();
+            }
+
+            try (Batch batch = storage.newIngestionBatch()) {
+                batch.deleteRange(key(2), key(8));
+                batch.flush();
+            }
+            assertEquals(0, countSstFiles(storage));
+            assertKeys(storage, 0, 2);
+            assertNoKeys(storage, 2, 8);
+            assertKeys(storage, 8, 10);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.CheckpointSource;
+import org.apache.bookkeeper.bookie.Checkpointer;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.proto.BookieProtocol;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.test.TmpDirs;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link LedgerLastEntryIndex} and of its use by {@link SingleDirectoryDbLedgerStorage}.
+ */
+public class LedgerLastEntryIndexTest {
+
+    private static final long LEDGER_ID = 1L;
+
+    private final TmpDirs tmpDirs = new TmpDirs();
+
+    @After
+    public void tearDown() throws Exception {
+        tmpDirs.cleanup();
+    }
+
+    @Test
+    public void testUntrackedLedgersAreIgnored() {
+        LedgerLastEntryIndex index = new LedgerLastEntryIndex();
+        assertEquals(LedgerLastEntryIndex.UNKNOWN, index.getLastEntryId(LEDGER_ID));
+        assertEquals(TransientLedgerInfo.NOT_ASSIGNED_LAC, index.getLastAddConfirmed(LEDGER_ID));
+
+        // the locations index might hold a more recent entry of an untracked ledger
+        assertFalse(index.update(LEDGER_ID, 5L, 4L));
+        index.setLastAddConfirmed(LEDGER_ID, 5L, 4L);
+        assertEquals(LedgerLastEntryIndex.UNKNOWN, index.getLastEntryId(LEDGER_ID));
+        assertEquals(TransientLedgerInfo.NOT_ASSIGNED_LAC, index.getLastAddConfirmed(LEDGER_ID));
+    }
+
+    @Test
+    public void testLastEntryAndLacAreUpdatedTogether() {
+        LedgerLastEntryIndex index = new LedgerLastEntryIndex();
+        index.addNewLedger(LEDGER_ID);
+        assertEquals(LedgerLastEntryIndex.NO_ENTRY, index.getLastEntryId(LEDGER_ID));
+        assertEquals(TransientLedgerInfo.NOT_ASSIGNED_LAC, index.getLastAddConfirmed(LEDGER_ID));
+
+        assertTrue(index.update(LEDGER_ID, 5L, 4L));
+        assertEquals(5L, index.getLastEntryId(LEDGER_ID));
+        assertEquals(4L, index.getLastAddConfirmed(LEDGER_ID));
+
+        // an older entry doesn't replace the last entry nor its LAC
+        assertFalse(index.update(LEDGER_ID, 3L, 2L));
+        index.setLastAddConfirmed(LEDGER_ID, 3L, 2L);
+        assertEquals(5L, index.getLastEntryId(LEDGER_ID));
+        assertEquals(4L, index.getLastAddConfirmed(LEDGER_ID));
+
+        // a ledger being created again doesn't lose its entries
+        index.addNewLedger(LEDGER_ID);
+        assertEquals(5L, index.getLastEntryId(LEDGER_ID));
+
+        // an older persisted entry doesn't replace the last entry
+        index.load(LEDGER_ID, 4L, 3L);
+        assertEquals(5L, index.getLastEntryId(LEDGER_ID));
+        assertEquals(4L, index.getLastAddConfirmed(LEDGER_ID));
+
+        index.remove(LEDGER_ID);
+        assertEquals(LedgerLastEntryIndex.UNKNOWN, index.getLastEntryId(LEDGER_ID));
+        assertEquals(TransientLedgerInfo.NOT_ASSIGNED_LAC, index.getLastAddConfirmed(LEDGER_ID));
+    }
+
+    @Test
+    public void testLoadLastEntryFromTheLocationsIndex() throws Exception {
+        LedgerLastEntryIndex index = new LedgerLastEntryIndex();
+        AtomicInteger lookups = new AtomicInteger();
+        LedgerLastEntryIndex.LastEntryLookup lookup = ledgerId -> {
+            lookups.incrementAndGet();
+            return 7L;
+        };
+
+        assertEquals(7L, index.loadLastEntryId(LEDGER_ID, lookup));
+        assertEquals(7L, index.loadLastEntryId(LEDGER_ID, lookup));
+        assertEquals(1, lookups.get());
+
+        // the LAC is only known once the last entry is read
+        assertEquals(TransientLedgerInfo.NOT_ASSIGNED_LAC, index.getLastAddConfirmed(LEDGER_ID));
+        index.setLastAddConfirmed(LEDGER_ID, 7L, 6L);
+        assertEquals(6L, index.getLastAddConfirmed(LEDGER_ID));
+    }
+
+    @Test
+    public void testFlushedEntriesKeepTheLastEntryOfEachLedger() throws Exception {
+        File dir = tmpDirs.createNew("ledgers", "");
+        LedgerMetadataIndex ledgerIndex = new LedgerMetadataIndex(TestBKConfiguration.newServerConfiguration(),
+                KeyValueStorageRocksDB.factory, dir.getAbsolutePath(), NullStatsLogger.INSTANCE);
+        try {
+            LedgerLastEntryIndex index = new LedgerLastEntryIndex();
+            LedgerLastEntryIndex.FlushedEntries flushed = new LedgerLastEntryIndex.FlushedEntries();
+            for (long ledgerId = 1; ledgerId <= 2000; ledgerId++) {
+                ledgerIndex.setMasterKey(ledgerId, new byte[0]);
+                index.addNewLedger(ledgerId);
+                for (long entryId = 0; entryId < 3; entryId++) {
+                    flushed.add(ledgerId, entryId, entryId - 1);
+                }
+            }
+            index.update(flushed, ledgerIndex);
+
+            for (long ledgerId = 1; ledgerId <= 2000; ledgerId++) {
+                assertEquals(2L, index.getLastEntryId(ledgerId));
+                assertEquals(1L, index.getLastAddConfirmed(ledgerId));
+                assertEquals(2L, ledgerIndex.get(ledgerId).getLastEntryId());
+                assertEquals(1L, ledgerIndex.get(ledgerId).getLastAddConfirmed());
+            }
+        } finally {
+            ledgerIndex.close();
+        }
+    }
+
+    @Test
+    public void testLastEntryIsPersistedAndReloadedAfterRestart() throws Exception {
+        File ledgerDir = tmpDirs.createNew("ledgers", "");
+        DbLedgerStorage storage = newStorage(ledgerDir, null);
+        try {
+            storage.setMasterKey(LEDGER_ID, new byte[0]);
+            addEntries(storage, 0, 10);
+            storage.flush();
+
+            SingleDirectoryDbLedgerStorage single = storage.getLedgerStorageList().get(0);
+            assertEquals(9L, single.getLedgerIndex().get(LEDGER_ID).getLastEntryId());
+            assertEquals(8L, single.getLedgerIndex().get(LEDGER_ID).getLastAddConfirmed());
+            assertEquals(9L, single.getLastEntryIndex().getLastEntryId(LEDGER_ID));
+            assertEquals(8L, single.getLastEntryIndex().getLastAddConfirmed(LEDGER_ID));
+        } finally {
+            storage.shutdown();
+        }
+
+        storage = newStorage(ledgerDir, null);
+        try {
+            SingleDirectoryDbLedgerStorage single = storage.getLedgerStorageList().get(0);
+            assertEquals(9L, single.getLastEntryIndex().getLastEntryId(LEDGER_ID));
+            assertEquals(8L, single.getLastEntryIndex().getLastAddConfirmed(LEDGER_ID));
+            assertEquals(8L, storage.getLastAddConfirmed(LEDGER_ID));
+            ByteBuf lastEntry = storage.getEntry(LEDGER_ID, BookieProtocol.LAST_ADD_CONFIRMED);
+            try {
+                assertEquals(9L, lastEntry.getLong(Long.BYTES));
+            } finally {
+                lastEntry.release();
+            }
+
+            // new entries are persisted on top of the reloaded ones
+            addEntries(storage, 10, 15);
+            storage.flush();
+            assertEquals(14L, single.getLedgerIndex().get(LEDGER_ID).getLastEntryId());
+            assertEquals(13L, single.getLastEntryIndex().getLastAddConfirmed(LEDGER_ID));
+
+            // a deleted ledger is no longer tracked
+            storage.deleteLedger(LEDGER_ID);
+            assertEquals(LedgerLastEntryIndex.UNKNOWN, single.getLastEntryIndex().getLastEntryId(LEDGER_ID));
+        } finally {
+            storage.shutdown();
+        }
+    }
+
+    @Test
+    public void testLastAddConfirmedFromIndexChecksBothWriteCaches() throws Exception {
+        CountDownLatch flushStarted = new CountDownLatch(1);
+        CountDownLatch flushReleased = new CountDownLatch(1);
+        AtomicInteger flushes = new AtomicInteger();
+        DbLedgerStorage storage = newStorage(tmpDirs.createNew("ledgers", ""), entryLogger -> {
+            EntryLogger blockingEntryLogger = mock(EntryLogger.class, delegatesTo(entryLogger));
+            doAnswer(invocation -> {
+                if (flushes.incrementAndGet() == 2) {
+                    flushStarted.countDown();
+                    flushReleased.await();
+                }
+                entryLogger.flush();
+                return null;
+            }).when(blockingEntryLogger).flush();
+            return blockingEntryLogger;
+        });
+        try {
+            SingleDirectoryDbLedgerStorage single = storage.getLedgerStorageList().get(0);
+            storage.setMasterKey(LEDGER_ID, new byte[0]);
+            addEntries(storage, 0, 10);
+            assertEquals(TransientLedgerInfo.NOT_ASSIGNED_LAC, single.getLastAddConfirmedFromIndex(LEDGER_ID));
+            storage.flush();
+            assertEquals(8L, single.getLastAddConfirmedFromIndex(LEDGER_ID));
+
+            // the ledger has a more recent entry in the write cache
+            addEntries(storage, 10, 11);
+            assertEquals(TransientLedgerInfo.NOT_ASSIGNED_LAC, single.getLastAddConfirmedFromIndex(LEDGER_ID));
+
+            // and then in the write cache being flushed
+            CompletableFuture<Void> flush = CompletableFuture.runAsync(() -> {
+                try {
+                    storage.flush();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            assertTrue(flushStarted.await(10, TimeUnit.SECONDS));
+            assertFalse(single.isFlushRequired());
+            assertEquals(TransientLedgerInfo.NOT_ASSIGNED_LAC, single.getLastAddConfirmedFromIndex(LEDGER_ID));
+
+            flushReleased.countDown();
+            flush.get(10, TimeUnit.SECONDS);
+            assertEquals(9L, single.getLastAddConfirmedFromIndex(LEDGER_ID));
+        } finally {
+            flushReleased.countDown();
+            storage.shutdown();
+        }
+    }
+
+    private interface EntryLoggerWrapper {
+        EntryLogger wrap(EntryLogger entryLogger) throws Exception;
+    }
+
+    private static DbLedgerStorage newStorage(File ledgerDir, EntryLoggerWrapper wrapper) throws Exception {
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setLedgerDirNames(new String[] { ledgerDir.getAbsolutePath() });
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_MAX_SIZE_MB, 4);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_MAX_SIZE_MB, 4);
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+
+        DbLedgerStorage storage = new DbLedgerStorage() {
+            @Override
+            protected SingleDirectoryDbLedgerStorage newSingleDirectoryDbLedgerStorage(ServerConfiguration conf,
+                    LedgerManager ledgerManager, LedgerDirsManager ledgerDirsManager,
+                    LedgerDirsManager indexDirsManager, EntryLogger entryLogger, StatsLogger statsLogger,
+                    long writeCacheSize, long readCacheSize, int readAheadCacheBatchSize,
+                    long readAheadCacheBatchBytesSize) throws IOException {
+                EntryLogger wrapped = entryLogger;
+                if (wrapper != null) {
+                    try {
+                        wrapped = wrapper.wrap(entryLogger);
+                    } catch (Exception e) {
+                        throw new IOException(e);
+                    }
+                }
+                return super.newSingleDirectoryDbLedgerStorage(conf, ledgerManager, ledgerDirsManager,
+                        indexDirsManager, wrapped, statsLogger, writeCacheSize, readCacheSize,
+                        readAheadCacheBatchSize, readAheadCacheBatchBytesSize);
+            }
+        };
+        storage.initialize(conf, mock(LedgerManager.class), ledgerDirsManager, ledgerDirsManager,
+                NullStatsLogger.INSTANCE, UnpooledByteBufAllocator.DEFAULT);
+        storage.setCheckpointSource(CheckpointSource.DEFAULT);
+        storage.setCheckpointer(Checkpointer.NULL);
+        return storage;
+    }
+
+    private static void addEntries(DbLedgerStorage storage, long firstEntryId, long endEntryId) throws Exception {
+        for (long entryId = firstEntryId; entryId < endEntryId; entryId++) {
+            ByteBuf entry = Unpooled.buffer(128);
+            entry.writeLong(LEDGER_ID);
+            entry.writeLong(entryId);
+            entry.writeLong(entryId - 1);
+            entry.writerIndex(128);
+            storage.addEntry(entry);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.stats.Counter;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link ReadCoalescer}.
+ */
+public class ReadCoalescerTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final long LEDGER_ID = 1L;
+    private static final int READ_AHEAD_BATCH_SIZE = 10;
+    private static final int NUM_READERS = 8;
+
+    private final ReadCache readCache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 1024 * 1024);
+    private final Counter coalescedReads = mock(Counter.class);
+    private final ReadCoalescer coalescer = new ReadCoalescer(readCache, READ_AHEAD_BATCH_SIZE, coalescedReads);
+    private final ExecutorService readers = Executors.newCachedThreadPool();
+    private final AtomicInteger storageReads = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        readers.shutdownNow();
+        readCache.close();
+    }
+
+    private static ByteBuf newEntry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(24);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeLong(entryId * 100);
+        return entry;
+    }
+
+    private static void assertEntry(long ledgerId, long entryId, ByteBuf entry) {
+        assertEquals(24, entry.readableBytes());
+        assertEquals(ledgerId, entry.getLong(entry.readerIndex()));
+        assertEquals(entryId, entry.getLong(entry.readerIndex() + 8));
+        assertEquals(entryId * 100, entry.getLong(entry.readerIndex() + 16));
+    }
+
+    /**
+     * Wait until the given number of reads are waiting for the entry of the leader read.
+     */
+    private static void awaitWaiters(ReadCoalescer.Flight flight, int expected) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (flight.getWaiters() < expected) {
+            assertTrue("Timed out waiting for " + expected + " reads", System.nanoTime() < deadline);
+            Thread.yield();
+        }
+    }
+
+    private List<Future<ByteBuf>> startReads(int numReads, long entryId, ReadCoalescer.StorageRead storageRead) {
+        List<Future<ByteBuf>> reads = new ArrayList<>();
+        for (int i = 0; i < numReads; i++) {
+            reads.add(readers.submit(() -> coalescer.read(LEDGER_ID, entryId, storageRead)));
+        }
+        return reads;
+    }
+
+    @Test
+    public void testConcurrentReadsShareOneStorageRead() throws Exception {
+        ByteBuf entry = newEntry(LEDGER_ID, 5L);
+        List<Future<ByteBuf>> reads = startReads(NUM_READERS, 5L, (ledgerId, entryId, flight) -> {
+            storageReads.incrementAndGet();
+            awaitWaiters(flight, NUM_READERS - 1);
+            flight.entryRead(entry);
+            return entry;
+        });
+
+        List<ByteBuf> entries = new ArrayList<>();
+        for (Future<ByteBuf> read : reads) {
+            ByteBuf buf = read.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEntry(LEDGER_ID, 5L, buf);
+            entries.add(buf);
+        }
+        assertEquals(1, storageReads.get());
+        verify(coalescedReads, times(NUM_READERS - 1)).inc();
+
+        // each read gets its own indexes on the shared entry
+        entries.get(0).skipBytes(8);
+        for (int i = 1; i < entries.size(); i++) {
+            assertEquals(24, entries.get(i).readableBytes());
+        }
+
+        // each read holds its own reference to the entry, the buffer is freed once all of them released it
+        assertEquals(NUM_READERS, entry.refCnt());
+        for (ByteBuf buf : entries) {
+            assertTrue(entry.refCnt() > 0);
+            buf.release();
+        }
+        assertEquals(0, entry.refCnt());
+    }
+
+    @Test
+    public void testReadWithoutConcurrentReadsIsNotRetained() throws Exception {
+        ByteBuf entry = newEntry(LEDGER_ID, 5L);
+        ByteBuf buf = coalescer.read(LEDGER_ID, 5L, (ledgerId, entryId, flight) -> {
+            storageReads.incrementAndGet();
+            flight.entryRead(entry);
+            return entry;
+        });
+        assertSame(entry, buf);
+        assertEquals(1, entry.refCnt());
+        verify(coalescedReads, never()).inc();
+
+        // the leader read is done, the next read of the entry reads it again
+        buf.release();
+        ByteBuf entry2 = newEntry(LEDGER_ID, 5L);
+        ByteBuf buf2 = coalescer.read(LEDGER_ID, 5L, (ledgerId, entryId, flight) -> {
+            storageReads.incrementAndGet();
+            flight.entryRead(entry2);
+            return entry2;
+        });
+        assertEquals(2, storageReads.get());
+        assertEquals(1, buf2.refCnt());
+        buf2.release();
+    }
+
+    @Test
+    public void testFailureIsPropagatedToEveryWaiter() throws Exception {
+        IOException failure = new IOException("injected");
+        List<Future<ByteBuf>> reads = startReads(NUM_READERS, 5L, (ledgerId, entryId, flight) -> {
+            storageReads.incrementAndGet();
+            awaitWaiters(flight, NUM_READERS - 1);
+            throw failure;
+        });
+
+        for (Future<ByteBuf> read : reads) {
+            try {
+                read.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                fail("The read should fail with the error of the leader read");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        assertEquals(1, storageReads.get());
+        verify(coalescedReads, never()).inc();
+
+        // the failed read is not kept in progress
+        ByteBuf entry = newEntry(LEDGER_ID, 5L);
+        ByteBuf buf = coalescer.read(LEDGER_ID, 5L, (ledgerId, entryId, flight) -> {
+            storageReads.incrementAndGet();
+            flight.entryRead(entry);
+            return entry;
+        });
+        assertEntry(LEDGER_ID, 5L, buf);
+        assertEquals(2, storageReads.get());
+        buf.release();
+    }
+
+    @Test
+    public void testUncheckedFailureIsPropagatedToEveryWaiter() throws Exception {
+        IllegalStateException failure = new IllegalStateException("injected");
+        List<Future<ByteBuf>> reads = startReads(NUM_READERS, 5L, (ledgerId, entryId, flight) -> {
+            awaitWaiters(flight, NUM_READERS - 1);
+            throw failure;
+        });
+
+        for (Future<ByteBuf> read : reads) {
+            try {
+                read.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                fail("The read should fail with the error of the leader read");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+    }
+
+    @Test
+    public void testWaitersFailWhenTheEntryIsNotShared() throws Exception {
+        ByteBuf entry = newEntry(LEDGER_ID, 5L);
+        List<Future<ByteBuf>> reads = startReads(NUM_READERS, 5L, (ledgerId, entryId, flight) -> {
+            awaitWaiters(flight, NUM_READERS - 1);
+            // the storage read returns the entry without sharing it
+            return entry;
+        });
+
+        int numFailed = 0;
+        for (Future<ByteBuf> read : reads) {
+            try {
+                assertSame(entry, read.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+                numFailed++;
+            }
+        }
+        // the waiting reads are never left hanging, and no reference to the entry is taken for them
+        assertEquals(NUM_READERS - 1, numFailed);
+        assertEquals(1, entry.refCnt());
+        entry.release();
+    }
+
+    @Test
+    public void testReadsWithinTheReadAheadWaitForIt() throws Exception {
+        CountDownLatch leaderStarted = new CountDownLatch(1);
+        CountDownLatch releaseLeader = new CountDownLatch(1);
+        List<Long> readsWithoutFlight = new ArrayList<>();
+        ReadCoalescer.StorageRead storageRead = (ledgerId, entryId, flight) -> {
+            storageReads.incrementAndGet();
+            if (flight == null) {
+                synchronized (readsWithoutFlight) {
+                    readsWithoutFlight.add(entryId);
+                }
+                return newEntry(ledgerId, entryId);
+            }
+            ByteBuf entry = newEntry(ledgerId, entryId);
+            flight.entryRead(entry);
+            if (entryId == 5L) {
+                leaderStarted.countDown();
+                try {
+                    releaseLeader.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                // the read-ahead reaches the entries 6 to 8
+                for (long i = 6; i <= 8; i++) {
+                    ByteBuf next = newEntry(ledgerId, i);
+                    readCache.put(ledgerId, i, next);
+                    next.release();
+                }
+            }
+            return entry;
+        };
+
+        Future<ByteBuf> leader = readers.submit(() -> coalescer.read(LEDGER_ID, 5L, storageRead));
+        assertTrue(leaderStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        Future<ByteBuf> withinReadAhead = readers.submit(() -> coalescer.read(LEDGER_ID, 7L, storageRead));
+        Future<ByteBuf> pastReadAhead = readers.submit(() -> coalescer.read(LEDGER_ID, 9L, storageRead));
+
+        // an entry past the read-ahead batch does not wait for the leader read
+        ByteBuf outOfBatch = coalescer.read(LEDGER_ID, 5L + READ_AHEAD_BATCH_SIZE + 1, storageRead);
+        assertEntry(LEDGER_ID, 5L + READ_AHEAD_BATCH_SIZE + 1, outOfBatch);
+        outOfBatch.release();
+        Thread.sleep(100);
+        assertFalse(withinReadAhead.isDone());
+        assertFalse(pastReadAhead.isDone());
+
+        releaseLeader.countDown();
+        ByteBuf entry5 = leader.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEntry(LEDGER_ID, 5L, entry5);
+        entry5.release();
+
+        // the entry 7 is served from the read cache once filled by the read-ahead
+        ByteBuf entry7 = withinReadAhead.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(entry7);
+        assertEntry(LEDGER_ID, 7L, entry7);
+        entry7.release();
+        verify(coalescedReads, times(1)).inc();
+
+        // the entry 9 was not reached by the read-ahead, and is read from the storage without coalescing
+        ByteBuf entry9 = pastReadAhead.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEntry(LEDGER_ID, 9L, entry9);
+        entry9.release();
+        assertEquals(1, readsWithoutFlight.size());
+        assertEquals(9L, readsWithoutFlight.get(0).longValue());
+        assertEquals(3, storageReads.get());
+        assertNull(readCache.get(LEDGER_ID, 9L));
+    }
+}
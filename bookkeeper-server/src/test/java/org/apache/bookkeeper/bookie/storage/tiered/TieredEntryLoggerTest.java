@@ -0,0 +1,406 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.tiered;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.bookie.DefaultEntryLogger;
+import org.apache.bookkeeper.bookie.EntryLogMetadata;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.test.TmpDirs;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link TieredEntryLogger}.
+ */
+public class TieredEntryLoggerTest {
+
+    private static final int ENTRY_SIZE = 1000;
+    private static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Local blob store counting the reads, whose uploads can be blocked.
+     */
+    private static class TestBlobStore extends LocalBlobStore {
+        final AtomicInteger numReads = new AtomicInteger();
+        volatile CountDownLatch putStarted = null;
+        volatile CountDownLatch putAllowed = null;
+
+        @Override
+        public void put(String name, File file) throws IOException {
+            if (putAllowed != null) {
+                putStarted.countDown();
+                try {
+                    putAllowed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+            super.put(name, file);
+        }
+
+        @Override
+        public int read(String name, long position, byte[] buffer, int offset, int length) throws IOException {
+            numReads.incrementAndGet();
+            return super.read(name, position, buffer, offset, length);
+        }
+    }
+
+    private final TmpDirs tmpDirs = new TmpDirs();
+    private final List<EntryLogger> entryLoggers = new ArrayList<>();
+    private ServerConfiguration conf;
+    private TestBlobStore blobStore;
+    private BlockCache blockCache;
+    private ScheduledExecutorService offloadExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        conf = TestBKConfiguration.newServerConfiguration();
+        // a few entries per entry log
+        conf.setEntryLogSizeLimit(4 * ENTRY_SIZE);
+        conf.setEntryLogFilePreAllocationEnabled(false);
+        conf.setProperty(LocalBlobStore.LOCAL_PATH, tmpDirs.createNew("cold-tier", "").getAbsolutePath());
+        blobStore = new TestBlobStore();
+        blobStore.initialize(conf);
+        blockCache = new BlockCache(blobStore, 1024 * 1024, BLOCK_SIZE);
+        offloadExecutor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (EntryLogger entryLogger : entryLoggers) {
+            entryLogger.close();
+        }
+        offloadExecutor.shutdownNow();
+        blobStore.close();
+        tmpDirs.cleanup();
+    }
+
+    private DefaultEntryLogger newHotTier(File dir) throws Exception {
+        LedgerDirsManager ldm = new LedgerDirsManager(conf, new File[] { dir },
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        return new DefaultEntryLogger(conf, ldm);
+    }
+
+    private TieredEntryLogger newTieredEntryLogger(EntryLogger hotTier, File dir) throws Exception {
+        // the logs are only offloaded when the test asks for it, closing the entry logger closes the hot tier
+        TieredEntryLogger entryLogger = new TieredEntryLogger(hotTier, new File(dir, "current"), blobStore,
+                blockCache, offloadExecutor, TimeUnit.HOURS.toMillis(1), 0, 0,
+                UnpooledByteBufAllocator.DEFAULT, NullStatsLogger.INSTANCE);
+        entryLoggers.add(entryLogger);
+        return entryLogger;
+    }
+
+    private static ByteBuf newEntry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId + entryId + entry.writerIndex()));
+        }
+        return entry;
+    }
+
+    /**
+     * Add entries to the ledger until several entry logs are flushed, and return the location of each entry.
+     */
+    private static Map<Long, Long> addEntries(EntryLogger entryLogger, long ledgerId, int numEntries)
+            throws IOException {
+        Map<Long, Long> locations = new HashMap<>();
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            locations.put(entryId, entryLogger.addEntry(ledgerId, newEntry(ledgerId, entryId)));
+        }
+        entryLogger.flush();
+        return locations;
+    }
+
+    private static void assertEntry(EntryLogger entryLogger, long ledgerId, long entryId, long location)
+            throws Exception {
+        ByteBuf expected = newEntry(ledgerId, entryId);
+        ByteBuf entry = entryLogger.readEntry(ledgerId, entryId, location);
+        try {
+            assertEquals(expected, entry);
+        } finally {
+            ReferenceCountUtil.release(entry);
+        }
+    }
+
+    private static long logIdOf(long location) {
+        return location >> 32L;
+    }
+
+    @Test
+    public void testOffloadedLogsAreReadThroughTheBlockCache() throws Exception {
+        File dir = tmpDirs.createNew("ledgers", "");
+        DefaultEntryLogger hotTier = newHotTier(dir);
+        TieredEntryLogger entryLogger = newTieredEntryLogger(hotTier, dir);
+        Map<Long, Long> locations = addEntries(entryLogger, 1L, 20);
+        long firstLogId = logIdOf(locations.get(0L));
+        assertTrue(hotTier.getFlushedLogIds().contains(firstLogId));
+
+        entryLogger.offloadLogs();
+        assertFalse(hotTier.logExists(firstLogId));
+        assertTrue(entryLogger.logExists(firstLogId));
+        assertTrue(entryLogger.getFlushedLogIds().contains(firstLogId));
+        assertEquals(1, blobStore.list(entryLogger.blobName(firstLogId)).size());
+
+        for (Map.Entry<Long, Long> e : locations.entrySet()) {
+            assertEntry(entryLogger, 1L, e.getKey(), e.getValue());
+        }
+
+        // the blocks of the offloaded logs are cached
+        int numReads = blobStore.numReads.get();
+        assertTrue(numReads > 0);
+        for (Map.Entry<Long, Long> e : locations.entrySet()) {
+            assertEntry(entryLogger, 1L, e.getKey(), e.getValue());
+        }
+        assertEquals(numReads, blobStore.numReads.get());
+
+        // an entry read with the wrong ledger is rejected
+        try {
+            entryLogger.readEntry(2L, 0L, locations.get(0L));
+            throw new AssertionError("The entry of another ledger should not be returned");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the offloaded logs are scanned and their metadata read from the cold tier
+        EntryLogMetadata metadata = entryLogger.getEntryLogMetadata(firstLogId, null);
+        assertTrue(metadata.containsLedger(1L));
+        List<Long> scanned = new ArrayList<>();
+        entryLogger.scanEntryLog(firstLogId, new EntryLogScanner() {
+            @Override
+            public boolean accept(long ledgerId) {
+                return true;
+            }
+
+            @Override
+            public void process(long ledgerId, long offset, ByteBuf entry) {
+                scanned.add(entry.getLong(entry.readerIndex() + Long.BYTES));
+            }
+        });
+        assertFalse(scanned.isEmpty());
+        assertEquals(Long.valueOf(0L), scanned.get(0));
+
+        // removing an offloaded log deletes its blob and its cached blocks
+        assertTrue(entryLogger.removeEntryLog(firstLogId));
+        assertFalse(entryLogger.logExists(firstLogId));
+        assertTrue(blobStore.list(entryLogger.blobName(firstLogId)).isEmpty());
+    }
+
+    @Test
+    public void testReadsDuringAnOffload() throws Exception {
+        File dir = tmpDirs.createNew("ledgers", "");
+        DefaultEntryLogger hotTier = newHotTier(dir);
+        TieredEntryLogger entryLogger = newTieredEntryLogger(hotTier, dir);
+        Map<Long, Long> locations = addEntries(entryLogger, 1L, 20);
+        long firstLogId = logIdOf(locations.get(0L));
+
+        blobStore.putStarted = new CountDownLatch(1);
+        blobStore.putAllowed = new CountDownLatch(1);
+        CompletableFuture<Void> offload = CompletableFuture.runAsync(entryLogger::offloadLogs);
+        assertTrue(blobStore.putStarted.await(10, TimeUnit.SECONDS));
+
+        // the log being uploaded is still read from the hot tier
+        assertTrue(hotTier.logExists(firstLogId));
+        assertEntry(entryLogger, 1L, 0L, locations.get(0L));
+        assertEquals(0, blobStore.numReads.get());
+
+        blobStore.putAllowed.countDown();
+        offload.get(10, TimeUnit.SECONDS);
+        assertFalse(hotTier.logExists(firstLogId));
+        for (Map.Entry<Long, Long> e : locations.entrySet()) {
+            assertEntry(entryLogger, 1L, e.getKey(), e.getValue());
+        }
+        assertTrue(blobStore.numReads.get() > 0);
+    }
+
+    @Test
+    public void testLogRemovedDuringAnOffload() throws Exception {
+        File dir = tmpDirs.createNew("ledgers", "");
+        DefaultEntryLogger hotTier = newHotTier(dir);
+        TieredEntryLogger entryLogger = newTieredEntryLogger(hotTier, dir);
+        Map<Long, Long> locations = addEntries(entryLogger, 1L, 20);
+        long firstLogId = logIdOf(locations.get(0L));
+
+        blobStore.putStarted = new CountDownLatch(1);
+        blobStore.putAllowed = new CountDownLatch(1);
+        CompletableFuture<Void> offload = CompletableFuture.runAsync(entryLogger::offloadLogs);
+        assertTrue(blobStore.putStarted.await(10, TimeUnit.SECONDS));
+
+        // the log is garbage collected while it is uploaded
+        assertTrue(entryLogger.removeEntryLog(firstLogId));
+        blobStore.putAllowed.countDown();
+        offload.get(10, TimeUnit.SECONDS);
+
+        assertFalse(entryLogger.logExists(firstLogId));
+        assertTrue(blobStore.list(entryLogger.blobName(firstLogId)).isEmpty());
+
+        // the next logs are still offloaded
+        assertFalse(hotTier.logExists(firstLogId + 1));
+        assertEquals(1, blobStore.list(entryLogger.blobName(firstLogId + 1)).size());
+        assertEntry(entryLogger, 1L, 19L, locations.get(19L));
+    }
+
+    @Test
+    public void testBlobNamesOfSeveralLedgerDirs() throws Exception {
+        File dir1 = tmpDirs.createNew("ledgers", "");
+        File dir2 = tmpDirs.createNew("ledgers", "");
+        TieredEntryLogger entryLogger1 = newTieredEntryLogger(newHotTier(dir1), dir1);
+        TieredEntryLogger entryLogger2 = newTieredEntryLogger(newHotTier(dir2), dir2);
+        Map<Long, Long> locations1 = addEntries(entryLogger1, 1L, 20);
+        Map<Long, Long> locations2 = addEntries(entryLogger2, 2L, 20);
+
+        // the directories use the same log ids, stored in distinct blobs
+        long logId = logIdOf(locations1.get(0L));
+        assertEquals(logId, logIdOf(locations2.get(0L)));
+        assertNotEquals(entryLogger1.blobName(logId), entryLogger2.blobName(logId));
+
+        entryLogger1.offloadLogs();
+        entryLogger2.offloadLogs();
+        assertEquals(1, blobStore.list(entryLogger1.blobName(logId)).size());
+        assertEquals(1, blobStore.list(entryLogger2.blobName(logId)).size());
+        for (long entryId = 0; entryId < 20; entryId++) {
+            assertEntry(entryLogger1, 1L, entryId, locations1.get(entryId));
+            assertEntry(entryLogger2, 2L, entryId, locations2.get(entryId));
+        }
+
+        // removing the log of a directory keeps the log of the other one
+        entryLogger1.removeEntryLog(logId);
+        assertFalse(entryLogger1.logExists(logId));
+        assertTrue(entryLogger2.logExists(logId));
+        assertEntry(entryLogger2, 2L, 0L, locations2.get(0L));
+    }
+
+    @Test
+    public void testRestartAfterAPartialOffload() throws Exception {
+        File dir = tmpDirs.createNew("ledgers", "");
+        DefaultEntryLogger hotTier = newHotTier(dir);
+        TieredEntryLogger entryLogger = newTieredEntryLogger(hotTier, dir);
+        Map<Long, Long> locations = addEntries(entryLogger, 1L, 20);
+        long firstLogId = logIdOf(locations.get(0L));
+        long secondLogId = firstLogId + 1;
+        assertTrue(hotTier.getFlushedLogIds().contains(secondLogId));
+        String firstBlob = entryLogger.blobName(firstLogId);
+        String secondBlob = entryLogger.blobName(secondLogId);
+        entryLogger.close();
+        entryLoggers.clear();
+
+        // the bookie stopped after uploading the first log, before removing its local copy, and in the middle
+        // of the upload of the second log
+        File current = new File(dir, "current");
+        File firstLogFile = new File(current, Long.toHexString(firstLogId) + ".log");
+        File secondLogFile = new File(current, Long.toHexString(secondLogId) + ".log");
+        blobStore.put(firstBlob, firstLogFile);
+        File coldTierDir = new File(conf.getString(LocalBlobStore.LOCAL_PATH));
+        Files.copy(secondLogFile.toPath(), new File(coldTierDir, secondBlob + ".tmp").toPath());
+
+        hotTier = newHotTier(dir);
+        entryLogger = newTieredEntryLogger(hotTier, dir);
+
+        // the local copy of the uploaded log is removed, the other log is still read from the hot tier
+        assertFalse(firstLogFile.exists());
+        assertFalse(hotTier.logExists(firstLogId));
+        assertTrue(entryLogger.logExists(firstLogId));
+        assertTrue(hotTier.logExists(secondLogId));
+        assertTrue(blobStore.list(secondBlob).isEmpty());
+        for (Map.Entry<Long, Long> e : locations.entrySet()) {
+            assertEntry(entryLogger, 1L, e.getKey(), e.getValue());
+        }
+
+        // the interrupted upload is done again
+        entryLogger.offloadLogs();
+        assertFalse(hotTier.logExists(secondLogId));
+        assertEquals(1, blobStore.list(secondBlob).size());
+        for (Map.Entry<Long, Long> e : locations.entrySet()) {
+            assertEntry(entryLogger, 1L, e.getKey(), e.getValue());
+        }
+    }
+
+    @Test
+    public void testBlockCacheReadsAcrossBlocks() throws Exception {
+        File file = new File(tmpDirs.createNew("blob", ""), "blob");
+        byte[] content = new byte[3 * BLOCK_SIZE + 100];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        Files.write(file.toPath(), content);
+        blobStore.put("blob", file);
+
+        ByteBuf buffer = ByteBufAllocator.DEFAULT.heapBuffer();
+        try {
+            blockCache.read("blob", content.length, BLOCK_SIZE - 10, buffer, 2 * BLOCK_SIZE);
+            assertEquals(2 * BLOCK_SIZE, buffer.readableBytes());
+            for (int i = 0; i < buffer.readableBytes(); i++) {
+                assertEquals(content[BLOCK_SIZE - 10 + i], buffer.getByte(i));
+            }
+            assertEquals(3, blobStore.numReads.get());
+
+            // the last block is shorter than the block size
+            buffer.clear();
+            blockCache.read("blob", content.length, 3 * BLOCK_SIZE, buffer, 100);
+            assertEquals(4, blobStore.numReads.get());
+            try {
+                blockCache.read("blob", content.length, 3 * BLOCK_SIZE + 50, buffer, 100);
+                throw new AssertionError("The read past the end of the blob should fail");
+            } catch (IOException e) {
+                // expected
+            }
+
+            blockCache.invalidate("blob");
+            buffer.clear();
+            blockCache.read("blob", content.length, 0, buffer, 10);
+            assertEquals(5, blobStore.numReads.get());
+        } finally {
+            buffer.release();
+        }
+    }
+}
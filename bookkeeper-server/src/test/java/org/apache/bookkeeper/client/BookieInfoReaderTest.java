@@ -0,0 +1,197 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.apache.bookkeeper.client.BookieInfoReader.BookieInfo;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.feature.SettableFeatureProvider;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.net.DNSToSwitchMapping;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.Test;
+
+/**
+ * Unit test of the weighting of the bookies by their load in {@link BookieInfoReader}.
+ */
+public class BookieInfoReaderTest {
+
+    private static final BookieId BOOKIE1 = BookieId.parse("10.0.0.1:3181");
+    private static final BookieId BOOKIE2 = BookieId.parse("10.0.0.2:3181");
+    private static final BookieId BOOKIE3 = BookieId.parse("10.0.0.3:3181");
+    private static final BookieId BOOKIE4 = BookieId.parse("10.0.0.4:3181");
+
+    private static final long DISK_SPACE = 1000L * 1024 * 1024;
+
+    private static BookieInfoReader newReader(ClientConfiguration conf) {
+        return new BookieInfoReader(mock(BookKeeper.class), conf, null);
+    }
+
+    private static BookieInfoReader newLoadWeightedReader() {
+        return newReader(new ClientConfiguration().setLoadWeightBasedPlacementEnabled(true));
+    }
+
+    private static BookieInfo idle() {
+        return new BookieInfo(DISK_SPACE, DISK_SPACE, 0L, 0L, 0L, 0);
+    }
+
+    @Test
+    public void testLoadIsSmoothed() {
+        BookieInfoReader reader = newReader(new ClientConfiguration()
+                .setLoadWeightBasedPlacementEnabled(true)
+                .setBookieLoadDecayFactor(0.5));
+        BookieInfo first = new BookieInfo(DISK_SPACE, DISK_SPACE / 2, 100L, 4000L, 2000L, 80);
+        assertSame(first, reader.smoothLoad(null, first));
+
+        // the previous load decays by half, while the disk space is the latest one
+        BookieInfo second = reader.smoothLoad(first, new BookieInfo(DISK_SPACE, DISK_SPACE / 4, 0L, 0L, 1000L, 20));
+        assertEquals(DISK_SPACE / 4, second.getFreeDiskSpace());
+        assertEquals(DISK_SPACE, second.getTotalDiskSpace());
+        assertEquals(50L, second.getJournalQueueLength());
+        assertEquals(2000L, second.getAddLatencyP99Micros());
+        assertEquals(1500L, second.getReadLatencyP99Micros());
+        assertEquals(50, second.getWriteCacheUsagePercent());
+
+        BookieInfo third = reader.smoothLoad(second, idle());
+        assertEquals(25L, third.getJournalQueueLength());
+        assertEquals(1000L, third.getAddLatencyP99Micros());
+    }
+
+    @Test
+    public void testDecayFactorIsBounded() {
+        BookieInfo previous = new BookieInfo(DISK_SPACE, DISK_SPACE, 100L, 0L, 0L, 0);
+        BookieInfo current = new BookieInfo(DISK_SPACE, DISK_SPACE, 10L, 0L, 0L, 0);
+
+        // the load is never smoothed past the previous or the latest one
+        BookieInfoReader keepsPrevious = newReader(new ClientConfiguration()
+                .setLoadWeightBasedPlacementEnabled(true)
+                .setBookieLoadDecayFactor(2.0));
+        assertEquals(100L, keepsPrevious.smoothLoad(previous, current).getJournalQueueLength());
+        BookieInfoReader keepsLatest = newReader(new ClientConfiguration()
+                .setLoadWeightBasedPlacementEnabled(true)
+                .setBookieLoadDecayFactor(-1.0));
+        assertEquals(10L, keepsLatest.smoothLoad(previous, current).getJournalQueueLength());
+    }
+
+    @Test
+    public void testIdleBookiesHaveTheSameWeight() {
+        Map<BookieId, BookieInfo> infos = new HashMap<>();
+        infos.put(BOOKIE1, idle());
+        infos.put(BOOKIE2, new BookieInfo(DISK_SPACE, DISK_SPACE / 10, 0L, 0L, 0L, 0));
+
+        // the free disk space is ignored unless the bookies are weighted by it too
+        Map<BookieId, BookieInfo> weighted = newLoadWeightedReader().weighByLoad(infos);
+        assertEquals(weighted.get(BOOKIE1).getWeight(), weighted.get(BOOKIE2).getWeight());
+        assertTrue(weighted.get(BOOKIE1).getWeight() > 0);
+    }
+
+    @Test
+    public void testLoadedBookiesHaveALowerWeight() {
+        Map<BookieId, BookieInfo> infos = new HashMap<>();
+        infos.put(BOOKIE1, new BookieInfo(DISK_SPACE, DISK_SPACE, 200L, 0L, 0L, 0));
+        infos.put(BOOKIE2, idle());
+
+        // the loaded bookie is twice as loaded as the average, and gets a third of the weight of the idle one
+        Map<BookieId, BookieInfo> weighted = newLoadWeightedReader().weighByLoad(infos);
+        long idleWeight = weighted.get(BOOKIE2).getWeight();
+        assertEquals(idleWeight / 3, weighted.get(BOOKIE1).getWeight());
+
+        // the load fields are kept as reported
+        assertEquals(200L, weighted.get(BOOKIE1).getJournalQueueLength());
+    }
+
+    @Test
+    public void testLoadSignalsAreAveraged() {
+        Map<BookieId, BookieInfo> infos = new HashMap<>();
+        // twice as loaded as the average by the add latency, as loaded as the average by the write cache usage
+        infos.put(BOOKIE1, new BookieInfo(DISK_SPACE, DISK_SPACE, 0L, 2000L, 0L, 50));
+        infos.put(BOOKIE2, new BookieInfo(DISK_SPACE, DISK_SPACE, 0L, 0L, 0L, 50));
+
+        // the signals which are zero for all the bookies are not counted
+        Map<BookieId, BookieInfo> weighted = newLoadWeightedReader().weighByLoad(infos);
+        long weight1 = weighted.get(BOOKIE1).getWeight();
+        long weight2 = weighted.get(BOOKIE2).getWeight();
+        // the load of the first bookie is (2 + 1) / 2, the one of the second bookie (0 + 1) / 2
+        assertEquals((double) weight2 * 1.5 / 2.5, weight1, 1.0);
+    }
+
+    @Test
+    public void testLoadWeightIsAppliedOnTheDiskWeight() {
+        BookieInfoReader reader = newReader(new ClientConfiguration()
+                .setLoadWeightBasedPlacementEnabled(true)
+                .setDiskWeightBasedPlacementEnabled(true));
+        Map<BookieId, BookieInfo> infos = new HashMap<>();
+        infos.put(BOOKIE1, new BookieInfo(DISK_SPACE, DISK_SPACE, 200L, 0L, 0L, 0));
+        infos.put(BOOKIE2, new BookieInfo(DISK_SPACE, DISK_SPACE / 2, 0L, 0L, 0L, 0));
+
+        Map<BookieId, BookieInfo> weighted = reader.weighByLoad(infos);
+        assertEquals(DISK_SPACE / 3, weighted.get(BOOKIE1).getWeight());
+        assertEquals(DISK_SPACE / 2, weighted.get(BOOKIE2).getWeight());
+    }
+
+    @Test
+    public void testWeightedSelectionSkewsAwayFromLoadedBookies() throws Exception {
+        ClientConfiguration conf = new ClientConfiguration().setLoadWeightBasedPlacementEnabled(true);
+        RackawareEnsemblePlacementPolicyImpl policy = new RackawareEnsemblePlacementPolicyImpl();
+        policy.initialize(conf, Optional.<DNSToSwitchMapping>empty(), null, SettableFeatureProvider.DISABLE_ALL,
+                NullStatsLogger.INSTANCE, BookieSocketAddress.LEGACY_BOOKIEID_RESOLVER);
+        try {
+            policy.onClusterChanged(new HashSet<>(Arrays.asList(BOOKIE1, BOOKIE2, BOOKIE3, BOOKIE4)),
+                    Collections.emptySet());
+            Map<BookieId, BookieInfo> infos = new HashMap<>();
+            infos.put(BOOKIE1, new BookieInfo(DISK_SPACE, DISK_SPACE, 400L, 8000L, 4000L, 90));
+            infos.put(BOOKIE2, idle());
+            infos.put(BOOKIE3, idle());
+            infos.put(BOOKIE4, idle());
+            policy.updateBookieInfo(newLoadWeightedReader().weighByLoad(infos));
+
+            Map<BookieId, Integer> selections = new HashMap<>();
+            int numSelections = 4000;
+            for (int i = 0; i < numSelections; i++) {
+                List<BookieId> ensemble = policy.newEnsemble(1, 1, 1, Collections.emptyMap(),
+                        new HashSet<>()).getResult();
+                selections.merge(ensemble.get(0), 1, Integer::sum);
+            }
+
+            // the loaded bookie gets a fifth of the weight of each idle bookie
+            int loadedSelections = selections.getOrDefault(BOOKIE1, 0);
+            for (BookieId idle : Arrays.asList(BOOKIE2, BOOKIE3, BOOKIE4)) {
+                int idleSelections = selections.getOrDefault(idle, 0);
+                assertTrue("Selections " + selections, loadedSelections * 2 < idleSelections);
+            }
+            assertTrue("Selections " + selections, loadedSelections > 0);
+        } finally {
+            policy.uninitalize();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Sets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.feature.SettableFeatureProvider;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.net.BookieNode;
+import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.net.DNSToSwitchMapping;
+import org.apache.bookkeeper.net.NetworkTopology;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test of the cache of the network locations of the bookies of {@link TopologyAwareEnsemblePlacementPolicy}.
+ */
+public class NetworkLocationCacheTest {
+
+    private static final BookieId BOOKIE1 = BookieId.parse("10.0.0.1:3181");
+    private static final BookieId BOOKIE2 = BookieId.parse("10.0.0.2:3181");
+    private static final BookieId BOOKIE3 = BookieId.parse("10.0.0.3:3181");
+
+    /**
+     * Resolves the addresses of the bookies to the racks they are mapped to, and records the batches resolved.
+     */
+    private static class MappingResolver implements DNSToSwitchMapping {
+        final Map<String, String> racks = new ConcurrentHashMap<>();
+        final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger numFailures = new AtomicInteger();
+        final AtomicInteger numReloads = new AtomicInteger();
+
+        void setRack(BookieId bookie, String rack) {
+            racks.put(bookie.toString().split(":")[0], rack);
+        }
+
+        @Override
+        public List<String> resolve(List<String> names) {
+            if (numFailures.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                throw new IllegalStateException("Injected resolution failure");
+            }
+            batches.add(new ArrayList<>(names));
+            List<String> resolved = new ArrayList<>(names.size());
+            for (String name : names) {
+                // the unknown names are resolved to the default rack of the policy
+                resolved.add(racks.get(name));
+            }
+            return resolved;
+        }
+
+        @Override
+        public void reloadCachedMappings() {
+            numReloads.incrementAndGet();
+        }
+
+        @Override
+        public boolean useHostName() {
+            return false;
+        }
+    }
+
+    private final MappingResolver resolver = new MappingResolver();
+    private RackawareEnsemblePlacementPolicyImpl policy;
+
+    @After
+    public void tearDown() {
+        if (null != policy) {
+            policy.uninitalize();
+        }
+    }
+
+    private void initialize(int networkLocationCacheTtlSeconds) {
+        ClientConfiguration conf = new ClientConfiguration();
+        conf.setNetworkLocationCacheTtlSeconds(networkLocationCacheTtlSeconds);
+        policy = new RackawareEnsemblePlacementPolicyImpl();
+        policy.initialize(conf, Optional.of(resolver), null, SettableFeatureProvider.DISABLE_ALL,
+                NullStatsLogger.INSTANCE, BookieSocketAddress.LEGACY_BOOKIEID_RESOLVER);
+        // the resolution of the local node
+        resolver.batches.clear();
+    }
+
+    private String rackOf(BookieId bookie) {
+        BookieNode node = policy.knownBookies.get(bookie);
+        return null == node ? null : node.getNetworkLocation();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out waiting for the condition", System.nanoTime() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void testJoiningBookiesAreResolvedInABatchAndCached() {
+        initialize(0);
+        resolver.setRack(BOOKIE1, "/rack1");
+        resolver.setRack(BOOKIE2, "/rack2");
+        resolver.setRack(BOOKIE3, "/rack3");
+
+        policy.onClusterChanged(Sets.newHashSet(BOOKIE1, BOOKIE2), Collections.emptySet());
+        assertEquals(1, resolver.batches.size());
+        assertEquals(2, resolver.batches.get(0).size());
+        assertEquals("/rack1", rackOf(BOOKIE1));
+        assertEquals("/rack2", rackOf(BOOKIE2));
+
+        // only the joining bookie is resolved
+        policy.onClusterChanged(Sets.newHashSet(BOOKIE1, BOOKIE2, BOOKIE3), Collections.emptySet());
+        assertEquals(2, resolver.batches.size());
+        assertEquals(Collections.singletonList("10.0.0.3"), resolver.batches.get(1));
+        assertEquals("/rack3", rackOf(BOOKIE3));
+
+        // a bookie turning read-only then writable again keeps its cached location
+        resolver.setRack(BOOKIE1, "/rack4");
+        policy.onClusterChanged(Sets.newHashSet(BOOKIE2, BOOKIE3), Sets.newHashSet(BOOKIE1));
+        policy.onClusterChanged(Sets.newHashSet(BOOKIE1, BOOKIE2, BOOKIE3), Collections.emptySet());
+        assertEquals(2, resolver.batches.size());
+        assertEquals("/rack1", rackOf(BOOKIE1));
+
+        // a bookie which left the cluster is resolved again when it joins
+        policy.onClusterChanged(Sets.newHashSet(BOOKIE2, BOOKIE3), Collections.emptySet());
+        policy.onClusterChanged(Sets.newHashSet(BOOKIE1, BOOKIE2, BOOKIE3), Collections.emptySet());
+        assertEquals(3, resolver.batches.size());
+        assertEquals("/rack4", rackOf(BOOKIE1));
+    }
+
+    @Test
+    public void testFailedResolutionFallsBackAndIsRetried() throws Exception {
+        initialize(0);
+        resolver.setRack(BOOKIE1, "/rack1");
+        resolver.setRack(BOOKIE2, "/rack2");
+        resolver.numFailures.set(1);
+
+        // the bookies are placed in the default rack, without resolving them again in the topology update
+        policy.onClusterChanged(Sets.newHashSet(BOOKIE1, BOOKIE2), Collections.emptySet());
+        assertEquals(0, resolver.batches.size());
+        assertEquals(NetworkTopology.DEFAULT_RACK, rackOf(BOOKIE1));
+        assertEquals(NetworkTopology.DEFAULT_RACK, rackOf(BOOKIE2));
+
+        // the retry moves them to their racks
+        waitFor(() -> "/rack1".equals(rackOf(BOOKIE1)) && "/rack2".equals(rackOf(BOOKIE2)));
+        assertEquals(1, resolver.batches.size());
+        assertEquals(2, resolver.batches.get(0).size());
+    }
+
+    @Test
+    public void testFailedResolutionFallsBackToTheLastKnownLocation() throws Exception {
+        initialize(0);
+        resolver.setRack(BOOKIE1, "/rack1");
+        policy.onClusterChanged(Sets.newHashSet(BOOKIE1), Collections.emptySet());
+        assertEquals("/rack1", rackOf(BOOKIE1));
+
+        // the bookie leaves, and its location fails to be resolved when it joins again
+        policy.onClusterChanged(Collections.emptySet(), Collections.emptySet());
+        resolver.setRack(BOOKIE1, "/rack2");
+        resolver.numFailures.set(2);
+        policy.onClusterChanged(Sets.newHashSet(BOOKIE1), Collections.emptySet());
+        assertEquals("/rack1", rackOf(BOOKIE1));
+
+        // the first retry fails as well, the next one moves the bookie
+        waitFor(() -> "/rack2".equals(rackOf(BOOKIE1)));
+        assertEquals(0, resolver.numFailures.get());
+    }
+
+    @Test
+    public void testRefresherResolvesExpiredLocations() throws Exception {
+        initialize(1);
+        resolver.setRack(BOOKIE1, "/rack1");
+        resolver.setRack(BOOKIE2, "/rack2");
+        policy.onClusterChanged(Sets.newHashSet(BOOKIE1, BOOKIE2), Collections.emptySet());
+        assertEquals(1, resolver.batches.size());
+
+        // the expired locations of the known bookies are resolved again in a batch, after reloading the mappings
+        waitFor(() -> resolver.batches.size() >= 2);
+        assertTrue(resolver.numReloads.get() >= 1);
+        assertEquals(2, resolver.batches.get(1).size());
+        assertEquals("/rack1", rackOf(BOOKIE1));
+        assertEquals("/rack2", rackOf(BOOKIE2));
+    }
+
+    @Test
+    public void testRefresherMovesBookiesWhoseRackChanged() throws Exception {
+        initialize(1);
+        resolver.setRack(BOOKIE1, "/rack1");
+        resolver.setRack(BOOKIE2, "/rack2");
+        policy.onClusterChanged(Sets.newHashSet(BOOKIE1, BOOKIE2), Collections.emptySet());
+        assertEquals("/rack1", rackOf(BOOKIE1));
+
+        resolver.setRack(BOOKIE1, "/rack3");
+        waitFor(() -> "/rack3".equals(rackOf(BOOKIE1)));
+        assertEquals("/rack2", rackOf(BOOKIE2));
+        Set<BookieId> rack3Bookies = Sets.newHashSet();
+        policy.topology.getLeaves("/rack3").forEach(node -> rack3Bookies.add(((BookieNode) node).getAddr()));
+        assertEquals(Collections.singleton(BOOKIE1), rack3Bookies);
+        assertTrue(policy.topology.getLeaves("/rack1").isEmpty());
+    }
+}
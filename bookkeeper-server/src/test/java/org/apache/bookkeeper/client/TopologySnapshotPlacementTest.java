@@ -0,0 +1,224 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.feature.SettableFeatureProvider;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.net.DNSToSwitchMapping;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test that the rack, region and zone aware placement policies select bookies from the snapshot of the topology
+ * under the same constraints as from the topology itself, as the bookies join and leave the cluster.
+ */
+public class TopologySnapshotPlacementTest {
+
+    private static final int NUM_SELECTIONS = 200;
+    private static final int NUM_FAULT_DOMAINS = 4;
+    private static final int BOOKIES_PER_FAULT_DOMAIN = 3;
+
+    /**
+     * Resolves the addresses of the bookies to the network locations they are mapped to.
+     */
+    private static class MappingResolver implements DNSToSwitchMapping {
+        final Map<String, String> locations = new ConcurrentHashMap<>();
+
+        @Override
+        public List<String> resolve(List<String> names) {
+            List<String> resolved = new ArrayList<>(names.size());
+            for (String name : names) {
+                // the unknown names are resolved to the default location of the policy
+                resolved.add(locations.get(name));
+            }
+            return resolved;
+        }
+
+        @Override
+        public void reloadCachedMappings() {
+        }
+
+        @Override
+        public boolean useHostName() {
+            return false;
+        }
+    }
+
+    private final MappingResolver resolver = new MappingResolver();
+    private final Map<BookieId, String> faultDomains = new ConcurrentHashMap<>();
+    private final Set<BookieId> writableBookies = new HashSet<>();
+    private final Set<BookieId> readOnlyBookies = new HashSet<>();
+    private EnsemblePlacementPolicy policy;
+
+    @After
+    public void tearDown() {
+        if (null != policy) {
+            policy.uninitalize();
+        }
+    }
+
+    /**
+     * Map the bookies to the given location, the fault domain being the first level of the location for the region
+     * and zone aware policies, and the whole location for the rack aware policy.
+     */
+    private void addBookies(Function<Integer, String> location, boolean faultDomainIsFirstLevel) {
+        for (int d = 0; d < NUM_FAULT_DOMAINS; d++) {
+            for (int b = 0; b < BOOKIES_PER_FAULT_DOMAIN; b++) {
+                BookieId bookie = BookieId.parse("10.0." + d + "." + b + ":3181");
+                String loc = location.apply(d * BOOKIES_PER_FAULT_DOMAIN + b);
+                resolver.locations.put("10.0." + d + "." + b, loc);
+                faultDomains.put(bookie, faultDomainIsFirstLevel ? loc.substring(0, loc.indexOf('/', 1)) : loc);
+                writableBookies.add(bookie);
+            }
+        }
+    }
+
+    private void initialize(EnsemblePlacementPolicy policy) {
+        this.policy = policy;
+        policy.initialize(new ClientConfiguration(), Optional.of(resolver), null, SettableFeatureProvider.DISABLE_ALL,
+                NullStatsLogger.INSTANCE, BookieSocketAddress.LEGACY_BOOKIEID_RESOLVER);
+        clusterChanged();
+    }
+
+    private void clusterChanged() {
+        policy.onClusterChanged(new HashSet<>(writableBookies), new HashSet<>(readOnlyBookies));
+    }
+
+    private List<BookieId> bookiesOf(int faultDomain) {
+        List<BookieId> bookies = new ArrayList<>();
+        for (int b = 0; b < BOOKIES_PER_FAULT_DOMAIN; b++) {
+            bookies.add(BookieId.parse("10.0." + faultDomain + "." + b + ":3181"));
+        }
+        return bookies;
+    }
+
+    /**
+     * Select new ensembles and check that each of them only has available bookies from distinct fault domains,
+     * returning all the bookies selected.
+     */
+    private Set<BookieId> assertEnsemblesSpanFaultDomains(int ensembleSize, Set<BookieId> excludeBookies)
+            throws Exception {
+        Set<BookieId> selected = new HashSet<>();
+        for (int i = 0; i < NUM_SELECTIONS; i++) {
+            List<BookieId> ensemble = policy.newEnsemble(ensembleSize, ensembleSize, ensembleSize - 1,
+                    Collections.emptyMap(), new HashSet<>(excludeBookies)).getResult();
+            assertEquals(ensembleSize, ensemble.size());
+            Set<String> domains = new HashSet<>();
+            for (BookieId bookie : ensemble) {
+                assertTrue(bookie + " is not writable", writableBookies.contains(bookie));
+                assertFalse(bookie + " is excluded", excludeBookies.contains(bookie));
+                domains.add(faultDomains.get(bookie));
+            }
+            assertEquals("Ensemble " + ensemble + " is not spread over the fault domains", ensembleSize,
+                    domains.size());
+            selected.addAll(ensemble);
+        }
+        return selected;
+    }
+
+    /**
+     * Replace a bookie of new ensembles, and check that the replacement is an available bookie out of the fault
+     * domains of the rest of the ensemble.
+     */
+    private void assertReplacementsSpanFaultDomains(int ensembleSize) throws Exception {
+        for (int i = 0; i < NUM_SELECTIONS; i++) {
+            List<BookieId> ensemble = policy.newEnsemble(ensembleSize, ensembleSize, ensembleSize - 1,
+                    Collections.emptyMap(), new HashSet<>()).getResult();
+            BookieId replaced = ensemble.get(i % ensembleSize);
+            BookieId replacement = policy.replaceBookie(ensembleSize, ensembleSize, ensembleSize - 1,
+                    Collections.emptyMap(), ensemble, replaced, new HashSet<>()).getResult();
+            assertTrue(writableBookies.contains(replacement));
+            assertFalse(ensemble.contains(replacement));
+            for (BookieId bookie : ensemble) {
+                if (!bookie.equals(replaced)) {
+                    assertFalse("Replacement " + replacement + " shares a fault domain with " + ensemble,
+                            faultDomains.get(bookie).equals(faultDomains.get(replacement)));
+                }
+            }
+        }
+    }
+
+    private void assertSelectionFollowsJoinsAndLeaves(int ensembleSize) throws Exception {
+        // all the available bookies are candidates, none of the excluded ones is selected
+        Set<BookieId> excluded = Collections.singleton(bookiesOf(0).get(0));
+        Set<BookieId> selected = assertEnsemblesSpanFaultDomains(ensembleSize, excluded);
+        Set<BookieId> expected = new HashSet<>(writableBookies);
+        expected.removeAll(excluded);
+        assertEquals(expected, selected);
+        assertReplacementsSpanFaultDomains(ensembleSize);
+
+        // the bookies of a fault domain leave, or turn read-only
+        List<BookieId> left = bookiesOf(NUM_FAULT_DOMAINS - 1);
+        writableBookies.removeAll(left);
+        BookieId readOnly = bookiesOf(0).get(1);
+        writableBookies.remove(readOnly);
+        readOnlyBookies.add(readOnly);
+        clusterChanged();
+        selected = assertEnsemblesSpanFaultDomains(ensembleSize, Collections.emptySet());
+        assertEquals(writableBookies, selected);
+        assertReplacementsSpanFaultDomains(ensembleSize);
+
+        // they join again
+        writableBookies.addAll(left);
+        writableBookies.add(readOnly);
+        readOnlyBookies.clear();
+        clusterChanged();
+        selected = assertEnsemblesSpanFaultDomains(ensembleSize, Collections.emptySet());
+        assertEquals(writableBookies, selected);
+    }
+
+    @Test
+    public void testRackawarePolicy() throws Exception {
+        addBookies(i -> "/rack" + (i / BOOKIES_PER_FAULT_DOMAIN), false);
+        initialize(new RackawareEnsemblePlacementPolicyImpl());
+        assertSelectionFollowsJoinsAndLeaves(3);
+    }
+
+    @Test
+    public void testRegionAwarePolicy() throws Exception {
+        addBookies(i -> "/region" + (i / BOOKIES_PER_FAULT_DOMAIN) + "/rack" + (i % 2), true);
+        initialize(new RegionAwareEnsemblePlacementPolicy());
+        assertSelectionFollowsJoinsAndLeaves(3);
+    }
+
+    @Test
+    public void testZoneawarePolicy() throws Exception {
+        addBookies(i -> "/zone" + (i / BOOKIES_PER_FAULT_DOMAIN) + "/ud" + (i % 2), true);
+        initialize(new ZoneawareEnsemblePlacementPolicyImpl());
+        assertSelectionFollowsJoinsAndLeaves(3);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.meta;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.LedgerMetadataBuilder;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Version;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link CachingLedgerManager}.
+ */
+public class CachingLedgerManagerTest {
+
+    private static final long LEDGER_ID = 1234L;
+    private static final long MAX_SIZE_BYTES = 1024 * 1024;
+
+    private final LedgerManager underlying = mock(LedgerManager.class);
+
+    private static LedgerMetadataBuilder builder(long ledgerId) {
+        return LedgerMetadataBuilder.create()
+                .withId(ledgerId)
+                .withEnsembleSize(3)
+                .withWriteQuorumSize(3)
+                .withAckQuorumSize(2)
+                .withDigestType(DigestType.CRC32C)
+                .withPassword("password".getBytes(UTF_8))
+                .newEnsembleEntry(0L, Arrays.asList(BookieId.parse("bookie-1:3181"),
+                        BookieId.parse("bookie-2:3181"), BookieId.parse("bookie-3:3181")));
+    }
+
+    private static Versioned<LedgerMetadata> open(long ledgerId, long version) {
+        return new Versioned<>(builder(ledgerId).build(), new LongVersion(version));
+    }
+
+    private static Versioned<LedgerMetadata> closed(long ledgerId, long version) {
+        return new Versioned<>(builder(ledgerId).withClosedState().withLastEntryId(10L).withLength(100L).build(),
+                new LongVersion(version));
+    }
+
+    private void mockRead(long ledgerId, Versioned<LedgerMetadata> metadata) {
+        when(underlying.readLedgerMetadata(ledgerId)).thenReturn(CompletableFuture.completedFuture(metadata));
+    }
+
+    private CachingLedgerManager newLedgerManager(long maxSizeBytes) {
+        return new CachingLedgerManager(underlying, maxSizeBytes, NullStatsLogger.INSTANCE);
+    }
+
+    @Test
+    public void testClosedLedgerIsCached() throws Exception {
+        Versioned<LedgerMetadata> metadata = closed(LEDGER_ID, 1L);
+        mockRead(LEDGER_ID, metadata);
+        CachingLedgerManager lm = newLedgerManager(MAX_SIZE_BYTES);
+
+        // the first read misses, the next ones hit the cache
+        assertSame(metadata, lm.readLedgerMetadata(LEDGER_ID).get());
+        assertSame(metadata, lm.readLedgerMetadata(LEDGER_ID).get());
+        assertSame(metadata, lm.readLedgerMetadata(LEDGER_ID).get());
+        verify(underlying, times(1)).readLedgerMetadata(LEDGER_ID);
+    }
+
+    @Test
+    public void testBulkReadOnlyReadsTheMissingLedgers() throws Exception {
+        Versioned<LedgerMetadata> metadata1 = closed(1L, 1L);
+        Versioned<LedgerMetadata> metadata2 = closed(2L, 1L);
+        mockRead(1L, metadata1);
+        CachingLedgerManager lm = newLedgerManager(MAX_SIZE_BYTES);
+        lm.readLedgerMetadata(1L).get();
+
+        Map<Long, Versioned<LedgerMetadata>> read = new HashMap<>();
+        read.put(2L, metadata2);
+        when(underlying.readLedgerMetadata(Arrays.asList(2L))).thenReturn(CompletableFuture.completedFuture(read));
+        Map<Long, Versioned<LedgerMetadata>> result = lm.readLedgerMetadata(Arrays.asList(1L, 2L)).get();
+        assertEquals(2, result.size());
+        assertSame(metadata1, result.get(1L));
+        assertSame(metadata2, result.get(2L));
+        verify(underlying).readLedgerMetadata(Arrays.asList(2L));
+
+        // both ledgers are cached now
+        assertEquals(2, lm.readLedgerMetadata(Arrays.asList(1L, 2L)).get().size());
+        verify(underlying, times(1)).readLedgerMetadata(anyCollection());
+        verify(underlying, times(1)).readLedgerMetadata(anyLong());
+    }
+
+    @Test
+    public void testOpenLedgerIsOnlyCachedWhileWatched() throws Exception {
+        Versioned<LedgerMetadata> metadata = open(LEDGER_ID, 1L);
+        mockRead(LEDGER_ID, metadata);
+        CachingLedgerManager lm = newLedgerManager(MAX_SIZE_BYTES);
+
+        lm.readLedgerMetadata(LEDGER_ID).get();
+        lm.readLedgerMetadata(LEDGER_ID).get();
+        verify(underlying, times(2)).readLedgerMetadata(LEDGER_ID);
+
+        LedgerMetadataListener listener = (ledgerId, updated) -> { };
+        lm.registerLedgerMetadataListener(LEDGER_ID, listener);
+        lm.readLedgerMetadata(LEDGER_ID).get();
+        lm.readLedgerMetadata(LEDGER_ID).get();
+        verify(underlying, times(3)).readLedgerMetadata(LEDGER_ID);
+
+        // the open ledger isn't cached anymore once it isn't watched
+        lm.unregisterLedgerMetadataListener(LEDGER_ID, listener);
+        verify(underlying).unregisterLedgerMetadataListener(eq(LEDGER_ID), any(LedgerMetadataListener.class));
+        lm.readLedgerMetadata(LEDGER_ID).get();
+        verify(underlying, times(4)).readLedgerMetadata(LEDGER_ID);
+    }
+
+    @Test
+    public void testListenerNotificationsUpdateTheCache() throws Exception {
+        mockRead(LEDGER_ID, open(LEDGER_ID, 1L));
+        CachingLedgerManager lm = newLedgerManager(MAX_SIZE_BYTES);
+
+        AtomicReference<LedgerMetadataListener> registered = new AtomicReference<>();
+        AtomicReference<Versioned<LedgerMetadata>> notified = new AtomicReference<>();
+        doAnswer(invocation -> {
+            registered.set(invocation.getArgument(1));
+            return null;
+        }).when(underlying).registerLedgerMetadataListener(eq(LEDGER_ID), any(LedgerMetadataListener.class));
+        lm.registerLedgerMetadataListener(LEDGER_ID, (ledgerId, updated) -> notified.set(updated));
+        lm.readLedgerMetadata(LEDGER_ID).get();
+
+        Versioned<LedgerMetadata> updated = closed(LEDGER_ID, 2L);
+        registered.get().onChanged(LEDGER_ID, updated);
+        assertSame(updated, notified.get());
+        assertSame(updated, lm.readLedgerMetadata(LEDGER_ID).get());
+
+        // the ledger is deleted
+        registered.get().onChanged(LEDGER_ID, null);
+        lm.readLedgerMetadata(LEDGER_ID).get();
+        verify(underlying, times(2)).readLedgerMetadata(LEDGER_ID);
+    }
+
+    @Test
+    public void testUnregisterNullListener() throws Exception {
+        CachingLedgerManager lm = newLedgerManager(MAX_SIZE_BYTES);
+        lm.unregisterLedgerMetadataListener(LEDGER_ID, null);
+        verify(underlying, never()).unregisterLedgerMetadataListener(anyLong(), any());
+    }
+
+    @Test
+    public void testStaleReadDoesNotReplaceANewerVersion() throws Exception {
+        CompletableFuture<Versioned<LedgerMetadata>> staleRead = new CompletableFuture<>();
+        when(underlying.readLedgerMetadata(LEDGER_ID)).thenReturn(staleRead);
+        CachingLedgerManager lm = newLedgerManager(MAX_SIZE_BYTES);
+        CompletableFuture<Versioned<LedgerMetadata>> read = lm.readLedgerMetadata(LEDGER_ID);
+
+        // the metadata is written while it is read
+        Versioned<LedgerMetadata> written = closed(LEDGER_ID, 2L);
+        when(underlying.writeLedgerMetadata(eq(LEDGER_ID), any(LedgerMetadata.class), any(Version.class)))
+                .thenReturn(CompletableFuture.completedFuture(written));
+        lm.writeLedgerMetadata(LEDGER_ID, written.getValue(), new LongVersion(1L)).get();
+
+        Versioned<LedgerMetadata> stale = closed(LEDGER_ID, 1L);
+        staleRead.complete(stale);
+        assertSame(stale, read.get());
+        assertSame(written, lm.readLedgerMetadata(LEDGER_ID).get());
+        verify(underlying, times(1)).readLedgerMetadata(LEDGER_ID);
+    }
+
+    @Test
+    public void testFailedWriteInvalidatesTheCache() throws Exception {
+        Versioned<LedgerMetadata> metadata = closed(LEDGER_ID, 1L);
+        mockRead(LEDGER_ID, metadata);
+        CachingLedgerManager lm = newLedgerManager(MAX_SIZE_BYTES);
+        lm.readLedgerMetadata(LEDGER_ID).get();
+
+        CompletableFuture<Versioned<LedgerMetadata>> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new BKException.BKMetadataVersionException());
+        when(underlying.writeLedgerMetadata(eq(LEDGER_ID), any(LedgerMetadata.class), any(Version.class)))
+                .thenReturn(failed);
+        CompletableFuture<Versioned<LedgerMetadata>> write =
+                lm.writeLedgerMetadata(LEDGER_ID, metadata.getValue(), metadata.getVersion());
+        assertTrue(write.isCompletedExceptionally());
+
+        // the metadata is read again from the store
+        lm.readLedgerMetadata(LEDGER_ID).get();
+        verify(underlying, times(2)).readLedgerMetadata(LEDGER_ID);
+    }
+
+    @Test
+    public void testCacheIsBoundedByTheWeightOfTheMetadata() throws Exception {
+        int numLedgers = 100;
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            mockRead(ledgerId, closed(ledgerId, 1L));
+        }
+        // about 10 metadata of 3 bookies fit in the cache
+        CachingLedgerManager lm = newLedgerManager(10 * 512);
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            lm.readLedgerMetadata(ledgerId).get();
+        }
+        // the last read metadata is still cached
+        lm.readLedgerMetadata(numLedgers - 1).get();
+        verify(underlying, times(1)).readLedgerMetadata(numLedgers - 1);
+
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            lm.readLedgerMetadata(ledgerId).get();
+        }
+        long numStoreReads = mockingDetails(underlying).getInvocations().stream()
+                .filter(invocation -> invocation.getMethod().getName().equals("readLedgerMetadata"))
+                .count();
+        // at most the metadata fitting in the cache are served from it on the second pass
+        assertTrue("Unexpected number of reads " + numStoreReads, numStoreReads >= 2 * numLedgers - 10);
+    }
+}
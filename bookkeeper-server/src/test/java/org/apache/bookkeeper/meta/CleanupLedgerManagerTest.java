@@ -0,0 +1,77 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link CleanupLedgerManager}.
+ */
+public class CleanupLedgerManagerTest {
+
+    @Test
+    public void testBulkReadIsDelegatedAndTracked() throws Exception {
+        LedgerManager underlying = mock(LedgerManager.class);
+        Collection<Long> ledgerIds = Arrays.asList(1L, 2L, 3L);
+        CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> read = new CompletableFuture<>();
+        when(underlying.readLedgerMetadata(ledgerIds)).thenReturn(read);
+
+        CleanupLedgerManager lm = new CleanupLedgerManager(underlying);
+        CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> promise = lm.readLedgerMetadata(ledgerIds);
+        assertSame(read, promise);
+        verify(underlying).readLedgerMetadata(ledgerIds);
+        assertEquals(1, lm.getCurrentFuturePromiseSize());
+
+        // the pending read is failed when the ledger manager is closed
+        lm.close();
+        assertTrue(promise.isCompletedExceptionally());
+        assertEquals(0, lm.getCurrentFuturePromiseSize());
+    }
+
+    @Test
+    public void testBulkReadFailsOnceClosed() throws Exception {
+        LedgerManager underlying = mock(LedgerManager.class);
+        CleanupLedgerManager lm = new CleanupLedgerManager(underlying);
+        lm.close();
+
+        CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> promise = lm.readLedgerMetadata(Arrays.asList(1L));
+        assertTrue(promise.isCompletedExceptionally());
+        assertEquals(BKException.Code.ClientClosedException, BKException.getExceptionCode(
+                promise.handle((result, cause) -> cause).get()));
+        verify(underlying).close();
+        verifyNoMoreInteractions(underlying);
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.meta;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import org.apache.bookkeeper.client.LedgerMetadataBuilder;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.DataFormats.LedgerMetadataFormat;
+import org.junit.Test;
+
+/**
+ * Unit test of the ledger metadata format version 4 of {@link LedgerMetadataSerDe}.
+ */
+public class LedgerMetadataSerDeTest {
+
+    private static final long LEDGER_ID = 1234L;
+
+    private final LedgerMetadataSerDe serDe = new LedgerMetadataSerDe();
+
+    private static BookieId bookie(int i) {
+        return BookieId.parse("bookie-" + i + ".example.com:3181");
+    }
+
+    private static List<BookieId> ensemble(int... bookies) {
+        BookieId[] ensemble = new BookieId[bookies.length];
+        for (int i = 0; i < bookies.length; i++) {
+            ensemble[i] = bookie(bookies[i]);
+        }
+        return Arrays.asList(ensemble);
+    }
+
+    private static LedgerMetadataBuilder builder(int formatVersion) {
+        return LedgerMetadataBuilder.create()
+                .withId(LEDGER_ID)
+                .withMetadataFormatVersion(formatVersion)
+                .withEnsembleSize(3)
+                .withWriteQuorumSize(3)
+                .withAckQuorumSize(2)
+                .withDigestType(DigestType.CRC32C)
+                .withPassword("password".getBytes(UTF_8))
+                .withCreationTime(123456789L)
+                .storingCreationTime(true);
+    }
+
+    private LedgerMetadata roundTrip(LedgerMetadata metadata) throws IOException {
+        return serDe.parseConfig(serDe.serialize(metadata), LEDGER_ID, Optional.empty());
+    }
+
+    private static LedgerMetadataFormat parseBody(byte[] serialized) throws IOException {
+        ByteArrayInputStream is = new ByteArrayInputStream(serialized);
+        while (is.read() != '\n') {
+            // skip the header
+        }
+        return LedgerMetadataFormat.parseDelimitedFrom(is);
+    }
+
+    /**
+     * Rewrite the body of a serialized metadata, keeping its header.
+     */
+    private static byte[] rewriteBody(byte[] serialized, Consumer<LedgerMetadataFormat.Builder> rewrite)
+            throws IOException {
+        int headerLength = 0;
+        while (serialized[headerLength++] != '\n') {
+            // find the end of the header
+        }
+        LedgerMetadataFormat.Builder builder = parseBody(serialized).toBuilder();
+        rewrite.accept(builder);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        os.write(serialized, 0, headerLength);
+        builder.build().writeDelimitedTo(os);
+        return os.toByteArray();
+    }
+
+    /**
+     * Compact ensembles of single segments, each given as the first entry id delta followed by pairs of position
+     * and bookie table index.
+     */
+    private static ByteString compactEnsembles(long[]... segments) throws IOException {
+        ByteString.Output output = ByteString.newOutput();
+        CodedOutputStream cos = CodedOutputStream.newInstance(output);
+        cos.writeUInt32NoTag(segments.length);
+        for (long[] segment : segments) {
+            cos.writeSInt64NoTag(segment[0]);
+            cos.writeUInt32NoTag((segment.length - 1) / 2);
+            for (int i = 1; i < segment.length; i++) {
+                cos.writeUInt32NoTag((int) segment[i]);
+            }
+        }
+        cos.flush();
+        return output.toByteString();
+    }
+
+    private void assertCorrupt(byte[] serialized) {
+        try {
+            serDe.parseConfig(serialized, LEDGER_ID, Optional.empty());
+            fail("Corrupt metadata should not be parsed");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRoundTripSingleEnsemble() throws Exception {
+        LedgerMetadata metadata = builder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4)
+                .newEnsembleEntry(0L, ensemble(0, 1, 2))
+                .build();
+        LedgerMetadata parsed = roundTrip(metadata);
+        assertEquals(metadata, parsed);
+        assertEquals(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4, parsed.getMetadataFormatVersion());
+        assertEquals(LEDGER_ID, parsed.getLedgerId());
+        assertArrayEquals("password".getBytes(UTF_8), parsed.getPassword());
+    }
+
+    @Test
+    public void testRoundTripCustomMetadata() throws Exception {
+        LedgerMetadata metadata = builder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4)
+                .withCustomMetadata(ImmutableMap.of("key", "value".getBytes(UTF_8)))
+                .newEnsembleEntry(0L, ensemble(0, 1, 2))
+                .build();
+        LedgerMetadata parsed = roundTrip(metadata);
+        assertEquals(metadata.getAllEnsembles(), parsed.getAllEnsembles());
+        assertEquals(1, parsed.getCustomMetadata().size());
+        assertArrayEquals("value".getBytes(UTF_8), parsed.getCustomMetadata().get("key"));
+    }
+
+    @Test
+    public void testRoundTripRepeatedEnsembles() throws Exception {
+        // an ensemble equal to the previous one has no changed position
+        LedgerMetadata metadata = builder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4)
+                .newEnsembleEntry(0L, ensemble(0, 1, 2))
+                .newEnsembleEntry(10L, ensemble(0, 1, 2))
+                .newEnsembleEntry(20L, ensemble(0, 3, 2))
+                .newEnsembleEntry(30L, ensemble(0, 3, 2))
+                .newEnsembleEntry(40L, ensemble(0, 1, 2))
+                .withClosedState().withLastEntryId(45L).withLength(4500L)
+                .build();
+        LedgerMetadata parsed = roundTrip(metadata);
+        assertEquals(metadata, parsed);
+        assertEquals(metadata.getAllEnsembles(), parsed.getAllEnsembles());
+    }
+
+    @Test
+    public void testRoundTripLargeEntryIdDeltas() throws Exception {
+        LedgerMetadata metadata = builder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4)
+                .newEnsembleEntry(0L, ensemble(0, 1, 2))
+                .newEnsembleEntry(1L, ensemble(3, 1, 2))
+                .newEnsembleEntry(Integer.MAX_VALUE + 1L, ensemble(3, 4, 2))
+                .newEnsembleEntry(Long.MAX_VALUE - 1, ensemble(3, 4, 5))
+                .build();
+        LedgerMetadata parsed = roundTrip(metadata);
+        assertEquals(metadata.getAllEnsembles(), parsed.getAllEnsembles());
+        assertEquals(ensemble(3, 4, 2), parsed.getEnsembleAt(Long.MAX_VALUE - 2));
+    }
+
+    @Test
+    public void testBookieTable() throws Exception {
+        LedgerMetadata metadata = builder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4)
+                .newEnsembleEntry(0L, ensemble(0, 1, 2))
+                .newEnsembleEntry(10L, ensemble(3, 1, 2))
+                .newEnsembleEntry(20L, ensemble(0, 3, 2))
+                .newEnsembleEntry(30L, ensemble(1, 0, 3))
+                .build();
+        LedgerMetadataFormat data = parseBody(serDe.serialize(metadata));
+
+        // each distinct bookie is written once, in order of appearance, and no segment is written
+        assertEquals(0, data.getSegmentCount());
+        assertEquals(Arrays.asList(bookie(0).toString(), bookie(1).toString(), bookie(2).toString(),
+                                   bookie(3).toString()),
+                     data.getBookieIdList());
+        assertTrue(data.hasCompactEnsembles());
+        assertEquals(metadata.getAllEnsembles(), roundTrip(metadata).getAllEnsembles());
+    }
+
+    @Test
+    public void testVersion3ToVersion4() throws Exception {
+        LedgerMetadata v3 = builder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_3)
+                .newEnsembleEntry(0L, ensemble(0, 1, 2))
+                .newEnsembleEntry(100L, ensemble(0, 3, 2))
+                .withInRecoveryState()
+                .build();
+        LedgerMetadata parsedV3 = roundTrip(v3);
+        assertEquals(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_3, parsedV3.getMetadataFormatVersion());
+
+        // a ledger written with version 3 can be rewritten with version 4, and back
+        LedgerMetadata v4 = LedgerMetadataBuilder.from(parsedV3)
+                .withMetadataFormatVersion(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4)
+                .build();
+        LedgerMetadata parsedV4 = roundTrip(v4);
+        assertEquals(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4, parsedV4.getMetadataFormatVersion());
+        assertEquals(v3.getAllEnsembles(), parsedV4.getAllEnsembles());
+        assertEquals(v3.getState(), parsedV4.getState());
+
+        LedgerMetadata backToV3 = roundTrip(LedgerMetadataBuilder.from(parsedV4)
+                .withMetadataFormatVersion(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_3)
+                .build());
+        assertEquals(parsedV3, backToV3);
+    }
+
+    @Test
+    public void testNoEnsembles() throws Exception {
+        byte[] serialized = serDe.serialize(builder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4)
+                .newEnsembleEntry(0L, ensemble(0, 1, 2))
+                .build());
+        assertCorrupt(rewriteBody(serialized, b -> b.clearCompactEnsembles()));
+        ByteString noSegment = compactEnsembles();
+        assertCorrupt(rewriteBody(serialized, b -> b.setCompactEnsembles(noSegment)));
+    }
+
+    @Test
+    public void testCorruptEnsembles() throws Exception {
+        byte[] serialized = serDe.serialize(builder(LedgerMetadataSerDe.METADATA_FORMAT_VERSION_4)
+                .newEnsembleEntry(0L, ensemble(0, 1, 2))
+                .build());
+        ByteString valid = parseBody(serialized).getCompactEnsembles();
+
+        // truncated
+        assertCorrupt(rewriteBody(serialized, b -> b.setCompactEnsembles(valid.substring(0, valid.size() - 1))));
+        // trailing data
+        assertCorrupt(rewriteBody(serialized, b -> b.setCompactEnsembles(valid.concat(ByteString.copyFrom(
+                new byte[] { 1 })))));
+        // bookie index out of the table
+        ByteString badIndex = compactEnsembles(new long[] { 0, 0, 0, 1, 1, 2, 3 });
+        assertCorrupt(rewriteBody(serialized, b -> b.setCompactEnsembles(badIndex)));
+        // position out of the ensemble
+        ByteString badPosition = compactEnsembles(new long[] { 0, 0, 0, 1, 1, 3, 2 });
+        assertCorrupt(rewriteBody(serialized, b -> b.setCompactEnsembles(badPosition)));
+        // incomplete first ensemble
+        ByteString incomplete = compactEnsembles(new long[] { 0, 0, 0, 1, 1 });
+        assertCorrupt(rewriteBody(serialized, b -> b.setCompactEnsembles(incomplete)));
+        // first entry ids not increasing
+        ByteString notIncreasing = compactEnsembles(new long[] { 0, 0, 0, 1, 1, 2, 2 }, new long[] { 0, 0, 1 });
+        assertCorrupt(rewriteBody(serialized, b -> b.setCompactEnsembles(notIncreasing)));
+        // unparsable bookie id
+        assertCorrupt(rewriteBody(serialized, b -> b.setBookieId(0, "not a bookie id")));
+        // segments of version 3 along the compact ensembles
+        assertCorrupt(rewriteBody(serialized, b -> b.addSegment(LedgerMetadataFormat.Segment.newBuilder()
+                .setFirstEntryId(0L).addEnsembleMember(bookie(0).toString()))));
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.zookeeper.AsyncCallback.MultiCallback;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of the batching of {@link ZkMultiBatcher}.
+ */
+public class ZkMultiBatcherTest {
+
+    private static final int MAX_BATCH_SIZE = 10;
+    private static final int MAX_BATCH_BYTES = 4096;
+
+    private ZooKeeper zk;
+    // the ops and the callback of each multi operation sent
+    private final List<List<Op>> batches = new ArrayList<>();
+    private final List<MultiCallback> callbacks = new ArrayList<>();
+    private final List<String> succeeded = new ArrayList<>();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        zk = mock(ZooKeeper.class);
+        doAnswer(invocation -> {
+            List<Op> ops = new ArrayList<>();
+            ((Iterable<Op>) invocation.getArgument(0)).forEach(ops::add);
+            batches.add(ops);
+            callbacks.add(invocation.getArgument(1));
+            return null;
+        }).when(zk).multi(any(Iterable.class), any(MultiCallback.class), isNull());
+    }
+
+    private ZkMultiBatcher.BatchedOp setData(String path, int dataLength) {
+        byte[] data = new byte[dataLength];
+        return new ZkMultiBatcher.BatchedOp(Op.setData(path, data, 0), data) {
+            @Override
+            void succeeded(OpResult result) {
+                succeeded.add(path);
+            }
+
+            @Override
+            void failed(int rc, String failedPath) {
+            }
+
+            @Override
+            void retry() {
+            }
+        };
+    }
+
+    /**
+     * Complete the last batch sent, which sends the next one.
+     */
+    private void completeLastBatch() {
+        int last = batches.size() - 1;
+        List<OpResult> results = new ArrayList<>();
+        for (int i = 0; i < batches.get(last).size(); i++) {
+            results.add(new OpResult.SetDataResult(null));
+        }
+        callbacks.get(last).processResult(Code.OK.intValue(), null, null, results);
+    }
+
+    private int batchSize(int batch) {
+        return batches.get(batch).size();
+    }
+
+    @Test
+    public void testBatchesAreBoundedByBytes() {
+        ZkMultiBatcher batcher = new ZkMultiBatcher(zk, MAX_BATCH_SIZE, MAX_BATCH_BYTES);
+        // sent right away, in a batch of its own
+        batcher.submit(setData("/ledgers/0", 0));
+        // about 1.2KB each, three of them fit in a batch
+        for (int i = 1; i <= 7; i++) {
+            batcher.submit(setData("/ledgers/" + i, 1000));
+        }
+        assertEquals(1, batches.size());
+
+        completeLastBatch();
+        assertEquals(2, batches.size());
+        assertEquals(3, batchSize(1));
+        completeLastBatch();
+        assertEquals(3, batchSize(2));
+        completeLastBatch();
+        assertEquals(1, batchSize(3));
+        completeLastBatch();
+        assertEquals(4, batches.size());
+        assertEquals(8, succeeded.size());
+    }
+
+    @Test
+    public void testBatchesAreBoundedByCount() {
+        ZkMultiBatcher batcher = new ZkMultiBatcher(zk, MAX_BATCH_SIZE, MAX_BATCH_BYTES);
+        batcher.submit(setData("/ledgers/0", 0));
+        for (int i = 1; i <= 15; i++) {
+            batcher.submit(setData("/ledgers/" + i, 0));
+        }
+        completeLastBatch();
+        assertEquals(MAX_BATCH_SIZE, batchSize(1));
+        completeLastBatch();
+        assertEquals(5, batchSize(2));
+        completeLastBatch();
+        assertEquals(16, succeeded.size());
+    }
+
+    @Test
+    public void testLargeOpIsSentOnItsOwn() {
+        ZkMultiBatcher batcher = new ZkMultiBatcher(zk, MAX_BATCH_SIZE, MAX_BATCH_BYTES);
+        batcher.submit(setData("/ledgers/0", 0));
+        batcher.submit(setData("/ledgers/1", 100));
+        batcher.submit(setData("/ledgers/2", 2 * MAX_BATCH_BYTES));
+        batcher.submit(setData("/ledgers/3", 100));
+        completeLastBatch();
+        assertEquals(1, batchSize(1));
+        completeLastBatch();
+        assertEquals(1, batchSize(2));
+        assertEquals("/ledgers/2", batches.get(2).get(0).getPath());
+        completeLastBatch();
+        assertEquals(1, batchSize(3));
+        completeLastBatch();
+        assertEquals(4, succeeded.size());
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Unit test of the snapshot of the leaves of {@link NetworkTopologyImpl}.
+ */
+public class NetworkTopologyImplTest {
+
+    private static final String[] RACKS = {"/region1/rack1", "/region1/rack2", "/region2/rack1", "/region2/rack2"};
+
+    private final NetworkTopologyImpl topology = new NetworkTopologyImpl();
+
+    private static BookieNode newNode(String rack, int i) {
+        return new BookieNode(BookieId.parse("10.0." + i + ".1:3181"), rack);
+    }
+
+    private List<BookieNode> addNodes(int numNodes) {
+        List<BookieNode> nodes = new ArrayList<>();
+        for (int i = 0; i < numNodes; i++) {
+            BookieNode node = newNode(RACKS[i % RACKS.length], i);
+            topology.add(node);
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    /**
+     * Leaves under the scope, looked up in the tree of the topology as before the snapshot.
+     */
+    private Set<Node> leavesOfTheTree(String scope) {
+        Set<Node> leaves = new HashSet<>();
+        if (scope.startsWith(NetworkTopologyImpl.INVERSE)) {
+            leaves.addAll(leavesOfTheTree(NodeBase.ROOT));
+            for (String excludedScope : scope.substring(1).split(NetworkTopologyImpl.NODE_SEPARATOR)) {
+                leaves.removeAll(leavesOfTheTree(excludedScope));
+            }
+            return leaves;
+        }
+        Node node = topology.getNode(scope);
+        if (node instanceof NetworkTopologyImpl.InnerNode) {
+            NetworkTopologyImpl.InnerNode innerNode = (NetworkTopologyImpl.InnerNode) node;
+            for (int i = 0; i < innerNode.getNumOfLeaves(); i++) {
+                leaves.add(innerNode.getLeaf(i, null));
+            }
+        } else if (node != null) {
+            leaves.add(node);
+        }
+        return leaves;
+    }
+
+    /**
+     * Number of available leaves, counted in the tree of the topology as before the snapshot.
+     */
+    private int availableNodesOfTheTree(String scope, Collection<Node> excludedNodes) {
+        boolean isExcluded = scope.startsWith(NetworkTopologyImpl.INVERSE);
+        Set<Node> scopeLeaves = leavesOfTheTree(isExcluded ? scope.substring(1) : scope);
+        Set<Node> available = isExcluded ? leavesOfTheTree(NodeBase.ROOT) : new HashSet<>(scopeLeaves);
+        if (isExcluded) {
+            available.removeAll(scopeLeaves);
+        }
+        available.removeAll(excludedNodes);
+        return available.size();
+    }
+
+    private void assertSnapshotMatchesTheTree(Collection<BookieNode> nodes) {
+        List<String> scopes = new ArrayList<>(Arrays.asList(NodeBase.ROOT, "/region1", "/region2", "/region3",
+                "/region1/rack3", "~/region1", "~/region1/rack1", "~/region1/rack1,/region2/rack2"));
+        scopes.addAll(Arrays.asList(RACKS));
+        for (BookieNode node : nodes) {
+            scopes.add(NodeBase.getPath(node));
+        }
+        List<Node> excludedNodes = new ArrayList<>();
+        for (BookieNode node : nodes) {
+            if (excludedNodes.size() < nodes.size() / 3) {
+                excludedNodes.add(node);
+            }
+        }
+        for (String scope : scopes) {
+            assertEquals("Leaves of " + scope, leavesOfTheTree(scope), topology.getLeaves(scope));
+            if (!scope.startsWith(NetworkTopologyImpl.INVERSE) && topology.getNode(scope) instanceof BookieNode) {
+                // the leaves are only counted under an inner node
+                continue;
+            }
+            String countScope = scope.contains(NetworkTopologyImpl.NODE_SEPARATOR) ? "~/region1/rack1" : scope;
+            assertEquals("Available nodes of " + countScope, availableNodesOfTheTree(countScope, excludedNodes),
+                    topology.countNumOfAvailableNodes(countScope, excludedNodes));
+            assertEquals("Available nodes of " + countScope,
+                    availableNodesOfTheTree(countScope, Collections.emptySet()),
+                    topology.countNumOfAvailableNodes(countScope, Collections.emptySet()));
+        }
+        assertEquals(topology.getNumOfLeaves(), topology.getLeaves(NodeBase.ROOT).size());
+    }
+
+    @Test
+    public void testSnapshotMatchesTheTree() {
+        List<BookieNode> nodes = addNodes(20);
+        assertSnapshotMatchesTheTree(nodes);
+        assertEquals(RACKS.length, topology.getNumOfRacks());
+        assertEquals(20, topology.getLeaves(NodeBase.ROOT).size());
+        assertEquals(5, topology.getLeaves("/region1/rack1").size());
+        assertEquals(10, topology.getLeaves("~/region1").size());
+    }
+
+    @Test
+    public void testSnapshotIsRebuiltWhenNodesJoinAndLeave() {
+        assertTrue(topology.getLeaves(NodeBase.ROOT).isEmpty());
+        assertEquals(0, topology.getNumOfRacks());
+
+        List<BookieNode> nodes = addNodes(8);
+        Set<Node> leavesBefore = topology.getLeaves(NodeBase.ROOT);
+        assertEquals(8, leavesBefore.size());
+
+        // a joining node is visible right away, in its rack and in the new rack count
+        BookieNode joined = newNode("/region3/rack1", 100);
+        topology.add(joined);
+        nodes.add(joined);
+        assertEquals(Collections.singleton(joined), topology.getLeaves("/region3/rack1"));
+        assertEquals(RACKS.length + 1, topology.getNumOfRacks());
+        assertSnapshotMatchesTheTree(nodes);
+        // the leaves returned before the change are an unmodified snapshot
+        assertEquals(8, leavesBefore.size());
+
+        // a leaving node is not returned anymore, and its empty rack is not counted
+        topology.remove(joined);
+        nodes.remove(joined);
+        assertTrue(topology.getLeaves("/region3/rack1").isEmpty());
+        assertEquals(RACKS.length, topology.getNumOfRacks());
+        assertSnapshotMatchesTheTree(nodes);
+
+        for (BookieNode node : new ArrayList<>(nodes)) {
+            topology.remove(node);
+            nodes.remove(node);
+            assertSnapshotMatchesTheTree(nodes);
+        }
+        assertTrue(topology.getLeaves(NodeBase.ROOT).isEmpty());
+        assertEquals(0, topology.getNumOfRacks());
+    }
+
+    @Test
+    public void testSnapshotIsRebuiltAtTheEndOfABatch() {
+        List<BookieNode> nodes = addNodes(4);
+
+        topology.beginUpdate();
+        BookieNode joined = newNode("/region3/rack1", 100);
+        topology.add(joined);
+        topology.remove(nodes.get(0));
+        // nested batches are only published at the end of the outermost one
+        topology.beginUpdate();
+        BookieNode joined2 = newNode("/region3/rack1", 101);
+        topology.add(joined2);
+        topology.endUpdate();
+        assertEquals(new HashSet<>(nodes), topology.getLeaves(NodeBase.ROOT));
+        assertEquals(RACKS.length, topology.getNumOfRacks());
+
+        topology.endUpdate();
+        nodes.remove(0);
+        nodes.add(joined);
+        nodes.add(joined2);
+        assertEquals(new HashSet<>(nodes), topology.getLeaves(NodeBase.ROOT));
+        assertEquals(RACKS.length, topology.getNumOfRacks());
+        assertSnapshotMatchesTheTree(nodes);
+
+        // an unbalanced end of batch does not prevent the next changes from being published
+        topology.endUpdate();
+        BookieNode joined3 = newNode("/region3/rack2", 102);
+        topology.add(joined3);
+        nodes.add(joined3);
+        assertSnapshotMatchesTheTree(nodes);
+        assertEquals(RACKS.length + 1, topology.getNumOfRacks());
+    }
+}
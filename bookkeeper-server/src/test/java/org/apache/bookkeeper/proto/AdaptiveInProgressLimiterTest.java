@@ -0,0 +1,178 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link AdaptiveInProgressLimiter}.
+ */
+public class AdaptiveInProgressLimiterTest {
+
+    private static final long TARGET_LATENCY_MS = 200;
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2 * TARGET_LATENCY_MS);
+
+    private static AdaptiveInProgressLimiter newLimiter(int initialLimit, int minLimit, int maxLimit) {
+        return new AdaptiveInProgressLimiter(initialLimit, minLimit, maxLimit, TARGET_LATENCY_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static void acquire(AdaptiveInProgressLimiter limiter, int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+    }
+
+    @Test
+    public void testLimitOnlyGrowsWhenUsed() {
+        AdaptiveInProgressLimiter limiter = newLimiter(10, 1, 100);
+
+        // a single request in progress doesn't use the limit
+        for (int i = 0; i < 100; i++) {
+            acquire(limiter, 1);
+            limiter.release(FAST);
+        }
+        assertEquals(10, limiter.getLimit());
+
+        // with at least half of the limit in progress, the limit grows by one every limit requests
+        acquire(limiter, 10);
+        assertFalse(limiter.tryAcquire());
+        int releases = 0;
+        while (limiter.getLimit() == 10 && releases < 100) {
+            limiter.release(FAST);
+            acquire(limiter, 1);
+            releases++;
+        }
+        assertEquals(11, limiter.getLimit());
+        assertTrue(releases >= 10 && releases <= 11);
+        assertTrue(limiter.tryAcquire());
+        assertEquals(11, limiter.getInProgress());
+
+        // the limit never grows past the max limit
+        AdaptiveInProgressLimiter bounded = newLimiter(10, 1, 10);
+        acquire(bounded, 10);
+        for (int i = 0; i < 100; i++) {
+            bounded.release(FAST);
+            acquire(bounded, 1);
+        }
+        assertEquals(10, bounded.getLimit());
+    }
+
+    @Test
+    public void testBackoffOncePerPeriod() throws Exception {
+        AdaptiveInProgressLimiter limiter = newLimiter(100, 50, 100);
+        acquire(limiter, 100);
+
+        // a burst of slow requests shrinks the limit once
+        for (int i = 0; i < 50; i++) {
+            limiter.release(SLOW);
+        }
+        assertEquals(90, limiter.getLimit());
+        assertEquals(50, limiter.getInProgress());
+
+        // slow requests completing after the period shrink it again, down to the min limit
+        for (int i = 0; i < 20; i++) {
+            limiter.release(-1L);
+        }
+        for (int i = 0; i < 10; i++) {
+            Thread.sleep(TARGET_LATENCY_MS + 50);
+            acquire(limiter, 1);
+            limiter.release(SLOW);
+        }
+        assertEquals(50, limiter.getLimit());
+
+        // requests not accounted for the limit don't shrink it
+        AdaptiveInProgressLimiter other = newLimiter(100, 1, 100);
+        acquire(other, 10);
+        for (int i = 0; i < 10; i++) {
+            other.release(-1L);
+        }
+        assertEquals(100, other.getLimit());
+        assertEquals(0, other.getInProgress());
+    }
+
+    @Test
+    public void testOverloadSignalShrinksTheLimit() throws Exception {
+        AtomicBoolean overloaded = new AtomicBoolean(true);
+        AtomicInteger samples = new AtomicInteger();
+        AdaptiveInProgressLimiter limiter = new AdaptiveInProgressLimiter(100, 1, 100, TARGET_LATENCY_MS,
+                TimeUnit.MILLISECONDS, () -> {
+                    samples.incrementAndGet();
+                    return overloaded.get();
+                });
+        acquire(limiter, 100);
+
+        // fast requests shrink the limit while the signal is raised, once per period
+        for (int i = 0; i < 10; i++) {
+            limiter.release(FAST);
+        }
+        assertEquals(90, limiter.getLimit());
+        assertEquals(10, samples.get());
+
+        // requests not accounted for the limit don't sample the signal
+        limiter.release(-1L);
+        assertEquals(10, samples.get());
+
+        // the limit grows back once the signal is cleared
+        overloaded.set(false);
+        for (int i = 0; i < 100 && limiter.getLimit() == 90; i++) {
+            limiter.release(FAST);
+            acquire(limiter, 1);
+        }
+        assertEquals(91, limiter.getLimit());
+    }
+
+    @Test
+    public void testPriorityRequestsBypassTheLimit() throws Exception {
+        AdaptiveInProgressLimiter limiter = newLimiter(2, 1, 2);
+        acquire(limiter, 2);
+        assertFalse(limiter.tryAcquire());
+
+        limiter.acquirePriority();
+        limiter.acquirePriority();
+        assertEquals(4, limiter.getInProgress());
+
+        // priority requests are counted, so regular requests wait for them too
+        CompletableFuture<Void> waiter = CompletableFuture.runAsync(limiter::acquireUninterruptibly);
+        try {
+            waiter.get(100, TimeUnit.MILLISECONDS);
+            throw new AssertionError("The request should wait for the limit");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        limiter.release(-1L);
+        limiter.release(-1L);
+        assertFalse(waiter.isDone());
+        limiter.release(-1L);
+        waiter.get(10, TimeUnit.SECONDS);
+        assertEquals(2, limiter.getInProgress());
+    }
+}
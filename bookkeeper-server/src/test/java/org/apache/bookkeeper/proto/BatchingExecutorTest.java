@@ -0,0 +1,158 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link BatchingExecutor}.
+ */
+public class BatchingExecutorTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final ExecutorService thread = Executors.newSingleThreadExecutor();
+    private final AtomicInteger numSubmissions = new AtomicInteger();
+    private final Executor countingExecutor = task -> {
+        numSubmissions.incrementAndGet();
+        thread.execute(task);
+    };
+    private final BatchingExecutor executor = new BatchingExecutor(countingExecutor);
+
+    @After
+    public void tearDown() {
+        thread.shutdownNow();
+    }
+
+    /**
+     * Block the thread of the executor until the returned latch is released.
+     */
+    private CountDownLatch blockThread() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        thread.execute(() -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(blocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private void awaitTasks() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(done::countDown);
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testBurstIsSubmittedOnce() throws Exception {
+        CountDownLatch release = blockThread();
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 100; i++) {
+            int task = i;
+            executor.execute(() -> executed.add(task));
+        }
+        assertEquals(1, numSubmissions.get());
+
+        release.countDown();
+        awaitTasks();
+        assertEquals(100, executed.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, executed.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void testLargeBurstIsSplitInBatches() throws Exception {
+        CountDownLatch release = blockThread();
+        AtomicInteger executed = new AtomicInteger();
+        int numTasks = 3000;
+        for (int i = 0; i < numTasks; i++) {
+            executor.execute(executed::incrementAndGet);
+        }
+        assertEquals(1, numSubmissions.get());
+
+        release.countDown();
+        awaitTasks();
+        assertEquals(numTasks, executed.get());
+        // the batches are bounded, so that the other tasks of the thread are not starved
+        assertTrue(numSubmissions.get() >= 3);
+    }
+
+    @Test
+    public void testTasksAreSubmittedAgainOnceIdle() throws Exception {
+        awaitTasks();
+        int submissions = numSubmissions.get();
+        awaitTasks();
+        assertEquals(submissions + 1, numSubmissions.get());
+    }
+
+    @Test
+    public void testFailedTaskDoesNotStopTheBatch() throws Exception {
+        CountDownLatch release = blockThread();
+        AtomicInteger executed = new AtomicInteger();
+        executor.execute(executed::incrementAndGet);
+        executor.execute(() -> {
+            throw new IllegalStateException("injected");
+        });
+        executor.execute(executed::incrementAndGet);
+
+        release.countDown();
+        awaitTasks();
+        assertEquals(2, executed.get());
+    }
+
+    @Test
+    public void testRejectedWhenTheExecutorIsShutDown() throws Exception {
+        thread.shutdown();
+        assertTrue(thread.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        AtomicInteger executed = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            try {
+                executor.execute(executed::incrementAndGet);
+                fail("The task should be rejected by the shut down executor");
+            } catch (RejectedExecutionException e) {
+                // expected, and the task is not left queued
+            }
+        }
+        assertEquals(2, numSubmissions.get());
+        assertEquals(0, executed.get());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link FairReadScheduler}.
+ */
+public class FairReadSchedulerTest {
+
+    private static final int NUM_THREADS = 4;
+
+    private OrderedExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = OrderedExecutor.newBuilder().name("fair-read-test").numThreads(NUM_THREADS).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testWorkersArePinnedToDistinctThreads() throws Exception {
+        FairReadScheduler scheduler = new FairReadScheduler(executor, NUM_THREADS, 100, 1000,
+                1, TimeUnit.MILLISECONDS, false);
+        CountDownLatch allRunning = new CountDownLatch(NUM_THREADS);
+        CountDownLatch release = new CountDownLatch(1);
+        Set<Thread> threads = Collections.synchronizedSet(new HashSet<>());
+        for (long ledgerId = 0; ledgerId < NUM_THREADS; ledgerId++) {
+            scheduler.execute(ledgerId, () -> {
+                threads.add(Thread.currentThread());
+                allRunning.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        // the reads of distinct ledgers block concurrently, one on each thread of the executor
+        assertTrue(allRunning.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        assertEquals(NUM_THREADS, threads.size());
+    }
+
+    @Test
+    public void testPendingReadsAreBoundedOverall() throws Exception {
+        FairReadScheduler scheduler = new FairReadScheduler(executor, 1, 100, 3, 1, TimeUnit.MILLISECONDS, false);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        scheduler.execute(0L, () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+
+        // the read being served is not pending anymore, three more reads of distinct ledgers can wait
+        for (long ledgerId = 1; ledgerId <= 3; ledgerId++) {
+            scheduler.execute(ledgerId, done::countDown);
+        }
+        try {
+            scheduler.execute(4L, done::countDown);
+            fail("The read should be rejected when too many reads are pending");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // the served reads free their slots
+        CountDownLatch accepted = new CountDownLatch(1);
+        scheduler.execute(4L, accepted::countDown);
+        assertTrue(accepted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPendingReadsAreBoundedPerLedger() throws Exception {
+        FairReadScheduler scheduler = new FairReadScheduler(executor, 1, 2, 100, 1, TimeUnit.MILLISECONDS, false);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.execute(0L, () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+
+        scheduler.execute(1L, () -> { });
+        scheduler.execute(1L, () -> { });
+        try {
+            scheduler.execute(1L, () -> { });
+            fail("The read should be rejected when too many reads of the ledger are pending");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        // other ledgers are not affected
+        scheduler.execute(2L, () -> { });
+        release.countDown();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.LedgerStorage;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.GetBookieInfoRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.GetBookieInfoResponse;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Unit test of the load reported by {@link GetBookieInfoProcessorV3}.
+ */
+public class GetBookieInfoProcessorV3Test {
+
+    private final Channel channel = mock(Channel.class);
+    private final BookieRequestHandler requestHandler = mock(BookieRequestHandler.class);
+    private final BookieRequestProcessor requestProcessor = mock(BookieRequestProcessor.class);
+    private final RequestStats requestStats = new RequestStats(NullStatsLogger.INSTANCE);
+
+    @Before
+    public void setUp() throws Exception {
+        ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        when(ctx.channel()).thenReturn(channel);
+        when(requestHandler.ctx()).thenReturn(ctx);
+        when(channel.isActive()).thenReturn(true);
+        when(channel.isWritable()).thenReturn(true);
+        when(channel.writeAndFlush(any())).thenReturn(mock(ChannelFuture.class));
+
+        Bookie bookie = mock(Bookie.class);
+        when(bookie.getTotalFreeSpace()).thenReturn(100L);
+        when(bookie.getTotalDiskSpace()).thenReturn(200L);
+        when(bookie.getJournalQueueLength()).thenReturn(7);
+        LedgerStorage ledgerStorage = mock(LedgerStorage.class);
+        when(ledgerStorage.getWriteCacheUsagePercent()).thenReturn(42);
+        when(bookie.getLedgerStorage()).thenReturn(ledgerStorage);
+
+        when(requestProcessor.getBookie()).thenReturn(bookie);
+        when(requestProcessor.getRequestStats()).thenReturn(requestStats);
+        when(requestProcessor.getWaitTimeoutOnBackpressureMillis()).thenReturn(-1L);
+    }
+
+    private GetBookieInfoResponse getBookieInfo(long requested) {
+        Request request = Request.newBuilder()
+                .setHeader(BKPacketHeader.newBuilder()
+                        .setVersion(ProtocolVersion.VERSION_THREE)
+                        .setOperation(OperationType.GET_BOOKIE_INFO)
+                        .setTxnId(1L))
+                .setGetBookieInfoRequest(GetBookieInfoRequest.newBuilder().setRequested(requested))
+                .build();
+        new GetBookieInfoProcessorV3(request, requestHandler, requestProcessor).run();
+
+        ArgumentCaptor<Object> response = ArgumentCaptor.forClass(Object.class);
+        verify(channel).writeAndFlush(response.capture());
+        GetBookieInfoResponse getBookieInfoResponse = ((Response) response.getValue()).getGetBookieInfoResponse();
+        assertEquals(StatusCode.EOK, getBookieInfoResponse.getStatus());
+        return getBookieInfoResponse;
+    }
+
+    @Test
+    public void testLoadIsReportedWhenRequested() {
+        for (int i = 0; i < 100; i++) {
+            requestStats.getAddRequestStats().registerSuccessfulEvent(1000, TimeUnit.MICROSECONDS);
+            requestStats.getReadRequestStats().registerSuccessfulEvent(100, TimeUnit.MICROSECONDS);
+        }
+
+        GetBookieInfoResponse response = getBookieInfo(GetBookieInfoRequest.Flags.TOTAL_DISK_CAPACITY_VALUE
+                | GetBookieInfoRequest.Flags.FREE_DISK_SPACE_VALUE | GetBookieInfoRequest.Flags.LOAD_VALUE);
+        assertEquals(200L, response.getTotalDiskCapacity());
+        assertEquals(100L, response.getFreeDiskSpace());
+        assertEquals(7L, response.getJournalQueueLength());
+        // the latencies are reported as the upper bound of their power of two bucket
+        assertEquals(1024L, response.getAddLatencyP99Micros());
+        assertEquals(128L, response.getReadLatencyP99Micros());
+        assertEquals(42, response.getWriteCacheUsagePercent());
+    }
+
+    @Test
+    public void testLoadIsReportedWithoutRecentRequests() {
+        GetBookieInfoResponse response = getBookieInfo(GetBookieInfoRequest.Flags.LOAD_VALUE);
+        assertFalse(response.hasFreeDiskSpace());
+        assertFalse(response.hasTotalDiskCapacity());
+        assertEquals(7L, response.getJournalQueueLength());
+        assertTrue(response.hasAddLatencyP99Micros());
+        assertEquals(0L, response.getAddLatencyP99Micros());
+        assertEquals(0L, response.getReadLatencyP99Micros());
+    }
+
+    @Test
+    public void testLoadIsNotReportedUnlessRequested() {
+        GetBookieInfoResponse response = getBookieInfo(GetBookieInfoRequest.Flags.TOTAL_DISK_CAPACITY_VALUE
+                | GetBookieInfoRequest.Flags.FREE_DISK_SPACE_VALUE);
+        assertEquals(200L, response.getTotalDiskCapacity());
+        assertEquals(100L, response.getFreeDiskSpace());
+        assertFalse(response.hasJournalQueueLength());
+        assertFalse(response.hasAddLatencyP99Micros());
+        assertFalse(response.hasReadLatencyP99Micros());
+        assertFalse(response.hasWriteCacheUsagePercent());
+    }
+}
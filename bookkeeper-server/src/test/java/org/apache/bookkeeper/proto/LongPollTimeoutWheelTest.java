@@ -0,0 +1,166 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.util.HashedWheelTimer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.common.util.MathUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link LongPollTimeoutWheel}.
+ */
+public class LongPollTimeoutWheelTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final long TICK_MS = 10;
+    private static final int NUM_BUCKETS = 8;
+
+    private HashedWheelTimer timer;
+    private LongPollTimeoutWheel wheel;
+
+    @Before
+    public void setUp() {
+        timer = new HashedWheelTimer(1, TimeUnit.MILLISECONDS);
+        wheel = new LongPollTimeoutWheel(timer, TICK_MS, TimeUnit.MILLISECONDS, NUM_BUCKETS);
+    }
+
+    @After
+    public void tearDown() {
+        wheel.stop();
+        timer.stop();
+    }
+
+    /**
+     * Request recording the time it expired at.
+     */
+    private static class Request implements LongPollTimeoutWheel.Expirable {
+        private final CountDownLatch expired = new CountDownLatch(1);
+        private final AtomicInteger numExpirations = new AtomicInteger();
+        private volatile long expiredNanos;
+
+        @Override
+        public void expire() {
+            expiredNanos = MathUtils.nowInNano();
+            numExpirations.incrementAndGet();
+            expired.countDown();
+        }
+
+        boolean awaitExpired() throws InterruptedException {
+            return expired.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testRequestExpiresAfterItsDelay() throws Exception {
+        long startNanos = MathUtils.nowInNano();
+        Request request = new Request();
+        LongPollTimeoutWheel.Waiter waiter = wheel.add(request, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(request.awaitExpired());
+        assertTrue(request.expiredNanos - startNanos >= TimeUnit.MILLISECONDS.toNanos(100));
+        // an expired request cannot be removed anymore
+        assertFalse(wheel.remove(waiter));
+        assertEquals(1, request.numExpirations.get());
+    }
+
+    @Test
+    public void testRemovedRequestDoesNotExpire() throws Exception {
+        Request removed = new Request();
+        LongPollTimeoutWheel.Waiter waiter = wheel.add(removed, 50, TimeUnit.MILLISECONDS);
+        assertTrue(wheel.remove(waiter));
+        assertFalse(wheel.remove(waiter));
+
+        // a request added after the removed one, with the same deadline, still expires
+        Request other = new Request();
+        wheel.add(other, 50, TimeUnit.MILLISECONDS);
+        assertTrue(other.awaitExpired());
+        Thread.sleep(2 * TICK_MS);
+        assertEquals(0, removed.numExpirations.get());
+    }
+
+    @Test
+    public void testDelayLongerThanTheWheel() throws Exception {
+        // the wheel spans 8 ticks of 10ms, a request waiting longer stays in its bucket for several rounds
+        long delayMs = 4 * NUM_BUCKETS * TICK_MS;
+        long startNanos = MathUtils.nowInNano();
+        Request request = new Request();
+        wheel.add(request, delayMs, TimeUnit.MILLISECONDS);
+
+        assertTrue(request.awaitExpired());
+        assertTrue(request.expiredNanos - startNanos >= TimeUnit.MILLISECONDS.toNanos(delayMs));
+        assertEquals(1, request.numExpirations.get());
+    }
+
+    @Test
+    public void testRequestsExpireInTheOrderOfTheirDeadlines() throws Exception {
+        List<Request> requests = new ArrayList<>();
+        List<LongPollTimeoutWheel.Waiter> waiters = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Request request = new Request();
+            requests.add(request);
+            waiters.add(wheel.add(request, (i + 1) * 2 * TICK_MS, TimeUnit.MILLISECONDS));
+        }
+        // remove every other request, as done when the LAC is advanced before the deadline
+        for (int i = 0; i < requests.size(); i += 2) {
+            assertTrue(wheel.remove(waiters.get(i)));
+        }
+
+        for (int i = 1; i < requests.size(); i += 2) {
+            assertTrue(requests.get(i).awaitExpired());
+            if (i > 1) {
+                assertTrue(requests.get(i).expiredNanos >= requests.get(i - 2).expiredNanos);
+            }
+        }
+        for (int i = 0; i < requests.size(); i += 2) {
+            assertEquals(0, requests.get(i).numExpirations.get());
+        }
+    }
+
+    @Test
+    public void testFailedExpirationDoesNotStopTheWheel() throws Exception {
+        wheel.add(() -> {
+            throw new IllegalStateException("injected");
+        }, TICK_MS, TimeUnit.MILLISECONDS);
+        Request request = new Request();
+        wheel.add(request, 5 * TICK_MS, TimeUnit.MILLISECONDS);
+        assertTrue(request.awaitExpired());
+    }
+
+    @Test
+    public void testStoppedWheelDoesNotExpireRequests() throws Exception {
+        Request request = new Request();
+        wheel.add(request, 5 * TICK_MS, TimeUnit.MILLISECONDS);
+        wheel.stop();
+        Thread.sleep(20 * TICK_MS);
+        assertEquals(0, request.numExpirations.get());
+    }
+}
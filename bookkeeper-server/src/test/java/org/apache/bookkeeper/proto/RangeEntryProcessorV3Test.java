@@ -0,0 +1,293 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.protobuf.ByteString;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.BKPacketHeader;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.ProtocolVersion;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.RangeAddRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.RangeReadRequest;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Request;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.Response;
+import org.apache.bookkeeper.proto.BookkeeperProtocol.StatusCode;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Unit test of {@link RangeReadEntryProcessorV3} and {@link RangeAddEntryProcessorV3}.
+ */
+public class RangeEntryProcessorV3Test {
+
+    private static final long LEDGER_ID = 1234L;
+    private static final long MAX_RANGE_READ_SIZE = 1000L;
+    private static final byte[] MASTER_KEY = "master-key".getBytes();
+
+    private Bookie bookie;
+    private BookieRequestProcessor requestProcessor;
+    private BookieRequestHandler requestHandler;
+    private Channel channel;
+
+    @Before
+    public void setup() {
+        bookie = mock(Bookie.class);
+        requestProcessor = mock(BookieRequestProcessor.class);
+        when(requestProcessor.getBookie()).thenReturn(bookie);
+        when(requestProcessor.getRequestStats()).thenReturn(new RequestStats(NullStatsLogger.INSTANCE));
+        when(requestProcessor.getMaxRangeReadSize()).thenReturn(MAX_RANGE_READ_SIZE);
+        when(requestProcessor.getWaitTimeoutOnBackpressureMillis()).thenReturn(-1L);
+
+        channel = mock(Channel.class);
+        when(channel.isActive()).thenReturn(true);
+        when(channel.isWritable()).thenReturn(true);
+        ChannelFuture future = mock(ChannelFuture.class);
+        when(channel.writeAndFlush(any())).thenReturn(future);
+        ChannelHandlerContext ctx = mock(ChannelHandlerContext.class);
+        when(ctx.channel()).thenReturn(channel);
+        requestHandler = mock(BookieRequestHandler.class);
+        when(requestHandler.ctx()).thenReturn(ctx);
+    }
+
+    private static ByteBuf entry(long entryId, int size) {
+        ByteBuf entry = Unpooled.buffer(size);
+        entry.writeLong(LEDGER_ID);
+        entry.writeLong(entryId);
+        entry.writeZero(size - 16);
+        return entry;
+    }
+
+    private static Request rangeReadRequest(long firstEntryId, long lastEntryId) {
+        return Request.newBuilder()
+                .setHeader(BKPacketHeader.newBuilder()
+                        .setVersion(ProtocolVersion.VERSION_THREE)
+                        .setOperation(OperationType.RANGE_READ_ENTRY)
+                        .setTxnId(1L))
+                .setRangeReadRequest(RangeReadRequest.newBuilder()
+                        .setLedgerId(LEDGER_ID)
+                        .setFirstEntryId(firstEntryId)
+                        .setLastEntryId(lastEntryId))
+                .build();
+    }
+
+    private static Request rangeAddRequest(int priority, List<ByteBuf> entries) {
+        RangeAddRequest.Builder rangeAddRequest = RangeAddRequest.newBuilder()
+                .setLedgerId(LEDGER_ID)
+                .setMasterKey(ByteString.copyFrom(MASTER_KEY));
+        for (ByteBuf entry : entries) {
+            rangeAddRequest.addEntries(ByteString.copyFrom(entry.nioBuffer()));
+        }
+        return Request.newBuilder()
+                .setHeader(BKPacketHeader.newBuilder()
+                        .setVersion(ProtocolVersion.VERSION_THREE)
+                        .setOperation(OperationType.RANGE_ADD_ENTRY)
+                        .setTxnId(1L)
+                        .setPriority(priority))
+                .setRangeAddRequest(rangeAddRequest)
+                .build();
+    }
+
+    private static List<ByteBuf> entries(int numEntries, int size) {
+        List<ByteBuf> entries = new ArrayList<>();
+        for (int i = 0; i < numEntries; i++) {
+            entries.add(entry(i, size));
+        }
+        return entries;
+    }
+
+    private Response runAndGetResponse(Runnable processor) {
+        processor.run();
+        ArgumentCaptor<Object> response = ArgumentCaptor.forClass(Object.class);
+        verify(channel).writeAndFlush(response.capture());
+        return (Response) response.getValue();
+    }
+
+    private void readEntriesOfSize(int size) throws Exception {
+        when(bookie.readEntry(eq(LEDGER_ID), anyLong()))
+                .thenAnswer(invocation -> entry(invocation.getArgument(1), size));
+    }
+
+    @Test
+    public void testRangeReadStopsBeforeMaxSize() throws Exception {
+        // 3 entries fit in the max size, the 4th one would take the response past it
+        readEntriesOfSize(300);
+        Response response = runAndGetResponse(
+                new RangeReadEntryProcessorV3(rangeReadRequest(0, 9), requestHandler, requestProcessor));
+
+        assertEquals(StatusCode.EOK, response.getStatus());
+        assertEquals(3, response.getRangeReadResponse().getEntriesCount());
+        verify(bookie, times(4)).readEntry(eq(LEDGER_ID), anyLong());
+        verify(requestProcessor).onReadRequestStart(channel, false);
+        verify(requestProcessor).onReadRequestFinish(anyLong());
+    }
+
+    @Test
+    public void testRangeReadReturnsFirstEntryLargerThanMaxSize() throws Exception {
+        readEntriesOfSize((int) MAX_RANGE_READ_SIZE + 1);
+        Response response = runAndGetResponse(
+                new RangeReadEntryProcessorV3(rangeReadRequest(5, 9), requestHandler, requestProcessor));
+
+        assertEquals(StatusCode.EOK, response.getStatus());
+        assertEquals(1, response.getRangeReadResponse().getEntriesCount());
+        assertEquals(5, response.getRangeReadResponse().getFirstEntryId());
+    }
+
+    @Test
+    public void testRangeReadStopsAtMissingEntry() throws Exception {
+        readEntriesOfSize(100);
+        when(bookie.readEntry(LEDGER_ID, 2L)).thenThrow(new Bookie.NoEntryException(LEDGER_ID, 2L));
+        Response response = runAndGetResponse(
+                new RangeReadEntryProcessorV3(rangeReadRequest(0, 4), requestHandler, requestProcessor));
+
+        // the entries before the missing one are returned, the reader falls back to single reads for the others
+        assertEquals(StatusCode.EOK, response.getStatus());
+        assertEquals(2, response.getRangeReadResponse().getEntriesCount());
+        verify(bookie, never()).readEntry(LEDGER_ID, 3L);
+    }
+
+    @Test
+    public void testRangeReadOfMissingFirstEntry() throws Exception {
+        when(bookie.readEntry(LEDGER_ID, 0L)).thenThrow(new Bookie.NoEntryException(LEDGER_ID, 0L));
+        Response response = runAndGetResponse(
+                new RangeReadEntryProcessorV3(rangeReadRequest(0, 4), requestHandler, requestProcessor));
+
+        assertEquals(StatusCode.ENOENTRY, response.getStatus());
+        assertEquals(0, response.getRangeReadResponse().getEntriesCount());
+        verify(requestProcessor).onReadRequestFinish(anyLong());
+    }
+
+    @Test
+    public void testRangeReadUnauthorized() throws Exception {
+        when(bookie.readEntry(eq(LEDGER_ID), anyLong()))
+                .thenThrow(new BookieException.BookieUnauthorizedAccessException());
+        Response response = runAndGetResponse(
+                new RangeReadEntryProcessorV3(rangeReadRequest(0, 4), requestHandler, requestProcessor));
+
+        assertEquals(StatusCode.EUA, response.getStatus());
+    }
+
+    private void addEntriesWithResult(int failedEntryIndex, int rc) throws Exception {
+        doAnswer(invocation -> {
+            int index = invocation.getArgument(2);
+            WriteCallback cb = invocation.getArgument(1);
+            cb.writeComplete(index == failedEntryIndex ? rc : BookieProtocol.EOK, LEDGER_ID, index, null, index);
+            return null;
+        }).when(bookie).recoveryAddEntry(any(), any(), any(), any());
+    }
+
+    @Test
+    public void testRangeAdd() throws Exception {
+        addEntriesWithResult(-1, BookieProtocol.EOK);
+        Response response = runAndGetResponse(new RangeAddEntryProcessorV3(
+                rangeAddRequest(0, entries(4, 100)), requestHandler, requestProcessor));
+
+        assertEquals(StatusCode.EOK, response.getStatus());
+        assertEquals(4, response.getRangeAddResponse().getNumEntriesAdded());
+        verify(requestProcessor).onAddRequestStart(channel, false);
+        verify(requestProcessor).onAddRequestFinish(anyLong());
+    }
+
+    @Test
+    public void testRangeAddToFencedLedger() throws Exception {
+        // the entries are copied with recovery add semantics, so that they can be added to a fenced ledger
+        addEntriesWithResult(-1, BookieProtocol.EOK);
+        doThrow(new BookieException.LedgerFencedException())
+                .when(bookie).addEntry(any(), anyBoolean(), any(), any(), any());
+        Response response = runAndGetResponse(new RangeAddEntryProcessorV3(
+                rangeAddRequest(0, entries(2, 100)), requestHandler, requestProcessor));
+
+        assertEquals(StatusCode.EOK, response.getStatus());
+        assertEquals(2, response.getRangeAddResponse().getNumEntriesAdded());
+        verify(bookie, never()).addEntry(any(), anyBoolean(), any(), any(), any());
+    }
+
+    @Test
+    public void testRangeAddUnauthorized() throws Exception {
+        doThrow(new BookieException.BookieUnauthorizedAccessException())
+                .when(bookie).recoveryAddEntry(any(), any(), any(), any());
+        Response response = runAndGetResponse(new RangeAddEntryProcessorV3(
+                rangeAddRequest(0, entries(3, 100)), requestHandler, requestProcessor));
+
+        assertEquals(StatusCode.EUA, response.getStatus());
+        assertEquals(0, response.getRangeAddResponse().getNumEntriesAdded());
+        verify(bookie, times(1)).recoveryAddEntry(any(), any(), any(), any());
+    }
+
+    @Test
+    public void testRangeAddFailureInTheMiddle() throws Exception {
+        addEntriesWithResult(2, BookieProtocol.EIO);
+        Response response = runAndGetResponse(new RangeAddEntryProcessorV3(
+                rangeAddRequest(0, entries(4, 100)), requestHandler, requestProcessor));
+
+        assertEquals(StatusCode.EIO, response.getStatus());
+        assertEquals(2, response.getRangeAddResponse().getNumEntriesAdded());
+    }
+
+    @Test
+    public void testRangeAddOnReadOnlyBookie() throws Exception {
+        when(bookie.isReadOnly()).thenReturn(true);
+        when(bookie.isAvailableForHighPriorityWrites()).thenReturn(true);
+        addEntriesWithResult(-1, BookieProtocol.EOK);
+        Response response = runAndGetResponse(new RangeAddEntryProcessorV3(
+                rangeAddRequest(0, entries(2, 100)), requestHandler, requestProcessor));
+
+        assertEquals(StatusCode.EREADONLY, response.getStatus());
+        verify(bookie, never()).recoveryAddEntry(any(), any(), any(), any());
+        verify(requestProcessor).onAddRequestFinish(anyLong());
+    }
+
+    @Test
+    public void testHighPriorityRangeAddOnReadOnlyBookie() throws Exception {
+        // high priority copies are accepted by a read only bookie available for high priority writes
+        when(bookie.isReadOnly()).thenReturn(true);
+        when(bookie.isAvailableForHighPriorityWrites()).thenReturn(true);
+        addEntriesWithResult(-1, BookieProtocol.EOK);
+        Response response = runAndGetResponse(new RangeAddEntryProcessorV3(
+                rangeAddRequest(1, entries(2, 100)), requestHandler, requestProcessor));
+
+        assertEquals(StatusCode.EOK, response.getStatus());
+        verify(requestProcessor).onAddRequestStart(channel, true);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.apache.bookkeeper.proto.RecentLatencyStatsLogger.WINDOW_NANOS;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link RecentLatencyStatsLogger}.
+ */
+public class RecentLatencyStatsLoggerTest {
+
+    private final AtomicLong nanos = new AtomicLong(0L);
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+    private final OpStatsLogger delegate = mock(OpStatsLogger.class);
+    private final RecentLatencyStatsLogger statsLogger = new RecentLatencyStatsLogger(delegate, ticker);
+
+    private void registerEvents(int numEvents, long latency, TimeUnit unit) {
+        for (int i = 0; i < numEvents; i++) {
+            statsLogger.registerSuccessfulEvent(latency, unit);
+        }
+    }
+
+    @Test
+    public void testNoRecentEvent() {
+        assertEquals(0L, statsLogger.getRecentLatencyMicros(0.99));
+        // the failed events are not part of the recent latencies
+        statsLogger.registerFailedEvent(10, TimeUnit.MILLISECONDS);
+        assertEquals(0L, statsLogger.getRecentLatencyMicros(0.99));
+    }
+
+    @Test
+    public void testPercentiles() {
+        registerEvents(99, 100, TimeUnit.MICROSECONDS);
+        registerEvents(1, 10, TimeUnit.MILLISECONDS);
+
+        // the latencies are reported as the upper bound of their power of two bucket
+        assertEquals(128L, statsLogger.getRecentLatencyMicros(0.5));
+        assertEquals(128L, statsLogger.getRecentLatencyMicros(0.99));
+        assertEquals(16384L, statsLogger.getRecentLatencyMicros(1.0));
+
+        registerEvents(100, 10, TimeUnit.DAYS);
+        assertEquals(1L << 39, statsLogger.getRecentLatencyMicros(0.99));
+    }
+
+    @Test
+    public void testEventsAreForwardedToTheDelegate() {
+        statsLogger.registerSuccessfulEvent(5, TimeUnit.MILLISECONDS);
+        statsLogger.registerFailedEvent(6, TimeUnit.MILLISECONDS);
+        statsLogger.registerSuccessfulValue(7);
+        statsLogger.registerFailedValue(8);
+        statsLogger.toOpStatsData();
+        statsLogger.clear();
+
+        verify(delegate).registerSuccessfulEvent(5, TimeUnit.MILLISECONDS);
+        verify(delegate).registerFailedEvent(6, TimeUnit.MILLISECONDS);
+        verify(delegate).registerSuccessfulValue(7);
+        verify(delegate).registerFailedValue(8);
+        verify(delegate).toOpStatsData();
+        verify(delegate).clear();
+    }
+
+    @Test
+    public void testRecentLatenciesDecay() {
+        registerEvents(10, 1000, TimeUnit.MICROSECONDS);
+        assertEquals(1024L, statsLogger.getRecentLatencyMicros(0.99));
+
+        // the events of the previous window are still recent
+        nanos.set(WINDOW_NANOS + 1);
+        assertEquals(1024L, statsLogger.getRecentLatencyMicros(0.99));
+        registerEvents(10, 100, TimeUnit.MICROSECONDS);
+        assertEquals(128L, statsLogger.getRecentLatencyMicros(0.5));
+        assertEquals(1024L, statsLogger.getRecentLatencyMicros(0.99));
+
+        // the events of the window before the previous one are dropped
+        nanos.set(2 * WINDOW_NANOS + 1);
+        assertEquals(128L, statsLogger.getRecentLatencyMicros(0.99));
+        registerEvents(10, 10, TimeUnit.MICROSECONDS);
+        assertEquals(16L, statsLogger.getRecentLatencyMicros(0.5));
+        assertEquals(128L, statsLogger.getRecentLatencyMicros(0.99));
+
+        // after an idle period, none of the events are recent anymore
+        nanos.set(5 * WINDOW_NANOS);
+        assertEquals(0L, statsLogger.getRecentLatencyMicros(0.99));
+        registerEvents(1, 2000, TimeUnit.MICROSECONDS);
+        assertEquals(2048L, statsLogger.getRecentLatencyMicros(0.99));
+    }
+}
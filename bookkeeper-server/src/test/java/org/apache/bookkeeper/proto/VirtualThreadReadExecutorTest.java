@@ -0,0 +1,273 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.LedgerStorage;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+/**
+ * Unit test of {@link VirtualThreadReadExecutor}.
+ */
+public class VirtualThreadReadExecutorTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    // the reads run on platform threads, so that the permits are tested on any JVM
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+    private final CountDownLatch releaseReads = new CountDownLatch(1);
+    private final AtomicInteger completedReads = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        releaseReads.countDown();
+        threads.shutdownNow();
+    }
+
+    private VirtualThreadReadExecutor newExecutor(int numDisks, boolean ledgersMappedToDisks,
+                                                  int maxConcurrentReadsPerDisk, int maxPendingReads) {
+        return new VirtualThreadReadExecutor(threads, numDisks, ledgersMappedToDisks, maxConcurrentReadsPerDisk,
+                maxPendingReads, true);
+    }
+
+    /**
+     * Execute a read which blocks until the reads are released, counting the reads executing concurrently.
+     */
+    private void executeBlockingRead(VirtualThreadReadExecutor executor, long ledgerId, AtomicInteger running) {
+        executor.execute(ledgerId, () -> {
+            running.incrementAndGet();
+            try {
+                releaseReads.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                completedReads.incrementAndGet();
+            }
+        });
+    }
+
+    private static void waitFor(AtomicInteger counter, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (counter.get() < expected) {
+            assertTrue("Timed out waiting for " + expected + " reads", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static int javaFeatureVersion() {
+        String version = System.getProperty("java.specification.version");
+        return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+    }
+
+    @Test
+    public void testIsSupportedFromJava21() {
+        boolean supported = javaFeatureVersion() >= 21;
+        assertEquals(supported, VirtualThreadReadExecutor.isSupported());
+        if (!supported) {
+            // the lookup of the virtual thread methods fails, without failing the class initialization
+            try {
+                new VirtualThreadReadExecutor(1, true, 1, 1, false);
+                fail("Virtual threads should not be available before Java 21");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+        } else {
+            VirtualThreadReadExecutor executor = new VirtualThreadReadExecutor(1, true, 1, 1, false);
+            AtomicReference<Boolean> virtual = new AtomicReference<>();
+            CountDownLatch done = new CountDownLatch(1);
+            executor.execute(1L, () -> {
+                virtual.set(Thread.currentThread().getName().startsWith("BookieReadVirtualThread-"));
+                done.countDown();
+            });
+            try {
+                assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertTrue(virtual.get());
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadsAreCappedPerLedgerDir() throws Exception {
+        VirtualThreadReadExecutor executor = newExecutor(2, true, 2, 100);
+        AtomicInteger runningOnDir0 = new AtomicInteger();
+        AtomicInteger runningOnDir1 = new AtomicInteger();
+        // ledgers 0 and 2 are in the first directory, ledger 1 in the second one
+        for (int i = 0; i < 2; i++) {
+            executeBlockingRead(executor, 0L, runningOnDir0);
+            executeBlockingRead(executor, 2L, runningOnDir0);
+        }
+        executeBlockingRead(executor, 1L, runningOnDir1);
+        executeBlockingRead(executor, 1L, runningOnDir1);
+
+        // the reads of the second directory are not held by the first one being saturated
+        waitFor(runningOnDir0, 2);
+        waitFor(runningOnDir1, 2);
+        Thread.sleep(100);
+        assertEquals(2, runningOnDir0.get());
+
+        releaseReads.countDown();
+        waitFor(completedReads, 6);
+        assertEquals(4, runningOnDir0.get());
+    }
+
+    @Test
+    public void testReadsAreCappedOverallWhenLedgersAreNotMappedToDirs() throws Exception {
+        VirtualThreadReadExecutor executor = newExecutor(2, false, 2, 100);
+        AtomicInteger running = new AtomicInteger();
+        for (int i = 0; i < 6; i++) {
+            executeBlockingRead(executor, 0L, running);
+        }
+
+        // all the directories together allow 2 * 2 reads, whatever the ledger
+        waitFor(running, 4);
+        Thread.sleep(100);
+        assertEquals(4, running.get());
+
+        releaseReads.countDown();
+        waitFor(completedReads, 6);
+    }
+
+    @Test
+    public void testPendingReadsAreBounded() throws Exception {
+        VirtualThreadReadExecutor executor = newExecutor(1, true, 1, 3);
+        AtomicInteger running = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            executeBlockingRead(executor, i, running);
+        }
+        try {
+            executeBlockingRead(executor, 3L, running);
+            fail("The read should be rejected past the max pending reads");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        releaseReads.countDown();
+        waitFor(completedReads, 3);
+        // the completed reads are not pending anymore, once they released their permit
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        for (int i = 0; i < 3; i++) {
+            while (true) {
+                try {
+                    executeBlockingRead(executor, i, running);
+                    break;
+                } catch (RejectedExecutionException e) {
+                    assertTrue("Timed out waiting for the reads to complete", System.nanoTime() < deadline);
+                    Thread.sleep(10);
+                }
+            }
+        }
+        waitFor(completedReads, 6);
+
+        // a read rejected by the shut down executor is not left pending
+        threads.shutdown();
+        assertTrue(threads.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        for (int i = 0; i < 4; i++) {
+            try {
+                executeBlockingRead(executor, i, running);
+                fail("The read should be rejected by the shut down executor");
+            } catch (RejectedExecutionException e) {
+                assertNotEquals("Too many pending reads", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testFailedReadReleasesItsPermit() throws Exception {
+        VirtualThreadReadExecutor executor = newExecutor(1, true, 1, 100);
+        executor.execute(1L, () -> {
+            throw new IllegalStateException("injected");
+        });
+        AtomicReference<String> mdcValue = new AtomicReference<>();
+        MDC.put("test-key", "test-value");
+        try {
+            executor.execute(1L, () -> {
+                mdcValue.set(MDC.get("test-key"));
+                completedReads.incrementAndGet();
+            });
+        } finally {
+            MDC.remove("test-key");
+        }
+        waitFor(completedReads, 1);
+        assertEquals("test-value", mdcValue.get());
+    }
+
+    @Test
+    public void testVirtualThreadsTakePrecedenceOverTheFairScheduler() throws Exception {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setNumReadWorkerThreads(2);
+        conf.setReadWorkerFairSchedulingEnabled(true);
+        conf.setReadWorkerVirtualThreadsEnabled(true);
+        Bookie bookie = mock(Bookie.class);
+        LedgerStorage ledgerStorage = mock(LedgerStorage.class);
+        when(ledgerStorage.getNumLedgerDirsMappedByLedgerId()).thenReturn(2);
+        when(bookie.getLedgerStorage()).thenReturn(ledgerStorage);
+
+        BookieRequestProcessor processor = new BookieRequestProcessor(conf, bookie, NullStatsLogger.INSTANCE, null,
+                UnpooledByteBufAllocator.DEFAULT, null);
+        try {
+            if (VirtualThreadReadExecutor.isSupported()) {
+                assertNotNull(processor.getVirtualThreadReadExecutor());
+                assertNull(processor.getFairReadScheduler());
+            } else {
+                // falls back to the read worker threads, which are scheduled fairly
+                assertNull(processor.getVirtualThreadReadExecutor());
+                assertNotNull(processor.getFairReadScheduler());
+            }
+        } finally {
+            processor.close();
+        }
+
+        conf.setReadWorkerVirtualThreadsEnabled(false);
+        processor = new BookieRequestProcessor(conf, bookie, NullStatsLogger.INSTANCE, null,
+                UnpooledByteBufAllocator.DEFAULT, null);
+        try {
+            assertNull(processor.getVirtualThreadReadExecutor());
+            assertNotNull(processor.getFairReadScheduler());
+        } finally {
+            processor.close();
+        }
+    }
+}
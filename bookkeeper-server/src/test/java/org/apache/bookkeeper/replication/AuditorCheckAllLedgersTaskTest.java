@@ -0,0 +1,399 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.replication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.apache.bookkeeper.client.AsyncCallback.OpenCallback;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.client.BookKeeperAdmin;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRange;
+import org.apache.bookkeeper.meta.LedgerManager.LedgerRangeIterator;
+import org.apache.bookkeeper.meta.LedgerUnderreplicationManager;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link AuditorCheckAllLedgersTask}.
+ */
+public class AuditorCheckAllLedgersTaskTest {
+
+    private static final int NUM_RANGES = 10;
+    private static final int RANGE_SIZE = 10;
+    private static final int NUM_LEDGERS = NUM_RANGES * RANGE_SIZE;
+
+    private final List<AuditorCheckAllLedgersTask> tasks = new ArrayList<>();
+    // the ledgers listed by the ledger manager, with the version of their metadata
+    private final Map<Long, Long> ledgerVersions = new ConcurrentHashMap<>();
+    private final Set<Long> openLedgers = ConcurrentHashMap.newKeySet();
+    private final List<Long> openedLedgers = new CopyOnWriteArrayList<>();
+    private final Set<Long> failingLedgers = ConcurrentHashMap.newKeySet();
+    private final List<Long> persistedCheckpoints = new CopyOnWriteArrayList<>();
+    private final AtomicLong checkpoint = new AtomicLong(-1);
+    private volatile Collection<BookieId> availableBookies =
+            Arrays.asList(BookieId.parse("bookie-1:3181"), BookieId.parse("bookie-2:3181"));
+    private volatile OpenInterceptor openInterceptor = ledgerId -> { };
+
+    private LedgerManager ledgerManager;
+    private LedgerUnderreplicationManager underreplicationManager;
+    private BookKeeperAdmin admin;
+    private BookKeeperAdmin localAdmin;
+
+    private interface OpenInterceptor {
+        void beforeOpen(long ledgerId) throws Exception;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        for (long ledgerId = 0; ledgerId < NUM_LEDGERS; ledgerId++) {
+            ledgerVersions.put(ledgerId, 1L);
+        }
+
+        ledgerManager = mock(LedgerManager.class);
+        when(ledgerManager.getLedgerRanges(anyLong())).thenAnswer(invocation -> newLedgerRangeIterator());
+        when(ledgerManager.readLedgerMetadata(anyLong())).thenAnswer(invocation -> {
+            long ledgerId = invocation.getArgument(0);
+            LedgerMetadata metadata = mock(LedgerMetadata.class);
+            when(metadata.isClosed()).thenReturn(!openLedgers.contains(ledgerId));
+            return CompletableFuture.completedFuture(
+                    new Versioned<>(metadata, new LongVersion(ledgerVersions.get(ledgerId))));
+        });
+
+        underreplicationManager = mock(LedgerUnderreplicationManager.class);
+        when(underreplicationManager.isLedgerReplicationEnabled()).thenReturn(true);
+        when(underreplicationManager.getCheckAllLedgersCheckpoint()).thenAnswer(invocation -> checkpoint.get());
+        doAnswer(invocation -> {
+            long ledgerId = invocation.getArgument(0);
+            persistedCheckpoints.add(ledgerId);
+            checkpoint.set(ledgerId);
+            return null;
+        }).when(underreplicationManager).setCheckAllLedgersCheckpoint(anyLong());
+        doAnswer(invocation -> {
+            checkpoint.set(-1);
+            return null;
+        }).when(underreplicationManager).setCheckAllLedgersCTime(anyLong());
+
+        admin = mock(BookKeeperAdmin.class);
+        when(admin.getAvailableBookies()).thenAnswer(invocation -> new ArrayList<>(availableBookies));
+        when(admin.getReadOnlyBookies()).thenAnswer(invocation -> new ArrayList<>());
+
+        localAdmin = mock(BookKeeperAdmin.class);
+        doAnswer(invocation -> {
+            long ledgerId = invocation.getArgument(0);
+            OpenCallback cb = invocation.getArgument(1);
+            openInterceptor.beforeOpen(ledgerId);
+            openedLedgers.add(ledgerId);
+            if (failingLedgers.contains(ledgerId)) {
+                cb.openComplete(BKException.Code.BookieHandleNotAvailableException, null, null);
+            } else {
+                cb.openComplete(BKException.Code.OK, newLedgerHandle(ledgerId), null);
+            }
+            return null;
+        }).when(localAdmin).asyncOpenLedgerNoRecovery(anyLong(), any(OpenCallback.class), any());
+    }
+
+    @After
+    public void tearDown() {
+        for (AuditorCheckAllLedgersTask task : tasks) {
+            task.shutdown();
+        }
+    }
+
+    private LedgerRangeIterator newLedgerRangeIterator() {
+        // ranges of ledgers in ledger id order, as listed by the ledger manager
+        Iterator<Set<Long>> ranges = new TreeSet<>(ledgerVersions.keySet()).stream()
+                .collect(Collectors.groupingBy(ledgerId -> ledgerId / RANGE_SIZE, TreeMap::new,
+                        Collectors.toCollection(TreeSet::new)))
+                .values().stream().<Set<Long>>map(HashSet::new).iterator();
+        return new LedgerRangeIterator() {
+            @Override
+            public boolean hasNext() {
+                return ranges.hasNext();
+            }
+
+            @Override
+            public LedgerRange next() {
+                if (!ranges.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return new LedgerRange(ranges.next());
+            }
+        };
+    }
+
+    private static LedgerHandle newLedgerHandle(long ledgerId) {
+        LedgerHandle lh = mock(LedgerHandle.class);
+        LedgerMetadata metadata = mock(LedgerMetadata.class);
+        // a ledger without ensembles has no fragment to check
+        doReturn(new TreeMap<Long, List<BookieId>>()).when(metadata).getAllEnsembles();
+        when(lh.getId()).thenReturn(ledgerId);
+        when(lh.getLedgerMetadata()).thenReturn(metadata);
+        when(lh.closeAsync()).thenReturn(CompletableFuture.completedFuture(null));
+        return lh;
+    }
+
+    private AuditorCheckAllLedgersTask newTask(int parallelism, boolean skipUnchangedLedgers) throws Exception {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setAuditorCheckAllLedgersParallelism(parallelism);
+        conf.setAuditorCheckAllLedgersSkipUnchangedLedgers(skipUnchangedLedgers);
+        AuditorCheckAllLedgersTask task = new AuditorCheckAllLedgersTask(conf,
+                new AuditorStats(NullStatsLogger.INSTANCE), admin, ledgerManager, underreplicationManager, null,
+                (flag, throwable) -> flag.set(false)) {
+            @Override
+            BookKeeper getBookKeeper(ServerConfiguration conf) {
+                return mock(BookKeeper.class);
+            }
+
+            @Override
+            BookKeeperAdmin getBookKeeperAdmin(BookKeeper bookKeeper) {
+                return localAdmin;
+            }
+        };
+        tasks.add(task);
+        return task;
+    }
+
+    private static Set<Long> ledgers(long firstLedgerId, long endLedgerId) {
+        Set<Long> ledgers = new HashSet<>();
+        for (long ledgerId = firstLedgerId; ledgerId < endLedgerId; ledgerId++) {
+            ledgers.add(ledgerId);
+        }
+        return ledgers;
+    }
+
+    private void assertOpenedOnce(Set<Long> expected) {
+        assertEquals(expected.size(), openedLedgers.size());
+        assertEquals(expected, new HashSet<>(openedLedgers));
+        openedLedgers.clear();
+    }
+
+    @Test
+    public void testRangesAreCheckedByParallelWorkers() throws Exception {
+        int parallelism = 4;
+        CountDownLatch workersStarted = new CountDownLatch(parallelism);
+        AtomicBoolean allWorkersStarted = new AtomicBoolean(true);
+        Set<Thread> workerThreads = ConcurrentHashMap.newKeySet();
+        openInterceptor = ledgerId -> {
+            workerThreads.add(Thread.currentThread());
+            // the first ledger of the first ranges waits for the other workers to start checking their range
+            if (ledgerId % RANGE_SIZE == 0 && ledgerId < parallelism * RANGE_SIZE) {
+                workersStarted.countDown();
+                allWorkersStarted.compareAndSet(true, workersStarted.await(10, TimeUnit.SECONDS));
+            }
+        };
+
+        newTask(parallelism, false).checkAllLedgers();
+
+        assertTrue("The ranges were not checked in parallel", allWorkersStarted.get());
+        assertEquals(parallelism, workerThreads.size());
+        assertOpenedOnce(ledgers(0, NUM_LEDGERS));
+        // the check is over, the checkpoint is cleared
+        assertEquals(-1, checkpoint.get());
+    }
+
+    @Test
+    public void testCheckpointIsPersistedOncePerInterval() throws Exception {
+        // the check completes within the default interval, the checkpoint is never persisted
+        newTask(1, false).checkAllLedgers();
+        assertOpenedOnce(ledgers(0, NUM_LEDGERS));
+        assertEquals(Collections.emptyList(), persistedCheckpoints);
+
+        // the checkpoint moves forward once each range is checked
+        AuditorCheckAllLedgersTask task = newTask(1, false);
+        task.setCheckpointPersistIntervalMs(0);
+        task.checkAllLedgers();
+        assertOpenedOnce(ledgers(0, NUM_LEDGERS));
+        List<Long> expected = new ArrayList<>();
+        for (long lastLedgerId = RANGE_SIZE; lastLedgerId <= NUM_LEDGERS; lastLedgerId += RANGE_SIZE) {
+            expected.add(lastLedgerId);
+        }
+        assertEquals(expected, persistedCheckpoints);
+        assertEquals(-1, checkpoint.get());
+    }
+
+    @Test
+    public void testCheckpointNeverMovesPastAFailedRange() throws Exception {
+        AuditorCheckAllLedgersTask task = newTask(4, false);
+        task.setCheckpointPersistIntervalMs(0);
+        failingLedgers.add(57L);
+        try {
+            task.checkAllLedgers();
+            fail("The check should fail");
+        } catch (BKException e) {
+            // expected
+        }
+
+        // all the ledgers were checked, but the check resumes from the range which failed
+        assertOpenedOnce(ledgers(0, NUM_LEDGERS));
+        assertEquals(50L, checkpoint.get());
+        for (int i = 1; i < persistedCheckpoints.size(); i++) {
+            assertTrue(persistedCheckpoints.get(i) > persistedCheckpoints.get(i - 1));
+        }
+    }
+
+    @Test
+    public void testResumeFromTheCheckpointAfterAnAuditorRestart() throws Exception {
+        AuditorCheckAllLedgersTask task = newTask(2, false);
+        failingLedgers.add(57L);
+        try {
+            task.checkAllLedgers();
+            fail("The check should fail");
+        } catch (BKException e) {
+            // expected
+        }
+        // the checkpoint is persisted when the check fails, whatever the interval
+        assertEquals(50L, checkpoint.get());
+        assertOpenedOnce(ledgers(0, NUM_LEDGERS));
+        task.shutdown();
+        tasks.remove(task);
+
+        // a new auditor only checks the ledgers from the checkpoint
+        failingLedgers.clear();
+        newTask(2, false).checkAllLedgers();
+        assertOpenedOnce(ledgers(50, NUM_LEDGERS));
+        assertEquals(-1, checkpoint.get());
+
+        // and the next check checks all the ledgers
+        newTask(2, false).checkAllLedgers();
+        assertOpenedOnce(ledgers(0, NUM_LEDGERS));
+    }
+
+    @Test
+    public void testUnchangedLedgersAreSkipped() throws Exception {
+        openLedgers.add(7L);
+        AuditorCheckAllLedgersTask task = newTask(2, true);
+        task.checkAllLedgers();
+        assertOpenedOnce(ledgers(0, NUM_LEDGERS));
+        // the open ledger is not recorded
+        assertEquals(NUM_LEDGERS - 1, task.getNumCheckedLedgerVersions());
+
+        // only the open ledger is checked again
+        task.checkAllLedgers();
+        assertOpenedOnce(Collections.singleton(7L));
+
+        // a ledger whose metadata changed is checked again
+        ledgerVersions.put(5L, 2L);
+        task.checkAllLedgers();
+        assertOpenedOnce(new HashSet<>(Arrays.asList(5L, 7L)));
+
+        // the versions of the deleted ledgers are dropped
+        ledgerVersions.remove(99L);
+        ledgerVersions.remove(98L);
+        task.checkAllLedgers();
+        assertOpenedOnce(Collections.singleton(7L));
+        assertEquals(NUM_LEDGERS - 3, task.getNumCheckedLedgerVersions());
+
+        // a ledger whose check failed is checked again
+        failingLedgers.add(11L);
+        ledgerVersions.put(11L, 2L);
+        try {
+            task.checkAllLedgers();
+            fail("The check should fail");
+        } catch (BKException e) {
+            // expected
+        }
+        failingLedgers.clear();
+        openedLedgers.clear();
+        task.checkAllLedgers();
+        assertTrue(openedLedgers.contains(11L));
+    }
+
+    @Test
+    public void testSkippedLedgersAreCheckedAgainWhenBookiesLeave() throws Exception {
+        AuditorCheckAllLedgersTask task = newTask(2, true);
+        task.checkAllLedgers();
+        assertOpenedOnce(ledgers(0, NUM_LEDGERS));
+        task.checkAllLedgers();
+        assertOpenedOnce(Collections.emptySet());
+
+        // a new bookie doesn't affect the replicas of the checked ledgers
+        availableBookies = Arrays.asList(BookieId.parse("bookie-1:3181"), BookieId.parse("bookie-2:3181"),
+                BookieId.parse("bookie-3:3181"));
+        task.checkAllLedgers();
+        assertOpenedOnce(Collections.emptySet());
+
+        // the checked ledgers may have had replicas on the bookie which left
+        availableBookies = Arrays.asList(BookieId.parse("bookie-1:3181"), BookieId.parse("bookie-3:3181"));
+        task.checkAllLedgers();
+        assertOpenedOnce(ledgers(0, NUM_LEDGERS));
+        assertEquals(NUM_LEDGERS, task.getNumCheckedLedgerVersions());
+
+        task.checkAllLedgers();
+        assertOpenedOnce(Collections.emptySet());
+    }
+
+    @Test
+    public void testOnlyTheLedgersAfterTheCheckpointAreSkippedOnResume() throws Exception {
+        AuditorCheckAllLedgersTask task = newTask(1, true);
+        task.checkAllLedgers();
+        assertOpenedOnce(ledgers(0, NUM_LEDGERS));
+
+        // a check resuming from a checkpoint keeps the versions of the ledgers before the checkpoint
+        checkpoint.set(50);
+        ledgerVersions.put(20L, 2L);
+        ledgerVersions.put(70L, 2L);
+        task.checkAllLedgers();
+        assertOpenedOnce(Collections.singleton(70L));
+        assertEquals(NUM_LEDGERS, task.getNumCheckedLedgerVersions());
+
+        task.checkAllLedgers();
+        assertOpenedOnce(Collections.singleton(20L));
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.replication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManager.AllLedgersMetadataListener;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.Processor;
+import org.apache.bookkeeper.replication.ReplicationException.BKAuditException;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of the incremental mode of {@link BookieLedgerIndexer}.
+ */
+public class BookieLedgerIndexerTest {
+
+    private static final String BOOKIE_1 = "bookie-1:3181";
+    private static final String BOOKIE_2 = "bookie-2:3181";
+    private static final String BOOKIE_3 = "bookie-3:3181";
+
+    // the ledgers in the metadata store
+    private final Map<Long, Versioned<LedgerMetadata>> ledgers = new ConcurrentHashMap<>();
+    private final List<AllLedgersMetadataListener> listeners = new ArrayList<>();
+    private final AtomicInteger numScans = new AtomicInteger();
+    private volatile boolean notifyChanges = true;
+    private volatile boolean failReads = false;
+    // invoked once the metadata of a ledger is read by a scan, before it is returned
+    private volatile LongConsumer readInterceptor = ledgerId -> { };
+
+    private LedgerManager ledgerManager;
+
+    @Before
+    public void setUp() {
+        ledgerManager = mock(LedgerManager.class);
+        when(ledgerManager.registerAllLedgersMetadataListener(any())).thenAnswer(invocation -> {
+            if (notifyChanges) {
+                listeners.add(invocation.getArgument(0));
+            }
+            return notifyChanges;
+        });
+        doAnswer(invocation -> {
+            listeners.remove(invocation.<AllLedgersMetadataListener>getArgument(0));
+            return null;
+        }).when(ledgerManager).unregisterAllLedgersMetadataListener(any());
+        when(ledgerManager.readLedgerMetadata(anyLong())).thenAnswer(invocation -> {
+            long ledgerId = invocation.getArgument(0);
+            Versioned<LedgerMetadata> metadata = ledgers.get(ledgerId);
+            readInterceptor.accept(ledgerId);
+            if (failReads) {
+                CompletableFuture<Versioned<LedgerMetadata>> future = new CompletableFuture<>();
+                future.completeExceptionally(new BKException.BKReadException());
+                return future;
+            }
+            if (metadata == null) {
+                CompletableFuture<Versioned<LedgerMetadata>> future = new CompletableFuture<>();
+                future.completeExceptionally(new BKException.BKNoSuchLedgerExistsOnMetadataServerException());
+                return future;
+            }
+            return CompletableFuture.completedFuture(metadata);
+        });
+        doAnswer(invocation -> {
+            Processor<Long> processor = invocation.getArgument(0);
+            VoidCallback finalCb = invocation.getArgument(1);
+            int successRc = invocation.getArgument(3);
+            int failureRc = invocation.getArgument(4);
+            numScans.incrementAndGet();
+            AtomicInteger rc = new AtomicInteger(successRc);
+            for (long ledgerId : new TreeSet<>(ledgers.keySet())) {
+                processor.process(ledgerId, (processRc, path, ctx) -> {
+                    if (processRc != BKException.Code.OK) {
+                        rc.set(failureRc);
+                    }
+                });
+            }
+            finalCb.processResult(rc.get(), null, invocation.getArgument(2));
+            return null;
+        }).when(ledgerManager).asyncProcessLedgers(any(), any(), any(), anyInt(), anyInt());
+    }
+
+    private static Versioned<LedgerMetadata> metadata(long version, String... ensemble) {
+        LedgerMetadata metadata = mock(LedgerMetadata.class);
+        List<BookieId> bookies = new ArrayList<>();
+        for (String bookie : ensemble) {
+            bookies.add(BookieId.parse(bookie));
+        }
+        doReturn(new TreeMap<>(Collections.singletonMap(0L, bookies))).when(metadata).getAllEnsembles();
+        return new Versioned<>(metadata, new LongVersion(version));
+    }
+
+    private static Set<Long> ledgerIds(Long... ledgerIds) {
+        return new HashSet<>(Arrays.asList(ledgerIds));
+    }
+
+    private static Map<String, Set<Long>> copy(Map<String, Set<Long>> index) {
+        Map<String, Set<Long>> copy = new HashMap<>();
+        for (Map.Entry<String, Set<Long>> entry : index.entrySet()) {
+            copy.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private AllLedgersMetadataListener listener() {
+        assertEquals(1, listeners.size());
+        return listeners.get(0);
+    }
+
+    private void notifyChanged(long ledgerId, Versioned<LedgerMetadata> metadata) {
+        if (metadata == null) {
+            ledgers.remove(ledgerId);
+        } else {
+            ledgers.put(ledgerId, metadata);
+        }
+        for (AllLedgersMetadataListener listener : new ArrayList<>(listeners)) {
+            listener.onChanged(ledgerId, metadata);
+        }
+    }
+
+    @Test
+    public void testIndexIsBuiltOnceAndUpdatedFromNotifications() throws Exception {
+        ledgers.put(1L, metadata(1, BOOKIE_1, BOOKIE_2));
+        ledgers.put(2L, metadata(1, BOOKIE_2, BOOKIE_3));
+        BookieLedgerIndexer indexer = new BookieLedgerIndexer(ledgerManager, true);
+
+        Map<String, Set<Long>> index = indexer.getBookieToLedgerIndex();
+        assertEquals(copy(new BookieLedgerIndexer(ledgerManager).getBookieToLedgerIndex()), copy(index));
+        assertEquals(ledgerIds(1L), index.get(BOOKIE_1));
+        assertEquals(ledgerIds(1L, 2L), index.get(BOOKIE_2));
+        assertEquals(ledgerIds(2L), index.get(BOOKIE_3));
+        // one scan for the incremental index, one for the regular one
+        assertEquals(2, numScans.get());
+
+        // the next checks only see the notified changes
+        notifyChanged(3L, metadata(1, BOOKIE_1, BOOKIE_3));
+        index = indexer.getBookieToLedgerIndex();
+        assertEquals(ledgerIds(1L, 3L), index.get(BOOKIE_1));
+        assertEquals(ledgerIds(2L, 3L), index.get(BOOKIE_3));
+        assertEquals(copy(new BookieLedgerIndexer(ledgerManager).getBookieToLedgerIndex()), copy(index));
+        assertEquals(3, numScans.get());
+        verify(ledgerManager, times(1)).registerAllLedgersMetadataListener(any());
+
+        indexer.close();
+        assertEquals(0, listeners.size());
+    }
+
+    @Test
+    public void testUpdatesAreOrderedByVersion() throws Exception {
+        ledgers.put(1L, metadata(2, BOOKIE_1, BOOKIE_2));
+        BookieLedgerIndexer indexer = new BookieLedgerIndexer(ledgerManager, true);
+        indexer.getBookieToLedgerIndex();
+        AllLedgersMetadataListener listener = listener();
+
+        // an older or the same version is ignored
+        listener.onChanged(1L, metadata(1, BOOKIE_3));
+        listener.onChanged(1L, metadata(2, BOOKIE_3));
+        Map<String, Set<Long>> index = indexer.getBookieToLedgerIndex();
+        assertEquals(ledgerIds(1L), index.get(BOOKIE_1));
+        assertEquals(ledgerIds(1L), index.get(BOOKIE_2));
+        assertEquals(null, index.get(BOOKIE_3));
+
+        // a newer version replaces the bookies of the ledger, the bookies left without ledgers are dropped
+        listener.onChanged(1L, metadata(3, BOOKIE_2, BOOKIE_3));
+        index = indexer.getBookieToLedgerIndex();
+        assertEquals(new HashSet<>(Arrays.asList(BOOKIE_2, BOOKIE_3)), index.keySet());
+        assertEquals(ledgerIds(1L), index.get(BOOKIE_2));
+        assertEquals(ledgerIds(1L), index.get(BOOKIE_3));
+    }
+
+    @Test
+    public void testDeletedLedgersAreRemoved() throws Exception {
+        ledgers.put(1L, metadata(1, BOOKIE_1, BOOKIE_2));
+        ledgers.put(2L, metadata(1, BOOKIE_2));
+        BookieLedgerIndexer indexer = new BookieLedgerIndexer(ledgerManager, true);
+        indexer.getBookieToLedgerIndex();
+
+        notifyChanged(1L, null);
+        Map<String, Set<Long>> index = indexer.getBookieToLedgerIndex();
+        assertEquals(Collections.singleton(BOOKIE_2), index.keySet());
+        assertEquals(ledgerIds(2L), index.get(BOOKIE_2));
+
+        // deleting an unknown ledger does nothing
+        notifyChanged(4L, null);
+        assertEquals(copy(index), copy(indexer.getBookieToLedgerIndex()));
+        assertEquals(1, numScans.get());
+    }
+
+    @Test
+    public void testNotificationsRacingWithTheBuild() throws Exception {
+        ledgers.put(1L, metadata(1, BOOKIE_1));
+        ledgers.put(2L, metadata(1, BOOKIE_1));
+        ledgers.put(3L, metadata(1, BOOKIE_1));
+        readInterceptor = ledgerId -> {
+            if (ledgerId == 1L) {
+                // the ledger is updated once its metadata was read, and the newer metadata is notified first
+                notifyChanged(1L, metadata(2, BOOKIE_2));
+                // a ledger is created and notified before the scan lists it
+                notifyChanged(4L, metadata(1, BOOKIE_3));
+            } else if (ledgerId == 2L) {
+                // the ledger is deleted once its metadata was read
+                notifyChanged(2L, null);
+            }
+        };
+        BookieLedgerIndexer indexer = new BookieLedgerIndexer(ledgerManager, true);
+
+        Map<String, Set<Long>> index = indexer.getBookieToLedgerIndex();
+        assertEquals(ledgerIds(3L), index.get(BOOKIE_1));
+        assertEquals(ledgerIds(1L), index.get(BOOKIE_2));
+        assertEquals(ledgerIds(4L), index.get(BOOKIE_3));
+        readInterceptor = ledgerId -> { };
+        assertEquals(copy(new BookieLedgerIndexer(ledgerManager).getBookieToLedgerIndex()), copy(index));
+
+        // once the index is built, a deleted ledger can be notified again
+        notifyChanged(3L, null);
+        notifyChanged(3L, metadata(2, BOOKIE_1));
+        assertEquals(ledgerIds(3L), indexer.getBookieToLedgerIndex().get(BOOKIE_1));
+    }
+
+    @Test
+    public void testChangesMissedForceARebuild() throws Exception {
+        ledgers.put(1L, metadata(1, BOOKIE_1));
+        BookieLedgerIndexer indexer = new BookieLedgerIndexer(ledgerManager, true);
+        indexer.getBookieToLedgerIndex();
+        AllLedgersMetadataListener listener = listener();
+
+        // the listener is unregistered by the ledger manager when changes are missed
+        listeners.clear();
+        listener.onChangesMissed();
+        ledgers.put(2L, metadata(1, BOOKIE_1));
+        ledgers.remove(1L);
+        // the changes notified to the stale index are not applied
+        listener.onChanged(3L, metadata(1, BOOKIE_1));
+
+        Map<String, Set<Long>> index = indexer.getBookieToLedgerIndex();
+        assertEquals(ledgerIds(2L), index.get(BOOKIE_1));
+        assertEquals(2, numScans.get());
+        verify(ledgerManager, times(2)).registerAllLedgersMetadataListener(any());
+        assertNotNull(listener());
+
+        // the rebuilt index is kept
+        indexer.getBookieToLedgerIndex();
+        assertEquals(2, numScans.get());
+    }
+
+    @Test
+    public void testFallbackWhenChangesAreNotNotified() throws Exception {
+        notifyChanges = false;
+        ledgers.put(1L, metadata(1, BOOKIE_1, BOOKIE_2));
+        BookieLedgerIndexer indexer = new BookieLedgerIndexer(ledgerManager, true);
+
+        Map<String, Set<Long>> index = indexer.getBookieToLedgerIndex();
+        assertEquals(ledgerIds(1L), index.get(BOOKIE_1));
+        assertEquals(ledgerIds(1L), index.get(BOOKIE_2));
+
+        // each check scans all the ledgers
+        ledgers.put(2L, metadata(1, BOOKIE_1));
+        index = indexer.getBookieToLedgerIndex();
+        assertEquals(ledgerIds(1L, 2L), index.get(BOOKIE_1));
+        assertEquals(2, numScans.get());
+        assertEquals(0, listeners.size());
+    }
+
+    @Test
+    public void testFailedBuildIsRetried() throws Exception {
+        ledgers.put(1L, metadata(1, BOOKIE_1));
+        ledgers.put(2L, metadata(1, BOOKIE_2));
+        BookieLedgerIndexer indexer = new BookieLedgerIndexer(ledgerManager, true);
+        failReads = true;
+        try {
+            indexer.getBookieToLedgerIndex();
+            fail("The build should fail when the metadata of a ledger can't be read");
+        } catch (BKAuditException e) {
+            // expected
+        }
+        // the partially built index is dropped
+        listener().onChanged(3L, metadata(1, BOOKIE_1));
+
+        failReads = false;
+        Map<String, Set<Long>> index = indexer.getBookieToLedgerIndex();
+        assertEquals(ledgerIds(1L), index.get(BOOKIE_1));
+        assertEquals(ledgerIds(2L), index.get(BOOKIE_2));
+        assertEquals(2, numScans.get());
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.replication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.BookKeeper;
+import org.apache.bookkeeper.client.BookKeeperAdmin;
+import org.apache.bookkeeper.client.LedgerFragment;
+import org.apache.bookkeeper.client.LedgerHandle;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.conf.TestBKConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.meta.LedgerManagerFactory;
+import org.apache.bookkeeper.meta.LedgerUnderreplicationManager;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.replication.ReplicationException.UnavailableException;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of the concurrent replication of {@link ReplicationWorker}.
+ */
+public class ReplicationWorkerTest {
+
+    private static final long TIMEOUT_MS = 10000;
+
+    private final BlockingQueue<Long> underreplicatedLedgers = new LinkedBlockingQueue<>();
+    // the opening of a ledger waits for its latch, if any
+    private final Map<Long, CountDownLatch> openLatches = new ConcurrentHashMap<>();
+    private final Set<Long> failingLedgers = ConcurrentHashMap.newKeySet();
+    private final Set<Thread> replicationThreads = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inProgress = new AtomicInteger();
+    private final AtomicInteger maxInProgress = new AtomicInteger();
+    private final List<ReplicationWorker> workers = new ArrayList<>();
+
+    private LedgerUnderreplicationManager underreplicationManager;
+    private BookKeeper bkc;
+    private BookKeeperAdmin admin;
+
+    @Before
+    public void setUp() throws Exception {
+        underreplicationManager = mock(LedgerUnderreplicationManager.class);
+        when(underreplicationManager.getLedgerToRereplicate()).thenAnswer(invocation -> {
+            try {
+                return underreplicatedLedgers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UnavailableException("Interrupted while waiting for a ledger to rereplicate", e);
+            }
+        });
+
+        LedgerManagerFactory ledgerManagerFactory = mock(LedgerManagerFactory.class);
+        when(ledgerManagerFactory.newLedgerUnderreplicationManager()).thenReturn(underreplicationManager);
+        when(ledgerManagerFactory.newLedgerManager()).thenReturn(mock(LedgerManager.class));
+        bkc = mock(BookKeeper.class);
+        when(bkc.getLedgerManagerFactory()).thenReturn(ledgerManagerFactory);
+
+        admin = mock(BookKeeperAdmin.class);
+        when(admin.openLedgerNoRecovery(anyLong())).thenAnswer(invocation -> {
+            long ledgerId = invocation.getArgument(0);
+            replicationThreads.add(Thread.currentThread());
+            int current = inProgress.incrementAndGet();
+            maxInProgress.accumulateAndGet(current, Math::max);
+            try {
+                CountDownLatch latch = openLatches.get(ledgerId);
+                if (latch != null) {
+                    latch.await();
+                }
+                if (failingLedgers.contains(ledgerId)) {
+                    throw new BKException.BKReadException();
+                }
+                return newLedgerHandle(ledgerId);
+            } finally {
+                inProgress.decrementAndGet();
+            }
+        });
+        when(admin.getLedgerMetadata(any(LedgerHandle.class)))
+                .thenAnswer(invocation -> invocation.<LedgerHandle>getArgument(0).getLedgerMetadata());
+    }
+
+    @After
+    public void tearDown() {
+        for (CountDownLatch latch : openLatches.values()) {
+            latch.countDown();
+        }
+        for (ReplicationWorker worker : workers) {
+            worker.shutdown();
+        }
+    }
+
+    private static LedgerHandle newLedgerHandle(long ledgerId) {
+        LedgerHandle lh = mock(LedgerHandle.class);
+        LedgerMetadata metadata = mock(LedgerMetadata.class);
+        // a closed ledger without ensembles has no fragment to replicate
+        doReturn(new TreeMap<Long, List<BookieId>>()).when(metadata).getAllEnsembles();
+        when(metadata.isClosed()).thenReturn(true);
+        when(lh.getId()).thenReturn(ledgerId);
+        when(lh.getLedgerMetadata()).thenReturn(metadata);
+        return lh;
+    }
+
+    private ReplicationWorker newWorker(int concurrency, int backoffMs) throws Exception {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setReplicationWorkerConcurrency(concurrency);
+        conf.setRwRereplicateBackoffMs(backoffMs);
+        ReplicationWorker worker = new ReplicationWorker(conf, bkc, false, admin, NullStatsLogger.INSTANCE);
+        workers.add(worker);
+        return worker;
+    }
+
+    private void blockOpening(long... ledgerIds) {
+        for (long ledgerId : ledgerIds) {
+            openLatches.put(ledgerId, new CountDownLatch(1));
+        }
+    }
+
+    private void unblockOpening(long ledgerId) {
+        openLatches.remove(ledgerId).countDown();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out waiting for the condition", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void assertReplicationThreadsTerminated() throws InterruptedException {
+        for (Thread thread : replicationThreads) {
+            thread.join(TIMEOUT_MS);
+            assertFalse("Replication thread " + thread.getName() + " is still running", thread.isAlive());
+        }
+    }
+
+    @Test
+    public void testLedgersAreReplicatedUpToTheConcurrency() throws Exception {
+        int concurrency = 3;
+        blockOpening(1L, 2L, 3L, 4L, 5L);
+        underreplicatedLedgers.addAll(Arrays.asList(1L, 2L, 3L, 4L, 5L));
+        ReplicationWorker worker = newWorker(concurrency, 100);
+        worker.start();
+
+        // no more ledgers are taken than there are replication permits
+        waitFor(() -> inProgress.get() == concurrency);
+        Thread.sleep(100);
+        verify(underreplicationManager, times(concurrency)).getLedgerToRereplicate();
+        assertEquals(2, underreplicatedLedgers.size());
+
+        // the permit of a replicated ledger goes to the next ledger
+        unblockOpening(1L);
+        verify(underreplicationManager, timeout(TIMEOUT_MS)).markLedgerReplicated(1L);
+        verify(underreplicationManager, timeout(TIMEOUT_MS)).releaseUnderreplicatedLedger(1L);
+        waitFor(() -> inProgress.get() == concurrency && underreplicatedLedgers.size() == 1);
+
+        for (long ledgerId = 2; ledgerId <= 5; ledgerId++) {
+            unblockOpening(ledgerId);
+        }
+        for (long ledgerId = 2; ledgerId <= 5; ledgerId++) {
+            verify(underreplicationManager, timeout(TIMEOUT_MS)).markLedgerReplicated(ledgerId);
+        }
+        assertEquals(concurrency, maxInProgress.get());
+        assertEquals(concurrency, replicationThreads.size());
+        for (Thread thread : replicationThreads) {
+            assertTrue(thread.getName(), thread.getName().startsWith("ReplicationWorker-"));
+        }
+
+        worker.shutdown();
+        assertFalse(worker.isRunning());
+        assertReplicationThreadsTerminated();
+    }
+
+    @Test
+    public void testLedgersAreReplicatedByTheWorkerThreadWithoutConcurrency() throws Exception {
+        underreplicatedLedgers.addAll(Arrays.asList(1L, 2L));
+        ReplicationWorker worker = newWorker(1, 100);
+        worker.start();
+
+        verify(underreplicationManager, timeout(TIMEOUT_MS)).markLedgerReplicated(1L);
+        verify(underreplicationManager, timeout(TIMEOUT_MS)).markLedgerReplicated(2L);
+        assertEquals(1, maxInProgress.get());
+        assertEquals(1, replicationThreads.size());
+        assertEquals("ReplicationWorker", replicationThreads.iterator().next().getName());
+        worker.shutdown();
+    }
+
+    @Test
+    public void testFailedLedgerBacksOffInItsSlot() throws Exception {
+        failingLedgers.add(1L);
+        underreplicatedLedgers.addAll(Arrays.asList(1L, 2L, 3L, 4L));
+        ReplicationWorker worker = newWorker(2, (int) TimeUnit.MINUTES.toMillis(10));
+        worker.start();
+
+        // the lock of the failed ledger is released, and the other ledgers keep being replicated meanwhile
+        verify(underreplicationManager, timeout(TIMEOUT_MS).atLeastOnce()).releaseUnderreplicatedLedger(1L);
+        for (long ledgerId = 2; ledgerId <= 4; ledgerId++) {
+            verify(underreplicationManager, timeout(TIMEOUT_MS)).markLedgerReplicated(ledgerId);
+        }
+        verify(underreplicationManager, never()).markLedgerReplicated(1L);
+
+        // the back off is interrupted by the shutdown
+        worker.shutdown();
+        assertReplicationThreadsTerminated();
+    }
+
+    @Test
+    public void testShutdownReleasesTheLocksOfTheLedgersBeingReplicated() throws Exception {
+        blockOpening(1L, 2L);
+        underreplicatedLedgers.addAll(Arrays.asList(1L, 2L, 3L));
+        ReplicationWorker worker = newWorker(2, 100);
+        worker.start();
+        waitFor(() -> inProgress.get() == 2);
+
+        worker.shutdown();
+        assertFalse(worker.isRunning());
+        verify(underreplicationManager, timeout(TIMEOUT_MS)).releaseUnderreplicatedLedger(1L);
+        verify(underreplicationManager, timeout(TIMEOUT_MS)).releaseUnderreplicatedLedger(2L);
+        assertReplicationThreadsTerminated();
+        verify(underreplicationManager, never()).markLedgerReplicated(anyLong());
+        // the ledger waiting for a permit is left to the other workers
+        assertEquals(Collections.singletonList(3L), new ArrayList<>(underreplicatedLedgers));
+        verify(underreplicationManager).close();
+    }
+
+    @Test
+    public void testPrioritize() {
+        LedgerHandle lh = mock(LedgerHandle.class);
+        LedgerMetadata metadata = mock(LedgerMetadata.class);
+        List<BookieId> ensemble = Arrays.asList(BookieId.parse("bookie-1:3181"), BookieId.parse("bookie-2:3181"),
+                BookieId.parse("bookie-3:3181"));
+        doReturn(new TreeMap<>(Collections.singletonMap(0L, ensemble))).when(metadata).getAllEnsembles();
+        doReturn(ensemble).when(metadata).getEnsembleAt(anyLong());
+        when(metadata.isClosed()).thenReturn(true);
+        when(lh.getLedgerMetadata()).thenReturn(metadata);
+
+        LedgerFragment notAdhering = new LedgerFragment(lh, 0, 9, new HashSet<>());
+        notAdhering.setReplicateType(LedgerFragment.ReplicateType.DATA_NOT_ADHERING_PLACEMENT);
+        LedgerFragment oneLostFirst = new LedgerFragment(lh, 0, 9, new HashSet<>(Arrays.asList(0)));
+        LedgerFragment oneLostNext = new LedgerFragment(lh, 10, 19, new HashSet<>(Arrays.asList(2)));
+        LedgerFragment twoLost = new LedgerFragment(lh, 20, 29, new HashSet<>(Arrays.asList(0, 1)));
+
+        Set<LedgerFragment> fragments = new LinkedHashSet<>(
+                Arrays.asList(notAdhering, oneLostNext, oneLostFirst, twoLost));
+        List<LedgerFragment> ordered = ReplicationWorker.prioritize(fragments);
+        // the fragments losing data first, the ones having lost the most replicas first, then in entry id order
+        assertEquals(Arrays.asList(twoLost, oneLostFirst, oneLostNext, notAdhering), ordered);
+        assertNotEquals(new ArrayList<>(fragments), ordered);
+    }
+}
@@ -18,37 +18,48 @@
  */
 package org.apache.bookkeeper.metadata.etcd;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.etcd.jetcd.ByteSequence;
 import io.etcd.jetcd.Client;
 import io.etcd.jetcd.KV;
 import io.etcd.jetcd.KeyValue;
 import io.etcd.jetcd.Txn;
-import io.etcd.jetcd.common.exception.ClosedClientException;
 import io.etcd.jetcd.kv.GetResponse;
 import io.etcd.jetcd.op.Cmp;
 import io.etcd.jetcd.op.CmpTarget;
+import io.etcd.jetcd.op.Op;
 import io.etcd.jetcd.options.DeleteOption;
 import io.etcd.jetcd.options.GetOption;
 import io.etcd.jetcd.options.PutOption;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.function.Consumer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
 import org.apache.bookkeeper.meta.LedgerManager;
 import org.apache.bookkeeper.meta.LedgerMetadataSerDe;
 import org.apache.bookkeeper.metadata.etcd.helpers.KeyIterator;
 import org.apache.bookkeeper.metadata.etcd.helpers.KeyStream;
-import org.apache.bookkeeper.metadata.etcd.helpers.ValueStream;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.Processor;
 import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
@@ -59,37 +70,90 @@ import org.apache.zookeeper.AsyncCallback.VoidCallback;
 
 /**
  * Etcd ledger manager.
+ *
+ * <p>The ledger metadata listeners are multiplexed over a range watch per range of consecutive ledger ids, rather
+ * than watching each ledger key, and the metadata of many ledgers is read in batches of range or txn reads.
  */
 @Slf4j
 class EtcdLedgerManager implements LedgerManager {
 
+    // number of low bits of the ledger ids of a range of ledgers watched by a single range watch
+    private static final int WATCH_RANGE_BITS = 16;
+    // max number of ledgers read by a single request, the default max number of operations of an etcd txn
+    private static final int READ_BATCH_SIZE = 128;
+    // max number of outstanding batch reads when reading the metadata of many ledgers
+    private static final int READ_BATCH_CONCURRENCY = 8;
+    // number of ledger keys fetched by a single request when iterating over the ledgers
+    private static final int LIST_BATCH_SIZE = 1000;
+
     private final LedgerMetadataSerDe serDe = new LedgerMetadataSerDe();
 
     private final String scope;
-    private final Client client;
     private final KV kvClient;
     private final EtcdWatchClient watchClient;
-    private final ConcurrentLongHashMap<ValueStream<LedgerMetadata>> watchers =
-            ConcurrentLongHashMap.<ValueStream<LedgerMetadata>>newBuilder().build();
-    private final ConcurrentMap<LedgerMetadataListener, LedgerMetadataConsumer> listeners =
-        new ConcurrentHashMap<>();
+    // schedules the retries of the reads of the watched ledgers
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentLongHashMap<LedgerMetadataRangeWatcher> rangeWatchers =
+            ConcurrentLongHashMap.<LedgerMetadataRangeWatcher>newBuilder().build();
 
     private volatile boolean closed = false;
 
     EtcdLedgerManager(Client client,
                       String scope) {
-        this.client = client;
-        this.kvClient = client.getKVClient();
+        this(client.getKVClient(), new EtcdWatchClient(client), scope);
+    }
+
+    @VisibleForTesting
+    EtcdLedgerManager(KV kvClient,
+                      EtcdWatchClient watchClient,
+                      String scope) {
+        this.kvClient = kvClient;
         this.scope = scope;
-        this.watchClient = new EtcdWatchClient(client);
+        this.watchClient = watchClient;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("etcd-ledger-metadata-scheduler")
+                .build());
     }
 
     private boolean isClosed() {
         return closed;
     }
 
-    ValueStream<LedgerMetadata> getLedgerMetadataStream(long ledgerId) {
-        return watchers.get(ledgerId);
+    LedgerMetadataRangeWatcher getLedgerMetadataRangeWatcher(long ledgerId) {
+        return rangeWatchers.get(ledgerId >>> WATCH_RANGE_BITS);
+    }
+
+    private ByteSequence getLedgerKey(long ledgerId) {
+        return ByteSequence.from(EtcdUtils.getLedgerKey(scope, ledgerId), StandardCharsets.UTF_8);
+    }
+
+    static long parseLedgerId(ByteSequence ledgerKey) {
+        return EtcdUtils.parseLedgerKey(ledgerKey.toString(StandardCharsets.UTF_8)).getLeastSignificantBits();
+    }
+
+    /**
+     * Parse the id of the ledger of a key of the ledgers range.
+     *
+     * @return the ledger id, or null if the key is not a ledger key
+     */
+    static Long parseLedgerIdOrNull(ByteSequence ledgerKey) {
+        try {
+            return parseLedgerId(ledgerKey);
+        } catch (IllegalArgumentException e) {
+            log.warn("Skipping key {} which is not a ledger key", ledgerKey.toString(StandardCharsets.UTF_8));
+            return null;
+        }
+    }
+
+    Versioned<LedgerMetadata> parseLedgerMetadata(long ledgerId, KeyValue kv) {
+        try {
+            LedgerMetadata metadata = serDe.parseConfig(kv.getValue().getBytes(), ledgerId, Optional.empty());
+            return new Versioned<>(metadata, new LongVersion(kv.getModRevision()));
+        } catch (IOException ioe) {
+            log.error("Could not parse ledger metadata for ledger : {}", ledgerId, ioe);
+            throw new UncheckedIOException(ioe);
+        }
     }
 
     @Override
@@ -239,6 +303,107 @@ class EtcdLedgerManager implements LedgerManager {
         return promise;
     }
 
+    @Override
+    public CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> readLedgerMetadata(Collection<Long> ledgerIds) {
+        CompletableFuture<Map<Long, Versioned<LedgerMetadata>>> promise = new CompletableFuture<>();
+        Map<Long, Versioned<LedgerMetadata>> result = new ConcurrentHashMap<>();
+        List<Long> sortedLedgerIds = ledgerIds.stream().distinct().sorted().collect(Collectors.toList());
+        // the ledgers whose metadata cannot be parsed are left out, as the ones which don't exist
+        readLedgers(sortedLedgerIds, result::put, ledgerId -> { })
+            .thenAccept(revision -> promise.complete(result))
+            .exceptionally(cause -> {
+                    promise.completeExceptionally(new BKException.MetaStoreException());
+                    return null;
+                });
+        return promise;
+    }
+
+    /**
+     * Read the metadata of many ledgers, in batches of ledgers read by a single request.
+     *
+     * @param ledgerIds ids of the ledgers to read, sorted
+     * @param consumer consumer of the metadata of the ledgers which exist
+     * @param unparsableConsumer consumer of the ids of the ledgers which exist, but whose metadata cannot be parsed.
+     *                           they don't fail the read of the other ledgers.
+     * @return future of the lowest revision of the batch reads, completed once all the ledgers are read
+     */
+    CompletableFuture<Long> readLedgers(List<Long> ledgerIds,
+                                        BiConsumer<Long, Versioned<LedgerMetadata>> consumer,
+                                        LongConsumer unparsableConsumer) {
+        List<List<Long>> batches = Lists.partition(ledgerIds, READ_BATCH_SIZE);
+        AtomicLong revision = new AtomicLong(Long.MAX_VALUE);
+        List<CompletableFuture<Void>> lanes = new ArrayList<>();
+        for (int lane = 0; lane < Math.min(READ_BATCH_CONCURRENCY, batches.size()); lane++) {
+            // the batches of a lane are read one after the other
+            CompletableFuture<Void> laneFuture = FutureUtils.Void();
+            for (int i = lane; i < batches.size(); i += READ_BATCH_CONCURRENCY) {
+                List<Long> batch = batches.get(i);
+                laneFuture = laneFuture
+                    .thenCompose(ignored -> readBatch(batch, consumer, unparsableConsumer))
+                    .thenAccept(batchRevision -> revision.accumulateAndGet(batchRevision, Math::min));
+            }
+            lanes.add(laneFuture);
+        }
+        return FutureUtils.collect(lanes).thenApply(ignored -> revision.get());
+    }
+
+    private CompletableFuture<Long> readBatch(List<Long> ledgerIds,
+                                              BiConsumer<Long, Versioned<LedgerMetadata>> consumer,
+                                              LongConsumer unparsableConsumer) {
+        long firstLedgerId = ledgerIds.get(0);
+        long lastLedgerId = ledgerIds.get(ledgerIds.size() - 1);
+        if (lastLedgerId - firstLedgerId < 2L * ledgerIds.size()) {
+            // the ledger ids are dense enough to read all the keys between the first and the last ones at once.
+            // the ledger keys sort as the ledger ids, so the end key is right even if the last ledger id overflows.
+            Set<Long> requested = new HashSet<>(ledgerIds);
+            return kvClient.get(
+                getLedgerKey(firstLedgerId),
+                GetOption.newBuilder()
+                    .withRange(getLedgerKey(lastLedgerId + 1))
+                    .build()
+            ).thenApply(getResp -> {
+                for (KeyValue kv : getResp.getKvs()) {
+                    Long ledgerId = parseLedgerIdOrNull(kv.getKey());
+                    if (null != ledgerId && requested.contains(ledgerId)) {
+                        acceptLedger(ledgerId, kv, consumer, unparsableConsumer);
+                    }
+                }
+                return getResp.getHeader().getRevision();
+            });
+        } else {
+            Op[] gets = ledgerIds.stream()
+                .map(ledgerId -> Op.get(getLedgerKey(ledgerId), GetOption.DEFAULT))
+                .toArray(Op[]::new);
+            return kvClient.txn()
+                .Then(gets)
+                .commit()
+                .thenApply(txnResp -> {
+                    List<GetResponse> getResps = txnResp.getGetResponses();
+                    for (int i = 0; i < getResps.size(); i++) {
+                        GetResponse getResp = getResps.get(i);
+                        if (getResp.getCount() > 0) {
+                            acceptLedger(ledgerIds.get(i), getResp.getKvs().get(0), consumer, unparsableConsumer);
+                        }
+                    }
+                    return txnResp.getHeader().getRevision();
+                });
+        }
+    }
+
+    private void acceptLedger(long ledgerId,
+                              KeyValue kv,
+                              BiConsumer<Long, Versioned<LedgerMetadata>> consumer,
+                              LongConsumer unparsableConsumer) {
+        Versioned<LedgerMetadata> metadata;
+        try {
+            metadata = parseLedgerMetadata(ledgerId, kv);
+        } catch (UncheckedIOException e) {
+            unparsableConsumer.accept(ledgerId);
+            return;
+        }
+        consumer.accept(ledgerId, metadata);
+    }
+
     @Override
     public CompletableFuture<Versioned<LedgerMetadata>> writeLedgerMetadata(long ledgerId, LedgerMetadata metadata,
                                                                             Version currentVersion) {
@@ -294,90 +459,34 @@ class EtcdLedgerManager implements LedgerManager {
         return promise;
     }
 
-    private LedgerMetadataConsumer listenerToConsumer(long ledgerId,
-                                                      LedgerMetadataListener listener,
-                                                      Consumer<Long> onDeletedConsumer) {
-        return new LedgerMetadataConsumer(
-            ledgerId,
-            listener,
-            onDeletedConsumer
-        );
-    }
-
     @Override
     public void registerLedgerMetadataListener(long ledgerId, LedgerMetadataListener listener) {
-        if (listeners.containsKey(listener)) {
-            return;
-        }
-
-        ValueStream<LedgerMetadata> lmStream = watchers.computeIfAbsent(
-            ledgerId, (lid) -> new ValueStream<>(
-                client,
-                watchClient,
-                        bs -> {
-                            try {
-                                return serDe.parseConfig(
-                                        bs.getBytes(),
-                                        lid,
-                                        Optional.empty()
-                                );
-                            } catch (IOException ioe) {
-                                log.error("Could not parse ledger metadata : {}",
-                                        bs.toString(StandardCharsets.UTF_8), ioe);
-                                throw new RuntimeException(
-                                        "Could not parse ledger metadata : "
-                                                + bs.toString(StandardCharsets.UTF_8), ioe);
-                            }
-    },
-                ByteSequence.from(EtcdUtils.getLedgerKey(scope, ledgerId), StandardCharsets.UTF_8))
-        );
-        LedgerMetadataConsumer lmConsumer = listenerToConsumer(ledgerId, listener,
-            (lid) -> {
-                if (watchers.remove(lid, lmStream)) {
-                    log.info("Closed ledger metadata watcher on ledger {} deletion.", lid);
-                    lmStream.closeAsync();
-                }
-            });
-        LedgerMetadataConsumer oldConsumer = listeners.putIfAbsent(listener, lmConsumer);
-        if (null != oldConsumer) {
-            return;
-        } else {
-            lmStream.readAndWatch(lmConsumer)
-                .whenComplete((values, cause) -> {
-                    if (null != cause && !(cause instanceof ClosedClientException)) {
-                        // fail to register ledger metadata listener, re-attempt it
-                        registerLedgerMetadataListener(ledgerId, listener);
-                    }
-                });
+        long range = ledgerId >>> WATCH_RANGE_BITS;
+        while (true) {
+            LedgerMetadataRangeWatcher rangeWatcher = rangeWatchers.computeIfAbsent(
+                range, r -> new LedgerMetadataRangeWatcher(
+                    this,
+                    watchClient,
+                    scheduler,
+                    getLedgerKey(r << WATCH_RANGE_BITS),
+                    getLedgerKey((r + 1) << WATCH_RANGE_BITS)));
+            if (rangeWatcher.register(ledgerId, listener)) {
+                return;
+            }
+            // the range watcher was closed since there were no ledgers to watch any more
+            rangeWatchers.remove(range, rangeWatcher);
         }
     }
 
     @Override
     public void unregisterLedgerMetadataListener(long ledgerId, LedgerMetadataListener listener) {
-        LedgerMetadataConsumer lmConsumer = listeners.remove(listener);
-        unregisterLedgerMetadataListener(ledgerId, lmConsumer);
-    }
-
-    private void unregisterLedgerMetadataListener(long ledgerId, LedgerMetadataConsumer lmConsumer) {
-        ValueStream<LedgerMetadata> lmStream = watchers.get(ledgerId);
-        if (null == lmStream) {
-            return;
-        } else {
-            lmStream.unwatch(lmConsumer).thenAccept(noConsumers -> {
-                if (noConsumers) {
-                    if (watchers.remove(ledgerId, lmStream)) {
-                        log.info("Closed ledger metadata watcher on ledger {} since there are no listeners any more.",
-                            ledgerId);
-                        lmStream.closeAsync();
-                    }
-                }
-            }).exceptionally(cause -> {
-                if (cause instanceof ClosedClientException) {
-                    // fail to unwatch a consumer
-                    unregisterLedgerMetadataListener(ledgerId, lmConsumer);
-                }
-                return null;
-            });
+        long range = ledgerId >>> WATCH_RANGE_BITS;
+        LedgerMetadataRangeWatcher rangeWatcher = rangeWatchers.get(range);
+        if (null != rangeWatcher && rangeWatcher.unregister(ledgerId, listener)) {
+            if (rangeWatchers.remove(range, rangeWatcher)) {
+                log.info("Closed ledger metadata watcher on ledgers range {} since there are no listeners any more.",
+                    range);
+            }
         }
     }
 
@@ -387,19 +496,21 @@ class EtcdLedgerManager implements LedgerManager {
                                     Object context,
                                     int successRc,
                                     int failureRc) {
-        KeyStream<Long> ks = new KeyStream<>(
-            kvClient,
-            ByteSequence.from(EtcdUtils.getLedgerKey(scope, 0L), StandardCharsets.UTF_8),
-            ByteSequence.from(EtcdUtils.getLedgerKey(scope, Long.MAX_VALUE), StandardCharsets.UTF_8),
-            bs -> {
-                UUID uuid = EtcdUtils.parseLedgerKey(bs.toString(StandardCharsets.UTF_8));
-                return uuid.getLeastSignificantBits();
-            }
-        );
+        KeyStream<Long> ks = newLedgerKeyStream();
         processLedgers(
             ks, processor, finalCb, context, successRc, failureRc);
     }
 
+    private KeyStream<Long> newLedgerKeyStream() {
+        return new KeyStream<>(
+            kvClient,
+            getLedgerKey(0L),
+            getLedgerKey(Long.MAX_VALUE),
+            EtcdLedgerManager::parseLedgerId,
+            LIST_BATCH_SIZE
+        );
+    }
+
     private void processLedgers(KeyStream<Long> ks,
                                 Processor<Long> processor,
                                 VoidCallback finalCb,
@@ -422,15 +533,7 @@ class EtcdLedgerManager implements LedgerManager {
 
     @Override
     public LedgerRangeIterator getLedgerRanges(long opTimeOutMs) {
-        KeyStream<Long> ks = new KeyStream<>(
-            kvClient,
-            ByteSequence.from(EtcdUtils.getLedgerKey(scope, 0L), StandardCharsets.UTF_8),
-            ByteSequence.from(EtcdUtils.getLedgerKey(scope, Long.MAX_VALUE), StandardCharsets.UTF_8),
-            bs -> {
-                UUID uuid = EtcdUtils.parseLedgerKey(bs.toString(StandardCharsets.UTF_8));
-                return uuid.getLeastSignificantBits();
-            }
-        );
+        KeyStream<Long> ks = newLedgerKeyStream();
         KeyIterator<Long> ki = new KeyIterator<>(ks);
         return new LedgerRangeIterator() {
             @Override
@@ -472,6 +575,7 @@ class EtcdLedgerManager implements LedgerManager {
             }
             closed = true;
         }
+        scheduler.shutdownNow();
         watchClient.close();
     }
 }
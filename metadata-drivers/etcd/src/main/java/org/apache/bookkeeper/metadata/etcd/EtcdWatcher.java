@@ -61,6 +61,8 @@ public class EtcdWatcher implements AutoCloseable {
                 EtcdWatchClient owner) {
         this.key = key;
         this.watchOption = watchOption;
+        // start from the revision of the watch option, if any, otherwise from the revision of the watch creation
+        this.revision = watchOption.getRevision();
         this.executor = executor;
         this.owner = owner;
         this.consumers = new CopyOnWriteArraySet<>();
@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.metadata.etcd;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.common.exception.ClosedClientException;
+import io.etcd.jetcd.options.WatchOption;
+import io.etcd.jetcd.watch.WatchEvent;
+import io.etcd.jetcd.watch.WatchResponse;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.common.util.Backoff;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+
+/**
+ * Watches the metadata of the ledgers of a range of consecutive ledger ids with a single range watch, and dispatches
+ * the changes to the listeners registered on the ledgers of the range.
+ *
+ * <p>The metadata of a ledger is read when a listener is registered on it, and the changes following the read are
+ * received from the range watch. Each listener is notified of a given version of the metadata at most once, whether
+ * it is received from a read or from the watch. The watcher is closed once there are no ledgers to watch any more.
+ */
+@Slf4j
+class LedgerMetadataRangeWatcher {
+
+    // backoff policy of the retries of the failed reads of the metadata of the watched ledgers
+    private static final Backoff.Policy READ_BACKOFF_POLICY =
+        Backoff.Jitter.of(Backoff.Jitter.Type.EXPONENTIAL, 100, 10000);
+
+    private final EtcdLedgerManager ledgerManager;
+    private final EtcdWatchClient watchClient;
+    private final ScheduledExecutorService scheduler;
+    private final ByteSequence startKey;
+    private final ByteSequence endKey;
+
+    // the listeners of each watched ledger, with the revision of the metadata they were last notified of
+    private final Map<Long, Map<LedgerMetadataListener, Long>> ledgers = new HashMap<>();
+    private CompletableFuture<EtcdWatcher> watchFuture = null;
+    // the revision the current watch starts from
+    private long watchRevision = -1L;
+    // incremented on each watch (re)start, so that the responses of the previous watches are ignored
+    private long watchGeneration = 0L;
+    private boolean closed = false;
+
+    LedgerMetadataRangeWatcher(EtcdLedgerManager ledgerManager,
+                               EtcdWatchClient watchClient,
+                               ScheduledExecutorService scheduler,
+                               ByteSequence startKey,
+                               ByteSequence endKey) {
+        this.ledgerManager = ledgerManager;
+        this.watchClient = watchClient;
+        this.scheduler = scheduler;
+        this.startKey = startKey;
+        this.endKey = endKey;
+    }
+
+    /**
+     * Register a listener on the metadata of a ledger of the range.
+     *
+     * @return false if the watcher is closed, in which case the listener has to be registered on a new watcher
+     */
+    boolean register(long ledgerId, LedgerMetadataListener listener) {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            Map<LedgerMetadataListener, Long> listeners = ledgers.computeIfAbsent(ledgerId, lid -> new HashMap<>());
+            if (null != listeners.putIfAbsent(listener, -1L)) {
+                return true;
+            }
+        }
+        read(Collections.singletonList(ledgerId));
+        return true;
+    }
+
+    /**
+     * Unregister a listener from the metadata of a ledger of the range.
+     *
+     * @return true if it was the last listener of the range, in which case the watcher is closed
+     */
+    boolean unregister(long ledgerId, LedgerMetadataListener listener) {
+        CompletableFuture<EtcdWatcher> oldWatchFuture;
+        boolean closedNow;
+        synchronized (this) {
+            Map<LedgerMetadataListener, Long> listeners = ledgers.get(ledgerId);
+            if (null != listeners && null != listeners.remove(listener) && listeners.isEmpty()) {
+                ledgers.remove(ledgerId);
+            }
+            oldWatchFuture = closeIfIdle();
+            closedNow = closed;
+        }
+        cancelWatch(oldWatchFuture);
+        return closedNow;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private synchronized boolean isWatched(long ledgerId) {
+        return ledgers.containsKey(ledgerId);
+    }
+
+    /**
+     * Read the metadata of watched ledgers and notify their listeners, then make sure that the range is watched from
+     * the revision of the read.
+     */
+    private void read(List<Long> ledgerIds) {
+        read(ledgerIds, READ_BACKOFF_POLICY.toBackoffs().iterator());
+    }
+
+    private void read(List<Long> ledgerIds, Iterator<Long> backoffs) {
+        Map<Long, Versioned<LedgerMetadata>> found = new ConcurrentHashMap<>();
+        // the ledgers whose metadata cannot be parsed are still watched, their listeners are notified of the next
+        // changes of their metadata
+        Set<Long> unparsable = ConcurrentHashMap.newKeySet();
+        ledgerManager.readLedgers(ledgerIds, found::put, unparsable::add).whenComplete((revision, cause) -> {
+            if (null != cause) {
+                Throwable t = unwrap(cause);
+                if (!(t instanceof ClosedClientException)) {
+                    retryRead(ledgerIds, backoffs, t);
+                }
+                return;
+            }
+
+            boolean stale = false;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (null == watchFuture) {
+                    startWatch(revision + 1);
+                } else if (revision + 1 < watchRevision) {
+                    // the range is watched from a revision after the read, the changes in between would be missed
+                    stale = true;
+                }
+                if (!stale) {
+                    for (long ledgerId : ledgerIds) {
+                        Versioned<LedgerMetadata> metadata = found.get(ledgerId);
+                        if (null != metadata) {
+                            notifyListeners(ledgerId, metadata);
+                        }
+                    }
+                }
+            }
+            if (stale) {
+                read(ledgerIds);
+                return;
+            }
+            for (long ledgerId : ledgerIds) {
+                if (!found.containsKey(ledgerId) && !unparsable.contains(ledgerId)) {
+                    onLedgerDeleted(ledgerId);
+                }
+            }
+        });
+    }
+
+    /**
+     * Re-attempt a failed read after a backoff, for the ledgers still watched by then.
+     */
+    private void retryRead(List<Long> ledgerIds, Iterator<Long> backoffs, Throwable cause) {
+        if (isClosed()) {
+            return;
+        }
+        long backoffMs = backoffs.next();
+        log.warn("Failed to read the metadata of {} ledgers to watch, retrying in {} ms : {}",
+            ledgerIds.size(), backoffMs, cause.getMessage());
+        try {
+            scheduler.schedule(() -> {
+                List<Long> watchedLedgerIds = ledgerIds.stream()
+                    .filter(this::isWatched)
+                    .collect(Collectors.toList());
+                if (!watchedLedgerIds.isEmpty()) {
+                    read(watchedLedgerIds, backoffs);
+                }
+            }, backoffMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ree) {
+            // the ledger manager is closed
+            log.debug("Not retrying to read the metadata of ledgers {} on closing", ledgerIds);
+        }
+    }
+
+    // guarded by this
+    private void startWatch(long revision) {
+        final long generation = ++watchGeneration;
+        watchRevision = revision;
+        watchFuture = watchClient.watch(
+            startKey,
+            WatchOption.newBuilder()
+                .withRange(endKey)
+                .withRevision(revision)
+                .build(),
+            (response, cause) -> onWatchResponse(generation, response, cause));
+        watchFuture.whenComplete((watcher, cause) -> {
+            if (null != cause) {
+                onWatchResponse(generation, null, cause);
+            }
+        });
+    }
+
+    // guarded by this
+    private CompletableFuture<EtcdWatcher> stopWatch() {
+        CompletableFuture<EtcdWatcher> oldWatchFuture = watchFuture;
+        watchFuture = null;
+        watchRevision = -1L;
+        watchGeneration++;
+        return oldWatchFuture;
+    }
+
+    // guarded by this
+    private CompletableFuture<EtcdWatcher> closeIfIdle() {
+        if (closed || !ledgers.isEmpty()) {
+            return null;
+        }
+        closed = true;
+        return stopWatch();
+    }
+
+    private static void cancelWatch(CompletableFuture<EtcdWatcher> watchFuture) {
+        if (null != watchFuture) {
+            watchFuture.thenCompose(EtcdWatcher::closeAsync);
+        }
+    }
+
+    private static Throwable unwrap(Throwable cause) {
+        return cause instanceof CompletionException && null != cause.getCause() ? cause.getCause() : cause;
+    }
+
+    private void onWatchResponse(long generation, WatchResponse response, Throwable cause) {
+        synchronized (this) {
+            if (closed || generation != watchGeneration) {
+                return;
+            }
+        }
+        if (null != cause) {
+            onWatchError(cause);
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Received watch response : revision = {}, {} events",
+                response.getHeader().getRevision(), response.getEvents().size());
+        }
+        for (WatchEvent event : response.getEvents()) {
+            KeyValue kv = event.getKeyValue();
+            Long ledgerId = EtcdLedgerManager.parseLedgerIdOrNull(kv.getKey());
+            // the range watch receives the changes of all the ledgers of the range, not only of the watched ones
+            if (null == ledgerId || !isWatched(ledgerId)) {
+                continue;
+            }
+            switch (event.getEventType()) {
+                case PUT:
+                    Versioned<LedgerMetadata> metadata;
+                    try {
+                        metadata = ledgerManager.parseLedgerMetadata(ledgerId, kv);
+                    } catch (UncheckedIOException e) {
+                        continue;
+                    }
+                    synchronized (this) {
+                        notifyListeners(ledgerId, metadata);
+                    }
+                    break;
+                case DELETE:
+                    onLedgerDeleted(ledgerId);
+                    break;
+                default:
+                    // ignore
+                    break;
+            }
+        }
+    }
+
+    private void onWatchError(Throwable error) {
+        Throwable cause = unwrap(error);
+        CompletableFuture<EtcdWatcher> oldWatchFuture;
+        List<Long> ledgerIds;
+        synchronized (this) {
+            oldWatchFuture = stopWatch();
+            ledgerIds = new ArrayList<>(ledgers.keySet());
+        }
+        cancelWatch(oldWatchFuture);
+        if (cause instanceof ClosedClientException || ledgerIds.isEmpty()) {
+            return;
+        }
+
+        // the changes since the last response may have been missed, e.g. if the revision to watch from was
+        // compacted. read the watched ledgers again, and watch the range again from the revision of the read.
+        log.info("Rewatching the metadata of {} ledgers after a watch error : {}", ledgerIds.size(),
+            cause.getMessage());
+        Collections.sort(ledgerIds);
+        read(ledgerIds);
+    }
+
+    // guarded by this
+    private void notifyListeners(long ledgerId, Versioned<LedgerMetadata> metadata) {
+        Map<LedgerMetadataListener, Long> listeners = ledgers.get(ledgerId);
+        if (null == listeners) {
+            return;
+        }
+        long revision = ((LongVersion) metadata.getVersion()).getLongVersion();
+        for (Map.Entry<LedgerMetadataListener, Long> entry : listeners.entrySet()) {
+            if (entry.getValue() < revision) {
+                entry.setValue(revision);
+                entry.getKey().onChanged(ledgerId, metadata);
+            }
+        }
+    }
+
+    private void onLedgerDeleted(long ledgerId) {
+        CompletableFuture<EtcdWatcher> oldWatchFuture;
+        synchronized (this) {
+            if (null != ledgers.remove(ledgerId)) {
+                log.info("Stopped watching the metadata of ledger {} on its deletion.", ledgerId);
+            }
+            oldWatchFuture = closeIfIdle();
+        }
+        cancelWatch(oldWatchFuture);
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.metadata.etcd;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.LedgerMetadataBuilder;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+import org.apache.bookkeeper.meta.LedgerMetadataSerDe;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.LedgerMetadataListener;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of the batch reads and of the range watches of {@link EtcdLedgerManager}, against an in-memory etcd.
+ */
+public class EtcdLedgerManagerTest {
+
+    private static final String SCOPE = "/ledger-manager-test";
+    private static final long TIMEOUT_MS = 10000L;
+    // time to wait for a notification which is not expected
+    private static final long NO_NOTIFICATION_MS = 200L;
+
+    private final LedgerMetadataSerDe serDe = new LedgerMetadataSerDe();
+    private FakeEtcd etcd;
+    private EtcdLedgerManager ledgerManager;
+
+    @Before
+    public void setUp() {
+        etcd = new FakeEtcd();
+        ledgerManager = new EtcdLedgerManager(etcd.getKvClient(), etcd.getWatchClient(), SCOPE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ledgerManager.close();
+        etcd.close();
+    }
+
+    /**
+     * Records the notifications of a listener.
+     */
+    private static class RecordingListener implements LedgerMetadataListener {
+
+        private final BlockingQueue<Versioned<LedgerMetadata>> notifications = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onChanged(long ledgerId, Versioned<LedgerMetadata> metadata) {
+            notifications.add(metadata);
+        }
+
+        Versioned<LedgerMetadata> next() throws InterruptedException {
+            Versioned<LedgerMetadata> metadata = notifications.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull("The listener should be notified", metadata);
+            return metadata;
+        }
+
+        void assertNotNotified() throws InterruptedException {
+            assertNull(notifications.poll(NO_NOTIFICATION_MS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private static LedgerMetadata metadata(long ledgerId, boolean closed) {
+        LedgerMetadataBuilder builder = LedgerMetadataBuilder.create()
+            .withId(ledgerId)
+            .withEnsembleSize(3)
+            .withWriteQuorumSize(3)
+            .withAckQuorumSize(2)
+            .withDigestType(DigestType.CRC32C)
+            .withPassword("password".getBytes(UTF_8))
+            .newEnsembleEntry(0L, Arrays.asList(
+                BookieId.parse("bookie-0:3181"),
+                BookieId.parse("bookie-1:3181"),
+                BookieId.parse("bookie-2:3181")));
+        if (closed) {
+            builder.withClosedState().withLastEntryId(9L).withLength(1000L);
+        }
+        return builder.build();
+    }
+
+    private static String ledgerKey(long ledgerId) {
+        return EtcdUtils.getLedgerKey(SCOPE, ledgerId);
+    }
+
+    /**
+     * Write the metadata of a ledger, and return its version.
+     */
+    private long putLedger(long ledgerId, boolean closed) throws Exception {
+        return etcd.put(ledgerKey(ledgerId), serDe.serialize(metadata(ledgerId, closed)));
+    }
+
+    private void putUnparsableLedger(long ledgerId) {
+        etcd.put(ledgerKey(ledgerId), "not a ledger metadata".getBytes(UTF_8));
+    }
+
+    private static void assertVersion(long expectedVersion, Versioned<LedgerMetadata> metadata) {
+        assertEquals(expectedVersion, ((LongVersion) metadata.getVersion()).getLongVersion());
+    }
+
+    @Test
+    public void testReadDenseLedgers() throws Exception {
+        Map<Long, Long> versions = new HashMap<>();
+        List<Long> ledgerIds = new ArrayList<>();
+        for (long ledgerId = 0; ledgerId < 20; ledgerId++) {
+            if (ledgerId == 9) {
+                putUnparsableLedger(ledgerId);
+            } else if (ledgerId != 5 && ledgerId != 7) {
+                versions.put(ledgerId, putLedger(ledgerId, false));
+            }
+            // an existing ledger which is not requested
+            if (ledgerId != 10) {
+                ledgerIds.add(ledgerId);
+            }
+        }
+        versions.remove(10L);
+
+        Map<Long, Versioned<LedgerMetadata>> result =
+            FutureUtils.result(ledgerManager.readLedgerMetadata(ledgerIds));
+        assertEquals(versions.keySet(), result.keySet());
+        for (Map.Entry<Long, Long> entry : versions.entrySet()) {
+            assertVersion(entry.getValue(), result.get(entry.getKey()));
+            assertEquals(metadata(entry.getKey(), false), result.get(entry.getKey()).getValue());
+        }
+        // the ledgers are read at once by a range read
+        assertEquals(1, etcd.getNumOfRangeReads());
+        assertEquals(0, etcd.getNumOfTxnReads());
+    }
+
+    @Test
+    public void testReadSparseLedgers() throws Exception {
+        Map<Long, Long> versions = new HashMap<>();
+        List<Long> ledgerIds = new ArrayList<>();
+        for (long ledgerId = 0; ledgerId <= 10000; ledgerId += 1000) {
+            if (ledgerId == 5000) {
+                putUnparsableLedger(ledgerId);
+            } else if (ledgerId != 3000 && ledgerId != 10000) {
+                versions.put(ledgerId, putLedger(ledgerId, false));
+            }
+            ledgerIds.add(ledgerId);
+        }
+        // unrequested ledgers between the requested ones
+        putLedger(1500L, false);
+        putLedger(2500L, false);
+
+        Map<Long, Versioned<LedgerMetadata>> result =
+            FutureUtils.result(ledgerManager.readLedgerMetadata(ledgerIds));
+        assertEquals(versions.keySet(), result.keySet());
+        for (Map.Entry<Long, Long> entry : versions.entrySet()) {
+            assertVersion(entry.getValue(), result.get(entry.getKey()));
+        }
+        // the ledgers are read at once by a txn of gets
+        assertEquals(0, etcd.getNumOfRangeReads());
+        assertEquals(1, etcd.getNumOfTxnReads());
+    }
+
+    @Test
+    public void testReadLedgersInManyBatches() throws Exception {
+        List<Long> ledgerIds = new ArrayList<>();
+        for (long ledgerId = 0; ledgerId < 300; ledgerId++) {
+            putLedger(ledgerId, false);
+            ledgerIds.add(ledgerId);
+        }
+        Map<Long, Versioned<LedgerMetadata>> result =
+            FutureUtils.result(ledgerManager.readLedgerMetadata(ledgerIds));
+        assertEquals(300, result.size());
+        assertEquals(3, etcd.getNumOfRangeReads());
+    }
+
+    @Test
+    public void testWatchSeveralLedgersOfARange() throws Exception {
+        long version1 = putLedger(1L, false);
+        long version2 = putLedger(2L, false);
+        long version3 = putLedger(3L, false);
+        RecordingListener listener1 = new RecordingListener();
+        RecordingListener listener2 = new RecordingListener();
+        RecordingListener listener3 = new RecordingListener();
+        ledgerManager.registerLedgerMetadataListener(1L, listener1);
+        ledgerManager.registerLedgerMetadataListener(2L, listener2);
+        ledgerManager.registerLedgerMetadataListener(3L, listener3);
+        assertVersion(version1, listener1.next());
+        assertVersion(version2, listener2.next());
+        assertVersion(version3, listener3.next());
+        // the ledgers of the range share a single watch
+        assertEquals(1, etcd.getNumOfWatches());
+
+        // only the listeners of the changed ledger are notified
+        long newVersion2 = putLedger(2L, true);
+        Versioned<LedgerMetadata> metadata2 = listener2.next();
+        assertVersion(newVersion2, metadata2);
+        assertEquals(metadata(2L, true), metadata2.getValue());
+        listener1.assertNotNotified();
+        listener3.assertNotNotified();
+
+        // the changes of the unwatched ledgers of the range are ignored
+        putLedger(4L, false);
+        listener1.assertNotNotified();
+        listener2.assertNotNotified();
+        listener3.assertNotNotified();
+
+        // a deleted ledger is not watched any more
+        etcd.delete(ledgerKey(3L));
+        putLedger(3L, true);
+        listener3.assertNotNotified();
+
+        LedgerMetadataRangeWatcher rangeWatcher = ledgerManager.getLedgerMetadataRangeWatcher(1L);
+        ledgerManager.unregisterLedgerMetadataListener(1L, listener1);
+        assertFalse(rangeWatcher.isClosed());
+        ledgerManager.unregisterLedgerMetadataListener(2L, listener2);
+        // the range watcher is closed with its last listener
+        assertTrue(rangeWatcher.isClosed());
+        assertNull(ledgerManager.getLedgerMetadataRangeWatcher(1L));
+        assertEquals(1, etcd.getNumOfWatches());
+    }
+
+    @Test
+    public void testRewatchAfterCompaction() throws Exception {
+        long version1 = putLedger(1L, false);
+        long version2 = putLedger(2L, false);
+        RecordingListener listener1 = new RecordingListener();
+        RecordingListener listener2 = new RecordingListener();
+        ledgerManager.registerLedgerMetadataListener(1L, listener1);
+        ledgerManager.registerLedgerMetadataListener(2L, listener2);
+        assertVersion(version1, listener1.next());
+        assertVersion(version2, listener2.next());
+
+        // the watch fails on compaction, the changes made meanwhile are received from the read of the rewatch
+        etcd.compact();
+        long newVersion1 = putLedger(1L, true);
+        assertVersion(newVersion1, listener1.next());
+        // the unchanged ledgers are not notified again
+        listener2.assertNotNotified();
+        assertEquals(2, etcd.getNumOfWatches());
+
+        // the changes following the rewatch are received from the new watch
+        long newVersion2 = putLedger(2L, true);
+        assertVersion(newVersion2, listener2.next());
+        listener1.assertNotNotified();
+    }
+
+    @Test
+    public void testRetryFailedReadsWithBackoff() throws Exception {
+        long version = putLedger(1L, false);
+        etcd.failReads(2);
+        RecordingListener listener = new RecordingListener();
+        long startNanos = System.nanoTime();
+        ledgerManager.registerLedgerMetadataListener(1L, listener);
+        assertVersion(version, listener.next());
+        // the reads are retried after growing backoffs, starting from 100ms
+        assertTrue(System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(3, etcd.getNumOfRangeReads());
+    }
+
+    @Test
+    public void testWatchUnparsableLedger() throws Exception {
+        long version1 = putLedger(1L, false);
+        putUnparsableLedger(2L);
+        RecordingListener listener1 = new RecordingListener();
+        RecordingListener listener2 = new RecordingListener();
+        ledgerManager.registerLedgerMetadataListener(1L, listener1);
+        ledgerManager.registerLedgerMetadataListener(2L, listener2);
+        // the unparsable metadata of a ledger doesn't fail the read of the others
+        assertVersion(version1, listener1.next());
+        listener2.assertNotNotified();
+
+        // the ledger is still watched, and its listeners are notified of its next parsable metadata
+        putUnparsableLedger(2L);
+        listener2.assertNotNotified();
+        long version2 = putLedger(2L, false);
+        assertVersion(version2, listener2.next());
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.metadata.etcd;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.etcd.jetcd.ByteSequence;
+import io.etcd.jetcd.KV;
+import io.etcd.jetcd.KeyValue;
+import io.etcd.jetcd.Response;
+import io.etcd.jetcd.Txn;
+import io.etcd.jetcd.kv.GetResponse;
+import io.etcd.jetcd.kv.TxnResponse;
+import io.etcd.jetcd.op.Op;
+import io.etcd.jetcd.options.GetOption;
+import io.etcd.jetcd.options.WatchOption;
+import io.etcd.jetcd.watch.WatchEvent;
+import io.etcd.jetcd.watch.WatchResponse;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * An in-memory stand-in of the key-value and watch services of etcd, as used by {@link EtcdLedgerManager}.
+ *
+ * <p>Each change bumps the revision of the store. The watches receive the changes of their range from the revision
+ * they start from, unless the revision was compacted, in which case they fail. The responses are delivered
+ * asynchronously, in order, by a single thread.
+ */
+class FakeEtcd implements AutoCloseable {
+
+    private static final class Change {
+        final long revision;
+        final WatchEvent.EventType type;
+        final String key;
+        final KeyValue kv;
+
+        Change(long revision, WatchEvent.EventType type, String key, KeyValue kv) {
+            this.revision = revision;
+            this.type = type;
+            this.key = key;
+            this.kv = kv;
+        }
+    }
+
+    private final class Watch {
+        final String startKey;
+        final String endKey;
+        final BiConsumer<WatchResponse, Throwable> consumer;
+        boolean cancelled = false;
+
+        Watch(String startKey, String endKey, BiConsumer<WatchResponse, Throwable> consumer) {
+            this.startKey = startKey;
+            this.endKey = endKey;
+            this.consumer = consumer;
+        }
+
+        boolean contains(String key) {
+            return inRange(key, startKey, endKey);
+        }
+    }
+
+    private final KV kvClient = mock(KV.class);
+    private final EtcdWatchClient watchClient = mock(EtcdWatchClient.class);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final NavigableMap<String, KeyValue> kvs = new TreeMap<>();
+    private final List<Change> changes = new ArrayList<>();
+    private final List<Watch> watches = new ArrayList<>();
+    private long revision = 1L;
+    private long compactedRevision = 0L;
+    private int numOfReadsToFail = 0;
+    private final AtomicInteger numOfRangeReads = new AtomicInteger();
+    private final AtomicInteger numOfTxnReads = new AtomicInteger();
+    private final AtomicInteger numOfWatches = new AtomicInteger();
+
+    FakeEtcd() {
+        when(kvClient.get(any(ByteSequence.class), any(GetOption.class)))
+            .thenAnswer(invocation -> get(invocation.getArgument(0), invocation.getArgument(1)));
+        when(kvClient.txn()).thenAnswer(invocation -> newTxn());
+        when(watchClient.watch(any(ByteSequence.class), any(WatchOption.class), any()))
+            .thenAnswer(invocation -> watch(invocation.getArgument(0), invocation.getArgument(1),
+                invocation.getArgument(2)));
+    }
+
+    KV getKvClient() {
+        return kvClient;
+    }
+
+    EtcdWatchClient getWatchClient() {
+        return watchClient;
+    }
+
+    int getNumOfRangeReads() {
+        return numOfRangeReads.get();
+    }
+
+    int getNumOfTxnReads() {
+        return numOfTxnReads.get();
+    }
+
+    int getNumOfWatches() {
+        return numOfWatches.get();
+    }
+
+    private static boolean inRange(String key, String startKey, String endKey) {
+        return key.compareTo(startKey) >= 0 && (null == endKey ? key.equals(startKey) : key.compareTo(endKey) < 0);
+    }
+
+    private static Response.Header header(long revision) {
+        Response.Header header = mock(Response.Header.class);
+        when(header.getRevision()).thenReturn(revision);
+        return header;
+    }
+
+    private static KeyValue keyValue(String key, byte[] value, long modRevision) {
+        KeyValue kv = mock(KeyValue.class);
+        when(kv.getKey()).thenReturn(ByteSequence.from(key, UTF_8));
+        when(kv.getValue()).thenReturn(ByteSequence.from(value));
+        when(kv.getModRevision()).thenReturn(modRevision);
+        return kv;
+    }
+
+    private static GetResponse getResponse(List<KeyValue> kvs, long revision) {
+        GetResponse response = mock(GetResponse.class);
+        Response.Header header = header(revision);
+        when(response.getHeader()).thenReturn(header);
+        when(response.getKvs()).thenReturn(kvs);
+        when(response.getCount()).thenReturn((long) kvs.size());
+        return response;
+    }
+
+    /**
+     * Put a value, and return the revision of the change.
+     */
+    synchronized long put(String key, byte[] value) {
+        long modRevision = ++revision;
+        KeyValue kv = keyValue(key, value, modRevision);
+        kvs.put(key, kv);
+        onChange(new Change(modRevision, WatchEvent.EventType.PUT, key, kv));
+        return modRevision;
+    }
+
+    synchronized void delete(String key) {
+        if (null != kvs.remove(key)) {
+            long modRevision = ++revision;
+            onChange(new Change(modRevision, WatchEvent.EventType.DELETE, key, keyValue(key, new byte[0],
+                modRevision)));
+        }
+    }
+
+    /**
+     * Compact the history of the changes, failing the current watches as an etcd server does.
+     */
+    synchronized void compact() {
+        compactedRevision = revision;
+        changes.clear();
+        for (Watch watch : watches) {
+            fail(watch, new IllegalStateException("Required revision has been compacted"));
+        }
+        watches.clear();
+    }
+
+    /**
+     * Fail the next reads, either range or txn reads.
+     */
+    synchronized void failReads(int numOfReads) {
+        numOfReadsToFail = numOfReads;
+    }
+
+    private synchronized boolean shouldFailRead() {
+        if (numOfReadsToFail > 0) {
+            numOfReadsToFail--;
+            return true;
+        }
+        return false;
+    }
+
+    // guarded by this
+    private void onChange(Change change) {
+        changes.add(change);
+        for (Watch watch : watches) {
+            if (watch.contains(change.key)) {
+                deliver(watch, change);
+            }
+        }
+    }
+
+    private void deliver(Watch watch, Change change) {
+        WatchEvent event = mock(WatchEvent.class);
+        when(event.getEventType()).thenReturn(change.type);
+        when(event.getKeyValue()).thenReturn(change.kv);
+        WatchResponse response = mock(WatchResponse.class);
+        Response.Header header = header(change.revision);
+        when(response.getHeader()).thenReturn(header);
+        when(response.getEvents()).thenReturn(Collections.singletonList(event));
+        executor.execute(() -> {
+            synchronized (FakeEtcd.this) {
+                if (watch.cancelled) {
+                    return;
+                }
+            }
+            watch.consumer.accept(response, null);
+        });
+    }
+
+    private void fail(Watch watch, Throwable cause) {
+        watch.cancelled = true;
+        executor.execute(() -> watch.consumer.accept(null, cause));
+    }
+
+    private CompletableFuture<GetResponse> get(ByteSequence key, GetOption option) {
+        numOfRangeReads.incrementAndGet();
+        String startKey = key.toString(UTF_8);
+        String endKey = option.getEndKey().map(endKeyBs -> endKeyBs.toString(UTF_8)).orElse(null);
+        return CompletableFuture.supplyAsync(() -> {
+            if (shouldFailRead()) {
+                throw new IllegalStateException("Injected read failure");
+            }
+            synchronized (FakeEtcd.this) {
+                List<KeyValue> result = new ArrayList<>();
+                for (KeyValue kv : kvs.tailMap(startKey, true).values()) {
+                    if (!inRange(kv.getKey().toString(UTF_8), startKey, endKey)) {
+                        break;
+                    }
+                    result.add(kv);
+                }
+                return getResponse(result, revision);
+            }
+        }, executor);
+    }
+
+    private Txn newTxn() {
+        Txn txn = mock(Txn.class);
+        List<Op> ops = new ArrayList<>();
+        when(txn.Then(any())).thenAnswer(invocation -> {
+            for (Object op : invocation.getArguments()) {
+                if (op instanceof Op[]) {
+                    ops.addAll(Arrays.asList((Op[]) op));
+                } else {
+                    ops.add((Op) op);
+                }
+            }
+            return txn;
+        });
+        when(txn.commit()).thenAnswer(invocation -> commit(ops));
+        return txn;
+    }
+
+    private CompletableFuture<TxnResponse> commit(List<Op> gets) {
+        numOfTxnReads.incrementAndGet();
+        List<String> keys = new ArrayList<>();
+        for (Op get : gets) {
+            keys.add(keyOf(get));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            if (shouldFailRead()) {
+                throw new IllegalStateException("Injected read failure");
+            }
+            synchronized (FakeEtcd.this) {
+                List<GetResponse> getResponses = new ArrayList<>();
+                for (String key : keys) {
+                    KeyValue kv = kvs.get(key);
+                    getResponses.add(getResponse(
+                        null == kv ? Collections.emptyList() : Collections.singletonList(kv), revision));
+                }
+                TxnResponse response = mock(TxnResponse.class);
+                Response.Header header = header(revision);
+                when(response.getHeader()).thenReturn(header);
+                when(response.getGetResponses()).thenReturn(getResponses);
+                when(response.isSucceeded()).thenReturn(true);
+                return response;
+            }
+        }, executor);
+    }
+
+    /**
+     * The key of an operation, which jetcd keeps to itself.
+     */
+    private static String keyOf(Op op) {
+        try {
+            Field field = Op.class.getDeclaredField("key");
+            field.setAccessible(true);
+            Object key = field.get(op);
+            if (key instanceof ByteSequence) {
+                return ((ByteSequence) key).toString(UTF_8);
+            }
+            // a protobuf byte string
+            return (String) key.getClass().getMethod("toStringUtf8").invoke(key);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to get the key of operation " + op, e);
+        }
+    }
+
+    private synchronized CompletableFuture<EtcdWatcher> watch(ByteSequence key,
+                                                              WatchOption option,
+                                                              BiConsumer<WatchResponse, Throwable> consumer) {
+        numOfWatches.incrementAndGet();
+        Watch watch = new Watch(
+            key.toString(UTF_8),
+            option.getEndKey().map(endKeyBs -> endKeyBs.toString(UTF_8)).orElse(null),
+            consumer);
+        long fromRevision = option.getRevision() > 0 ? option.getRevision() : revision + 1;
+        if (fromRevision <= compactedRevision) {
+            fail(watch, new IllegalStateException("Required revision has been compacted"));
+        } else {
+            watches.add(watch);
+            for (Change change : changes) {
+                if (change.revision >= fromRevision && watch.contains(change.key)) {
+                    deliver(watch, change);
+                }
+            }
+        }
+
+        EtcdWatcher watcher = mock(EtcdWatcher.class);
+        when(watcher.closeAsync()).thenAnswer(invocation -> {
+            synchronized (FakeEtcd.this) {
+                watch.cancelled = true;
+                watches.remove(watch);
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+        return CompletableFuture.completedFuture(watcher);
+    }
+
+    @Override
+    public void close() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.bookkeeper.util.SnapshotMap;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmark of the entry offset lookups of the interleaved ledger index, from many threads.
+ *
+ * <p>With a page limit lower than the number of index pages, the lookups also exercise the reclaim of clean
+ * pages and the reads of the index files.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(16)
+@Fork(1)
+@Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class IndexInMemPageMgrBenchmark {
+
+    private static final int PAGE_SIZE = 8192;
+    private static final int ENTRIES_PER_PAGE = PAGE_SIZE / 8;
+
+    /**
+     * State holder of the ledger cache.
+     */
+    @State(Scope.Benchmark)
+    public static class LedgerCacheState {
+        @Param({"100", "1000"})
+        private int numLedgers;
+
+        @Param({"16"})
+        private int pagesPerLedger;
+
+        // -1 to keep all the pages in memory
+        @Param({"-1", "256"})
+        private int pageLimit;
+
+        private File indexDir;
+        private LedgerCacheImpl ledgerCache;
+        private long entriesPerLedger;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            indexDir = IOUtils.createTempDir("index-benchmark", ".dir");
+            File curDir = BookieImpl.getCurrentDirectory(indexDir);
+            Files.createDirectories(curDir.toPath());
+
+            ServerConfiguration conf = new ServerConfiguration();
+            conf.setPageSize(PAGE_SIZE);
+            conf.setPageLimit(pageLimit);
+            conf.setLedgerDirNames(new String[] { indexDir.getAbsolutePath() });
+            LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, new File[] { curDir },
+                    new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+
+            ledgerCache = new LedgerCacheImpl(conf, new SnapshotMap<Long, Boolean>(), ledgerDirsManager);
+            entriesPerLedger = (long) pagesPerLedger * ENTRIES_PER_PAGE;
+            for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+                ledgerCache.setMasterKey(ledgerId, new byte[0]);
+                for (long entryId = 0; entryId < entriesPerLedger; entryId++) {
+                    ledgerCache.putEntryOffset(ledgerId, entryId, (ledgerId << 32) | (entryId + 1));
+                }
+            }
+            ledgerCache.flushLedger(true);
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws Exception {
+            ledgerCache.close();
+            FileUtils.deleteDirectory(indexDir);
+        }
+    }
+
+    @Benchmark
+    public long getEntryOffset(LedgerCacheState s) throws Exception {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        return s.ledgerCache.getEntryOffset(r.nextLong(s.numLedgers), r.nextLong(s.entriesPerLedger));
+    }
+}
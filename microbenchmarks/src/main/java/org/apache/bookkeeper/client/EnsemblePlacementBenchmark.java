@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.client;
+
+import io.netty.util.HashedWheelTimer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.feature.SettableFeatureProvider;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.net.DNSToSwitchMapping;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarking the selection of the bookies of new ensembles by the rack aware placement policy, by number of
+ * threads creating ledgers and by cluster size, optionally while bookies keep leaving and joining the cluster.
+ */
+@BenchmarkMode({Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 5, timeUnit = TimeUnit.SECONDS)
+public class EnsemblePlacementBenchmark {
+
+    private static final int BOOKIES_PER_RACK = 10;
+
+    @Param({"30", "300", "3000"})
+    int numBookies;
+
+    @Param({"false", "true"})
+    boolean churn;
+
+    @Param({"3"})
+    int ensembleSize;
+
+    HashedWheelTimer timer;
+    RackawareEnsemblePlacementPolicy policy;
+    Set<BookieId> writableBookies;
+    Thread churnThread;
+    volatile boolean running;
+
+    /**
+     * Resolves the bookie ip 10.0.x.y to the rack /rack-x.
+     */
+    public static class RackResolver implements DNSToSwitchMapping {
+        @Override
+        public List<String> resolve(List<String> names) {
+            List<String> racks = new ArrayList<>(names.size());
+            for (String name : names) {
+                String[] parts = name.split("\\.");
+                racks.add(parts.length == 4 ? "/rack-" + parts[2] : "/default-rack");
+            }
+            return racks;
+        }
+
+        @Override
+        public void reloadCachedMappings() {
+        }
+
+        @Override
+        public boolean useHostName() {
+            return false;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void prepare() {
+        timer = new HashedWheelTimer();
+        policy = new RackawareEnsemblePlacementPolicy();
+        policy.initialize(new ClientConfiguration(), Optional.of(new RackResolver()), timer,
+                SettableFeatureProvider.DISABLE_ALL, NullStatsLogger.INSTANCE,
+                BookieSocketAddress.LEGACY_BOOKIEID_RESOLVER);
+        policy.withDefaultRack("/default-rack");
+
+        writableBookies = new HashSet<>();
+        for (int i = 0; i < numBookies; i++) {
+            writableBookies.add(BookieId.parse("10.0." + (i / BOOKIES_PER_RACK) + "." + (i % BOOKIES_PER_RACK)
+                    + ":3181"));
+        }
+        policy.onClusterChanged(writableBookies, Collections.emptySet());
+
+        if (churn) {
+            running = true;
+            List<BookieId> bookies = new ArrayList<>(writableBookies);
+            churnThread = new Thread(() -> {
+                // a bookie leaves and joins back the cluster every millisecond
+                int i = 0;
+                Set<BookieId> bookiesWithOneLeft = new HashSet<>();
+                while (running) {
+                    BookieId bookie = bookies.get(i++ % bookies.size());
+                    bookiesWithOneLeft.clear();
+                    bookiesWithOneLeft.addAll(writableBookies);
+                    bookiesWithOneLeft.remove(bookie);
+                    policy.onClusterChanged(bookiesWithOneLeft, Collections.emptySet());
+                    policy.onClusterChanged(writableBookies, Collections.emptySet());
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }, "bookie-churn");
+            churnThread.start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        running = false;
+        if (churnThread != null) {
+            churnThread.join();
+        }
+        policy.uninitalize();
+        timer.stop();
+    }
+
+    private List<BookieId> newEnsemble() throws BKException {
+        return policy.newEnsemble(ensembleSize, ensembleSize, ensembleSize - 1, Collections.emptyMap(),
+                Collections.emptySet()).getResult();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<BookieId> newEnsemble1Thread() throws Exception {
+        return newEnsemble();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<BookieId> newEnsemble4Threads() throws Exception {
+        return newEnsemble();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public List<BookieId> newEnsemble16Threads() throws Exception {
+        return newEnsemble();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.meta;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.LedgerMetadataBuilder;
+import org.apache.bookkeeper.client.api.DigestType;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.net.BookieId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarking the parsing of ledger metadata, with the different metadata format versions.
+ */
+@BenchmarkMode({Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class LedgerMetadataSerDeBenchmark {
+
+    private static final int NUM_BOOKIES = 50;
+
+    @Param({"3", "4"})
+    int formatVersion;
+
+    @Param({"1", "100", "1000"})
+    int numEnsembles;
+
+    @Param({"5"})
+    int ensembleSize;
+
+    LedgerMetadataSerDe serDe;
+    byte[] serialized;
+
+    @Setup
+    public void prepare() throws Exception {
+        LedgerMetadataBuilder builder = LedgerMetadataBuilder.create()
+                .withId(1L)
+                .withMetadataFormatVersion(formatVersion)
+                .withEnsembleSize(ensembleSize)
+                .withWriteQuorumSize(ensembleSize)
+                .withAckQuorumSize(ensembleSize)
+                .withDigestType(DigestType.CRC32C)
+                .withPassword("test-benchmark-key".getBytes(UTF_8))
+                .withCreationTime(System.currentTimeMillis())
+                .storingCreationTime(true);
+
+        // each ensemble change replaces a single bookie of the previous ensemble
+        List<BookieId> ensemble = new ArrayList<>();
+        for (int i = 0; i < ensembleSize; i++) {
+            ensemble.add(bookie(i));
+        }
+        for (int i = 0; i < numEnsembles; i++) {
+            builder.newEnsembleEntry(i * 10000L, new ArrayList<>(ensemble));
+            ensemble.set(i % ensembleSize, bookie((ensembleSize + i) % NUM_BOOKIES));
+        }
+        builder.withClosedState().withLastEntryId(numEnsembles * 10000L).withLength(1L << 30);
+
+        this.serDe = new LedgerMetadataSerDe();
+        this.serialized = serDe.serialize(builder.build());
+    }
+
+    private static BookieId bookie(int i) {
+        return BookieId.parse("bookie-" + i + ".example.com:3181");
+    }
+
+    /**
+     * Parse the metadata and only read its state, as done when listing ledgers.
+     */
+    @Benchmark
+    public LedgerMetadata.State parseState() throws Exception {
+        return serDe.parseConfig(serialized, 1L, Optional.empty()).getState();
+    }
+
+    /**
+     * Parse the metadata and read all its ensembles, as done when checking the ledger placement.
+     */
+    @Benchmark
+    public int parseEnsembles() throws Exception {
+        return serDe.parseConfig(serialized, 1L, Optional.empty()).getAllEnsembles().size();
+    }
+}